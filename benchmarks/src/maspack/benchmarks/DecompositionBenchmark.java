@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import maspack.matrix.CholeskyDecomposition;
+import maspack.matrix.Matrix3d;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.PolarDecomposition3d;
+import maspack.matrix.SVDecomposition3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the dense decompositions used by the FEM materials
+ * (polar and singular value decompositions of deformation gradients) and
+ * by the dense solvers (Cholesky).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecompositionBenchmark {
+
+   /**
+    * Size of the matrix factored by the Cholesky benchmark.
+    */
+   @Param({"6", "24", "96"})
+   public int choleskySize;
+
+   MatrixNd S = new MatrixNd();
+   CholeskyDecomposition cholesky = new CholeskyDecomposition();
+
+   // deformation gradient, with some stretch and rotation
+   Matrix3d F = new Matrix3d();
+   PolarDecomposition3d polar = new PolarDecomposition3d();
+   SVDecomposition3d svd = new SVDecomposition3d();
+
+   @Setup
+   public void setup() {
+      Random rand = new Random (0x1234);
+      // create a symmetric positive definite matrix
+      MatrixNd A = new MatrixNd (choleskySize, choleskySize);
+      A.setRandom (-0.5, 0.5, rand);
+      S.setSize (choleskySize, choleskySize);
+      S.mulTransposeLeft (A, A);
+      for (int i=0; i<choleskySize; i++) {
+         S.set (i, i, S.get (i, i) + 1.0);
+      }
+      F.setRandom (-0.2, 0.2, rand);
+      F.m00 += 1.1;
+      F.m11 += 0.9;
+      F.m22 += 1.0;
+   }
+
+   @Benchmark
+   public CholeskyDecomposition cholesky() {
+      cholesky.factor (S);
+      return cholesky;
+   }
+
+   @Benchmark
+   public PolarDecomposition3d polar3d() {
+      polar.factor (F);
+      return polar;
+   }
+
+   @Benchmark
+   public SVDecomposition3d svd3d() {
+      svd.factor (F);
+      return svd;
+   }
+}
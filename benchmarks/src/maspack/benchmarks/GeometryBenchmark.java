@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import maspack.collision.IntersectionContour;
+import maspack.collision.SurfaceMeshIntersector;
+import maspack.geometry.BVFeatureQuery;
+import maspack.geometry.DistanceGrid;
+import maspack.geometry.Face;
+import maspack.geometry.MeshFactory;
+import maspack.geometry.PolygonalMesh;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector2d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.Vector3i;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the geometric queries used by collision handling: distance
+ * grid queries, nearest face queries using an AABB tree, and mesh
+ * intersection contours.
+ *
+ * <p>Point queries are made for a fixed set of random points, cycling
+ * through the set on each invocation. Building the signed distance grid and
+ * finding the intersection contours both require the native library used
+ * by {@link maspack.geometry.RobustPreds} for robust predicates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+
+   private static final int NUM_POINTS = 1024;
+
+   PolygonalMesh mesh0;
+   PolygonalMesh mesh1;
+   DistanceGrid grid;
+   Point3d[] points;
+   int pointIdx;
+
+   Vector3d norm = new Vector3d();
+   Point3d nearPnt = new Point3d();
+   Vector2d uv = new Vector2d();
+   BVFeatureQuery query = new BVFeatureQuery();
+   SurfaceMeshIntersector intersector = new SurfaceMeshIntersector();
+
+   @Setup
+   public void setup() {
+      Random rand = new Random (0x1234);
+      mesh0 = MeshFactory.createIcosahedralSphere (1.0, 4);
+      mesh1 = MeshFactory.createIcosahedralSphere (1.0, 4);
+      mesh1.transform (new RigidTransform3d (0.8, 0.1, 0.05, 0.3, 0.2, 0.1));
+      grid = mesh0.getSignedDistanceGrid (0.1, new Vector3i (32, 32, 32));
+      // build the bounding volume tree before measuring queries
+      mesh0.getBVTree();
+      points = new Point3d[NUM_POINTS];
+      for (int i=0; i<NUM_POINTS; i++) {
+         points[i] = new Point3d (
+            rand.nextDouble()-0.5, rand.nextDouble()-0.5, rand.nextDouble()-0.5);
+         points[i].scale (2.2);
+      }
+      pointIdx = 0;
+   }
+
+   private Point3d nextPoint() {
+      Point3d pnt = points[pointIdx];
+      pointIdx = (pointIdx+1) % NUM_POINTS;
+      return pnt;
+   }
+
+   @Benchmark
+   public double distanceGridQuery() {
+      return grid.getLocalDistanceAndNormal (norm, nextPoint());
+   }
+
+   @Benchmark
+   public Face nearestFaceQuery() {
+      return query.nearestFaceToPoint (nearPnt, uv, mesh0, nextPoint());
+   }
+
+   @Benchmark
+   public ArrayList<IntersectionContour> meshIntersection() {
+      return intersector.findContours (mesh0, mesh1);
+   }
+}
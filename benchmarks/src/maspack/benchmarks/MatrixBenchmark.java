@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import maspack.matrix.Matrix3d;
+import maspack.matrix.Matrix6d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the basic fixed-size matrix operations used throughout
+ * the FEM and rigid body code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark {
+
+   Matrix3d M3a = new Matrix3d();
+   Matrix3d M3b = new Matrix3d();
+   Matrix3d M3r = new Matrix3d();
+   Matrix6d M6a = new Matrix6d();
+   Matrix6d M6b = new Matrix6d();
+   Matrix6d M6r = new Matrix6d();
+
+   @Setup
+   public void setup() {
+      Random rand = new Random (0x1234);
+      M3a.setRandom (-0.5, 0.5, rand);
+      M3b.setRandom (-0.5, 0.5, rand);
+      M6a.setRandom (-0.5, 0.5, rand);
+      M6b.setRandom (-0.5, 0.5, rand);
+      // add to the diagonals to ensure the matrices are invertible
+      for (int i=0; i<3; i++) {
+         M3a.set (i, i, M3a.get (i, i) + 3.0);
+      }
+      for (int i=0; i<6; i++) {
+         M6a.set (i, i, M6a.get (i, i) + 6.0);
+      }
+   }
+
+   @Benchmark
+   public Matrix3d mul3d() {
+      M3r.mul (M3a, M3b);
+      return M3r;
+   }
+
+   @Benchmark
+   public Matrix3d invert3d() {
+      M3r.invert (M3a);
+      return M3r;
+   }
+
+   @Benchmark
+   public Matrix6d mul6d() {
+      M6r.mul (M6a, M6b);
+      return M6r;
+   }
+
+   @Benchmark
+   public Matrix6d invert6d() {
+      M6r.invert (M6a);
+      return M6r;
+   }
+}
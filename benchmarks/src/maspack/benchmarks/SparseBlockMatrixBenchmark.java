@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import maspack.matrix.Matrix3x3Block;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the multiplication of a vector by a sparse block matrix.
+ * The matrix is a block-banded matrix of 3x3 blocks, which approximates the
+ * structure of a FEM stiffness matrix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparseBlockMatrixBenchmark {
+
+   /**
+    * Number of 3x3 block rows and columns in the matrix.
+    */
+   @Param({"1000", "10000"})
+   public int numBlocks;
+
+   /**
+    * Number of off-diagonal blocks on each side of the diagonal in each
+    * block row.
+    */
+   @Param({"8"})
+   public int bandWidth;
+
+   SparseBlockMatrix M;
+   VectorNd x;
+   VectorNd y;
+
+   @Setup
+   public void setup() {
+      Random rand = new Random (0x1234);
+      int[] sizes = new int[numBlocks];
+      for (int i=0; i<numBlocks; i++) {
+         sizes[i] = 3;
+      }
+      M = new SparseBlockMatrix (sizes, sizes);
+      for (int bi=0; bi<numBlocks; bi++) {
+         int bj0 = Math.max (0, bi-bandWidth);
+         int bj1 = Math.min (numBlocks-1, bi+bandWidth);
+         for (int bj=bj0; bj<=bj1; bj++) {
+            Matrix3x3Block blk = new Matrix3x3Block();
+            blk.setRandom (-0.5, 0.5, rand);
+            M.addBlock (bi, bj, blk);
+         }
+      }
+      x = new VectorNd (M.colSize());
+      y = new VectorNd (M.rowSize());
+      x.setRandom (-0.5, 0.5, rand);
+   }
+
+   @Benchmark
+   public VectorNd mul() {
+      M.mul (y, x);
+      return y;
+   }
+}
@@ -0,0 +1,776 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.driver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.properties.Property;
+import maspack.util.ReaderTokenizer;
+import artisynth.core.modelbase.ComponentUtils;
+import artisynth.core.probes.BinaryProbeWriter;
+import artisynth.core.probes.NumericOutputProbe;
+import artisynth.core.probes.Probe;
+import artisynth.core.util.TimeBase;
+import artisynth.core.workspace.RootModel;
+
+/**
+ * Runs a set of simulations headlessly, without a GUI or {@link Scheduler},
+ * for a parameter sweep over a given {@link RootModel} class. Each
+ * parameter is given a list of values, and one simulation is run for every
+ * combination of parameter values (i.e., for each point of the parameter
+ * grid). Parameters are either property paths relative to the root model
+ * (such as <code>"models/mech/models/fem:youngsModulus"</code>), whose
+ * values are set after the model is built, or arguments to the model's
+ * {@link RootModel#build build} method, whose names begin with
+ * '<code>-</code>' and which are passed to <code>build</code> as a name/value
+ * pair.
+ *
+ * <p>Each run uses its own instance of the model, and runs may be performed
+ * concurrently in a single JVM (see {@link #setNumThreads setNumThreads}),
+ * so that startup and JIT compilation costs are shared among runs. For each
+ * run, a subdirectory of the output directory is created, into which the
+ * data of each {@link NumericOutputProbe} is streamed as it is generated
+ * (as text, or in binary if {@link #setBinaryOutput setBinaryOutput} is
+ * enabled), together with a file <code>params.txt</code> giving the parameter values
+ * for the run. A summary file <code>runs.csv</code> is also written to the
+ * output directory.
+ *
+ * <p>Models are advanced in steps of their maximum step size, with input
+ * probes, controllers, monitors and output probes applied by {@link
+ * RootModel#advance RootModel.advance()}, as is done by the {@link
+ * Scheduler}. Models are never rendered. Since runs are performed in
+ * parallel, models which are to be run concurrently should not share
+ * mutable state among instances (through static fields, for instance).
+ */
+public class BatchRunner {
+
+   public static final int DEFAULT_NUM_THREADS = 1;
+   public static final double DEFAULT_STOP_TIME = 1.0;
+
+   private Class<? extends RootModel> myModelClass;
+   private String[] myModelArgs = new String[0];
+   private ArrayList<Parameter> myParameters = new ArrayList<Parameter>();
+   private double myStopTime = DEFAULT_STOP_TIME;
+   private int myNumThreads = DEFAULT_NUM_THREADS;
+   private File myOutputDir = new File (".");
+   private boolean myVerbose = false;
+   private boolean myBinaryOutput = false;
+
+   /**
+    * A parameter of the sweep, together with the values it should take.
+    */
+   public static class Parameter {
+      String myName;
+      Object[] myValues;
+
+      Parameter (String name, Object[] values) {
+         myName = name;
+         myValues = values;
+      }
+
+      /**
+       * Returns the name of this parameter.
+       *
+       * @return parameter name
+       */
+      public String getName() {
+         return myName;
+      }
+
+      /**
+       * Returns the number of values for this parameter.
+       *
+       * @return number of values
+       */
+      public int numValues() {
+         return myValues.length;
+      }
+
+      /**
+       * Returns a specific value for this parameter.
+       *
+       * @param idx index of the value
+       * @return parameter value
+       */
+      public Object getValue (int idx) {
+         return myValues[idx];
+      }
+
+      boolean isBuildArg() {
+         return myName.startsWith ("-");
+      }
+   }
+
+   /**
+    * Describes the outcome of a single run.
+    */
+   public static class Run {
+      int myIndex;
+      LinkedHashMap<String,Object> myValues;
+      File myDir;
+      double myTime = 0;
+      double myWallTime = 0;
+      Exception myError;
+
+      Run (int idx, LinkedHashMap<String,Object> values, File dir) {
+         myIndex = idx;
+         myValues = values;
+         myDir = dir;
+      }
+
+      /**
+       * Returns the index of this run.
+       *
+       * @return run index
+       */
+      public int getIndex() {
+         return myIndex;
+      }
+
+      /**
+       * Returns the parameter values for this run, keyed by parameter name.
+       *
+       * @return parameter values
+       */
+      public Map<String,Object> getValues() {
+         return myValues;
+      }
+
+      /**
+       * Returns the directory into which the output of this run was written.
+       *
+       * @return output directory
+       */
+      public File getDirectory() {
+         return myDir;
+      }
+
+      /**
+       * Returns the simulation time reached by this run.
+       *
+       * @return simulation time reached
+       */
+      public double getTime() {
+         return myTime;
+      }
+
+      /**
+       * Returns the wall clock time required for this run, including the
+       * time required to build the model.
+       *
+       * @return wall clock time, in seconds
+       */
+      public double getWallTime() {
+         return myWallTime;
+      }
+
+      /**
+       * Returns the exception which terminated this run, or
+       * <code>null</code> if the run completed successfully.
+       *
+       * @return terminating exception, or <code>null</code>
+       */
+      public Exception getError() {
+         return myError;
+      }
+   }
+
+   /**
+    * Creates a batch runner for a specified root model class.
+    *
+    * @param modelClass root model class. Must have a public no-argument
+    * constructor, with the model being created by its <code>build</code>
+    * method.
+    */
+   public BatchRunner (Class<? extends RootModel> modelClass) {
+      myModelClass = modelClass;
+   }
+
+   /**
+    * Returns the root model class for this batch runner.
+    *
+    * @return root model class
+    */
+   public Class<? extends RootModel> getModelClass() {
+      return myModelClass;
+   }
+
+   /**
+    * Sets arguments which are passed to the <code>build</code> method of
+    * every model instance, ahead of any build argument parameters.
+    *
+    * @param args model build arguments
+    */
+   public void setModelArgs (String... args) {
+      myModelArgs = Arrays.copyOf (args, args.length);
+   }
+
+   /**
+    * Returns the arguments which are passed to the <code>build</code> method
+    * of every model instance.
+    *
+    * @return model build arguments
+    */
+   public String[] getModelArgs() {
+      return Arrays.copyOf (myModelArgs, myModelArgs.length);
+   }
+
+   /**
+    * Adds a parameter to the sweep. If <code>name</code> begins with
+    * '<code>-</code>', it is passed as a name/value pair to the model's
+    * <code>build</code> method, with the value converted to a string.
+    * Otherwise, it is a property path relative to the root model, and the
+    * property is set to the value after the model is built. If the value is
+    * a <code>String</code> and the property is not, the value is scanned
+    * from the string using the property's {@link
+    * maspack.properties.PropertyInfo#scanValue scanValue} method.
+    *
+    * @param name property path or build argument name
+    * @param values values which the parameter should take
+    */
+   public void addParameter (String name, Object... values) {
+      if (values.length == 0) {
+         throw new IllegalArgumentException (
+            "No values specified for parameter " + name);
+      }
+      myParameters.add (
+         new Parameter (name, Arrays.copyOf (values, values.length)));
+   }
+
+   /**
+    * Returns the parameters of the sweep.
+    *
+    * @return sweep parameters
+    */
+   public ArrayList<Parameter> getParameters() {
+      return myParameters;
+   }
+
+   /**
+    * Returns the number of runs, which equals the product of the number of
+    * values of each parameter.
+    *
+    * @return number of runs
+    */
+   public int numRuns() {
+      int num = 1;
+      for (Parameter p : myParameters) {
+         num *= p.numValues();
+      }
+      return num;
+   }
+
+   /**
+    * Returns the parameter values for a specific run, keyed by parameter
+    * name. Runs are ordered so that the values of the last parameter vary
+    * the fastest.
+    *
+    * @param idx index of the run
+    * @return parameter values for the run
+    */
+   public LinkedHashMap<String,Object> getRunValues (int idx) {
+      if (idx < 0 || idx >= numRuns()) {
+         throw new IndexOutOfBoundsException (
+            "run index "+idx+" not in range [0,"+(numRuns()-1)+"]");
+      }
+      Object[] vals = new Object[myParameters.size()];
+      for (int k=myParameters.size()-1; k>=0; k--) {
+         Parameter p = myParameters.get(k);
+         vals[k] = p.getValue (idx % p.numValues());
+         idx /= p.numValues();
+      }
+      LinkedHashMap<String,Object> map = new LinkedHashMap<String,Object>();
+      for (int k=0; k<myParameters.size(); k++) {
+         map.put (myParameters.get(k).getName(), vals[k]);
+      }
+      return map;
+   }
+
+   /**
+    * Sets the simulation time at which each run stops.
+    *
+    * @param t stop time
+    */
+   public void setStopTime (double t) {
+      myStopTime = t;
+   }
+
+   /**
+    * Returns the simulation time at which each run stops.
+    *
+    * @return stop time
+    */
+   public double getStopTime() {
+      return myStopTime;
+   }
+
+   /**
+    * Sets the number of threads used to perform runs concurrently.
+    *
+    * @param num number of threads
+    */
+   public void setNumThreads (int num) {
+      myNumThreads = Math.max (1, num);
+   }
+
+   /**
+    * Returns the number of threads used to perform runs concurrently.
+    *
+    * @return number of threads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the directory into which the output of the runs is written.
+    *
+    * @param dir output directory
+    */
+   public void setOutputDir (File dir) {
+      myOutputDir = dir;
+   }
+
+   /**
+    * Returns the directory into which the output of the runs is written.
+    *
+    * @return output directory
+    */
+   public File getOutputDir() {
+      return myOutputDir;
+   }
+
+   /**
+    * Enables or disables the printing of a message as each run completes.
+    *
+    * @param enable if <code>true</code>, enables messages
+    */
+   public void setVerbose (boolean enable) {
+      myVerbose = enable;
+   }
+
+   /**
+    * Queries whether a message is printed as each run completes.
+    *
+    * @return <code>true</code> if messages are printed
+    */
+   public boolean getVerbose() {
+      return myVerbose;
+   }
+
+   /**
+    * Enables or disables binary output. If enabled, output probe data is
+    * written using the binary columnar format of {@link BinaryProbeWriter},
+    * into files ending in {@link BinaryProbeWriter#FILE_EXTENSION}, which
+    * is much faster for probes with many channels. Otherwise, data is
+    * written as text.
+    *
+    * @param enable if <code>true</code>, enables binary output
+    */
+   public void setBinaryOutput (boolean enable) {
+      myBinaryOutput = enable;
+   }
+
+   /**
+    * Queries whether binary output is enabled.
+    *
+    * @return <code>true</code> if binary output is enabled
+    * @see #setBinaryOutput
+    */
+   public boolean getBinaryOutput() {
+      return myBinaryOutput;
+   }
+
+   /**
+    * Returns the output directory for a specific run.
+    *
+    * @param idx index of the run
+    * @return output directory for the run
+    */
+   public File getRunDir (int idx) {
+      return new File (myOutputDir, String.format ("run_%04d", idx));
+   }
+
+   /**
+    * Creates and builds the model for a specific run, passing the build
+    * argument parameters to its <code>build</code> method and then setting
+    * the property parameters. Subclasses may override this to customize
+    * model creation.
+    *
+    * @param values parameter values for the run
+    * @return built root model
+    * @throws Exception if the model could not be created or a parameter
+    * could not be set
+    */
+   protected RootModel createModel (Map<String,Object> values)
+      throws Exception {
+
+      ArrayList<String> args = new ArrayList<String>();
+      args.addAll (Arrays.asList (myModelArgs));
+      for (Parameter p : myParameters) {
+         if (p.isBuildArg()) {
+            args.add (p.getName());
+            args.add (values.get (p.getName()).toString());
+         }
+      }
+      RootModel root;
+      try {
+         root = myModelClass.getDeclaredConstructor().newInstance();
+      }
+      catch (InvocationTargetException e) {
+         // report the exception thrown by the model's constructor
+         if (e.getCause() instanceof Exception) {
+            throw (Exception)e.getCause();
+         }
+         throw e;
+      }
+      catch (ReflectiveOperationException e) {
+         throw new IllegalArgumentException (
+            "cannot create instance of " + myModelClass.getName() +
+            ": " + e, e);
+      }
+      root.setName (myModelClass.getSimpleName());
+      root.build (args.toArray (new String[0]));
+      for (Parameter p : myParameters) {
+         if (!p.isBuildArg()) {
+            setProperty (root, p.getName(), values.get (p.getName()));
+         }
+      }
+      return root;
+   }
+
+   private void setProperty (RootModel root, String path, Object value)
+      throws IOException {
+      Property prop = ComponentUtils.findProperty (root, path);
+      if (prop == null) {
+         throw new IllegalArgumentException (
+            "Property " + path + " not found");
+      }
+      if (value instanceof String &&
+          prop.getInfo().getValueClass() != String.class) {
+         ReaderTokenizer rtok =
+            new ReaderTokenizer (new StringReader ((String)value));
+         value = prop.getInfo().scanValue (rtok);
+      }
+      prop.set (value);
+   }
+
+   private String getProbeFileName (Probe probe, int idx) {
+      String ext = (myBinaryOutput ? BinaryProbeWriter.FILE_EXTENSION : ".txt");
+      if (probe.getName() != null) {
+         return probe.getName() + ext;
+      }
+      else if (probe.getAttachedFileName() != null) {
+         String name = new File (probe.getAttachedFileName()).getName();
+         if (myBinaryOutput) {
+            int dot = name.lastIndexOf ('.');
+            name = (dot > 0 ? name.substring (0, dot) : name) + ext;
+         }
+         return name;
+      }
+      else {
+         return "probe" + idx + ext;
+      }
+   }
+
+   private PrintWriter createWriter (File file) throws IOException {
+      return new PrintWriter (new BufferedWriter (new FileWriter (file)));
+   }
+
+   /**
+    * Performs a single run, streaming its output probe data into its
+    * output directory.
+    */
+   private void doRun (Run run) throws Exception {
+      run.myDir.mkdirs();
+      PrintWriter pw = createWriter (new File (run.myDir, "params.txt"));
+      for (Map.Entry<String,Object> e : run.myValues.entrySet()) {
+         pw.println (e.getKey() + "=" + e.getValue());
+      }
+      pw.close();
+
+      RootModel root = createModel (run.myValues);
+      ArrayList<PrintWriter> writers = new ArrayList<PrintWriter>();
+      ArrayList<BinaryProbeWriter> binaryWriters =
+         new ArrayList<BinaryProbeWriter>();
+      try {
+         int k = 0;
+         for (Probe probe : root.getOutputProbes()) {
+            if (probe instanceof NumericOutputProbe) {
+               NumericOutputProbe nprobe = (NumericOutputProbe)probe;
+               File file = new File (run.myDir, getProbeFileName (probe, k));
+               if (myBinaryOutput) {
+                  BinaryProbeWriter writer = nprobe.createBinaryWriter (file);
+                  binaryWriters.add (writer);
+                  nprobe.setBinaryStreamWriter (writer);
+               }
+               else {
+                  PrintWriter writer = createWriter (file);
+                  writers.add (writer);
+                  nprobe.setStreamWriter (writer);
+               }
+            }
+            k++;
+         }
+         root.initialize (0);
+         double h = root.getMaxStepSize();
+         if (h <= 0) {
+            h = myStopTime;
+         }
+         double t0 = 0;
+         while (TimeBase.compare (t0, myStopTime) < 0 &&
+                !root.getStopRequest()) {
+            double t1 = TimeBase.round (Math.min (t0+h, myStopTime));
+            root.advance (t0, t1, 0);
+            t0 = t1;
+            run.myTime = t0;
+         }
+      }
+      finally {
+         for (Probe probe : root.getOutputProbes()) {
+            if (probe instanceof NumericOutputProbe) {
+               ((NumericOutputProbe)probe).setStreamWriter (null);
+               ((NumericOutputProbe)probe).setBinaryStreamWriter (null);
+            }
+         }
+         for (PrintWriter writer : writers) {
+            writer.close();
+         }
+         for (BinaryProbeWriter writer : binaryWriters) {
+            writer.close();
+         }
+         root.dispose();
+      }
+   }
+
+   private void performRun (Run run) {
+      long t0 = System.nanoTime();
+      try {
+         doRun (run);
+      }
+      catch (Exception e) {
+         run.myError = e;
+      }
+      run.myWallTime = (System.nanoTime()-t0)/1e9;
+      if (myVerbose) {
+         synchronized (this) {
+            System.out.println (
+               "run " + run.myIndex + " " + run.myValues + ": " +
+               (run.myError == null ? "completed" : "failed: "+run.myError) +
+               String.format (" (%.3f sec)", run.myWallTime));
+         }
+      }
+   }
+
+   private void writeSummary (ArrayList<Run> runs) throws IOException {
+      PrintWriter pw = createWriter (new File (myOutputDir, "runs.csv"));
+      pw.print ("run");
+      for (Parameter p : myParameters) {
+         pw.print ("," + p.getName());
+      }
+      pw.println (",time,wallTime,status");
+      for (Run run : runs) {
+         pw.print (run.myIndex);
+         for (Object value : run.myValues.values()) {
+            pw.print ("," + value);
+         }
+         pw.print ("," + run.myTime + "," + run.myWallTime);
+         if (run.myError == null) {
+            pw.println (",ok");
+         }
+         else {
+            String msg = String.valueOf (run.myError.getMessage());
+            pw.println (",\"" + msg.replace ("\"", "\"\"") + "\"");
+         }
+      }
+      pw.close();
+   }
+
+   /**
+    * Performs all the runs, using the current number of threads, and
+    * writes the summary file <code>runs.csv</code> to the output directory.
+    * Runs which fail do not affect other runs; the exception for each
+    * failed run can be obtained from {@link Run#getError}.
+    *
+    * @return descriptions of the runs, in run order
+    * @throws IOException if the output directory or summary file could not
+    * be written
+    */
+   public ArrayList<Run> run() throws IOException {
+      myOutputDir.mkdirs();
+      if (!myOutputDir.isDirectory()) {
+         throw new IOException (
+            "Cannot create output directory " + myOutputDir);
+      }
+      final ArrayList<Run> runs = new ArrayList<Run>();
+      for (int i=0; i<numRuns(); i++) {
+         runs.add (new Run (i, getRunValues (i), getRunDir (i)));
+      }
+      int nthreads = Math.min (myNumThreads, runs.size());
+      if (nthreads > 1) {
+         // runs may take very different amounts of time, so each thread
+         // takes the next run as soon as it finishes its current one
+         final AtomicInteger next = new AtomicInteger (0);
+         ParallelLoop loop = new ParallelLoop ("BatchRunner", nthreads);
+         try {
+            loop.forRange (0, nthreads, new ParallelLoop.Body() {
+                  public void run (int thread, int start, int end) {
+                     for (int k=start; k<end; k++) {
+                        int i;
+                        while ((i = next.getAndIncrement()) < runs.size()) {
+                           performRun (runs.get(i));
+                        }
+                     }
+                  }
+               });
+         }
+         finally {
+            loop.dispose();
+         }
+      }
+      else {
+         for (Run run : runs) {
+            performRun (run);
+         }
+      }
+      writeSummary (runs);
+      return runs;
+   }
+
+   private static void printUsage() {
+      System.out.println (
+         "Usage: java artisynth.core.driver.BatchRunner -model <className>\n"+
+         "         [-stop <time>] [-threads <num>] [-out <dir>] [-verbose]\n"+
+         "         [-binary]\n"+
+         "         [-param <name>=<val0>,<val1>,...]... [-- <modelArgs>...]\n"+
+         "\n"+
+         "Runs a simulation of the model for each combination of parameter\n"+
+         "values. Parameter names beginning with '-' are passed to the\n"+
+         "model's build method; others are property paths relative to the\n"+
+         "root model.");
+   }
+
+   private static void exitWithError (String msg) {
+      System.out.println ("Error: " + msg);
+      printUsage();
+      System.exit (1);
+   }
+
+   public static void main (String[] args) {
+      String modelName = null;
+      ArrayList<String> params = new ArrayList<String>();
+      ArrayList<String> modelArgs = new ArrayList<String>();
+      double stopTime = DEFAULT_STOP_TIME;
+      int numThreads = DEFAULT_NUM_THREADS;
+      File outputDir = new File (".");
+      boolean verbose = false;
+      boolean binary = false;
+
+      try {
+         for (int i=0; i<args.length; i++) {
+            if (args[i].equals ("--")) {
+               modelArgs.addAll (
+                  Arrays.asList (args).subList (i+1, args.length));
+               break;
+            }
+            else if (args[i].equals ("-verbose")) {
+               verbose = true;
+            }
+            else if (args[i].equals ("-binary")) {
+               binary = true;
+            }
+            else if (args[i].equals ("-help")) {
+               printUsage();
+               return;
+            }
+            else if (i == args.length-1) {
+               exitWithError ("option " + args[i] + " requires an argument");
+            }
+            else if (args[i].equals ("-model")) {
+               modelName = args[++i];
+            }
+            else if (args[i].equals ("-stop")) {
+               stopTime = Double.parseDouble (args[++i]);
+            }
+            else if (args[i].equals ("-threads")) {
+               numThreads = Integer.parseInt (args[++i]);
+            }
+            else if (args[i].equals ("-out")) {
+               outputDir = new File (args[++i]);
+            }
+            else if (args[i].equals ("-param")) {
+               params.add (args[++i]);
+            }
+            else {
+               exitWithError ("unrecognized option " + args[i]);
+            }
+         }
+      }
+      catch (NumberFormatException e) {
+         exitWithError (e.getMessage());
+      }
+      if (modelName == null) {
+         exitWithError ("no model class specified");
+      }
+      Class<?> cls = null;
+      try {
+         cls = Class.forName (modelName);
+      }
+      catch (ClassNotFoundException e) {
+         exitWithError ("class " + modelName + " not found");
+      }
+      if (!RootModel.class.isAssignableFrom (cls)) {
+         exitWithError ("class " + modelName + " is not a RootModel");
+      }
+      BatchRunner runner =
+         new BatchRunner (cls.asSubclass (RootModel.class));
+      runner.setModelArgs (modelArgs.toArray (new String[0]));
+      for (String param : params) {
+         int eq = param.indexOf ('=');
+         if (eq <= 0 || eq == param.length()-1) {
+            exitWithError ("malformed parameter " + param);
+         }
+         runner.addParameter (
+            param.substring (0, eq),
+            (Object[])param.substring (eq+1).split (","));
+      }
+      runner.setStopTime (stopTime);
+      runner.setNumThreads (numThreads);
+      runner.setOutputDir (outputDir);
+      runner.setVerbose (verbose);
+      runner.setBinaryOutput (binary);
+      try {
+         ArrayList<Run> runs = runner.run();
+         int numFailed = 0;
+         for (Run run : runs) {
+            if (run.getError() != null) {
+               numFailed++;
+            }
+         }
+         System.out.println (
+            runs.size() + " runs performed, " + numFailed + " failed");
+         if (numFailed > 0) {
+            System.exit (1);
+         }
+      }
+      catch (IOException e) {
+         exitWithError (e.getMessage());
+      }
+   }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+import artisynth.core.femmodels.FemFactory;
+import artisynth.core.femmodels.FemModel3d;
+import artisynth.core.femmodels.FemNode3d;
+import artisynth.core.mechmodels.MechModel;
+import artisynth.core.probes.BinaryProbeReader;
+import artisynth.core.probes.NumericOutputProbe;
+import artisynth.core.workspace.RootModel;
+
+/**
+ * Test program for BatchRunner.
+ */
+public class BatchRunnerTest extends UnitTest {
+
+   /**
+    * Simple model consisting of a cantilevered FEM beam falling under
+    * gravity, with the beam density given by a build argument.
+    */
+   public static class BeamModel extends RootModel {
+
+      public void build (String[] args) {
+         double density = 1000;
+         for (int i=0; i<args.length; i++) {
+            if (args[i].equals ("-density")) {
+               density = Double.parseDouble (args[++i]);
+            }
+         }
+         MechModel mech = new MechModel ("mech");
+         addModel (mech);
+         FemModel3d fem = FemFactory.createHexGrid (
+            null, 1.0, 0.2, 0.2, 6, 2, 2);
+         fem.setName ("fem");
+         fem.setDensity (density);
+         mech.addModel (fem);
+         FemNode3d tip = null;
+         for (FemNode3d n : fem.getNodes()) {
+            if (n.getPosition().x < -0.49) {
+               n.setDynamic (false);
+            }
+            else if (tip == null || n.getPosition().x > 0.49) {
+               tip = n;
+            }
+         }
+         NumericOutputProbe probe = new NumericOutputProbe (
+            tip, "position", null, 0.01);
+         probe.setName ("tipPosition");
+         probe.setStopTime (1.0);
+         addOutputProbe (probe);
+      }
+   }
+
+   private File createTempDir() throws IOException {
+      return Files.createTempDirectory ("batchRunnerTest").toFile();
+   }
+
+   private void deleteDir (File dir) {
+      File[] files = dir.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            deleteDir (file);
+         }
+      }
+      dir.delete();
+   }
+
+   private List<String> readLines (File file) throws IOException {
+      return Files.readAllLines (file.toPath(), Charset.defaultCharset());
+   }
+
+   private ArrayList<BatchRunner.Run> runBatch (
+      File dir, int nthreads, boolean binary) throws IOException {
+      BatchRunner runner = new BatchRunner (BeamModel.class);
+      runner.setBinaryOutput (binary);
+      runner.addParameter ("-density", 1000, 2000);
+      runner.addParameter (
+         "models/mech/models/fem:material.YoungsModulus", "50000", "200000");
+      runner.setStopTime (0.1);
+      runner.setNumThreads (nthreads);
+      runner.setOutputDir (dir);
+      if (runner.numRuns() != 4) {
+         throw new TestException (
+            "numRuns is "+runner.numRuns()+", expected 4");
+      }
+      ArrayList<BatchRunner.Run> runs = runner.run();
+      for (BatchRunner.Run run : runs) {
+         if (run.getError() != null) {
+            run.getError().printStackTrace();
+            throw new TestException ("run "+run.getIndex()+" failed");
+         }
+      }
+      return runs;
+   }
+
+   private void checkBinaryOutput (File file, List<String> textLines)
+      throws IOException {
+      BinaryProbeReader reader = new BinaryProbeReader (file);
+      if (reader.numKnots() != textLines.size() ||
+          reader.getVectorSize() != 3) {
+         throw new TestException (
+            "binary output "+file+" has "+reader.numKnots()+
+            " knots and vector size "+reader.getVectorSize());
+      }
+      double[] vals = new double[3];
+      for (int k=0; k<textLines.size(); k++) {
+         String[] fields = textLines.get(k).trim().split ("\\s+");
+         double t = reader.getKnot (vals, k);
+         double err = Math.abs (t-Double.parseDouble (fields[0]));
+         for (int j=0; j<3; j++) {
+            err = Math.max (
+               err, Math.abs (vals[j]-Double.parseDouble (fields[j+1])));
+         }
+         if (err > 1e-5) {
+            throw new TestException (
+               "binary output "+file+" differs from text at knot "+k);
+         }
+      }
+      reader.close();
+   }
+
+   public void test() throws IOException {
+      File serialDir = createTempDir();
+      File parallelDir = createTempDir();
+      File binaryDir = createTempDir();
+      try {
+         ArrayList<BatchRunner.Run> runs = runBatch (serialDir, 1, false);
+         runBatch (parallelDir, 4, false);
+         runBatch (binaryDir, 2, true);
+
+         // check the parameter ordering
+         BatchRunner.Run run1 = runs.get(1);
+         if (!run1.getValues().get("-density").equals (1000) ||
+             !run1.getValues().get(
+                "models/mech/models/fem:material.YoungsModulus").equals ("200000")) {
+            throw new TestException (
+               "unexpected values for run 1: " + run1.getValues());
+         }
+         ArrayList<List<String>> outputs = new ArrayList<List<String>>();
+         for (int i=0; i<runs.size(); i++) {
+            String name = "run_000"+i+"/tipPosition.txt";
+            List<String> serial = readLines (new File (serialDir, name));
+            List<String> parallel = readLines (new File (parallelDir, name));
+            if (serial.size() != 11) {
+               throw new TestException (
+                  "run "+i+" has "+serial.size()+" output lines, expected 11");
+            }
+            if (!serial.equals (parallel)) {
+               throw new TestException (
+                  "serial and parallel outputs differ for run "+i);
+            }
+            outputs.add (serial);
+            checkBinaryOutput (
+               new File (binaryDir, "run_000"+i+"/tipPosition.bprobe"), serial);
+         }
+         // the stiffness parameter should change the results
+         if (outputs.get(0).equals (outputs.get(1))) {
+            throw new TestException (
+               "stiffness parameter did not affect run outputs");
+         }
+         List<String> summary = readLines (new File (serialDir, "runs.csv"));
+         if (summary.size() != 5 || !summary.get(1).endsWith (",ok")) {
+            throw new TestException ("unexpected summary:\n" + summary);
+         }
+      }
+      finally {
+         deleteDir (serialDir);
+         deleteDir (parallelDir);
+         deleteDir (binaryDir);
+      }
+   }
+
+   public static void main (String[] args) {
+      BatchRunnerTest tester = new BatchRunnerTest();
+      tester.runtest();
+   }
+}
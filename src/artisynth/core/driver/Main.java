@@ -67,6 +67,8 @@ import artisynth.core.mechmodels.MechSystemBase;
 import artisynth.core.mechmodels.MechSystemSolver;
 import artisynth.core.mechmodels.MechSystemSolver.PosStabilization;
 import artisynth.core.mechmodels.RigidBody;
+import artisynth.core.modelbase.BinaryModelReader;
+import artisynth.core.modelbase.BinaryModelWriter;
 import artisynth.core.modelbase.ComponentChangeEvent;
 import artisynth.core.modelbase.ComponentChangeListener;
 import artisynth.core.modelbase.ComponentUtils;
@@ -2540,7 +2542,15 @@ public class Main implements DriverInterface, ComponentChangeListener {
 
       RootModel newRoot = null;
       clearRootModel();
-      ReaderTokenizer rtok = ArtisynthIO.newReaderTokenizer (file);
+      BinaryModelReader reader = null;
+      ReaderTokenizer rtok;
+      if (BinaryModelReader.isBinaryModelFile (file)) {
+         reader = new BinaryModelReader (file);
+         rtok = reader.getTokenizer();
+      }
+      else {
+         rtok = ArtisynthIO.newReaderTokenizer (file);
+      }
       if (rtok.nextToken() == ReaderTokenizer.TT_WORD) {
          try {
             newRoot = (RootModel)ClassAliases.newInstance ( 
@@ -2560,7 +2570,17 @@ public class Main implements DriverInterface, ComponentChangeListener {
       }
       // getWorkspace().getWayPoints().clear();
       long t0 = System.nanoTime();
-      ScanWriteUtils.scanfull (rtok, newRoot, newRoot);
+      if (reader != null) {
+         try {
+            reader.scanfull (rtok, newRoot, newRoot);
+         }
+         finally {
+            reader.close();
+         }
+      }
+      else {
+         ScanWriteUtils.scanfull (rtok, newRoot, newRoot);
+      }
       long t1 = System.nanoTime();
       System.out.println ("File scan time: " + ((t1-t0)*1e-9) + " sec");
       System.out.println ("File size: " + file.length());
@@ -2615,12 +2635,25 @@ public class Main implements DriverInterface, ComponentChangeListener {
    public void saveModelFile (File file, String fmtStr) throws IOException {
       RootModel root = getRootModel();
       if (root != null) {
-         IndentingPrintWriter pw = ArtisynthIO.newIndentingPrintWriter (file);
-         if (!root.getClass().isAssignableFrom (RootModel.class)) {
-            pw.println (ClassAliases.getAliasOrName (root.getClass()));
+         if (file.getName().endsWith (BinaryModelWriter.FILE_EXTENSION)) {
+            // binary model file, with bulk data stored in binary blocks
+            BinaryModelWriter writer = new BinaryModelWriter();
+            if (!root.getClass().isAssignableFrom (RootModel.class)) {
+               writer.getPrintWriter().println (
+                  ClassAliases.getAliasOrName (root.getClass()));
+            }
+            writer.write (root, new NumberFormat (fmtStr), root);
+            writer.save (file);
+         }
+         else {
+            IndentingPrintWriter pw =
+               ArtisynthIO.newIndentingPrintWriter (file);
+            if (!root.getClass().isAssignableFrom (RootModel.class)) {
+               pw.println (ClassAliases.getAliasOrName (root.getClass()));
+            }
+            root.write (pw, new NumberFormat (fmtStr), root);
+            pw.close();
          }
-         root.write (pw, new NumberFormat (fmtStr), root);
-         pw.close();
       }
    }
 
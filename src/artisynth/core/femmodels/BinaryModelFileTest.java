@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import artisynth.core.mechmodels.FixedMeshBody;
+import artisynth.core.mechmodels.MechModel;
+import artisynth.core.mechmodels.Particle;
+import artisynth.core.modelbase.BinaryModelReader;
+import artisynth.core.modelbase.BinaryModelWriter;
+import artisynth.core.modelbase.ScanWriteUtils;
+import maspack.geometry.MeshFactory;
+import maspack.geometry.PolygonalMesh;
+import maspack.util.IndentingPrintWriter;
+import maspack.util.NumberFormat;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Test program for reading and writing binary model files, which checks that
+ * a model read back from a binary file has the same text representation as
+ * the original.
+ */
+public class BinaryModelFileTest extends UnitTest {
+
+   NumberFormat myFmt = new NumberFormat ("%.10g");
+
+   private String writeToString (MechModel mech) throws IOException {
+      StringWriter sw = new StringWriter();
+      IndentingPrintWriter pw = new IndentingPrintWriter (sw);
+      ScanWriteUtils.writeComponent (pw, myFmt, mech, mech);
+      pw.flush();
+      return sw.toString();
+   }
+
+   private MechModel createModel() {
+      MechModel mech = new MechModel ("mech");
+
+      FemModel3d hex = FemFactory.createHexGrid (null, 1.0, 0.5, 0.5, 4, 2, 2);
+      hex.setName ("hex");
+      for (FemNode3d n : hex.getNodes()) {
+         n.setVelocity (0.1*n.getNumber(), 0, -0.2);
+      }
+      mech.addModel (hex);
+
+      // model with mixed element types, and explicit rest positions
+      FemModel3d tet = FemFactory.createTetGrid (null, 1.0, 1.0, 1.0, 2, 2, 2);
+      tet.setName ("tet");
+      tet.addElement (
+         new PyramidElement (
+            tet.getNode(0), tet.getNode(1), tet.getNode(4),
+            tet.getNode(3), tet.getNode(9)));
+      tet.getNode(5).setRestPosition (tet.getNode(5).getPosition());
+      tet.getNode(5).setPosition (0.1, 0.2, 0.3);
+      mech.addModel (tet);
+
+      // model whose nodes cannot be written in bulk
+      FemModel3d named = FemFactory.createTetGrid (null, 1.0, 1.0, 1.0, 1, 1, 1);
+      named.setName ("named");
+      named.getNode(2).setName ("corner");
+      named.getNode(3).setMass (7.0);
+      mech.addModel (named);
+
+      for (int i=0; i<5; i++) {
+         mech.addParticle (new Particle (1.0+i, i, 2*i, 3*i));
+      }
+      PolygonalMesh mesh = MeshFactory.createOctahedralSphere (1.0, 2);
+      mech.addMeshBody (new FixedMeshBody ("sphere", mesh));
+      return mech;
+   }
+
+   public void test() throws IOException {
+      MechModel mech = createModel();
+      String text = writeToString (mech);
+
+      File file = File.createTempFile ("binaryModelFileTest", ".artb");
+      try {
+         BinaryModelWriter.saveComponent (file, mech, myFmt, null);
+         if (!BinaryModelReader.isBinaryModelFile (file)) {
+            throw new TestException ("file not recognized as binary");
+         }
+         BinaryModelReader reader = new BinaryModelReader (file);
+         reader.close();
+         // nodes and elements of the first two models, elements of the
+         // third, the particles, and the mesh should be written in bulk
+         if (reader.numBlocks() < 1+3+1+3+3+1+3) {
+            throw new TestException (
+               "only "+reader.numBlocks()+" blocks written");
+         }
+         MechModel chk = (MechModel)BinaryModelReader.loadComponent (
+            file, null, MechModel.class);
+         String chkText = writeToString (chk);
+         if (!chkText.equals (text)) {
+            System.out.println ("Expected:\n" + text);
+            System.out.println ("Got:\n" + chkText);
+            throw new TestException (
+               "model read from binary file differs from original");
+         }
+         FemModel3d tet = (FemModel3d)chk.models().get("tet");
+         if (!(tet.getElements().get(tet.numElements()-1)
+               instanceof PyramidElement)) {
+            throw new TestException ("element class not restored");
+         }
+      }
+      finally {
+         file.delete();
+      }
+   }
+
+   public static void main (String[] args) {
+      BinaryModelFileTest tester = new BinaryModelFileTest();
+      tester.runtest();
+   }
+}
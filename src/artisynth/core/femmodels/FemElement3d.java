@@ -30,12 +30,16 @@ import artisynth.core.mechmodels.Point;
 import artisynth.core.modelbase.CompositeComponent;
 import artisynth.core.modelbase.ComponentUtils;
 import artisynth.core.modelbase.ModelComponent;
+import artisynth.core.modelbase.PropertyChangeEvent;
 import artisynth.core.util.*;
 
 public abstract class FemElement3d extends FemElement
    implements Boundable, PointAttachable, FrameAttachable {
    protected FemNode3d[] myNodes;
    protected FemNodeNeighbor[][] myNbrs = null;
+   // if non-null, index of each node within the packed node storage of
+   // the FEM model
+   int[] myPackedNodeIdxs = null;
    // average shape function gradient; used for incompressibility
    //protected Vector3d[] myAvgGNx = null; 
    // altGnx is an alternate copy of avgGNx for use in a second constraint matrix
@@ -677,8 +681,18 @@ public abstract class FemElement3d extends FemElement
       myWarpingData = null;
    }
 
+   public void propertyChanged (PropertyChangeEvent e) {
+      super.propertyChanged (e);
+      if (e.getHost() instanceof FemMaterial &&
+          getGrandParent() instanceof FemModel3d) {
+         // copies of the material used by stiffness threads are now stale
+         ((FemModel3d)getGrandParent()).clearThreadMaterials();
+      }
+   }
+
    public void disconnectFromHierarchy () {
       myNbrs = null;
+      myPackedNodeIdxs = null;
 
       FemNode3d[] nodes = getNodes();
       //double massPerNode = getMass()/numNodes();
@@ -1173,6 +1187,43 @@ public abstract class FemElement3d extends FemElement
       myWarper.addNodeForce (f, i, myNodes, corotated);
    }
     
+   /**
+    * Adds the linear elastic forces for this element to the internal forces
+    * of all its active nodes. This is equivalent to, but more efficient
+    * than, calling {@link #addNodeForce(Vector3d,int,boolean)} for each
+    * active node.
+    *
+    * @param corotated if <code>true</code>, applies the current warping
+    * rotation
+    */
+   public void addNodeForces (boolean corotated) {
+      if (!myWarpingStiffnessValidP) {
+         updateWarpingStiffness();
+      }
+      myWarper.addNodeForces (myNodes, corotated);
+   }
+
+   /**
+    * Computes the deformation gradient at the warping point for a linear
+    * material, using the rest shape gradients cached when the warping
+    * stiffness is updated.
+    *
+    * @param F returns the deformation gradient
+    * @param packedPos if non-<code>null</code>, packed node positions
+    * from which the gradient should be computed
+    */
+   void computeWarpingGradient (Matrix3d F, double[] packedPos) {
+      if (!myWarpingStiffnessValidP) {
+         updateWarpingStiffness();
+      }
+      if (packedPos != null) {
+         myWarper.computeDeformationGradient (F, packedPos, myPackedNodeIdxs);
+      }
+      else {
+         myWarper.computeDeformationGradient (F, myNodes);
+      }
+   }
+
    public void addNodeForce0(Vector3d f, int i, boolean corotated) {
       if (!myWarpingStiffnessValidP) {
          updateWarpingStiffness();
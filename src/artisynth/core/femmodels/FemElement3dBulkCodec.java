@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import artisynth.core.modelbase.BinaryModelReader;
+import artisynth.core.modelbase.BinaryModelWriter;
+import artisynth.core.modelbase.BulkComponentCodec;
+import artisynth.core.modelbase.ComponentList;
+import artisynth.core.modelbase.CompositeComponent;
+import maspack.util.NumberFormat;
+
+/**
+ * Writes and scans the elements of a {@link FemModel3d} in bulk. The
+ * elements are stored using three blocks: the names of the element classes,
+ * the class index of each element, and the node numbers of each element. An
+ * element list can be written in bulk only if its elements are numbered
+ * consecutively, reference only nodes in the model's node list, have no
+ * explicit mass or frame, have no other non-default properties, and belong
+ * to classes which do not write any additional information.
+ */
+public class FemElement3dBulkCodec implements BulkComponentCodec<FemElement3d> {
+
+   private static HashMap<Class<?>,Boolean> myBulkClasses =
+      new HashMap<Class<?>,Boolean>();
+
+   /**
+    * Returns true if an element class does not override <code>writeItems</code>
+    * below FemElement3d, and so writes no information besides that checked
+    * by this codec.
+    */
+   private static boolean isBulkClass (Class<?> cls) {
+      synchronized (myBulkClasses) {
+         Boolean bulk = myBulkClasses.get (cls);
+         if (bulk == null) {
+            bulk = true;
+            for (Class<?> c=cls; c!=FemElement3d.class; c=c.getSuperclass()) {
+               try {
+                  c.getDeclaredMethod (
+                     "writeItems", PrintWriter.class,
+                     NumberFormat.class, CompositeComponent.class);
+                  bulk = false;
+                  break;
+               }
+               catch (NoSuchMethodException e) {
+                  // not declared by this class
+               }
+            }
+            if (bulk) {
+               try {
+                  cls.getConstructor();
+               }
+               catch (NoSuchMethodException e) {
+                  bulk = false;
+               }
+            }
+            myBulkClasses.put (cls, bulk);
+         }
+         return bulk;
+      }
+   }
+
+   private ComponentList<FemNode3d> getNodeList (
+      ComponentList<FemElement3d> list) {
+      if (list.getParent() instanceof FemModel3d) {
+         return ((FemModel3d)list.getParent()).getNodes();
+      }
+      else {
+         return null;
+      }
+   }
+
+   public boolean canWriteBulk (ComponentList<FemElement3d> list) {
+      ComponentList<FemNode3d> nodeList = getNodeList (list);
+      if (nodeList == null) {
+         return false;
+      }
+      for (int i=0; i<list.size(); i++) {
+         FemElement3d elem = list.get(i);
+         if (!elem.isWritable() ||
+             elem.getNumber() != i ||
+             elem.isMassExplicit() ||
+             elem.getFrame() != null ||
+             !isBulkClass (elem.getClass()) ||
+             BinaryModelWriter.hasNonDefaultProperties (elem, null)) {
+            return false;
+         }
+         for (FemNode3d node : elem.getNodes()) {
+            if (node.getParent() != nodeList) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   public int[] writeBulk (
+      ComponentList<FemElement3d> list, BinaryModelWriter writer) {
+
+      HashMap<Class<?>,Integer> classIdxs = new HashMap<Class<?>,Integer>();
+      StringBuilder classNames = new StringBuilder();
+      int[] classes = new int[list.size()];
+      int numNodes = 0;
+      for (int i=0; i<list.size(); i++) {
+         FemElement3d elem = list.get(i);
+         Integer idx = classIdxs.get (elem.getClass());
+         if (idx == null) {
+            idx = classIdxs.size();
+            classIdxs.put (elem.getClass(), idx);
+            if (idx > 0) {
+               classNames.append ('\n');
+            }
+            classNames.append (elem.getClass().getName());
+         }
+         classes[i] = idx;
+         numNodes += elem.numNodes();
+      }
+      int[] nodeNums = new int[numNodes];
+      int k = 0;
+      for (int i=0; i<list.size(); i++) {
+         for (FemNode3d node : list.get(i).getNodes()) {
+            nodeNums[k++] = node.getNumber();
+         }
+      }
+      return new int[] {
+         writer.addString (classNames.toString()),
+         writer.addInts (classes, classes.length),
+         writer.addInts (nodeNums, nodeNums.length) };
+   }
+
+   public void scanBulk (
+      List<FemElement3d> comps, ComponentList<FemElement3d> list,
+      int[] blocks, BinaryModelReader reader) throws IOException {
+
+      if (blocks.length != 3) {
+         throw new IOException (
+            "expecting 3 blocks for FEM elements, got " + blocks.length);
+      }
+      ComponentList<FemNode3d> nodeList = getNodeList (list);
+      if (nodeList == null) {
+         throw new IOException (
+            "FEM element list is not contained in a FemModel3d");
+      }
+      ArrayList<Class<?>> classes = new ArrayList<Class<?>>();
+      for (String name : reader.getString (blocks[0]).split ("\n")) {
+         try {
+            Class<?> cls = Class.forName (name);
+            if (!FemElement3d.class.isAssignableFrom (cls)) {
+               throw new IOException (
+                  "class " + name + " is not a FemElement3d");
+            }
+            classes.add (cls);
+         }
+         catch (ClassNotFoundException e) {
+            throw new IOException ("element class " + name + " not found", e);
+         }
+      }
+      IntBuffer classIdxs = reader.getInts (blocks[1]);
+      IntBuffer nodeNums = reader.getInts (blocks[2]);
+      while (classIdxs.hasRemaining()) {
+         int idx = classIdxs.get();
+         if (idx < 0 || idx >= classes.size()) {
+            throw new IOException ("element class index " + idx + " invalid");
+         }
+         FemElement3d elem;
+         try {
+            elem = (FemElement3d)
+               classes.get(idx).getDeclaredConstructor().newInstance();
+         }
+         catch (ReflectiveOperationException e) {
+            throw new IOException (
+               "cannot create instance of " + classes.get(idx), e);
+         }
+         FemNode3d[] nodes = elem.getNodes();
+         if (nodeNums.remaining() < nodes.length) {
+            throw new IOException ("FEM element node block is too short");
+         }
+         for (int i=0; i<nodes.length; i++) {
+            int num = nodeNums.get();
+            nodes[i] = nodeList.getByNumber (num);
+            if (nodes[i] == null) {
+               throw new IOException (
+                  "FEM element references nonexistent node " + num);
+            }
+         }
+         comps.add (elem);
+      }
+      if (nodeNums.hasRemaining()) {
+         throw new IOException ("FEM element node block is too long");
+      }
+   }
+}
@@ -69,6 +69,7 @@ import maspack.render.color.HueColorMap;
 import maspack.spatialmotion.Twist;
 import maspack.spatialmotion.Wrench;
 import maspack.spatialmotion.SpatialInertia;
+import maspack.concurrency.ParallelLoop;
 import maspack.util.ArraySupport;
 import maspack.util.DataBuffer;
 import maspack.util.DoubleInterval;
@@ -77,6 +78,7 @@ import maspack.util.FunctionTimer;
 import maspack.util.IndentingPrintWriter;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
+import maspack.util.Profiler;
 import maspack.util.Range;
 import maspack.util.ReaderTokenizer;
 import maspack.util.TestException;
@@ -208,6 +210,24 @@ public class FemModel3d extends FemModel
    // temp for computing element-wise linear stiffness strain
    protected SymmetricMatrix3d myEps = new SymmetricMatrix3d();
 
+   public static final int DEFAULT_NUM_STIFFNESS_THREADS = 1;
+   // number of threads used to compute element stresses and stiffnesses
+   protected int myNumStiffnessThreads = DEFAULT_NUM_STIFFNESS_THREADS;
+   protected ParallelLoop myStiffnessLoop;
+   // workspace for serial stress and stiffness computation
+   protected FemStiffnessWorkspace mySerialWorkspace;
+   // per-thread workspaces for concurrent stress and stiffness computation
+   protected FemStiffnessWorkspace[] myThreadWorkspaces;
+   // element indices grouped by color, such that no two elements of the
+   // same color share a node
+   protected int[][] myElementColors;
+
+   public static final boolean DEFAULT_USE_PACKED_STORAGE = false;
+   protected boolean myUsePackedStorage = DEFAULT_USE_PACKED_STORAGE;
+   // packed node positions and neighbor stiffnesses; created on demand
+   protected FemPackedStorage myPackedStorage;
+   protected boolean myPackedStorageValid = false;
+
    // protected ArrayList<FemSurface> myEmbeddedSurfaces;
    protected MeshComponentList<FemMeshComp> myMeshList;
 
@@ -253,6 +273,14 @@ public class FemModel3d extends FemModel
       myProps.add (
          "collidable", 
          "sets the collidability of the FEM", DEFAULT_COLLIDABILITY);
+      myProps.add (
+         "numStiffnessThreads",
+         "number of threads used to compute element stresses and stiffnesses",
+         DEFAULT_NUM_STIFFNESS_THREADS, "[1,inf]");
+      myProps.add (
+         "usePackedStorage",
+         "store node positions and neighbor stiffnesses in packed arrays",
+         DEFAULT_USE_PACKED_STORAGE);
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -287,6 +315,104 @@ public class FemModel3d extends FemModel
       recursivelyGetLocalComponents (this, list, Collidable.class);
    }
 
+   /**
+    * Returns the number of threads used to compute the element stresses and
+    * stiffnesses in {@link #updateStressAndStiffness}.
+    *
+    * @return number of stiffness threads
+    */
+   public int getNumStiffnessThreads() {
+      return myNumStiffnessThreads;
+   }
+
+   /**
+    * Sets the number of threads used to compute the element stresses and
+    * stiffnesses in {@link #updateStressAndStiffness}. If the number is
+    * greater than 1, elements are grouped into colors such that no two
+    * elements of the same color share a node, and the elements within each
+    * color are processed concurrently. Results for a given number of threads
+    * are deterministic; a value of 1 (the default) gives the original serial
+    * computation.
+    *
+    * @param num number of stiffness threads
+    */
+   public void setNumStiffnessThreads (int num) {
+      if (num < 1) {
+         num = 1;
+      }
+      if (num != myNumStiffnessThreads) {
+         myNumStiffnessThreads = num;
+         if (myStiffnessLoop != null) {
+            myStiffnessLoop.dispose();
+            myStiffnessLoop = null;
+         }
+         myThreadWorkspaces = null;
+      }
+   }
+
+   /**
+    * Queries whether packed storage is used for the node positions and
+    * neighbor stiffnesses accessed during stress and stiffness computation.
+    *
+    * @return <code>true</code> if packed storage is used
+    * @see #setUsePackedStorage
+    */
+   public boolean getUsePackedStorage() {
+      return myUsePackedStorage;
+   }
+
+   /**
+    * Enables or disables packed storage for the data accessed during stress
+    * and stiffness computation. When enabled, the node positions are
+    * copied into a single array at the start of each stress update, and the
+    * stiffness blocks of all node neighbors are stored contiguously in a
+    * single pool (see {@link FemPackedStorage}). This reduces cache misses
+    * for large models, while leaving the results unchanged. Disabled by
+    * default.
+    *
+    * @param enable if <code>true</code>, enables packed storage
+    */
+   public void setUsePackedStorage (boolean enable) {
+      if (enable != myUsePackedStorage) {
+         myUsePackedStorage = enable;
+         if (!enable && myPackedStorage != null) {
+            myPackedStorage.release (myElements);
+            myPackedStorage = null;
+            myPackedStorageValid = false;
+         }
+      }
+   }
+
+   /**
+    * Returns the packed storage currently used by this model, or
+    * <code>null</code> if packed storage is disabled or has not yet been
+    * created.
+    *
+    * @return packed storage, or <code>null</code>
+    */
+   public FemPackedStorage getPackedStorage() {
+      return myPackedStorageValid ? myPackedStorage : null;
+   }
+
+   /**
+    * Creates or rebuilds the packed storage if necessary, and copies the
+    * current node positions into it.
+    */
+   protected void updatePackedStorage() {
+      if (myUsePackedStorage) {
+         if (!myPackedStorageValid) {
+            if (myPackedStorage != null) {
+               myPackedStorage.release (myElements);
+            }
+            myPackedStorage = new FemPackedStorage (myNodes, myElements);
+            myPackedStorageValid = true;
+         }
+         else {
+            myPackedStorage.updatePositions (myNodes);
+         }
+      }
+   }
+
    public void setComputeNodalStress(boolean enable) {
       if (enable != myComputeNodalStress) {
          myComputeNodalStress = enable;
@@ -346,6 +472,8 @@ public class FemModel3d extends FemModel
       myFrame = new FemModelFrame ("frame");
       myNodes = new PointList<FemNode3d>(FemNode3d.class, "nodes", "n");
       myElements = new FemElement3dList("elements", "e");
+      myNodes.setBulkCodec (new FemNode3dBulkCodec());
+      myElements.setBulkCodec (new FemElement3dBulkCodec());
       myAdditionalMaterialsList =
       new AuxMaterialBundleList("materials", "mat");
       addFixed(myFrame);
@@ -689,22 +817,30 @@ public class FemModel3d extends FemModel
 
    protected void computePressuresAndRinv(
       FemElement3d e, IncompressibleMaterial imat, double scale) {
+      computePressuresAndRinv (e, imat, scale, getSerialWorkspace());
+   }
 
+   protected void computePressuresAndRinv(
+      FemElement3d e, IncompressibleMaterial imat, double scale,
+      FemStiffnessWorkspace ws) {
+
+      VectorNd pressures = ws.myPressures;
+      MatrixNd rinv = ws.myRinv;
       int npvals = e.numPressureVals();
 
-      myRinv.setSize(npvals, npvals);
-      myPressures.setSize(npvals);
+      rinv.setSize(npvals, npvals);
+      pressures.setSize(npvals);
 
-      double[] pbuf = myPressures.getBuffer();
+      double[] pbuf = pressures.getBuffer();
       double restVol = e.getRestVolume();
 
       if (npvals > 1) {
-         myPressures.setZero();
-         IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
+         pressures.setZero();
+         IntegrationPoint3d[] ipnts = ws.getIntegrationPoints (e);
          IntegrationData3d[] idata = e.getIntegrationData();
 
          if (imat.getBulkPotential() != BulkPotential.QUADRATIC) {
-            myRinv.setZero();
+            rinv.setZero();
          }
          for (int k = 0; k < ipnts.length; k++) {
             IntegrationPoint3d pt = ipnts[k];
@@ -720,31 +856,31 @@ public class FemModel3d extends FemModel
                double mod = imat.getEffectiveModulus(detJ);
                for (int i = 0; i < npvals; i++) {
                   for (int j = 0; j < npvals; j++) {
-                     myRinv.add(i, j, H[i] * H[j] * mod * dV);
+                     rinv.add(i, j, H[i] * H[j] * mod * dV);
                   }
                }
             }
          }
          Matrix W = e.getPressureWeightMatrix();
-         W.mul(myPressures, myPressures);
-         myPressures.scale(1 / restVol);
+         W.mul(pressures, pressures);
+         pressures.scale(1 / restVol);
          if (imat.getBulkPotential() == BulkPotential.QUADRATIC) {
-            myRinv.set(W);
-            myRinv.scale(scale*imat.getBulkModulus() / restVol);
+            rinv.set(W);
+            rinv.scale(scale*imat.getBulkModulus() / restVol);
          }
          else {
             // optimize later
             MatrixNd Wtmp = new MatrixNd(W);
             Wtmp.scale(scale / restVol);
-            myRinv.mul(Wtmp);
-            myRinv.mul(Wtmp, myRinv);
+            rinv.mul(Wtmp);
+            rinv.mul(Wtmp, rinv);
          }
       }
       else {
          double Jpartial = e.myVolumes[0] / e.myRestVolumes[0];
          pbuf[0] = (imat.getEffectivePressure(Jpartial) +
                     0 * e.myLagrangePressures[0]);
-         myRinv.set(0, 0, scale*imat.getEffectiveModulus(Jpartial) / restVol);
+         rinv.set(0, 0, scale*imat.getEffectiveModulus(Jpartial) / restVol);
       }
    }
 
@@ -771,11 +907,28 @@ public class FemModel3d extends FemModel
    // DIVBLK
    protected void computeNonlinearStressAndStiffness(
       FemElement3d e, FemMaterial mat, Matrix6d D, IncompMethod softIncomp) {
+      computeNonlinearStressAndStiffness (
+         e, mat, D, softIncomp, getSerialWorkspace());
+   }
 
-      IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
+   /**
+    * Computes the stress and (optionally) the stiffness for a single element,
+    * using the temporary storage, integration points and inversion statistics
+    * of a specified workspace. Workspaces allow this method to be called
+    * concurrently for elements that do not share any nodes.
+    */
+   protected void computeNonlinearStressAndStiffness(
+      FemElement3d e, FemMaterial mat, Matrix6d D, IncompMethod softIncomp,
+      FemStiffnessWorkspace ws) {
+
+      IntegrationPoint3d[] ipnts = ws.getIntegrationPoints (e);
       IntegrationData3d[] idata = e.getIntegrationData();
       FemNode3d[] nodes = e.getNodes();
       int npvals = e.numPressureVals();
+      double[] packedPos = null;
+      if (myPackedStorageValid && e.myPackedNodeIdxs != null) {
+         packedPos = myPackedStorage.myPos;
+      }
       double pressure = 0; // pressure for incompressibility
       double vol = 0;
       double restVol = 0;
@@ -806,20 +959,20 @@ public class FemModel3d extends FemModel
 
          linMat = (LinearMaterial)mat;
          corotated = linMat.isCorotated();
-         wpnt = e.getWarpingPoint();
-         IntegrationData3d data = e.getWarpingData();
-         wpnt.computeJacobianAndGradient(e.myNodes, data.myInvJ0);
+         wpnt = ws.getWarpingPoint (e);
+         // rest shape gradients are cached with the warping stiffness
+         e.computeWarpingGradient (wpnt.F, packedPos);
          wpnt.sigma.setZero();
          if (corotated) {
-            e.computeWarping(wpnt.F, myEps);
+            e.computeWarping(wpnt.F, ws.myEps);
          }
          else {
-            myEps.setSymmetric(wpnt.F);
+            ws.myEps.setSymmetric(wpnt.F);
          }
          // compute Cauchy strain
-         myEps.m00 -= 1;
-         myEps.m11 -= 1;
-         myEps.m22 -= 1;
+         ws.myEps.m00 -= 1;
+         ws.myEps.m11 -= 1;
+         ws.myEps.m22 -= 1;
       }
 
       e.setInverted(false); // will check this below
@@ -828,7 +981,7 @@ public class FemModel3d extends FemModel
          imat = (IncompressibleMaterial)mat;
          if (softIncomp == IncompMethod.ELEMENT) {
 
-            computePressuresAndRinv (e, imat, vebTangentScale);
+            computePressuresAndRinv (e, imat, vebTangentScale, ws);
             if (D != null) {
                constraints = e.getIncompressConstraints();
                for (int i = 0; i < e.myNodes.length; i++) {
@@ -840,25 +993,24 @@ public class FemModel3d extends FemModel
       }
       else if (softIncomp == IncompMethod.NODAL) {
          if (e instanceof TetElement) {
-            ((TetElement)e).getAreaWeightedNormals(myNodalConstraints);
+            ((TetElement)e).getAreaWeightedNormals(ws.myNodalConstraints);
             for (int i = 0; i < 4; i++) {
-               myNodalConstraints[i].scale(-1 / 12.0);
+               ws.myNodalConstraints[i].scale(-1 / 12.0);
             }
          }
          else {
             for (int i = 0; i < e.numNodes(); i++) {
-               myNodalConstraints[i].setZero();
+               ws.myNodalConstraints[i].setZero();
             }
          }
 
       }
 
       if (linMat != null) {
-         for (int i = 0; i < nodes.length; i++) {
-            int bi = nodes[i].getSolveIndex();
-            if (bi != -1) {
-               FemNode3d n = nodes[i];
-               if (!myStiffnessesValidP) {
+         if (!myStiffnessesValidP) {
+            for (int i = 0; i < nodes.length; i++) {
+               int bi = nodes[i].getSolveIndex();
+               if (bi != -1) {
                   for (int j = 0; j < nodes.length; j++) {
                      int bj = nodes[j].getSolveIndex();
                      if (!mySolveMatrixSymmetricP || bj >= bi) {
@@ -866,16 +1018,16 @@ public class FemModel3d extends FemModel
                      }
                   }
                }
-               e.addNodeForce(n.myInternalForce, i, corotated);
             }
          }
+         e.addNodeForces(corotated);
       }
 
       if (myComputeNodalStress || myComputeNodalStrain) {
          nodalExtrapMat = e.getNodalExtrapolationMatrix();
          if (linMat != null) {
             linMat.addStress(wpnt.sigma,
-               myEps, corotated ? e.myWarper.R : null);
+               ws.myEps, corotated ? e.myWarper.R : null);
             for (int i = 0; i < nodes.length; i++) {
                FemNode3d nodei = nodes[i];
                if (myComputeNodalStress) {
@@ -884,13 +1036,13 @@ public class FemModel3d extends FemModel
                }
                if (myComputeNodalStrain) {
                   nodei.addScaledStrain(
-                     1.0 / nodei.numAdjacentElements(), myEps);
+                     1.0 / nodei.numAdjacentElements(), ws.myEps);
                }
             }
          }
       }
 
-      double[] pbuf = myPressures.getBuffer();
+      double[] pbuf = ws.myPressures.getBuffer();
       // e.myAvgStress.setZero();
       if (linMat == null || e.numAuxiliaryMaterials() > 0) {
 
@@ -899,16 +1051,19 @@ public class FemModel3d extends FemModel
          for (int k = 0; k < ipnts.length; k++) {
             IntegrationPoint3d pt = ipnts[k];
             IntegrationData3d dt = idata[k];
-            pt.computeJacobianAndGradient(e.myNodes, idata[k].myInvJ0);
+            if (packedPos != null) {
+               pt.computeJacobianAndGradient(
+                  packedPos, e.myPackedNodeIdxs, idata[k].myInvJ0);
+            }
+            else {
+               pt.computeJacobianAndGradient(e.myNodes, idata[k].myInvJ0);
+            }
             def.setF(pt.F);
             double detJ = pt.computeInverseJacobian();
-            if (detJ < myMinDetJ) {
-               myMinDetJ = detJ;
-               myMinDetJElement = e;
-            }
+            ws.updateMinDetJ (detJ, e);
             if (detJ <= 0 && !e.materialsAreInvertible()) {
                e.setInverted(true);
-               myNumInverted++;
+               ws.myNumInverted++;
             }
             double dv = detJ * pt.getWeight();
             Vector3d[] GNx = pt.updateShapeGradient(pt.myInvJ);
@@ -1021,13 +1176,13 @@ public class FemModel3d extends FemModel
                   }
                   else if (softIncomp == IncompMethod.NODAL) {
                      if (e.integrationPointsMapToNodes()) {
-                        myNodalConstraints[i].scale(dv, GNx[i]);
+                        ws.myNodalConstraints[i].scale(dv, GNx[i]);
                      }
                      else { // tet element
                         for (FemNodeNeighbor nbr : getNodeNeighbors(nodei)) {
                            int j = e.getLocalNodeIndex(nbr.myNode);
                            if (j != -1) {
-                              nbr.myDivBlk.scaledAdd(1, myNodalConstraints[j]);
+                              nbr.myDivBlk.scaledAdd(1, ws.myNodalConstraints[j]);
                            }
                         }
                      }
@@ -1075,7 +1230,7 @@ public class FemModel3d extends FemModel
                for (FemNodeNeighbor nbr : getNodeNeighbors(e.myNodes[k])) {
                   int j = e.getLocalNodeIndex(nbr.myNode);
                   if (j != -1) {
-                     nbr.myDivBlk.scaledAdd(1, myNodalConstraints[j]);
+                     nbr.myDivBlk.scaledAdd(1, ws.myNodalConstraints[j]);
                   }
                }
             }
@@ -1086,9 +1241,9 @@ public class FemModel3d extends FemModel
             boolean kpIsNonzero = false;
             for (int l = 0; l < npvals; l++) {
                double Jpartial = e.myVolumes[l] / e.myRestVolumes[l];
-               myKp[l] =
+               ws.myKp[l] =
                imat.getEffectiveModulus(Jpartial) / e.myRestVolumes[l];
-               if (myKp[l] != 0) {
+               if (ws.myKp[l] != 0) {
                   kpIsNonzero = true;
                }
             }
@@ -1101,7 +1256,7 @@ public class FemModel3d extends FemModel
                         int bj = e.myNodes[j].getSolveIndex();
                         if (!mySolveMatrixSymmetricP || bj >= bi) {
                            e.myNbrs[i][j].addDilationalStiffness(
-                              myRinv, constraints[i], constraints[j]);
+                              ws.myRinv, constraints[i], constraints[j]);
                         } // end filling in symmetric
                      } // end filling in dilatational stiffness
                   } // end checking if valid index
@@ -1214,11 +1369,188 @@ public class FemModel3d extends FemModel
       myNodalRestVolumesValidP = true;
    }
 
+   protected FemStiffnessWorkspace getSerialWorkspace() {
+      if (mySerialWorkspace == null) {
+         mySerialWorkspace = new FemStiffnessWorkspace (
+            myPressures, myRinv, myKp, myNodalConstraints, myEps);
+      }
+      return mySerialWorkspace;
+   }
+
+   /**
+    * Groups the elements into colors such that no two elements of the same
+    * color share a node. Elements are colored greedily in order, and the
+    * element indices within each color are stored in increasing order, so
+    * that the result depends only on the model structure.
+    */
+   protected int[][] computeElementColors() {
+      int numc = 0;
+      int[] colors = new int[myElements.size()];
+      ArrayList<int[]> counts = new ArrayList<int[]>();
+      HashMap<FemNode3d,long[]> nodeMasks = new HashMap<FemNode3d,long[]>();
+      for (int k=0; k<myElements.size(); k++) {
+         FemNode3d[] nodes = myElements.get(k).getNodes();
+         // find smallest color not used by the nodes of this element. Node
+         // color sets are stored as bit masks, one long per 64 colors.
+         int c = 0;
+         boolean found = false;
+         while (!found) {
+            found = true;
+            for (FemNode3d n : nodes) {
+               long[] mask = nodeMasks.get (n);
+               if (mask != null && c/64 < mask.length &&
+                   (mask[c/64] & (1L << (c%64))) != 0) {
+                  found = false;
+                  c++;
+                  break;
+               }
+            }
+         }
+         for (FemNode3d n : nodes) {
+            long[] mask = nodeMasks.get (n);
+            if (mask == null || c/64 >= mask.length) {
+               long[] newMask = new long[c/64+1];
+               if (mask != null) {
+                  System.arraycopy (mask, 0, newMask, 0, mask.length);
+               }
+               mask = newMask;
+               nodeMasks.put (n, mask);
+            }
+            mask[c/64] |= (1L << (c%64));
+         }
+         colors[k] = c;
+         if (c >= numc) {
+            numc = c+1;
+         }
+      }
+      int[] sizes = new int[numc];
+      for (int k=0; k<colors.length; k++) {
+         sizes[colors[k]]++;
+      }
+      int[][] elemColors = new int[numc][];
+      for (int c=0; c<numc; c++) {
+         elemColors[c] = new int[sizes[c]];
+         sizes[c] = 0;
+      }
+      for (int k=0; k<colors.length; k++) {
+         int c = colors[k];
+         elemColors[c][sizes[c]++] = k;
+      }
+      return elemColors;
+   }
+
+   /**
+    * Returns the number of colors into which the elements are grouped for
+    * concurrent stress and stiffness computation.
+    *
+    * @return number of element colors
+    */
+   public int numElementColors() {
+      if (myElementColors == null) {
+         myElementColors = computeElementColors();
+      }
+      return myElementColors.length;
+   }
+
+   /**
+    * Returns true if the stress and stiffness for an element must be computed
+    * serially, because it uses auxiliary or viscoelastic materials whose
+    * computations may depend on shared state.
+    */
+   private boolean requiresSerialStiffness (FemElement3d e, FemMaterial mat) {
+      return (e.numAuxiliaryMaterials() > 0 || mat.getViscoBehavior() != null);
+   }
+
+   /**
+    * Computes the element stresses and stiffnesses using
+    * <code>myNumStiffnessThreads</code> threads. Elements of each color are
+    * processed concurrently, with each thread assigned a fixed contiguous
+    * chunk of the color and using its own workspace. Elements that must be
+    * handled serially are processed afterwards, in order.
+    */
+   protected void computeStressAndStiffnessConcurrently (
+      final IncompMethod softIncomp) {
+
+      if (myElementColors == null) {
+         myElementColors = computeElementColors();
+      }
+      if (myStiffnessLoop == null) {
+         myStiffnessLoop = new ParallelLoop (
+            "FemModel3d.stiffness", myNumStiffnessThreads);
+      }
+      if (myThreadWorkspaces == null) {
+         myThreadWorkspaces =
+            new FemStiffnessWorkspace[myNumStiffnessThreads];
+         for (int i=0; i<myNumStiffnessThreads; i++) {
+            myThreadWorkspaces[i] = new FemStiffnessWorkspace (
+               MAX_PRESSURE_VALS, MAX_NODAL_INCOMP_NODES);
+         }
+      }
+      for (FemStiffnessWorkspace ws : myThreadWorkspaces) {
+         ws.reset();
+      }
+      // make sure that lazily computed shared data, including the rest
+      // stiffness for linear elements, is created before entering threads
+      for (FemElement3d e : myElements) {
+         FemMaterial mat = getElementMaterial(e);
+         e.getIntegrationPoints();
+         if (mat instanceof LinearMaterial) {
+            e.getWarpingPoint();
+            if (!e.myWarpingStiffnessValidP) {
+               e.updateWarpingStiffness();
+            }
+         }
+         if (mat.isIncompressible()) {
+            e.getPressureWeightMatrix();
+         }
+         if (myComputeNodalStress || myComputeNodalStrain) {
+            e.getNodalExtrapolationMatrix();
+         }
+      }
+      for (final int[] elemIdxs : myElementColors) {
+         myStiffnessLoop.forRange (0, elemIdxs.length, new ParallelLoop.Body() {
+               public void run (int thread, int start, int end) {
+                  FemStiffnessWorkspace ws = myThreadWorkspaces[thread];
+                  for (int k=start; k<end; k++) {
+                     FemElement3d e = myElements.get(elemIdxs[k]);
+                     FemMaterial mat = getElementMaterial(e);
+                     if (!requiresSerialStiffness (e, mat)) {
+                        computeNonlinearStressAndStiffness (
+                           e, ws.getMaterial(mat), ws.myD, softIncomp, ws);
+                     }
+                  }
+               }
+            });
+      }
+      FemStiffnessWorkspace sws = getSerialWorkspace();
+      sws.reset();
+      for (FemElement3d e : myElements) {
+         FemMaterial mat = getElementMaterial(e);
+         if (requiresSerialStiffness (e, mat)) {
+            computeNonlinearStressAndStiffness (
+               e, mat, sws.myD, softIncomp, sws);
+         }
+      }
+      // combine inversion statistics in a fixed order
+      myMinDetJ = sws.myMinDetJ;
+      myMinDetJElement = sws.myMinDetJElement;
+      myNumInverted = sws.myNumInverted;
+      for (FemStiffnessWorkspace ws : myThreadWorkspaces) {
+         if (ws.myMinDetJ < myMinDetJ) {
+            myMinDetJ = ws.myMinDetJ;
+            myMinDetJElement = ws.myMinDetJElement;
+         }
+         myNumInverted += ws.myNumInverted;
+      }
+   }
+
    // DIVBLK
    public void updateStressAndStiffness() {
 
+      Profiler.begin ("FemModel3d.updateStressAndStiffness");
       // allocate or deallocate nodal incompressibility blocks
       setNodalIncompBlocksAllocated (getSoftIncompMethod()==IncompMethod.NODAL);
+      updatePackedStorage();
 
       // clear existing internal forces and maybe stiffnesses
       for (FemNode3d n : myNodes) {
@@ -1261,23 +1593,30 @@ public class FemModel3d extends FemModel
       Matrix6d D = new Matrix6d();
       // compute new forces as well as stiffness matrix if warping is enabled
 
-      myMinDetJ = Double.MAX_VALUE;
-      myMinDetJElement = null;
-      myNumInverted = 0;
-
       double mins = Double.MAX_VALUE;
       FemElement3d minE = null;
 
-      for (FemElement3d e : myElements) {
-         FemMaterial mat = getElementMaterial(e);
-         computeNonlinearStressAndStiffness(e, mat, D, softIncomp);
-         if (checkTangentStability) {
-            double s = checkMatrixStability(D);
-            if (s < mins) {
-               mins = s;
-               minE = e;
+      if (myNumStiffnessThreads > 1 &&
+          softIncomp != IncompMethod.NODAL && !checkTangentStability) {
+         computeStressAndStiffnessConcurrently (softIncomp);
+      }
+      else {
+         FemStiffnessWorkspace ws = getSerialWorkspace();
+         ws.reset();
+         for (FemElement3d e : myElements) {
+            FemMaterial mat = getElementMaterial(e);
+            computeNonlinearStressAndStiffness(e, mat, D, softIncomp, ws);
+            if (checkTangentStability) {
+               double s = checkMatrixStability(D);
+               if (s < mins) {
+                  mins = s;
+                  minE = e;
+               }
             }
          }
+         myMinDetJ = ws.myMinDetJ;
+         myMinDetJElement = ws.myMinDetJElement;
+         myNumInverted = ws.myNumInverted;
       }
       if (softIncomp == IncompMethod.NODAL) {
          IncompressibleMaterial imat = (IncompressibleMaterial)myMaterial;
@@ -1359,11 +1698,13 @@ public class FemModel3d extends FemModel
       myStiffnessesValidP = true;
       myStressesValidP = true;
       // timerStop("stressAndStiffness");
+      Profiler.end();
    }
 
    public void updateStress() {
       // clear existing internal forces and maybe stiffnesses
       timerStart();
+      updatePackedStorage();
       for (FemNode3d n : myNodes) {
          n.myInternalForce.setZero();
          for (FemNodeNeighbor nbr : getNodeNeighbors(n)) {
@@ -1481,6 +1822,10 @@ public class FemModel3d extends FemModel
       if (!myStressesValidP || !myStiffnessesValidP) {
          updateStressAndStiffness();
       }
+      if (myPackedStorageValid) {
+         addPackedPosJacobian (M, s);
+         return;
+      }
       for (int i = 0; i < myNodes.size(); i++) {
          FemNode3d node = myNodes.get(i);
          if (node.getSolveIndex() != -1) {
@@ -1504,6 +1849,44 @@ public class FemModel3d extends FemModel
       // System.out.println ("symmetric=" + mySolveMatrix.isSymmetric(1e-6));
    }
 
+   /**
+    * Implementation of addPosJacobian() that traverses the direct neighbors
+    * using the packed storage, adding their stiffnesses directly from the
+    * pool.
+    */
+   private void addPackedPosJacobian (SparseNumberedBlockMatrix M, double s) {
+      FemNodeNeighbor[] nbrs = myPackedStorage.myNbrs;
+      int[] offs = myPackedStorage.myNbrOffsets;
+      double[] K = myPackedStorage.myStiffness;
+      for (int i = 0; i < myNodes.size(); i++) {
+         FemNode3d node = myNodes.get(i);
+         if (node.getSolveIndex() != -1) {
+            for (int k = offs[i]; k < offs[i+1]; k++) {
+               FemNodeNeighbor nbr = nbrs[k];
+               if (nbr.myNode.getSolveIndex() != -1) {
+                  Matrix3x3Block blk =
+                     (Matrix3x3Block)M.getBlockByNumber(nbr.myBlkNum);
+                  int o = 9*k;
+                  blk.m00 -= s*K[o  ]; blk.m01 -= s*K[o+1]; blk.m02 -= s*K[o+2];
+                  blk.m10 -= s*K[o+3]; blk.m11 -= s*K[o+4]; blk.m12 -= s*K[o+5];
+                  blk.m20 -= s*K[o+6]; blk.m21 -= s*K[o+7]; blk.m22 -= s*K[o+8];
+                  if (nbr.myKX != null) {
+                     blk.scaledAdd (-s, nbr.myKX, blk);
+                  }
+               }
+            }
+            // used for soft nodal-based incompressibilty:
+            for (FemNodeNeighbor nbr : getIndirectNeighbors(node)) {
+               if (nbr.myNode.getSolveIndex() != -1) {
+                  Matrix3x3Block blk =
+                  (Matrix3x3Block)M.getBlockByNumber(nbr.myBlkNum);
+                  nbr.addPosJacobian(blk, s);
+               }
+            }
+         }
+      }
+   }
+
    protected void addNodeNeighborBlock(
       SparseNumberedBlockMatrix S, FemNodeNeighbor nbr, int bi) {
 
@@ -2667,6 +3050,29 @@ public class FemModel3d extends FemModel
       myHardIncompMethodValidP = false;
       myHardIncompConfigValidP = false;
       myNumTetElements = -1; // invalidates all element counts
+      myElementColors = null;
+      myPackedStorageValid = false;
+      // materials may have been replaced
+      clearThreadMaterials();
+   }
+
+   /**
+    * Clears the material copies used by the stiffness threads, so that
+    * they will be recopied from the current materials.
+    */
+   protected void clearThreadMaterials() {
+      if (myThreadWorkspaces != null) {
+         for (FemStiffnessWorkspace ws : myThreadWorkspaces) {
+            ws.clearMaterials();
+         }
+      }
+   }
+
+   public void propertyChanged (PropertyChangeEvent e) {
+      super.propertyChanged (e);
+      if (e.getHost() instanceof FemMaterial) {
+         clearThreadMaterials();
+      }
    }
 
    // Called when the geometry (but not the toplogy) of one or
@@ -3792,6 +4198,15 @@ public class FemModel3d extends FemModel
         for (int i = 0; i < MAX_NODAL_INCOMP_NODES; i++) {
            fem.myNodalConstraints[i] = new Vector3d();
         }
+        fem.myEps = new SymmetricMatrix3d();
+        fem.myRinv = new MatrixNd();
+        fem.myNumStiffnessThreads = myNumStiffnessThreads;
+        fem.myStiffnessLoop = null;
+        fem.mySerialWorkspace = null;
+        fem.myThreadWorkspaces = null;
+        fem.myElementColors = null;
+        fem.myPackedStorage = null;
+        fem.myPackedStorageValid = false;
 
         return fem;
      }
@@ -315,8 +315,249 @@ public class FemModel3dTest extends UnitTest {
          e.printStackTrace(); 
       }
    }
+   private void collectForcesAndStiffness (
+      VectorNd f, VectorNd K, FemModel3d fem) {
+      fem.invalidateStressAndStiffness();
+      fem.updateStressAndStiffness();
+      int nnodes = fem.numNodes();
+      f.setSize (3*nnodes);
+      int nk = 0;
+      for (FemNode3d n : fem.getNodes()) {
+         nk += 9*n.getNodeNeighbors().size();
+      }
+      K.setSize (nk);
+      int k = 0;
+      for (int i=0; i<nnodes; i++) {
+         FemNode3d n = fem.getNode(i);
+         f.setSubVector (3*i, n.myInternalForce);
+         for (FemNodeNeighbor nbr : n.getNodeNeighbors()) {
+            for (int r=0; r<3; r++) {
+               for (int c=0; c<3; c++) {
+                  K.set (k++, nbr.getK().get (r, c));
+               }
+            }
+         }
+      }
+   }
+
+   private void checkElementColors (FemModel3d fem) {
+      int[][] colors = fem.computeElementColors();
+      int numElems = 0;
+      for (int c=0; c<colors.length; c++) {
+         java.util.HashSet<FemNode3d> nodes = new java.util.HashSet<FemNode3d>();
+         for (int k=0; k<colors[c].length; k++) {
+            for (FemNode3d n : fem.getElement(colors[c][k]).getNodes()) {
+               if (!nodes.add (n)) {
+                  throw new TestException (
+                     "Node "+n.getNumber()+" shared within color "+c);
+               }
+            }
+         }
+         numElems += colors[c].length;
+      }
+      if (numElems != fem.numElements()) {
+         throw new TestException (
+            "Colors contain "+numElems+" elements, expected "+
+            fem.numElements());
+      }
+   }
+
+   public void testConcurrentStiffness (FemModel3d fem) {
+
+      // perturb the nodes so that the stiffness is nonlinear
+      for (FemNode3d n : fem.getNodes()) {
+         Point3d pos = new Point3d (n.getPosition());
+         Vector3d del = new Vector3d();
+         del.setRandom (-0.01, 0.01);
+         pos.add (del);
+         n.setPosition (pos);
+      }
+      checkElementColors (fem);
+
+      VectorNd f1 = new VectorNd();
+      VectorNd K1 = new VectorNd();
+      VectorNd fchk = new VectorNd();
+      VectorNd Kchk = new VectorNd();
+
+      fem.setNumStiffnessThreads (1);
+      collectForcesAndStiffness (fchk, Kchk, fem);
+      double tol = 1e-10;
+
+      for (int num=2; num<=4; num++) {
+         fem.setNumStiffnessThreads (num);
+         collectForcesAndStiffness (f1, K1, fem);
+         checkEquals (
+            "forces with "+num+" threads", f1, fchk, tol*fchk.infinityNorm());
+         checkEquals (
+            "stiffness with "+num+" threads", K1, Kchk, tol*Kchk.infinityNorm());
+         // results should be repeatable for a fixed number of threads
+         VectorNd f2 = new VectorNd();
+         VectorNd K2 = new VectorNd();
+         collectForcesAndStiffness (f2, K2, fem);
+         checkEquals ("repeated forces with "+num+" threads", f2, f1);
+         checkEquals ("repeated stiffness with "+num+" threads", K2, K1);
+      }
+      fem.setNumStiffnessThreads (1);
+   }
+
+   public void testConcurrentStiffness() {
+      FemModel3d fem = FemFactory.createTetGrid (null, 1.0, 0.5, 0.5, 6, 3, 3);
+      fem.setMaterial (new MooneyRivlinMaterial (150000, 0, 0, 0, 0, 5000000));
+      testConcurrentStiffness (fem);
+
+      fem = FemFactory.createHexGrid (null, 1.0, 0.5, 0.5, 6, 3, 3);
+      fem.setMaterial (new LinearMaterial (100000, 0.33));
+      testConcurrentStiffness (fem);
+   }
+
+   private void collectPosJacobian (MatrixNd J, FemModel3d fem) {
+      int nnodes = fem.numNodes();
+      int[] sizes = new int[nnodes];
+      for (int i=0; i<nnodes; i++) {
+         fem.getNode(i).setSolveIndex (i);
+         sizes[i] = 3;
+      }
+      SparseNumberedBlockMatrix S = new SparseNumberedBlockMatrix (sizes);
+      fem.addSolveBlocks (S);
+      fem.addPosJacobian (S, 0.5);
+      J.set (S);
+   }
+
+   public void testPackedStorage (FemModel3d fem, int numThreads) {
+
+      // perturb the nodes so that the stiffness is nonlinear
+      for (FemNode3d n : fem.getNodes()) {
+         Point3d pos = new Point3d (n.getPosition());
+         Vector3d del = new Vector3d();
+         del.setRandom (-0.01, 0.01);
+         pos.add (del);
+         n.setPosition (pos);
+      }
+      fem.setNumStiffnessThreads (numThreads);
+
+      VectorNd fchk = new VectorNd();
+      VectorNd Kchk = new VectorNd();
+      MatrixNd Jchk = new MatrixNd();
+      fem.setUsePackedStorage (false);
+      collectForcesAndStiffness (fchk, Kchk, fem);
+      collectPosJacobian (Jchk, fem);
+
+      VectorNd f = new VectorNd();
+      VectorNd K = new VectorNd();
+      MatrixNd J = new MatrixNd();
+      fem.setUsePackedStorage (true);
+      collectForcesAndStiffness (f, K, fem);
+      collectPosJacobian (J, fem);
+      if (fem.getPackedStorage() == null) {
+         throw new TestException ("packed storage not created");
+      }
+      // forces should be identical, while stiffness terms may differ by
+      // round-off since some are accumulated before being added to the pool
+      double tol = 1e-12;
+      checkEquals ("forces with packed storage", f, fchk);
+      checkEquals (
+         "stiffness with packed storage", K, Kchk, tol*Kchk.infinityNorm());
+      checkEquals (
+         "pos Jacobian with packed storage", J, Jchk, tol*Jchk.infinityNorm());
+
+      // stiffness should be retained when packed storage is disabled
+      fem.setUsePackedStorage (false);
+      VectorNd Kunpacked = new VectorNd (K.size());
+      int k = 0;
+      for (FemNode3d n : fem.getNodes()) {
+         for (FemNodeNeighbor nbr : n.getNodeNeighbors()) {
+            for (int r=0; r<3; r++) {
+               for (int c=0; c<3; c++) {
+                  Kunpacked.set (k++, nbr.myK.get (r, c));
+               }
+            }
+         }
+      }
+      checkEquals ("stiffness after disabling packed storage", Kunpacked, K);
+      fem.setNumStiffnessThreads (1);
+   }
+
+   public void testPackedStorage() {
+      FemModel3d fem = FemFactory.createTetGrid (null, 1.0, 0.5, 0.5, 4, 2, 2);
+      fem.setMaterial (new MooneyRivlinMaterial (150000, 0, 0, 0, 0, 5000000));
+      testPackedStorage (fem, 1);
+      testPackedStorage (fem, 3);
+
+      fem = FemFactory.createHexGrid (null, 1.0, 0.5, 0.5, 4, 2, 2);
+      fem.setMaterial (new LinearMaterial (100000, 0.33));
+      testPackedStorage (fem, 1);
+      fem.setMaterial (new NeoHookeanMaterial (100000, 0.33));
+      testPackedStorage (fem, 2);
+   }
+
+   /**
+    * Checks the forces computed for a linear material, using rest data
+    * cached by each element's stiffness warper, against forces computed
+    * directly from the element integration points.
+    */
+   public void testLinearElementCache (FemModel3d fem, boolean corotated) {
+      fem.setMaterial (new LinearMaterial (100000, 0.33, corotated));
+      for (int i=0; i<fem.numNodes(); i++) {
+         fem.getNode(i).setSolveIndex (i);
+      }
+      for (FemNode3d n : fem.getNodes()) {
+         Point3d pos = new Point3d (n.getPosition());
+         Vector3d del = new Vector3d();
+         del.setRandom (-0.05, 0.05);
+         pos.add (del);
+         n.setPosition (pos);
+      }
+      VectorNd f = new VectorNd();
+      VectorNd K = new VectorNd();
+      collectForcesAndStiffness (f, K, fem);
+
+      VectorNd fchk = new VectorNd (f.size());
+      SymmetricMatrix3d P = new SymmetricMatrix3d();
+      Vector3d fi = new Vector3d();
+      for (FemElement3d e : fem.getElements()) {
+         IntegrationPoint3d wpnt = e.getWarpingPoint();
+         wpnt.computeJacobianAndGradient (
+            e.getNodes(), e.getWarpingData().myInvJ0);
+         if (corotated) {
+            e.computeWarping (wpnt.getF(), P);
+         }
+         for (int i=0; i<e.numNodes(); i++) {
+            fi.setZero();
+            e.addNodeForce (fi, i, corotated);
+            int idx = 3*e.getNodes()[i].getNumber();
+            for (int k=0; k<3; k++) {
+               fchk.add (idx+k, fi.get(k));
+            }
+         }
+      }
+      double tol = 1e-10*fchk.infinityNorm();
+      checkEquals ("linear forces with cached rest data", f, fchk, tol);
+
+      // resetting the rest position must invalidate the cached data, and
+      // so the forces should then vanish
+      fem.resetRestPosition();
+      collectForcesAndStiffness (f, K, fem);
+      checkEquals (
+         "linear forces after rest reset", f, new VectorNd(f.size()), tol);
+   }
+
+   public void testLinearElementCache() {
+      testLinearElementCache (
+         FemFactory.createTetGrid (null, 1.0, 0.5, 0.5, 4, 2, 2), true);
+      testLinearElementCache (
+         FemFactory.createHexGrid (null, 1.0, 0.5, 0.5, 4, 2, 2), true);
+      testLinearElementCache (
+         FemFactory.createHexGrid (null, 1.0, 0.5, 0.5, 4, 2, 2), false);
+      testLinearElementCache (
+         FemFactory.createQuadtetGrid (
+            new FemModel3d(), 1.0, 0.5, 0.5, 2, 1, 1), true);
+   }
+
    public void test() {
       testFrameRelativeMass();
+      testConcurrentStiffness();
+      testPackedStorage();
+      testLinearElementCache();
    }
 
    public static void main (String[] args) {
@@ -39,6 +39,8 @@ public class FemNode3d extends FemNode {
    protected LinkedList<FemNodeNeighbor> myNodeNeighbors;
    private LinkedList<FemNodeNeighbor> myIndirectNeighbors;
    int myIndex = -1;
+   // index of this node within the packed storage of its FEM model
+   int myPackedIdx = -1;
    private int myIncompressIdx = -1;
    //private int myLocalIncompressIdx = -1;
    protected float myRenderStress = 0;
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.List;
+
+import artisynth.core.modelbase.BinaryModelReader;
+import artisynth.core.modelbase.BinaryModelWriter;
+import artisynth.core.modelbase.BulkComponentCodec;
+import artisynth.core.modelbase.ComponentList;
+import maspack.matrix.Vector3d;
+
+/**
+ * Writes and scans the nodes of a {@link FemModel3d} in bulk. The position,
+ * velocity and (local) rest position of each node are stored in a single
+ * block of doubles. A node list can be written in bulk only if its nodes
+ * are all instances of {@link FemNode3d}, are numbered consecutively, and
+ * have no other non-default properties.
+ */
+public class FemNode3dBulkCodec implements BulkComponentCodec<FemNode3d> {
+
+   private static final int NUM_VALUES = 9;
+
+   private static final String[] myBulkProps =
+      new String[] { "position", "velocity", "restPosition" };
+
+   public boolean canWriteBulk (ComponentList<FemNode3d> list) {
+      for (int i=0; i<list.size(); i++) {
+         FemNode3d node = list.get(i);
+         if (node.getClass() != FemNode3d.class ||
+             !node.isWritable() ||
+             node.getNumber() != i ||
+             node.isMassExplicit() ||
+             BinaryModelWriter.hasNonDefaultProperties (node, myBulkProps)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static void getValues (double[] vals, int k, Vector3d vec) {
+      vals[k  ] = vec.x;
+      vals[k+1] = vec.y;
+      vals[k+2] = vec.z;
+   }
+
+   public int[] writeBulk (
+      ComponentList<FemNode3d> list, BinaryModelWriter writer) {
+
+      double[] vals = new double[NUM_VALUES*list.size()];
+      int k = 0;
+      for (int i=0; i<list.size(); i++) {
+         FemNode3d node = list.get(i);
+         getValues (vals, k, node.getPosition());
+         getValues (vals, k+3, node.getVelocity());
+         getValues (vals, k+6, node.getLocalRestPosition());
+         k += NUM_VALUES;
+      }
+      return new int[] { writer.addDoubles (vals, vals.length) };
+   }
+
+   public void scanBulk (
+      List<FemNode3d> comps, ComponentList<FemNode3d> list, int[] blocks,
+      BinaryModelReader reader) throws IOException {
+
+      if (blocks.length != 1) {
+         throw new IOException (
+            "expecting 1 block for FEM nodes, got " + blocks.length);
+      }
+      DoubleBuffer buf = reader.getDoubles (blocks[0]);
+      if (buf.remaining() % NUM_VALUES != 0) {
+         throw new IOException (
+            "FEM node block size " + buf.remaining() +
+            " is not a multiple of " + NUM_VALUES);
+      }
+      double[] vals = new double[buf.remaining()];
+      buf.get (vals);
+      for (int k=0; k<vals.length; k+=NUM_VALUES) {
+         FemNode3d node = new FemNode3d();
+         node.setPosition (vals[k], vals[k+1], vals[k+2]);
+         node.setVelocity (vals[k+3], vals[k+4], vals[k+5]);
+         node.myRest.set (vals[k+6], vals[k+7], vals[k+8]);
+         comps.add (node);
+      }
+   }
+}
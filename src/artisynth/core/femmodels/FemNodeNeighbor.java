@@ -27,20 +27,115 @@ public class FemNodeNeighbor {
    protected Matrix3x1Block myDivBlk;
    // Matrix3x1Block myDivBlk1;
 
+   // If non-null, the stiffness is stored in this array, in row-major order
+   // starting at myPoolOff, instead of in myK. This is used by the packed
+   // storage of FemModel3d, in which the stiffnesses of all neighbors are
+   // stored contiguously. myK is then used as scratch space.
+   protected double[] myPool;
+   protected int myPoolOff;
+
    public void zeroStiffness() {
-      myK.setZero();
+      if (myPool != null) {
+         zeroStiffnessPool();
+      }
+      else {
+         myK.setZero();
+      }
       if (myKX != null) {
          myKX.setZero();
       }
    }
    
    public void addStiffness (Matrix3d K) {
-      myK.add (K);
+      if (myPool != null) {
+         addToPool (K);
+      }
+      else {
+         myK.add (K);
+      }
    }
    
+   /**
+    * Returns the stiffness matrix for this neighbor. If the stiffness is
+    * stored in a packed pool, the returned matrix is a copy of the
+    * current pool values, and modifying it will not change the stiffness.
+    */
    public Matrix3d getK()  {
+      if (myPool != null) {
+         getFromPool (myK);
+      }
+      return myK;
+   }
+
+   /**
+    * Sets the array in which the stiffness for this neighbor is stored. The
+    * current stiffness value is copied into the new location. Specifying a
+    * <code>null</code> pool causes the stiffness to be stored in the
+    * neighbor itself.
+    */
+   void setStiffnessPool (double[] pool, int off) {
+      if (pool != myPool || off != myPoolOff) {
+         if (myPool != null) {
+            getFromPool (myK);
+         }
+         myPool = pool;
+         myPoolOff = off;
+         if (pool != null) {
+            zeroStiffnessPool();
+            addToPool (myK);
+         }
+      }
+   }
+
+   double[] getStiffnessPool() {
+      return myPool;
+   }
+
+   int getStiffnessPoolOffset() {
+      return myPoolOff;
+   }
+
+   private void zeroStiffnessPool() {
+      for (int k=myPoolOff; k<myPoolOff+9; k++) {
+         myPool[k] = 0;
+      }
+   }
+
+   private void getFromPool (Matrix3d K) {
+      double[] p = myPool;
+      int o = myPoolOff;
+      K.m00 = p[o  ]; K.m01 = p[o+1]; K.m02 = p[o+2];
+      K.m10 = p[o+3]; K.m11 = p[o+4]; K.m12 = p[o+5];
+      K.m20 = p[o+6]; K.m21 = p[o+7]; K.m22 = p[o+8];
+   }
+
+   private void addToPool (Matrix3d K) {
+      double[] p = myPool;
+      int o = myPoolOff;
+      p[o  ] += K.m00; p[o+1] += K.m01; p[o+2] += K.m02;
+      p[o+3] += K.m10; p[o+4] += K.m11; p[o+5] += K.m12;
+      p[o+6] += K.m20; p[o+7] += K.m21; p[o+8] += K.m22;
+   }
+
+   /**
+    * Returns the matrix into which stiffness terms computed by
+    * FemUtilities should be accumulated. This is myK, which must be zeroed
+    * first if the stiffness is actually stored in the pool, in which case
+    * {@link #endStiffnessUpdate} should be called afterwards to add the
+    * result to the pool.
+    */
+   private Matrix3d beginStiffnessUpdate() {
+      if (myPool != null) {
+         myK.setZero();
+      }
       return myK;
    }
+
+   private void endStiffnessUpdate() {
+      if (myPool != null) {
+         addToPool (myK);
+      }
+   }
    
    public Matrix3x1Block getDivBlk() {
       return myDivBlk;
@@ -55,7 +150,17 @@ public class FemNodeNeighbor {
     * the stiffness components of another node neighbour. 
     */
    public void setTransposedStiffness (FemNodeNeighbor nbr) {
-      myK.transpose (nbr.myK);
+      if (myPool != null) {
+         Matrix3d K = nbr.getK();
+         double[] p = myPool;
+         int o = myPoolOff;
+         p[o  ] = K.m00; p[o+1] = K.m10; p[o+2] = K.m20;
+         p[o+3] = K.m01; p[o+4] = K.m11; p[o+5] = K.m21;
+         p[o+6] = K.m02; p[o+7] = K.m12; p[o+8] = K.m22;
+      }
+      else {
+         myK.transpose (nbr.getK());
+      }
       if (nbr.myKX != null) {
          if (myKX == null) {
             myKX = new Matrix3d();
@@ -93,7 +198,12 @@ public class FemNodeNeighbor {
    
    public void addVelJacobian (
       Matrix3d blk, double s, double stiffnessDamping, double massDamping) {
-      blk.scaledAdd (-s * stiffnessDamping, myK, blk);
+      if (myPool != null) {
+         scaledAddFromPool (blk, -s * stiffnessDamping);
+      }
+      else {
+         blk.scaledAdd (-s * stiffnessDamping, myK, blk);
+      }
       if (massDamping != 0) {
          double d = -s * massDamping * myNode.getMass();
          blk.m00 += d;
@@ -106,15 +216,38 @@ public class FemNodeNeighbor {
       return myNode;
    }
 
+   private void scaledAddFromPool (Matrix3d blk, double s) {
+      double[] p = myPool;
+      int o = myPoolOff;
+      blk.m00 += s*p[o  ]; blk.m01 += s*p[o+1]; blk.m02 += s*p[o+2];
+      blk.m10 += s*p[o+3]; blk.m11 += s*p[o+4]; blk.m12 += s*p[o+5];
+      blk.m20 += s*p[o+6]; blk.m21 += s*p[o+7]; blk.m22 += s*p[o+8];
+   }
+
    public void addPosJacobian (Matrix3d blk, double s) {
-      blk.scaledAdd (-s, myK, blk);
+      if (myPool != null) {
+         scaledAddFromPool (blk, -s);
+      }
+      else {
+         blk.scaledAdd (-s, myK, blk);
+      }
       if (myKX != null) {
          blk.scaledAdd (-s, myKX, blk);
       }
    }
 
    public void addDampingForce (Vector3d fd) {
-      fd.mulAdd (myK, myNode.getVelocity(), fd);
+      if (myPool != null) {
+         Vector3d v = myNode.getVelocity();
+         double[] p = myPool;
+         int o = myPoolOff;
+         fd.x += p[o  ]*v.x + p[o+1]*v.y + p[o+2]*v.z;
+         fd.y += p[o+3]*v.x + p[o+4]*v.y + p[o+5]*v.z;
+         fd.z += p[o+6]*v.x + p[o+7]*v.y + p[o+8]*v.z;
+      }
+      else {
+         fd.mulAdd (myK, myNode.getVelocity(), fd);
+      }
    }
 
    public void addDilationalStiffness (
@@ -127,7 +260,9 @@ public class FemNodeNeighbor {
          FemUtilities.addDilationalStiffness (myKX, kp, intGi, intGj);
       }
       else {
-         FemUtilities.addDilationalStiffness (myK, kp, intGi, intGj);
+         FemUtilities.addDilationalStiffness (
+            beginStiffnessUpdate(), kp, intGi, intGj);
+         endStiffnessUpdate();
       }
       
    }
@@ -142,7 +277,9 @@ public class FemNodeNeighbor {
          FemUtilities.addDilationalStiffness (myKX, Kp, GT_i, GT_j);
       }
       else {
-         FemUtilities.addDilationalStiffness (myK, Kp, GT_i, GT_j);
+         FemUtilities.addDilationalStiffness (
+            beginStiffnessUpdate(), Kp, GT_i, GT_j);
+         endStiffnessUpdate();
       }
       
    }
@@ -157,7 +294,9 @@ public class FemNodeNeighbor {
          FemUtilities.addDilationalStiffness (myKX, Rinv, GT_i, GT_j);
       }
       else {
-         FemUtilities.addDilationalStiffness (myK, Rinv, GT_i, GT_j);
+         FemUtilities.addDilationalStiffness (
+            beginStiffnessUpdate(), Rinv, GT_i, GT_j);
+         endStiffnessUpdate();
       }
       
    }
@@ -172,7 +311,9 @@ public class FemNodeNeighbor {
          FemUtilities.addIncompressibilityStiffness (myKX, s, intGi, intGj);
       }
       else {
-         FemUtilities.addIncompressibilityStiffness (myK, s, intGi, intGj);
+         FemUtilities.addIncompressibilityStiffness (
+            beginStiffnessUpdate(), s, intGi, intGj);
+         endStiffnessUpdate();
       }
       
    }
@@ -181,7 +322,14 @@ public class FemNodeNeighbor {
       Vector3d gi, Matrix6d D, double p,
       SymmetricMatrix3d sig, Vector3d gj, double dv) {
 
-      FemUtilities.addMaterialStiffness (myK, gi, D, sig, gj, dv);   
+      if (myPool != null) {
+         FemUtilities.addMaterialStiffness (myPool, myPoolOff, gi, D, gj, dv);
+         FemUtilities.addGeometricStiffness (
+            myPool, myPoolOff, gi, sig, gj, dv);
+      }
+      else {
+         FemUtilities.addMaterialStiffness (myK, gi, D, sig, gj, dv);
+      }
       addPressureStiffness(gi, p, gj, dv);
    }
    
@@ -189,11 +337,14 @@ public class FemNodeNeighbor {
    // Separated pressure term so I can compute incompressibility component separately
    public void addMaterialStiffness(Vector3d gi, Matrix6d D,
       SymmetricMatrix3d sig, Vector3d gj, double dv) {
-      FemUtilities.addMaterialStiffness (myK, gi, D, sig, gj, dv);
+      FemUtilities.addMaterialStiffness (
+         beginStiffnessUpdate(), gi, D, sig, gj, dv);
+      endStiffnessUpdate();
    }
    
    public void addMaterialStiffness(Vector3d gi, Matrix6d D, Vector3d gj, double dv) {
-      FemUtilities.addMaterialStiffness (myK, gi, D, gj, dv);
+      FemUtilities.addMaterialStiffness (beginStiffnessUpdate(), gi, D, gj, dv);
+      endStiffnessUpdate();
    }
 
    /**
@@ -201,7 +352,9 @@ public class FemNodeNeighbor {
     */
    public void addGeometricStiffness (
       Vector3d gi, SymmetricMatrix3d sig, Vector3d gj, double dv) {
-      FemUtilities.addGeometricStiffness (myK, gi, sig, gj, dv);   
+      FemUtilities.addGeometricStiffness (
+         beginStiffnessUpdate(), gi, sig, gj, dv);
+      endStiffnessUpdate();
    }
    
    public void addPressureStiffness( Vector3d gi, double p,
@@ -212,7 +365,9 @@ public class FemNodeNeighbor {
             myKX = new Matrix3d();
          }
          FemUtilities.addPressureStiffness (myKX, gi, p, gj, dv);  
-         FemUtilities.addPressureStiffness (myK, gi, -p, gj, dv);  
+         FemUtilities.addPressureStiffness (
+            beginStiffnessUpdate(), gi, -p, gj, dv);
+         endStiffnessUpdate();
       }
       
    }
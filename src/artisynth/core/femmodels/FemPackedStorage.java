@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import maspack.matrix.Vector3d;
+import artisynth.core.modelbase.ComponentList;
+
+/**
+ * Packed storage for the data accessed by the inner loops of the stress and
+ * stiffness computations of a {@link FemModel3d}. The local positions of
+ * all nodes are stored contiguously in a single array, and the stiffness
+ * blocks of all (direct) node neighbors are stored contiguously in a single
+ * pool, ordered by node and indexed using compressed row (CSR) offsets.
+ * While the storage is in use, each {@link FemNodeNeighbor} refers to its
+ * location within the pool, so that its accessors operate on the pool
+ * directly.
+ *
+ * <p>Node positions are copied into the storage at the start of each stress
+ * and stiffness update, since they remain owned by the nodes themselves.
+ */
+public class FemPackedStorage {
+
+   // local node positions, 3 values per node
+   double[] myPos;
+   // neighbor stiffnesses, 9 values per neighbor, stored row-major
+   double[] myStiffness;
+   // offsets into myNbrs of the neighbors for each node
+   int[] myNbrOffsets;
+   // direct neighbors of all nodes, in CSR order
+   FemNodeNeighbor[] myNbrs;
+
+   /**
+    * Creates packed storage for the specified nodes and elements, and
+    * attaches the node neighbors and elements to it.
+    */
+   FemPackedStorage (
+      ComponentList<FemNode3d> nodes, ComponentList<FemElement3d> elems) {
+      int numNodes = nodes.size();
+      myPos = new double[3*numNodes];
+      myNbrOffsets = new int[numNodes+1];
+      int numNbrs = 0;
+      for (int i=0; i<numNodes; i++) {
+         FemNode3d node = nodes.get(i);
+         node.myPackedIdx = i;
+         myNbrOffsets[i] = numNbrs;
+         numNbrs += node.getNodeNeighbors().size();
+      }
+      myNbrOffsets[numNodes] = numNbrs;
+      myNbrs = new FemNodeNeighbor[numNbrs];
+      myStiffness = new double[9*numNbrs];
+      int k = 0;
+      for (int i=0; i<numNodes; i++) {
+         for (FemNodeNeighbor nbr : nodes.get(i).getNodeNeighbors()) {
+            nbr.setStiffnessPool (myStiffness, 9*k);
+            myNbrs[k++] = nbr;
+         }
+      }
+      for (FemElement3d e : elems) {
+         FemNode3d[] enodes = e.getNodes();
+         int[] idxs = new int[enodes.length];
+         for (int j=0; j<enodes.length; j++) {
+            idxs[j] = enodes[j].myPackedIdx;
+         }
+         e.myPackedNodeIdxs = idxs;
+      }
+      updatePositions (nodes);
+   }
+
+   /**
+    * Copies the local node positions into the packed position array.
+    */
+   void updatePositions (ComponentList<FemNode3d> nodes) {
+      double[] pos = myPos;
+      for (int i=0; i<nodes.size(); i++) {
+         Vector3d p = nodes.get(i).getLocalPosition();
+         pos[3*i  ] = p.x;
+         pos[3*i+1] = p.y;
+         pos[3*i+2] = p.z;
+      }
+   }
+
+   /**
+    * Detaches the node neighbors and elements from this storage, copying
+    * the stiffnesses back into the neighbors.
+    */
+   void release (ComponentList<FemElement3d> elems) {
+      for (FemNodeNeighbor nbr : myNbrs) {
+         if (nbr.getStiffnessPool() == myStiffness) {
+            nbr.setStiffnessPool (null, 0);
+         }
+      }
+      for (FemElement3d e : elems) {
+         e.myPackedNodeIdxs = null;
+      }
+   }
+
+   /**
+    * Returns the number of nodes in this storage.
+    *
+    * @return number of nodes
+    */
+   public int numNodes() {
+      return myNbrOffsets.length-1;
+   }
+
+   /**
+    * Returns the number of node neighbors in this storage.
+    *
+    * @return number of node neighbors
+    */
+   public int numNeighbors() {
+      return myNbrs.length;
+   }
+
+   /**
+    * Returns the packed node positions, with the x, y, z coordinates of
+    * each node stored contiguously. The array should not be modified.
+    *
+    * @return packed node positions
+    */
+   public double[] getPositions() {
+      return myPos;
+   }
+
+   /**
+    * Returns the packed neighbor stiffness pool, in which the 3 x 3
+    * stiffness block for the k-th neighbor is stored in row-major order
+    * starting at <code>9*k</code>. The neighbors of node <code>i</code> are
+    * given by the range <code>offsets[i]</code> to <code>offsets[i+1]</code>,
+    * where <code>offsets</code> is the array returned by {@link
+    * #getNeighborOffsets}.
+    *
+    * @return packed neighbor stiffnesses
+    */
+   public double[] getStiffness() {
+      return myStiffness;
+   }
+
+   /**
+    * Returns the CSR offsets giving the range of neighbors for each node.
+    *
+    * @return neighbor offsets
+    */
+   public int[] getNeighborOffsets() {
+      return myNbrOffsets;
+   }
+}
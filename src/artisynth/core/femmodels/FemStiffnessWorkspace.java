@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.util.IdentityHashMap;
+
+import artisynth.core.materials.FemMaterial;
+import maspack.matrix.Matrix6d;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.SymmetricMatrix3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.VectorNd;
+
+/**
+ * Temporary storage used while computing the stresses and stiffnesses for a
+ * set of elements. Each thread involved in the computation uses its own
+ * workspace, which contains its own copies of the (otherwise shared)
+ * integration points and materials, together with the running tally of
+ * inverted elements and the minimum Jacobian determinant.
+ */
+public class FemStiffnessWorkspace {
+
+   // temp space for computing pressures
+   VectorNd myPressures;
+   MatrixNd myRinv;
+   // temp space for computing pressure stiffness
+   double[] myKp;
+   // temp space for computing nodal incompressibility constraints
+   Vector3d[] myNodalConstraints;
+   // temp for computing element-wise linear stiffness strain
+   SymmetricMatrix3d myEps;
+   // temp for computing material tangents
+   Matrix6d myD = new Matrix6d();
+
+   double myMinDetJ;
+   FemElement3d myMinDetJElement;
+   int myNumInverted;
+
+   // if true, integration points and materials are copied for this workspace
+   boolean myCopyShared;
+
+   IdentityHashMap<IntegrationPoint3d[],IntegrationPoint3d[]> myIpntMap;
+   IdentityHashMap<IntegrationPoint3d,IntegrationPoint3d> myWpntMap;
+   IdentityHashMap<FemMaterial,FemMaterial> myMaterialMap;
+
+   /**
+    * Creates a workspace that uses storage supplied by the FEM model itself,
+    * together with the element integration points and materials. This is
+    * used for serial computation.
+    */
+   FemStiffnessWorkspace (
+      VectorNd pressures, MatrixNd rinv, double[] kp,
+      Vector3d[] nodalConstraints, SymmetricMatrix3d eps) {
+      myPressures = pressures;
+      myRinv = rinv;
+      myKp = kp;
+      myNodalConstraints = nodalConstraints;
+      myEps = eps;
+      myCopyShared = false;
+   }
+
+   /**
+    * Creates a workspace with its own storage, together with private copies
+    * of the element integration points and materials. This is used for
+    * concurrent computation.
+    */
+   FemStiffnessWorkspace (int maxPressureVals, int maxNodalIncompNodes) {
+      myPressures = new VectorNd (maxPressureVals);
+      myRinv = new MatrixNd();
+      myKp = new double[maxPressureVals];
+      myNodalConstraints = new Vector3d[maxNodalIncompNodes];
+      for (int i=0; i<maxNodalIncompNodes; i++) {
+         myNodalConstraints[i] = new Vector3d();
+      }
+      myEps = new SymmetricMatrix3d();
+      myCopyShared = true;
+      myIpntMap = new IdentityHashMap<IntegrationPoint3d[],IntegrationPoint3d[]>();
+      myWpntMap = new IdentityHashMap<IntegrationPoint3d,IntegrationPoint3d>();
+      myMaterialMap = new IdentityHashMap<FemMaterial,FemMaterial>();
+   }
+
+   /**
+    * Resets the inversion statistics. Copied materials are kept, so that
+    * each material is only copied once.
+    */
+   void reset() {
+      myMinDetJ = Double.MAX_VALUE;
+      myMinDetJElement = null;
+      myNumInverted = 0;
+   }
+
+   /**
+    * Clears any copied materials, so that they will be recopied from the
+    * current originals. Should be called when a material is replaced
+    * or one of its properties changes.
+    */
+   void clearMaterials() {
+      if (myMaterialMap != null) {
+         myMaterialMap.clear();
+      }
+   }
+
+   void updateMinDetJ (double detJ, FemElement3d e) {
+      if (detJ < myMinDetJ) {
+         myMinDetJ = detJ;
+         myMinDetJElement = e;
+      }
+   }
+
+   IntegrationPoint3d[] getIntegrationPoints (FemElement3d e) {
+      IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
+      if (myCopyShared) {
+         IntegrationPoint3d[] copy = myIpntMap.get (ipnts);
+         if (copy == null) {
+            copy = new IntegrationPoint3d[ipnts.length];
+            for (int k=0; k<ipnts.length; k++) {
+               copy[k] = new IntegrationPoint3d (ipnts[k]);
+            }
+            myIpntMap.put (ipnts, copy);
+         }
+         ipnts = copy;
+      }
+      return ipnts;
+   }
+
+   IntegrationPoint3d getWarpingPoint (FemElement3d e) {
+      IntegrationPoint3d wpnt = e.getWarpingPoint();
+      if (myCopyShared) {
+         IntegrationPoint3d copy = myWpntMap.get (wpnt);
+         if (copy == null) {
+            copy = new IntegrationPoint3d (wpnt);
+            myWpntMap.put (wpnt, copy);
+         }
+         wpnt = copy;
+      }
+      return wpnt;
+   }
+
+   FemMaterial getMaterial (FemMaterial mat) {
+      if (myCopyShared) {
+         FemMaterial copy = myMaterialMap.get (mat);
+         if (copy == null) {
+            copy = mat.clone();
+            myMaterialMap.put (mat, copy);
+         }
+         mat = copy;
+      }
+      return mat;
+   }
+}
@@ -141,6 +141,78 @@ public class FemUtilities {
       K.m22 += Kg;
    }
 
+   /**
+    * Adds a weighted node-to-node stiffness to a 3 x 3 matrix stored in
+    * row-major order within an array, using the same formula as {@link
+    * #addMaterialStiffness(Matrix3d,Vector3d,Matrix6d,Vector3d,double)}.
+    */
+   public static void addMaterialStiffness (
+      double[] K, int off, Vector3d gi, Matrix6d D, Vector3d gj, double dv) {
+      double gjx = gj.x*dv;
+      double gjy = gj.y*dv;
+      double gjz = gj.z*dv;
+
+      double dm00 = D.m00*gjx + D.m03*gjy + D.m05*gjz;
+      double dm01 = D.m01*gjy + D.m03*gjx + D.m04*gjz;
+      double dm02 = D.m02*gjz + D.m04*gjy + D.m05*gjx;
+      
+      double dm10 = D.m10*gjx + D.m13*gjy + D.m15*gjz;
+      double dm11 = D.m11*gjy + D.m13*gjx + D.m14*gjz;
+      double dm12 = D.m12*gjz + D.m14*gjy + D.m15*gjx;
+      
+      double dm20 = D.m20*gjx + D.m23*gjy + D.m25*gjz;
+      double dm21 = D.m21*gjy + D.m23*gjx + D.m24*gjz;
+      double dm22 = D.m22*gjz + D.m24*gjy + D.m25*gjx;
+      
+      double dm30 = D.m30*gjx + D.m33*gjy + D.m35*gjz;
+      double dm31 = D.m31*gjy + D.m33*gjx + D.m34*gjz;
+      double dm32 = D.m32*gjz + D.m34*gjy + D.m35*gjx;
+      
+      double dm40 = D.m40*gjx + D.m43*gjy + D.m45*gjz;
+      double dm41 = D.m41*gjy + D.m43*gjx + D.m44*gjz;
+      double dm42 = D.m42*gjz + D.m44*gjy + D.m45*gjx;
+      
+      double dm50 = D.m50*gjx + D.m53*gjy + D.m55*gjz;
+      double dm51 = D.m51*gjy + D.m53*gjx + D.m54*gjz;
+      double dm52 = D.m52*gjz + D.m54*gjy + D.m55*gjx;
+
+      double gix = gi.x;
+      double giy = gi.y;
+      double giz = gi.z;
+
+      K[off  ] += gix*dm00 + giy*dm30 + giz*dm50;
+      K[off+1] += gix*dm01 + giy*dm31 + giz*dm51;
+      K[off+2] += gix*dm02 + giy*dm32 + giz*dm52;
+
+      K[off+3] += giy*dm10 + gix*dm30 + giz*dm40;
+      K[off+4] += giy*dm11 + gix*dm31 + giz*dm41;
+      K[off+5] += giy*dm12 + gix*dm32 + giz*dm42;
+
+      K[off+6] += giz*dm20 + giy*dm40 + gix*dm50;
+      K[off+7] += giz*dm21 + giy*dm41 + gix*dm51;
+      K[off+8] += giz*dm22 + giy*dm42 + gix*dm52;
+   }
+
+   /**
+    * Adds the geometric stiffness to a 3 x 3 matrix stored in row-major
+    * order within an array, using the same formula as {@link
+    * #addGeometricStiffness(Matrix3d,Vector3d,SymmetricMatrix3d,Vector3d,double)}.
+    */
+   public static void addGeometricStiffness (
+      double[] K, int off, Vector3d gi,
+      SymmetricMatrix3d sig, Vector3d gj, double dv) {
+
+      double Kg = (
+         gi.x*(sig.m00*gj.x + sig.m01*gj.y + sig.m02*gj.z) +
+         gi.y*(sig.m10*gj.x + sig.m11*gj.y + sig.m12*gj.z) +
+         gi.z*(sig.m20*gj.x + sig.m21*gj.y + sig.m22*gj.z));
+      Kg = Kg*dv;
+
+      K[off  ] += Kg;
+      K[off+4] += Kg;
+      K[off+8] += Kg;
+   }
+
    /** 
     * Adds a weighted node-to-node stiffness to the matrix Kij via the formula
     * <pre>
@@ -26,10 +26,15 @@ public class HexElement extends FemElement3d {
 
    private ArrayList<TetElement> myTetra;
 
-   private static IntegrationPoint3d[] myDefaultIntegrationPoints;
+   // default integration and warping points are stored per thread, since
+   // they also provide scratch storage for computing element quantities,
+   // and separate models may be advanced concurrently in different threads
+   private static ThreadLocal<IntegrationPoint3d[]> myDefaultIntegrationPoints =
+      new ThreadLocal<IntegrationPoint3d[]>();
    private static double[] myDefaultIntegrationCoords;
    
-   private static IntegrationPoint3d myWarpingPoint;
+   private static ThreadLocal<IntegrationPoint3d> myWarpingPoint =
+      new ThreadLocal<IntegrationPoint3d>();
    private static FemElementRenderer myRenderer;
    
    private IntegrationPoint3d[] myIntegrationPoints = null;
@@ -43,7 +48,7 @@ public class HexElement extends FemElement3d {
    }
    
    public IntegrationPoint3d[] getDefaultIntegrationPoints() {
-      return myDefaultIntegrationPoints;
+      return myDefaultIntegrationPoints.get();
    }
 
    public void setIntegrationPoints(IntegrationPoint3d[] ipnts, double[] nodalExtrapMat) {
@@ -63,23 +68,27 @@ public class HexElement extends FemElement3d {
       if (myIntegrationPoints == null) {  
          
          // set (maybe construct) default integration points
-         if (myDefaultIntegrationPoints == null) {
+         IntegrationPoint3d[] ipnts = myDefaultIntegrationPoints.get();
+         if (ipnts == null) {
             if (myDefaultIntegrationCoords == null) {
                myDefaultIntegrationCoords = INTEGRATION_COORDS_GAUSS_8;
             }
-            myDefaultIntegrationPoints = createIntegrationPoints(myDefaultIntegrationCoords);
+            ipnts = createIntegrationPoints(myDefaultIntegrationCoords);
+            myDefaultIntegrationPoints.set (ipnts);
          }
-         myIntegrationPoints = myDefaultIntegrationPoints;
+         myIntegrationPoints = ipnts;
       }
       
       return myIntegrationPoints;
    }
 
    public IntegrationPoint3d getWarpingPoint() {
-      if (myWarpingPoint == null) {
-         myWarpingPoint = IntegrationPoint3d.create (this, 0, 0, 0, 8);
+      IntegrationPoint3d wpnt = myWarpingPoint.get();
+      if (wpnt == null) {
+         wpnt = IntegrationPoint3d.create (this, 0, 0, 0, 8);
+         myWarpingPoint.set (wpnt);
       }
-      return myWarpingPoint;
+      return wpnt;
    }  
 
    public boolean coordsAreInside (Vector3d coords) {
@@ -74,6 +74,34 @@ public class IntegrationPoint3d {
       init(nnodes, 1);
    }
 
+   /**
+    * Creates a working copy of an existing integration point. The readonly
+    * (static) data is shared with the original, while the transient data is
+    * allocated separately. This allows stiffness computations for elements
+    * that share the same integration points to be performed concurrently in
+    * different threads.
+    *
+    * @param pnt integration point to copy
+    */
+   public IntegrationPoint3d (IntegrationPoint3d pnt) {
+      myJ = new Matrix3d();
+      myInvJ = new Matrix3d();
+      F = new Matrix3d();
+      sigma = new SymmetricMatrix3d();
+
+      myNumNodes = pnt.myNumNodes;
+      N = pnt.N;
+      H = pnt.H;
+      GNs = pnt.GNs;
+      GNx = new Vector3d[myNumNodes];
+      for (int i=0; i<myNumNodes; i++) {
+         GNx[i] = new Vector3d();
+      }
+      coords = pnt.coords;
+      myWeight = pnt.myWeight;
+      myNum = pnt.myNum;
+   }
+
    /**
     * Returns the number of this integration point. This will be
     * in the range 0 to numi-1, where numi is the number of
@@ -185,6 +213,28 @@ public class IntegrationPoint3d {
       detF = F.determinant();
    }
 
+   /**
+    * Computes the Jacobian and deformation gradient using node positions
+    * stored in a packed array, with the x, y, z coordinates of each node
+    * stored contiguously.
+    *
+    * @param pos packed node positions
+    * @param nodeIdxs index of each element node within <code>pos</code>
+    * @param invJ0 inverse of the rest Jacobian
+    */
+   public void computeJacobianAndGradient (
+      double[] pos, int[] nodeIdxs, Matrix3d invJ0) {
+      myJ.setZero();
+      for (int i=0; i<nodeIdxs.length; i++) {
+         int k = 3*nodeIdxs[i];
+         Vector3d dNds = GNs[i];
+         myJ.addOuterProduct (
+            pos[k], pos[k+1], pos[k+2], dNds.x, dNds.y, dNds.z);
+      }
+      F.mul (myJ, invJ0);
+      detF = F.determinant();
+   }
+
    public void computeJacobianAndGradient (Point3d[] nodePos, Matrix3d invJ0) {
       myJ.setZero();
       for (int i=0; i<nodePos.length; i++) {
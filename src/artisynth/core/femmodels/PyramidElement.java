@@ -16,8 +16,13 @@ import maspack.render.RenderProps;
 
 public class PyramidElement extends FemElement3d {
 
-   private static IntegrationPoint3d[] myDefaultIntegrationPoints;
-   private static IntegrationPoint3d myWarpingPoint;
+   // default integration and warping points are stored per thread, since
+   // they also provide scratch storage for computing element quantities,
+   // and separate models may be advanced concurrently in different threads
+   private static ThreadLocal<IntegrationPoint3d[]> myDefaultIntegrationPoints =
+      new ThreadLocal<IntegrationPoint3d[]>();
+   private static ThreadLocal<IntegrationPoint3d> myWarpingPoint =
+      new ThreadLocal<IntegrationPoint3d>();
    private static FemElementRenderer myRenderer;   
 
    /**
@@ -28,18 +33,22 @@ public class PyramidElement extends FemElement3d {
    }
 
    public IntegrationPoint3d[] getIntegrationPoints() {
-      if (myDefaultIntegrationPoints == null) {
-         myDefaultIntegrationPoints = createIntegrationPoints();
+      IntegrationPoint3d[] ipnts = myDefaultIntegrationPoints.get();
+      if (ipnts == null) {
+         ipnts = createIntegrationPoints();
+         myDefaultIntegrationPoints.set (ipnts);
       }
-      return myDefaultIntegrationPoints;
+      return ipnts;
    }
 
    public IntegrationPoint3d getWarpingPoint() {
-      if (myWarpingPoint == null) {
-         myWarpingPoint = IntegrationPoint3d.create (
+      IntegrationPoint3d wpnt = myWarpingPoint.get();
+      if (wpnt == null) {
+         wpnt = IntegrationPoint3d.create (
             this, 0, 0, -0.5, 128/27.0);
+         myWarpingPoint.set (wpnt);
       }
-      return myWarpingPoint;
+      return wpnt;
    }  
 
    public boolean coordsAreInside (Vector3d coords) {
@@ -32,23 +32,32 @@ public class QuadtetElement extends FemElement3d {
       x, y, z
    }
 
-   private static IntegrationPoint3d[] myDefaultIntegrationPoints = null;
-   private static IntegrationPoint3d myWarpingPoint;
+   // default integration and warping points are stored per thread, since
+   // they also provide scratch storage for computing element quantities,
+   // and separate models may be advanced concurrently in different threads
+   private static ThreadLocal<IntegrationPoint3d[]> myDefaultIntegrationPoints =
+      new ThreadLocal<IntegrationPoint3d[]>();
+   private static ThreadLocal<IntegrationPoint3d> myWarpingPoint =
+      new ThreadLocal<IntegrationPoint3d>();
    private static FemElementRenderer myRenderer;
 
    public IntegrationPoint3d[] getIntegrationPoints() {
-      if (myDefaultIntegrationPoints == null) {
-         myDefaultIntegrationPoints = createIntegrationPoints();
+      IntegrationPoint3d[] ipnts = myDefaultIntegrationPoints.get();
+      if (ipnts == null) {
+         ipnts = createIntegrationPoints();
+         myDefaultIntegrationPoints.set (ipnts);
       }
-      return myDefaultIntegrationPoints;
+      return ipnts;
    }
 
    public IntegrationPoint3d getWarpingPoint() {
-      if (myWarpingPoint == null) {
-         myWarpingPoint = IntegrationPoint3d.create (
+      IntegrationPoint3d wpnt = myWarpingPoint.get();
+      if (wpnt == null) {
+         wpnt = IntegrationPoint3d.create (
             this, 0.25, 0.25, 0.25, 1/6.0);
+         myWarpingPoint.set (wpnt);
       }
-      return myWarpingPoint;
+      return wpnt;
    }  
 
    public static FemNode3d[] getQuadraticNodes (TetElement tet) {
@@ -11,37 +11,77 @@ import maspack.matrix.*;
 /** 
  * Implements stiffness warping for a particular 3d fem element.
  *
+ * <p>All quantities that depend only on the element's rest geometry and
+ * linear material parameters are computed once by {@link
+ * #computeInitialStiffness} and cached here. These include the rest
+ * stiffness blocks K0, which are stored compactly in a single array, the
+ * rest forces f0, and the rest shape function gradients at the element's
+ * warping point. Each time step then only requires the deformation gradient
+ * and its rotation, which are applied to the cached data. The cache is
+ * recomputed whenever the element's rest data is invalidated.
+ *
  * <p>Note: it is important that all these methods are called from the same
  * (simulation) thread. In particular, they should not be called by methods
  * activated by the GUI.
  */
 public class StiffnessWarper3d {
  
-   Matrix3d[][] K0;
+   // rest stiffness blocks, 9 values per block stored row-major, with the
+   // block for nodes (i,j) starting at 9*(i*numNodes+j)
+   double[] K0;
    Vector3d[] f0;
+   // rest shape function gradients dN/dX at the warping point
+   Vector3d[] GNx0;
+   int myNumNodes;
 
    // A and R are used to compute stiffness warping. 
    protected Matrix3d A = new Matrix3d();
    protected Matrix3d R = new Matrix3d();
+   protected Matrix3d K = new Matrix3d();
    protected Vector3d tmp = new Vector3d();
    protected Vector3d pos = new Vector3d();
    protected SVDecomposition3d SVD = new SVDecomposition3d();
+   // node positions rotated into the rest frame, for computing forces
+   protected Vector3d[] myRotatedPos;
 
    protected Matrix3d J0inv = new Matrix3d();
    protected double myConditionNum = 0;
 
    public StiffnessWarper3d (int numNodes) {
-      K0 = new Matrix3d[numNodes][numNodes];
+      myNumNodes = numNodes;
+      K0 = new double[9*numNodes*numNodes];
       f0 = new Vector3d[numNodes];
-
+      GNx0 = new Vector3d[numNodes];
+      myRotatedPos = new Vector3d[numNodes];
       for (int i=0; i<numNodes; i++) {
-         for (int j=0; j<numNodes; j++) {
-            K0[i][j] = new Matrix3d();
-         }
          f0[i] = new Vector3d();
+         GNx0[i] = new Vector3d();
+         myRotatedPos[i] = new Vector3d();
       }
    }
 
+   /**
+    * Loads the rest stiffness block for nodes (i,j) into K.
+    */
+   private void getK0 (Matrix3d K, int i, int j) {
+      double[] k0 = K0;
+      int o = 9*(i*myNumNodes+j);
+      K.m00 = k0[o  ]; K.m01 = k0[o+1]; K.m02 = k0[o+2];
+      K.m10 = k0[o+3]; K.m11 = k0[o+4]; K.m12 = k0[o+5];
+      K.m20 = k0[o+6]; K.m21 = k0[o+7]; K.m22 = k0[o+8];
+   }
+
+   /**
+    * Computes r += K0(i,j) x, where r and x are given by their components.
+    */
+   private void mulAddK0 (Vector3d r, int i, int j, Vector3d x) {
+      double[] k0 = K0;
+      int o = 9*(i*myNumNodes+j);
+      r.x += k0[o  ]*x.x + k0[o+1]*x.y + k0[o+2]*x.z;
+      r.y += k0[o+3]*x.x + k0[o+4]*x.y + k0[o+5]*x.z;
+      r.z += k0[o+6]*x.x + k0[o+7]*x.y + k0[o+8]*x.z;
+   }
+
    public void computeInitialStiffness (FemElement3d e, double E, double nu) {
 
       IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
@@ -60,10 +100,11 @@ public class StiffnessWarper3d {
       D.scale (E/(1+nu));
 
 
-      for (int i=0; i<e.myNodes.length; i++) {
-         for (int j=0; j<e.myNodes.length; j++) {
-            K0[i][j].setZero();
-         }
+      int numNodes = e.myNodes.length;
+      for (int k=0; k<K0.length; k++) {
+         K0[k] = 0;
+      }
+      for (int i=0; i<numNodes; i++) {
          f0[i].setZero();
       }
 
@@ -74,20 +115,57 @@ public class StiffnessWarper3d {
          if (idata[k].myScaling != 1) {
             dv *= idata[k].myScaling;
          }
-         for (int i=0; i<e.myNodes.length; i++) {
-            for (int j=0; j<e.myNodes.length; j++) {
+         for (int i=0; i<numNodes; i++) {
+            for (int j=0; j<numNodes; j++) {
                FemUtilities.addMaterialStiffness (
-                  K0[i][j], GNx[i], D, SymmetricMatrix3d.ZERO, GNx[j], dv);
+                  K0, 9*(i*numNodes+j), GNx[i], D, GNx[j], dv);
             }
          }
       }      
-      for (int i=0; i<e.myNodes.length; i++) {
+      for (int i=0; i<numNodes; i++) {
          tmp.setZero();
-         for (int j=0; j<e.myNodes.length; j++) {
-            K0[i][j].mulAdd (tmp, e.myNodes[j].myRest, tmp);
+         for (int j=0; j<numNodes; j++) {
+            mulAddK0 (tmp, i, j, e.myNodes[j].myRest);
          }
          f0[i].set (tmp);
       }
+      e.getWarpingPoint().computeShapeGradient (
+         e.getWarpingData().myInvJ0, GNx0);
+   }
+
+   /**
+    * Computes the deformation gradient at the element's warping point, using
+    * the cached rest shape function gradients.
+    *
+    * @param F returns the deformation gradient
+    * @param nodes element nodes
+    */
+   public void computeDeformationGradient (Matrix3d F, FemNode3d[] nodes) {
+      F.setZero();
+      for (int i=0; i<nodes.length; i++) {
+         Vector3d p = nodes[i].getLocalPosition();
+         Vector3d g = GNx0[i];
+         F.addOuterProduct (p.x, p.y, p.z, g.x, g.y, g.z);
+      }
+   }
+
+   /**
+    * Computes the deformation gradient at the element's warping point, using
+    * the cached rest shape function gradients and node positions stored in
+    * a packed array.
+    *
+    * @param F returns the deformation gradient
+    * @param pos packed node positions
+    * @param nodeIdxs index of each element node within <code>pos</code>
+    */
+   public void computeDeformationGradient (
+      Matrix3d F, double[] pos, int[] nodeIdxs) {
+      F.setZero();
+      for (int i=0; i<nodeIdxs.length; i++) {
+         int k = 3*nodeIdxs[i];
+         Vector3d g = GNx0[i];
+         F.addOuterProduct (pos[k], pos[k+1], pos[k+2], g.x, g.y, g.z);
+      }
    }
 
    public void setInitialJ (
@@ -158,25 +236,27 @@ public class StiffnessWarper3d {
    }
 
    public void addNodeStiffness (Matrix3d Kij, int i, int j, boolean warping) {
+      getK0 (K, i, j);
       if (warping) {
-         A.mulTransposeRight (K0[i][j], R);
+         A.mulTransposeRight (K, R);
          A.mul (R, A);
          Kij.add (A);
       }
       else {
-         Kij.add (K0[i][j]);
+         Kij.add (K);
       }
    }
 
    public void addNodeStiffness (
       FemNodeNeighbor nbr, int i, int j, boolean warping) {
+      getK0 (K, i, j);
       if (warping) {
-         A.mulTransposeRight (K0[i][j], R);
+         A.mulTransposeRight (K, R);
          A.mul (R, A);
          nbr.addStiffness (A);
       }
       else {
-         nbr.addStiffness (K0[i][j]);
+         nbr.addStiffness (K);
       }
    }
 
@@ -186,7 +266,7 @@ public class StiffnessWarper3d {
          tmp.setZero();
          for (int j=0; j<nodes.length; j++) {
             R.mulTranspose (pos, nodes[j].getLocalPosition());
-            K0[i][j].mulAdd (tmp, pos, tmp);
+            mulAddK0 (tmp, i, j, pos);
          }
          tmp.sub (f0[i]);
          R.mul (tmp, tmp);
@@ -195,12 +275,46 @@ public class StiffnessWarper3d {
       else {
          tmp.setZero();
          for (int j=0; j<nodes.length; j++) {
-            K0[i][j].mulAdd (tmp, nodes[j].getLocalPosition(), tmp);
+            mulAddK0 (tmp, i, j, nodes[j].getLocalPosition());
          }
          tmp.sub (f0[i]);
          f.add (tmp);
       }
    }
+
+   /**
+    * Adds the elastic forces for all element nodes that are active (i.e.,
+    * have a solve index other than -1) to their internal forces. This gives
+    * the same result as calling {@link #addNodeForce} for each such node,
+    * but rotates each node position only once.
+    *
+    * @param nodes element nodes
+    * @param warping if <code>true</code>, applies the current rotation
+    */
+   public void addNodeForces (FemNode3d[] nodes, boolean warping) {
+      Vector3d[] xr = myRotatedPos;
+      for (int j=0; j<nodes.length; j++) {
+         if (warping) {
+            R.mulTranspose (xr[j], nodes[j].getLocalPosition());
+         }
+         else {
+            xr[j].set (nodes[j].getLocalPosition());
+         }
+      }
+      for (int i=0; i<nodes.length; i++) {
+         if (nodes[i].getSolveIndex() != -1) {
+            tmp.setZero();
+            for (int j=0; j<nodes.length; j++) {
+               mulAddK0 (tmp, i, j, xr[j]);
+            }
+            tmp.sub (f0[i]);
+            if (warping) {
+               R.mul (tmp, tmp);
+            }
+            nodes[i].myInternalForce.add (tmp);
+         }
+      }
+   }
    
    // required for static analysis
    public void addNodeForce0(Vector3d f, int i, boolean warping) {
@@ -23,14 +23,20 @@ public class TetElement extends FemElement3d {
 
    //   private StiffnessWarper3d myWarper = null;
 
-   private static IntegrationPoint3d[] myDefaultIntegrationPoints;
+   // default integration points are stored per thread, since they also
+   // provide scratch storage for computing element quantities, and separate
+   // models may be advanced concurrently in different threads
+   private static ThreadLocal<IntegrationPoint3d[]> myDefaultIntegrationPoints =
+      new ThreadLocal<IntegrationPoint3d[]>();
    private static FemElementRenderer myRenderer;
 
    public IntegrationPoint3d[] getIntegrationPoints() {
-      if (myDefaultIntegrationPoints == null) {
-         myDefaultIntegrationPoints = createIntegrationPoints();
+      IntegrationPoint3d[] ipnts = myDefaultIntegrationPoints.get();
+      if (ipnts == null) {
+         ipnts = createIntegrationPoints();
+         myDefaultIntegrationPoints.set (ipnts);
       }
-      return myDefaultIntegrationPoints;
+      return ipnts;
    }
 
    public IntegrationPoint3d getWarpingPoint() {
@@ -618,6 +618,9 @@ public class FungMaterial extends IncompressibleMaterial {
    public FungMaterial clone() {
       FungMaterial mat = (FungMaterial)super.clone();
       mat.myB = new SymmetricMatrix3d();
+      mat.myC = new SymmetricMatrix3d();
+      mat.myC2 = new SymmetricMatrix3d();
+      mat.mu = new double[3];
       return mat;
    }
 
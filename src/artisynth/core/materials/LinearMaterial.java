@@ -264,6 +264,7 @@ public class LinearMaterial extends FemMaterial {
 
    public LinearMaterial clone() {
       LinearMaterial mat = (LinearMaterial)super.clone();
+      mat.mySVD = null;
       return mat;
    }
 
@@ -405,6 +405,7 @@ public class MooneyRivlinMaterial extends IncompressibleMaterial {
       mat.myB = new SymmetricMatrix3d();
       mat.myB2 = new SymmetricMatrix3d();
       mat.myTmp = new SymmetricMatrix3d();
+      mat.myPhiVals = new double[3];
       return mat;
    }
 
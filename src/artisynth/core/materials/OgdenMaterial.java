@@ -704,6 +704,8 @@ public class OgdenMaterial extends IncompressibleMaterial {
    public OgdenMaterial clone() {
       OgdenMaterial mat = (OgdenMaterial)super.clone();
       mat.myB = new SymmetricMatrix3d();
+      mat.myB2 = new SymmetricMatrix3d();
+      mat.myTmp = new SymmetricMatrix3d();
       return mat;
    }
 
@@ -699,16 +699,23 @@ public class CollisionHandler extends ConstrainerBase
    double computeContourRegionConstraints (
       ContactInfo info, CollidableBody collidable0, CollidableBody collidable1) {
 
+      // Contact region points are not associated with mesh features, so
+      // correspondence between new and previous contacts is established by
+      // proximity. If warm starting is enabled, each new contact is given
+      // the impulse of its matching previous contact, thereby providing
+      // initial "warm start" values for the solver.
+      ImpulseMatcher prevContacts = null;
+      if (myUnilaterals.size() > 0 &&
+          myManager != null && myManager.getWarmStartContacts()) {
+         prevContacts = new ImpulseMatcher (
+            new ArrayList<ContactConstraint>(myUnilaterals),
+            myBehavior.myRigidPointTol);
+      }
       myUnilaterals.clear();
       double maxpen = 0;
 
       //clearRenderData();
 
-      // Currently, no correspondence is established between new contacts and
-      // previous contacts. If there was, then we could set the multipliers for
-      // the new contacts to something based on the old contacts, thereby
-      // providing initial "warm start" values for the solver.
-
       if (info != null) {
          int numc = 0;
          info.setPointTol (myBehavior.myRigidPointTol);
@@ -727,6 +734,9 @@ public class CollisionHandler extends ConstrainerBase
 
                maxpen = region.depth;
                c.setDistance (-region.depth);
+               if (prevContacts != null) {
+                  c.setImpulse (prevContacts.removeMatchingImpulse (c));
+               }
                myUnilaterals.add (c);
                numc++;
             }
@@ -735,6 +745,102 @@ public class CollisionHandler extends ConstrainerBase
       return maxpen;
    }
 
+   /**
+    * Matches new contacts with previous contacts that have positive
+    * impulses. The previous contacts are hashed into cells whose width is
+    * the matching tolerance, so that each match only examines the contacts
+    * in neighboring cells.
+    */
+   static class ImpulseMatcher {
+
+      ArrayList<ContactConstraint> myContacts;
+      boolean[] myMatched;
+      HashMap<Long,ArrayList<Integer>> myCells;
+      double myTol;
+      double myCellWidth;
+
+      ImpulseMatcher (ArrayList<ContactConstraint> contacts, double tol) {
+         myContacts = contacts;
+         myMatched = new boolean[contacts.size()];
+         myCells = new HashMap<Long,ArrayList<Integer>>();
+         myTol = tol;
+         myCellWidth = (tol > 0 ? tol : 1.0);
+         for (int i=0; i<contacts.size(); i++) {
+            ContactConstraint c = contacts.get(i);
+            if (c.getImpulse() > 0) {
+               Point3d p = c.myCpnt0.getPoint();
+               Long key = cellKey (
+                  cellIndex (p.x), cellIndex (p.y), cellIndex (p.z));
+               ArrayList<Integer> cell = myCells.get (key);
+               if (cell == null) {
+                  cell = new ArrayList<Integer>();
+                  myCells.put (key, cell);
+               }
+               cell.add (i);
+            }
+         }
+      }
+
+      int cellIndex (double x) {
+         return (int)Math.floor (x/myCellWidth);
+      }
+
+      // cells with the same key are examined together, so key collisions
+      // between distant cells only cost extra distance checks
+      static long cellKey (int i, int j, int k) {
+         long mask = 0x1fffff;
+         return ((i & mask) << 42) | ((j & mask) << 21) | (k & mask);
+      }
+
+      /**
+       * Finds the unmatched previous contact that is closest to
+       * <code>cons</code>, within the matching tolerance and with a similar
+       * normal. If such a contact is found, it is marked as matched and its
+       * impulse is returned. Otherwise, 0 is returned.
+       */
+      double removeMatchingImpulse (ContactConstraint cons) {
+         if (myCells.isEmpty()) {
+            return 0;
+         }
+         Point3d pnt = cons.myCpnt0.getPoint();
+         int ci = cellIndex (pnt.x);
+         int cj = cellIndex (pnt.y);
+         int ck = cellIndex (pnt.z);
+         int nearest = -1;
+         double mindist = myTol;
+         for (int i=ci-1; i<=ci+1; i++) {
+            for (int j=cj-1; j<=cj+1; j++) {
+               for (int k=ck-1; k<=ck+1; k++) {
+                  ArrayList<Integer> cell = myCells.get (cellKey (i, j, k));
+                  if (cell == null) {
+                     continue;
+                  }
+                  for (int idx : cell) {
+                     ContactConstraint c = myContacts.get(idx);
+                     if (!myMatched[idx] &&
+                         c.myNormal.dot (cons.myNormal) > 0.9) {
+                        double dist = c.myCpnt0.getPoint().distance (pnt);
+                        // ties go to the later contact
+                        if (dist < mindist ||
+                            (dist == mindist && idx > nearest)) {
+                           nearest = idx;
+                           mindist = dist;
+                        }
+                     }
+                  }
+               }
+            }
+         }
+         if (nearest != -1) {
+            myMatched[nearest] = true;
+            return myContacts.get(nearest).getImpulse();
+         }
+         else {
+            return 0;
+         }
+      }
+   }
+
    void clearContactData() {
       myBilaterals0.clear();
       myBilaterals1.clear();
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mechmodels;
+
+import java.util.*;
+
+import maspack.util.*;
+import maspack.matrix.*;
+
+import artisynth.core.mechmodels.CollisionBehavior.Method;
+
+/**
+ * Tests the carry-over of contact impulses between steps for contour region
+ * contacts, which is used to warm start the contact solver.
+ */
+public class CollisionHandlerTest extends UnitTest {
+
+   ContactConstraint createContact (Point3d pnt, Vector3d nrm, double lam) {
+      ContactConstraint c = new ContactConstraint();
+      c.setContactPoint0 (pnt);
+      c.equateContactPoints();
+      c.setNormal (nrm);
+      c.setImpulse (lam);
+      return c;
+   }
+
+   /**
+    * Tests that new contacts inherit the impulses of previous contacts within
+    * the matching tolerance, and not of those that are further away, have
+    * opposing normals, or have already been matched.
+    */
+   void testImpulseMatcher() {
+      double tol = 0.1;
+      Vector3d nrm = new Vector3d (0, 0, 1);
+      ArrayList<ContactConstraint> prev = new ArrayList<ContactConstraint>();
+      int npnts = 20;
+      for (int i=0; i<npnts; i++) {
+         // points are spaced well apart compared with the tolerance, and
+         // include negative coordinates and zero impulses
+         Point3d pnt = new Point3d (i-npnts/2, 0.5*i, -0.25*i);
+         prev.add (createContact (pnt, nrm, i%4 == 0 ? 0 : i));
+      }
+      CollisionHandler.ImpulseMatcher matcher =
+         new CollisionHandler.ImpulseMatcher (prev, tol);
+      Vector3d del = new Vector3d();
+      for (int i=0; i<npnts; i++) {
+         Point3d pnt = new Point3d (prev.get(i).myCpnt0.getPoint());
+         // contact outside the tolerance
+         del.setRandom();
+         del.normalize();
+         ContactConstraint far = createContact (
+            new Point3d (pnt.x+1.5*tol*del.x, pnt.y+1.5*tol*del.y,
+                         pnt.z+1.5*tol*del.z), nrm, 0);
+         checkEquals (
+            "impulse for contact outside tolerance",
+            matcher.removeMatchingImpulse (far), 0.0);
+         // contact with opposing normal
+         ContactConstraint opp = createContact (
+            pnt, new Vector3d (0, 0, -1), 0);
+         checkEquals (
+            "impulse for contact with opposing normal",
+            matcher.removeMatchingImpulse (opp), 0.0);
+         // contact within the tolerance
+         del.setRandom();
+         del.normalize();
+         ContactConstraint near = createContact (
+            new Point3d (pnt.x+0.5*tol*del.x, pnt.y+0.5*tol*del.y,
+                         pnt.z+0.5*tol*del.z), nrm, 0);
+         checkEquals (
+            "impulse for contact within tolerance",
+            matcher.removeMatchingImpulse (near), prev.get(i).getImpulse());
+         // previous contact should be matched only once
+         ContactConstraint same = createContact (pnt, nrm, 0);
+         checkEquals (
+            "impulse for contact matched twice",
+            matcher.removeMatchingImpulse (same), 0.0);
+      }
+   }
+
+   VectorNd getImpulses (CollisionManager cm) {
+      VectorNi sizes = new VectorNi();
+      cm.getUnilateralSizes (sizes);
+      VectorNd lam = new VectorNd (sizes.size());
+      cm.getUnilateralImpulses (lam, 0);
+      return lam;
+   }
+
+   /**
+    * Tests that impulses are carried over between updates of a resting
+    * contour region contact only when warm starting is enabled.
+    */
+   void testWarmStartCarryOver (boolean warmStart) {
+      MechModel mech = new MechModel ("mech");
+      RigidBody base = RigidBody.createBox ("base", 1.0, 1.0, 0.2, 1000.0);
+      base.setDynamic (false);
+      RigidBody box = RigidBody.createBox ("box", 0.5, 0.5, 0.2, 1000.0);
+      // place the box so that it slightly penetrates the base
+      box.setPosition (new Point3d (0, 0, 0.19));
+      mech.addRigidBody (base);
+      mech.addRigidBody (box);
+      CollisionBehavior behav = new CollisionBehavior (true, 0);
+      behav.setMethod (Method.CONTOUR_REGION);
+      mech.setCollisionBehavior (base, box, behav);
+      mech.setWarmStartContacts (warmStart);
+
+      CollisionManager cm = mech.getCollisionManager();
+      // sets the default rigid point tolerance, as at the start of simulation
+      cm.initialize();
+      cm.updateConstraints (0, 0);
+      VectorNd lam = getImpulses (cm);
+      check ("no contacts found", lam.size() > 0);
+      for (int i=0; i<lam.size(); i++) {
+         lam.set (i, i+1);
+      }
+      cm.setUnilateralImpulses (lam, 1.0, 0);
+
+      cm.updateConstraints (0, 0);
+      VectorNd chk = getImpulses (cm);
+      checkEquals ("number of contacts", chk.size(), lam.size());
+      if (!warmStart) {
+         lam.setZero();
+      }
+      checkEquals ("impulses after update", chk, lam);
+   }
+
+   public void test() {
+      testImpulseMatcher();
+      testWarmStartCarryOver (true);
+      testWarmStartCarryOver (false);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      CollisionHandlerTest tester = new CollisionHandlerTest();
+      tester.runtest();
+   }
+}
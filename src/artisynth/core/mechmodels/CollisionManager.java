@@ -7,9 +7,11 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import maspack.collision.AbstractCollider;
 import maspack.collision.ContactInfo;
@@ -17,7 +19,11 @@ import maspack.collision.MeshCollider;
 import maspack.collision.SurfaceMeshIntersector;
 import maspack.collision.SurfaceMeshIntersector.RegionType;
 import maspack.collision.SignedDistanceCollider;
+import maspack.collision.SweepAndPrune;
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.DistanceGrid;
 import maspack.geometry.PolygonalMesh;
+import maspack.matrix.Point3d;
 import maspack.matrix.SparseBlockMatrix;
 import maspack.matrix.Vector3d;
 import maspack.matrix.VectorNd;
@@ -36,6 +42,7 @@ import maspack.render.color.HueColorMap;
 import maspack.util.DataBuffer;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
+import maspack.util.Profiler;
 import maspack.util.ReaderTokenizer;
 import maspack.util.FunctionTimer;
 import artisynth.core.mechmodels.CollisionBehavior.Method;
@@ -159,6 +166,58 @@ public class CollisionManager extends RenderableCompositeBase
    SignedDistanceCollider mySDCollider = null;
    MeshCollider myTriTriCollider = null;
 
+   public static final int DEFAULT_NUM_COLLISION_THREADS = 1;
+   // number of threads used for narrow-phase collision detection
+   protected int myNumCollisionThreads = DEFAULT_NUM_COLLISION_THREADS;
+   protected ParallelLoop myCollisionLoop;
+
+   public static final int DEFAULT_MAX_COHERENT_CONTOUR_SEARCHES = 0;
+   // maximum number of consecutive coherent AJL contour searches
+   protected int myMaxCoherentContourSearches =
+      DEFAULT_MAX_COHERENT_CONTOUR_SEARCHES;
+   // per-thread colliders for concurrent narrow-phase detection. Thread 0
+   // uses myAjlIntersector, myTriTriCollider and mySDCollider.
+   SurfaceMeshIntersector[] myThreadAjlIntersectors;
+   MeshCollider[] myThreadTriTriColliders;
+   SignedDistanceCollider[] myThreadSDColliders;
+
+   // contact checks queued by checkForContact() and processed by
+   // processContactChecks()
+   ArrayList<ContactCheck> myContactChecks = new ArrayList<ContactCheck>();
+   // broad-phase culling of contact checks
+   SweepAndPrune mySweepAndPrune = new SweepAndPrune();
+
+   /**
+    * Describes a pending check for contact between two collidable bodies.
+    */
+   static class ContactCheck {
+      CollidableBody myC0;
+      CollidableBody myC1;
+      CollisionBehavior myBehav;
+      PolygonalMesh myMesh0;
+      PolygonalMesh myMesh1;
+      ColliderType myColliderType;
+      RegionType myRegions0;
+      RegionType myRegions1;
+      DistanceGrid myGrid0;
+      DistanceGrid myGrid1;
+      ContactInfo myCinfo;
+      // contact information from the previous step, used to seed
+      // coherent contour searches
+      ContactInfo myPrevCinfo;
+      // true if the check has been performed
+      boolean myDone;
+
+      ContactCheck (
+         CollidableBody c0, CollidableBody c1, CollisionBehavior behav) {
+         myC0 = c0;
+         myC1 = c1;
+         myBehav = behav;
+         myMesh0 = c0.getCollisionMesh();
+         myMesh1 = c1.getCollisionMesh();
+      }
+   }
+
    double myMaxpen; // accumulates maximum penetration 
 
    /**
@@ -371,6 +430,16 @@ public class CollisionManager extends RenderableCompositeBase
       myProps.addInheritable (
          "colliderType", "type of collider to use for collisions",
          myDefaultColliderType);
+
+      myProps.add (
+         "numCollisionThreads",
+         "number of threads used for narrow-phase collision detection",
+         DEFAULT_NUM_COLLISION_THREADS, "[1,inf]");
+
+      myProps.add (
+         "maxCoherentContourSearches",
+         "max consecutive contour searches seeded from the previous step",
+         DEFAULT_MAX_COHERENT_CONTOUR_SEARCHES, "[0,inf]");
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -950,6 +1019,76 @@ public class CollisionManager extends RenderableCompositeBase
       return myColliderTypeMode;
    }
 
+   /**
+    * Returns the number of threads used for narrow-phase collision detection.
+    *
+    * @return number of collision threads
+    */
+   public int getNumCollisionThreads() {
+      return myNumCollisionThreads;
+   }
+
+   /**
+    * Sets the number of threads used for narrow-phase collision detection.
+    * If the number is greater than 1, the contact checks for different
+    * collidable pairs that use either the {@link ColliderType#AJL_CONTOUR}
+    * or {@link ColliderType#TRI_INTERSECTION} colliders are performed
+    * concurrently, with each thread using its own collider. The resulting
+    * contact information is always applied to the collision handlers in the
+    * same order, so that results do not depend on the number of threads.
+    * The same number of threads is used to refit the bounding volume trees
+    * of large collision meshes. A value of 1 (the default) performs all
+    * contact checks in the calling thread.
+    *
+    * @param num number of collision threads
+    */
+   public void setNumCollisionThreads (int num) {
+      if (num < 1) {
+         num = 1;
+      }
+      if (num != myNumCollisionThreads) {
+         myNumCollisionThreads = num;
+         if (myCollisionLoop != null) {
+            myCollisionLoop.dispose();
+            myCollisionLoop = null;
+         }
+         myThreadAjlIntersectors = null;
+         myThreadTriTriColliders = null;
+         myThreadSDColliders = null;
+      }
+   }
+
+   /**
+    * Returns the maximum number of consecutive coherent contour searches
+    * performed by the {@link ColliderType#AJL_CONTOUR} collider. See
+    * {@link #setMaxCoherentContourSearches}.
+    *
+    * @return maximum number of consecutive coherent contour searches
+    */
+   public int getMaxCoherentContourSearches() {
+      return myMaxCoherentContourSearches;
+   }
+
+   /**
+    * Sets the maximum number of consecutive coherent contour searches
+    * performed by the {@link ColliderType#AJL_CONTOUR} collider. If greater
+    * than 0, the intersection contours for each collidable pair are found
+    * by seeding the search with the contours found for that pair in the
+    * previous step, instead of traversing the bounding volume hierarchies
+    * of both meshes. A full search is still performed when the previous
+    * contours cannot all be found, when there were no previous contours,
+    * and after the specified number of consecutive coherent searches.
+    * Since a coherent search does not detect contours that are disjoint
+    * from the previous ones, new contacts between already intersecting
+    * meshes may be detected with a delay of up to this many steps. A value
+    * of 0 (the default) disables coherent searching.
+    *
+    * @param max maximum number of consecutive coherent contour searches
+    */
+   public void setMaxCoherentContourSearches (int max) {
+      myMaxCoherentContourSearches = Math.max (0, max);
+   }
+
    // end of property accessors
 
    // behavior and response accessors
@@ -1993,6 +2132,10 @@ public class CollisionManager extends RenderableCompositeBase
       }
    }
 
+   /**
+    * Queues a check for contact between two collidable bodies. The check is
+    * performed later by {@link #processContactChecks}.
+    */
    void checkForContact (
       CollidableBody c0, CollidableBody c1, 
       CollisionBehavior behav, boolean testMode) {
@@ -2001,11 +2144,10 @@ public class CollisionManager extends RenderableCompositeBase
          c0 = c1;
          c1 = tmp;
       }
-      PolygonalMesh mesh0 = c0.getCollisionMesh();
-      PolygonalMesh mesh1 = c1.getCollisionMesh();
-      ContactInfo cinfo;
+      ContactCheck check = new ContactCheck (c0, c1, behav);
       if (testMode) {
-         cinfo = new ContactInfo (mesh0, mesh1);
+         check.myCinfo = new ContactInfo (check.myMesh0, check.myMesh1);
+         check.myDone = true;
       }
       else {
          ColliderType colliderType = behav.getColliderType();
@@ -2017,13 +2159,8 @@ public class CollisionManager extends RenderableCompositeBase
                colliderType = ColliderType.AJL_CONTOUR;
             }
          }
-         //FunctionTimer timer = new FunctionTimer();
-         //timer.start();
          switch (colliderType) {
             case AJL_CONTOUR: {
-               if (myAjlIntersector == null) {
-                  myAjlIntersector = new SurfaceMeshIntersector();
-               }
                // types of regions that we need to compute for mesh0 and mesh1
                RegionType regions0 = RegionType.INSIDE;
                RegionType regions1 = RegionType.INSIDE;
@@ -2042,24 +2179,23 @@ public class CollisionManager extends RenderableCompositeBase
                      regions1 = RegionType.NONE;
                   }
                }
-               cinfo = myAjlIntersector.findContoursAndRegions (
-                  mesh0, regions0, mesh1, regions1);
+               check.myRegions0 = regions0;
+               check.myRegions1 = regions1;
+               if (myMaxCoherentContourSearches > 0) {
+                  CollisionHandler ch = myHandlerTable.get (c0, c1);
+                  if (ch != null) {
+                     check.myPrevCinfo = ch.getLastContactInfo();
+                  }
+               }
                break;
             }
             case TRI_INTERSECTION: {
-               if (myTriTriCollider == null) {
-                  myTriTriCollider = new MeshCollider();
-               }
-               cinfo = myTriTriCollider.getContacts (mesh0, mesh1);
                break;
             }
             case SIGNED_DISTANCE: {
-               if (mySDCollider == null) {
-                  mySDCollider = new SignedDistanceCollider();
-               }
-               cinfo = mySDCollider.getContacts (
-                  mesh0, c0.getDistanceGrid(),
-                  mesh1, c1.getDistanceGrid());
+               // distance grids may be created on demand, so obtain them here
+               check.myGrid0 = c0.getDistanceGrid();
+               check.myGrid1 = c1.getDistanceGrid();
                break;
             }
             default: {
@@ -2067,13 +2203,239 @@ public class CollisionManager extends RenderableCompositeBase
                   "Unimplemented collider type " + colliderType);
             }
          }
-         //timer.stop();
-         //System.out.println ("time=" + timer.getTimeUsec());
-         //cinfo = myCollider.getContacts (mesh0, mesh1);
+         check.myColliderType = colliderType;
       }
-      if (cinfo != null) {
-         addOrUpdateHandler (cinfo, c0, c1, behav);
-      }     
+      myContactChecks.add (check);
+   }
+
+   /**
+    * Uses sweep-and-prune on the world bounding boxes of the collision meshes
+    * to cull AJL_CONTOUR and TRI_INTERSECTION checks whose meshes cannot
+    * intersect. The results of culled checks are set to what the collider
+    * would return for non-intersecting meshes. Signed distance checks are
+    * not culled, since the distance grid may report penetration for points
+    * slightly outside the mesh; SignedDistanceCollider performs its own
+    * bounding box test instead.
+    */
+   private void cullContactChecks() {
+      IdentityHashMap<PolygonalMesh,Integer> boxIdxs =
+         new IdentityHashMap<PolygonalMesh,Integer>();
+      ArrayList<PolygonalMesh> meshes = new ArrayList<PolygonalMesh>();
+      for (ContactCheck check : myContactChecks) {
+         if (isCullable (check) && !check.myDone) {
+            for (PolygonalMesh mesh : new PolygonalMesh[] {
+                  check.myMesh0, check.myMesh1 }) {
+               if (!boxIdxs.containsKey (mesh)) {
+                  boxIdxs.put (mesh, meshes.size());
+                  meshes.add (mesh);
+               }
+            }
+         }
+      }
+      if (meshes.size() == 0) {
+         return;
+      }
+      SweepAndPrune sap = mySweepAndPrune;
+      sap.setNumBoxes (meshes.size());
+      Point3d min = new Point3d();
+      Point3d max = new Point3d();
+      for (int i=0; i<meshes.size(); i++) {
+         meshes.get(i).getWorldBounds (min, max);
+         sap.setBox (i, min, max);
+      }
+      sap.update();
+      for (ContactCheck check : myContactChecks) {
+         if (isCullable (check) && !check.myDone &&
+             !sap.overlaps (
+                boxIdxs.get (check.myMesh0), boxIdxs.get (check.myMesh1))) {
+            if (check.myColliderType == ColliderType.AJL_CONTOUR) {
+               check.myCinfo = SurfaceMeshIntersector.createEmptyContactInfo (
+                  check.myMesh0, check.myRegions0,
+                  check.myMesh1, check.myRegions1);
+            }
+            check.myDone = true;
+         }
+      }
+   }
+
+   private boolean isCullable (ContactCheck check) {
+      return (check.myColliderType == ColliderType.AJL_CONTOUR ||
+              check.myColliderType == ColliderType.TRI_INTERSECTION);
+   }
+
+   private SurfaceMeshIntersector getAjlIntersector (int thread) {
+      if (thread == 0) {
+         if (myAjlIntersector == null) {
+            myAjlIntersector = new SurfaceMeshIntersector();
+         }
+         return myAjlIntersector;
+      }
+      if (myThreadAjlIntersectors[thread] == null) {
+         myThreadAjlIntersectors[thread] = new SurfaceMeshIntersector();
+      }
+      return myThreadAjlIntersectors[thread];
+   }
+
+   private MeshCollider getTriTriCollider (int thread) {
+      if (thread == 0) {
+         if (myTriTriCollider == null) {
+            myTriTriCollider = new MeshCollider();
+         }
+         return myTriTriCollider;
+      }
+      if (myThreadTriTriColliders[thread] == null) {
+         myThreadTriTriColliders[thread] = new MeshCollider();
+      }
+      return myThreadTriTriColliders[thread];
+   }
+
+   private SignedDistanceCollider getSDCollider (int thread) {
+      if (thread == 0) {
+         if (mySDCollider == null) {
+            mySDCollider = new SignedDistanceCollider();
+         }
+         return mySDCollider;
+      }
+      if (myThreadSDColliders[thread] == null) {
+         myThreadSDColliders[thread] = new SignedDistanceCollider();
+      }
+      return myThreadSDColliders[thread];
+   }
+
+   /**
+    * Performs a single contact check, using the colliders associated
+    * with a specified thread.
+    */
+   private void computeContactInfo (ContactCheck check, int thread) {
+      PolygonalMesh mesh0 = check.myMesh0;
+      PolygonalMesh mesh1 = check.myMesh1;
+      switch (check.myColliderType) {
+         case AJL_CONTOUR: {
+            SurfaceMeshIntersector intersector = getAjlIntersector(thread);
+            intersector.setMaxCoherentSearches (myMaxCoherentContourSearches);
+            check.myCinfo = intersector.findContoursAndRegions (
+               mesh0, check.myRegions0, mesh1, check.myRegions1,
+               check.myPrevCinfo);
+            break;
+         }
+         case TRI_INTERSECTION: {
+            check.myCinfo = getTriTriCollider(thread).getContacts (
+               mesh0, mesh1);
+            break;
+         }
+         case SIGNED_DISTANCE: {
+            check.myCinfo = getSDCollider(thread).getContacts (
+               mesh0, check.myGrid0, mesh1, check.myGrid1);
+            break;
+         }
+         default: {
+            throw new UnsupportedOperationException (
+               "Unimplemented collider type " + check.myColliderType);
+         }
+      }
+      check.myDone = true;
+   }
+
+   /**
+    * Updates, in the calling thread, mesh information that is otherwise
+    * computed on demand, so that meshes can be shared safely by concurrent
+    * contact checks.
+    */
+   private void prepareMeshForConcurrentChecks (PolygonalMesh mesh) {
+      mesh.updateFaceNormals();
+      mesh.getBVTree();
+      mesh.isTriangular();
+      mesh.isClosed();
+      mesh.getLocalBounds (null, null);
+      mesh.getWorldBounds (null, null);
+   }
+
+   /**
+    * Performs all contact checks queued by {@link #checkForContact}, and
+    * then adds or updates the collision handler for each check that
+    * produced contact information. Checks are first culled using a
+    * sweep-and-prune broad phase. If <code>numCollisionThreads</code> is
+    * greater than 1, the remaining AJL_CONTOUR and TRI_INTERSECTION checks
+    * are distributed among multiple threads. Signed distance checks are
+    * always performed in the calling thread, since distance grids compute
+    * their vertex normals on demand. Handlers are updated in the order in
+    * which the checks were queued, independent of the number of threads.
+    */
+   void processContactChecks() {
+      if (myContactChecks.size() == 0) {
+         return;
+      }
+      Profiler.begin ("processContactChecks");
+      Profiler.addCounter ("numContactChecks", myContactChecks.size());
+      cullContactChecks();
+      ArrayList<ContactCheck> concurrent = new ArrayList<ContactCheck>();
+      for (ContactCheck check : myContactChecks) {
+         if (isCullable (check) && !check.myDone) {
+            // the colliders update the bounding volume trees of the meshes,
+            // which can then be refit using the collision threads
+            check.myMesh0.setNumBVTreeRefitThreads (myNumCollisionThreads);
+            check.myMesh1.setNumBVTreeRefitThreads (myNumCollisionThreads);
+            concurrent.add (check);
+         }
+      }
+      if (myNumCollisionThreads > 1 && concurrent.size() > 1) {
+         processConcurrentChecks (concurrent);
+      }
+      for (ContactCheck check : myContactChecks) {
+         if (!check.myDone) {
+            computeContactInfo (check, 0);
+         }
+      }
+      for (ContactCheck check : myContactChecks) {
+         if (check.myCinfo != null) {
+            addOrUpdateHandler (
+               check.myCinfo, check.myC0, check.myC1, check.myBehav);
+         }
+      }
+      myContactChecks.clear();
+      Profiler.end();
+   }
+
+   private void processConcurrentChecks (
+      final ArrayList<ContactCheck> checks) {
+      IdentityHashMap<PolygonalMesh,Boolean> prepared =
+         new IdentityHashMap<PolygonalMesh,Boolean>();
+      for (ContactCheck check : checks) {
+         for (PolygonalMesh mesh : new PolygonalMesh[] {
+               check.myMesh0, check.myMesh1 }) {
+            if (prepared.put (mesh, Boolean.TRUE) == null) {
+               prepareMeshForConcurrentChecks (mesh);
+            }
+         }
+      }
+      int nthreads = myNumCollisionThreads;
+      if (myCollisionLoop == null) {
+         myCollisionLoop = new ParallelLoop (
+            "CollisionManager.collision", nthreads);
+         myCollisionLoop.setMinChunkSize (1);
+      }
+      if (myThreadAjlIntersectors == null) {
+         myThreadAjlIntersectors = new SurfaceMeshIntersector[nthreads];
+         myThreadTriTriColliders = new MeshCollider[nthreads];
+         myThreadSDColliders = new SignedDistanceCollider[nthreads];
+      }
+      // allocate colliders before entering threads
+      for (int k=0; k<nthreads; k++) {
+         getAjlIntersector (k);
+         getTriTriCollider (k);
+         getSDCollider (k);
+      }
+      // checks vary greatly in cost, so each thread takes the next
+      // unprocessed check rather than a fixed range of checks
+      final AtomicInteger next = new AtomicInteger (0);
+      myCollisionLoop.forRange (0, nthreads, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               int k;
+               while ((k = next.getAndIncrement()) < checks.size()) {
+                  computeContactInfo (checks.get(k), thread);
+               }
+            }
+         });
    }
 
    /**
@@ -2374,6 +2736,16 @@ public class CollisionManager extends RenderableCompositeBase
       }
    }
 
+   /**
+    * Returns <code>true</code> if contact impulses should be carried over
+    * from the previous step in order to warm start the solver. This is
+    * controlled by the top-level MechModel, whose solver is the one used.
+    */
+   boolean getWarmStartContacts() {
+      MechModel mech = MechModel.topMechModel (myMechModel);
+      return mech != null && mech.getWarmStartContacts();
+   }
+
    // ==== Begin Constrainer implementation ====
    
    public double updateConstraints (double t, int flags) {
@@ -2385,8 +2757,11 @@ public class CollisionManager extends RenderableCompositeBase
          return 0;
       }
 
+      Profiler.begin ("CollisionManager.updateConstraints");
       myHandlers.clear();
       double maxpen = updateConstraints (myHandlers, t, flags);      
+      Profiler.setCounter ("numCollisionHandlers", myHandlers.size());
+      Profiler.end();
 
       return maxpen;
    }
@@ -2459,6 +2834,8 @@ public class CollisionManager extends RenderableCompositeBase
          }
       }
 
+      processContactChecks();
+
       myHandlerTable.removeInactiveHandlers();
       myHandlerTable.collectHandlers (handlers);
 
@@ -1756,6 +1756,69 @@ public class CollisionManagerTest extends UnitTest {
               "                            . 2 "+ // ball
               "                              . ");// base
 
+      testCollisionThreads();
+   }
+
+   /**
+    * Creates a summary of the collision handlers produced by a contact
+    * detection pass with a given collider type and number of threads.
+    */
+   private String collisionSummary (
+      CollisionManager.ColliderType ctype, int nthreads) {
+      MechModel mech = new MechModel ("mech");
+      // grid of spheres in which adjacent spheres interpenetrate
+      int nx = 4;
+      int ny = 3;
+      for (int i=0; i<nx; i++) {
+         for (int j=0; j<ny; j++) {
+            RigidBody body = RigidBody.createIcosahedralSphere (
+               "ball"+i+"_"+j, 0.6, 1000, 2);
+            body.setPose (new RigidTransform3d (i, j, 0.1*((i+j)%2)));
+            mech.addRigidBody (body);
+         }
+      }
+      // isolated sphere
+      RigidBody body = RigidBody.createIcosahedralSphere (
+         "isolated", 0.6, 1000, 2);
+      body.setPose (new RigidTransform3d (10, 10, 10));
+      mech.addRigidBody (body);
+
+      mech.setDefaultCollisionBehavior (true, 0);
+      CollisionManager cm = mech.getCollisionManager();
+      cm.setColliderType (ctype);
+      cm.setNumCollisionThreads (nthreads);
+      cm.updateConstraints (0, /*flags=*/0);
+      StringBuilder sb = new StringBuilder();
+      for (CollisionHandler ch : cm.collisionHandlers()) {
+         sb.append (
+            ch.getCollidable(0).getName()+" "+ch.getCollidable(1).getName()+
+            " "+ch.numBilateralConstraints()+
+            " "+ch.numUnilateralConstraints()+"\n");
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Checks that contact detection with multiple collision threads produces
+    * the same handlers and constraints as single threaded detection.
+    */
+   void testCollisionThreads() {
+      CollisionManager.ColliderType[] types =
+         new CollisionManager.ColliderType[] {
+            CollisionManager.ColliderType.TRI_INTERSECTION };
+      for (CollisionManager.ColliderType ctype : types) {
+         String check = collisionSummary (ctype, 1);
+         if (check.length() == 0) {
+            throw new TestException (
+               "no collision handlers found for collider "+ctype);
+         }
+         String result = collisionSummary (ctype, 4);
+         if (!result.equals (check)) {
+            throw new TestException (
+               "collider "+ctype+": multi-threaded result\n"+result+
+               "differs from single threaded result\n"+check);
+         }
+      }
    }
 
    public static void main (String[] args) {
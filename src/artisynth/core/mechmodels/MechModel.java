@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.GeometryTransformer;
 import maspack.matrix.AffineTransform3dBase;
 import maspack.matrix.Matrix;
@@ -128,6 +129,16 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
    protected double myMaxTranslationalVel = 1e10;
    protected double myMaxRotationalVel = 1e10;
 
+   public static final int DEFAULT_NUM_WRAP_THREADS = 1;
+   // number of threads used to update the wrap segments of
+   // multi-point springs
+   protected int myNumWrapThreads = DEFAULT_NUM_WRAP_THREADS;
+   protected ParallelLoop myWrapLoop;
+   // work lists for the concurrent wrap segment update, reused between steps
+   protected ArrayList<MultiPointSpring> myWrapSprings;
+   protected MultiPointSpring.ConcurrentWrapUpdate myWrapUpdate =
+      new MultiPointSpring.ConcurrentWrapUpdate();
+
    protected float[] myExcitationColor = null;
    protected PropertyMode myExcitationColorMode = PropertyMode.Explicit;
    protected double myMaxColoredExcitation = 1.0;
@@ -157,6 +168,10 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
       myProps.addInheritable (
          "penetrationTol:Inherited", "collision penetration tolerance",
          DEFAULT_PENETRATION_TOL);
+      myProps.add (
+         "warmStartContacts",
+         "warm start solves involving contacts and other unilateral "+
+         "constraints", MechSystemSolver.DEFAULT_WARM_START_CONTACTS);
       myProps.add("staticTikhonovFactor", "Tikhonov regularization factor for static solves", 0);
       myProps.add("staticIncrements", "Number of load increments for incremental static solves", 20);
       myProps.addInheritable (
@@ -164,6 +179,10 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
       myProps.addInheritable (
          "maxColoredExcitation",
          "excitation value for maximum colored excitation", 1.0, "[0,1]");
+      myProps.add (
+         "numWrapThreads",
+         "number of threads used to update multi-point spring wrap segments",
+         DEFAULT_NUM_WRAP_THREADS, "[1,inf]");
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -213,6 +232,7 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
    public MechModel (String name) {
       super (name);
       myParticles = new PointList<Particle> (Particle.class, "particles", "p");
+      myParticles.setBulkCodec (new ParticleBulkCodec());
       myPoints = new PointList<Point> (Point.class, "points", "ps");
       myModels =
          new ComponentList<MechSystemModel> (
@@ -440,6 +460,42 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
             this, "maxColoredExcitation", myMaxColoredExcitationMode, mode);
    }
 
+   /**
+    * Returns the number of threads used to update the wrap segments of the
+    * multi-point springs in this model.
+    *
+    * @return number of wrap threads
+    */
+   public int getNumWrapThreads() {
+      return myNumWrapThreads;
+   }
+
+   /**
+    * Sets the number of threads used to update the wrap segments of the
+    * multi-point springs in this model. If the number is greater than 1, the
+    * knots of the wrap segments of all springs (excluding those in
+    * sub-models) are updated concurrently at the start of each step, with
+    * the remaining segment processing performed in the calling thread. The
+    * results are identical to those of the serial update. Wrappables must
+    * then support concurrent calls to {@link Wrappable#penetrationDistance},
+    * which is true for all the wrappables provided by ArtiSynth. A value
+    * of 1 (the default) updates the segments serially.
+    *
+    * @param num number of wrap threads
+    */
+   public void setNumWrapThreads (int num) {
+      if (num < 1) {
+         num = 1;
+      }
+      if (num != myNumWrapThreads) {
+         myNumWrapThreads = num;
+         if (myWrapLoop != null) {
+            myWrapLoop.dispose();
+            myWrapLoop = null;
+         }
+      }
+   }
+
    public void setFriction (double mu) {
       myCollisionManager.setFriction (mu);
    }
@@ -948,6 +1004,31 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
       return myIntegrationMethod;
    }
    
+   /**
+    * Enables or disables warm starting of solves involving unilateral
+    * constraints. See {@link MechSystemSolver#setWarmStartContacts}.
+    *
+    * @param enable if <code>true</code>, enables warm starting
+    */
+   public void setWarmStartContacts (boolean enable) {
+      if (mySolver != null) {
+         mySolver.setWarmStartContacts (enable);
+      }
+   }
+
+   /**
+    * Returns whether solves involving unilateral constraints are warm
+    * started.
+    *
+    * @return <code>true</code> if unilateral solves are warm started
+    */
+   public boolean getWarmStartContacts() {
+      if (mySolver != null) {
+         return mySolver.getWarmStartContacts();
+      }
+      return MechSystemSolver.DEFAULT_WARM_START_CONTACTS;
+   }
+
    public void setStaticTikhonovFactor(double eps) {
       if (mySolver != null) {
          mySolver.setStaticTikhonovFactor(eps);
@@ -1755,6 +1836,9 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
          mySolver.projectPosConstraints (0);
       }     
       updateLocalAdvanceComponents();
+      if (myNumWrapThreads > 1) {
+         updateWrapSegmentsConcurrently();
+      }
       for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
          c.preadvance (t0, t1, flags);
       }
@@ -2087,6 +2171,7 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
       myLocalDynamicComps = null;
       myLocalInitComps = null;
       myLocalPrePostAdvanceComps = null;
+      myWrapSprings = null;
       myLocalModels = null;
       if (e == null || e.getComponent() != myCollisionManager.behaviors()) {
          myCollisionManager.clearCachedData();
@@ -2205,9 +2290,36 @@ TransformableGeometry, ScalableUnits, MechSystemModel {
       }
    }
    
+   /**
+    * Updates the wrap segments of all the local multi-point springs
+    * concurrently, ahead of their preadvance() calls.
+    */
+   private void updateWrapSegmentsConcurrently() {
+      if (myWrapSprings == null) {
+         myWrapSprings = new ArrayList<MultiPointSpring>();
+         for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
+            if (c instanceof MultiPointSpring) {
+               myWrapSprings.add ((MultiPointSpring)c);
+            }
+         }
+      }
+      if (myWrapSprings.size() > 0) {
+         if (myWrapLoop == null) {
+            myWrapLoop = new ParallelLoop (
+               "MechModel.wrapSegments", myNumWrapThreads);
+         }
+         MultiPointSpring.updateWrapSegments (
+            myWrapSprings, myWrapLoop, myWrapUpdate);
+      }
+   }
+
    public void dispose() {
       recursivelyDispose (this);
       mySolver.dispose();
+      if (myWrapLoop != null) {
+         myWrapLoop.dispose();
+         myWrapLoop = null;
+      }
    }
 
    // ForceEffector that implements gravity for MechModels
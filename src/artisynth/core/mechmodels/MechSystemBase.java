@@ -30,6 +30,7 @@ import maspack.render.RenderableUtils;
 import maspack.util.DataBuffer;
 import maspack.util.IntHolder;
 import maspack.util.NumberFormat;
+import maspack.util.Profiler;
 import artisynth.core.mechmodels.MechSystemSolver.PosStabilization;
 import artisynth.core.modelbase.*;
 import artisynth.core.util.ArtisynthIO;
@@ -422,6 +423,7 @@ public abstract class MechSystemBase extends RenderableModelBase
    public void updateConstraints (
       double t, StepAdjustment stepAdjust, int flags) {
 
+      Profiler.begin ("updateConstraints");
       updateForceComponentList();
       double maxpen = 0;
       for (int i=0; i<myConstrainers.size(); i++) {
@@ -430,6 +432,7 @@ public abstract class MechSystemBase extends RenderableModelBase
             maxpen = pen;
          }
       } 
+      Profiler.end();
       double penlimit = getPenetrationLimit();
       if (penlimit > 0 && maxpen > penlimit && stepAdjust != null) {
          stepAdjust.recommendAdjustment (
@@ -1791,6 +1794,7 @@ public abstract class MechSystemBase extends RenderableModelBase
    }
 
    public void updateForces (double t) {
+      Profiler.begin ("updateForces");
       updateDynamicComponentLists();
       updateForceComponentList();
       // initialize the forces by adding the initial forces that 
@@ -1817,6 +1821,7 @@ public abstract class MechSystemBase extends RenderableModelBase
          myForceEffectors.get(i).applyForces (t);
       }
       applyAttachmentForces();
+      Profiler.end();
    }
 
    public void addPosJacobian (
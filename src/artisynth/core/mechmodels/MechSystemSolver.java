@@ -33,10 +33,12 @@ import maspack.solvers.IterativeSolver;
 import maspack.solvers.IterativeSolver.ToleranceType;
 import maspack.solvers.KKTSolver;
 import maspack.solvers.PardisoSolver;
+import maspack.solvers.SparseLDLTSolver;
 import maspack.solvers.UmfpackSolver;
 import maspack.util.FunctionTimer;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
+import maspack.util.Profiler;
 
 /**
  * Implements implicit integration for MechSystem
@@ -151,6 +153,8 @@ public class MechSystemSolver {
    //   private static boolean useBodyCoordsForExplicit = true;
    public static boolean profileConstraintSolves = false;
    private boolean myHybridSolveP = false;
+   public static final boolean DEFAULT_WARM_START_CONTACTS = false;
+   private boolean myWarmStartContacts = DEFAULT_WARM_START_CONTACTS;
 
    int myStateSizeVersion = -1;
    int myParametricPosSize = 0;
@@ -175,7 +179,7 @@ public class MechSystemSolver {
    }
 
    public static enum MatrixSolver {
-      Pardiso, Umfpack, ConjugateGradient, None
+      Pardiso, Umfpack, SparseLDLT, ConjugateGradient, None
    }
 
    public static enum Integrator {
@@ -217,8 +221,45 @@ public class MechSystemSolver {
       myHybridSolveP = enable;
    }
 
+   /**
+    * Returns whether solves involving unilateral constraints are warm
+    * started.
+    *
+    * @return <code>true</code> if unilateral solves are warm started
+    * @see #setWarmStartContacts
+    */
+   public boolean getWarmStartContacts() {
+      return myWarmStartContacts;
+   }
+
+   /**
+    * Enables or disables warm starting of solves involving unilateral
+    * constraints (such as contacts and joint limits). When enabled, the
+    * constraints whose impulses were positive at the previous step are used
+    * as the initial active set for the LCP solve, which greatly reduces
+    * the pivoting required when most contacts persist from one step to the
+    * next. If profiling is enabled, the number of pivots and the size of
+    * the initial active set are reported using the counters
+    * <code>lcpPivots</code> and <code>lcpWarmStartSize</code>.
+    *
+    * @param enable if <code>true</code>, enables warm starting
+    */
+   public void setWarmStartContacts (boolean enable) {
+      myWarmStartContacts = enable;
+      if (myKKTSolver != null) {
+         myKKTSolver.setWarmStartLCP (enable);
+      }
+      if (myConSolver != null) {
+         myConSolver.setWarmStartLCP (enable);
+      }
+      if (myStaticSolver != null) {
+         myStaticSolver.setWarmStartLCP (enable);
+      }
+   }
+
    PardisoSolver myPardisoSolver;
    UmfpackSolver myUmfpackSolver;
+   SparseLDLTSolver mySparseLDLTSolver;
    KKTSolver myKKTSolver;
    KKTSolver myConSolver;
    KKTSolver myStaticSolver;
@@ -398,7 +439,8 @@ public class MechSystemSolver {
       switch (integrator) {
          case BackwardEuler: {
             if (solver != MatrixSolver.Umfpack &&
-               solver != MatrixSolver.Pardiso) {
+                solver != MatrixSolver.Pardiso &&
+                solver != MatrixSolver.SparseLDLT) {
                return Integrator.SymplecticEuler;
             }
             break;
@@ -406,7 +448,8 @@ public class MechSystemSolver {
          case Trapezoidal:
          case FullBackwardEuler:
          case ConstrainedBackwardEuler: {
-            if (solver != MatrixSolver.Pardiso) {
+            if (solver != MatrixSolver.Pardiso &&
+                solver != MatrixSolver.SparseLDLT) {
                if (solver == MatrixSolver.Umfpack) {
                   return Integrator.BackwardEuler;
                }
@@ -535,6 +578,9 @@ public class MechSystemSolver {
                }
                break;
             }
+            case SparseLDLT: {
+               break;
+            }
             case ConjugateGradient: {
                setIterativeSolver (new CGSolver());
                break;
@@ -551,7 +597,48 @@ public class MechSystemSolver {
          mySolveMatrix = null;
          //myKKTSolveMatrix = null;
          myMatrixSolver = solver;
+         // the new solver (and new KKT solvers, which will be recreated to
+         // use the new solver type) will need to analyze the solve matrix
+         myRegSolveMatrixVersion = -1;
+         disposeKKTSolvers();
+      }
+   }
+
+   /**
+    * Creates a KKTSolver whose underlying direct solver is consistent with
+    * the current matrix solver setting.
+    */
+   private KKTSolver createKKTSolver() {
+      KKTSolver solver;
+      if (myMatrixSolver == MatrixSolver.SparseLDLT) {
+         solver = new KKTSolver (KKTSolver.SolverType.SPARSE_LDLT);
+      }
+      else {
+         solver = new KKTSolver();
       }
+      solver.setWarmStartLCP (myWarmStartContacts);
+      return solver;
+   }
+
+   private void disposeKKTSolvers() {
+      if (myKKTSolver != null) {
+         myKKTSolver.dispose();
+         myKKTSolver = null;
+      }
+      if (myStaticSolver != null) {
+         myStaticSolver.dispose();
+         myStaticSolver = null;
+      }
+      if (myConSolver != null) {
+         myConSolver.dispose();
+         myConSolver = null;
+      }
+      // force reanalysis when the solvers are recreated
+      myKKTSolveMatrixVersion = -1;
+      myKKTGTVersion = -1;
+      myConMassVersion = -1;
+      myConGTVersion = -1;
+      myStaticKKTVersion = -1;
    }
 
    public void setStabilization (PosStabilization stabilization) {
@@ -584,6 +671,14 @@ public class MechSystemSolver {
             myUseDirectSolver = true;
             break;
          }
+         case SparseLDLT: {
+            if (mySparseLDLTSolver == null) {
+               mySparseLDLTSolver = new SparseLDLTSolver();
+            }
+            myDirectSolver = mySparseLDLTSolver;
+            myUseDirectSolver = true;
+            break;
+         }
          case ConjugateGradient: {
             if (!(myIterativeSolver instanceof CGSolver)) {
                setIterativeSolver (new CGSolver());
@@ -615,6 +710,9 @@ public class MechSystemSolver {
          case Umfpack: {
             return UmfpackSolver.isAvailable();
          }
+         case SparseLDLT: {
+            return true;
+         }
          case ConjugateGradient: {
             return true;
          }
@@ -636,6 +734,10 @@ public class MechSystemSolver {
       if (PardisoSolver.isAvailable()) {
          setMatrixSolver (MatrixSolver.Pardiso);
       }
+      else {
+         // fall back to the pure Java direct solver
+         setMatrixSolver (MatrixSolver.SparseLDLT);
+      }
       // Umfpack no longer supported ...
       // else if (UmfpackSolver.isAvailable()) {
       //    setMatrixSolver (MatrixSolver.Umfpack);
@@ -673,8 +775,11 @@ public class MechSystemSolver {
       if (profileWholeSolve) {
          timerStart();
       }
+      Profiler.begin ("MechSystemSolver.solve");
       updateStateSizes();
+      Profiler.begin ("updateMassMatrix");
       updateMassMatrix (t0);
+      Profiler.end();
       setParametricTargets (1, t1-t0);
 
       if (myUpdateForcesAtStepEnd) {
@@ -734,6 +839,7 @@ public class MechSystemSolver {
          updateActiveForces (t0, t1);
          computeParametricForces(t1-t0);
       }
+      Profiler.end();
       if (profileWholeSolve) {
          timerStop ("wholeSolve");
       }
@@ -1220,7 +1326,6 @@ public class MechSystemSolver {
    private static PrintWriter myLogWriter;
 
 
-   static FunctionTimer timerX = new FunctionTimer();
    static boolean solveModePrinted = false;
 
    protected void updateSolveMatrixStructure () {
@@ -1485,7 +1590,7 @@ public class MechSystemSolver {
       }
 
       if (myKKTSolver == null) {
-         myKKTSolver = new KKTSolver();
+         myKKTSolver = createKKTSolver();
       }
 
       updateBilateralConstraints ();
@@ -1551,15 +1656,19 @@ public class MechSystemSolver {
             vel.set (vel0);
          }
          if (analyze) {
+            Profiler.begin ("analyze");
             myKKTSolver.analyze (
                S, velSize, myGT, myRg, mySys.getSolveMatrixType());
+            Profiler.end();
          }
          if (myHybridSolveP && !analyze && myNT.colSize() == 0) {
             if (profileKKTSolveTime) {
                timerStart();
             }
+            Profiler.begin ("factorAndSolve");
             myKKTSolver.factorAndSolve (
                S, velSize, myGT, myRg, vel, myLam, bf, myBg, myHybridSolveTol);
+            Profiler.end();
             if (profileKKTSolveTime) {
                timerStop ("KKTsolve(hybrid)");
             }
@@ -1568,12 +1677,30 @@ public class MechSystemSolver {
             if (profileKKTSolveTime) {
                timerStart();
             }
+            Profiler.begin ("factor");
             myKKTSolver.factor (S, velSize, myGT, myRg, myNT, myRn);
+            Profiler.end();
+            Profiler.begin ("solve");
             myKKTSolver.solve (vel, myLam, myThe, bf, myBg, myBn);
+            Profiler.end();
             if (profileKKTSolveTime) {
                timerStop ("KKTsolve");
             }
          }
+         if (Profiler.isEnabled()) {
+            Profiler.setCounter ("velSize", velSize);
+            Profiler.setCounter ("numBilateral", myGT.colSize());
+            Profiler.setCounter ("numUnilateral", myNT.colSize());
+            if (myNT.colSize() > 0) {
+               Profiler.setCounter (
+                  "lcpPivots", myKKTSolver.getLCPIterationCount());
+               Profiler.setCounter (
+                  "lcpWarmStartSize", myKKTSolver.getLCPWarmStartSize());
+            }
+            Profiler.setCounter ("solveMatrixNNZ", S.numNonZeroVals());
+            Profiler.setCounter (
+               "factorMemoryKB", myKKTSolver.getFactorSolveMemoryUsage());
+         }
          if (computeKKTResidual) {
             double res = myKKTSolver.residual (
                S, velSize, myGT, myRg, myNT, myRn, 
@@ -1741,7 +1868,7 @@ public class MechSystemSolver {
       }
       
       if (myStaticSolver == null) {
-         myStaticSolver = new KKTSolver();
+         myStaticSolver = createKKTSolver();
       }
 
       updateBilateralConstraints ();
@@ -2139,7 +2266,7 @@ public class MechSystemSolver {
          return;
       }            
       if (myConSolver == null) {
-         myConSolver = new KKTSolver();
+         myConSolver = createKKTSolver();
       }
       updateBilateralConstraints ();
       updateUnilateralConstraints ();
@@ -2225,7 +2352,7 @@ public class MechSystemSolver {
          return;
       }            
       if (myConSolver == null) {
-         myConSolver = new KKTSolver();
+         myConSolver = createKKTSolver();
       }
       updateBilateralConstraints ();
       updateUnilateralConstraints ();
@@ -2342,7 +2469,7 @@ public class MechSystemSolver {
          return false;
       }            
       if (myConSolver == null) {
-         myConSolver = new KKTSolver();
+         myConSolver = createKKTSolver();
       }
       updateBilateralConstraints ();
       updateUnilateralConstraints ();
@@ -2410,7 +2537,7 @@ public class MechSystemSolver {
       mySys.addPosJacobian (S, null, -1);
       addActiveMassMatrix (mySys, S);
       if (myKKTSolver == null) {
-         myKKTSolver = new KKTSolver();
+         myKKTSolver = createKKTSolver();
          analyze = true;
       }
       if (myKKTGTVersion != myGTVersion) {
@@ -2461,12 +2588,14 @@ public class MechSystemSolver {
       VectorNd pos, VectorNd vel,
       double t, StepAdjustment stepAdjust) {
 
+      Profiler.begin ("posCorrection");
       updateMassMatrix (-1);
       mySys.updateConstraints (
          t, stepAdjust, /*flags=*/MechSystem.COMPUTE_CONTACTS);
       computePosCorrections (pos, vel, t);
 
       mySys.setActivePosState (pos);
+      Profiler.end();
       // mySys.updateConstraints (
       //    t, stepAdjust, /*flags=*/MechSystem.UPDATE_CONTACTS);
 
@@ -2482,7 +2611,7 @@ public class MechSystemSolver {
          return;
       }            
       if (myConSolver == null) {
-         myConSolver = new KKTSolver();
+         myConSolver = createKKTSolver();
       }
       updateBilateralConstraints ();
       updateUnilateralConstraints ();
@@ -3603,6 +3732,10 @@ public class MechSystemSolver {
          myPardisoSolver.dispose();
          myPardisoSolver = null;
       }
+      if (mySparseLDLTSolver != null) {
+         mySparseLDLTSolver.dispose();
+         mySparseLDLTSolver = null;
+      }
       if (myKKTSolver != null) {
          myKKTSolver.dispose();
          myKKTSolver = null;
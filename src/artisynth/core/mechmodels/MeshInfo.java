@@ -7,7 +7,12 @@
 package artisynth.core.mechmodels;
 
 import java.io.*;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 
+import artisynth.core.modelbase.BinaryModelReader;
+import artisynth.core.modelbase.BinaryModelWriter;
 import artisynth.core.util.*;
 
 import maspack.geometry.*;
@@ -301,6 +306,12 @@ public class MeshInfo {
                   }
                }
             }
+            else if (rtok.ttype == ReaderTokenizer.TT_WORD &&
+                     rtok.sval.equals ("bulk")) {
+               rtok.scanToken ('=');
+               scanBulkMesh (rtok, mesh);
+               rtok.scanToken (']');
+            }
             else { // rtok.ttype != ']' 
                rtok.pushBack();
                mesh.read (rtok, false);
@@ -351,6 +362,131 @@ public class MeshInfo {
       }            
    }
 
+   /**
+    * Returns true if a mesh can be written into the blocks of a binary model
+    * file. This is currently restricted to polygonal meshes without texture
+    * coordinates.
+    */
+   private boolean canWriteBulkMesh (MeshBase mesh) {
+      return (mesh.getClass() == PolygonalMesh.class &&
+              mesh.getTextureCoords() == null);
+   }
+
+   /**
+    * Writes the vertices, faces and (if written) normals of a polygonal mesh
+    * into blocks of a binary model file, and writes the block indices as
+    * text. The face vertices and normal indices are stored in the same order
+    * as for Wavefront .obj output.
+    */
+   private void writeBulkMesh (
+      PrintWriter pw, PolygonalMesh mesh, BinaryModelWriter writer) {
+
+      ArrayList<Vertex3d> vertices = mesh.getVertices();
+      double[] coords = new double[3*vertices.size()];
+      int k = 0;
+      for (Vertex3d vtx : vertices) {
+         coords[k++] = vtx.pnt.x;
+         coords[k++] = vtx.pnt.y;
+         coords[k++] = vtx.pnt.z;
+      }
+      ArrayList<Face> faces = mesh.getFaces();
+      int[] offsets = new int[faces.size()+1];
+      int numIdxs = 0;
+      for (int i=0; i<faces.size(); i++) {
+         offsets[i] = numIdxs;
+         numIdxs += faces.get(i).numEdges();
+      }
+      offsets[faces.size()] = numIdxs;
+      int[] indices = new int[numIdxs];
+      k = 0;
+      for (Face face : faces) {
+         HalfEdge he0 = face.firstHalfEdge();
+         HalfEdge he = he0;
+         do {
+            indices[k++] = he.head.getIndex();
+            he = he.getNext();
+         }
+         while (he != he0);
+      }
+      pw.print ("bulk=[ " + writer.addDoubles (coords, coords.length) + " " +
+                writer.addInts (offsets, offsets.length) + " " +
+                writer.addInts (indices, indices.length));
+      if (mesh.getWriteNormals() && mesh.getNormals() != null) {
+         ArrayList<Vector3d> normals = mesh.getNormals();
+         double[] nvals = new double[3*normals.size()];
+         k = 0;
+         for (Vector3d nrm : normals) {
+            nvals[k++] = nrm.x;
+            nvals[k++] = nrm.y;
+            nvals[k++] = nrm.z;
+         }
+         int[] nidxs = mesh.getNormalIndices();
+         pw.print (" " + writer.addDoubles (nvals, nvals.length) + " " +
+                   writer.addInts (nidxs, numIdxs));
+      }
+      pw.println (" ]");
+   }
+
+   /**
+    * Scans a polygonal mesh from the blocks of a binary model file, given the
+    * block indices written by {@link #writeBulkMesh}.
+    */
+   private void scanBulkMesh (ReaderTokenizer rtok, MeshBase mesh)
+      throws IOException {
+
+      BinaryModelReader reader = BinaryModelReader.getActive();
+      if (reader == null) {
+         throw new IOException (
+            "bulk mesh data requires a binary model file, " + rtok);
+      }
+      if (!(mesh instanceof PolygonalMesh)) {
+         throw new IOException (
+            "bulk mesh data only supported for PolygonalMesh, " + rtok);
+      }
+      PolygonalMesh pmesh = (PolygonalMesh)mesh;
+      rtok.scanToken ('[');
+      ArrayList<Integer> blocks = new ArrayList<Integer>();
+      while (rtok.nextToken() != ']') {
+         rtok.pushBack();
+         blocks.add (rtok.scanInteger());
+      }
+      if (blocks.size() != 3 && blocks.size() != 5) {
+         throw new IOException (
+            "expecting 3 or 5 bulk mesh blocks, got "+blocks.size()+", "+rtok);
+      }
+      pmesh.clear();
+      DoubleBuffer coords = reader.getDoubles (blocks.get(0));
+      while (coords.remaining() >= 3) {
+         pmesh.addVertex (coords.get(), coords.get(), coords.get());
+      }
+      IntBuffer offsets = reader.getInts (blocks.get(1));
+      IntBuffer indices = reader.getInts (blocks.get(2));
+      int numIdxs = indices.remaining();
+      int off0 = offsets.get();
+      while (offsets.hasRemaining()) {
+         int off1 = offsets.get();
+         if (off1 < off0 || off1 > numIdxs) {
+            throw new IOException ("bulk mesh face offsets are inconsistent");
+         }
+         int[] idxs = new int[off1-off0];
+         indices.get (idxs);
+         pmesh.addFace (idxs);
+         off0 = off1;
+      }
+      if (blocks.size() == 5) {
+         DoubleBuffer nvals = reader.getDoubles (blocks.get(3));
+         ArrayList<Vector3d> normals = new ArrayList<Vector3d>();
+         while (nvals.remaining() >= 3) {
+            normals.add (new Vector3d (nvals.get(), nvals.get(), nvals.get()));
+         }
+         IntBuffer nbuf = reader.getInts (blocks.get(4));
+         int[] nidxs = new int[nbuf.remaining()];
+         nbuf.get (nidxs);
+         pmesh.setNormals (normals, nidxs);
+         pmesh.setHardEdgesFromNormals();
+      }
+   }
+
    public void write (PrintWriter pw, NumberFormat fmt) throws IOException {
       if (myMesh == null) {
          pw.println ("mesh=[ ]");
@@ -370,6 +506,11 @@ public class MeshInfo {
                }
             }
          }
+         else if (BinaryModelWriter.getActive() != null &&
+                  canWriteBulkMesh (myMesh)) {
+            writeBulkMesh (
+               pw, (PolygonalMesh)myMesh, BinaryModelWriter.getActive());
+         }
          else {
             myMesh.write (pw, fmt, /* zeroIndexed= */false);
             pw.println ("EOF");            
@@ -31,6 +31,7 @@ import maspack.render.RenderObject;
 import maspack.render.RenderProps;
 import maspack.render.RenderableUtils;
 import maspack.render.Renderable;
+import maspack.concurrency.ParallelLoop;
 import maspack.util.DataBuffer;
 import maspack.util.DoubleHolder;
 import maspack.util.FunctionTimer;
@@ -111,6 +112,12 @@ public class MultiPointSpring extends PointSpringBase
    protected int myProfileCnt = 0;
    protected int myUpdateContactsCnt = 0;
    protected int myIterationCnt = 0;
+   // set when the wrap segments have been updated by
+   // updateWrapSegments(springs,loop) ahead of the next preadvance
+   protected boolean myWrapSegsUpdatedP = false;
+   // temporaries used by prepareConcurrentWrapUpdate
+   protected Vector3d myPrepareNrml = new Vector3d();
+   protected Point3d myPreparePos = new Point3d();
    
    public double getSor() {
       return mySor;
@@ -509,6 +516,26 @@ public class MultiPointSpring extends PointSpringBase
 
       protected int[] myContactCnts; // number of knots contacting each wrappable
 
+      // work storage used by updateWrapStrand(), allocated by
+      // updateWorkStorage() so that strand updates do not allocate memory
+      private VectorNd myDvecWork;
+      private VectorNd myDnewWork;
+      private int[] myNewContactCnts;
+      private EnergyFunc myEnergyFunc;
+      private ResidualFunc myResidualFunc;
+      private ContactPullback myPullback = new ContactPullback();
+      private DoubleHolder myDeriv = new DoubleHolder();
+      private Vector3d myTmp0 = new Vector3d();
+      private Vector3d myTmp1 = new Vector3d();
+      private Point3d myPosTmp = new Point3d();
+      private Vector3d myNrmlTmp = new Vector3d();
+      private Matrix3d myDnrmTmp = new Matrix3d();
+
+      // convergence statistics for updateWrapStrand()
+      protected int myLastIterationCnt;
+      protected int myLastContactUpdateCnt;
+      protected boolean myLastConverged;
+
       private abstract class LineSearchFunc implements DifferentiableFunction1x1 {
 
          boolean contactChanged = false;
@@ -779,8 +806,8 @@ public class MultiPointSpring extends PointSpringBase
        */
       boolean updateContacts (int[] contactCnts, boolean getStiffness) {
          boolean changed = false;
-         Vector3d nrml = new Vector3d();
-         Matrix3d dnrm = getStiffness ? new Matrix3d() : null;
+         Vector3d nrml = myNrmlTmp;
+         Matrix3d dnrm = getStiffness ? myDnrmTmp : null;
          if (contactCnts != null) {
             for (int i=0; i<contactCnts.length; i++) {
                contactCnts[i] = 0;
@@ -817,7 +844,7 @@ public class MultiPointSpring extends PointSpringBase
                changed = true;
             }
          }
-         myUpdateContactsCnt++;
+         myLastContactUpdateCnt++;
          return changed;
       }
 
@@ -869,8 +896,8 @@ public class MultiPointSpring extends PointSpringBase
                knot.myForce.setZero();
             }
          }
-         Vector3d dprev = new Vector3d();
-         Vector3d dnext = new Vector3d();
+         Vector3d dprev = myTmp0;
+         Vector3d dnext = myTmp1;
          dprev.sub (myKnots[0].myPos, myPntB.getPosition());
          for (int k=0; k<myNumKnots; k++) {
             if (k<myNumKnots-1) {
@@ -897,7 +924,7 @@ public class MultiPointSpring extends PointSpringBase
       public double computeEnergy() {
 
          double E = 0;
-         Vector3d dnext = new Vector3d();
+         Vector3d dnext = myTmp0;
          dnext.sub (myKnots[0].myPos, myPntB.getPosition());
          E += 0.5*myWrapStiffness*dnext.normSquared();
          for (int k=0; k<myNumKnots; k++) {
@@ -1257,8 +1284,8 @@ public class MultiPointSpring extends PointSpringBase
                knot.myCinv.scale (c, Binv);
             }
          }
-         Vector3d vec = new Vector3d();
-         Vector3d tmp = new Vector3d();
+         Vector3d vec = myTmp0;
+         Vector3d tmp = myTmp1;
          knot = myKnots[0];
          knot.myBinv.mul (knot.myDvec, knot.myForce);
          for (int i=1; i<myNumKnots; i++) {
@@ -1369,8 +1396,8 @@ public class MultiPointSpring extends PointSpringBase
       }
       
       double computeForceSqrDeriv(VectorNd dvec) {
-         Vector3d tmp = new Vector3d();
-         Vector3d dv = new Vector3d();
+         Vector3d tmp = myTmp0;
+         Vector3d dv = myTmp1;
          double c = -myWrapStiffness;
          double deriv = 0;
          for (int i=0; i<myNumKnots; i++) {
@@ -1592,7 +1619,7 @@ public class MultiPointSpring extends PointSpringBase
             System.out.println ("  broken contact from "+start+" to "+end);
          }
          int groupKnotIdx = -1;
-         Vector3d dv = new Vector3d();
+         Vector3d dv = myTmp0;
          double groupScale = 1.0;
          for (int k=start; k<end; k++) {
             WrapKnot knot = myKnots[k];
@@ -1707,7 +1734,7 @@ public class MultiPointSpring extends PointSpringBase
          double f0, double df0, double f, double df, LineSearchFunc func,
          double c1, double c2, double s, double maxs) {
 
-         DoubleHolder deriv = new DoubleHolder();
+         DoubleHolder deriv = myDeriv;
          double flo = f0;
          double slo = 0;
          double shi = 1;
@@ -1750,7 +1777,7 @@ public class MultiPointSpring extends PointSpringBase
          double slo, double shi, double f0, double df0,
          double flo, LineSearchFunc func, double c1, double c2) {
 
-         DoubleHolder deriv = new DoubleHolder();
+         DoubleHolder deriv = myDeriv;
 
          int maxIters = 5;
          double s = shi;
@@ -1778,11 +1805,11 @@ public class MultiPointSpring extends PointSpringBase
          ContactPullback pullback, VectorNd dvec) {
          
          WrapKnot knot = pullback.knot;
-         Vector3d dv = new Vector3d();
+         Vector3d dv = myTmp0;
          dv.set (dvec, 3*pullback.knotIdx);
          
          double s = 0.99*(1-pullback.scale);
-         Point3d pos = new Point3d();
+         Point3d pos = myPosTmp;
          Wrappable wrappable = knot.getPrevWrappable(); 
          double dist = knot.myDist;
          double prev = knot.myPrevDist;
@@ -1847,7 +1874,8 @@ public class MultiPointSpring extends PointSpringBase
       }
 
       boolean adjustDvecForContact (VectorNd dvec, VectorNd dnew) {
-         ContactPullback pullback = new ContactPullback();
+         ContactPullback pullback = myPullback;
+         pullback.knot = null;
          //computePullback (pullback, newContactCnts, dnew, dold);
          computePullbackNew (pullback, null, dnew, dvec);
          if (pullback.knot != null) {
@@ -1971,11 +1999,46 @@ public class MultiPointSpring extends PointSpringBase
          return adjusted;
       }
 
+      /**
+       * Allocates the work storage used by {@link #updateWrapStrand}, if
+       * necessary, so that it matches the current number of knots and
+       * wrappables.
+       */
+      void updateWorkStorage() {
+         if (myDvecWork == null || myDvecWork.size() != 3*myNumKnots) {
+            myDvecWork = new VectorNd (3*myNumKnots);
+            myDnewWork = new VectorNd (3*myNumKnots);
+            myEnergyFunc = new EnergyFunc (myDvecWork);
+            myResidualFunc = new ResidualFunc (myDvecWork);
+         }
+         if (myNewContactCnts == null ||
+             myNewContactCnts.length != myWrappables.size()) {
+            myNewContactCnts = new int[myWrappables.size()];
+         }
+         if (myContactCnts != null &&
+             myContactCnts.length != myWrappables.size()) {
+            myContactCnts = null;
+         }
+      }
+
+      /**
+       * Updates the knot points in this wrappable segment, using the
+       * maximum number of wrap iterations of its spring.
+       */
+      protected int updateWrapStrand () {
+         return updateWrapStrand (myMaxWrapIterations);
+      }
+
       /**
        * Updates the knot points in this wrappable segment. This is done by
        * iterating until the first order physics resulting from the attractive
        * forces between adjacent knots and repulsive forces from contacting
        * wrappables results in a stable configuration.
+       *
+       * <p>Apart from reallocating work storage when the number of knots or
+       * wrappables changes, this method does not allocate memory, and
+       * different segments may be updated concurrently provided that their
+       * wrappables can be queried concurrently.
        */
       protected int updateWrapStrand (int maxIter) {
          int icnt = 0;
@@ -1984,9 +2047,11 @@ public class MultiPointSpring extends PointSpringBase
          //-1);
          double dscale = myDscale;
 
+         updateWorkStorage();
+         myLastContactUpdateCnt = 0;
          updateContactingKnotPositions();
          int[] contactCnts = getContactCnts();
-         int[] newContactCnts = new int[myWrappables.size()];
+         int[] newContactCnts = myNewContactCnts;
 
          updateForces();
          //double prevEnergy = computeEnergy();
@@ -1997,7 +2062,7 @@ public class MultiPointSpring extends PointSpringBase
          //boolean wroteR = false;
          //boolean wroteRx = false;
 
-         VectorNd dvec = new VectorNd(3*myNumKnots);
+         VectorNd dvec = myDvecWork;
          do {
             double prevLength = myLength;
 
@@ -2031,7 +2096,8 @@ public class MultiPointSpring extends PointSpringBase
             savePosToPrev();
 
             // compute numeric derivatives
-            LineSearchFunc func = new EnergyFunc(dvec);
+            LineSearchFunc func = myEnergyFunc;
+            func.clearContactChanged();
             //LineSearchFunc func = new ForceSqrFunc();
 
             double f0, df0;
@@ -2069,7 +2135,6 @@ public class MultiPointSpring extends PointSpringBase
             }
             //double r1 = forceDotDisp();
 
-            DoubleHolder deriv = new DoubleHolder();
             double f1 = computeEnergy(); // func.eval (deriv, s);
             double df1 = -forceDotDisp(dvec);// deriv.value;
 
@@ -2081,7 +2146,7 @@ public class MultiPointSpring extends PointSpringBase
                //saveDvecToVtmp();
 
                updateStiffness(1.0, dscale);
-               VectorNd dnew = new VectorNd(myNumKnots*3);
+               VectorNd dnew = myDnewWork;
                factorAndSolve(dnew);
 
                if (adjustDvecForContact (dvec, dnew)) {
@@ -2107,7 +2172,7 @@ public class MultiPointSpring extends PointSpringBase
                }
             }
             if (!converged && myLineSearchP) {
-               ResidualFunc rfunc = new ResidualFunc(dvec);
+               ResidualFunc rfunc = myResidualFunc;
                double maxs = (contactChanged ? s : 3.0);
 
                if (df0 >= 0) {
@@ -2161,7 +2226,8 @@ public class MultiPointSpring extends PointSpringBase
             }
             totalFails++;
          }
-         myIterationCnt += icnt;
+         myLastIterationCnt = icnt;
+         myLastConverged = converged;
          if (false && debugLevel > 0) {
             for (int k=0; k<myNumKnots; k++) {
                WrapKnot knot = myKnots[k];
@@ -2227,6 +2293,78 @@ public class MultiPointSpring extends PointSpringBase
          return myKnots[idx];
       }
 
+      /**
+       * Returns the number of times the knots of this segment have been
+       * updated since the statistics were last cleared.
+       *
+       * @return number of strand updates
+       * @see #clearWrapStatistics
+       */
+      public int numWrapUpdates() {
+         return totalCalls;
+      }
+
+      /**
+       * Returns the total number of iterations performed by the knot updates
+       * of this segment since the statistics were last cleared.
+       *
+       * @return total number of strand iterations
+       */
+      public int numWrapIterations() {
+         return totalIterations;
+      }
+
+      /**
+       * Returns the number of knot updates of this segment that did not
+       * converge within the maximum number of iterations since the
+       * statistics were last cleared.
+       *
+       * @return number of non-converged strand updates
+       */
+      public int numWrapFailures() {
+         return totalFails;
+      }
+
+      /**
+       * Returns the average number of iterations per knot update of this
+       * segment since the statistics were last cleared, or 0 if there have
+       * been no updates.
+       *
+       * @return average number of strand iterations
+       */
+      public double getAverageWrapIterations() {
+         return totalCalls > 0 ? totalIterations/(double)totalCalls : 0;
+      }
+
+      /**
+       * Returns the number of iterations performed by the most recent knot
+       * update of this segment.
+       *
+       * @return number of iterations in the last strand update
+       */
+      public int getLastWrapIterations() {
+         return myLastIterationCnt;
+      }
+
+      /**
+       * Queries whether the most recent knot update of this segment
+       * converged.
+       *
+       * @return <code>true</code> if the last strand update converged
+       */
+      public boolean getLastWrapConverged() {
+         return myLastConverged;
+      }
+
+      /**
+       * Clears the knot update statistics for this segment.
+       */
+      public void clearWrapStatistics() {
+         totalCalls = 0;
+         totalIterations = 0;
+         totalFails = 0;
+      }
+
       public void setKnotPositions (Point3d[] plist) {
          if (plist.length < myNumKnots) {
             throw new IllegalArgumentException (
@@ -3021,6 +3159,7 @@ public class MultiPointSpring extends PointSpringBase
                WrapSegment wrapSeg = (WrapSegment)seg;
                wrapSeg.initializeStrand (/*initialPnts=*/null);
                wrapSeg.updateWrapStrand(myMaxWrapIterations);
+               accumulateWrapCounts (wrapSeg);
                wrapSeg.updateSubSegments();
             }
          }
@@ -3028,6 +3167,94 @@ public class MultiPointSpring extends PointSpringBase
       mySegments.get(nump-1).myPntA = null;
    }
 
+   private void accumulateWrapCounts (WrapSegment wrapSeg) {
+      myIterationCnt += wrapSeg.myLastIterationCnt;
+      myUpdateContactsCnt += wrapSeg.myLastContactUpdateCnt;
+   }
+
+   /**
+    * Prepares the wrappables of this spring for concurrent queries by the
+    * strand updates of different wrap segments. Each wrappable is queried
+    * once, so that any lazily computed data, such as distance grids or
+    * bounding volume hierarchies, is brought up to date in the calling
+    * thread.
+    */
+   void prepareConcurrentWrapUpdate() {
+      getMaxWrapDisplacement(); // computes default value if needed
+      for (int i=0; i<myWrappables.size(); i++) {
+         Wrappable wrappable = myWrappables.get(i);
+         myPreparePos.set (wrappable.getPose().p);
+         wrappable.penetrationDistance (myPrepareNrml, null, myPreparePos);
+      }
+   }
+
+   /**
+    * Work storage for {@link
+    * #updateWrapSegments(List,ParallelLoop,ConcurrentWrapUpdate)}, which is
+    * reused between steps. It also serves as the loop body that updates
+    * the strands of the collected wrap segments.
+    */
+   static class ConcurrentWrapUpdate implements ParallelLoop.Body {
+      final ArrayList<WrapSegment> mySegs = new ArrayList<WrapSegment>();
+
+      public void run (int thread, int start, int end) {
+         for (int k=start; k<end; k++) {
+            mySegs.get(k).updateWrapStrand();
+         }
+      }
+   }
+
+   /**
+    * Updates the wrap segments of a set of springs, using a parallel loop to
+    * update the knots of different segments concurrently. The sub-segments
+    * are then updated in the calling thread. The wrappables of all the
+    * springs must support concurrent calls to {@link
+    * Wrappable#penetrationDistance}. The results are identical to those of
+    * updating the segments serially.
+    *
+    * <p>After this call, the next call to {@link #preadvance} for each
+    * spring does not update the segments again.
+    *
+    * @param springs springs whose wrap segments should be updated
+    * @param loop parallel loop used to update the segments
+    * @param update work storage, whose segment list is cleared and then
+    * filled with the wrap segments of the springs
+    */
+   static void updateWrapSegments (
+      List<MultiPointSpring> springs, ParallelLoop loop,
+      ConcurrentWrapUpdate update) {
+
+      ArrayList<WrapSegment> segs = update.mySegs;
+      segs.clear();
+      for (int j=0; j<springs.size(); j++) {
+         MultiPointSpring spring = springs.get(j);
+         spring.prepareConcurrentWrapUpdate();
+         for (int i=0; i<spring.numSegments(); i++) {
+            Segment seg = spring.mySegments.get(i);
+            if (seg instanceof WrapSegment) {
+               WrapSegment wrapSeg = (WrapSegment)seg;
+               // allocate work storage in this thread
+               wrapSeg.updateWorkStorage();
+               wrapSeg.getContactCnts();
+               segs.add (wrapSeg);
+            }
+         }
+      }
+      loop.forRange (0, segs.size(), update);
+      for (int j=0; j<springs.size(); j++) {
+         MultiPointSpring spring = springs.get(j);
+         for (int i=0; i<spring.numSegments(); i++) {
+            Segment seg = spring.mySegments.get(i);
+            if (seg instanceof WrapSegment) {
+               WrapSegment wrapSeg = (WrapSegment)seg;
+               spring.accumulateWrapCounts (wrapSeg);
+               wrapSeg.updateSubSegments();
+            }
+         }
+         spring.myWrapSegsUpdatedP = true;
+      }
+   }
+
    protected void updateWrapSegments (int maxIter) {
       if (myProfilingP) {
          myProfileTimer.restart();
@@ -3037,6 +3264,7 @@ public class MultiPointSpring extends PointSpringBase
          if (seg instanceof WrapSegment) {
             WrapSegment wrapSeg = (WrapSegment)seg;
             wrapSeg.updateWrapStrand(maxIter);
+            accumulateWrapCounts (wrapSeg);
             wrapSeg.updateSubSegments();
          }
       }
@@ -3866,7 +4094,13 @@ public class MultiPointSpring extends PointSpringBase
    }
 
    public void preadvance (double t0, double t1, int flags) {
-      updateWrapSegments(myMaxWrapIterations);
+      if (myWrapSegsUpdatedP) {
+         // segments already updated concurrently by the MechModel
+         myWrapSegsUpdatedP = false;
+      }
+      else {
+         updateWrapSegments(myMaxWrapIterations);
+      }
    }
    
    public void postadvance (double t0, double t1, int flags) {
@@ -209,6 +209,80 @@ public class MultiPointSpringTest {
       ScanTest.testScanAndWrite (spring, mech, null);
    }
 
+   private RigidTransform3d cylinderPose (double z) {
+      RigidTransform3d TCW = new RigidTransform3d();
+      TCW.R.setAxisAngle (1, 0, 0, Math.PI/2);
+      TCW.p.set (0, 0, z);
+      return TCW;
+   }
+
+   private MechModel createWrapModel (int numSprings) {
+      MechModel mech = new MechModel ("wrap");
+      RigidCylinder cyl = new RigidCylinder ("cylinder", 0.5, 4.0, 1000, 20);
+      cyl.setPose (cylinderPose (0));
+      mech.addRigidBody (cyl);
+      for (int i=0; i<numSprings; i++) {
+         double y = -1.5 + 3.0*i/numSprings;
+         Particle p0 = new Particle (0.1, -2, y, 0.3);
+         Particle p1 = new Particle (0.1, 2, y, 0.3);
+         p0.setDynamic (false);
+         p1.setDynamic (false);
+         mech.addParticle (p0);
+         mech.addParticle (p1);
+         MultiPointSpring spring = new MultiPointSpring (1, 0.1, 0);
+         spring.addPoint (p0);
+         spring.setSegmentWrappable (
+            20, new Point3d[] { new Point3d (0, y, 1.0) });
+         spring.addPoint (p1);
+         spring.addWrappable (cyl);
+         mech.addMultiPointSpring (spring);
+      }
+      return mech;
+   }
+
+   /**
+    * Checks that updating wrap segments concurrently gives the same knot
+    * positions as updating them serially.
+    */
+   public void testWrapThreads () {
+      int numSprings = 6;
+      MechModel mech1 = createWrapModel (numSprings);
+      MechModel mech2 = createWrapModel (numSprings);
+      mech2.setNumWrapThreads (3);
+      for (int k=0; k<20; k++) {
+         double t0 = 0.01*k;
+         for (MechModel mech : new MechModel[] { mech1, mech2 }) {
+            mech.rigidBodies().get(0).setPose (cylinderPose (t0));
+            mech.preadvance (t0, t0+0.01, 0);
+         }
+         for (int i=0; i<numSprings; i++) {
+            MultiPointSpring.WrapSegment seg1 =
+               (MultiPointSpring.WrapSegment)
+               mech1.multiPointSprings().get(i).getSegment(0);
+            MultiPointSpring.WrapSegment seg2 =
+               (MultiPointSpring.WrapSegment)
+               mech2.multiPointSprings().get(i).getSegment(0);
+            for (int j=0; j<seg1.numKnots(); j++) {
+               if (!seg1.getKnot(j).myPos.equals (seg2.getKnot(j).myPos)) {
+                  throw new TestException (
+                     "concurrent knot position differs for spring "+i+
+                     ", knot "+j);
+               }
+            }
+            if (seg2.numWrapUpdates() != k+1 ||
+                seg2.numWrapIterations() != seg1.numWrapIterations()) {
+               throw new TestException (
+                  "concurrent wrap statistics differ for spring "+i);
+            }
+         }
+      }
+      MultiPointSpring spring = mech1.multiPointSprings().get(0);
+      if (spring.getLength() <= 4.0) {
+         throw new TestException ("spring is not wrapping the cylinder");
+      }
+      mech2.dispose();
+   }
+
    public static void main (String[] args) {
       MultiPointSpringTest tester = new MultiPointSpringTest();
 
@@ -223,6 +297,7 @@ public class MultiPointSpringTest {
          tester.test(2, new int[] {0});               
          tester.test(4, new int[] {0, 1});               
          tester.test(5, new int[] {0, 2, 4});   
+         tester.testWrapThreads();
          
       }
       catch (Exception e) {
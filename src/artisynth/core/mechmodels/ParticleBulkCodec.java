@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mechmodels;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.List;
+
+import artisynth.core.modelbase.BinaryModelReader;
+import artisynth.core.modelbase.BinaryModelWriter;
+import artisynth.core.modelbase.BulkComponentCodec;
+import artisynth.core.modelbase.ComponentList;
+import maspack.matrix.Vector3d;
+
+/**
+ * Writes and scans the particles of a {@link MechModel} in bulk. The
+ * position, velocity and mass of each particle are stored in a single block
+ * of doubles. A particle list can be written in bulk only if its particles
+ * are all instances of {@link Particle}, are numbered consecutively, and
+ * have no other non-default properties.
+ */
+public class ParticleBulkCodec implements BulkComponentCodec<Particle> {
+
+   private static final int NUM_VALUES = 7;
+
+   private static final String[] myBulkProps =
+      new String[] { "position", "velocity", "mass" };
+
+   public boolean canWriteBulk (ComponentList<Particle> list) {
+      for (int i=0; i<list.size(); i++) {
+         Particle part = list.get(i);
+         if (part.getClass() != Particle.class ||
+             !part.isWritable() ||
+             part.getNumber() != i ||
+             BinaryModelWriter.hasNonDefaultProperties (part, myBulkProps)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static void getValues (double[] vals, int k, Vector3d vec) {
+      vals[k  ] = vec.x;
+      vals[k+1] = vec.y;
+      vals[k+2] = vec.z;
+   }
+
+   public int[] writeBulk (
+      ComponentList<Particle> list, BinaryModelWriter writer) {
+
+      double[] vals = new double[NUM_VALUES*list.size()];
+      int k = 0;
+      for (int i=0; i<list.size(); i++) {
+         Particle part = list.get(i);
+         getValues (vals, k, part.getPosition());
+         getValues (vals, k+3, part.getVelocity());
+         vals[k+6] = part.getMass();
+         k += NUM_VALUES;
+      }
+      return new int[] { writer.addDoubles (vals, vals.length) };
+   }
+
+   public void scanBulk (
+      List<Particle> comps, ComponentList<Particle> list, int[] blocks,
+      BinaryModelReader reader) throws IOException {
+
+      if (blocks.length != 1) {
+         throw new IOException (
+            "expecting 1 block for particles, got " + blocks.length);
+      }
+      DoubleBuffer buf = reader.getDoubles (blocks[0]);
+      if (buf.remaining() % NUM_VALUES != 0) {
+         throw new IOException (
+            "particle block size " + buf.remaining() +
+            " is not a multiple of " + NUM_VALUES);
+      }
+      double[] vals = new double[buf.remaining()];
+      buf.get (vals);
+      for (int k=0; k<vals.length; k+=NUM_VALUES) {
+         Particle part = new Particle();
+         part.setPosition (vals[k], vals[k+1], vals[k+2]);
+         part.setVelocity (vals[k+3], vals[k+4], vals[k+5]);
+         part.setMass (vals[k+6]);
+         comps.add (part);
+      }
+   }
+}
@@ -23,6 +23,7 @@ import maspack.geometry.Vertex3d;
 import maspack.geometry.Face;
 import maspack.matrix.Vector3i;
 import maspack.geometry.DistanceGrid;
+import maspack.geometry.SparseDistanceGrid;
 import maspack.matrix.AffineTransform3d;
 import maspack.matrix.AffineTransform3dBase;
 import maspack.matrix.Matrix;
@@ -137,6 +138,9 @@ public class RigidBody extends Frame
    static int DEFAULT_DISTANCE_GRID_MAX_RES = 20;
    static Vector3i DEFAULT_DISTANCE_GRID_RES = new Vector3i(0, 0, 0);
    static boolean DEFAULT_DISTANCE_GRID_OBB = false;
+   static final boolean DEFAULT_DISTANCE_GRID_SPARSE = false;
+   static final int DEFAULT_DISTANCE_GRID_BAND_WIDTH =
+      SparseDistanceGrid.DEFAULT_BAND_WIDTH;
    static boolean DEFAULT_RENDER_DISTANCE_GRID = false;
    static DistanceSurfaceRendering DEFAULT_RENDER_DISTANCE_SURFACE = 
       DistanceSurfaceRendering.NONE;
@@ -150,6 +154,8 @@ public class RigidBody extends Frame
    Vector3i myDistanceGridRes = new Vector3i(DEFAULT_DISTANCE_GRID_RES);
    int myDistanceGridMaxRes = DEFAULT_DISTANCE_GRID_MAX_RES;
    boolean myDistanceGridOBB = DEFAULT_DISTANCE_GRID_OBB;
+   boolean myDistanceGridSparse = DEFAULT_DISTANCE_GRID_SPARSE;
+   int myDistanceGridBandWidth = DEFAULT_DISTANCE_GRID_BAND_WIDTH;
    boolean myRenderDistanceGrid = DEFAULT_RENDER_DISTANCE_GRID;
    double myDistanceSurfaceIso = DEFAULT_DISTANCE_SURFACE_ISO;
    DistanceSurfaceRendering myRenderDistanceSurface = 
@@ -190,6 +196,14 @@ public class RigidBody extends Frame
          "distanceGridOBB", 
          "if true, distance grid is fitted using OBB",
          DEFAULT_DISTANCE_GRID_OBB);
+      myProps.add (
+         "distanceGridSparse", 
+         "if true, distance values are stored only in a band about the surface",
+         DEFAULT_DISTANCE_GRID_SPARSE);
+      myProps.add (
+         "distanceGridBandWidth", 
+         "width of the band, in cells, used by a sparse distance grid",
+         DEFAULT_DISTANCE_GRID_BAND_WIDTH, "[1,inf]");
       myProps.add (
          "renderDistanceGrid", 
          "render the distance grid in the viewer",
@@ -1614,13 +1628,22 @@ public class RigidBody extends Frame
       if (mySDGrid == null || !mySDGridValid) {
          int maxRes = myDistanceGridMaxRes;
          if (!myDistanceGridRes.equals (Vector3i.ZERO) || maxRes > 0) {
+            Vector3i res;
             if (!myDistanceGridRes.equals (Vector3i.ZERO)) {
-               mySDGrid = new DistanceGrid (myDistanceGridRes);
+               res = myDistanceGridRes;
                maxRes = 0;
             }
             else {
                // resolution will be recomputed in computeFromFeatures
-               mySDGrid = new DistanceGrid (new Vector3i (1,1,1));
+               res = new Vector3i (1,1,1);
+            }
+            if (myDistanceGridSparse) {
+               SparseDistanceGrid grid = new SparseDistanceGrid (res);
+               grid.setBandWidth (myDistanceGridBandWidth);
+               mySDGrid = grid;
+            }
+            else {
+               mySDGrid = new DistanceGrid (res);
             }
             mySDGrid.setDrawEdges (true);
             List<Face> faces = getMesh().getFaces();
@@ -1772,6 +1795,62 @@ public class RigidBody extends Frame
       }
    }
 
+   /**
+    * Queries whether the distance grid for this body is a {@link
+    * SparseDistanceGrid}, which stores distance values only within a band
+    * about the mesh surface.
+    *
+    * @return {@code true} if the distance grid is sparse
+    */
+   public boolean getDistanceGridSparse () {
+      return myDistanceGridSparse;
+   }
+
+   /**
+    * Sets whether the distance grid for this body is a {@link
+    * SparseDistanceGrid}, which stores distance values only within a band
+    * about the mesh surface. This reduces memory for high resolution grids,
+    * while still providing exact values near the surface, where collision
+    * queries are made.
+    *
+    * @param enable if {@code true}, makes the distance grid sparse
+    */
+   public void setDistanceGridSparse (boolean enable) {
+      if (myDistanceGridSparse != enable) {
+         myDistanceGridSparse = enable;
+         mySDGridValid = false; // will need to rebuild grid
+         mySDSurface = null;
+      }
+   }
+
+   /**
+    * Queries the width, in cells, of the band about the mesh surface within
+    * which a sparse distance grid stores distance values.
+    *
+    * @return sparse distance grid band width
+    */
+   public int getDistanceGridBandWidth () {
+      return myDistanceGridBandWidth;
+   }
+
+   /**
+    * Sets the width, in cells, of the band about the mesh surface within
+    * which a sparse distance grid stores distance values. Has no effect
+    * unless {@link #getDistanceGridSparse} returns {@code true}.
+    *
+    * @param width sparse distance grid band width
+    */
+   public void setDistanceGridBandWidth (int width) {
+      width = Math.max (1, width);
+      if (myDistanceGridBandWidth != width) {
+         myDistanceGridBandWidth = width;
+         if (myDistanceGridSparse) {
+            mySDGridValid = false; // will need to rebuild grid
+            mySDSurface = null;
+         }
+      }
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mechmodels;
+
+import java.util.*;
+
+import maspack.util.*;
+import maspack.matrix.*;
+import maspack.geometry.*;
+import maspack.collision.*;
+
+/**
+ * Tests the signed distance grids created by RigidBody, and checks that
+ * sparse grids give the same contacts as dense grids when used with a
+ * SignedDistanceCollider.
+ */
+public class RigidBodyDistanceGridTest extends UnitTest {
+
+   private static final double EPS = 1e-10;
+
+   ArrayList<PenetratingPoint> getPenetratingPoints (
+      RigidBody body, PolygonalMesh mesh) {
+      SignedDistanceCollider collider = new SignedDistanceCollider();
+      ContactInfo cinfo = collider.getContacts (
+         body.getSurfaceMesh(), body.getDistanceGrid(), mesh, null);
+      check ("no contacts found", cinfo != null);
+      return cinfo.getPenetratingPoints (1);
+   }
+
+   void checkPenetratingPoints (
+      ArrayList<PenetratingPoint> chk, ArrayList<PenetratingPoint> pnts) {
+      checkEquals ("number of penetrating points", chk.size(), pnts.size());
+      for (int i=0; i<pnts.size(); i++) {
+         PenetratingPoint pp = pnts.get(i);
+         PenetratingPoint cp = chk.get(i);
+         check ("penetrating vertex "+i, pp.vertex == cp.vertex);
+         checkEquals (
+            "distance for penetrating point "+i, pp.distance, cp.distance, EPS);
+         checkEquals (
+            "normal for penetrating point "+i, pp.normal, cp.normal, EPS);
+         checkEquals (
+            "position for penetrating point "+i,
+            pp.position, cp.position, EPS);
+      }
+   }
+
+   /**
+    * Collides a sphere with a box whose distance grid is dense and then
+    * sparse, with the sphere penetrating the box by less than the band
+    * width, and checks that the contacts are the same.
+    */
+   void testSparseGrid (boolean obb) {
+      RigidBody box = RigidBody.createBox ("box", 1.0, 0.8, 0.6, 1000.0);
+      box.setPose (
+         new RigidTransform3d (0.1, -0.2, 0.3, 0.2, 0.3, 0.4));
+      box.setDistanceGridOBB (obb);
+
+      // sphere penetrates the +x face of the box by 0.1
+      PolygonalMesh sphere = MeshFactory.createIcosahedralSphere (0.3, 3);
+      RigidTransform3d TSW = new RigidTransform3d (0.7, 0, 0);
+      TSW.mul (box.getPose(), TSW);
+      sphere.setMeshToWorld (TSW);
+
+      DistanceGrid grid = box.getDistanceGrid();
+      check ("dense grid is sparse", !(grid instanceof SparseDistanceGrid));
+      ArrayList<PenetratingPoint> chk = getPenetratingPoints (box, sphere);
+      check ("no penetrating points found", chk.size() > 0);
+
+      box.setDistanceGridSparse (true);
+      grid = box.getDistanceGrid();
+      check ("sparse grid not created", grid instanceof SparseDistanceGrid);
+      checkEquals (
+         "sparse grid band width",
+         ((SparseDistanceGrid)grid).getBandWidth(),
+         box.getDistanceGridBandWidth());
+      checkPenetratingPoints (chk, getPenetratingPoints (box, sphere));
+
+      // changing the band width should rebuild the grid
+      box.setDistanceGridBandWidth (4);
+      DistanceGrid wider = box.getDistanceGrid();
+      check ("grid not rebuilt after band width change", wider != grid);
+      checkEquals (
+         "sparse grid band width",
+         ((SparseDistanceGrid)wider).getBandWidth(), 4);
+      checkPenetratingPoints (chk, getPenetratingPoints (box, sphere));
+   }
+
+   public void test() {
+      testSparseGrid (/*obb=*/false);
+      testSparseGrid (/*obb=*/true);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      RigidBodyDistanceGridTest tester = new RigidBodyDistanceGridTest();
+      tester.runtest();
+   }
+}
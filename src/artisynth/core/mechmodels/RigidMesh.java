@@ -14,8 +14,18 @@ import artisynth.core.util.*;
 
 public class RigidMesh extends RigidBody implements Wrappable {
 
-   BVFeatureQuery myQuery = new BVFeatureQuery();
-   NagataInterpolator myNagata = new NagataInterpolator();
+   // mesh queries hold intermediate state, so each thread uses its own, in
+   // case wrap segments are being updated concurrently
+   private ThreadLocal<QueryWorkspace> myWorkspaces =
+      new ThreadLocal<QueryWorkspace>();
+
+   /**
+    * Query objects used by each thread for nearest point computations.
+    */
+   private static class QueryWorkspace {
+      BVFeatureQuery query = new BVFeatureQuery();
+      NagataInterpolator nagata = new NagataInterpolator();
+   }
 
    boolean myUseQuadraticTangents = true;
    boolean mySmooth = false;
@@ -24,6 +34,15 @@ public class RigidMesh extends RigidBody implements Wrappable {
    // int myMaxGridDivisions = 0;
    // SignedDistanceGrid mySDGrid = null;
 
+   private QueryWorkspace getWorkspace() {
+      QueryWorkspace ws = myWorkspaces.get();
+      if (ws == null) {
+         ws = new QueryWorkspace();
+         myWorkspaces.set (ws);
+      }
+      return ws;
+   }
+
    public void setSmoothInterpolation (boolean smooth) {
       mySmooth = smooth;
    }
@@ -617,7 +636,7 @@ public class RigidMesh extends RigidBody implements Wrappable {
          if (mesh != null) {
             Vector3d dir = new Vector3d();
             dir.sub (p1, pa);
-            myQuery.nearestFaceAlongRay (
+            getWorkspace().query.nearestFaceAlongRay (
                pr, /*uv=*/null, mesh.getBVTree(), pa, dir);
          }
          else {
@@ -672,11 +691,13 @@ public class RigidMesh extends RigidBody implements Wrappable {
          if (Dnrm != null) {
             Dnrm.setZero();
          }
+         QueryWorkspace ws = getWorkspace();
          if (mySmooth) {
-            myNagata.nearestPointOnMesh (near, nrm, mesh, p0, 1e-8, myQuery);
+            ws.nagata.nearestPointOnMesh (
+               near, nrm, mesh, p0, 1e-8, ws.query);
          }
          else {
-            Face face = myQuery.nearestFaceToPoint (
+            Face face = ws.query.nearestFaceToPoint (
                near, /*uv=*/null, mesh.getBVTree(), p0);
             if(face == null)
                return Wrappable.OUTSIDE;
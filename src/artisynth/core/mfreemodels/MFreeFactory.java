@@ -36,6 +36,7 @@ import maspack.matrix.Point3d;
 import maspack.matrix.RigidTransform3d;
 import maspack.matrix.Vector3d;
 import maspack.matrix.VectorNd;
+import maspack.concurrency.ParallelLoop;
 import maspack.util.FastRadialMarcher;
 import maspack.util.FunctionTimer;
 import maspack.util.IndexedBinaryHeap;
@@ -62,6 +63,86 @@ public class MFreeFactory {
       RadialWeightFunctionType.SPLINE;
    public static MFreeShapeFunctionType DEFAULT_SHAPE_FUNCTION_TYPE = 
       MFreeShapeFunctionType.MLS;
+   // number of threads used to evaluate shape functions at nodes,
+   // integration points and mesh vertices when creating models
+   public static int DEFAULT_NUM_THREADS = ParallelLoop.getDefaultNumThreads();
+   // minimum number of points evaluated by each thread
+   public static int MIN_POINTS_PER_THREAD = 64;
+
+   /**
+    * Dependent nodes, shape function values and (optionally) shape function
+    * gradients at a point.
+    */
+   private static class ShapeData {
+      ArrayList<MFreeNode3d> deps;
+      VectorNd coords;
+      ArrayList<Vector3d> grad;
+   }
+
+   /**
+    * Finds the dependent nodes, and evaluates their shape functions, at each
+    * of a set of points. Points are independent of each other, and so are
+    * processed in parallel using up to {@link #DEFAULT_NUM_THREADS} threads.
+    * The results are stored and returned so that the caller can apply them
+    * serially.
+    */
+   private static ShapeData[] computeShapeData(
+      final Point3d[] pnts, final BVTree nodeTree, final double tol,
+      final boolean computeGradients) {
+
+      final ShapeData[] data = new ShapeData[pnts.length];
+      ParallelLoop.Body body = new ParallelLoop.Body() {
+         public void run(int thread, int start, int end) {
+            for (int i = start; i < end; i++) {
+               ShapeData d = new ShapeData();
+               d.deps = findNodesContaining(pnts[i], nodeTree, tol);
+               d.coords = new VectorNd(d.deps.size());
+               if (computeGradients) {
+                  d.grad = new ArrayList<Vector3d>(d.deps.size());
+                  getShapeCoordsAndGradients(d.coords, d.grad, pnts[i], d.deps);
+               }
+               else {
+                  getShapeCoords(d.coords, pnts[i], d.deps);
+               }
+               data[i] = d;
+            }
+         }
+      };
+      // domain tests against node boundary meshes build mesh data lazily,
+      // and so are not thread safe
+      int nthreads = DEFAULT_NUM_THREADS;
+      if (nodesHaveBoundaryMeshes(nodeTree)) {
+         nthreads = 1;
+      }
+      ParallelLoop loop = new ParallelLoop("MFreeFactory", nthreads);
+      loop.setMinChunkSize(MIN_POINTS_PER_THREAD);
+      try {
+         loop.forRange(0, pnts.length, body);
+      }
+      finally {
+         loop.dispose();
+      }
+      return data;
+   }
+
+   private static boolean nodesHaveBoundaryMeshes(BVTree nodeTree) {
+      for (BVNode leaf : nodeTree.getLeafNodes()) {
+         for (Boundable b : leaf.getElements()) {
+            if (((MFreeNode3d)b).getBoundaryMesh() != null) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   private static Point3d[] getRestPositions(List<? extends MFreePoint3d> pnts) {
+      Point3d[] pos = new Point3d[pnts.size()];
+      for (int i = 0; i < pos.length; i++) {
+         pos[i] = pnts.get(i).getRestPosition();
+      }
+      return pos;
+   }
 
    public static MFreeModel3d createBeam(MFreeModel3d model,
       double[] size, int res[], double rfactor) {
@@ -384,12 +465,10 @@ public class MFreeFactory {
       tree.build(nodeArray, nodeArray.length);
 
       // compute node coordinates
-      for (MFreeNode3d node : nodes) {
-         ArrayList<MFreeNode3d> deps =
-            findNodesContaining(node.getRestPosition(), tree, 0);
-         VectorNd coords = new VectorNd();
-         getShapeCoords(coords, node.getRestPosition(), deps);
-         node.setDependentNodes(deps, coords);
+      ShapeData[] nodeData =
+         computeShapeData(getRestPositions(nodes), tree, 0, false);
+      for (int i = 0; i < nodeData.length; i++) {
+         nodes.get(i).setDependentNodes(nodeData[i].deps, nodeData[i].coords);
       }
       model.addNodes(nodes);
 
@@ -441,12 +520,10 @@ public class MFreeFactory {
 
       // compute node coordinates
       timer.start();
-      for (MFreeNode3d node : nodes) {
-         ArrayList<MFreeNode3d> deps =
-            findNodesContaining(node.getRestPosition(), nodeTree, 0);
-         VectorNd coords = new VectorNd();
-         getShapeCoords(coords, node.getRestPosition(), deps);
-         node.setDependentNodes(deps, coords);
+      ShapeData[] nodeData =
+         computeShapeData(getRestPositions(nodes), nodeTree, 0, false);
+      for (int i = 0; i < nodeData.length; i++) {
+         nodes.get(i).setDependentNodes(nodeData[i].deps, nodeData[i].coords);
       }
       timer.stop();
       System.out.println("Node coordinates: " + timer.getTimeUsec() / 1000
@@ -530,14 +607,10 @@ public class MFreeFactory {
       MFreeIntegrationPoint3d[] ipnts =
          new MFreeIntegrationPoint3d[cpnts.length];
 
+      ShapeData[] data = computeShapeData(cpnts, nodeTree, 0, true);
       for (int i = 0; i < cpnts.length; i++) {
-         ArrayList<MFreeNode3d> deps =
-            findNodesContaining(cpnts[i], nodeTree, 0);
-         VectorNd coords = new VectorNd(deps.size());
-         ArrayList<Vector3d> grad = new ArrayList<Vector3d>(deps.size());
-         getShapeCoordsAndGradients(coords, grad, cpnts[i], deps);
-         ipnts[i] =
-            MFreeIntegrationPoint3d.create(deps, coords, grad, cpnts[i].w);
+         ipnts[i] = MFreeIntegrationPoint3d.create(
+            data[i].deps, data[i].coords, data[i].grad, cpnts[i].w);
          ipnts[i].setID(i);
       }
 
@@ -969,30 +1042,29 @@ public class MFreeFactory {
    public static void updatePointCoordinates(List<? extends MFreePoint3d> pnts,
       BVTree nodeTree, double tol) {
 
-      VectorNd coords = new VectorNd();
-      for (MFreePoint3d pnt : pnts) {
-         ArrayList<MFreeNode3d> deps =
-            findNodesContaining(pnt.getRestPosition(), nodeTree, tol);
-         getShapeCoords(coords, pnt.getRestPosition(), deps);
-         pnt.setDependentNodes(deps, coords);
+      ShapeData[] data =
+         computeShapeData(getRestPositions(pnts), nodeTree, tol, false);
+      for (int i = 0; i < data.length; i++) {
+         pnts.get(i).setDependentNodes(data[i].deps, data[i].coords);
       }
    }
 
    public static MeshBase convertToMFreeMesh(MeshBase orig,
       BVTree nodeTree, double tol) {
 
-      VectorNd coords = new VectorNd();
-
       HashMap<Vertex3d,MFreeVertex3d> vtxMap =
          new HashMap<Vertex3d,MFreeVertex3d>();
 
       ArrayList<MFreeVertex3d> vtxs = 
          new ArrayList<MFreeVertex3d>(orig.numVertices());
-      for (Vertex3d vtx : orig.getVertices()) {
-         ArrayList<MFreeNode3d> deps =
-            findNodesContaining(vtx.getPosition(), nodeTree, tol);
-         getShapeCoords(coords, vtx.getPosition(), deps);
-         MFreeVertex3d nvtx = new MFreeVertex3d(deps, coords);
+      Point3d[] pos = new Point3d[orig.numVertices()];
+      for (int i = 0; i < pos.length; i++) {
+         pos[i] = orig.getVertex(i).getPosition();
+      }
+      ShapeData[] data = computeShapeData(pos, nodeTree, tol, false);
+      for (int i = 0; i < data.length; i++) {
+         Vertex3d vtx = orig.getVertex(i);
+         MFreeVertex3d nvtx = new MFreeVertex3d(data[i].deps, data[i].coords);
          vtxMap.put(vtx, nvtx);
          vtxs.add(nvtx);
       }
@@ -1009,6 +1081,25 @@ public class MFreeFactory {
 
    }
 
+   /**
+    * Returns the shape function that can be used to evaluate the shape
+    * functions of all the dependent nodes together, or <code>null</code> if
+    * they must be evaluated separately.
+    */
+   private static MLSShapeFunction getBatchedShapeFunction(
+      ArrayList<MFreeNode3d> deps) {
+      if (deps.size() > 0) {
+         MFreeShapeFunction fun = deps.get(0).getShapeFunction();
+         if (fun instanceof MLSShapeFunction) {
+            MLSShapeFunction mls = (MLSShapeFunction)fun;
+            if (mls.canEvalAll(deps)) {
+               return mls;
+            }
+         }
+      }
+      return null;
+   }
+
    private static void getShapeCoords(VectorNd coords, Point3d pnt,
       ArrayList<MFreeNode3d> deps) {
 
@@ -1016,6 +1107,15 @@ public class MFreeFactory {
       coords.setSize(deps.size());
       MatrixNd MInv = null;
 
+      MLSShapeFunction mlsAll = getBatchedShapeFunction(deps);
+      if (mlsAll != null) {
+         double d = mlsAll.evalAll(coords, null, pnt, deps);
+         if (d > 1e10) {
+            System.out.println("Poorly conditioned point: " + pnt);
+         }
+         return;
+      }
+
       for (int i = 0; i < nDeps; i++) {
          MFreeNode3d bnode = deps.get(i);
          MFreeShapeFunction fun = bnode.getShapeFunction();
@@ -1054,6 +1154,20 @@ public class MFreeFactory {
       int[] dy = { 0, 1, 0 };
       int[] dz = { 0, 0, 1 };
 
+      MLSShapeFunction mlsAll = getBatchedShapeFunction(deps);
+      if (mlsAll != null) {
+         Vector3d[] grads = new Vector3d[nDeps];
+         for (int i = 0; i < nDeps; i++) {
+            grads[i] = new Vector3d();
+            grad.add(grads[i]);
+         }
+         double d = mlsAll.evalAll(coords, grads, pnt, deps);
+         if (d > 1e10) {
+            System.out.println("Poorly conditioned point: " + pnt);
+         }
+         return nDeps;
+      }
+
       for (int i = 0; i < nDeps; i++) {
          MFreeNode3d bnode = deps.get(i);
          MFreeShapeFunction fun = bnode.getShapeFunction();
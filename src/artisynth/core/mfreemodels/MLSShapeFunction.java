@@ -12,6 +12,7 @@ import maspack.function.DifferentiableFunction3x1;
 import maspack.matrix.MatrixNd;
 import maspack.matrix.Point3d;
 import maspack.matrix.SVDecomposition;
+import maspack.matrix.Vector3d;
 import maspack.matrix.VectorNd;
 
 public class MLSShapeFunction extends MFreeShapeFunction {
@@ -458,6 +459,107 @@ public class MLSShapeFunction extends MFreeShapeFunction {
       return evalDerivative(in, derivatives);
    }
 
+   /**
+    * Queries whether the shape functions of all nodes in a list can be
+    * evaluated together using {@link #evalAll}. This requires that they are
+    * all plain MLS shape functions with the same number of basis functions
+    * as this one.
+    *
+    * @param nodeList nodes whose shape functions are to be evaluated
+    * @return <code>true</code> if the shape functions can be evaluated
+    * together
+    */
+   public boolean canEvalAll(ArrayList<MFreeNode3d> nodeList) {
+      for (MFreeNode3d node : nodeList) {
+         MFreeShapeFunction fun = node.getShapeFunction();
+         if (fun == null || fun.getType() != MFreeShapeFunctionType.MLS ||
+             ((MLSShapeFunction)fun).nBasis != nBasis) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Evaluates the shape functions, and optionally their gradients, for all
+    * nodes in a list at a given point. The moment matrix, its inverse and its
+    * first derivatives depend only on the point and are shared by all the
+    * shape functions, so they are computed only once, instead of once per
+    * node as happens when {@link #eval(Point3d,MatrixNd,ArrayList)} and
+    * {@link #evalDerivative(Point3d,int[],MatrixNd,ArrayList)} are called
+    * for each node. The results are otherwise the same. All nodes are
+    * assumed to use the same polynomial basis as this shape function, which
+    * can be checked using {@link #canEvalAll}.
+    *
+    * @param coords returns the shape function value for each node
+    * @param grads if non-<code>null</code>, returns the shape function
+    * gradient for each node
+    * @param pnt point at which to evaluate the shape functions
+    * @param nodeList nodes whose shape functions are to be evaluated
+    * @return condition number of the moment matrix
+    */
+   public double evalAll(
+      VectorNd coords, Vector3d[] grads, Point3d pnt,
+      ArrayList<MFreeNode3d> nodeList) {
+
+      int nDeps = nodeList.size();
+      coords.setSize(nDeps);
+
+      MatrixNd MInv = new MatrixNd(nBasis,nBasis);
+      double cond = computeMInv(MInv, pnt, nodeList);
+
+      VectorNd p = new VectorNd(nBasis);
+      VectorNd pi = new VectorNd(nBasis);
+      VectorNd pTMInv = new VectorNd(nBasis);
+      computeP(p, pnt.x, pnt.y, pnt.z);
+      pTMInv.mulTranspose(MInv, p);
+
+      // derivative terms, for each coordinate direction k:
+      // pkTMInv[k] = MInv^T p_{,k}, pTDMInv[k] = (M^{-1}_{,k})^T p
+      VectorNd[] pkTMInv = null;
+      VectorNd[] pTDMInv = null;
+      int[][] derivatives = null;
+      if (grads != null) {
+         pkTMInv = new VectorNd[3];
+         pTDMInv = new VectorNd[3];
+         derivatives = new int[3][3];
+         MatrixNd DMInv = new MatrixNd(nBasis,nBasis);
+         VectorNd pk = new VectorNd(nBasis);
+         for (int k=0; k<3; k++) {
+            derivatives[k][k] = 1;
+            int[] d = derivatives[k];
+            computeDMInv(DMInv, k, MInv, pnt, nodeList);
+            computeDP(pk, pnt.x, pnt.y, pnt.z, d[0], d[1], d[2]);
+            pkTMInv[k] = new VectorNd(nBasis);
+            pkTMInv[k].mulTranspose(MInv, pk);
+            pTDMInv[k] = new VectorNd(nBasis);
+            pTDMInv[k].mulTranspose(DMInv, p);
+         }
+      }
+
+      for (int i=0; i<nDeps; i++) {
+         MFreeNode3d node = nodeList.get(i);
+         MFreeWeightFunction fun = node.getWeightFunction();
+         Point3d xi = node.getRestPosition();
+         computeP(pi, xi.x, xi.y, xi.z);
+         double w = fun.eval(pnt);
+         double a = pTMInv.dot(pi);
+         coords.set(i, w*a);
+         if (grads != null) {
+            Vector3d grad = grads[i];
+            for (int k=0; k<3; k++) {
+               int[] d = derivatives[k];
+               double wk = fun.evalDerivative(pnt.x, pnt.y, pnt.z, d[0], d[1], d[2]);
+               double out = w*pkTMInv[k].dot(pi);
+               out += w*pTDMInv[k].dot(pi);
+               out += wk*a;
+               grad.set(k, out);
+            }
+         }
+      }
+      return cond;
+   }
+
    @Override
    public MFreeShapeFunctionType getType() {
       return MFreeShapeFunctionType.MLS;
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2014, by the Authors: Antonio Sanchez (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mfreemodels;
+
+import java.util.ArrayList;
+
+import maspack.matrix.MatrixNd;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.VectorNd;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests MLSShapeFunction.evalAll against per-node evaluation, and checks
+ * that shape functions computed by MFreeFactory do not depend on the number
+ * of threads.
+ */
+public class MLSShapeFunctionTest extends UnitTest {
+
+   private static double EPS = 1e-12;
+
+   private MFreeModel3d createBeam() {
+      return MFreeFactory.createBeam (
+         null, new double[] {1.0, 0.4, 0.3}, new int[] {6, 4, 3}, 0);
+   }
+
+   private ArrayList<MFreeIntegrationPoint3d> getIntegrationPoints (
+      MFreeModel3d model) {
+      ArrayList<MFreeIntegrationPoint3d> ipnts =
+         new ArrayList<MFreeIntegrationPoint3d>();
+      for (MFreeElement3d elem : model.getElements()) {
+         ipnts.addAll (elem.getIntegrationPoints());
+      }
+      return ipnts;
+   }
+
+   /**
+    * Checks evalAll at a point against the values and first derivatives
+    * computed separately for each dependent node.
+    */
+   private void checkEvalAll (Point3d pnt, ArrayList<MFreeNode3d> deps) {
+      MLSShapeFunction mls = (MLSShapeFunction)deps.get(0).getShapeFunction();
+      if (!mls.canEvalAll (deps)) {
+         throw new TestException ("canEvalAll false for MLS nodes");
+      }
+      int ndeps = deps.size();
+      VectorNd coords = new VectorNd (ndeps);
+      Vector3d[] grads = new Vector3d[ndeps];
+      for (int i=0; i<ndeps; i++) {
+         grads[i] = new Vector3d();
+      }
+      mls.evalAll (coords, grads, pnt, deps);
+
+      // evaluation without gradients should give the same values
+      VectorNd vals = new VectorNd (ndeps);
+      mls.evalAll (vals, null, pnt, deps);
+      checkEquals ("evalAll without gradients", vals, coords, 0);
+
+      MatrixNd MInv = new MatrixNd();
+      mls.computeMInv (MInv, pnt, deps);
+      int[][] derivs = new int[][] { {1,0,0}, {0,1,0}, {0,0,1} };
+      double sum = 0;
+      Vector3d gsum = new Vector3d();
+      for (int i=0; i<ndeps; i++) {
+         MLSShapeFunction fun =
+            (MLSShapeFunction)deps.get(i).getShapeFunction();
+         double v = fun.eval (pnt, MInv, deps);
+         checkEquals (
+            "shape function value for node "+i, coords.get(i), v, EPS);
+         Vector3d grad = new Vector3d();
+         for (int k=0; k<3; k++) {
+            grad.set (k, fun.evalDerivative (pnt, derivs[k], MInv, deps));
+         }
+         checkEquals (
+            "shape function gradient for node "+i, grads[i], grad, EPS);
+         sum += coords.get(i);
+         gsum.add (grads[i]);
+      }
+      // MLS shape functions are a partition of unity
+      checkEquals ("sum of shape function values", sum, 1.0, 1e-10);
+      checkEquals (
+         "sum of shape function gradients", gsum, Vector3d.ZERO, 1e-8);
+   }
+
+   public void testEvalAll() {
+      MFreeModel3d model = createBeam();
+      int npnts = 0;
+      for (MFreeIntegrationPoint3d ipnt : getIntegrationPoints (model)) {
+         checkEvalAll (ipnt.getRestPosition(), ipnt.getDependentNodes());
+         npnts++;
+      }
+      if (npnts == 0) {
+         throw new TestException ("model has no integration points");
+      }
+      // random points near the integration points, using the dependent
+      // nodes whose domains contain them
+      ArrayList<MFreeIntegrationPoint3d> ipnts = getIntegrationPoints (model);
+      for (int i=0; i<20; i++) {
+         MFreeIntegrationPoint3d ipnt =
+            ipnts.get (RandomGenerator.nextInt (0, ipnts.size()-1));
+         Point3d pnt = new Point3d();
+         pnt.setRandom (-0.01, 0.01);
+         pnt.add (ipnt.getRestPosition());
+         ArrayList<MFreeNode3d> deps = new ArrayList<MFreeNode3d>();
+         for (MFreeNode3d node : ipnt.getDependentNodes()) {
+            if (node.isInDomain (pnt, 0)) {
+               deps.add (node);
+            }
+         }
+         checkEvalAll (pnt, deps);
+      }
+   }
+
+   private void checkSameShapeFunctions (
+      MFreeModel3d model, MFreeModel3d check) {
+
+      ArrayList<MFreeIntegrationPoint3d> ipnts = getIntegrationPoints (model);
+      ArrayList<MFreeIntegrationPoint3d> chks = getIntegrationPoints (check);
+      checkEquals ("number of integration points", ipnts.size(), chks.size());
+      for (int i=0; i<ipnts.size(); i++) {
+         MFreeIntegrationPoint3d ipnt = ipnts.get(i);
+         // the assignment of points to elements is not ordered, so find
+         // the check point with the same position
+         MFreeIntegrationPoint3d chk = null;
+         for (MFreeIntegrationPoint3d p : chks) {
+            if (p.getRestPosition().equals (ipnt.getRestPosition())) {
+               chk = p;
+               break;
+            }
+         }
+         if (chk == null) {
+            throw new TestException (
+               "no check point at " + ipnt.getRestPosition());
+         }
+         ArrayList<MFreeNode3d> deps = ipnt.getDependentNodes();
+         ArrayList<MFreeNode3d> chkDeps = chk.getDependentNodes();
+         checkEquals (
+            "number of dependent nodes for point "+i,
+            deps.size(), chkDeps.size());
+         for (int j=0; j<deps.size(); j++) {
+            checkEquals (
+               "dependent node "+j+" for point "+i,
+               deps.get(j).getNumber(), chkDeps.get(j).getNumber());
+         }
+         checkEquals (
+            "shape coordinates for point "+i,
+            ipnt.getNodeCoordinates(), chk.getNodeCoordinates(), 0);
+         Vector3d[] GNs = ipnt.getGNs();
+         Vector3d[] chkGNs = chk.getGNs();
+         for (int j=0; j<GNs.length; j++) {
+            checkEquals (
+               "shape gradient "+j+" for point "+i, GNs[j], chkGNs[j], 0);
+         }
+      }
+   }
+
+   public void testThreads() {
+      int numThreads = MFreeFactory.DEFAULT_NUM_THREADS;
+      int minPoints = MFreeFactory.MIN_POINTS_PER_THREAD;
+      try {
+         MFreeFactory.DEFAULT_NUM_THREADS = 1;
+         MFreeModel3d model = createBeam();
+         // force the points to be split among several threads
+         MFreeFactory.DEFAULT_NUM_THREADS = 4;
+         MFreeFactory.MIN_POINTS_PER_THREAD = 4;
+         MFreeModel3d check = createBeam();
+         checkSameShapeFunctions (model, check);
+      }
+      finally {
+         MFreeFactory.DEFAULT_NUM_THREADS = numThreads;
+         MFreeFactory.MIN_POINTS_PER_THREAD = minPoints;
+      }
+   }
+
+   public void test() {
+      testEvalAll();
+      testThreads();
+   }
+
+   public static void main (String[] args) {
+      MLSShapeFunctionTest tester = new MLSShapeFunctionTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
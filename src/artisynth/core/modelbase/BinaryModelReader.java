@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import artisynth.core.util.ArtisynthIO;
+import artisynth.core.util.ClassAliases;
+import maspack.util.ReaderTokenizer;
+
+/**
+ * Reads a binary model file written by {@link BinaryModelWriter}. The text
+ * portion of the file is scanned using a {@link ReaderTokenizer} as usual,
+ * while the binary blocks are accessed through memory mapped buffers. While
+ * components are being scanned by {@link #scanfull}, this reader is made
+ * <i>active</i> (see {@link #getActive}) so that components can obtain
+ * their bulk data.
+ */
+public class BinaryModelReader {
+
+   private static ThreadLocal<BinaryModelReader> myActive =
+      new ThreadLocal<BinaryModelReader>();
+
+   private File myFile;
+   private FileInputStream myIn;
+   private FileChannel myChannel;
+   private long myTextOff;
+   private long myTextLen;
+   private int[] myTypes;
+   private int[] myLengths;
+   private long[] myOffsets;
+
+   /**
+    * Opens a binary model file for reading.
+    *
+    * @param file file to read
+    * @throws IOException if the file cannot be opened or its header is
+    * not valid
+    */
+   public BinaryModelReader (File file) throws IOException {
+      myFile = file;
+      myIn = new FileInputStream (file);
+      try {
+         myChannel = myIn.getChannel();
+         readHeader();
+      }
+      catch (IOException e) {
+         myIn.close();
+         throw e;
+      }
+   }
+
+   private ByteBuffer map (long off, long len) throws IOException {
+      if (off < 0 || len < 0 || off+len > myChannel.size()) {
+         throw new IOException (
+            "file " + myFile + " is truncated or corrupted");
+      }
+      ByteBuffer buf = myChannel.map (FileChannel.MapMode.READ_ONLY, off, len);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      return buf;
+   }
+
+   private void readHeader() throws IOException {
+      ByteBuffer buf = map (0, BinaryModelWriter.HEADER_SIZE);
+      for (int i=0; i<BinaryModelWriter.MAGIC.length; i++) {
+         if (buf.get() != BinaryModelWriter.MAGIC[i]) {
+            throw new IOException (
+               "file " + myFile + " is not a binary model file");
+         }
+      }
+      int numBlocks = buf.getInt();
+      buf.getInt();
+      myTextOff = buf.getLong();
+      myTextLen = buf.getLong();
+      if (numBlocks < 0 || myTextLen > Integer.MAX_VALUE) {
+         throw new IOException ("file " + myFile + " has a corrupted header");
+      }
+      buf = map (BinaryModelWriter.HEADER_SIZE,
+                 (long)numBlocks*BinaryModelWriter.DIRECTORY_ENTRY_SIZE);
+      myTypes = new int[numBlocks];
+      myLengths = new int[numBlocks];
+      myOffsets = new long[numBlocks];
+      for (int i=0; i<numBlocks; i++) {
+         myTypes[i] = buf.getInt();
+         myLengths[i] = buf.getInt();
+         myOffsets[i] = buf.getLong();
+      }
+   }
+
+   /**
+    * Queries whether a file is a binary model file, by checking for the
+    * magic string at its start.
+    *
+    * @param file file to check
+    * @return <code>true</code> if the file is a binary model file
+    */
+   public static boolean isBinaryModelFile (File file) {
+      byte[] magic = new byte[BinaryModelWriter.MAGIC.length];
+      FileInputStream in = null;
+      try {
+         in = new FileInputStream (file);
+         int n = 0;
+         while (n < magic.length) {
+            int k = in.read (magic, n, magic.length-n);
+            if (k < 0) {
+               return false;
+            }
+            n += k;
+         }
+      }
+      catch (IOException e) {
+         return false;
+      }
+      finally {
+         if (in != null) {
+            try {
+               in.close();
+            }
+            catch (IOException e) {
+               // ignore
+            }
+         }
+      }
+      for (int i=0; i<magic.length; i++) {
+         if (magic[i] != BinaryModelWriter.MAGIC[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the reader which is currently scanning components in the
+    * calling thread, or <code>null</code> if there is none.
+    *
+    * @return currently active reader
+    */
+   public static BinaryModelReader getActive() {
+      return myActive.get();
+   }
+
+   /**
+    * Returns the file associated with this reader.
+    *
+    * @return file being read
+    */
+   public File getFile() {
+      return myFile;
+   }
+
+   /**
+    * Creates a tokenizer for the text portion of the file.
+    *
+    * @return tokenizer for the text
+    * @throws IOException if an I/O error occurred
+    */
+   public ReaderTokenizer getTokenizer() throws IOException {
+      ByteBuffer buf = map (myTextOff, myTextLen);
+      String text = BinaryModelWriter.UTF8.decode (buf).toString();
+      ReaderTokenizer rtok =
+         ArtisynthIO.newReaderTokenizer (new StringReader (text));
+      rtok.setResourceName (myFile.toString());
+      return rtok;
+   }
+
+   /**
+    * Returns the number of blocks in the file.
+    *
+    * @return number of blocks
+    */
+   public int numBlocks() {
+      return myTypes.length;
+   }
+
+   /**
+    * Returns the number of values in a block.
+    *
+    * @param idx block index
+    * @return number of values in the block
+    */
+   public int getBlockLength (int idx) {
+      checkIndex (idx);
+      return myLengths[idx];
+   }
+
+   private void checkIndex (int idx) {
+      if (idx < 0 || idx >= myTypes.length) {
+         throw new IllegalArgumentException (
+            "block index "+idx+" not in the range [0,"+(myTypes.length-1)+"]");
+      }
+   }
+
+   private ByteBuffer mapBlock (int idx, int type, int size)
+      throws IOException {
+      checkIndex (idx);
+      if (myTypes[idx] != type) {
+         throw new IOException (
+            "block "+idx+" in file "+myFile+" has an unexpected type");
+      }
+      return map (myOffsets[idx], (long)size*myLengths[idx]);
+   }
+
+   /**
+    * Returns a memory mapped buffer for a block of doubles.
+    *
+    * @param idx block index
+    * @return buffer containing the block values
+    * @throws IOException if the block is not a block of doubles or cannot
+    * be mapped
+    */
+   public DoubleBuffer getDoubles (int idx) throws IOException {
+      return mapBlock (idx, BinaryModelWriter.DOUBLE_BLOCK, 8).asDoubleBuffer();
+   }
+
+   /**
+    * Returns a memory mapped buffer for a block of integers.
+    *
+    * @param idx block index
+    * @return buffer containing the block values
+    * @throws IOException if the block is not a block of integers or cannot
+    * be mapped
+    */
+   public IntBuffer getInts (int idx) throws IOException {
+      return mapBlock (idx, BinaryModelWriter.INT_BLOCK, 4).asIntBuffer();
+   }
+
+   /**
+    * Returns a memory mapped buffer for a block of bytes.
+    *
+    * @param idx block index
+    * @return buffer containing the block values
+    * @throws IOException if the block is not a block of bytes or cannot
+    * be mapped
+    */
+   public ByteBuffer getBytes (int idx) throws IOException {
+      return mapBlock (idx, BinaryModelWriter.BYTE_BLOCK, 1);
+   }
+
+   /**
+    * Returns the string stored in a block of bytes.
+    *
+    * @param idx block index
+    * @return string stored in the block
+    * @throws IOException if the block is not a block of bytes or cannot
+    * be mapped
+    */
+   public String getString (int idx) throws IOException {
+      return BinaryModelWriter.UTF8.decode (getBytes (idx)).toString();
+   }
+
+   /**
+    * Scans and postscans a component from the text portion of the file,
+    * with this reader active so that bulk data can be obtained. This is the
+    * binary equivalent of {@link ScanWriteUtils#scanfull}.
+    *
+    * @param rtok tokenizer for the text, obtained from {@link
+    * #getTokenizer}
+    * @param comp component to scan
+    * @param ancestor ancestor used for resolving references
+    * @throws IOException if an I/O or syntax error occurred
+    */
+   public void scanfull (
+      ReaderTokenizer rtok, ModelComponent comp, CompositeComponent ancestor)
+      throws IOException {
+      BinaryModelReader prev = myActive.get();
+      myActive.set (this);
+      try {
+         ScanWriteUtils.scanfull (rtok, comp, ancestor);
+      }
+      finally {
+         myActive.set (prev);
+      }
+   }
+
+   /**
+    * Closes this reader. Buffers that have already been mapped remain valid.
+    *
+    * @throws IOException if an I/O error occurred
+    */
+   public void close() throws IOException {
+      myIn.close();
+   }
+
+   /**
+    * Reads a class-qualified component from a binary model file. This is
+    * the binary equivalent of {@link ComponentUtils#loadComponent}.
+    *
+    * @param file file to read
+    * @param ancestor ancestor used for resolving references
+    * @param expectedType if non-<code>null</code>, type that the component
+    * is expected to be an instance of
+    * @return component that was read
+    * @throws IOException if an I/O or syntax error occurred
+    */
+   public static ModelComponent loadComponent (
+      File file, CompositeComponent ancestor, Class<?> expectedType)
+      throws IOException {
+      BinaryModelReader reader = new BinaryModelReader (file);
+      try {
+         ReaderTokenizer rtok = reader.getTokenizer();
+         rtok.nextToken();
+         if (!rtok.tokenIsWord()) {
+            throw new IOException (
+               "component class name or alias expected, got " + rtok);
+         }
+         Class<?> cls = ClassAliases.resolveClass (rtok.sval);
+         if (cls == null) {
+            throw new IOException (
+               "no class found corresponding to " + rtok.sval);
+         }
+         if (expectedType != null && !expectedType.isAssignableFrom (cls)) {
+            throw new IOException ("file contains an instance of " + cls
+            + " instead of " + expectedType);
+         }
+         if (!ModelComponent.class.isAssignableFrom (cls)) {
+            throw new IOException (cls + " is not a ModelComponent");
+         }
+         ModelComponent comp;
+         try {
+            comp = (ModelComponent)cls.getDeclaredConstructor().newInstance();
+         }
+         catch (ReflectiveOperationException e) {
+            throw new IOException ("cannot create instance of " + cls, e);
+         }
+         reader.scanfull (rtok, comp, ancestor);
+         return comp;
+      }
+      finally {
+         reader.close();
+      }
+   }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import artisynth.core.util.ClassAliases;
+import maspack.properties.HasProperties;
+import maspack.properties.PropertyInfoList;
+import maspack.properties.PropertyList;
+import maspack.util.IndentingPrintWriter;
+import maspack.util.NumberFormat;
+
+/**
+ * Writes components to a binary model file. A binary model file contains
+ * the usual text description of the components, as produced by their
+ * <code>write</code> methods, together with a set of binary <i>blocks</i>
+ * holding bulk primitive data. While a component is being written by {@link
+ * #write}, this writer is made <i>active</i> (see {@link #getActive}), and
+ * components that support it (such as component lists with a {@link
+ * BulkComponentCodec}, or inline polygonal meshes) place their bulk data
+ * into blocks and write only the block indices to the text. Everything else
+ * is written as text. Binary model files are read using {@link
+ * BinaryModelReader}.
+ *
+ * <p>The file format is as follows, with all values stored in little-endian
+ * order: the 8 byte magic string <code>ARTBIN01</code>, the number of
+ * blocks (int), an unused int, the offset and length of the UTF-8 encoded
+ * text (longs), and a directory giving the type (int), number of values
+ * (int) and offset (long) of each block. The text and blocks follow, with
+ * each block aligned on an 8 byte boundary.
+ */
+public class BinaryModelWriter {
+
+   /**
+    * File name extension for binary model files.
+    */
+   public static final String FILE_EXTENSION = ".artb";
+
+   static final byte[] MAGIC =
+      new byte[] { 'A', 'R', 'T', 'B', 'I', 'N', '0', '1' };
+   static final int HEADER_SIZE = MAGIC.length + 2*4 + 2*8;
+   static final int DIRECTORY_ENTRY_SIZE = 2*4 + 8;
+
+   static final int DOUBLE_BLOCK = 0;
+   static final int INT_BLOCK = 1;
+   static final int BYTE_BLOCK = 2;
+
+   static final Charset UTF8 = Charset.forName ("UTF-8");
+
+   private static ThreadLocal<BinaryModelWriter> myActive =
+      new ThreadLocal<BinaryModelWriter>();
+
+   private StringWriter myText;
+   private IndentingPrintWriter myPw;
+   private ArrayList<Object> myBlocks = new ArrayList<Object>();
+
+   // used to check for non-default properties
+   private static PrintWriter myNullPw = new PrintWriter (new Writer() {
+         public void write (char[] cbuf, int off, int len) {
+         }
+         public void flush() {
+         }
+         public void close() {
+         }
+      });
+   private static NumberFormat myNullFmt = new NumberFormat ("%g");
+
+   /**
+    * Creates a new, empty binary model writer.
+    */
+   public BinaryModelWriter() {
+      myText = new StringWriter();
+      myPw = new IndentingPrintWriter (myText);
+   }
+
+   /**
+    * Returns the writer which is currently writing components in the
+    * calling thread, or <code>null</code> if there is none.
+    *
+    * @return currently active writer
+    */
+   public static BinaryModelWriter getActive() {
+      return myActive.get();
+   }
+
+   /**
+    * Returns the print writer for the text portion of the file.
+    *
+    * @return text print writer
+    */
+   public IndentingPrintWriter getPrintWriter() {
+      return myPw;
+   }
+
+   /**
+    * Writes a component to the text portion of the file, with this writer
+    * active so that bulk data can be placed into blocks.
+    *
+    * @param comp component to write
+    * @param fmt numeric format for writing the component
+    * @param ref reference object used for writing the component
+    * @throws IOException if an I/O error occurred
+    */
+   public void write (ModelComponent comp, NumberFormat fmt, Object ref)
+      throws IOException {
+      BinaryModelWriter prev = myActive.get();
+      myActive.set (this);
+      try {
+         comp.write (myPw, fmt, ref);
+      }
+      finally {
+         myActive.set (prev);
+      }
+   }
+
+   /**
+    * Adds a block of doubles.
+    *
+    * @param vals values for the block
+    * @param num number of values to add
+    * @return index of the block
+    */
+   public int addDoubles (double[] vals, int num) {
+      double[] block = new double[num];
+      System.arraycopy (vals, 0, block, 0, num);
+      myBlocks.add (block);
+      return myBlocks.size()-1;
+   }
+
+   /**
+    * Adds a block of integers.
+    *
+    * @param vals values for the block
+    * @param num number of values to add
+    * @return index of the block
+    */
+   public int addInts (int[] vals, int num) {
+      int[] block = new int[num];
+      System.arraycopy (vals, 0, block, 0, num);
+      myBlocks.add (block);
+      return myBlocks.size()-1;
+   }
+
+   /**
+    * Adds a block of bytes.
+    *
+    * @param vals values for the block
+    * @param num number of values to add
+    * @return index of the block
+    */
+   public int addBytes (byte[] vals, int num) {
+      byte[] block = new byte[num];
+      System.arraycopy (vals, 0, block, 0, num);
+      myBlocks.add (block);
+      return myBlocks.size()-1;
+   }
+
+   /**
+    * Adds a block containing a string, encoded as UTF-8.
+    *
+    * @param str string for the block
+    * @return index of the block
+    */
+   public int addString (String str) {
+      byte[] bytes = str.getBytes (UTF8);
+      return addBytes (bytes, bytes.length);
+   }
+
+   /**
+    * Returns the number of blocks that have been added.
+    *
+    * @return number of blocks
+    */
+   public int numBlocks() {
+      return myBlocks.size();
+   }
+
+   private static long align8 (long off) {
+      return (off+7) & ~7L;
+   }
+
+   private static int blockType (Object block) {
+      if (block instanceof double[]) {
+         return DOUBLE_BLOCK;
+      }
+      else if (block instanceof int[]) {
+         return INT_BLOCK;
+      }
+      else {
+         return BYTE_BLOCK;
+      }
+   }
+
+   private static int blockLength (Object block) {
+      if (block instanceof double[]) {
+         return ((double[])block).length;
+      }
+      else if (block instanceof int[]) {
+         return ((int[])block).length;
+      }
+      else {
+         return ((byte[])block).length;
+      }
+   }
+
+   private static int blockBytes (Object block) {
+      int len = blockLength (block);
+      switch (blockType (block)) {
+         case DOUBLE_BLOCK: return 8*len;
+         case INT_BLOCK: return 4*len;
+         default: return len;
+      }
+   }
+
+   private void writeBuffer (FileChannel channel, ByteBuffer buf, long off)
+      throws IOException {
+      while (buf.hasRemaining()) {
+         off += channel.write (buf, off);
+      }
+   }
+
+   /**
+    * Writes the text and all blocks to a file.
+    *
+    * @param file file to write
+    * @throws IOException if an I/O error occurred
+    */
+   public void save (File file) throws IOException {
+      myPw.flush();
+      byte[] text = myText.toString().getBytes (UTF8);
+      int numBlocks = myBlocks.size();
+      long textOff = HEADER_SIZE + (long)numBlocks*DIRECTORY_ENTRY_SIZE;
+
+      ByteBuffer hdr = ByteBuffer.allocate ((int)textOff);
+      hdr.order (ByteOrder.LITTLE_ENDIAN);
+      hdr.put (MAGIC);
+      hdr.putInt (numBlocks);
+      hdr.putInt (0);
+      hdr.putLong (textOff);
+      hdr.putLong (text.length);
+      long off = align8 (textOff + text.length);
+      long[] offsets = new long[numBlocks];
+      for (int i=0; i<numBlocks; i++) {
+         Object block = myBlocks.get(i);
+         hdr.putInt (blockType (block));
+         hdr.putInt (blockLength (block));
+         hdr.putLong (off);
+         offsets[i] = off;
+         off = align8 (off + blockBytes (block));
+      }
+      FileOutputStream out = new FileOutputStream (file);
+      try {
+         FileChannel channel = out.getChannel();
+         hdr.flip();
+         writeBuffer (channel, hdr, 0);
+         writeBuffer (channel, ByteBuffer.wrap (text), textOff);
+         for (int i=0; i<numBlocks; i++) {
+            Object block = myBlocks.get(i);
+            ByteBuffer buf = ByteBuffer.allocate (blockBytes (block));
+            buf.order (ByteOrder.LITTLE_ENDIAN);
+            switch (blockType (block)) {
+               case DOUBLE_BLOCK: {
+                  buf.asDoubleBuffer().put ((double[])block);
+                  break;
+               }
+               case INT_BLOCK: {
+                  buf.asIntBuffer().put ((int[])block);
+                  break;
+               }
+               default: {
+                  buf.put ((byte[])block);
+                  buf.flip();
+               }
+            }
+            writeBuffer (channel, buf, offsets[i]);
+         }
+      }
+      finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Queries whether a component has any auto-written properties whose values
+    * are not the default, other than those named in <code>exclude</code>.
+    * This can be used by a {@link BulkComponentCodec} to determine whether a
+    * component's text representation contains anything besides the data
+    * stored in bulk.
+    *
+    * @param host component to check
+    * @param exclude names of properties to ignore, or <code>null</code>
+    * @return <code>true</code> if the component has non-default properties
+    */
+   public static boolean hasNonDefaultProperties (
+      HasProperties host, String[] exclude) {
+      PropertyInfoList info = host.getAllPropertyInfo();
+      if (!(info instanceof PropertyList)) {
+         // cannot check, so assume there are
+         return true;
+      }
+      try {
+         return ((PropertyList)info).writeNonDefaultProps (
+            host, myNullPw, myNullFmt, exclude);
+      }
+      catch (IOException e) {
+         return true;
+      }
+   }
+
+   /**
+    * Writes a class-qualified component to a binary model file. This is the
+    * binary equivalent of {@link ComponentUtils#saveComponent}.
+    *
+    * @param file file to write
+    * @param comp component to write
+    * @param fmt numeric format for the text portion of the file
+    * @param ancestor reference object used for writing the component
+    * @throws IOException if an I/O error occurred
+    */
+   public static void saveComponent (
+      File file, ModelComponent comp, NumberFormat fmt, ModelComponent ancestor)
+      throws IOException {
+      BinaryModelWriter writer = new BinaryModelWriter();
+      writer.getPrintWriter().println (
+         ClassAliases.getAliasOrName (comp.getClass()));
+      writer.write (comp, fmt, ancestor);
+      writer.save (file);
+   }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes and scans the components of a {@link ComponentList} in bulk, using
+ * the binary blocks of a binary model file. A codec is attached to a list
+ * using {@link ComponentList#setBulkCodec}. When the list is written by a
+ * {@link BinaryModelWriter}, and the codec determines that it can represent
+ * all of the list's components, the components are written as blocks
+ * instead of text. Otherwise, they are written as text as usual.
+ */
+public interface BulkComponentCodec<C extends ModelComponent> {
+
+   /**
+    * Queries whether all the components of a list can be written in bulk.
+    * This should return <code>false</code> if any component contains
+    * information that would not be stored by {@link #writeBulk}.
+    *
+    * @param list list to be written
+    * @return <code>true</code> if the list can be written in bulk
+    */
+   public boolean canWriteBulk (ComponentList<C> list);
+
+   /**
+    * Writes the components of a list into blocks of a binary model writer.
+    *
+    * @param list list to be written
+    * @param writer writer in which to create the blocks
+    * @return indices of the blocks that were created, which are passed back
+    * to {@link #scanBulk} when the list is read
+    * @throws IOException if an I/O error occurred
+    */
+   public int[] writeBulk (ComponentList<C> list, BinaryModelWriter writer)
+      throws IOException;
+
+   /**
+    * Creates components from blocks of a binary model reader. This is called
+    * during the scan phase, so that references to other components can only
+    * be resolved if those components have already been scanned. The created
+    * components are then added to the list, and postscanned and connected to
+    * the hierarchy in the same way as components scanned from text.
+    *
+    * @param comps returns the created components
+    * @param list list being scanned
+    * @param blocks indices of the blocks written by {@link #writeBulk}
+    * @param reader reader providing the blocks
+    * @throws IOException if the blocks are missing or inconsistent
+    */
+   public void scanBulk (
+      List<C> comps, ComponentList<C> list, int[] blocks,
+      BinaryModelReader reader) throws IOException;
+}
@@ -27,6 +27,7 @@ public class ComponentList<C extends ModelComponent> extends ModelComponentBase
    protected NavpanelDisplay myNavpanelDisplay = DEFAULT_NAVPANEL_DISPLAY;
 
    protected ComponentListImpl<C> myComponents;
+   protected BulkComponentCodec<C> myBulkCodec;
 
    public static PropertyList myProps =
       new PropertyList (ComponentList.class, ModelComponentBase.class);
@@ -354,7 +355,70 @@ public class ComponentList<C extends ModelComponent> extends ModelComponentBase
          ancestor = this;
       }
       super.writeItems (pw, fmt, ancestor);
-      myComponents.writeComponents (pw, fmt, ancestor);
+      BinaryModelWriter writer = BinaryModelWriter.getActive();
+      if (writer != null && myBulkCodec != null && size() > 0 &&
+          myBulkCodec.canWriteBulk (this)) {
+         int[] blocks = myBulkCodec.writeBulk (this, writer);
+         pw.print ("bulkComponents=[");
+         for (int i=0; i<blocks.length; i++) {
+            pw.print (" " + blocks[i]);
+         }
+         pw.println (" ]");
+      }
+      else {
+         myComponents.writeComponents (pw, fmt, ancestor);
+      }
+   }
+
+   /**
+    * Sets a codec that allows the components of this list to be written
+    * and scanned in bulk when using a binary model file. See {@link
+    * BinaryModelWriter}.
+    *
+    * @param codec bulk codec for this list, or <code>null</code>
+    */
+   public void setBulkCodec (BulkComponentCodec<C> codec) {
+      myBulkCodec = codec;
+   }
+
+   /**
+    * Returns the codec, if any, that allows the components of this list to be
+    * written and scanned in bulk.
+    *
+    * @return bulk codec for this list, or <code>null</code>
+    */
+   public BulkComponentCodec<C> getBulkCodec() {
+      return myBulkCodec;
+   }
+
+   private void scanBulkComponents (
+      ReaderTokenizer rtok, Deque<ScanToken> tokens) throws IOException {
+
+      int lineno = rtok.lineno();
+      DynamicIntArray blocks = new DynamicIntArray();
+      rtok.scanToken ('[');
+      while (rtok.nextToken() != ']') {
+         if (!rtok.tokenIsInteger()) {
+            throw new IOException (
+               "block index expected for bulkComponents, got " + rtok);
+         }
+         blocks.add ((int)rtok.lval);
+      }
+      BinaryModelReader reader = BinaryModelReader.getActive();
+      if (reader == null) {
+         throw new IOException (
+            "bulkComponents can only be read from a binary model file, line "+
+            lineno);
+      }
+      if (myBulkCodec == null) {
+         throw new IOException (
+            "list "+ComponentUtils.getDiagnosticName(this)+
+            " does not support bulkComponents, line "+lineno);
+      }
+      ArrayList<C> comps = new ArrayList<C>();
+      myBulkCodec.scanBulk (
+         comps, this, Arrays.copyOf (blocks.getArray(), blocks.size()), reader);
+      myComponents.storeBulkComponents (comps, tokens, lineno);
    }
 
    // private void scanProperty (ReaderTokenizer rtok, String name)
@@ -399,6 +463,10 @@ public class ComponentList<C extends ModelComponent> extends ModelComponentBase
       if (ScanWriteUtils.scanProperty (rtok, this)) {
          return true;
       }
+      else if (scanAttributeName (rtok, "bulkComponents")) {
+         scanBulkComponents (rtok, tokens);
+         return true;
+      }
       else if (myComponents.scanAndStoreComponent (rtok, tokens)) {
          return true;
       }
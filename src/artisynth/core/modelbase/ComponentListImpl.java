@@ -663,6 +663,29 @@ public class ComponentListImpl<C extends ModelComponent> extends ScannableList<C
       return true;
    }
 
+   /**
+    * Stores components that were created by a {@link BulkComponentCodec}
+    * during scanning. The components are added in the same way as those
+    * scanned by {@link #scanAndStoreComponent}, and tokens are placed on the
+    * token queue so that they are postscanned in the same way.
+    *
+    * @param comps components to store
+    * @param tokens token queue
+    * @param lineno line number associated with the components
+    */
+   public void storeBulkComponents (
+      List<C> comps, Deque<ScanToken> tokens, int lineno) {
+      for (int i=0; i<comps.size(); i++) {
+         C comp = comps.get(i);
+         tokens.offer (new ObjectToken (comp, lineno));
+         tokens.offer (ScanToken.BEGIN);
+         tokens.offer (ScanToken.END);
+         initComponent (comp, -1, size());
+         super.add (comp);
+         myScanCnt++;
+      }
+   }
+
    public boolean postscanComponent (
       Deque<ScanToken> tokens, CompositeComponent ancestor) 
       throws IOException {
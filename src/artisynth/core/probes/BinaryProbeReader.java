@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import maspack.interpolation.Interpolation;
+import maspack.interpolation.Interpolation.Order;
+import maspack.interpolation.NumericList;
+import maspack.interpolation.NumericListKnot;
+
+/**
+ * Reads probe data stored in the binary columnar format produced by {@link
+ * BinaryProbeWriter}. The file is memory-mapped, so that individual knots
+ * or channels can be accessed without reading the whole file, and files
+ * larger than the available heap can be processed. Blocks which were not
+ * completely written (because the writing simulation was interrupted, for
+ * instance) are ignored.
+ */
+public class BinaryProbeReader {
+
+   // maximum size of each mapped region
+   static int MAX_MAP_BYTES = Integer.MAX_VALUE;
+
+   private File myFile;
+   private int myVsize;
+   private int myBlockSize;
+   private int myBlockBytes;
+   private double myStartTime;
+   private double myStopTime;
+   private double myScale;
+   private double myTimeStep;
+   private Order myOrder;
+   private String[] myNames;
+   private int[] mySizes;
+   private int[] myOffsets;
+
+   private int myBlocksPerMap;
+   private ByteBuffer[] myMaps;
+   private int myNumBlocks;
+   private long myNumKnots;
+
+   /**
+    * Opens a binary probe file for reading.
+    *
+    * @param file file to read
+    * @throws IOException if an I/O error occurred or the file is not
+    * a binary probe file
+    */
+   public BinaryProbeReader (File file) throws IOException {
+      myFile = file;
+      FileChannel channel = new FileInputStream (file).getChannel();
+      try {
+         long dataOff = readHeader (channel);
+         mapBlocks (channel, dataOff);
+      }
+      finally {
+         // mapped buffers remain valid after the channel is closed
+         channel.close();
+      }
+   }
+
+   private ByteBuffer readFully (FileChannel channel, long pos, int len)
+      throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate (len);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      while (buf.hasRemaining()) {
+         if (channel.read (buf, pos+buf.position()) < 0) {
+            throw new IOException (
+               "unexpected end of file in header of " + myFile);
+         }
+      }
+      buf.flip();
+      return buf;
+   }
+
+   private String readString (FileChannel channel, long pos)
+      throws IOException {
+      int len = readFully (channel, pos, 4).getInt();
+      if (len < 0 || len > 65536) {
+         throw new IOException ("corrupt header in " + myFile);
+      }
+      byte[] bytes = new byte[len];
+      readFully (channel, pos+4, len).get (bytes);
+      return new String (bytes, BinaryProbeWriter.UTF8);
+   }
+
+   private long readHeader (FileChannel channel) throws IOException {
+      byte[] magic = new byte[BinaryProbeWriter.MAGIC.length];
+      ByteBuffer buf;
+      try {
+         buf = readFully (channel, 0, magic.length + 4 + 4 + 4*8);
+      }
+      catch (IOException e) {
+         throw new IOException (myFile + " is not a binary probe file");
+      }
+      buf.get (magic);
+      if (!Arrays.equals (magic, BinaryProbeWriter.MAGIC)) {
+         throw new IOException (myFile + " is not a binary probe file");
+      }
+      myVsize = buf.getInt();
+      myBlockSize = buf.getInt();
+      myStartTime = buf.getDouble();
+      myStopTime = buf.getDouble();
+      myScale = buf.getDouble();
+      myTimeStep = buf.getDouble();
+      long pos = buf.limit();
+      if (myVsize < 0 || myBlockSize <= 0) {
+         throw new IOException ("corrupt header in " + myFile);
+      }
+      String orderName = readString (channel, pos);
+      pos += 4 + orderName.getBytes (BinaryProbeWriter.UTF8).length;
+      myOrder = Order.fromString (orderName);
+      if (myOrder == null) {
+         throw new IOException (
+            "unknown interpolation order '"+orderName+"' in " + myFile);
+      }
+      int numGroups = readFully (channel, pos, 4).getInt();
+      pos += 4;
+      if (numGroups < 0 || numGroups > myVsize+1) {
+         throw new IOException ("corrupt header in " + myFile);
+      }
+      myNames = new String[numGroups];
+      mySizes = new int[numGroups];
+      myOffsets = new int[numGroups];
+      int off = 0;
+      for (int i=0; i<numGroups; i++) {
+         myNames[i] = readString (channel, pos);
+         pos += 4 + myNames[i].getBytes (BinaryProbeWriter.UTF8).length;
+         mySizes[i] = readFully (channel, pos, 4).getInt();
+         pos += 4;
+         myOffsets[i] = off;
+         off += mySizes[i];
+      }
+      if (off != myVsize) {
+         throw new IOException (
+            "group sizes do not match vector size in " + myFile);
+      }
+      long blockBytes = 8 + 8L*myBlockSize*(myVsize+1);
+      if (blockBytes > MAX_MAP_BYTES) {
+         throw new IOException ("block size too large in " + myFile);
+      }
+      myBlockBytes = (int)blockBytes;
+      return 8*((pos+7)/8);
+   }
+
+   private void mapBlocks (FileChannel channel, long dataOff)
+      throws IOException {
+      long numBlocks = (channel.size()-dataOff)/myBlockBytes;
+      if (numBlocks > Integer.MAX_VALUE) {
+         throw new IOException ("too many data blocks in " + myFile);
+      }
+      myBlocksPerMap = Math.max (1, MAX_MAP_BYTES/myBlockBytes);
+      int numMaps = (int)((numBlocks+myBlocksPerMap-1)/myBlocksPerMap);
+      myMaps = new ByteBuffer[numMaps];
+      for (int i=0; i<numMaps; i++) {
+         long nb = Math.min (myBlocksPerMap, numBlocks-i*(long)myBlocksPerMap);
+         myMaps[i] = channel.map (
+            FileChannel.MapMode.READ_ONLY,
+            dataOff + i*(long)myBlocksPerMap*myBlockBytes, nb*myBlockBytes);
+         myMaps[i].order (ByteOrder.LITTLE_ENDIAN);
+      }
+      // count the knots in each block. All blocks except the last should be
+      // full; if not, the file was not completely written and we stop there.
+      myNumBlocks = 0;
+      myNumKnots = 0;
+      for (int b=0; b<numBlocks; b++) {
+         long num = getMap(b).getLong (getBlockOffset(b));
+         if (num <= 0 || num > myBlockSize) {
+            break;
+         }
+         myNumBlocks++;
+         myNumKnots += num;
+         if (num < myBlockSize) {
+            break;
+         }
+      }
+   }
+
+   private ByteBuffer getMap (int b) {
+      return myMaps[b/myBlocksPerMap];
+   }
+
+   private int getBlockOffset (int b) {
+      return (b%myBlocksPerMap)*myBlockBytes;
+   }
+
+   private void checkKnotIndex (long k) {
+      if (k < 0 || k >= myNumKnots) {
+         throw new IndexOutOfBoundsException (
+            "knot index "+k+" not in the range [0,"+(myNumKnots-1)+"]");
+      }
+   }
+
+   /**
+    * Returns the number of knots in the file.
+    *
+    * @return number of knots
+    */
+   public long numKnots() {
+      return myNumKnots;
+   }
+
+   /**
+    * Returns the vector size (total number of channels) of each knot.
+    *
+    * @return knot vector size
+    */
+   public int getVectorSize() {
+      return myVsize;
+   }
+
+   /**
+    * Returns the probe start time stored in the header.
+    *
+    * @return probe start time
+    */
+   public double getStartTime() {
+      return myStartTime;
+   }
+
+   /**
+    * Returns the probe stop time stored in the header.
+    *
+    * @return probe stop time
+    */
+   public double getStopTime() {
+      return myStopTime;
+   }
+
+   /**
+    * Returns the probe scale factor stored in the header.
+    *
+    * @return probe scale factor
+    */
+   public double getScale() {
+      return myScale;
+   }
+
+   /**
+    * Returns the probe update interval stored in the header.
+    *
+    * @return probe update interval
+    */
+   public double getTimeStep() {
+      return myTimeStep;
+   }
+
+   /**
+    * Returns the interpolation order stored in the header.
+    *
+    * @return interpolation order
+    */
+   public Order getInterpolationOrder() {
+      return myOrder;
+   }
+
+   /**
+    * Returns the number of channel groups described in the header.
+    *
+    * @return number of channel groups
+    */
+   public int numGroups() {
+      return myNames.length;
+   }
+
+   /**
+    * Returns the name of a channel group.
+    *
+    * @param idx index of the group
+    * @return group name
+    */
+   public String getGroupName (int idx) {
+      return myNames[idx];
+   }
+
+   /**
+    * Returns the number of channels in a channel group.
+    *
+    * @param idx index of the group
+    * @return group size
+    */
+   public int getGroupSize (int idx) {
+      return mySizes[idx];
+   }
+
+   /**
+    * Returns the index of the first channel of a channel group.
+    *
+    * @param idx index of the group
+    * @return offset of the group within each knot
+    */
+   public int getGroupOffset (int idx) {
+      return myOffsets[idx];
+   }
+
+   /**
+    * Returns the index of the channel group with a given name, or -1 if
+    * there is no such group.
+    *
+    * @param name name of the group
+    * @return group index, or -1
+    */
+   public int getGroupIndex (String name) {
+      for (int i=0; i<myNames.length; i++) {
+         if (myNames[i].equals (name)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the time of the k-th knot.
+    *
+    * @param k knot index
+    * @return knot time
+    */
+   public double getTime (long k) {
+      checkKnotIndex (k);
+      int b = (int)(k/myBlockSize);
+      int r = (int)(k%myBlockSize);
+      return getMap(b).getDouble (getBlockOffset(b) + 8 + 8*r);
+   }
+
+   /**
+    * Returns the value of channel <code>j</code> at the k-th knot.
+    *
+    * @param k knot index
+    * @param j channel index
+    * @return channel value
+    */
+   public double getValue (long k, int j) {
+      checkKnotIndex (k);
+      if (j < 0 || j >= myVsize) {
+         throw new IndexOutOfBoundsException (
+            "channel index "+j+" not in the range [0,"+(myVsize-1)+"]");
+      }
+      int b = (int)(k/myBlockSize);
+      int r = (int)(k%myBlockSize);
+      return getMap(b).getDouble (
+         getBlockOffset(b) + 8 + 8*((j+1)*myBlockSize + r));
+   }
+
+   /**
+    * Reads the values of the k-th knot into an array.
+    *
+    * @param vals returns the knot values. Must have a length of at least the
+    * vector size.
+    * @param k knot index
+    * @return knot time
+    */
+   public double getKnot (double[] vals, long k) {
+      checkKnotIndex (k);
+      int b = (int)(k/myBlockSize);
+      int r = (int)(k%myBlockSize);
+      ByteBuffer map = getMap (b);
+      int off = getBlockOffset(b) + 8 + 8*r;
+      double t = map.getDouble (off);
+      for (int j=0; j<myVsize; j++) {
+         off += 8*myBlockSize;
+         vals[j] = map.getDouble (off);
+      }
+      return t;
+   }
+
+   /**
+    * Reads the values of channel <code>j</code> for all knots into an
+    * array. Because of the columnar storage, this only touches the parts of
+    * the file that contain the channel. Specifying <code>j = -1</code> reads
+    * the knot times.
+    *
+    * @param vals returns the channel values. Must have a length of at least
+    * the number of knots.
+    * @param j channel index, or -1 for knot times
+    */
+   public void getColumn (double[] vals, int j) {
+      if (j < -1 || j >= myVsize) {
+         throw new IndexOutOfBoundsException (
+            "channel index "+j+" not in the range [-1,"+(myVsize-1)+"]");
+      }
+      int k = 0;
+      for (int b=0; b<myNumBlocks; b++) {
+         ByteBuffer map = getMap (b);
+         int off = getBlockOffset(b) + 8 + 8*(j+1)*myBlockSize;
+         int num = (int)Math.min (myBlockSize, myNumKnots-k);
+         for (int r=0; r<num; r++) {
+            vals[k++] = map.getDouble (off+8*r);
+         }
+      }
+   }
+
+   /**
+    * Reads all the data into a new numeric list, whose interpolation order
+    * is set from the header.
+    *
+    * @return numeric list containing the data
+    */
+   public NumericList getNumericList() {
+      if (myNumKnots > Integer.MAX_VALUE) {
+         throw new UnsupportedOperationException (
+            "too many knots to store in a numeric list");
+      }
+      NumericList list = new NumericList (myVsize);
+      list.setInterpolation (new Interpolation (myOrder, true));
+      for (long k=0; k<myNumKnots; k++) {
+         NumericListKnot knot = new NumericListKnot (myVsize);
+         knot.t = getKnot (knot.v.getBuffer(), k);
+         list.add (knot);
+      }
+      return list;
+   }
+
+   /**
+    * Releases the memory mapped buffers used by this reader. The reader
+    * cannot be used afterwards.
+    */
+   public void close() {
+      myMaps = new ByteBuffer[0];
+      myNumBlocks = 0;
+      myNumKnots = 0;
+   }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.interpolation.NumericList;
+import maspack.interpolation.NumericListKnot;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Test program for BinaryProbeWriter, BinaryProbeReader and
+ * ProbeFileConverter.
+ */
+public class BinaryProbeTest extends UnitTest {
+
+   private double[][] createData (int num, int vsize) {
+      Random rand = RandomGenerator.get();
+      double[][] data = new double[num][vsize+1];
+      for (int k=0; k<num; k++) {
+         data[k][0] = 0.01*k;
+         for (int j=1; j<=vsize; j++) {
+            data[k][j] = rand.nextDouble()-0.5;
+         }
+      }
+      return data;
+   }
+
+   private File writeData (double[][] data, int blockBytes)
+      throws IOException {
+      File file = File.createTempFile (
+         "binaryProbeTest", BinaryProbeWriter.FILE_EXTENSION);
+      BinaryProbeWriter writer = new BinaryProbeWriter (
+         file, new String[] { "pos", "force" }, new int[] { 3, 2 },
+         1.0, 5.0, 2.0, 0.01, Order.Cubic, blockBytes);
+      double[] vals = new double[5];
+      for (int k=0; k<data.length; k++) {
+         System.arraycopy (data[k], 1, vals, 0, 5);
+         writer.write (data[k][0], vals);
+      }
+      if (writer.numKnots() != data.length) {
+         throw new TestException (
+            "writer numKnots is "+writer.numKnots()+", expected "+data.length);
+      }
+      writer.close();
+      return file;
+   }
+
+   private void checkData (BinaryProbeReader reader, double[][] data, int num) {
+      if (reader.numKnots() != num) {
+         throw new TestException (
+            "reader numKnots is "+reader.numKnots()+", expected "+num);
+      }
+      double[] vals = new double[5];
+      for (int k=0; k<num; k++) {
+         double t = reader.getKnot (vals, k);
+         if (t != data[k][0] || reader.getTime (k) != data[k][0]) {
+            throw new TestException ("time mismatch at knot "+k);
+         }
+         for (int j=0; j<5; j++) {
+            if (vals[j] != data[k][j+1] || reader.getValue (k, j) != vals[j]) {
+               throw new TestException (
+                  "value mismatch at knot "+k+", channel "+j);
+            }
+         }
+      }
+      double[] column = new double[num];
+      for (int j=-1; j<5; j++) {
+         reader.getColumn (column, j);
+         for (int k=0; k<num; k++) {
+            if (column[k] != data[k][j+1]) {
+               throw new TestException (
+                  "column mismatch at knot "+k+", channel "+j);
+            }
+         }
+      }
+   }
+
+   public void testReadWrite() throws IOException {
+      double[][] data = createData (1000, 5);
+      File file = null;
+      try {
+         // use small blocks so that data spans many blocks
+         file = writeData (data, 8*6*16);
+         BinaryProbeReader reader = new BinaryProbeReader (file);
+         if (reader.getVectorSize() != 5 ||
+             reader.getStartTime() != 1.0 ||
+             reader.getStopTime() != 5.0 ||
+             reader.getScale() != 2.0 ||
+             reader.getTimeStep() != 0.01 ||
+             reader.getInterpolationOrder() != Order.Cubic) {
+            throw new TestException ("header values not read correctly");
+         }
+         if (reader.numGroups() != 2 ||
+             !reader.getGroupName(1).equals ("force") ||
+             reader.getGroupSize(1) != 2 ||
+             reader.getGroupOffset(1) != 3 ||
+             reader.getGroupIndex ("pos") != 0 ||
+             reader.getGroupIndex ("none") != -1) {
+            throw new TestException ("channel groups not read correctly");
+         }
+         checkData (reader, data, data.length);
+         NumericList list = reader.getNumericList();
+         NumericListKnot last = list.getLast();
+         if (list.getNumKnots() != data.length || last.t != data[999][0] ||
+             last.v.get(4) != data[999][5]) {
+            throw new TestException ("numeric list not read correctly");
+         }
+         reader.close();
+
+         // truncate the file in the middle of the last block; the
+         // preceding complete blocks should still be readable
+         RandomAccessFile raf = new RandomAccessFile (file, "rw");
+         raf.setLength (raf.length()-100);
+         raf.close();
+         reader = new BinaryProbeReader (file);
+         checkData (reader, data, 992);
+         reader.close();
+      }
+      finally {
+         if (file != null) {
+            file.delete();
+         }
+      }
+   }
+
+   public void testConversion() throws IOException {
+      double[][] data = createData (100, 5);
+      File binFile = writeData (data, BinaryProbeWriter.DEFAULT_BLOCK_BYTES);
+      File textFile = File.createTempFile ("binaryProbeTest", ".txt");
+      File binCopy = File.createTempFile (
+         "binaryProbeTest", BinaryProbeWriter.FILE_EXTENSION);
+      try {
+         ProbeFileConverter.binaryToText (binFile, textFile, null);
+         if (ProbeFileConverter.textToBinary (textFile, binCopy) != 100) {
+            throw new TestException ("incorrect number of knots converted");
+         }
+         BinaryProbeReader reader = new BinaryProbeReader (binCopy);
+         if (reader.getStartTime() != 1.0 ||
+             reader.getInterpolationOrder() != Order.Cubic ||
+             reader.numGroups() != 1) {
+            throw new TestException ("converted header not correct");
+         }
+         checkData (reader, data, data.length);
+         reader.close();
+
+         // text files should also be readable by NumericInputProbe
+         NumericInputProbe probe = new NumericInputProbe();
+         probe.createNumericList (5);
+         probe.read (textFile, true);
+         if (probe.getNumericList().getNumKnots() != 100 ||
+             probe.getScale() != 2.0) {
+            throw new TestException (
+               "converted text not read correctly by NumericInputProbe");
+         }
+      }
+      finally {
+         binFile.delete();
+         textFile.delete();
+         binCopy.delete();
+      }
+   }
+
+   public void test() throws IOException {
+      testReadWrite();
+      testConversion();
+   }
+
+   public static void main (String[] args) {
+      BinaryProbeTest tester = new BinaryProbeTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
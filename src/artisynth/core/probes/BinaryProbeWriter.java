@@ -0,0 +1,397 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.interpolation.NumericListKnot;
+
+/**
+ * Writes numeric probe data using a binary columnar format, which is much
+ * faster to write and read than the text format used by {@link
+ * NumericOutputProbe} and {@link NumericInputProbe}, and is intended for
+ * long simulations with many data channels. The format consists of a header
+ * followed by a sequence of fixed-size data blocks. All values are stored in
+ * little-endian order. The header contains:
+ *
+ * <ul>
+ * <li>the 8 byte magic string <code>ASPROBE1</code>
+ * <li>the vector size (number of data channels) of each knot (int)
+ * <li>the number of knots per data block (int)
+ * <li>the probe start time, stop time, scale and update interval (doubles)
+ * <li>the name of the interpolation order (string)
+ * <li>the number of channel groups (int), followed by the name (string) and
+ * size (int) of each group; the group sizes sum to the vector size
+ * <li>padding to a multiple of 8 bytes
+ * </ul>
+ *
+ * Strings are stored as an int length followed by UTF-8 bytes. Each data
+ * block contains a long giving the number of knots stored in it, followed by
+ * the knot times and then the data of each channel in turn, with every
+ * column taking up space for the full number of knots per block. Only the
+ * last block is usually partially filled. Since complete blocks are
+ * written as soon as they are filled, the data of an interrupted simulation
+ * can be recovered up to the last written block.
+ *
+ * <p>Blocks are written to the file by a background thread, so that the
+ * simulation does not wait for disk I/O except when a second block is
+ * filled before the first one has been written. Files can be read using
+ * {@link BinaryProbeReader}, and converted to and from text using {@link
+ * ProbeFileConverter}.
+ */
+public class BinaryProbeWriter {
+
+   /**
+    * File name extension for binary probe files.
+    */
+   public static final String FILE_EXTENSION = ".bprobe";
+
+   /**
+    * Nominal size, in bytes, of each data block.
+    */
+   public static final int DEFAULT_BLOCK_BYTES = 1 << 16;
+
+   static final byte[] MAGIC =
+      new byte[] { 'A', 'S', 'P', 'R', 'O', 'B', 'E', '1' };
+   static final Charset UTF8 = Charset.forName ("UTF-8");
+
+   private FileChannel myChannel;
+   private int myVsize;
+   private int myBlockSize;
+   private long myPosition; // file position of the next block
+
+   private ByteBuffer myBuffer;      // block currently being filled
+   private ByteBuffer mySpareBuffer; // block available for filling next
+   private int myNumInBlock;
+   private long myNumKnots;
+
+   private ExecutorService myExecutor;
+   private Future<ByteBuffer> myPendingWrite;
+
+   private double myStartTime = 0;
+   private double myStopTime = 0;
+   private double myScale = 1;
+   private double myTimeStep = 0;
+   private Order myOrder = Order.Linear;
+
+   /**
+    * Creates a writer for the specified file. The vector size of the data
+    * is the sum of the channel group sizes, and the header information is
+    * given by the remaining arguments.
+    *
+    * @param file file to be written
+    * @param names names of the channel groups
+    * @param sizes size of each channel group
+    * @param startTime probe start time
+    * @param stopTime probe stop time
+    * @param scale probe scale factor
+    * @param timeStep probe update interval (informational only, since knot
+    * times are stored explicitly)
+    * @param order probe interpolation order
+    * @throws IOException if an I/O error occurred
+    */
+   public BinaryProbeWriter (
+      File file, String[] names, int[] sizes, double startTime,
+      double stopTime, double scale, double timeStep, Order order)
+      throws IOException {
+      this (file, names, sizes, startTime, stopTime, scale, timeStep, order,
+            DEFAULT_BLOCK_BYTES);
+   }
+
+   /**
+    * Creates a writer for the specified file, with a specified nominal
+    * size for each data block. Otherwise identical to {@link
+    * #BinaryProbeWriter(File,String[],int[],double,double,double,double,Order)}.
+    *
+    * @param file file to be written
+    * @param names names of the channel groups
+    * @param sizes size of each channel group
+    * @param startTime probe start time
+    * @param stopTime probe stop time
+    * @param scale probe scale factor
+    * @param timeStep probe update interval
+    * @param order probe interpolation order
+    * @param blockBytes nominal size, in bytes, of each data block. Each
+    * block holds at least one knot.
+    * @throws IOException if an I/O error occurred
+    */
+   public BinaryProbeWriter (
+      File file, String[] names, int[] sizes, double startTime,
+      double stopTime, double scale, double timeStep, Order order,
+      int blockBytes) throws IOException {
+
+      int vsize = 0;
+      if (names == null) {
+         throw new IllegalArgumentException ("no channel names specified");
+      }
+      if (sizes == null || sizes.length != names.length) {
+         throw new IllegalArgumentException (
+            "number of sizes does not match number of names");
+      }
+      for (int i=0; i<sizes.length; i++) {
+         vsize += sizes[i];
+      }
+      myVsize = vsize;
+      myStartTime = startTime;
+      myStopTime = stopTime;
+      myScale = scale;
+      myTimeStep = timeStep;
+      myOrder = order;
+      myBlockSize = Math.max (1, blockBytes/(8*(vsize+1)));
+      open (file, names, sizes);
+   }
+
+   /**
+    * Creates a writer for the specified file, using a single channel group
+    * named <code>"data"</code> and default header values.
+    *
+    * @param file file to be written
+    * @param vsize vector size of the data
+    * @throws IOException if an I/O error occurred
+    */
+   public BinaryProbeWriter (File file, int vsize) throws IOException {
+      this (file, new String[] { "data" }, new int[] { vsize },
+            0, 0, 1, 0, Order.Linear);
+   }
+
+   private void open (File file, String[] names, int[] sizes)
+      throws IOException {
+
+      myChannel = new FileOutputStream (file).getChannel();
+      try {
+         ByteBuffer header = createHeader (names, sizes);
+         writeFully (header, 0);
+         myPosition = header.limit();
+      }
+      catch (IOException e) {
+         myChannel.close();
+         throw e;
+      }
+      myBuffer = allocateBlock();
+      mySpareBuffer = allocateBlock();
+      myNumInBlock = 0;
+      myExecutor = Executors.newSingleThreadExecutor (
+         new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+               Thread thread = new Thread (r, "BinaryProbeWriter");
+               thread.setDaemon (true);
+               return thread;
+            }
+         });
+   }
+
+   private ByteBuffer createHeader (String[] names, int[] sizes) {
+      byte[] orderBytes = myOrder.toString().getBytes (UTF8);
+      byte[][] nameBytes = new byte[names.length][];
+      int len = MAGIC.length + 4 + 4 + 4*8 + 4 + orderBytes.length + 4;
+      for (int i=0; i<names.length; i++) {
+         nameBytes[i] = names[i].getBytes (UTF8);
+         len += 4 + nameBytes[i].length + 4;
+      }
+      len = 8*((len+7)/8);
+      ByteBuffer buf = ByteBuffer.allocate (len);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      buf.put (MAGIC);
+      buf.putInt (myVsize);
+      buf.putInt (myBlockSize);
+      buf.putDouble (myStartTime);
+      buf.putDouble (myStopTime);
+      buf.putDouble (myScale);
+      buf.putDouble (myTimeStep);
+      buf.putInt (orderBytes.length);
+      buf.put (orderBytes);
+      buf.putInt (names.length);
+      for (int i=0; i<names.length; i++) {
+         buf.putInt (nameBytes[i].length);
+         buf.put (nameBytes[i]);
+         buf.putInt (sizes[i]);
+      }
+      buf.position (0);
+      buf.limit (len);
+      return buf;
+   }
+
+   private ByteBuffer allocateBlock() {
+      ByteBuffer buf = ByteBuffer.allocateDirect (blockBytes());
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      return buf;
+   }
+
+   /**
+    * Returns the number of bytes in each data block.
+    */
+   int blockBytes() {
+      return 8 + 8*myBlockSize*(myVsize+1);
+   }
+
+   private void writeFully (ByteBuffer buf, long pos) throws IOException {
+      while (buf.hasRemaining()) {
+         pos += myChannel.write (buf, pos);
+      }
+   }
+
+   /**
+    * Returns the vector size of the data written by this writer.
+    *
+    * @return data vector size
+    */
+   public int getVectorSize() {
+      return myVsize;
+   }
+
+   /**
+    * Returns the number of knots stored in each data block.
+    *
+    * @return number of knots per block
+    */
+   public int getBlockSize() {
+      return myBlockSize;
+   }
+
+   /**
+    * Returns the number of knots written so far.
+    *
+    * @return number of knots written
+    */
+   public long numKnots() {
+      return myNumKnots;
+   }
+
+   /**
+    * Writes a data knot.
+    *
+    * @param t knot time
+    * @param vals knot values. Must have a length of at least the vector
+    * size.
+    * @throws IOException if an I/O error occurred
+    */
+   public void write (double t, double[] vals) throws IOException {
+      if (myChannel == null) {
+         throw new IOException ("writer is closed");
+      }
+      int off = 8 + 8*myNumInBlock;
+      int stride = 8*myBlockSize;
+      myBuffer.putDouble (off, t);
+      for (int j=0; j<myVsize; j++) {
+         off += stride;
+         myBuffer.putDouble (off, vals[j]);
+      }
+      myNumInBlock++;
+      myNumKnots++;
+      if (myNumInBlock == myBlockSize) {
+         flushBlock();
+      }
+   }
+
+   /**
+    * Writes a data knot.
+    *
+    * @param knot knot to write
+    * @throws IOException if an I/O error occurred
+    */
+   public void write (NumericListKnot knot) throws IOException {
+      write (knot.t, knot.v.getBuffer());
+   }
+
+   /**
+    * Waits for any pending block write to complete, and returns the
+    * buffer that was written.
+    */
+   private ByteBuffer waitForPendingWrite() throws IOException {
+      if (myPendingWrite == null) {
+         return null;
+      }
+      try {
+         return myPendingWrite.get();
+      }
+      catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException)cause;
+         }
+         else {
+            throw new IOException ("error writing block", cause);
+         }
+      }
+      catch (InterruptedException e) {
+         throw new IOException ("interrupted while writing block", e);
+      }
+      finally {
+         myPendingWrite = null;
+      }
+   }
+
+   /**
+    * Hands the current block off to the background thread for writing, and
+    * starts filling the spare block.
+    */
+   private void flushBlock() throws IOException {
+      ByteBuffer buf = waitForPendingWrite();
+      if (buf != null) {
+         mySpareBuffer = buf;
+      }
+      final ByteBuffer block = myBuffer;
+      final long pos = myPosition;
+      block.putLong (0, myNumInBlock);
+      block.position (0);
+      block.limit (block.capacity());
+      myPendingWrite = myExecutor.submit (
+         new Callable<ByteBuffer>() {
+            public ByteBuffer call() throws IOException {
+               writeFully (block, pos);
+               return block;
+            }
+         });
+      myPosition += block.capacity();
+      myBuffer = mySpareBuffer;
+      mySpareBuffer = null;
+      myNumInBlock = 0;
+   }
+
+   /**
+    * Writes any partially filled block and closes the file. The writer
+    * cannot be used afterwards.
+    *
+    * @throws IOException if an I/O error occurred
+    */
+   public void close() throws IOException {
+      if (myChannel == null) {
+         return;
+      }
+      try {
+         if (myNumInBlock > 0) {
+            // zero unused entries so that file contents are deterministic
+            for (int j=0; j<=myVsize; j++) {
+               int off = 8 + 8*j*myBlockSize;
+               for (int k=myNumInBlock; k<myBlockSize; k++) {
+                  myBuffer.putDouble (off+8*k, 0);
+               }
+            }
+            flushBlock();
+         }
+         waitForPendingWrite();
+      }
+      finally {
+         myExecutor.shutdown();
+         myChannel.close();
+         myChannel = null;
+      }
+   }
+}
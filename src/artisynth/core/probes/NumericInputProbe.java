@@ -796,8 +796,8 @@ public class NumericInputProbe extends NumericProbeBase
             rtok.pushBack();
             NumericListKnot knot = new NumericListKnot (myVsize);
             knot.t = rtok.scanNumber();
-            for (int i=0; i<myVsize; i++) {
-               knot.v.set (i, rtok.scanNumber());
+            if (rtok.scanNumbers (knot.v.getBuffer(), 0, myVsize) != myVsize) {
+               throw new IOException ("expected a number, got " + rtok);
             }
             myNumericList.add (knot);
          }
@@ -32,6 +32,13 @@ public class NumericOutputProbe extends NumericProbeBase
    private boolean myShowHeader;
    private static boolean defaultShowHeader = true;
 
+   // if non-null, data is also written here as it is generated
+   private PrintWriter myStreamWriter;
+   private NumberFormat myStreamFmt;
+   private NumberFormat myStreamTimeFmt;
+   // if non-null, data is also written here in binary as it is generated
+   private BinaryProbeWriter myBinaryStreamWriter;
+
    public static PropertyList myProps =
       new PropertyList (NumericOutputProbe.class, NumericProbeBase.class);
 
@@ -189,7 +196,9 @@ public class NumericOutputProbe extends NumericProbeBase
 
    /**
     * When called (perhaps by the Artsynth timeline), causes information about
-    * this probe to be written to its attached file.
+    * this probe to be written to its attached file. If the file name ends
+    * with {@link BinaryProbeWriter#FILE_EXTENSION}, the data is written in
+    * binary using {@link #writeBinary writeBinary}.
     * 
     * @see #write
     */
@@ -200,9 +209,13 @@ public class NumericOutputProbe extends NumericProbeBase
             if (isAttachedFileRelative()) {
                file.getParentFile().mkdirs();
             }
+            System.out.println ("saving output probe to " + file.getName());
+            if (file.getName().endsWith (BinaryProbeWriter.FILE_EXTENSION)) {
+               writeBinary (file);
+               return;
+            }
             PrintWriter pw =
                new PrintWriter (new BufferedWriter (new FileWriter (file)));
-            System.out.println ("saving output probe to " + file.getName());
             if (myShowHeader) {
                write (pw, myFormatStr, myShowTime);
             }
@@ -218,27 +231,140 @@ public class NumericOutputProbe extends NumericProbeBase
       }
    }
 
+   private NumberFormat createTimeFormat() {
+      if (getUpdateInterval() < 1e-5) {
+         return new NumberFormat ("%12.9f");
+      }
+      else {
+         return new NumberFormat ("%9.6f");
+      }
+   }
+
+   private void writeKnot (
+      PrintWriter pw, NumericListKnot knot,
+      NumberFormat fmt, NumberFormat timeFmt) {
+      if (timeFmt != null) {
+         pw.print (timeFmt.format (knot.t) + " ");
+      }
+      pw.println (knot.v.toString (fmt));
+   }
+
    public void writeData (PrintWriter pw, String fmtStr, boolean showTime) {
       NumberFormat timeFmt = null;
       if (showTime) {
-         if (getUpdateInterval() < 1e-5) {
-            timeFmt = new NumberFormat ("%12.9f");
-         }
-         else {
-            timeFmt = new NumberFormat ("%9.6f");
-         }
+         timeFmt = createTimeFormat();
       }
       NumberFormat fmt = new NumberFormat (fmtStr);
       Iterator<NumericListKnot> it = myNumericList.iterator();
       while (it.hasNext()) {
-         NumericListKnot knot = it.next();
-         if (showTime) {
-            pw.print (timeFmt.format (knot.t) + " ");
+         writeKnot (pw, it.next(), fmt, timeFmt);
+      }
+   }
+
+   /**
+    * Sets a writer to which each data point is written as soon as it is
+    * generated by {@link #apply apply}, using the same format as {@link
+    * #writeData writeData} and the probe's current format and
+    * <code>showTime</code> settings. This allows the output of long
+    * simulations to be saved incrementally, and allows different probes, or
+    * copies of the same model, to stream to different files. Data continues
+    * to be stored in the probe as well. Specifying <code>null</code> disables
+    * streaming. The writer is not closed by this probe.
+    *
+    * @param pw writer for streaming data, or <code>null</code>
+    */
+   public void setStreamWriter (PrintWriter pw) {
+      myStreamWriter = pw;
+      if (pw != null) {
+         myStreamFmt = new NumberFormat (myFormatStr);
+         myStreamTimeFmt = (myShowTime ? createTimeFormat() : null);
+      }
+   }
+
+   /**
+    * Returns the writer, if any, to which data is streamed as it is
+    * generated.
+    *
+    * @return streaming writer, or <code>null</code>
+    * @see #setStreamWriter
+    */
+   public PrintWriter getStreamWriter() {
+      return myStreamWriter;
+   }
+
+   /**
+    * Creates a {@link BinaryProbeWriter} for writing this probe's data to a
+    * file. The header contains the probe's start time, stop time, scale,
+    * update interval and interpolation order, and one channel group for
+    * each output expression of the probe.
+    *
+    * @param file file to write
+    * @return binary writer for the file
+    * @throws IOException if an I/O error occurred
+    */
+   public BinaryProbeWriter createBinaryWriter (File file) throws IOException {
+      String[] names = new String[myDrivers.size()];
+      int[] sizes = new int[myDrivers.size()];
+      for (int i=0; i<names.length; i++) {
+         NumericProbeDriver driver = myDrivers.get(i);
+         names[i] = driver.getExpression();
+         sizes[i] = driver.getOutputSize();
+      }
+      return new BinaryProbeWriter (
+         file, names, sizes, getStartTime(), getStopTime(), myScale,
+         getUpdateInterval(), myInterpolation.getOrder());
+   }
+
+   /**
+    * Writes the data of this probe to a file using the binary columnar
+    * format described in {@link BinaryProbeWriter}.
+    *
+    * @param file file to write
+    * @throws IOException if an I/O error occurred
+    */
+   public void writeBinary (File file) throws IOException {
+      BinaryProbeWriter writer = createBinaryWriter (file);
+      try {
+         Iterator<NumericListKnot> it = myNumericList.iterator();
+         while (it.hasNext()) {
+            writer.write (it.next());
          }
-         pw.println (knot.v.toString (fmt));
+      }
+      finally {
+         writer.close();
       }
    }
 
+   /**
+    * Sets a binary writer to which each data point is written as soon as it
+    * is generated by {@link #apply apply}. This is the binary counterpart of
+    * {@link #setStreamWriter setStreamWriter}, and is much faster for probes
+    * with many channels. Specifying <code>null</code> disables binary
+    * streaming. The writer is not closed by this probe.
+    *
+    * @param writer writer for streaming data, or <code>null</code>
+    * @see #createBinaryWriter
+    */
+   public void setBinaryStreamWriter (BinaryProbeWriter writer) {
+      if (writer != null && writer.getVectorSize() != myVsize) {
+         throw new IllegalArgumentException (
+            "writer vector size "+writer.getVectorSize()+
+            " does not equal probe vector size "+myVsize);
+      }
+      myBinaryStreamWriter = writer;
+   }
+
+   /**
+    * Returns the binary writer, if any, to which data is streamed as it is
+    * generated.
+    *
+    * @return binary streaming writer, or <code>null</code>
+    * @see #setBinaryStreamWriter
+    */
+   public BinaryProbeWriter getBinaryStreamWriter() {
+      return myBinaryStreamWriter;
+   }
+
    public void apply (double t) {
       if (myPropList == null) {
          throw new ImproperStateException ("probe not initialized");
@@ -265,6 +391,18 @@ public class NumericOutputProbe extends NumericProbeBase
       knot.t = tloc;
       myNumericList.add (knot);
       myNumericList.clearAfter (knot);
+      if (myStreamWriter != null) {
+         writeKnot (myStreamWriter, knot, myStreamFmt, myStreamTimeFmt);
+      }
+      if (myBinaryStreamWriter != null) {
+         try {
+            myBinaryStreamWriter.write (knot);
+         }
+         catch (IOException e) {
+            throw new RuntimeException (
+               "error streaming data for probe " + getName(), e);
+         }
+      }
    }
 
    // public void display (Component c, Graphics g)
@@ -274,6 +412,8 @@ public class NumericOutputProbe extends NumericProbeBase
    public Object clone() throws CloneNotSupportedException {
       NumericOutputProbe probe = (NumericOutputProbe)super.clone();
       //probe.myNumericList.clear();
+      probe.myStreamWriter = null;
+      probe.myBinaryStreamWriter = null;
       return probe;
    }
 
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.matrix.VectorNd;
+import maspack.util.NumberFormat;
+import maspack.util.ReaderTokenizer;
+
+/**
+ * Converts numeric probe data between the text format read by {@link
+ * NumericInputProbe#read NumericInputProbe.read()} and the binary format
+ * written by {@link BinaryProbeWriter}. Text files must contain the probe
+ * header (start time, stop time, scale, interpolation order, vector size,
+ * and time step or <code>explicit</code>). Since text files do not record
+ * channel names, binary files created from text contain a single channel
+ * group named <code>"data"</code>.
+ */
+public class ProbeFileConverter {
+
+   private static double scanTime (ReaderTokenizer rtok) throws IOException {
+      rtok.nextToken();
+      if (!rtok.tokenIsNumber()) {
+         throw new IOException (
+            "expected time value; got "+rtok+", line "+rtok.lineno());
+      }
+      // integer times are in nanoseconds, as in Probe.scanTimeQuantity()
+      if (rtok.tokenIsInteger()) {
+         return 1.0e-9*rtok.lval;
+      }
+      else {
+         return rtok.nval;
+      }
+   }
+
+   /**
+    * Converts a text probe file into a binary probe file.
+    *
+    * @param textFile text file to read
+    * @param binFile binary file to write
+    * @return number of knots converted
+    * @throws IOException if an I/O or format error occurred
+    */
+   public static long textToBinary (File textFile, File binFile)
+      throws IOException {
+
+      ReaderTokenizer rtok =
+         new ReaderTokenizer (new BufferedReader (new FileReader (textFile)));
+      BinaryProbeWriter writer = null;
+      try {
+         rtok.commentChar ('#');
+         rtok.ordinaryChar ('/');
+         double startTime = scanTime (rtok);
+         double stopTime = scanTime (rtok);
+         double scale = rtok.scanNumber();
+         String orderName = rtok.scanWord();
+         Order order = Order.fromString (orderName);
+         if (order == null) {
+            if (orderName.equalsIgnoreCase ("linear")) {
+               order = Order.Linear;
+            }
+            else if (orderName.equalsIgnoreCase ("step")) {
+               order = Order.Step;
+            }
+            else if (orderName.equalsIgnoreCase ("cubic")) {
+               order = Order.Cubic;
+            }
+            else {
+               throw new IOException ("unknown interpolation order '" +
+                  orderName + "', line " + rtok.lineno());
+            }
+         }
+         int vsize = rtok.scanInteger();
+         double timeStep;
+         if (rtok.nextToken() == ReaderTokenizer.TT_NUMBER) {
+            timeStep = rtok.nval;
+         }
+         else if (rtok.ttype == ReaderTokenizer.TT_WORD &&
+                  rtok.sval.equals ("explicit")) {
+            timeStep = NumericInputProbe.EXPLICIT_TIME;
+         }
+         else {
+            throw new IOException (
+               "expecting either a time step or the keyword 'explicit', line "
+               + rtok.lineno());
+         }
+         writer = new BinaryProbeWriter (
+            binFile, new String[] { "data" }, new int[] { vsize },
+            startTime, stopTime, scale,
+            (timeStep == NumericInputProbe.EXPLICIT_TIME ? 0 : timeStep),
+            order);
+         double[] vals = new double[vsize];
+         double time = 0;
+         while (rtok.nextToken() != ReaderTokenizer.TT_EOF) {
+            double t;
+            if (timeStep == NumericInputProbe.EXPLICIT_TIME) {
+               if (rtok.ttype != ReaderTokenizer.TT_NUMBER) {
+                  throw new IOException (
+                     "Expected time value, line " + rtok.lineno());
+               }
+               t = rtok.nval;
+            }
+            else {
+               t = time;
+               time += timeStep;
+               rtok.pushBack();
+            }
+            if (rtok.scanNumbers (vals, vsize) != vsize) {
+               throw new IOException ("Unexpected token " + rtok.tokenName()
+                  + ", line " + rtok.lineno());
+            }
+            writer.write (t, vals);
+         }
+         return writer.numKnots();
+      }
+      finally {
+         rtok.close();
+         if (writer != null) {
+            writer.close();
+         }
+      }
+   }
+
+   /**
+    * Converts a binary probe file into a text probe file, with explicit
+    * knot times.
+    *
+    * @param binFile binary file to read
+    * @param textFile text file to write
+    * @param fmtStr printf-style format string for the data values (if
+    * <code>null</code> then "%g" is assumed, which produces full precision
+    * output)
+    * @return number of knots converted
+    * @throws IOException if an I/O error occurred
+    */
+   public static long binaryToText (
+      File binFile, File textFile, String fmtStr) throws IOException {
+
+      BinaryProbeReader reader = new BinaryProbeReader (binFile);
+      PrintWriter pw =
+         new PrintWriter (new BufferedWriter (new FileWriter (textFile)));
+      try {
+         NumberFormat fmt = new NumberFormat (fmtStr != null ? fmtStr : "%g");
+         int vsize = reader.getVectorSize();
+         pw.println (
+            reader.getStartTime() + " " + reader.getStopTime() + " " +
+            reader.getScale());
+         pw.println (
+            reader.getInterpolationOrder() + " " + vsize + " explicit");
+         VectorNd vec = new VectorNd (vsize);
+         for (long k=0; k<reader.numKnots(); k++) {
+            double t = reader.getKnot (vec.getBuffer(), k);
+            pw.println (fmt.format (t) + " " + vec.toString (fmt));
+         }
+         return reader.numKnots();
+      }
+      finally {
+         pw.close();
+         reader.close();
+      }
+   }
+
+   private static boolean isBinaryFile (File file) {
+      return file.getName().endsWith (BinaryProbeWriter.FILE_EXTENSION);
+   }
+
+   /**
+    * Converts the file given by the first argument into the file given by
+    * the second, with the direction of conversion determined by which file
+    * name ends with {@link BinaryProbeWriter#FILE_EXTENSION}.
+    */
+   public static void main (String[] args) {
+      String fmtStr = null;
+      int argc = args.length;
+      if (argc == 4 && args[0].equals ("-format")) {
+         fmtStr = args[1];
+      }
+      else if (argc != 2) {
+         System.out.println (
+            "Usage: java "+ProbeFileConverter.class.getName()+
+            " [-format <fmtStr>] <inputFile> <outputFile>");
+         System.out.println (
+            "Converts between text and binary ("+
+            BinaryProbeWriter.FILE_EXTENSION+") numeric probe files");
+         System.exit (1);
+      }
+      File inFile = new File (args[argc-2]);
+      File outFile = new File (args[argc-1]);
+      try {
+         long num;
+         if (isBinaryFile (inFile) && !isBinaryFile (outFile)) {
+            num = binaryToText (inFile, outFile, fmtStr);
+         }
+         else if (!isBinaryFile (inFile) && isBinaryFile (outFile)) {
+            num = textToBinary (inFile, outFile);
+         }
+         else {
+            System.out.println (
+               "Error: exactly one file name must end with " +
+               BinaryProbeWriter.FILE_EXTENSION);
+            System.exit (1);
+            return;
+         }
+         System.out.println ("converted " + num + " knots");
+      }
+      catch (IOException e) {
+         System.out.println ("Error: " + e.getMessage());
+         System.exit (1);
+      }
+   }
+}
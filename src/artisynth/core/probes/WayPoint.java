@@ -13,6 +13,9 @@ import artisynth.core.workspace.RootModel;
 public class WayPoint {
    protected double myTime;
    protected CompositeState myState;
+   // compressed state, used instead of myState when a store is set
+   protected WayPointStateStore myStore;
+   protected WayPointStateStore.Entry myEntry;
    protected boolean myValidP;
    protected boolean myBreakPointP;
 
@@ -42,26 +45,94 @@ public class WayPoint {
       myValidP = valid;
    }
 
+   /**
+    * Returns the state of this way point. If the state is held in a {@link
+    * WayPointStateStore}, it is reconstructed, and a new copy is returned
+    * for each call.
+    *
+    * @return state of this way point, or <code>null</code> if there is none
+    */
    public CompositeState getState() {
-      return myState;
+      if (myEntry != null) {
+         return myStore.restore (myEntry);
+      }
+      else {
+         return myState;
+      }
    }
 
    public void setState (RootModel model) {
-      myState = (CompositeState)model.createState(null);
+      CompositeState state = (CompositeState)model.createState(null);
       if (myTime == 0) {
-         model.getInitialState (myState, null);
+         model.getInitialState (state, null);
       }
       else {
-         model.getState (myState);
+         model.getState (state);
       }
-      setValid (true);
+      setState (state);
    }
    
    public void setState (CompositeState state) {
-      myState = state;
+      releaseEntry();
+      if (myStore != null && state != null) {
+         myEntry = myStore.store (state);
+         myState = null;
+      }
+      else {
+         myEntry = null;
+         myState = state;
+      }
       setValid (true);
    }
 
+   /**
+    * Returns the store used to hold the state of this way point, if any.
+    *
+    * @return state store, or <code>null</code>
+    */
+   public WayPointStateStore getStateStore() {
+      return myStore;
+   }
+
+   /**
+    * Sets a store to be used to hold the state of this way point. Any
+    * existing state is moved into the new store, or is held directly by
+    * this way point if <code>store</code> is <code>null</code>.
+    *
+    * @param store state store, or <code>null</code>
+    */
+   public void setStateStore (WayPointStateStore store) {
+      if (store != myStore) {
+         CompositeState state = getState();
+         boolean valid = isValid();
+         releaseEntry();
+         myStore = store;
+         myEntry = null;
+         myState = null;
+         if (state != null) {
+            setState (state);
+            setValid (valid);
+         }
+      }
+   }
+
+   /**
+    * Discards the state of this way point, releasing its storage in the
+    * state store if there is one, and marks the way point as invalid.
+    */
+   public void clearState() {
+      releaseEntry();
+      myState = null;
+      setValid (false);
+   }
+
+   private void releaseEntry() {
+      if (myEntry != null) {
+         myStore.release (myEntry);
+         myEntry = null;
+      }
+   }
+
    public boolean isBreakPoint() {
       return myBreakPointP;
    }
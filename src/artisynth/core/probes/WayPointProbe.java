@@ -19,6 +19,7 @@ public class WayPointProbe extends OutputProbe {
    protected RootModel myRootModel;
    protected WayPoint myWay0;
    protected boolean myCheckStateP = false;
+   protected WayPointStateStore myStateStore;
 
    public WayPointProbe() {
       setStartTime (0);
@@ -44,6 +45,39 @@ public class WayPointProbe extends OutputProbe {
       return myCheckStateP;
    }
 
+   /**
+    * Sets a store used to hold the states of this probe's way points in
+    * compressed form, instead of keeping a complete copy of each state. This
+    * allows many more way points to be kept for long simulations, at the
+    * cost of reconstructing each state when it is requested. The states of
+    * existing way points are moved into the new store. The probe takes
+    * ownership of the store, and any previous store is disposed. Specifying
+    * <code>null</code> causes complete copies to be kept again.
+    *
+    * @param store state store, or <code>null</code>
+    */
+   public void setStateStore (WayPointStateStore store) {
+      if (store != myStateStore) {
+         for (WayPoint way : myWayPoints) {
+            way.setStateStore (store);
+         }
+         if (myStateStore != null) {
+            myStateStore.dispose();
+         }
+         myStateStore = store;
+      }
+   }
+
+   /**
+    * Returns the store used to hold the states of this probe's way points,
+    * if any.
+    *
+    * @return state store, or <code>null</code>
+    */
+   public WayPointStateStore getStateStore() {
+      return myStateStore;
+   }
+
    /**
     * Adds a WayPoint to this probe, and returns any WayPoint that previously
     * occupied the same time location.
@@ -53,6 +87,7 @@ public class WayPointProbe extends OutputProbe {
     * @return previous WayPoint with the same time, if any
     */
    public WayPoint add (WayPoint newWay) {
+      newWay.setStateStore (myStateStore);
       ListIterator<WayPoint> it = myWayPoints.listIterator();
       while (it.hasNext()) {
          WayPoint way = it.next();
@@ -82,18 +117,40 @@ public class WayPointProbe extends OutputProbe {
       return myWayPoints.iterator();
    }
 
+   /**
+    * Removes a way point from this probe. The state of the removed way point
+    * is discarded.
+    *
+    * @param way way point to remove
+    * @return <code>true</code> if the way point was present and removed
+    */
    public boolean remove (WayPoint way) {
       if (way == myWay0) {
          return false;
       }
+      else if (myWayPoints.remove (way)) {
+         way.clearState();
+         return true;
+      }
       else {
-         return myWayPoints.remove (way);
+         return false;
       }
    }
 
+   /**
+    * Removes all way points except the one at time 0. The states of the
+    * removed way points are discarded, and the state store, if any, is
+    * compacted.
+    */
    public void clear() {
+      for (WayPoint way : myWayPoints) {
+         if (way != myWay0) {
+            way.clearState();
+         }
+      }
       myWayPoints.clear();
       myWayPoints.add (myWay0);
+      compactStateStore();
    }
 
    public double nextEventTime (double t) {
@@ -291,6 +348,7 @@ public class WayPointProbe extends OutputProbe {
             way.setValid (false);
          }
       }
+      compactStateStore();
    }
 
    /**
@@ -302,6 +360,18 @@ public class WayPointProbe extends OutputProbe {
          WayPoint way = it.next();
          way.setValid (false);
       }
+      compactStateStore();
+   }
+
+   /**
+    * Reclaims the space of states replaced since the state store was last
+    * compacted. Invalid way points keep their states until they are
+    * replaced, since the state at time 0 may still be used.
+    */
+   private void compactStateStore() {
+      if (myStateStore != null) {
+         myStateStore.compact();
+      }
    }
    
    /**
@@ -400,6 +470,7 @@ public class WayPointProbe extends OutputProbe {
                   }
                   CompositeState cs = (CompositeState)myRootModel.createState (null);
                   cs.readBinary (dis);
+                  way.setStateStore (myStateStore);
                   way.setState (cs);
                }
                dis.close ();
@@ -443,6 +514,7 @@ public class WayPointProbe extends OutputProbe {
             double time = scanTimeQuantity(rtok);
             if (time != 0) {
                WayPoint newWay = new WayPoint (time);
+               newWay.setStateStore (myStateStore);
                myWayPoints.addLast (newWay);
                newWay.setValid (false);
 
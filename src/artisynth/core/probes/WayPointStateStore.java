@@ -0,0 +1,872 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import artisynth.core.modelbase.ComponentState;
+import artisynth.core.modelbase.CompositeState;
+import artisynth.core.modelbase.NumericState;
+import maspack.util.DynamicIntArray;
+import maspack.util.InternalErrorException;
+
+/**
+ * Compressed storage for the states of {@link WayPoint}s. Instead of keeping
+ * a complete copy of each state, the store keeps a full <i>key frame</i>
+ * every <code>K</code> states, where <code>K</code> is the key frame
+ * interval, and stores each state in between as a delta with respect to its
+ * key frame. States are reconstructed on demand when they are requested.
+ *
+ * <p>The numeric contents of a state are stored as follows: the integer and
+ * double values of all its {@link NumericState} components are collected
+ * into a single array of integers and a single array of longs (containing
+ * the raw bits of the doubles). For a delta, these are XORed with the values
+ * of the key frame, so that bits which have not changed become zero. The
+ * bytes of the values are then arranged by significance (i.e., all the most
+ * significant bytes first) and compressed using a {@link Deflater}. A new key
+ * frame is started whenever the structure of the state changes, such as
+ * when the number of active contacts changes.
+ *
+ * <p>Object references contained in a state, together with component states
+ * which are neither numeric nor composite, are not compressed and are
+ * retained in memory.
+ *
+ * <p>Optionally, the compressed data can be spilled to a file specified by
+ * {@link #setSpillFile}, in which case it is read back into a reusable
+ * buffer when needed. Entries which are no longer needed should be passed to {@link
+ * #release}, so that their space in the file can be reclaimed by {@link
+ * #compact}. The file is deleted when the store is disposed.
+ *
+ * <p>A store is not thread safe.
+ */
+public class WayPointStateStore {
+
+   /**
+    * Default key frame interval for new stores.
+    */
+   public static final int DEFAULT_KEY_FRAME_INTERVAL = 20;
+
+   // layout codes describing the kind of each component state
+   private static final int NULL_STATE = 0;
+   private static final int COMPOSITE_STATE = 1;
+   private static final int NUMERIC_STATE = 2;
+   private static final int OTHER_STATE = 3;
+
+   private int myKeyFrameInterval = DEFAULT_KEY_FRAME_INTERVAL;
+   private int myCompressionLevel = Deflater.BEST_SPEED;
+
+   // current key frame used for storing new states
+   private Entry myKeyFrame;
+   private int myNumSinceKeyFrame;
+   private int[] myKeyInts;
+   private long[] myKeyLongs;
+
+   // most recently decoded key frame, used when restoring states
+   private Entry myCachedKeyFrame;
+   private int[] myCachedInts;
+   private long[] myCachedLongs;
+
+   // work storage
+   private DynamicIntArray myCodes = new DynamicIntArray();
+   private ArrayList<Class<?>> myClasses = new ArrayList<Class<?>>();
+   private ArrayList<Object> myObjects = new ArrayList<Object>();
+   private int[] myInts = new int[0];
+   private long[] myLongs = new long[0];
+   private int myNumInts;
+   private int myNumLongs;
+   private byte[] myBytes = new byte[0];
+   private byte[] myZipBytes = new byte[0];
+   // wraps myZipBytes for reading and writing the spill file
+   private ByteBuffer myZipBuffer = ByteBuffer.wrap (myZipBytes);
+   private Deflater myDeflater;
+   private Inflater myInflater = new Inflater();
+
+   // spill file information
+   private File mySpillFile;
+   private RandomAccessFile mySpillRaf;
+   private FileChannel mySpillChannel;
+   private long mySpillSize;
+   // entries in the spill file, in order of their offsets
+   private ArrayList<Entry> mySpilledEntries = new ArrayList<Entry>();
+   // size of the spilled data of released entries
+   private long myReleasedSize;
+
+   // released data size above which release() compacts the spill file, if
+   // the released data is also more than half the file
+   private static final long MIN_COMPACT_SIZE = 1 << 20;
+
+   // statistics
+   private int myNumStored;
+   private int myNumKeyFrames;
+   private long myUncompressedSize;
+   private long myCompressedSize;
+
+   /**
+    * Describes the structure of a state, so that it can be reconstructed.
+    */
+   static class Layout {
+      int[] myCodes;
+      Class<?>[] myClasses;
+      int myNumInts;
+      int myNumLongs;
+
+      Layout (
+         DynamicIntArray codes, ArrayList<Class<?>> classes,
+         int numInts, int numLongs) {
+         myCodes = Arrays.copyOf (codes.getArray(), codes.size());
+         myClasses = classes.toArray (new Class<?>[0]);
+         myNumInts = numInts;
+         myNumLongs = numLongs;
+      }
+
+      boolean matches (
+         DynamicIntArray codes, ArrayList<Class<?>> classes,
+         int numInts, int numLongs) {
+         if (numInts != myNumInts || numLongs != myNumLongs ||
+             codes.size() != myCodes.length ||
+             classes.size() != myClasses.length) {
+            return false;
+         }
+         int[] buf = codes.getArray();
+         for (int i=0; i<myCodes.length; i++) {
+            if (buf[i] != myCodes[i]) {
+               return false;
+            }
+         }
+         for (int i=0; i<myClasses.length; i++) {
+            if (classes.get(i) != myClasses[i]) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
+   /**
+    * A state stored within a WayPointStateStore.
+    */
+   public static class Entry {
+      Layout myLayout;
+      Entry myKeyFrame;     // key frame for a delta, or null
+      Object[] myObjects;   // uncompressed objects
+      byte[] myData;        // compressed data, or null if spilled
+      long myOffset;        // location of spilled data
+      int myLength;         // length of compressed data
+      boolean myReleasedP;  // entry is no longer needed by its owner
+
+      /**
+       * Queries whether this entry is a key frame.
+       *
+       * @return <code>true</code> if this entry is a key frame
+       */
+      public boolean isKeyFrame() {
+         return myKeyFrame == null;
+      }
+
+      /**
+       * Returns the size of the compressed data for this entry.
+       *
+       * @return compressed data size, in bytes
+       */
+      public int getCompressedSize() {
+         return myLength;
+      }
+
+      /**
+       * Returns the size of the numeric data for this entry before
+       * compression.
+       *
+       * @return uncompressed data size, in bytes
+       */
+      public int getUncompressedSize() {
+         return 4*myLayout.myNumInts + 8*myLayout.myNumLongs;
+      }
+   }
+
+   /**
+    * Creates a new store with the default key frame interval.
+    */
+   public WayPointStateStore() {
+      this (DEFAULT_KEY_FRAME_INTERVAL);
+   }
+
+   /**
+    * Creates a new store with a specified key frame interval.
+    *
+    * @param interval key frame interval
+    */
+   public WayPointStateStore (int interval) {
+      setKeyFrameInterval (interval);
+      setCompressionLevel (Deflater.BEST_SPEED);
+   }
+
+   /**
+    * Sets the key frame interval for this store. A value of 1 means that
+    * every state is stored as a key frame.
+    *
+    * @param interval key frame interval (must be at least 1)
+    */
+   public void setKeyFrameInterval (int interval) {
+      if (interval < 1) {
+         throw new IllegalArgumentException (
+            "key frame interval must be at least 1");
+      }
+      myKeyFrameInterval = interval;
+   }
+
+   /**
+    * Returns the key frame interval for this store.
+    *
+    * @return key frame interval
+    */
+   public int getKeyFrameInterval() {
+      return myKeyFrameInterval;
+   }
+
+   /**
+    * Sets the compression level used by the {@link Deflater}, with 0 giving
+    * no compression and 9 giving the best compression. The default value is
+    * {@link Deflater#BEST_SPEED}.
+    *
+    * @param level compression level
+    */
+   public void setCompressionLevel (int level) {
+      if (level < 0 || level > 9) {
+         throw new IllegalArgumentException (
+            "compression level must be in the range [0,9]");
+      }
+      if (myDeflater != null) {
+         myDeflater.end();
+      }
+      myDeflater = new Deflater (level);
+      myCompressionLevel = level;
+   }
+
+   /**
+    * Returns the compression level used by the {@link Deflater}.
+    *
+    * @return compression level
+    */
+   public int getCompressionLevel() {
+      return myCompressionLevel;
+   }
+
+   /**
+    * Sets a file to which the compressed data of stored states is written,
+    * instead of being kept in memory. Any existing contents of the file are
+    * discarded. This method may only be called before any states have been
+    * stored.
+    *
+    * @param file spill file, or <code>null</code> to keep data in memory
+    * @throws IOException if the file cannot be opened
+    */
+   public void setSpillFile (File file) throws IOException {
+      if (myNumStored > 0) {
+         throw new IllegalStateException (
+            "spill file must be set before any states are stored");
+      }
+      closeSpillFile();
+      if (file != null) {
+         mySpillRaf = new RandomAccessFile (file, "rw");
+         mySpillRaf.setLength (0);
+         mySpillChannel = mySpillRaf.getChannel();
+         mySpillSize = 0;
+      }
+      mySpillFile = file;
+   }
+
+   private void closeSpillFile() {
+      if (mySpillRaf != null) {
+         try {
+            mySpillRaf.close();
+         }
+         catch (IOException e) {
+            // ignore
+         }
+         mySpillRaf = null;
+         mySpillChannel = null;
+      }
+   }
+
+   /**
+    * Returns the current spill file, if any.
+    *
+    * @return spill file, or <code>null</code>
+    */
+   public File getSpillFile() {
+      return mySpillFile;
+   }
+
+   /**
+    * Returns the number of states that have been stored.
+    *
+    * @return number of stored states
+    */
+   public int numStored() {
+      return myNumStored;
+   }
+
+   /**
+    * Returns the number of states that have been stored as key frames.
+    *
+    * @return number of key frames
+    */
+   public int numKeyFrames() {
+      return myNumKeyFrames;
+   }
+
+   /**
+    * Returns the total size of the numeric data for all stored states
+    * before compression.
+    *
+    * @return total uncompressed size, in bytes
+    */
+   public long getUncompressedSize() {
+      return myUncompressedSize;
+   }
+
+   /**
+    * Returns the total size of the compressed data for all stored states.
+    *
+    * @return total compressed size, in bytes
+    */
+   public long getCompressedSize() {
+      return myCompressedSize;
+   }
+
+   /**
+    * Causes the next stored state to be a key frame.
+    */
+   public void startKeyFrame() {
+      myKeyFrame = null;
+      myKeyInts = null;
+      myKeyLongs = null;
+   }
+
+   private void addInt (int val) {
+      if (myNumInts == myInts.length) {
+         myInts = Arrays.copyOf (myInts, Math.max (16, 2*myNumInts));
+      }
+      myInts[myNumInts++] = val;
+   }
+
+   private void ensureLongCapacity (int cap) {
+      if (cap > myLongs.length) {
+         myLongs = Arrays.copyOf (myLongs, Math.max (cap, 2*myLongs.length));
+      }
+   }
+
+   private void collect (ComponentState state) {
+      if (state == null) {
+         myCodes.add (NULL_STATE);
+      }
+      else if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         myCodes.add (COMPOSITE_STATE);
+         myClasses.add (state.getClass());
+         myCodes.add (cstate.numSubStates());
+         myCodes.add (cstate.numComponents());
+         if (cstate.numComponents() > 0) {
+            myObjects.addAll (cstate.getComponents());
+         }
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            collect (cstate.getState (i));
+         }
+      }
+      else if (state instanceof NumericState) {
+         NumericState nstate = (NumericState)state;
+         myCodes.add (NUMERIC_STATE);
+         myClasses.add (state.getClass());
+         int zsize = nstate.zsize();
+         int dsize = nstate.dsize();
+         int osize = nstate.osize();
+         myCodes.add (zsize);
+         myCodes.add (dsize);
+         myCodes.add (osize);
+         int[] zbuf = nstate.zbuffer();
+         for (int i=0; i<zsize; i++) {
+            addInt (zbuf[i]);
+         }
+         double[] dbuf = nstate.dbuffer();
+         ensureLongCapacity (myNumLongs+dsize);
+         for (int i=0; i<dsize; i++) {
+            myLongs[myNumLongs++] = Double.doubleToRawLongBits (dbuf[i]);
+         }
+         Object[] obuf = nstate.obuffer();
+         for (int i=0; i<osize; i++) {
+            myObjects.add (obuf[i]);
+         }
+      }
+      else {
+         myCodes.add (OTHER_STATE);
+         myObjects.add (state.duplicate());
+      }
+   }
+
+   /**
+    * Arranges the bytes of the values by significance, so that the (mostly
+    * zero) high order bytes of the deltas are adjacent.
+    */
+   private int shuffle (
+      byte[] bytes, int[] ints, int numi, long[] longs, int numl) {
+      int k = 0;
+      for (int b=24; b>=0; b-=8) {
+         for (int i=0; i<numi; i++) {
+            bytes[k++] = (byte)(ints[i] >>> b);
+         }
+      }
+      for (int b=56; b>=0; b-=8) {
+         for (int i=0; i<numl; i++) {
+            bytes[k++] = (byte)(longs[i] >>> b);
+         }
+      }
+      return k;
+   }
+
+   private void unshuffle (
+      byte[] bytes, int[] ints, int numi, long[] longs, int numl) {
+      int k = 0;
+      for (int i=0; i<numi; i++) {
+         ints[i] = 0;
+      }
+      for (int b=24; b>=0; b-=8) {
+         for (int i=0; i<numi; i++) {
+            ints[i] |= (bytes[k++] & 0xff) << b;
+         }
+      }
+      for (int i=0; i<numl; i++) {
+         longs[i] = 0;
+      }
+      for (int b=56; b>=0; b-=8) {
+         for (int i=0; i<numl; i++) {
+            longs[i] |= (bytes[k++] & 0xffL) << b;
+         }
+      }
+   }
+
+   private int compress (int numBytes) {
+      myDeflater.reset();
+      myDeflater.setInput (myBytes, 0, numBytes);
+      myDeflater.finish();
+      int len = 0;
+      while (!myDeflater.finished()) {
+         if (len == myZipBytes.length) {
+            myZipBytes = Arrays.copyOf (
+               myZipBytes, Math.max (1024, 2*myZipBytes.length));
+         }
+         len += myDeflater.deflate (myZipBytes, len, myZipBytes.length-len);
+      }
+      return len;
+   }
+
+   /**
+    * Returns a buffer for the first <code>len</code> bytes of myZipBytes,
+    * growing myZipBytes if necessary.
+    */
+   private ByteBuffer getZipBuffer (int len) {
+      if (myZipBytes.length < len) {
+         myZipBytes = new byte[len];
+      }
+      if (myZipBuffer.array() != myZipBytes) {
+         myZipBuffer = ByteBuffer.wrap (myZipBytes);
+      }
+      myZipBuffer.clear();
+      myZipBuffer.limit (len);
+      return myZipBuffer;
+   }
+
+   private void readFully (ByteBuffer buf, long pos) throws IOException {
+      while (buf.hasRemaining()) {
+         int n = mySpillChannel.read (buf, pos);
+         if (n < 0) {
+            throw new IOException ("unexpected end of file");
+         }
+         pos += n;
+      }
+   }
+
+   private void writeData (Entry entry, int len) throws IOException {
+      entry.myLength = len;
+      if (mySpillFile != null) {
+         ByteBuffer buf = getZipBuffer (len);
+         long off = mySpillSize;
+         while (buf.hasRemaining()) {
+            off += mySpillChannel.write (buf, off);
+         }
+         entry.myOffset = mySpillSize;
+         mySpillSize = off;
+         mySpilledEntries.add (entry);
+      }
+      else {
+         entry.myData = Arrays.copyOf (myZipBytes, len);
+      }
+   }
+
+   private byte[] readData (Entry entry) throws IOException {
+      if (entry.myData != null) {
+         return entry.myData;
+      }
+      if (mySpillChannel == null) {
+         throw new IllegalStateException ("store has been disposed");
+      }
+      // read into a reusable buffer rather than mapping the file, since
+      // mapped buffers cannot be unmapped explicitly and would keep the file
+      // mapped while it is truncated by compact() or deleted by dispose()
+      readFully (getZipBuffer (entry.myLength), entry.myOffset);
+      return myZipBytes;
+   }
+
+   /**
+    * Compresses a state and adds it to this store. The state is not
+    * referenced by the store and may be reused after this call.
+    *
+    * @param state state to store
+    * @return entry for the stored state
+    */
+   public Entry store (CompositeState state) {
+      myCodes.clear();
+      myClasses.clear();
+      myObjects.clear();
+      myNumInts = 0;
+      myNumLongs = 0;
+      collect (state);
+
+      Entry entry = new Entry();
+      if (myKeyFrame != null &&
+          myNumSinceKeyFrame < myKeyFrameInterval &&
+          myKeyFrame.myLayout.matches (
+             myCodes, myClasses, myNumInts, myNumLongs)) {
+         entry.myKeyFrame = myKeyFrame;
+         entry.myLayout = myKeyFrame.myLayout;
+         for (int i=0; i<myNumInts; i++) {
+            myInts[i] ^= myKeyInts[i];
+         }
+         for (int i=0; i<myNumLongs; i++) {
+            myLongs[i] ^= myKeyLongs[i];
+         }
+         myNumSinceKeyFrame++;
+         Object[] keyObjs = myKeyFrame.myObjects;
+         if (keyObjs.length == myObjects.size()) {
+            // share the key frame's objects if they are the same
+            int i = 0;
+            while (i < keyObjs.length && keyObjs[i] == myObjects.get(i)) {
+               i++;
+            }
+            if (i == keyObjs.length) {
+               entry.myObjects = keyObjs;
+            }
+         }
+      }
+      else {
+         entry.myLayout = new Layout (
+            myCodes, myClasses, myNumInts, myNumLongs);
+         myKeyFrame = entry;
+         myKeyInts = Arrays.copyOf (myInts, myNumInts);
+         myKeyLongs = Arrays.copyOf (myLongs, myNumLongs);
+         myNumSinceKeyFrame = 1;
+         myNumKeyFrames++;
+      }
+      if (entry.myObjects == null) {
+         entry.myObjects = myObjects.toArray();
+      }
+      int numBytes = 4*myNumInts + 8*myNumLongs;
+      if (myBytes.length < numBytes) {
+         myBytes = new byte[numBytes];
+      }
+      shuffle (myBytes, myInts, myNumInts, myLongs, myNumLongs);
+      int len = compress (numBytes);
+      try {
+         writeData (entry, len);
+      }
+      catch (IOException e) {
+         throw new InternalErrorException (
+            "Error writing spill file "+mySpillFile+": "+e.getMessage());
+      }
+      myNumStored++;
+      myUncompressedSize += numBytes;
+      myCompressedSize += len;
+      return entry;
+   }
+
+   private void decode (Entry entry, int[] ints, long[] longs) {
+      Layout layout = entry.myLayout;
+      int numBytes = 4*layout.myNumInts + 8*layout.myNumLongs;
+      if (myBytes.length < numBytes) {
+         myBytes = new byte[numBytes];
+      }
+      try {
+         byte[] data = readData (entry);
+         myInflater.reset();
+         myInflater.setInput (data, 0, entry.myLength);
+         int len = 0;
+         while (len < numBytes) {
+            int n = myInflater.inflate (myBytes, len, numBytes-len);
+            if (n == 0 && (myInflater.finished() || myInflater.needsInput())) {
+               break;
+            }
+            len += n;
+         }
+         if (len != numBytes) {
+            throw new InternalErrorException (
+               "compressed state has "+len+" bytes, expected "+numBytes);
+         }
+      }
+      catch (IOException e) {
+         throw new InternalErrorException (
+            "Error reading spill file "+mySpillFile+": "+e.getMessage());
+      }
+      catch (DataFormatException e) {
+         throw new InternalErrorException (
+            "Corrupted compressed state: "+e.getMessage());
+      }
+      unshuffle (myBytes, ints, layout.myNumInts, longs, layout.myNumLongs);
+   }
+
+   private void decodeKeyFrame (Entry key) {
+      if (key == myCachedKeyFrame) {
+         return;
+      }
+      Layout layout = key.myLayout;
+      myCachedInts = new int[layout.myNumInts];
+      myCachedLongs = new long[layout.myNumLongs];
+      decode (key, myCachedInts, myCachedLongs);
+      myCachedKeyFrame = key;
+   }
+
+   private int myIntIdx;
+   private int myLongIdx;
+   private int myObjIdx;
+   private int myCodeIdx;
+   private int myClassIdx;
+
+   private ComponentState createState (Layout layout) {
+      Class<?> cls = layout.myClasses[myClassIdx++];
+      try {
+         return (ComponentState)cls.getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException e) {
+         throw new InternalErrorException (
+            "Class "+cls.getName()+" cannot be instantiated: " + e);
+      }
+   }
+
+   private ComponentState build (Layout layout, Object[] objs) {
+      int code = layout.myCodes[myCodeIdx++];
+      switch (code) {
+         case NULL_STATE: {
+            return null;
+         }
+         case COMPOSITE_STATE: {
+            CompositeState cstate = (CompositeState)createState (layout);
+            int numSub = layout.myCodes[myCodeIdx++];
+            int numComps = layout.myCodes[myCodeIdx++];
+            for (int i=0; i<numComps; i++) {
+               cstate.addComponent (objs[myObjIdx++]);
+            }
+            for (int i=0; i<numSub; i++) {
+               cstate.addState (build (layout, objs));
+            }
+            return cstate;
+         }
+         case NUMERIC_STATE: {
+            NumericState nstate = (NumericState)createState (layout);
+            int zsize = layout.myCodes[myCodeIdx++];
+            int dsize = layout.myCodes[myCodeIdx++];
+            int osize = layout.myCodes[myCodeIdx++];
+            nstate.zsetSize (zsize);
+            System.arraycopy (myInts, myIntIdx, nstate.zbuffer(), 0, zsize);
+            myIntIdx += zsize;
+            nstate.dsetSize (dsize);
+            double[] dbuf = nstate.dbuffer();
+            for (int i=0; i<dsize; i++) {
+               dbuf[i] = Double.longBitsToDouble (myLongs[myLongIdx++]);
+            }
+            for (int i=0; i<osize; i++) {
+               nstate.oput (objs[myObjIdx++]);
+            }
+            return nstate;
+         }
+         case OTHER_STATE: {
+            return ((ComponentState)objs[myObjIdx++]).duplicate();
+         }
+         default: {
+            throw new InternalErrorException ("Unknown state code "+code);
+         }
+      }
+   }
+
+   /**
+    * Reconstructs a state stored in this store. Restoring states in time
+    * order is efficient, since the most recently used key frame is cached.
+    *
+    * @param entry entry for the state
+    * @return new copy of the stored state
+    */
+   public CompositeState restore (Entry entry) {
+      if (entry.myReleasedP) {
+         throw new IllegalStateException ("entry has been released");
+      }
+      Layout layout = entry.myLayout;
+      if (myInts.length < layout.myNumInts) {
+         myInts = new int[layout.myNumInts];
+      }
+      ensureLongCapacity (layout.myNumLongs);
+      if (entry.myKeyFrame == null) {
+         decode (entry, myInts, myLongs);
+      }
+      else {
+         int[] keyInts;
+         long[] keyLongs;
+         if (entry.myKeyFrame == myKeyFrame) {
+            keyInts = myKeyInts;
+            keyLongs = myKeyLongs;
+         }
+         else {
+            decodeKeyFrame (entry.myKeyFrame);
+            keyInts = myCachedInts;
+            keyLongs = myCachedLongs;
+         }
+         decode (entry, myInts, myLongs);
+         for (int i=0; i<layout.myNumInts; i++) {
+            myInts[i] ^= keyInts[i];
+         }
+         for (int i=0; i<layout.myNumLongs; i++) {
+            myLongs[i] ^= keyLongs[i];
+         }
+      }
+      myIntIdx = 0;
+      myLongIdx = 0;
+      myObjIdx = 0;
+      myCodeIdx = 0;
+      myClassIdx = 0;
+      return (CompositeState)build (layout, entry.myObjects);
+   }
+
+   /**
+    * Indicates that an entry is no longer needed, so that its data can be
+    * removed from the spill file by {@link #compact}. The data is retained
+    * while the entry is still the key frame for other entries. The entry
+    * may not be restored after this call. If the released data makes up
+    * more than half of a sufficiently large spill file, the file is
+    * compacted.
+    *
+    * @param entry entry to release
+    */
+   public void release (Entry entry) {
+      if (entry.myReleasedP) {
+         return;
+      }
+      entry.myReleasedP = true;
+      if (entry.myData == null && mySpillChannel != null) {
+         myReleasedSize += entry.myLength;
+         if (myReleasedSize > MIN_COMPACT_SIZE &&
+             2*myReleasedSize > mySpillSize) {
+            compact();
+         }
+      }
+   }
+
+   /**
+    * Removes the data of released entries from the spill file, moving the
+    * data of the remaining entries toward the start of the file and
+    * truncating it. If all entries have been released, the file is
+    * truncated to zero length. Does nothing if there is no spill file.
+    */
+   public void compact() {
+      if (mySpillChannel == null || myReleasedSize == 0) {
+         return;
+      }
+      // an entry is needed if it has not been released, or if it is the key
+      // frame of a needed entry or of entries yet to be stored
+      IdentityHashMap<Entry,Entry> keyFrames =
+         new IdentityHashMap<Entry,Entry>();
+      if (myKeyFrame != null) {
+         keyFrames.put (myKeyFrame, myKeyFrame);
+      }
+      for (Entry entry : mySpilledEntries) {
+         if (!entry.myReleasedP && entry.myKeyFrame != null) {
+            keyFrames.put (entry.myKeyFrame, entry.myKeyFrame);
+         }
+      }
+      // entries are in order of their offsets, so moving each one down to
+      // the end of the previous one never overwrites data not yet moved
+      ArrayList<Entry> kept = new ArrayList<Entry>();
+      long off = 0;
+      myReleasedSize = 0;
+      try {
+         for (Entry entry : mySpilledEntries) {
+            if (entry.myReleasedP && !keyFrames.containsKey (entry)) {
+               continue;
+            }
+            if (entry.myOffset != off) {
+               moveData (entry, off);
+            }
+            off += entry.myLength;
+            if (entry.myReleasedP) {
+               myReleasedSize += entry.myLength;
+            }
+            kept.add (entry);
+         }
+         mySpillChannel.truncate (off);
+      }
+      catch (IOException e) {
+         throw new InternalErrorException (
+            "Error compacting spill file "+mySpillFile+": "+e.getMessage());
+      }
+      mySpillSize = off;
+      mySpilledEntries = kept;
+   }
+
+   private void moveData (Entry entry, long off) throws IOException {
+      ByteBuffer buf = getZipBuffer (entry.myLength);
+      readFully (buf, entry.myOffset);
+      buf.flip();
+      long pos = off;
+      while (buf.hasRemaining()) {
+         pos += mySpillChannel.write (buf, pos);
+      }
+      entry.myOffset = off;
+   }
+
+   /**
+    * Returns the current size of the spill file.
+    *
+    * @return spill file size, in bytes, or 0 if there is no spill file
+    */
+   public long getSpillSize() {
+      return mySpillChannel != null ? mySpillSize : 0;
+   }
+
+   /**
+    * Releases the resources used by this store, closing and deleting the
+    * spill file if there is one. Entries whose data was spilled can no
+    * longer be restored.
+    */
+   public void dispose() {
+      startKeyFrame();
+      myCachedKeyFrame = null;
+      myCachedInts = null;
+      myCachedLongs = null;
+      closeSpillFile();
+      if (mySpillFile != null) {
+         mySpillFile.delete();
+         mySpillFile = null;
+      }
+      mySpilledEntries.clear();
+      myReleasedSize = 0;
+   }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import artisynth.core.modelbase.CompositeState;
+import artisynth.core.modelbase.EmptyState;
+import artisynth.core.modelbase.NumericState;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Test program for WayPointStateStore.
+ */
+public class WayPointStateStoreTest extends UnitTest {
+
+   private String myComp0 = "comp0";
+   private String myComp1 = "comp1";
+
+   /**
+    * Creates a state resembling that of a model at step k, with numContacts
+    * contacts. Some of the double values vary smoothly with k, while the
+    * others, as for stationary bodies, are fixed.
+    */
+   private CompositeState createState (int k, int numContacts) {
+      Random rand = RandomGenerator.get();
+      CompositeState state = new CompositeState();
+      state.addComponent (myComp0);
+      state.addComponent (myComp1);
+
+      NumericState bodies = new NumericState();
+      for (int i=0; i<300; i++) {
+         if (i < 100) {
+            bodies.dput (Math.sin (0.001*k + i) + 1e-12*rand.nextDouble());
+         }
+         else {
+            bodies.dput (Math.sin (i));
+         }
+      }
+      bodies.zput (k);
+      state.addState (bodies);
+
+      CompositeState sub = new CompositeState();
+      NumericState contacts = new NumericState();
+      contacts.zput (numContacts);
+      for (int i=0; i<numContacts; i++) {
+         contacts.zput (i);
+         contacts.dput (0.01*i + 1e-4*k);
+         contacts.oput (myComp1);
+      }
+      sub.addState (contacts);
+      sub.addState (new EmptyState());
+      sub.addState (null);
+      state.addState (sub);
+      return state;
+   }
+
+   private void checkState (CompositeState chk, CompositeState state) {
+      if (!chk.equals (state)) {
+         throw new TestException ("restored state does not equal original");
+      }
+      if (chk.numComponents() != 2 ||
+          chk.getComponents().get(0) != myComp0 ||
+          chk.getComponents().get(1) != myComp1) {
+         throw new TestException ("restored components are not correct");
+      }
+      NumericState contacts =
+         (NumericState)((CompositeState)chk.getState(1)).getState(0);
+      int numc = contacts.zpeek (0);
+      if (contacts.osize() != numc ||
+          (numc > 0 && contacts.opeek(numc-1) != myComp1)) {
+         throw new TestException ("restored objects are not correct");
+      }
+   }
+
+   private void testStore (File spillFile) throws IOException {
+      int numStates = 200;
+      WayPointStateStore store = new WayPointStateStore (10);
+      store.setSpillFile (spillFile);
+      ArrayList<CompositeState> states = new ArrayList<CompositeState>();
+      ArrayList<WayPointStateStore.Entry> entries =
+         new ArrayList<WayPointStateStore.Entry>();
+      int numKeys = 0;
+      for (int k=0; k<numStates; k++) {
+         // change the number of contacts every 25 states
+         CompositeState state = createState (k, k/25);
+         WayPointStateStore.Entry entry = store.store (state);
+         if (k%25 == 0 || k%25 == 10 || k%25 == 20) {
+            numKeys++;
+            if (!entry.isKeyFrame()) {
+               throw new TestException ("state "+k+" is not a key frame");
+            }
+         }
+         else if (entry.isKeyFrame()) {
+            throw new TestException ("state "+k+" is a key frame");
+         }
+         states.add (state);
+         entries.add (entry);
+      }
+      if (store.numStored() != numStates || store.numKeyFrames() != numKeys) {
+         throw new TestException (
+            "store has "+store.numStored()+" states and "+
+            store.numKeyFrames()+" key frames, expected "+numStates+
+            " and "+numKeys);
+      }
+      if (store.getCompressedSize() > store.getUncompressedSize()/2) {
+         throw new TestException (
+            "compressed size "+store.getCompressedSize()+
+            " not sufficiently smaller than "+store.getUncompressedSize());
+      }
+      // restore in order, then in random order
+      for (int k=0; k<numStates; k++) {
+         checkState (store.restore (entries.get(k)), states.get(k));
+      }
+      Random rand = RandomGenerator.get();
+      for (int i=0; i<numStates; i++) {
+         int k = rand.nextInt (numStates);
+         checkState (store.restore (entries.get(k)), states.get(k));
+      }
+      store.dispose();
+      if (spillFile != null && spillFile.exists()) {
+         throw new TestException ("spill file not deleted by dispose()");
+      }
+   }
+
+   private void checkSpillSize (WayPointStateStore store, File spillFile) {
+      if (spillFile.length() != store.getSpillSize()) {
+         throw new TestException (
+            "spill file length is "+spillFile.length()+
+            ", expected "+store.getSpillSize());
+      }
+   }
+
+   private void testCompact (File spillFile) throws IOException {
+      int numStates = 100;
+      WayPointStateStore store = new WayPointStateStore (10);
+      store.setSpillFile (spillFile);
+      ArrayList<CompositeState> states = new ArrayList<CompositeState>();
+      ArrayList<WayPointStateStore.Entry> entries =
+         new ArrayList<WayPointStateStore.Entry>();
+      for (int k=0; k<numStates; k++) {
+         CompositeState state = createState (k, k/25);
+         states.add (state);
+         entries.add (store.store (state));
+      }
+      long size = store.getSpillSize();
+      checkSpillSize (store, spillFile);
+      // release all but every third entry; key frames of the remaining
+      // entries must be kept
+      for (int k=0; k<numStates; k++) {
+         if (k%3 != 0) {
+            store.release (entries.get(k));
+         }
+      }
+      store.compact();
+      checkSpillSize (store, spillFile);
+      if (store.getSpillSize() >= size) {
+         throw new TestException ("spill file not reduced by compact()");
+      }
+      for (int k=0; k<numStates; k+=3) {
+         checkState (store.restore (entries.get(k)), states.get(k));
+      }
+      // states stored after compaction should still be restorable
+      CompositeState state = createState (numStates, 3);
+      WayPointStateStore.Entry entry = store.store (state);
+      checkState (store.restore (entry), state);
+      for (int k=0; k<numStates; k+=3) {
+         checkState (store.restore (entries.get(k)), states.get(k));
+      }
+      // releasing everything, with no current key frame, empties the file
+      for (int k=0; k<numStates; k+=3) {
+         store.release (entries.get(k));
+      }
+      store.release (entry);
+      store.startKeyFrame();
+      store.compact();
+      checkSpillSize (store, spillFile);
+      if (store.getSpillSize() != 0) {
+         throw new TestException (
+            "spill size is "+store.getSpillSize()+" after releasing all");
+      }
+      store.dispose();
+
+      // removing way points should reclaim their space
+      WayPointProbe probe = new WayPointProbe();
+      store = new WayPointStateStore (8);
+      store.setSpillFile (spillFile);
+      probe.setStateStore (store);
+      CompositeState state0 = createState (0, 2);
+      probe.get(0).setState (state0);
+      for (int k=1; k<=50; k++) {
+         WayPoint way = new WayPoint (0.01*k);
+         probe.add (way);
+         way.setState (createState (k, 2));
+      }
+      size = store.getSpillSize();
+      probe.clear();
+      checkSpillSize (store, spillFile);
+      if (store.getSpillSize() >= size) {
+         throw new TestException ("spill file not reduced by clear()");
+      }
+      checkState (probe.get(0).getState(), state0);
+      probe.setStateStore (null);
+   }
+
+   public void testWayPoints() {
+      WayPointProbe probe = new WayPointProbe();
+      ArrayList<CompositeState> states = new ArrayList<CompositeState>();
+      for (int k=1; k<=50; k++) {
+         WayPoint way = new WayPoint (0.01*k);
+         probe.add (way);
+         CompositeState state = createState (k, 2);
+         way.setState (state);
+         states.add (state);
+      }
+      WayPointStateStore store = new WayPointStateStore (8);
+      probe.setStateStore (store);
+      WayPoint way = probe.get (0.01*25);
+      if (way.getStateStore() != store || !way.isValid()) {
+         throw new TestException ("way point not moved into state store");
+      }
+      checkState (way.getState(), states.get(24));
+      // new states should also be stored
+      CompositeState state = createState (100, 3);
+      way.setState (state);
+      checkState (way.getState(), state);
+      if (store.numStored() != 51) {
+         throw new TestException (
+            "store has "+store.numStored()+" states, expected 51");
+      }
+      // and moved out again
+      probe.setStateStore (null);
+      checkState (way.getState(), state);
+      checkState (probe.get (0.01*50).getState(), states.get(49));
+   }
+
+   public void test() throws IOException {
+      testStore (null);
+      File file = File.createTempFile ("wayPointStateStoreTest", ".dat");
+      try {
+         testStore (file);
+         testCompact (file);
+      }
+      finally {
+         file.delete();
+      }
+      testWayPoints();
+   }
+
+   public static void main (String[] args) {
+      WayPointStateStoreTest tester = new WayPointStateStoreTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
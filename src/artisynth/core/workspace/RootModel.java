@@ -35,6 +35,7 @@ import maspack.render.GL.GLViewer;
 import maspack.util.Disposable;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
+import maspack.util.Profiler;
 import maspack.util.ReaderTokenizer;
 import maspack.util.Round;
 import maspack.util.Write;
@@ -1466,7 +1467,14 @@ public class RootModel extends RenderableModelBase
             myModelInfoValid = true;
          }
       }
-      doadvance (t0, t1, flags);
+      Profiler.begin ("RootModel.advance");
+      try {
+         doadvance (t0, t1, flags);
+      }
+      finally {
+         // also closes any sections left open by an exception
+         Profiler.end ("RootModel.advance");
+      }
       return null;
    }
 
@@ -44,6 +44,9 @@ public class ContactInfo {
    // intersection contours - produced by SurfaceMeshCollider only
    ArrayList<IntersectionContour> myContours = null;
 
+   // number of consecutive coherent searches used to find the contours
+   int myNumCoherentSearches = 0;
+
    // the interpenetrating points for each mesh
    ArrayList<PenetratingPoint> myPoints0 = null;
    ArrayList<PenetratingPoint> myPoints1 = null;
@@ -213,6 +216,18 @@ public class ContactInfo {
       return myContours;
    }
 
+   /**
+    * Returns the number of consecutive coherent searches that were used to
+    * find the intersection contours associated with this contact, or 0 if
+    * they were found by a full search. See {@link
+    * SurfaceMeshIntersector#setMaxCoherentSearches}.
+    *
+    * @return number of consecutive coherent searches
+    */
+   public int getNumCoherentSearches() {
+      return myNumCoherentSearches;
+   }
+
    /**
     * Returns the number of intersection contours associated with this contact.
     * If the collider that produced this contact information is not capable of
@@ -10,9 +10,24 @@ import java.util.LinkedHashSet;
 
 public class SignedDistanceCollider implements AbstractCollider {
    
+   // vertex query buffers, which only grow so that they can be reused
+   // between calls. Because of these, a collider should not be used by
+   // several threads at once.
+   private double[] myPnts = new double[0];
+   private double[] myDists = new double[0];
+   private double[] myNrms = new double[0];
+
    public SignedDistanceCollider() {
    }
 
+   private void ensureBufferCapacity (int nverts) {
+      if (myDists.length < nverts) {
+         myPnts = new double[3*nverts];
+         myDists = new double[nverts];
+         myNrms = new double[3*nverts];
+      }
+   }
+
    private boolean boundingBoxesDisjoint (
       PolygonalMesh mesh0, PolygonalMesh mesh1) {
       
@@ -92,14 +107,31 @@ public class SignedDistanceCollider implements AbstractCollider {
          // Transform from deformable mesh to rigid mesh.
          X1to0.mulInverseLeft (mesh0.getMeshToWorld(), mesh1.getMeshToWorld());
       }
+      // query all vertices at once, so that the grid can transform them
+      // and process them without per-vertex overhead
+      int nverts = mesh1Vertices.size();
+      ensureBufferCapacity (nverts);
+      double[] pnts = myPnts;
+      for (int i=0; i<nverts; i++) {
+         Point3d p = mesh1Vertices.get(i).pnt;
+         pnts[3*i  ] = p.x;
+         pnts[3*i+1] = p.y;
+         pnts[3*i+2] = p.z;
+      }
+      double[] dists = myDists;
+      double[] nrms = myNrms;
+      grid0.getLocalDistancesAndNormals (dists, nrms, pnts, nverts, X1to0);
+
       Point3d vpnt = new Point3d();
-      for (Vertex3d v1 : mesh1Vertices) { // mesh1 is deformable
-         vpnt.set (v1.pnt);
-         if (X1to0 != null) {
-            vpnt.transform (X1to0);
-         }
-         distance = grid0.getLocalDistanceAndNormal (normal, vpnt);
+      for (int i=0; i<nverts; i++) { // mesh1 is deformable
+         distance = dists[i];
          if (distance <= 0) {
+            Vertex3d v1 = mesh1Vertices.get(i);
+            vpnt.set (v1.pnt);
+            if (X1to0 != null) {
+               vpnt.transform (X1to0);
+            }
+            normal.set (nrms[3*i], nrms[3*i+1], nrms[3*i+2]);
             if (!mesh0.meshToWorldIsIdentity()) {
                normal.transform (mesh0.getMeshToWorld());
                vpnt.transform (mesh0.getMeshToWorld());
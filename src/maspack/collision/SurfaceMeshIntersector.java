@@ -361,6 +361,25 @@ public class SurfaceMeshIntersector {
     */
    ArrayList<IntersectionContour> myContours;
 
+   /*
+    * Maximum number of consecutive coherent contour searches allowed
+    * before a full search is forced. 0 disables coherent searching.
+    */
+   int myMaxCoherentSearches = 0;
+
+   /*
+    * Number of consecutive coherent searches that produced the contours of
+    * the most recent intersection operation, or 0 if they were produced by
+    * a full search.
+    */
+   int myNumCoherentSearches = 0;
+
+   /*
+    * Maximum number of points of a previous contour that are used as seeds
+    * for a local search when none of its edge/face pairs still intersect.
+    */
+   private static final int MAX_LOCAL_SEEDS_PER_CONTOUR = 4;
+
    // returns the index of contour with respect to myContours
    private int getContourIndex (IntersectionContour c) {
       return myContours.indexOf(c);
@@ -592,6 +611,39 @@ public class SurfaceMeshIntersector {
     */
    public ArrayList<IntersectionContour> findContours (
       PolygonalMesh mesh0, PolygonalMesh mesh1) {
+      return findContours (mesh0, mesh1, null);
+   }
+
+   /**
+    * Finds and returns a list of the intersection contours between two
+    * meshes, as described by {@link #findContours(PolygonalMesh,PolygonalMesh)},
+    * using the results of a previous call for the same meshes to speed up
+    * the search.
+    *
+    * <p>If coherent searching is enabled (see {@link
+    * #setMaxCoherentSearches}), and <code>prevInfo</code> contains contours
+    * for the same two meshes, then the edge/face pairs stored in the
+    * intersection points of those contours are used as seeds for tracing the
+    * new contours, and if none of the pairs of a contour still intersect,
+    * the faces adjacent to a few of them are searched as well. This avoids
+    * traversing the meshes' bounding volume hierarchies. If the contours of
+    * <code>prevInfo</code> cannot all be found this way, or if the maximum
+    * number of consecutive coherent searches has been reached, a full
+    * search is performed instead.
+    *
+    * <p>Note that a coherent search will not discover contours that are
+    * disjoint from all the previous contours. The maximum number of
+    * consecutive coherent searches should therefore be chosen so that new
+    * contacts are detected with an acceptable delay.
+    *
+    * @param mesh0 first mesh 
+    * @param mesh1 second mesh 
+    * @param prevInfo results of a previous call for <code>mesh0</code>
+    * and <code>mesh1</code>, or <code>null</code> if not available
+    * @return list of the intersection contours
+    */
+   public ArrayList<IntersectionContour> findContours (
+      PolygonalMesh mesh0, PolygonalMesh mesh1, ContactInfo prevInfo) {
       if (mesh0 != mesh1) {
          if (mesh0.canSelfIntersect) {
             if (findContours (mesh0, mesh0).size() > 0) {
@@ -619,6 +671,16 @@ public class SurfaceMeshIntersector {
       if (!mesh0.isTriangular() | !mesh1.isTriangular()) {
          throw new RuntimeException ("collision with non-triangular mesh");
       }
+
+      if (prevInfo != null && canSearchCoherently (prevInfo)) {
+         ArrayList<IntersectionContour> contours =
+            findCoherentContours (prevInfo.myContours);
+         if (contours != null) {
+            myNumCoherentSearches = prevInfo.myNumCoherentSearches+1;
+            return contours;
+         }
+      }
+      myNumCoherentSearches = 0;
      
       // Use the meshes' bounding hierarchies to find candidate nodes where
       // triangles may be overlapping.
@@ -729,8 +791,105 @@ public class SurfaceMeshIntersector {
       PolygonalMesh mesh0, RegionType regions0,
       PolygonalMesh mesh1, RegionType regions1) {
       
-      ArrayList<IntersectionContour> contours = findContours (mesh0, mesh1);
-      return findRegions (contours, mesh0, regions0, mesh1, regions1);
+      return findContoursAndRegions (mesh0, regions0, mesh1, regions1, null);
+   }
+
+   /**
+    * Finds the intersection contours and penetration regions between two
+    * meshes, as described by {@link
+    * #findContoursAndRegions(PolygonalMesh,RegionType,PolygonalMesh,RegionType)},
+    * using the results of a previous call for the same meshes to speed up
+    * the contour search, as described by {@link
+    * #findContours(PolygonalMesh,PolygonalMesh,ContactInfo)}.
+    *
+    * @param mesh0 first mesh 
+    * @param regions0 specifies which type of penetration regions should
+    * be computed for <code>mesh0</code>
+    * @param mesh1 second mesh 
+    * @param regions1 specifies which type of penetration regions should
+    * be computed for <code>mesh1</code>
+    * @param prevInfo results of a previous call for <code>mesh0</code>
+    * and <code>mesh1</code>, or <code>null</code> if not available
+    * @return {@link ContactInfo} object containing the contours and regions
+    */
+   public ContactInfo findContoursAndRegions (
+      PolygonalMesh mesh0, RegionType regions0,
+      PolygonalMesh mesh1, RegionType regions1, ContactInfo prevInfo) {
+      
+      ArrayList<IntersectionContour> contours =
+         findContours (mesh0, mesh1, prevInfo);
+      ContactInfo cinfo =
+         findRegions (contours, mesh0, regions0, mesh1, regions1);
+      cinfo.myNumCoherentSearches = myNumCoherentSearches;
+      return cinfo;
+   }
+
+   /**
+    * Sets the maximum number of consecutive coherent contour searches
+    * that may be performed by {@link
+    * #findContours(PolygonalMesh,PolygonalMesh,ContactInfo)} before a full
+    * search is forced. A value of 0 (the default) disables coherent
+    * searching.
+    *
+    * @param max maximum number of consecutive coherent searches
+    */
+   public void setMaxCoherentSearches (int max) {
+      myMaxCoherentSearches = Math.max (0, max);
+   }
+
+   /**
+    * Returns the maximum number of consecutive coherent contour searches.
+    * See {@link #setMaxCoherentSearches}.
+    *
+    * @return maximum number of consecutive coherent searches
+    */
+   public int getMaxCoherentSearches() {
+      return myMaxCoherentSearches;
+   }
+
+   /**
+    * Returns the number of consecutive coherent searches that produced the
+    * contours of the most recent intersection operation, or 0 if they were
+    * produced by a full search.
+    *
+    * @return number of consecutive coherent searches
+    */
+   public int getNumCoherentSearches() {
+      return myNumCoherentSearches;
+   }
+
+   /**
+    * Creates the {@link ContactInfo} object that {@link
+    * #findContoursAndRegions(PolygonalMesh,RegionType,PolygonalMesh,RegionType)}
+    * returns when the two meshes do not intersect: the contour list has zero
+    * length, and the region lists for each mesh are empty (or
+    * <code>null</code> if the corresponding region type is {@link
+    * RegionType#NONE}). This can be used when a broad-phase test has already
+    * determined that the meshes are disjoint.
+    *
+    * @param mesh0 first mesh
+    * @param regions0 type of penetration regions for <code>mesh0</code>
+    * @param mesh1 second mesh
+    * @param regions1 type of penetration regions for <code>mesh1</code>
+    * @return empty contact information for the two meshes
+    */
+   public static ContactInfo createEmptyContactInfo (
+      PolygonalMesh mesh0, RegionType regions0,
+      PolygonalMesh mesh1, RegionType regions1) {
+
+      ContactInfo cinfo = new ContactInfo (mesh0, mesh1);
+      cinfo.myContours = new ArrayList<IntersectionContour>();
+      cinfo.myRegionsType0 = regions0;
+      cinfo.myRegionsType1 = regions1;
+      cinfo.myRegions0 = null;
+      cinfo.myRegions1 = null;
+      if (regions0 != RegionType.NONE) {
+         cinfo.myRegions0 = new ArrayList<PenetrationRegion>();
+      }
+      if (regions1 != RegionType.NONE) {
+         cinfo.myRegions1 = new ArrayList<PenetrationRegion>();
+      }
+      return cinfo;
    }
 
    ContactInfo findRegions (
@@ -1704,6 +1863,8 @@ public class SurfaceMeshIntersector {
 
       ArrayList<Vertex3dList> innerHoles = new ArrayList<Vertex3dList>();
       ArrayList<Vertex3dList> outerHoles = new ArrayList<Vertex3dList>();
+      // vertex indices of the triangles for both meshes
+      DynamicIntArray faceIdxs = new DynamicIntArray (csgMesh.numVertices()*6);
 
       boolean clockwise0 = (regions0 == RegionType.OUTSIDE);
       boolean clockwise1 = (regions1 == RegionType.INSIDE);
@@ -1765,16 +1926,20 @@ public class SurfaceMeshIntersector {
             }
          }
          for (int i=0; i<triVtxs.size(); i+=3) {
+            faceIdxs.add (triVtxs.get(i).getIndex());
             if (flipFaces) {
-               csgMesh.addFace (
-                  triVtxs.get(i), triVtxs.get(i+2), triVtxs.get(i+1));
+               faceIdxs.add (triVtxs.get(i+2).getIndex());
+               faceIdxs.add (triVtxs.get(i+1).getIndex());
             }
             else {
-               csgMesh.addFace (
-                  triVtxs.get(i), triVtxs.get(i+1), triVtxs.get(i+2));
+               faceIdxs.add (triVtxs.get(i+1).getIndex());
+               faceIdxs.add (triVtxs.get(i+2).getIndex());
             }
          }
       }
+      // build all the triangles, and their half-edge connectivity, in bulk
+      new PolygonalMeshBuilder().setFaces (
+         csgMesh, faceIdxs.getArray(), null, /*computeNormals=*/false);
       return csgMesh;
    }
 
@@ -2272,10 +2437,7 @@ public class SurfaceMeshIntersector {
       ArrayList<BVNode> nodes0, ArrayList<BVNode> nodes1) {
       ArrayList<IntersectionContour> contours =
          new ArrayList<IntersectionContour>();
-      myEdgeFaceIntersections.clear();
-      myEdgeInfos.clear();
-      myFaceCalcs0 = new FaceCalculator[myMesh0.numFaces()];
-      myFaceCalcs1 = new FaceCalculator[myMesh1.numFaces()];
+      initializeContourSearch();
 
       for (int i = 0; i < nodes0.size(); i++) {
          BVNode node0 = nodes0.get (i);
@@ -2291,6 +2453,24 @@ public class SurfaceMeshIntersector {
                /*edgeOnMesh0=*/false);
          }
       }
+      finishContourSearch (contours);
+      return contours;
+   }
+
+   /**
+    * Clears the data used to find intersection contours.
+    */
+   private void initializeContourSearch() {
+      myEdgeFaceIntersections.clear();
+      myEdgeInfos.clear();
+      myFaceCalcs0 = new FaceCalculator[myMesh0.numFaces()];
+      myFaceCalcs1 = new FaceCalculator[myMesh1.numFaces()];
+   }
+
+   /**
+    * Completes the processing of a set of newly found contours.
+    */
+   private void finishContourSearch (ArrayList<IntersectionContour> contours) {
       myContours = contours; // myContours is used for debugging
       // make each contour counterClockwise with respect to mesh0
       for (IntersectionContour c : contours) {
@@ -2312,9 +2492,190 @@ public class SurfaceMeshIntersector {
          }
       }
       
+   }
+
+   /**
+    * Returns <code>true</code> if the contours of <code>prevInfo</code> can be
+    * used to seed a coherent search between myMesh0 and myMesh1.
+    */
+   private boolean canSearchCoherently (ContactInfo prevInfo) {
+      return (myMesh0 != myMesh1 &&
+              prevInfo.myMesh0 == myMesh0 &&
+              prevInfo.myMesh1 == myMesh1 &&
+              prevInfo.myNumCoherentSearches < myMaxCoherentSearches &&
+              prevInfo.myContours != null &&
+              prevInfo.myContours.size() > 0);
+   }
+
+   /**
+    * Returns <code>true</code> if <code>face</code> is still a face of
+    * <code>mesh</code>.
+    */
+   private boolean isMeshFace (Face face, PolygonalMesh mesh) {
+      int idx = face.getIndex();
+      return (idx >= 0 && idx < mesh.numFaces() && mesh.getFace(idx) == face);
+   }
+
+   /**
+    * Returns <code>true</code> if the edge/face pair of an intersection
+    * point from a previous search can be used as a seed for the current
+    * meshes.
+    */
+   private boolean isValidSeed (IntersectionPoint p) {
+      if (p.edge == null || p.face == null || p.edge.getFace() == null) {
+         return false;
+      }
+      Face edgeFace = p.edge.getFace();
+      if (p.face.getMesh() == myMesh1) {
+         return (isMeshFace (p.face, myMesh1) && 
+                 isMeshFace (edgeFace, myMesh0));
+      }
+      else if (p.face.getMesh() == myMesh0) {
+         return (isMeshFace (p.face, myMesh0) && 
+                 isMeshFace (edgeFace, myMesh1));
+      }
+      else {
+         return false;
+      }
+   }
+
+   /**
+    * Attempts to find the intersection contours between myMesh0 and myMesh1
+    * by seeding the search with the edge/face pairs of a set of previous
+    * contours. Returns <code>null</code> if any of the previous contours
+    * could not be found, in which case a full search is required.
+    */
+   ArrayList<IntersectionContour> findCoherentContours (
+      ArrayList<IntersectionContour> prevContours) {
+
+      ArrayList<IntersectionContour> contours =
+         new ArrayList<IntersectionContour>();
+      initializeContourSearch();
+      EdgeFacePair edgeFacePair = new EdgeFacePair();
+
+      for (IntersectionContour prev : prevContours) {
+         boolean found = false;
+         // Try every edge/face pair of the previous contour, since the
+         // contour may have split.
+         for (IntersectionPoint p : prev) {
+            if (!isValidSeed (p)) {
+               continue;
+            }
+            HalfEdge he = p.edge.getPrimary();
+            edgeFacePair.set (he, p.face);
+            if (myEdgeFaceIntersections.get (edgeFacePair) != null) {
+               found = true;
+            }
+            else {
+               boolean edgeOnMesh0 = (p.face.getMesh() == myMesh1);
+               if (intersectEdgeFace (he, p.face, myWorkPoint, edgeOnMesh0)) {
+                  IntersectionContour c =
+                     findIntersectionContour (he, p.face, edgeOnMesh0);
+                  if (c != null) {
+                     contours.add (c);
+                     found = true;
+                  }
+               }
+            }
+         }
+         if (!found) {
+            // None of the pairs still intersect, so walk the faces
+            // adjacent to a few of them.
+            int nseeds = Math.min (prev.size(), MAX_LOCAL_SEEDS_PER_CONTOUR);
+            for (int k=0; k<nseeds && !found; k++) {
+               IntersectionPoint p = prev.get ((k*prev.size())/nseeds);
+               if (isValidSeed (p)) {
+                  found = findLocalContours (contours, p, edgeFacePair);
+               }
+            }
+         }
+         if (!found) {
+            return null;
+         }
+      }
+      finishContourSearch (contours);
       return contours;
    }
 
+   /**
+    * Collects the faces incident to the vertices of <code>face</code>
+    * into <code>faces</code>.
+    */
+   private void collectAdjacentFaces (ArrayList<Face> faces, Face face) {
+      HalfEdge he0 = face.firstHalfEdge();
+      HalfEdge he = he0;
+      do {
+         Iterator<HalfEdge> it = he.getHead().getIncidentHalfEdges();
+         while (it.hasNext()) {
+            Face f = it.next().getFace();
+            if (f != null && !faces.contains (f)) {
+               faces.add (f);
+            }
+         }
+         he = he.getNext();
+      }
+      while (he != he0);
+   }
+
+   /**
+    * Looks for intersections between the faces adjacent to the edge and
+    * face of an intersection point from a previous search, and uses any
+    * new intersection to trace a new contour. Returns <code>true</code>
+    * if a contour is found.
+    */
+   private boolean findLocalContours (
+      ArrayList<IntersectionContour> contours, IntersectionPoint p,
+      EdgeFacePair edgeFacePair) {
+
+      ArrayList<Face> edgeFaces = new ArrayList<Face>();
+      ArrayList<Face> faces = new ArrayList<Face>();
+      collectAdjacentFaces (edgeFaces, p.edge.getFace());
+      collectAdjacentFaces (faces, p.face);
+      boolean edgeOnMesh0 = (p.face.getMesh() == myMesh1);
+      return (findLocalContours (
+                 contours, edgeFaces, faces, edgeOnMesh0, edgeFacePair) ||
+              findLocalContours (
+                 contours, faces, edgeFaces, !edgeOnMesh0, edgeFacePair));
+   }
+
+   /**
+    * Tests the primary edges of <code>edgeFaces</code> against
+    * <code>faces</code>, and uses the first new intersection found to
+    * trace a new contour. Returns <code>true</code> if a contour is found,
+    * or if an intersecting pair belongs to a contour that has already
+    * been found.
+    */
+   private boolean findLocalContours (
+      ArrayList<IntersectionContour> contours, ArrayList<Face> edgeFaces,
+      ArrayList<Face> faces, boolean edgeOnMesh0, EdgeFacePair edgeFacePair) {
+
+      for (Face ef : edgeFaces) {
+         HalfEdge he0 = ef.firstHalfEdge();
+         HalfEdge he = he0;
+         do {
+            if (he.isPrimary()) {
+               for (Face f : faces) {
+                  edgeFacePair.set (he, f);
+                  if (myEdgeFaceIntersections.get (edgeFacePair) != null) {
+                     return true;
+                  }
+                  if (intersectEdgeFace (he, f, myWorkPoint, edgeOnMesh0)) {
+                     IntersectionContour c =
+                        findIntersectionContour (he, f, edgeOnMesh0);
+                     if (c != null) {
+                        contours.add (c);
+                        return true;
+                     }
+                  }
+               }
+            }
+            he = he.getNext();
+         }
+         while (he != he0);
+      }
+      return false;
+   }
+
    /**
     * Look for intersecting triangles in elems0 and elems1. If a new
     * intersection is found, use this as the starting point for tracing a new
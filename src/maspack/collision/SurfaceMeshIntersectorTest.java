@@ -2067,6 +2067,64 @@ public class SurfaceMeshIntersectorTest extends UnitTest {
       return x*x;
    }
 
+   private int numContourPoints (ArrayList<IntersectionContour> contours) {
+      int num = 0;
+      for (IntersectionContour c : contours) {
+         num += c.size();
+      }
+      return num;
+   }
+
+   /**
+    * Checks that coherent contour searches, seeded from the results of the
+    * previous step, find the same contours as full searches while one mesh
+    * is moved in small steps.
+    */
+   public void coherentSearchTests() {
+
+      System.out.println ("Coherent search tests:");
+
+      PolygonalMesh plate = MeshFactory.createBox (
+         4.0, 4.0, 0.5, Point3d.ZERO, 8, 8, 1);
+      plate.triangulate();
+      PolygonalMesh sphere = MeshFactory.createIcosahedralSphere (0.6, 2);
+
+      SurfaceMeshIntersector full = new SurfaceMeshIntersector();
+      SurfaceMeshIntersector coherent = new SurfaceMeshIntersector();
+      coherent.setMaxCoherentSearches (5);
+      ContactInfo prevInfo = null;
+      int numCoherent = 0;
+      for (int k=0; k<=40; k++) {
+         double x = -1.0 + 0.05*k;
+         sphere.setMeshToWorld (new RigidTransform3d (x, 0.1*x, 0.5));
+         ContactInfo cinfo = full.findContoursAndRegions (plate, sphere);
+         ContactInfo check = coherent.findContoursAndRegions (
+            plate, RegionType.INSIDE, sphere, RegionType.INSIDE, prevInfo);
+         ArrayList<IntersectionContour> contours = check.getContours();
+         if (contours.size() != cinfo.getContours().size() ||
+             numContourPoints (contours) !=
+             numContourPoints (cinfo.getContours())) {
+            throw new TestException (
+               "coherent search at step "+k+" found "+contours.size()+
+               " contours with "+numContourPoints(contours)+
+               " points, expected "+cinfo.getContours().size()+
+               " contours with "+numContourPoints(cinfo.getContours()));
+         }
+         if (check.getNumCoherentSearches() > 5) {
+            throw new TestException (
+               "number of coherent searches exceeds maximum");
+         }
+         if (check.getNumCoherentSearches() > 0) {
+            numCoherent++;
+         }
+         prevInfo = check;
+      }
+      if (numCoherent == 0) {
+         throw new TestException ("no coherent searches performed");
+      }
+      sphere.setMeshToWorld (new RigidTransform3d());
+   }
+
    public void torusTests() {  
 
       System.out.println ("Torus tests:");
@@ -3413,6 +3471,7 @@ public class SurfaceMeshIntersectorTest extends UnitTest {
          openContourTests();
          singleFaceTests();
          crownCylinderTests();
+         coherentSearchTests();
       }
       else {
          crownCylinderTests();
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.collision;
+
+import java.util.BitSet;
+
+import maspack.matrix.Vector3d;
+
+/**
+ * Broad-phase collision culling using sweep-and-prune over a set of
+ * axis-aligned bounding boxes. The box end points are sorted along the x
+ * axis, and a sweep along this axis finds all pairs of boxes whose x
+ * intervals overlap, which are then checked for overlap in y and z.
+ *
+ * <p>The sorted end point order is retained between calls to {@link
+ * #update}. Since the boxes typically move only a small amount from one time
+ * step to the next, the previous order is nearly sorted and the end points
+ * are re-sorted using an insertion sort, which is then close to linear in
+ * the number of boxes.
+ *
+ * <p>Boxes are treated as closed, so that boxes which merely touch are
+ * reported as overlapping.
+ */
+public class SweepAndPrune {
+
+   private int myNumBoxes = 0;
+   private double[] myMin = new double[0];
+   private double[] myMax = new double[0];
+   // box end points sorted along x. Each end point is encoded as 2*idx for
+   // the minimum and 2*idx+1 for the maximum of box idx.
+   private int[] myEndPoints = new int[0];
+   private boolean myEndPointsValid = false;
+   // boxes currently intersected by the sweep, together with the location
+   // of each box within this list
+   private int[] myActive = new int[0];
+   private int[] myActiveLoc = new int[0];
+   private BitSet myOverlaps = new BitSet();
+   private int myNumOverlaps = 0;
+
+   /**
+    * Creates a new SweepAndPrune object with no boxes.
+    */
+   public SweepAndPrune() {
+   }
+
+   /**
+    * Sets the number of boxes. Existing box bounds are preserved if the
+    * number is unchanged; otherwise all bounds must be set again
+    * using {@link #setBox setBox}.
+    *
+    * @param num number of boxes
+    */
+   public void setNumBoxes (int num) {
+      if (num != myNumBoxes) {
+         if (myMin.length < 3*num) {
+            myMin = new double[3*num];
+            myMax = new double[3*num];
+            myActive = new int[num];
+            myActiveLoc = new int[num];
+         }
+         myNumBoxes = num;
+         myEndPointsValid = false;
+      }
+   }
+
+   /**
+    * Returns the number of boxes.
+    *
+    * @return number of boxes
+    */
+   public int numBoxes() {
+      return myNumBoxes;
+   }
+
+   /**
+    * Sets the bounds of a specific box.
+    *
+    * @param idx index of the box
+    * @param min minimum coordinates of the box
+    * @param max maximum coordinates of the box
+    */
+   public void setBox (int idx, Vector3d min, Vector3d max) {
+      if (idx < 0 || idx >= myNumBoxes) {
+         throw new IndexOutOfBoundsException (
+            "box index "+idx+" not in range [0,"+(myNumBoxes-1)+"]");
+      }
+      myMin[3*idx  ] = min.x;
+      myMin[3*idx+1] = min.y;
+      myMin[3*idx+2] = min.z;
+      myMax[3*idx  ] = max.x;
+      myMax[3*idx+1] = max.y;
+      myMax[3*idx+2] = max.z;
+   }
+
+   private double endPointValue (int ep) {
+      int idx = ep >> 1;
+      return (ep & 1) == 0 ? myMin[3*idx] : myMax[3*idx];
+   }
+
+   /**
+    * Returns true if end point ep0 should be ordered after end point
+    * ep1. Minimum end points precede maximum end points with the same
+    * value, so that touching boxes are found to overlap.
+    */
+   private boolean endPointAfter (int ep0, int ep1) {
+      double v0 = endPointValue (ep0);
+      double v1 = endPointValue (ep1);
+      if (v0 != v1) {
+         return v0 > v1;
+      }
+      else {
+         return (ep0 & 1) > (ep1 & 1);
+      }
+   }
+
+   private void sortEndPoints() {
+      int nep = 2*myNumBoxes;
+      if (!myEndPointsValid) {
+         if (myEndPoints.length < nep) {
+            myEndPoints = new int[nep];
+         }
+         for (int k=0; k<nep; k++) {
+            myEndPoints[k] = k;
+         }
+         myEndPointsValid = true;
+      }
+      // insertion sort, which is nearly linear when the end points are
+      // close to their previous order
+      int[] eps = myEndPoints;
+      for (int k=1; k<nep; k++) {
+         int ep = eps[k];
+         int j = k-1;
+         while (j >= 0 && endPointAfter (eps[j], ep)) {
+            eps[j+1] = eps[j];
+            j--;
+         }
+         eps[j+1] = ep;
+      }
+   }
+
+   private boolean overlapsYZ (int i, int j) {
+      for (int d=1; d<3; d++) {
+         if (myMin[3*i+d] > myMax[3*j+d] || myMin[3*j+d] > myMax[3*i+d]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private int pairIndex (int i, int j) {
+      return i < j ? i*myNumBoxes+j : j*myNumBoxes+i;
+   }
+
+   /**
+    * Sorts the box end points and finds all overlapping pairs of boxes.
+    *
+    * @return number of overlapping pairs
+    */
+   public int update() {
+      sortEndPoints();
+      myOverlaps.clear();
+      myNumOverlaps = 0;
+      int nactive = 0;
+      for (int k=0; k<2*myNumBoxes; k++) {
+         int ep = myEndPoints[k];
+         int idx = ep >> 1;
+         if ((ep & 1) == 0) {
+            for (int a=0; a<nactive; a++) {
+               int jdx = myActive[a];
+               if (overlapsYZ (idx, jdx)) {
+                  myOverlaps.set (pairIndex (idx, jdx));
+                  myNumOverlaps++;
+               }
+            }
+            myActiveLoc[idx] = nactive;
+            myActive[nactive++] = idx;
+         }
+         else {
+            // remove from the active list by swapping with the last entry
+            int loc = myActiveLoc[idx];
+            int last = myActive[--nactive];
+            myActive[loc] = last;
+            myActiveLoc[last] = loc;
+         }
+      }
+      return myNumOverlaps;
+   }
+
+   /**
+    * Returns the number of overlapping pairs found by the most recent call
+    * to {@link #update}.
+    *
+    * @return number of overlapping pairs
+    */
+   public int numOverlappingPairs() {
+      return myNumOverlaps;
+   }
+
+   /**
+    * Queries whether two boxes were found to overlap by the most recent call
+    * to {@link #update}. A box is always considered to overlap itself.
+    *
+    * @param i index of the first box
+    * @param j index of the second box
+    * @return true if the boxes overlap
+    */
+   public boolean overlaps (int i, int j) {
+      if (i == j) {
+         return true;
+      }
+      return myOverlaps.get (pairIndex (i, j));
+   }
+}
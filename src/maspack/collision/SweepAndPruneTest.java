@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.collision;
+
+import java.util.Random;
+
+import maspack.matrix.Point3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Test program for SweepAndPrune.
+ */
+public class SweepAndPruneTest extends UnitTest {
+
+   private boolean overlaps (Point3d[] min, Point3d[] max, int i, int j) {
+      return (min[i].x <= max[j].x && min[j].x <= max[i].x &&
+              min[i].y <= max[j].y && min[j].y <= max[i].y &&
+              min[i].z <= max[j].z && min[j].z <= max[i].z);
+   }
+
+   private void checkOverlaps (
+      SweepAndPrune sap, Point3d[] min, Point3d[] max) {
+      int num = min.length;
+      int numOverlaps = 0;
+      for (int i=0; i<num; i++) {
+         for (int j=i+1; j<num; j++) {
+            boolean check = overlaps (min, max, i, j);
+            if (sap.overlaps (i, j) != check || sap.overlaps (j, i) != check) {
+               throw new TestException (
+                  "overlap for boxes "+i+" and "+j+" is "+sap.overlaps(i,j)+
+                  ", expected "+check);
+            }
+            if (check) {
+               numOverlaps++;
+            }
+         }
+      }
+      if (sap.numOverlappingPairs() != numOverlaps) {
+         throw new TestException (
+            "number of overlapping pairs is "+sap.numOverlappingPairs()+
+            ", expected "+numOverlaps);
+      }
+   }
+
+   private void setRandomBox (
+      Point3d min, Point3d max, double size, Random rand) {
+      min.set (rand.nextDouble(), rand.nextDouble(), rand.nextDouble());
+      max.set (rand.nextDouble(), rand.nextDouble(), rand.nextDouble());
+      max.scale (size);
+      max.add (min);
+   }
+
+   public void test() {
+      Random rand = RandomGenerator.get();
+      SweepAndPrune sap = new SweepAndPrune();
+      for (int num=1; num<=100; num*=10) {
+         Point3d[] min = new Point3d[num];
+         Point3d[] max = new Point3d[num];
+         sap.setNumBoxes (num);
+         for (int i=0; i<num; i++) {
+            min[i] = new Point3d();
+            max[i] = new Point3d();
+            setRandomBox (min[i], max[i], 0.2, rand);
+            sap.setBox (i, min[i], max[i]);
+         }
+         sap.update();
+         checkOverlaps (sap, min, max);
+         // move the boxes by small amounts, to test updating from the
+         // previous end point order
+         for (int step=0; step<20; step++) {
+            for (int i=0; i<num; i++) {
+               Point3d del = new Point3d (
+                  rand.nextDouble()-0.5,
+                  rand.nextDouble()-0.5,
+                  rand.nextDouble()-0.5);
+               del.scale (0.05);
+               min[i].add (del);
+               max[i].add (del);
+               sap.setBox (i, min[i], max[i]);
+            }
+            sap.update();
+            checkOverlaps (sap, min, max);
+         }
+      }
+      // boxes which touch should overlap
+      Point3d[] min = new Point3d[] {
+         new Point3d (0, 0, 0), new Point3d (1, 0, 0), new Point3d (2.5, 0, 0) };
+      Point3d[] max = new Point3d[] {
+         new Point3d (1, 1, 1), new Point3d (2, 1, 1), new Point3d (3, 1, 1) };
+      sap.setNumBoxes (3);
+      for (int i=0; i<3; i++) {
+         sap.setBox (i, min[i], max[i]);
+      }
+      sap.update();
+      checkOverlaps (sap, min, max);
+      if (!sap.overlaps (0, 1) || sap.overlaps (1, 2)) {
+         throw new TestException ("incorrect overlaps for touching boxes");
+      }
+   }
+
+   public static void main (String[] args) {
+      SweepAndPruneTest tester = new SweepAndPruneTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
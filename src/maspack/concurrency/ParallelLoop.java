@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.concurrency;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the iterations of a loop over an integer range using a fixed
+ * number of threads. The range is split into one contiguous chunk per thread,
+ * and chunk <code>k</code> is always assigned to thread index <code>k</code>,
+ * so that callers can keep per-thread workspaces and obtain results that are
+ * deterministic for a given number of threads. Chunk 0 is executed by the
+ * calling thread, while the remaining chunks are executed by a private
+ * thread pool whose threads time out when idle.
+ *
+ * <p>If the number of threads is 1, or the range is too small to be worth
+ * splitting, the loop body is called directly within the calling thread.
+ */
+public class ParallelLoop {
+
+   /**
+    * Body of a parallel loop.
+    */
+   public interface Body {
+      /**
+       * Executes the loop iterations in the range <code>[start,end)</code>.
+       *
+       * @param thread index of the thread (and chunk) executing this range,
+       * in the range <code>[0,numThreads)</code>.
+       * @param start first index of the range (inclusive)
+       * @param end last index of the range (exclusive)
+       */
+      public void run (int thread, int start, int end);
+   }
+
+   protected static long defaultTimeoutMS = 2000;
+
+   private String myName;
+   private int myNumThreads;
+   private ThreadPoolExecutor myExecutor;
+   private int myMinChunkSize = 1;
+
+   /**
+    * Returns the number of processors available to the JVM, which is a
+    * reasonable default for the number of threads.
+    *
+    * @return number of available processors
+    */
+   public static int getDefaultNumThreads() {
+      return Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * Creates a new ParallelLoop with a specified number of threads.
+    *
+    * @param name base name for the pool threads
+    * @param numThreads number of threads (including the calling thread)
+    */
+   public ParallelLoop (String name, int numThreads) {
+      myName = name;
+      setNumThreads (numThreads);
+   }
+
+   /**
+    * Returns the number of threads used by this loop.
+    *
+    * @return number of threads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the number of threads used by this loop. Values less than 1 are
+    * clipped to 1.
+    *
+    * @param num number of threads (including the calling thread)
+    */
+   public synchronized void setNumThreads (int num) {
+      if (num < 1) {
+         num = 1;
+      }
+      if (num != myNumThreads) {
+         if (myExecutor != null) {
+            myExecutor.shutdown();
+            myExecutor = null;
+         }
+         myNumThreads = num;
+      }
+   }
+
+   /**
+    * Returns the minimum number of iterations that will be assigned to a
+    * chunk.
+    *
+    * @return minimum chunk size
+    */
+   public int getMinChunkSize() {
+      return myMinChunkSize;
+   }
+
+   /**
+    * Sets the minimum number of iterations that will be assigned to a chunk.
+    * Ranges smaller than this will be executed in fewer chunks (and hence
+    * using fewer threads).
+    *
+    * @param size minimum chunk size
+    */
+   public void setMinChunkSize (int size) {
+      myMinChunkSize = Math.max (1, size);
+   }
+
+   /**
+    * Returns the number of chunks into which a range of a given size will be
+    * divided.
+    *
+    * @param size number of iterations in the range
+    * @return number of chunks
+    */
+   public int numChunks (int size) {
+      int nchunks = Math.min (myNumThreads, size/myMinChunkSize);
+      return Math.max (1, nchunks);
+   }
+
+   private ThreadPoolExecutor getExecutor() {
+      if (myExecutor == null) {
+         int npool = myNumThreads-1;
+         myExecutor = new ThreadPoolExecutor (
+            npool, npool, defaultTimeoutMS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory (myName));
+         myExecutor.allowCoreThreadTimeOut (true);
+      }
+      return myExecutor;
+   }
+
+   /**
+    * Executes a loop body over the range <code>[start,end)</code>, returning
+    * after all iterations have completed. The first exception or error
+    * thrown by the body is rethrown in the calling thread, after all the
+    * iterations have completed. If the calling thread is interrupted while
+    * waiting, it still waits for the iterations to complete, and then
+    * throws a RuntimeException with its interrupt status set.
+    *
+    * @param start first index of the range (inclusive)
+    * @param end last index of the range (exclusive)
+    * @param body loop body to execute
+    */
+   public void forRange (int start, int end, final Body body) {
+      int size = end-start;
+      if (size <= 0) {
+         return;
+      }
+      int nchunks = numChunks (size);
+      if (nchunks == 1) {
+         body.run (0, start, end);
+         return;
+      }
+      ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nchunks-1);
+      ThreadPoolExecutor executor;
+      synchronized (this) {
+         executor = getExecutor();
+      }
+      for (int k=1; k<nchunks; k++) {
+         final int thread = k;
+         final int s = start + (int)((long)k*size/nchunks);
+         final int e = start + (int)((long)(k+1)*size/nchunks);
+         futures.add (executor.submit (new Runnable() {
+               public void run() {
+                  body.run (thread, s, e);
+               }
+            }));
+      }
+      // first exception or error thrown by any chunk
+      Throwable thrown = null;
+      try {
+         body.run (0, start, start + size/nchunks);
+      }
+      catch (RuntimeException | Error ex) {
+         thrown = ex;
+      }
+      // wait for all the other chunks to finish before rethrowing, so that
+      // none are still running when this method returns
+      boolean interrupted = false;
+      for (Future<?> fut : futures) {
+         while (true) {
+            try {
+               fut.get();
+               break;
+            }
+            catch (InterruptedException ex) {
+               interrupted = true;
+               if (thrown == null) {
+                  thrown = ex;
+               }
+            }
+            catch (ExecutionException ex) {
+               if (thrown == null) {
+                  thrown = ex.getCause();
+               }
+               break;
+            }
+         }
+      }
+      if (interrupted) {
+         // restore the interrupt status cleared by Future.get()
+         Thread.currentThread().interrupt();
+      }
+      if (thrown instanceof RuntimeException) {
+         throw (RuntimeException)thrown;
+      }
+      else if (thrown instanceof Error) {
+         throw (Error)thrown;
+      }
+      else if (thrown != null) {
+         throw new RuntimeException (thrown);
+      }
+   }
+
+   /**
+    * Releases the threads used by this loop. The loop may still be used
+    * afterwards, in which case new threads will be created as needed.
+    */
+   public synchronized void dispose() {
+      if (myExecutor != null) {
+         myExecutor.shutdown();
+         myExecutor = null;
+      }
+   }
+}
@@ -285,6 +285,26 @@ public class AABB extends BVNode {
       return true;
    }
 
+   void refit (double margin, Vector3d min, Vector3d max) {
+      if (isLeaf()) {
+         set (myElements, myElements.length, margin);
+      }
+      else {
+         myMin.set (INF, INF, INF);
+         myMax.set (-INF, -INF, -INF);
+         for (BVNode child=myFirstChild; child!=null; child=child.myNext) {
+            updateForAABB ((AABB)child, 0);
+         }
+      }
+   }
+
+   public double getSurfaceArea() {
+      double dx = myMax.x-myMin.x;
+      double dy = myMax.y-myMin.y;
+      double dz = myMax.z-myMin.z;
+      return 2*(dx*dy + dy*dz + dz*dx);
+   }
+
    public boolean isContained (Boundable[] boundables, double tol) {
       AABB aabb = new AABB();
       aabb.set (boundables, boundables.length, 0);
@@ -142,25 +142,7 @@ public class AABBTree extends BVTree {
          edescs[i] = new ElemDesc (elements[i]);
       }
       myRoot = buildNodesRecursively (edescs, nelems, 0);
-   }
-
-   protected void updateRecursively (AABB node) {
-      double margin = myMargin;
-      if (node.isLeaf()) {
-         node.update(margin);
-      }
-      else {
-         AABB child = (AABB)node.myFirstChild;
-         while (child != null) {
-            updateRecursively (child);
-            node.updateForAABB (child, margin);
-            child = (AABB)child.getNext();
-         }
-      }
-   }
-
-   public void update() {
-      updateRecursively (myRoot);
+      initializeRefit();
    }
 
 }
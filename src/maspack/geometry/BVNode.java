@@ -313,6 +313,27 @@ public abstract class BVNode implements IsRenderable {
    abstract boolean update(double margin);
    
    abstract boolean updateForPoint(Point3d pnt, double margin);
+
+   /**
+    * Refits this node so that it just contains the elements beneath it,
+    * without changing the shape of the node (such as the orientation of an
+    * oriented box). Nodes may use the bounds of their children to do this,
+    * so children should be refit before their parent.
+    *
+    * @param margin supplied margin around the elements
+    * @param min workspace vector that may be used by the node
+    * @param max workspace vector that may be used by the node
+    */
+   abstract void refit (double margin, Vector3d min, Vector3d max);
+
+   /**
+    * Returns the surface area of this bounding volume. This is used to
+    * estimate the query cost of a bounding volume tree using the surface area
+    * heuristic.
+    *
+    * @return surface area of this bounding volume
+    */
+   public abstract double getSurfaceArea();
    
    /**
     * Scales this bounding volume node by the indicated scale factor
@@ -6,6 +6,7 @@
  */
 package maspack.geometry;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.*;
 import maspack.render.*;
 import maspack.util.*;
@@ -14,6 +15,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedList;
 
 /**
  * Base class for a bounding volume tree composed of a hierarchy of bounding
@@ -28,6 +30,37 @@ public abstract class BVTree implements IsRenderable {
    protected static final double INF = Double.POSITIVE_INFINITY;
 
    protected RigidTransform3d myBvhToWorld = RigidTransform3d.IDENTITY;
+
+   /**
+    * Default ratio by which the surface area heuristic cost of a tree may
+    * grow, relative to its cost when it was built, before {@link #update}
+    * rebuilds the tree instead of refitting it.
+    */
+   public static final double DEFAULT_REBUILD_THRESHOLD = 2.0;
+
+   // minimum number of nodes for which refitting will be done in parallel
+   private static final int MIN_PARALLEL_REFIT_NODES = 2048;
+
+   /**
+    * Default number of threads used by a tree to refit its bounding volumes.
+    */
+   public static final int DEFAULT_NUM_REFIT_THREADS = 1;
+
+   protected double myRebuildThreshold = DEFAULT_REBUILD_THRESHOLD;
+   // surface area heuristic cost when the tree was last built
+   protected double myBuildCost = -1;
+   protected int myNumRebuilds = 0;
+
+   private int myNumRefitThreads = DEFAULT_NUM_REFIT_THREADS;
+   private ParallelLoop myRefitLoop;
+   // partition used for parallel refitting: subtrees that are refit
+   // concurrently, and the nodes above them, in breadth-first order
+   private ArrayList<BVNode> myRefitSubtrees;
+   private ArrayList<BVNode> myRefitTopNodes;
+   // scratch bounds used by each refit thread, so that refitting, which is
+   // done on every update, does not allocate
+   private Vector3d[] myRefitMin;
+   private Vector3d[] myRefitMax;
    
    /**
     * Returns an approximate "radius" for this bounding volume hierarchy.
@@ -583,15 +616,259 @@ public abstract class BVTree implements IsRenderable {
       }
    }
 
+   /**
+    * Sets the number of threads used by this tree to refit its bounding
+    * volumes in {@link #update}. Refitting is only done in parallel for
+    * large trees. The default value is given by {@link
+    * #DEFAULT_NUM_REFIT_THREADS}.
+    *
+    * @param num number of refit threads
+    */
+   public void setNumRefitThreads (int num) {
+      num = Math.max (1, num);
+      if (num != myNumRefitThreads) {
+         myNumRefitThreads = num;
+         disposeRefitLoop();
+         myRefitMin = null;
+         myRefitMax = null;
+         myRefitSubtrees = null;
+         myRefitTopNodes = null;
+      }
+   }
+
+   /**
+    * Returns the number of threads used by this tree to refit its bounding
+    * volumes.
+    *
+    * @return number of refit threads
+    */
+   public int getNumRefitThreads() {
+      return myNumRefitThreads;
+   }
+
+   /**
+    * Sets the threshold that determines when {@link #update} rebuilds this
+    * tree instead of simply refitting it. After refitting, the tree is
+    * rebuilt if its surface area heuristic cost (see {@link
+    * #computeSurfaceAreaCost}) exceeds its cost when it was last built by
+    * more than this ratio. A value of <code>Double.POSITIVE_INFINITY</code>
+    * disables rebuilding. The default value is given by {@link
+    * #DEFAULT_REBUILD_THRESHOLD}.
+    *
+    * @param ratio rebuild threshold ratio
+    */
+   public void setRebuildThreshold (double ratio) {
+      myRebuildThreshold = ratio;
+   }
+
+   /**
+    * Returns the threshold that determines when {@link #update} rebuilds
+    * this tree instead of simply refitting it.
+    *
+    * @return rebuild threshold ratio
+    */
+   public double getRebuildThreshold() {
+      return myRebuildThreshold;
+   }
+
+   /**
+    * Returns the number of times this tree has been rebuilt by {@link
+    * #update}. This is intended mainly for diagnostic purposes.
+    *
+    * @return number of rebuilds
+    */
+   public int getNumRebuilds() {
+      return myNumRebuilds;
+   }
+
+   /**
+    * Computes the surface area heuristic cost of this tree, which estimates
+    * the relative cost of querying it. This is the sum, over all nodes, of
+    * the node's surface area times either the number of its elements (for
+    * leaf nodes) or 1 (for internal nodes), divided by the surface area of
+    * the root node.
+    *
+    * @return surface area heuristic cost
+    */
+   public double computeSurfaceAreaCost() {
+      BVNode root = getRoot();
+      if (root == null) {
+         return 0;
+      }
+      double rootArea = root.getSurfaceArea();
+      if (rootArea == 0) {
+         return 0;
+      }
+      return computeSurfaceAreaCost (root)/rootArea;
+   }
+
+   private double computeSurfaceAreaCost (BVNode node) {
+      if (node.isLeaf()) {
+         return node.getSurfaceArea()*node.getNumElements();
+      }
+      else {
+         double cost = node.getSurfaceArea();
+         BVNode child;
+         for (child = node.myFirstChild; child != null; child = child.myNext) {
+            cost += computeSurfaceAreaCost (child);
+         }
+         return cost;
+      }
+   }
+
+   /**
+    * Should be called by subclasses once a tree has been built, to record
+    * the information needed for refitting.
+    */
+   protected void initializeRefit() {
+      myBuildCost = computeSurfaceAreaCost();
+      myRefitSubtrees = null;
+      myRefitTopNodes = null;
+   }
+
    /**
     * Updates the bounding volumes in this tree to ensure that they
     * properly contain their enclosed elements. This should be called
     * when the positions of the elements changes (such when the vertices
     * of mesh change position).
     *
+    * <p>The bounding volumes are refit from the bottom up, retaining the
+    * structure of the tree and the orientation of each volume. If the
+    * surface area heuristic cost of the refit tree exceeds its cost when it
+    * was built by more than the rebuild threshold (see {@link
+    * #setRebuildThreshold}), the tree is rebuilt from its elements instead.
+    *
     * @see #setMargin 
     */
-   public abstract void update();
+   public void update() {
+      BVNode root = getRoot();
+      if (root == null) {
+         return;
+      }
+      refit();
+      if (myBuildCost < 0) {
+         myBuildCost = computeSurfaceAreaCost();
+      }
+      else if (myRebuildThreshold != INF &&
+               computeSurfaceAreaCost() > myRebuildThreshold*myBuildCost) {
+         rebuild();
+      }
+   }
+
+   /**
+    * Refits the bounding volumes in this tree from the bottom up, without
+    * checking whether the tree should be rebuilt.
+    */
+   public void refit() {
+      BVNode root = getRoot();
+      if (root == null) {
+         return;
+      }
+      if (myRefitMin == null) {
+         myRefitMin = new Vector3d[myNumRefitThreads];
+         myRefitMax = new Vector3d[myNumRefitThreads];
+         for (int i=0; i<myNumRefitThreads; i++) {
+            myRefitMin[i] = new Vector3d();
+            myRefitMax[i] = new Vector3d();
+         }
+      }
+      if (myNumRefitThreads > 1) {
+         if (myRefitSubtrees == null) {
+            partitionForRefit();
+         }
+         if (myRefitSubtrees.size() > 1) {
+            if (myRefitLoop == null) {
+               myRefitLoop = new ParallelLoop ("BVTree.refit", myNumRefitThreads);
+               myRefitLoop.setMinChunkSize (1);
+            }
+            final ArrayList<BVNode> subtrees = myRefitSubtrees;
+            myRefitLoop.forRange (0, subtrees.size(), new ParallelLoop.Body() {
+                  public void run (int thread, int start, int end) {
+                     Vector3d min = myRefitMin[thread];
+                     Vector3d max = myRefitMax[thread];
+                     for (int i=start; i<end; i++) {
+                        refitRecursively (subtrees.get(i), min, max);
+                     }
+                  }
+               });
+            // refit the remaining nodes from the bottom up
+            for (int i=myRefitTopNodes.size()-1; i>=0; i--) {
+               myRefitTopNodes.get(i).refit (
+                  myMargin, myRefitMin[0], myRefitMax[0]);
+            }
+            return;
+         }
+      }
+      refitRecursively (root, myRefitMin[0], myRefitMax[0]);
+   }
+
+   /**
+    * Partitions the tree into subtrees that can be refit concurrently.
+    * Nodes are expanded in breadth-first order until there are enough
+    * subtrees to keep all threads busy. If the tree is too small, a single
+    * subtree is used.
+    */
+   private void partitionForRefit() {
+      ArrayList<BVNode> subtrees = new ArrayList<BVNode>();
+      ArrayList<BVNode> topNodes = new ArrayList<BVNode>();
+      BVNode root = getRoot();
+      if (numNodes() < MIN_PARALLEL_REFIT_NODES) {
+         subtrees.add (root);
+      }
+      else {
+         int targetSize = 4*myNumRefitThreads;
+         LinkedList<BVNode> queue = new LinkedList<BVNode>();
+         queue.add (root);
+         while (!queue.isEmpty() && queue.size()+subtrees.size() < targetSize) {
+            BVNode node = queue.removeFirst();
+            if (node.isLeaf()) {
+               subtrees.add (node);
+            }
+            else {
+               topNodes.add (node);
+               BVNode child;
+               for (child=node.myFirstChild; child!=null; child=child.myNext) {
+                  queue.add (child);
+               }
+            }
+         }
+         subtrees.addAll (queue);
+      }
+      myRefitSubtrees = subtrees;
+      myRefitTopNodes = topNodes;
+   }
+
+   private void refitRecursively (BVNode node, Vector3d min, Vector3d max) {
+      BVNode child;
+      for (child = node.myFirstChild; child != null; child = child.myNext) {
+         refitRecursively (child, min, max);
+      }
+      node.refit (myMargin, min, max);
+   }
+
+   /**
+    * Rebuilds this tree from the elements currently contained in its leaf
+    * nodes.
+    */
+   public void rebuild() {
+      ArrayList<Boundable> elems = new ArrayList<Boundable>();
+      for (BVNode leaf : getLeafNodes()) {
+         Boundable[] lelems = leaf.getElements();
+         for (int i=0; i<lelems.length; i++) {
+            elems.add (lelems[i]);
+         }
+      }
+      build (elems);
+      numberNodes();
+      myNumRebuilds++;
+   }
+
+   private void disposeRefitLoop() {
+      if (myRefitLoop != null) {
+         myRefitLoop.dispose();
+         myRefitLoop = null;
+      }
+   }
 
    /**
     * {@inheritDoc}
@@ -434,6 +434,111 @@ public class BVTreeTest {
       }
    }
       
+   private void checkNodesEqual (BVNode node0, BVNode node1) {
+      if (node0 instanceof AABB) {
+         AABB aabb0 = (AABB)node0;
+         AABB aabb1 = (AABB)node1;
+         if (!aabb0.myMin.equals (aabb1.myMin) ||
+             !aabb0.myMax.equals (aabb1.myMax)) {
+            throw new TestException (
+               "AABB "+node0.getNumber()+" differs after parallel refit");
+         }
+      }
+      else {
+         OBB obb0 = (OBB)node0;
+         OBB obb1 = (OBB)node1;
+         if (!obb0.myX.equals (obb1.myX) ||
+             !obb0.myHalfWidths.equals (obb1.myHalfWidths)) {
+            throw new TestException (
+               "OBB "+node0.getNumber()+" differs after parallel refit");
+         }
+      }
+      BVNode child0 = node0.getFirstChild();
+      BVNode child1 = node1.getFirstChild();
+      while (child0 != null) {
+         checkNodesEqual (child0, child1);
+         child0 = child0.getNext();
+         child1 = child1.getNext();
+      }
+   }
+
+   /**
+    * Tests refitting with non-rigid deformations, checking that bounds are
+    * maintained, that parallel refitting gives the same result as serial
+    * refitting, that small deformations do not cause the tree to be rebuilt,
+    * and that large deformations do.
+    */
+   public void testRefitting (MeshBase mesh) {
+
+      double radius = RenderableUtils.getRadius (mesh);
+      double noiseAmplitude = 0.1*radius/Math.pow (mesh.numVertices(), 1/3.0);
+
+      ArrayList<BVTree> trees = new ArrayList<BVTree>();
+      trees.add (new AABBTree (mesh));
+      trees.add (new OBBTree (mesh));
+      ArrayList<BVTree> parallelTrees = new ArrayList<BVTree>();
+      parallelTrees.add (new AABBTree (mesh));
+      parallelTrees.add (new OBBTree (mesh));
+      for (BVTree tree : parallelTrees) {
+         tree.setNumRefitThreads (4);
+      }
+      // refitting without any motion should not loosen the trees
+      for (int k=0; k<trees.size(); k++) {
+         BVTree tree = trees.get(k);
+         double cost = tree.computeSurfaceAreaCost();
+         tree.update();
+         parallelTrees.get(k).update();
+         if (Math.abs(tree.computeSurfaceAreaCost()-cost) > 1e-10*cost) {
+            throw new TestException (
+               "tree cost changed from " + cost + " to " +
+               tree.computeSurfaceAreaCost() + " after refit without motion");
+         }
+      }
+      int numtrials = 20;
+      Vector3d del = new Vector3d();
+      for (int i=0; i<numtrials; i++) {
+         for (Vertex3d vtx : mesh.getVertices()) {
+            del.setRandom ();
+            del.scale (noiseAmplitude);
+            vtx.pnt.add (del);
+         }
+         for (int k=0; k<trees.size(); k++) {
+            BVTree tree = trees.get(k);
+            BVTree ptree = parallelTrees.get(k);
+            tree.update();
+            ptree.update();
+            testFeaturesContainedInAncestors (tree);
+            testFeaturesBoundedByNodes (tree.getRoot(), tree.getMargin());
+            checkNodesEqual (tree.getRoot(), ptree.getRoot());
+         }
+      }
+      // small deformations should be handled by refitting alone
+      for (BVTree tree : trees) {
+         if (tree.getNumRebuilds() != 0) {
+            throw new TestException (
+               "tree rebuilt after small deformations");
+         }
+      }
+      // twist the mesh about the z axis by two turns; this should degrade
+      // the tree quality enough to trigger a rebuild
+      for (Vertex3d vtx : mesh.getVertices()) {
+         Point3d p = vtx.pnt;
+         double ang = 4*Math.PI*p.z/radius;
+         double c = Math.cos (ang);
+         double s = Math.sin (ang);
+         p.set (c*p.x - s*p.y, s*p.x + c*p.y, p.z);
+      }
+      for (BVTree tree : trees) {
+         tree.update();
+         if (tree.getNumRebuilds() != 1) {
+            throw new TestException (
+               "tree not rebuilt after large deformation");
+         }
+         testFeaturesContainedInAncestors (tree);
+         testFeaturesBoundedByNodes (tree.getRoot(), tree.getMargin());
+      }
+   }
+
    public void test() {
       testIntersectTree();
       testContainment (MeshFactory.createBox (1.0, 1.5, 2.0));
@@ -447,6 +552,9 @@ public class BVTreeTest {
       testUpdating (new PolygonalMesh (myComplexMesh1));
       testUpdating (MeshFactory.createSphericalPolyline (8.0, 12, 12));
       testUpdating (MeshFactory.createRandomPointMesh (200, 5));
+
+      testRefitting (MeshFactory.createSphere (1.0, 64));
+      testRefitting (MeshFactory.createSphericalPolyline (8.0, 40, 40));
    }
 
    public static void main (String[] args) {
@@ -44,6 +44,7 @@ import maspack.util.ReaderTokenizer;
 import maspack.util.Scannable;
 import maspack.util.NumberFormat;
 import maspack.util.IndentingPrintWriter;
+import maspack.concurrency.ParallelLoop;
 
 /**
  * Implements a distance field on a regular 3D grid. Distances, normals and
@@ -165,6 +166,28 @@ public class DistanceGrid implements Renderable, Scannable {
 
    protected static boolean storeQuadCoefs = true;
 
+   /**
+    * Default number of threads used by a grid to calculate distances from
+    * features, which is the number of available processors.
+    */
+   public static final int DEFAULT_NUM_THREADS =
+      ParallelLoop.getDefaultNumThreads();
+
+   // number of threads used to calculate distances from features
+   private int myNumThreads = DEFAULT_NUM_THREADS;
+   // minimum number of grid vertices for multi-threaded calculation
+   static final int MIN_PARALLEL_VERTICES = 20000;
+   // if non-null, used to store and retrieve distances calculated from features
+   private DistanceGridCache myCache = null;
+
+   // number of threads used for batched point queries
+   private int myNumQueryThreads = 1;
+   // loop used for batched point queries, created by setNumQueryThreads
+   // when more than one thread is requested
+   private volatile ParallelLoop myQueryLoop;
+   // minimum number of points handled by each thread in batched queries
+   static final int MIN_QUERY_CHUNK_SIZE = 256;
+
    /**
     * Special distance value indicating that a query point is outside the grid.
     */
@@ -520,16 +543,7 @@ public class DistanceGrid implements Renderable, Scannable {
          myQxQy = myQx*myQy;  
 
          // clear or recompute distances
-         int numV = myNx*myNy*myNz;
-         myPhi = new double[numV];
-         myNormals = new Vector3d[numV];
-         myColorIndices = new int[numV];
-         myQuadCoefs = null;
-         if (myFeatures != null) {
-            int[] closestFeatureIdxs = new int[numV];
-            calculatePhi (myPhi, closestFeatureIdxs, myFeatures, mySignedP);
-            myClosestFeatureIdxs = closestFeatureIdxs;
-         }
+         allocateVertexData();
          // adjust render ranges
          if (myRenderRanges == null) {
             myRenderRanges = new int[] {0, myNx, 0, myNy, 0, myNz};
@@ -584,9 +598,30 @@ public class DistanceGrid implements Renderable, Scannable {
       myRobValid = false;
    }
 
-   private void clearNormals() {
-      for (int i=0; i<myNormals.length; i++) {
-         myNormals[i] = null;
+   /**
+    * Allocates the per-vertex storage for this grid after its resolution
+    * has changed. If features are present, the distances are recomputed
+    * from them; otherwise, they are set to zero. Subclasses that store
+    * distances differently should override this method.
+    */
+   protected void allocateVertexData() {
+      int numV = myNx*myNy*myNz;
+      myPhi = new double[numV];
+      myNormals = new Vector3d[numV];
+      myColorIndices = new int[numV];
+      myQuadCoefs = null;
+      if (myFeatures != null) {
+         int[] closestFeatureIdxs = new int[numV];
+         calculatePhi (myPhi, closestFeatureIdxs, myFeatures, mySignedP);
+         myClosestFeatureIdxs = closestFeatureIdxs;
+      }
+   }
+
+   void clearNormals() {
+      if (myNormals != null) {
+         for (int i=0; i<myNormals.length; i++) {
+            myNormals[i] = null;
+         }
       }
    }
 
@@ -594,10 +629,40 @@ public class DistanceGrid implements Renderable, Scannable {
       myColorMap = new LinkedHashMap<Color,Integer>();
       myColors = new ArrayList<Color>();
       myColors.add (Color.GREEN);
+      clearVertexColorIndices();
+   }
+
+   /**
+    * Resets the color index of every vertex to 0, which corresponds to the
+    * default vertex color. Subclasses that store vertex data differently
+    * should override this method, along with {@link #getVertexColorIndex}
+    * and {@link #setVertexColorIndex}.
+    */
+   protected void clearVertexColorIndices() {
       for (int i=0; i<myColorIndices.length; i++) {
          myColorIndices[i] = 0;
       }
    }
+
+   /**
+    * Returns the index of the color used to render a specific vertex.
+    *
+    * @param idx vertex index
+    * @return color index for the vertex
+    */
+   protected int getVertexColorIndex (int idx) {
+      return myColorIndices[idx];
+   }
+
+   /**
+    * Sets the index of the color used to render a specific vertex.
+    *
+    * @param idx vertex index
+    * @param cidx color index for the vertex
+    */
+   protected void setVertexColorIndex (int idx, int cidx) {
+      myColorIndices[idx] = cidx;
+   }
    
    private final double sqr (double x) {
       return x*x;
@@ -620,7 +685,7 @@ public class DistanceGrid implements Renderable, Scannable {
          myColorMap.put (color, cidx);
          myColors.add (color);
       }
-      myColorIndices[idx] = cidx;
+      setVertexColorIndex (idx, cidx);
       myRobValid = false;
    }
    
@@ -636,7 +701,7 @@ public class DistanceGrid implements Renderable, Scannable {
          return null;
       }
       else {
-         return myColors.get(myColorIndices[idx]);
+         return myColors.get(getVertexColorIndex(idx));
       }
    }
 
@@ -992,7 +1057,7 @@ public class DistanceGrid implements Renderable, Scannable {
       setCenterAndOrientation (TCL);
    }      
 
-   private int clip (int x, int min, int max) {
+   int clip (int x, int min, int max) {
       if (x < min) {
          return min;
       }
@@ -1010,7 +1075,34 @@ public class DistanceGrid implements Renderable, Scannable {
       Feature[] featArray = features.toArray(new Feature[0]);
       int numv = numVertices();
       int[] closestFeatureIdxs = new int[numv];
-      calculatePhi (myPhi, closestFeatureIdxs, featArray, signed);
+      DistanceGridCache cache = myCache;
+      if (cache != null) {
+         Vector3i nv = new Vector3i (myNx, myNy, myNz);
+         String key = cache.computeKey (this, featArray, signed);
+         boolean found = false;
+         try {
+            found = cache.read (
+               key, myPhi, closestFeatureIdxs, nv, signed, featArray.length);
+         }
+         catch (IOException e) {
+            System.out.println (
+               "Warning: can't read cached distance grid: " + e.getMessage());
+         }
+         if (!found) {
+            calculatePhi (myPhi, closestFeatureIdxs, featArray, signed);
+            try {
+               cache.write (
+                  key, myPhi, closestFeatureIdxs, nv, signed, featArray.length);
+            }
+            catch (IOException e) {
+               System.out.println (
+                  "Warning: can't write cached distance grid: "+e.getMessage());
+            }
+         }
+      }
+      else {
+         calculatePhi (myPhi, closestFeatureIdxs, featArray, signed);
+      }
       myQuadCoefs = null;
       clearNormals();
       myClosestFeatureIdxs = closestFeatureIdxs;
@@ -1078,6 +1170,159 @@ public class DistanceGrid implements Renderable, Scannable {
       mySignedP = true;
    }
    
+   /**
+    * Computes the range of grid vertices enclosing the bounding box of a
+    * feature, along with the minimum and maximum z values of the feature in
+    * grid coordinates.
+    */
+   void computeFeatureGridBounds (
+      Vector3i gridMin, Vector3i gridMax, double[] zrange, Feature feature) {
+
+      Point3d gridPnt = new Point3d();
+      Vector3i hi = new Vector3i();
+      Vector3i lo = new Vector3i();
+
+      gridMin.set (myNx+1, myNy+1, myNz+1);
+      gridMax.set (-1, -1, -1);
+      double maxz = -INF; // max, minz of the feature in grid coords
+      double minz = INF;
+      for (int i=0; i<feature.numPoints(); i++) {
+         Point3d featPnt = feature.getPoint(i);
+
+         myGridToLocal.inverseTransformPnt (gridPnt, featPnt);
+
+         lo.x = clip((int)gridPnt.x, 0, myNx-1);
+         lo.y = clip((int)gridPnt.y, 0, myNy-1);
+         lo.z = clip((int)gridPnt.z, 0, myNz-1);
+         hi.x = clip((int)(gridPnt.x+1), 0, myNx-1);
+         hi.y = clip((int)(gridPnt.y+1), 0, myNy-1);
+         hi.z = clip((int)(gridPnt.z+1), 0, myNz-1);
+         if (gridPnt.z < minz) {
+            minz = gridPnt.z;
+         }
+         if (gridPnt.z > maxz) {
+            maxz = gridPnt.z;
+         }
+         lo.updateBounds (gridMin, gridMax);
+         hi.updateBounds (gridMin, gridMax);
+      }
+      zrange[0] = minz;
+      zrange[1] = maxz;
+   }
+
+   /**
+    * Updates the distances for all vertices within a specified range, based
+    * on their distances to the t-th feature.
+    */
+   private void updateDistances (
+      double[] phi, int[] closestFeatureIdxs, Feature feature, int t,
+      int xlo, int ylo, int zlo, int xhi, int yhi, int zhi,
+      Point3d featPntLoc, Point3d nearPntLoc) {
+
+      for (int zk = zlo; zk <= zhi; zk++) {
+         for (int yj = ylo; yj <= yhi; yj++) {
+            for (int xi = xlo; xi <= xhi; xi++) {
+               // Get features coordinates
+               featPntLoc.set (xi, yj, zk);
+               myGridToLocal.transformPnt (featPntLoc, featPntLoc);
+               // Get the distance from this point to the Feature.
+               feature.nearestPoint (nearPntLoc, featPntLoc);
+               double distance = featPntLoc.distance (nearPntLoc);
+               int index = xyzIndicesToVertex (xi, yj, zk);
+               if (distance < phi[index]) {
+                  phi[index] = distance;
+                  if (closestFeatureIdxs != null) {
+                     closestFeatureIdxs [index] = t;
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Ray-casts from bottom x-y plane, upwards, through a feature, counting
+    * intersections. The counts are used to determine the distance signs.
+    */
+   private void countRayIntersections (
+      int[] zIntersectCount, Feature feature, Vector3i gridMin,
+      Vector3i gridMax, double minz, double maxz, double maxDist) {
+
+      Face face = checkSignedFeature (feature);
+      for (int yj = gridMin.y; yj <= gridMax.y; yj++) {
+         for (int xi = gridMin.x; xi <= gridMax.x; xi++) {
+            int zInterval =
+               intersectVerticalRay (face, xi, yj, minz, maxz, maxDist);
+            if (zInterval != -1) {
+               ++zIntersectCount [xyzIndicesToVertex (xi, yj, zInterval)];
+            } // point in triangle
+         } // x
+      } // y
+   }
+
+   /**
+    * Checks that a feature can be used to compute a signed grid.
+    */
+   Face checkSignedFeature (Feature feature) {
+      if (!(feature instanceof Face)) {
+         throw new IllegalArgumentException (
+            "Signed grid can only be created if all features are Faces");
+      }
+      return (Face)feature;
+   }
+
+   /**
+    * Intersects a face with an upward ray along the z axis through the
+    * vertex column (xi, yj). If there is an intersection, returns the z
+    * index of the first vertex at or above it; otherwise, returns -1.
+    */
+   int intersectVerticalRay (
+      Face face, int xi, int yj, double minz, double maxz, double maxDist) {
+
+      if (maxz < 0) {
+         return -1;
+      }
+      Point3d bot = new Point3d();
+      Point3d top = new Point3d();
+      Point3d ipnt = new Point3d();
+      myGridToLocal.transformPnt (bot, new Point3d (xi, yj, minz-1));
+      myGridToLocal.transformPnt (top, new Point3d (xi, yj, maxz+1));
+
+      int res = RobustPreds.intersectSegmentTriangle (
+         ipnt, bot, top, face, maxDist, /*worldCoords=*/false);
+      if (res > 0) {
+         Point3d gridPnt = new Point3d();
+         myGridToLocal.inverseTransformPnt (gridPnt, ipnt);
+         return clip((int)Math.ceil(gridPnt.z), 0, myNz-1);
+      }
+      else {
+         return -1;
+      }
+   }
+
+   /**
+    * Returns the number of threads that should be used to calculate the
+    * distance field for a given set of features. Multiple threads are only
+    * used for larger grids, and only if all the features are triangular
+    * faces, since the nearest point computation for other features may not
+    * be thread-safe.
+    */
+   private int numCalculationThreads (
+      Feature[] features, int[] closestFeatureIdxs) {
+      int numThreads = myNumThreads;
+      if (numThreads <= 1 || closestFeatureIdxs == null ||
+          numVertices() < MIN_PARALLEL_VERTICES) {
+         return 1;
+      }
+      for (int t=0; t<features.length; t++) {
+         Feature feat = features[t];
+         if (!(feat instanceof Face) || !((Face)feat).isTriangle()) {
+            return 1;
+         }
+      }
+      return numThreads;
+   }
+
    /** 
     * Calculates the distance field.
     */
@@ -1117,123 +1362,54 @@ public class DistanceGrid implements Renderable, Scannable {
             zIntersectCount[i] = 0;
          }
       }
-      Point3d featPnt    = new Point3d();
-      Point3d gridPnt    = new Point3d();
-      Vector3i gridMinOld   = new Vector3i();
-      Vector3i gridMaxOld   = new Vector3i();
-      Vector3i gridMin   = new Vector3i();
-      Vector3i gridMax   = new Vector3i();
-      Point3d featMin   = new Point3d();
-      Point3d featMax   = new Point3d();
-      Point3d nearPntLoc = new Point3d();
-      Point3d featPntLoc = new Point3d();
-      Vector3i hi = new Vector3i();
-      Vector3i lo = new Vector3i();
-
-      // For every feature ...
-      for (int t=0; t<features.length; ++t) {
-         // Find the vertex-aligned parallelpiped containing the feature's
-         // bounding box.
-         Feature feature = features[t];
 
-         gridMin.set (myNx+1, myNy+1, myNz+1);
-         gridMax.set (-1, -1, -1);
-         double maxz = -INF; // max, minz of the feature in grid coords
-         double minz = INF;
-         for (int i=0; i<feature.numPoints(); i++) {
-            featPnt = feature.getPoint(i);
-            
-            myGridToLocal.inverseTransformPnt (gridPnt, featPnt);
-
-            lo.x = clip((int)gridPnt.x, 0, myNx-1);
-            lo.y = clip((int)gridPnt.y, 0, myNy-1);
-            lo.z = clip((int)gridPnt.z, 0, myNz-1);
-            hi.x = clip((int)(gridPnt.x+1), 0, myNx-1);
-            hi.y = clip((int)(gridPnt.y+1), 0, myNy-1);
-            hi.z = clip((int)(gridPnt.z+1), 0, myNz-1);
-            if (gridPnt.z < minz) {
-               minz = gridPnt.z;
-            }
-            if (gridPnt.z > maxz) {
-               maxz = gridPnt.z;
-            }
-            lo.updateBounds (gridMin, gridMax);
-            hi.updateBounds (gridMin, gridMax);
-         }
-
-         // Go through the entire parallelpiped. Calculate distance and
-         // closestFeature.
-         for (int zk = gridMin.z; zk <= gridMax.z; zk++) {
-            for (int yj = gridMin.y; yj <= gridMax.y; yj++) {
-               for (int xi = gridMin.x; xi <= gridMax.x; xi++) {
-                  // Get features coordinates
-                  featPntLoc.set (xi, yj, zk);
-                  myGridToLocal.transformPnt (featPntLoc, featPntLoc);
-                  // Get the distance from this point to the Feature.
-                  feature.nearestPoint (nearPntLoc, featPntLoc);
-                  double distance = featPntLoc.distance (nearPntLoc);
-                  int index = xyzIndicesToVertex (xi, yj, zk);
-                  if (index >= numv) {
-                     System.out.println ("coords = " +xi+" "+yj+" "+zk);
-                  }
-                  if (distance < phi[index]) {
-                     phi[index] = distance;
-                     if (closestFeatureIdxs != null) {
-                        closestFeatureIdxs [index] = t;
-                     }
-                  }
-               }
+      int numThreads = numCalculationThreads (features, closestFeatureIdxs);
+      if (numThreads > 1) {
+         calculatePhiInParallel (
+            phi, closestFeatureIdxs, zIntersectCount, features, numThreads);
+      }
+      else {
+         Vector3i gridMin   = new Vector3i();
+         Vector3i gridMax   = new Vector3i();
+         double[] zrange = new double[2];
+         Point3d nearPntLoc = new Point3d();
+         Point3d featPntLoc = new Point3d();
+
+         // For every feature ...
+         for (int t=0; t<features.length; ++t) {
+            // Find the vertex-aligned parallelpiped containing the feature's
+            // bounding box.
+            Feature feature = features[t];
+            computeFeatureGridBounds (gridMin, gridMax, zrange, feature);
+
+            // Go through the entire parallelpiped. Calculate distance and
+            // closestFeature.
+            updateDistances (
+               phi, closestFeatureIdxs, feature, t,
+               gridMin.x, gridMin.y, gridMin.z, gridMax.x, gridMax.y, gridMax.z,
+               featPntLoc, nearPntLoc);
+
+            if (signed) {
+               countRayIntersections (
+                  zIntersectCount, feature, gridMin, gridMax,
+                  zrange[0], zrange[1], maxDist);
             }
          }
 
-         if (signed) {
-            if (!(feature instanceof Face)) {
-               throw new IllegalArgumentException (
-                  "Signed grid can only be created if all features are Faces");
-            }
-            Face face = (Face)feature;
-            Point3d bot = new Point3d();
-            Point3d top = new Point3d();
-            // Ray-casts from bottom x-y plane, upwards, counting intersections.
-            // We're building intersectionCount[] to use in ray casting below.
-            for (int yj = gridMin.y; yj <= gridMax.y; yj++) {
-               for (int xi = gridMin.x; xi <= gridMax.x; xi++) {
-
-                  Point3d ipnt = new Point3d();
-                  int res = 0;
-                  if (maxz >= 0) {
-                     myGridToLocal.transformPnt (
-                        bot, new Point3d (xi, yj, minz-1));
-                     myGridToLocal.transformPnt (
-                        top, new Point3d (xi, yj, maxz+1));
-                     
-                     res = RobustPreds.intersectSegmentTriangle (
-                        ipnt, bot, top, face, maxDist, /*worldCoords=*/false);
-                  }
-                  
-                  if (res > 0) {
-                     myGridToLocal.inverseTransformPnt (gridPnt, ipnt);
-                     int zInterval = clip((int)Math.ceil(gridPnt.z), 0, myNz-1);
-                     ++zIntersectCount [xyzIndicesToVertex (xi, yj, zInterval)];
-                  } // point in triangle
-               } // x
-            } // y 
+         // Done all triangles.
+         // Sweep, propagating values throughout the grid volume.
+         for (int pass = 0; pass < 2; pass++) {
+            sweep(phi, +1, +1, +1, closestFeatureIdxs, features);
+            sweep(phi, -1, -1, -1, closestFeatureIdxs, features);
+            sweep(phi, +1, +1, -1, closestFeatureIdxs, features);
+            sweep(phi, -1, -1, +1, closestFeatureIdxs, features);
+            sweep(phi, +1, -1, +1, closestFeatureIdxs, features);
+            sweep(phi, -1, +1, -1, closestFeatureIdxs, features);
+            sweep(phi, +1, -1, -1, closestFeatureIdxs, features);
+            sweep(phi, -1, +1, +1, closestFeatureIdxs, features);
          }
       }
 
-      // Done all triangles.
-      // Sweep, propagating values throughout the grid volume.
-      for (int pass = 0; pass < 2; pass++) {
-         sweep(phi, +1, +1, +1, closestFeatureIdxs, features);
-         sweep(phi, -1, -1, -1, closestFeatureIdxs, features);
-         sweep(phi, +1, +1, -1, closestFeatureIdxs, features);
-         sweep(phi, -1, -1, +1, closestFeatureIdxs, features);
-         sweep(phi, +1, -1, +1, closestFeatureIdxs, features);
-         sweep(phi, -1, +1, -1, closestFeatureIdxs, features);
-         sweep(phi, +1, -1, -1, closestFeatureIdxs, features);
-         sweep(phi, -1, +1, +1, closestFeatureIdxs, features);
-      }
-
       if (signed) {
          // This is a ray-casting implementation to find the sign of each
          // vertex in the grid.
@@ -1256,6 +1432,79 @@ public class DistanceGrid implements Renderable, Scannable {
       }
    }
 
+   /**
+    * Multi-threaded version of the distance calculation, which produces
+    * exactly the same results as the single-threaded version. The brute force
+    * initialization near each feature is partitioned into slabs along z,
+    * with each thread processing all features in order but only updating the
+    * vertices within its own slab. The sweeps are parallelized using
+    * a wavefront, as described for {@link #sweepInParallel}. The ray
+    * intersection counts are computed by the calling thread, since the
+    * robust predicates are not assumed to be thread-safe.
+    */
+   private void calculatePhiInParallel (
+      final double[] phi, final int[] closestFeatureIdxs,
+      int[] zIntersectCount, final Feature[] features, int numThreads) {
+
+      double maxDist = 2*getRadius();
+
+      // grid bounds for each feature, stored as xlo, ylo, zlo, xhi, yhi, zhi
+      final int[] bounds = new int[6*features.length];
+      Vector3i gridMin = new Vector3i();
+      Vector3i gridMax = new Vector3i();
+      double[] zrange = new double[2];
+      for (int t=0; t<features.length; ++t) {
+         Feature feature = features[t];
+         computeFeatureGridBounds (gridMin, gridMax, zrange, feature);
+         bounds[6*t  ] = gridMin.x;
+         bounds[6*t+1] = gridMin.y;
+         bounds[6*t+2] = gridMin.z;
+         bounds[6*t+3] = gridMax.x;
+         bounds[6*t+4] = gridMax.y;
+         bounds[6*t+5] = gridMax.z;
+         if (zIntersectCount != null) {
+            countRayIntersections (
+               zIntersectCount, feature, gridMin, gridMax,
+               zrange[0], zrange[1], maxDist);
+         }
+      }
+
+      ParallelLoop loop = new ParallelLoop ("DistanceGrid", numThreads);
+      loop.setMinChunkSize (4);
+      try {
+         loop.forRange (0, myNz, new ParallelLoop.Body() {
+               public void run (int thread, int zstart, int zend) {
+                  Point3d nearPntLoc = new Point3d();
+                  Point3d featPntLoc = new Point3d();
+                  for (int t=0; t<features.length; ++t) {
+                     int zlo = Math.max (bounds[6*t+2], zstart);
+                     int zhi = Math.min (bounds[6*t+5], zend-1);
+                     if (zlo <= zhi) {
+                        updateDistances (
+                           phi, closestFeatureIdxs, features[t], t,
+                           bounds[6*t], bounds[6*t+1], zlo,
+                           bounds[6*t+3], bounds[6*t+4], zhi,
+                           featPntLoc, nearPntLoc);
+                     }
+                  }
+               }
+            });
+         for (int pass = 0; pass < 2; pass++) {
+            sweepInParallel (loop, phi, +1, +1, +1, closestFeatureIdxs, features);
+            sweepInParallel (loop, phi, -1, -1, -1, closestFeatureIdxs, features);
+            sweepInParallel (loop, phi, +1, +1, -1, closestFeatureIdxs, features);
+            sweepInParallel (loop, phi, -1, -1, +1, closestFeatureIdxs, features);
+            sweepInParallel (loop, phi, +1, -1, +1, closestFeatureIdxs, features);
+            sweepInParallel (loop, phi, -1, +1, -1, closestFeatureIdxs, features);
+            sweepInParallel (loop, phi, +1, -1, -1, closestFeatureIdxs, features);
+            sweepInParallel (loop, phi, -1, +1, +1, closestFeatureIdxs, features);
+         }
+      }
+      finally {
+         loop.dispose();
+      }
+   }
+
    /** 
     * Calculates the normal at a vertex on the grid, using numeric
     * differentiation.
@@ -1268,6 +1517,23 @@ public class DistanceGrid implements Renderable, Scannable {
    private Vector3d calcNormal (int x, int y, int z) {
 
       Vector3d nrm = new Vector3d();
+      computeVertexNormal (nrm, x, y, z);
+      if (myNormals != null) {
+         myNormals[xyzIndicesToVertex (x, y, z)] = nrm;
+      }
+      return nrm;
+   }
+
+   /** 
+    * Computes the normal at a vertex on the grid, using numeric
+    * differentiation, without storing it.
+    *
+    * @param nrm returns the normal
+    * @param x x coordinate on grid.
+    * @param y y coordinate on grid.
+    * @param z z coordinate on grid.
+    */
+   private void computeVertexNormal (Vector3d nrm, int x, int y, int z) {
       //********************************************************************
       if (x == myNx - 1) {
          nrm.x = getVertexDistance (x, y, z) - getVertexDistance (x-1, y, z);
@@ -1304,8 +1570,6 @@ public class DistanceGrid implements Renderable, Scannable {
       //********************************************************************
       myGridToLocal.transformCovec (nrm, nrm);
       nrm.normalize ();
-      myNormals[xyzIndicesToVertex (x, y, z)] = nrm;
-      return nrm;
    }
 
    /** 
@@ -1463,6 +1727,201 @@ public class DistanceGrid implements Renderable, Scannable {
       return d;
    }
 
+   /**
+    * Calculates the distances and normals for a batch of points, using
+    * multilinear interpolation as described for {@link
+    * #getLocalDistanceAndNormal(Vector3d,Point3d)}. The points are supplied
+    * in a packed array, with the x, y, z coordinates of point <code>i</code>
+    * stored at <code>3*i</code>, <code>3*i+1</code> and <code>3*i+2</code>,
+    * and are first transformed into local coordinates by <code>TPL</code>,
+    * if it is non-<code>null</code>. The resulting distances and normals
+    * (local coordinates) are written into caller-supplied arrays, with the
+    * normals packed the same way as the points. Points outside the grid are
+    * given a distance of {@link #OUTSIDE_GRID} and a zero normal.
+    *
+    * <p>The results are identical to those given by calling {@link
+    * #getLocalDistanceAndNormal(Vector3d,Point3d)} for each point. However,
+    * no objects are allocated per point, and vertex normals not already
+    * stored in the grid are computed on the fly without being stored, so
+    * that the work can be split across threads, as specified by {@link
+    * #setNumQueryThreads}.
+    *
+    * @param dists returns the distance for each point. Must have a length
+    * {@code >=} <code>num</code>.
+    * @param nrms if non-<code>null</code>, returns the normal for each
+    * point (local coordinates). Must have a length {@code >=}
+    * <code>3*num</code>.
+    * @param pnts coordinates of the query points. Must have a length
+    * {@code >=} <code>3*num</code>.
+    * @param num number of query points
+    * @param TPL if non-<code>null</code>, transform from the coordinate
+    * frame of the points to the local coordinates of this grid
+    */
+   public void getLocalDistancesAndNormals (
+      double[] dists, double[] nrms, double[] pnts, int num,
+      RigidTransform3d TPL) {
+      getDistancesAndNormals (dists, nrms, pnts, num, TPL, null);
+   }
+
+   /**
+    * Calculates the distances and normals for a batch of points in world
+    * coordinates, as described for {@link
+    * #getLocalDistancesAndNormals}. The returned normals are in world
+    * coordinates.
+    *
+    * @param dists returns the distance for each point
+    * @param nrms if non-<code>null</code>, returns the normal for each
+    * point (world coordinates)
+    * @param pnts coordinates of the query points (world coordinates)
+    * @param num number of query points
+    */
+   public void getWorldDistancesAndNormals (
+      double[] dists, double[] nrms, double[] pnts, int num) {
+      getDistancesAndNormals (dists, nrms, pnts, num, null, myLocalToWorld);
+   }
+
+   /**
+    * Implements batched distance and normal queries, splitting the points
+    * across multiple threads if appropriate.
+    */
+   private void getDistancesAndNormals (
+      final double[] dists, final double[] nrms, final double[] pnts,
+      int num, final RigidTransform3d TPL, final VectorTransformer3d TLW) {
+
+      if (dists.length < num || pnts.length < 3*num ||
+          (nrms != null && nrms.length < 3*num)) {
+         throw new IllegalArgumentException (
+            "array lengths insufficient for "+num+" points");
+      }
+      ParallelLoop loop = myQueryLoop;
+      if (loop != null && num >= 2*MIN_QUERY_CHUNK_SIZE) {
+         loop.forRange (0, num, new ParallelLoop.Body() {
+               public void run (int thread, int start, int end) {
+                  queryDistancesAndNormals (
+                     dists, nrms, pnts, start, end, TPL, TLW);
+               }
+            });
+      }
+      else {
+         queryDistancesAndNormals (dists, nrms, pnts, 0, num, TPL, TLW);
+      }
+   }
+
+   /**
+    * Computes the distances and normals for the points in the range
+    * <code>[start,end)</code> of a batch query. Points are transformed into
+    * local coordinates using either <code>TPL</code> or the inverse of
+    * <code>TLW</code>, and in the latter case the normals are transformed
+    * back into world coordinates.
+    */
+   private void queryDistancesAndNormals (
+      double[] dists, double[] nrms, double[] pnts, int start, int end,
+      RigidTransform3d TPL, VectorTransformer3d TLW) {
+
+      // scratch objects, allocated once per call
+      Point3d pnt = new Point3d();
+      Vector3d pgrid = new Vector3d();
+      Vector3d norm = new Vector3d();
+      Vector3d[] tmps = new Vector3d[8];
+      for (int k=0; k<8; k++) {
+         tmps[k] = new Vector3d();
+      }
+      for (int i=start; i<end; i++) {
+         pnt.set (pnts[3*i], pnts[3*i+1], pnts[3*i+2]);
+         if (TPL != null) {
+            pnt.transform (TPL);
+         }
+         else if (TLW != null) {
+            TLW.inverseTransformPnt (pnt, pnt);
+         }
+         if (!transformToGrid (pgrid, pnt)) {
+            dists[i] = OUTSIDE_GRID;
+            if (nrms != null) {
+               nrms[3*i  ] = 0;
+               nrms[3*i+1] = 0;
+               nrms[3*i+2] = 0;
+            }
+            continue;
+         }
+         // same cell indexing and arithmetic as getCellCoords() and
+         // getLocalDistanceAndNormal(), so that results are identical
+         int xi = (int)pgrid.x;
+         int yj = (int)pgrid.y;
+         int zk = (int)pgrid.z;
+         if (xi == myNx - 1) {
+            xi -= 1;
+         }
+         if (yj == myNy - 1) {
+            yj -= 1;
+         }
+         if (zk == myNz - 1) {
+            zk -= 1;
+         }
+         double dx = pgrid.x - xi;
+         double dy = pgrid.y - yj;
+         double dz = pgrid.z - zk;
+
+         double w001z = (1-dx)*(1-dy);
+         double w011z = (1-dx)*dy;
+         double w101z = dx*(1-dy);
+         double w111z = dx*dy;
+
+         double w000  = w001z*(1-dz);
+         double w001  = w001z*dz;
+         double w010  = w011z*(1-dz);
+         double w011  = w011z*dz;
+         double w100  = w101z*(1-dz);
+         double w101  = w101z*dz;
+         double w110  = w111z*(1-dz);
+         double w111  = w111z*dz;
+
+         dists[i] =
+            w000*getVertexDistance (xi  , yj  , zk  ) +
+            w001*getVertexDistance (xi  , yj  , zk+1) +
+            w010*getVertexDistance (xi  , yj+1, zk  ) +
+            w011*getVertexDistance (xi  , yj+1, zk+1) +
+            w100*getVertexDistance (xi+1, yj  , zk  ) +
+            w101*getVertexDistance (xi+1, yj  , zk+1) +
+            w110*getVertexDistance (xi+1, yj+1, zk  ) +
+            w111*getVertexDistance (xi+1, yj+1, zk+1);
+
+         if (nrms != null) {
+            norm.setZero();
+            norm.scaledAdd (w000, getVertexNormal (tmps[0], xi  , yj  , zk  ));
+            norm.scaledAdd (w001, getVertexNormal (tmps[1], xi  , yj  , zk+1));
+            norm.scaledAdd (w010, getVertexNormal (tmps[2], xi  , yj+1, zk  ));
+            norm.scaledAdd (w011, getVertexNormal (tmps[3], xi  , yj+1, zk+1));
+            norm.scaledAdd (w100, getVertexNormal (tmps[4], xi+1, yj  , zk  ));
+            norm.scaledAdd (w101, getVertexNormal (tmps[5], xi+1, yj  , zk+1));
+            norm.scaledAdd (w110, getVertexNormal (tmps[6], xi+1, yj+1, zk  ));
+            norm.scaledAdd (w111, getVertexNormal (tmps[7], xi+1, yj+1, zk+1));
+            if (TLW != null) {
+               TLW.transformCovec (norm, norm);
+            }
+            nrms[3*i  ] = norm.x;
+            nrms[3*i+1] = norm.y;
+            nrms[3*i+2] = norm.z;
+         }
+      }
+   }
+
+   /**
+    * Returns the normal at a vertex for use in batched queries. If the
+    * normal is not stored in the grid, it is computed into
+    * <code>tmp</code>, without being stored, so that this method can be
+    * called concurrently from multiple threads.
+    */
+   private Vector3d getVertexNormal (Vector3d tmp, int xi, int yj, int zk) {
+      if (myNormals != null) {
+         Vector3d nrm = myNormals[xyzIndicesToVertex(xi, yj, zk)];
+         if (nrm != null) {
+            return nrm;
+         }
+      }
+      computeVertexNormal (tmp, xi, yj, zk);
+      return tmp;
+   }
+
    /** 
     * Calculates the distance and normal at an arbitrary point in local
     * coordinates using multilinear interpolation, as described for {@link
@@ -1770,7 +2229,10 @@ public class DistanceGrid implements Renderable, Scannable {
       // check 8 nearest features from corners
       for (int i=0; i<coords.length; i+=3) {
          int idx = xyzIndicesToVertex(coords[i], coords[i+1], coords[i+2]);
-         Feature f = myFeatures[idx];
+         Feature f = getClosestFeature (idx);
+         if (f == null) {
+            continue;
+         }
          f.nearestPoint(tmp, point);
          double d = tmp.distance(point);
          if (d < dmin) {
@@ -2084,6 +2546,91 @@ public class DistanceGrid implements Renderable, Scannable {
       myLocalToWorld.transformPnt (center, center);
    }
 
+   /**
+    * Sets the number of threads used by this grid to calculate distances
+    * from features. Multiple threads are used only for larger grids whose
+    * features are all triangular faces, and give exactly the same results
+    * as a single thread. The default value is given by {@link
+    * #DEFAULT_NUM_THREADS}.
+    *
+    * @param num number of threads (values {@code < 1} are set to 1)
+    */
+   public void setNumThreads (int num) {
+      myNumThreads = Math.max (1, num);
+   }
+
+   /**
+    * Queries the number of threads used by this grid to calculate distances
+    * from features.
+    *
+    * @return number of threads
+    * @see #setNumThreads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets a cache used by this grid to store the distances calculated from
+    * features by methods such as {@link #computeFromFeatures} and {@link
+    * #computeFromFeaturesOBB}, so that they do not need to be recalculated
+    * when the same grid is computed again, for instance when a model is
+    * reloaded. Specifying <code>null</code> disables caching, which is the
+    * default.
+    *
+    * @param cache distance grid cache, or <code>null</code>
+    */
+   public void setCache (DistanceGridCache cache) {
+      myCache = cache;
+   }
+
+   /**
+    * Returns the cache used by this grid to store distances calculated from
+    * features, or <code>null</code> if caching is disabled.
+    *
+    * @return distance grid cache
+    * @see #setCache
+    */
+   public DistanceGridCache getCache() {
+      return myCache;
+   }
+
+   /**
+    * Sets the number of threads used by {@link #getLocalDistancesAndNormals}
+    * and {@link #getWorldDistancesAndNormals} to process batches of query
+    * points. Multiple threads are only used for batches containing at least
+    * several hundred points per thread. The default value is 1.
+    *
+    * <p>This should not be called while a batched query is in progress.
+    *
+    * @param num number of query threads (values {@code < 1} are set to 1)
+    */
+   public void setNumQueryThreads (int num) {
+      num = Math.max (1, num);
+      if (num != myNumQueryThreads) {
+         myNumQueryThreads = num;
+         ParallelLoop loop = null;
+         if (num > 1) {
+            loop = new ParallelLoop ("DistanceGrid.query", num);
+            loop.setMinChunkSize (MIN_QUERY_CHUNK_SIZE);
+         }
+         if (myQueryLoop != null) {
+            myQueryLoop.dispose();
+         }
+         myQueryLoop = loop;
+      }
+   }
+
+   /**
+    * Returns the number of threads used to process batches of query points.
+    *
+    * @return number of query threads
+    * @see #setNumQueryThreads
+    */
+   public int getNumQueryThreads() {
+      return myNumQueryThreads;
+   }
+
    /**
     * Queries whether or not this grid is signed.
     *
@@ -2105,6 +2652,10 @@ public class DistanceGrid implements Renderable, Scannable {
     * @return nearest feature normal at the vertex (must not be modified)
     */
    protected Vector3d getLocalVertexNormal (int xi, int yj, int zk) {
+      if (myNormals == null) {
+         // normals are not stored
+         return calcNormal (xi, yj, zk);
+      }
       Vector3d nrm = myNormals[xyzIndicesToVertex(xi, yj, zk)];
       if (nrm == null) {
          nrm = calcNormal (xi, yj, zk);
@@ -2162,6 +2713,17 @@ public class DistanceGrid implements Renderable, Scannable {
       return myPhi[xyzIndicesToVertex(xi, yj, zk)];
    }
 
+   /**
+    * Returns the distance to the features at a specified vertex, as specified
+    * by its index.
+    * 
+    * @param vi vertex index
+    * @return nearest feature distance at the vertex
+    */   
+   protected double getVertexDistance (int vi) {
+      return myPhi[vi];
+   }
+
    /**
     * Utility method for the {@link #sweep sweep} method. Compares a given 
     * vertex with one of its neighbours.
@@ -2217,15 +2779,6 @@ public class DistanceGrid implements Renderable, Scannable {
       Point3d pc = new Point3d();
       Point3d p1 = new Point3d();
 
-      int x0, x1;
-      if (dx > 0) {
-         x0 = 1;
-         x1 = myNx;
-      }
-      else {
-         x0 = myNx-2;  // sweeps backwards
-         x1 = -1;
-      }
       int y0, y1;
       if (dy > 0) { 
          y0 = 1;
@@ -2246,27 +2799,89 @@ public class DistanceGrid implements Renderable, Scannable {
       }
       for (int z = z0; z != z1; z += dz) {
          for (int y = y0; y != y1; y += dy) {
-            for (int x = x0; x != x1; x += dx) {
-               // What are the neighbours? Depending on dx,dy,dz...
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx,    y   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x, y-dy   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx, y-dy   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x,    y, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx,    y, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x, y-dy, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx, y-dy, z-dz, pc, p1, features, featIdxs);
-            }
+            sweepLine (phi, y, z, dx, dy, dz, pc, p1, featIdxs, features);
          }
       }
    }
 
+   /**
+    * Sweeps along a single line of vertices parallel to the x axis,
+    * propagating distance values.
+    */
+   private void sweepLine (
+      double[] phi, int y, int z, int dx, int dy, int dz,
+      Point3d pc, Point3d p1, int[] featIdxs, Feature[] features) {
+
+      int x0, x1;
+      if (dx > 0) {
+         x0 = 1;
+         x1 = myNx;
+      }
+      else {
+         x0 = myNx-2;  // sweeps backwards
+         x1 = -1;
+      }
+      for (int x = x0; x != x1; x += dx) {
+         // What are the neighbours? Depending on dx,dy,dz...
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx,    y   , z, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z,    x, y-dy   , z, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx, y-dy   , z, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z,    x,    y, z-dz, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx,    y, z-dz, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z,    x, y-dy, z-dz, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx, y-dy, z-dz, pc, p1, features, featIdxs);
+      }
+   }
+
+   /**
+    * Multi-threaded version of {@link #sweep}. Each line of vertices along x
+    * depends only on itself and on the lines preceding it in y and z, so
+    * the lines can be processed as a wavefront: all lines whose y and z
+    * offsets from the start of the sweep sum to the same value are
+    * independent and are processed in parallel, with each successive
+    * wavefront processed in turn. The results are identical to those of
+    * {@link #sweep}.
+    */
+   private void sweepInParallel (
+      ParallelLoop loop, final double[] phi,
+      final int dx, final int dy, final int dz,
+      final int[] featIdxs, final Feature[] features) {
+
+      final int ny = myNy-1; // number of lines swept along y and z
+      final int nz = myNz-1;
+      if (ny <= 0 || nz <= 0) {
+         return;
+      }
+      final Point3d[] pcs = new Point3d[loop.getNumThreads()];
+      final Point3d[] p1s = new Point3d[loop.getNumThreads()];
+      for (int i=0; i<pcs.length; i++) {
+         pcs[i] = new Point3d();
+         p1s[i] = new Point3d();
+      }
+      for (int d=0; d<ny+nz-1; d++) {
+         final int sum = d;
+         loop.forRange (
+            Math.max (0, d-ny+1), Math.min (nz, d+1), new ParallelLoop.Body() {
+               public void run (int thread, int start, int end) {
+                  for (int k=start; k<end; k++) {
+                     int z = (dz > 0 ? 1+k : myNz-2-k);
+                     int y = (dy > 0 ? 1+sum-k : myNy-2-sum+k);
+                     sweepLine (
+                        phi, y, z, dx, dy, dz,
+                        pcs[thread], p1s[thread], featIdxs, features);
+                  }
+               }
+            });
+      }
+   }
+
    /**
     * Creates a new render object for rendering the points and normals
     * of this grid.
@@ -2310,7 +2925,7 @@ public class DistanceGrid implements Renderable, Scannable {
                coords.set (xi, yj, zk);
                myGridToLocal.transformPnt (coords, coords);
                int vi = xyzIndicesToVertex (xi, yj, zk);
-               int cidx = myColorMap != null ? myColorIndices[vi] : -1;
+               int cidx = myColorMap != null ? getVertexColorIndex(vi) : -1;
                rob.addPosition (coords);
                rob.addVertex (vidx, -1, cidx, -1);
                coords.scaledAdd (len, getLocalVertexNormal (xi, yj, zk));
@@ -2951,7 +3566,8 @@ public class DistanceGrid implements Renderable, Scannable {
       MarchingTetrahedra marcher = new MarchingTetrahedra();
 
       PolygonalMesh mesh = marcher.createMesh (
-         myPhi, Vector3d.ZERO, new Vector3d(1,1,1), getResolution(), val);
+         getDistances(), Vector3d.ZERO, new Vector3d(1,1,1),
+         getResolution(), val);
       mesh.transform (myGridToLocal);
       return mesh;
    }
@@ -3442,6 +4058,17 @@ public class DistanceGrid implements Renderable, Scannable {
       return en;
    }
 
+   /**
+    * Queries whether quadratic interpolation coefficients are computed in
+    * advance and stored for all quad cells, rather than being computed as
+    * needed.
+    *
+    * @return <code>true</code> if quadratic coefficients are stored
+    */
+   protected boolean storesQuadCoefs() {
+      return storeQuadCoefs;
+   }
+
    protected void updateQuadCoefsIfNecessary() {
       if (myQuadCoefs == null) {
          // calculate number of quad cells in x, y, and z
@@ -3488,7 +4115,7 @@ public class DistanceGrid implements Renderable, Scannable {
       Vector3d coords = new Vector3d();
       double[] a;
       double dx, dy, dz;
-      if (storeQuadCoefs) {
+      if (storesQuadCoefs()) {
          updateQuadCoefsIfNecessary();
          int voff = getQuadCellCoords (coords, null, point, quadGridToX);
          if (voff == -1) {
@@ -3590,7 +4217,7 @@ public class DistanceGrid implements Renderable, Scannable {
       Vector3d coords = new Vector3d();
       double[] a;
       double dx, dy, dz;
-      if (storeQuadCoefs) {
+      if (storesQuadCoefs()) {
          updateQuadCoefsIfNecessary();
          int voff = getQuadCellCoords (coords, null, point, quadGridToX);
          if (voff == -1) {
@@ -3655,16 +4282,16 @@ public class DistanceGrid implements Renderable, Scannable {
    private void computeQuadCoefs (
       double[] a, int voff, int[] nodeOffs, int xi, int yi, int zi) {
       
-      double v0  = myPhi[voff+nodeOffs[0]];
-      double v1  = myPhi[voff+nodeOffs[1]];
-      double v2  = myPhi[voff+nodeOffs[2]];
-      double v3  = myPhi[voff+nodeOffs[3]];
-      double v4  = myPhi[voff+nodeOffs[4]];
-      double v5  = myPhi[voff+nodeOffs[5]];
-      double v6  = myPhi[voff+nodeOffs[6]];
-      double v7  = myPhi[voff+nodeOffs[7]];
-      double v8  = myPhi[voff+nodeOffs[8]];
-      double v9  = myPhi[voff+nodeOffs[9]];
+      double v0  = getVertexDistance (voff+nodeOffs[0]);
+      double v1  = getVertexDistance (voff+nodeOffs[1]);
+      double v2  = getVertexDistance (voff+nodeOffs[2]);
+      double v3  = getVertexDistance (voff+nodeOffs[3]);
+      double v4  = getVertexDistance (voff+nodeOffs[4]);
+      double v5  = getVertexDistance (voff+nodeOffs[5]);
+      double v6  = getVertexDistance (voff+nodeOffs[6]);
+      double v7  = getVertexDistance (voff+nodeOffs[7]);
+      double v8  = getVertexDistance (voff+nodeOffs[8]);
+      double v9  = getVertexDistance (voff+nodeOffs[9]);
 
       a[xi] =  2*v0 + 2*v1 - 4*v4;
       a[yi] =  2*v1 + 2*v2 - 4*v5;
@@ -3900,13 +4527,9 @@ public class DistanceGrid implements Renderable, Scannable {
             }
             rtok.scanToken ('=');
             rtok.scanToken ('[');
-            int k = 0;
-            while (rtok.nextToken() != ']') {
-               rtok.pushBack();
-               myPhi[k++] = rtok.scanNumber();
-            }
+            scanDistances (rtok);
          }
-         else {
+         else if (!scanItem (rtok, ref)) {
             throw new IOException ("Unexpected attribute name: " + rtok);
          }
       }
@@ -3917,6 +4540,51 @@ public class DistanceGrid implements Renderable, Scannable {
       clearNormals();
    }
    
+   /**
+    * Scans the vertex distances, in the order of their vertex indices,
+    * up to and including the closing ']'.
+    *
+    * @param rtok tokenizer from which the distances are read
+    * @throws IOException if an I/O or syntax error occurs
+    */
+   protected void scanDistances (ReaderTokenizer rtok) throws IOException {
+      int k = 0;
+      while (rtok.nextToken() != ']') {
+         rtok.pushBack();
+         myPhi[k++] = rtok.scanNumber();
+      }
+   }
+
+   /**
+    * Scans an attribute that is not handled by {@link #scan}. The
+    * tokenizer's current token is the attribute name. Subclasses that write
+    * additional attributes using {@link #writeItems} should override this
+    * method to read them.
+    *
+    * @param rtok tokenizer from which the attribute is read
+    * @param ref reference object passed to {@link #scan}
+    * @return <code>true</code> if the attribute was recognized
+    * @throws IOException if an I/O or syntax error occurs
+    */
+   protected boolean scanItem (ReaderTokenizer rtok, Object ref)
+      throws IOException {
+      return false;
+   }
+
+   /**
+    * Writes additional attributes for this grid, which are written after the
+    * grid geometry and before the distances. The base implementation does
+    * nothing.
+    *
+    * @param pw writer to which the attributes are written
+    * @param fmt format for floating point numbers
+    * @param ref reference object passed to {@link #write}
+    * @throws IOException if an I/O error occurs
+    */
+   protected void writeItems (PrintWriter pw, NumberFormat fmt, Object ref)
+      throws IOException {
+   }
+
    public void write (PrintWriter pw, NumberFormat fmt, Object ref)
       throws IOException {
 
@@ -3934,11 +4602,12 @@ public class DistanceGrid implements Renderable, Scannable {
          pw.println (
             "orientation=" + R.toString(fmt, RotationMatrix3d.AXIS_ANGLE_STRING));
       }
+      writeItems (pw, fmt, ref);
       IndentingPrintWriter.addIndentation (pw, 2);
       pw.println ("distances=[");
       int numv = numVertices();
       for (int i=0; i<numv; i++) {
-         pw.println (fmt.format(myPhi[i]));
+         pw.println (fmt.format(getVertexDistance(i)));
       }
       IndentingPrintWriter.addIndentation (pw, -2);
       pw.println ("]");
@@ -3978,7 +4647,7 @@ public class DistanceGrid implements Renderable, Scannable {
       }
       int numv = numVertices();
       for (int i=0; i<numv; i++) {
-         if (Math.abs(myPhi[i]-grid.myPhi[i]) > tol) {
+         if (Math.abs(getVertexDistance(i)-grid.getVertexDistance(i)) > tol) {
             return false;
          }
       }
@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import maspack.matrix.RotationMatrix3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.Vector3i;
+import maspack.util.InternalErrorException;
+
+/**
+ * On-disk cache for the distance values computed by {@link DistanceGrid}
+ * from a set of features. Each cache entry is stored in its own file,
+ * named using a hash key computed from the grid's resolution, widths,
+ * center and orientation, whether or not it is signed, and the type and
+ * point coordinates of each feature. Reloading a model whose meshes and grid
+ * settings have not changed can then read the grid distances directly
+ * instead of recomputing them.
+ *
+ * <p>Entry files use a compact binary format, with all values stored in
+ * little-endian order: the 8 byte magic string <code>ASDGRID1</code>, the
+ * number of vertices along x, y and z (ints), the signed flag (int), the
+ * number of features (int), an unused int, followed by the distance (double)
+ * and the nearest feature index (int) of every vertex.
+ *
+ * <p>A cache is enabled for a distance grid using {@link
+ * DistanceGrid#setCache}, and the same cache may be used by several grids.
+ */
+public class DistanceGridCache {
+
+   /**
+    * File name extension for cache entry files.
+    */
+   public static final String FILE_EXTENSION = ".dgrid";
+
+   static final byte[] MAGIC =
+      new byte[] { 'A', 'S', 'D', 'G', 'R', 'I', 'D', '1' };
+   static final int HEADER_SIZE = MAGIC.length + 6*4;
+
+   private File myDirectory;
+
+   /**
+    * Creates a cache that stores its entries in the specified directory.
+    * The directory is created if necessary when the first entry is written.
+    *
+    * @param dir directory for cache entries
+    */
+   public DistanceGridCache (File dir) {
+      if (dir == null) {
+         throw new IllegalArgumentException ("directory is null");
+      }
+      myDirectory = dir;
+   }
+
+   /**
+    * Returns the directory used to store the cache entries.
+    *
+    * @return cache directory
+    */
+   public File getDirectory() {
+      return myDirectory;
+   }
+
+   private void addInt (MessageDigest md, ByteBuffer buf, int val) {
+      buf.clear();
+      buf.putInt (val);
+      md.update (buf.array(), 0, 4);
+   }
+
+   private void addDouble (MessageDigest md, ByteBuffer buf, double val) {
+      buf.clear();
+      buf.putDouble (val);
+      md.update (buf.array(), 0, 8);
+   }
+
+   private void addVector (MessageDigest md, ByteBuffer buf, Vector3d vec) {
+      addDouble (md, buf, vec.x);
+      addDouble (md, buf, vec.y);
+      addDouble (md, buf, vec.z);
+   }
+
+   /**
+    * Computes the key used to identify the distances of a grid computed
+    * for a particular set of features.
+    *
+    * @param grid grid whose resolution, widths, center and orientation
+    * have been set
+    * @param features features used to compute the grid
+    * @param signed <code>true</code> if the distances are signed
+    * @return cache key for the grid and features
+    */
+   public String computeKey (
+      DistanceGrid grid, Feature[] features, boolean signed) {
+
+      MessageDigest md;
+      try {
+         md = MessageDigest.getInstance ("SHA-1");
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw new InternalErrorException ("SHA-1 digest not available");
+      }
+      ByteBuffer buf = ByteBuffer.allocate (8);
+      md.update (MAGIC);
+      Vector3i res = grid.getResolution();
+      addInt (md, buf, res.x);
+      addInt (md, buf, res.y);
+      addInt (md, buf, res.z);
+      addVector (md, buf, grid.getWidths());
+      Vector3d center = new Vector3d();
+      grid.getCenter (center);
+      addVector (md, buf, center);
+      RotationMatrix3d R = new RotationMatrix3d();
+      grid.getOrientation (R);
+      for (int i=0; i<3; i++) {
+         for (int j=0; j<3; j++) {
+            addDouble (md, buf, R.get (i, j));
+         }
+      }
+      addInt (md, buf, signed ? 1 : 0);
+      addInt (md, buf, features.length);
+      Class<?> lastClass = null;
+      for (int t=0; t<features.length; t++) {
+         Feature feat = features[t];
+         if (feat.getClass() != lastClass) {
+            lastClass = feat.getClass();
+            md.update (lastClass.getName().getBytes());
+         }
+         int npnts = feat.numPoints();
+         addInt (md, buf, npnts);
+         for (int i=0; i<npnts; i++) {
+            addVector (md, buf, feat.getPoint (i));
+         }
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) {
+         sb.append (String.format ("%02x", b & 0xff));
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Returns the file used to store the entry for a given key.
+    *
+    * @param key entry key
+    * @return file for the entry
+    */
+   public File getFile (String key) {
+      return new File (myDirectory, key + FILE_EXTENSION);
+   }
+
+   /**
+    * Reads the entry for a given key, if it exists. The entry is read only
+    * if its vertex resolution, signed setting and number of features match
+    * the expected values.
+    *
+    * @param key entry key
+    * @param phi returns the distance at each vertex
+    * @param featIdxs if non-<code>null</code>, returns the index of the
+    * nearest feature to each vertex
+    * @param res expected number of vertices along x, y and z
+    * @param signed expected signed setting
+    * @param numFeatures expected number of features
+    * @return <code>true</code> if the entry exists and was read
+    * @throws IOException if the entry exists but could not be read
+    */
+   public boolean read (
+      String key, double[] phi, int[] featIdxs, Vector3i res,
+      boolean signed, int numFeatures) throws IOException {
+
+      File file = getFile (key);
+      if (!file.canRead()) {
+         return false;
+      }
+      int numv = res.x*res.y*res.z;
+      FileInputStream in = new FileInputStream (file);
+      try {
+         FileChannel channel = in.getChannel();
+         if (channel.size() != HEADER_SIZE + 12L*numv) {
+            return false;
+         }
+         ByteBuffer buf = ByteBuffer.allocateDirect ((int)channel.size());
+         buf.order (ByteOrder.LITTLE_ENDIAN);
+         while (buf.hasRemaining()) {
+            if (channel.read (buf) < 0) {
+               throw new IOException ("unexpected end of file " + file);
+            }
+         }
+         buf.flip();
+         for (int i=0; i<MAGIC.length; i++) {
+            if (buf.get() != MAGIC[i]) {
+               throw new IOException ("file " + file + " has bad magic string");
+            }
+         }
+         if (buf.getInt() != res.x || buf.getInt() != res.y ||
+             buf.getInt() != res.z || buf.getInt() != (signed ? 1 : 0) ||
+             buf.getInt() != numFeatures) {
+            return false;
+         }
+         buf.getInt();
+         buf.asDoubleBuffer().get (phi, 0, numv);
+         if (featIdxs != null) {
+            buf.position (HEADER_SIZE + 8*numv);
+            buf.asIntBuffer().get (featIdxs, 0, numv);
+         }
+         return true;
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Writes the entry for a given key. The entry is first written to a
+    * temporary file which is then renamed, so that other processes never
+    * see a partially written entry.
+    *
+    * @param key entry key
+    * @param phi distance at each vertex
+    * @param featIdxs index of the nearest feature to each vertex, or
+    * <code>null</code> if not available
+    * @param res number of vertices along x, y and z
+    * @param signed <code>true</code> if the distances are signed
+    * @param numFeatures number of features
+    * @throws IOException if the entry could not be written
+    */
+   public void write (
+      String key, double[] phi, int[] featIdxs, Vector3i res,
+      boolean signed, int numFeatures) throws IOException {
+
+      if (!myDirectory.isDirectory() && !myDirectory.mkdirs()) {
+         throw new IOException ("cannot create directory " + myDirectory);
+      }
+      int numv = res.x*res.y*res.z;
+      ByteBuffer buf = ByteBuffer.allocateDirect (HEADER_SIZE + 12*numv);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      buf.put (MAGIC);
+      buf.putInt (res.x);
+      buf.putInt (res.y);
+      buf.putInt (res.z);
+      buf.putInt (signed ? 1 : 0);
+      buf.putInt (numFeatures);
+      buf.putInt (0);
+      buf.asDoubleBuffer().put (phi, 0, numv);
+      buf.position (HEADER_SIZE + 8*numv);
+      if (featIdxs != null) {
+         buf.asIntBuffer().put (featIdxs, 0, numv);
+      }
+      else {
+         for (int i=0; i<numv; i++) {
+            buf.putInt (HEADER_SIZE + 8*numv + 4*i, -1);
+         }
+      }
+      buf.position (0);
+      buf.limit (buf.capacity());
+
+      File tmp = File.createTempFile (key, ".tmp", myDirectory);
+      FileOutputStream out = new FileOutputStream (tmp);
+      try {
+         FileChannel channel = out.getChannel();
+         while (buf.hasRemaining()) {
+            channel.write (buf);
+         }
+      }
+      finally {
+         out.close();
+      }
+      File file = getFile (key);
+      if (!tmp.renameTo (file)) {
+         // renameTo may fail on some platforms if the target exists
+         file.delete();
+         if (!tmp.renameTo (file)) {
+            tmp.delete();
+            throw new IOException ("cannot create file " + file);
+         }
+      }
+   }
+
+   /**
+    * Removes all entries from this cache.
+    */
+   public void clear() {
+      File[] files = myDirectory.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            if (file.getName().endsWith (FILE_EXTENSION)) {
+               file.delete();
+            }
+         }
+      }
+   }
+}
@@ -511,9 +511,171 @@ public class DistanceGridTest extends UnitTest {
 
    }
 
+   private DistanceGrid createGrid (PolygonalMesh mesh, boolean obb) {
+      return createGrid (mesh, obb, DistanceGrid.DEFAULT_NUM_THREADS, null);
+   }
+
+   private DistanceGrid createGrid (
+      PolygonalMesh mesh, boolean obb,
+      int numThreads, DistanceGridCache cache) {
+      DistanceGrid grid = new DistanceGrid (new Vector3i (40, 30, 20));
+      grid.setNumThreads (numThreads);
+      grid.setCache (cache);
+      if (obb) {
+         grid.computeFromFeaturesOBB (
+            mesh.getFaces(), 0.1, /*maxRes=*/0, /*signed=*/false);
+      }
+      else {
+         grid.computeFromFeatures (
+            mesh.getFaces(), 0.1, /*TGL=*/null, /*maxRes=*/0, /*signed=*/false);
+      }
+      return grid;
+   }
+
+   private void checkIdentical (String msg, DistanceGrid grid, DistanceGrid chk) {
+      if (!grid.epsilonEquals (chk, 0)) {
+         throw new TestException (msg + ": distances differ");
+      }
+      for (int i=0; i<grid.numVertices(); i++) {
+         if (grid.myClosestFeatureIdxs[i] != chk.myClosestFeatureIdxs[i]) {
+            throw new TestException (
+               msg + ": closest features differ at vertex " + i);
+         }
+      }
+   }
+
+   public void testParallelCalculation() {
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      RigidTransform3d TML = new RigidTransform3d();
+      TML.setRandom();
+      torus.transform (TML);
+
+      for (int k=0; k<2; k++) {
+         boolean obb = (k == 1);
+         DistanceGrid chk = createGrid (torus, obb, 1, null);
+         DistanceGrid grid = createGrid (torus, obb, 4, null);
+         checkIdentical ("parallel calculation, obb=" + obb, grid, chk);
+      }
+   }
+
+   public void testCache() throws IOException {
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      File dir = java.nio.file.Files.createTempDirectory (
+         "distanceGridTest").toFile();
+      DistanceGridCache cache = new DistanceGridCache (dir);
+      int nthreads = DistanceGrid.DEFAULT_NUM_THREADS;
+      try {
+         DistanceGrid chk = createGrid (torus, /*obb=*/false);
+         DistanceGrid grid = createGrid (torus, /*obb=*/false, nthreads, cache);
+         checkIdentical ("cache miss", grid, chk);
+         String key = cache.computeKey (
+            grid, grid.getFeatures(), /*signed=*/false);
+         File file = cache.getFile (key);
+         if (!file.exists()) {
+            throw new TestException ("cache file " + file + " not created");
+         }
+         // corrupt the cached distances to verify that they are read back
+         double[] phi = new double[grid.numVertices()];
+         int[] featIdxs = new int[grid.numVertices()];
+         Vector3i nv = new Vector3i();
+         nv.add (grid.getResolution(), new Vector3i (1, 1, 1));
+         if (!cache.read (
+                key, phi, featIdxs, nv, false, grid.getFeatures().length)) {
+            throw new TestException ("cache file " + file + " not readable");
+         }
+         phi[0] = 1234.0;
+         cache.write (key, phi, featIdxs, nv, false, featIdxs.length);
+         grid = createGrid (torus, /*obb=*/false, nthreads, cache);
+         if (grid.getDistances()[0] == 1234.0) {
+            throw new TestException (
+               "cache entry read with incorrect number of features");
+         }
+         cache.write (key, phi, featIdxs, nv, false, grid.getFeatures().length);
+         grid = createGrid (torus, /*obb=*/false, nthreads, cache);
+         if (grid.getDistances()[0] != 1234.0) {
+            throw new TestException ("cache entry not read");
+         }
+         // changing the mesh should change the key
+         torus.getVertex(0).pnt.x += 1e-8;
+         String newKey = cache.computeKey (
+            grid, torus.getFaces().toArray (new Feature[0]), /*signed=*/false);
+         if (newKey.equals (key)) {
+            throw new TestException ("cache key unchanged by mesh change");
+         }
+      }
+      finally {
+         cache.clear();
+         dir.delete();
+      }
+   }
+
+   private void checkBatchResult (
+      String msg, int i, double[] dists, double[] nrms,
+      double dchk, Vector3d nchk) {
+      if (dists[i] != dchk) {
+         throw new TestException (
+            msg + ": distance at point " + i + " is " + dists[i] +
+            ", expected " + dchk);
+      }
+      if (dchk != DistanceGrid.OUTSIDE_GRID &&
+          (nrms[3*i] != nchk.x || nrms[3*i+1] != nchk.y ||
+           nrms[3*i+2] != nchk.z)) {
+         throw new TestException (
+            msg + ": normal at point " + i + " differs from " + nchk);
+      }
+   }
+
+   public void testBatchQueries() {
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      DistanceGrid grid = createGrid (torus, /*obb=*/true);
+      RigidTransform3d TLW = new RigidTransform3d();
+      TLW.setRandom();
+      grid.setLocalToWorld (TLW);
+      RigidTransform3d TPL = new RigidTransform3d();
+      TPL.setRandom();
+
+      // query points extend beyond the grid, so some will be outside
+      int num = 2000;
+      double[] pnts = new double[3*num];
+      double r = 1.2*grid.getRadius();
+      for (int i=0; i<3*num; i++) {
+         pnts[i] = RandomGenerator.nextDouble (-r, r);
+      }
+      double[] dists = new double[num];
+      double[] nrms = new double[3*num];
+      Point3d pnt = new Point3d();
+      Vector3d nchk = new Vector3d();
+      for (int nthreads=1; nthreads<=3; nthreads+=2) {
+         grid.setNumQueryThreads (nthreads);
+         grid.clearNormals();
+         grid.getLocalDistancesAndNormals (dists, nrms, pnts, num, TPL);
+         for (int i=0; i<num; i++) {
+            pnt.set (pnts[3*i], pnts[3*i+1], pnts[3*i+2]);
+            pnt.transform (TPL);
+            double dchk = grid.getLocalDistanceAndNormal (nchk, pnt);
+            checkBatchResult ("local batch query", i, dists, nrms, dchk, nchk);
+         }
+         grid.getWorldDistancesAndNormals (dists, nrms, pnts, num);
+         for (int i=0; i<num; i++) {
+            pnt.set (pnts[3*i], pnts[3*i+1], pnts[3*i+2]);
+            double dchk = grid.getWorldDistanceAndNormal (nchk, pnt);
+            checkBatchResult ("world batch query", i, dists, nrms, dchk, nchk);
+         }
+      }
+   }
+
    public void test() {
       double EPS = 1e-14;
 
+      testParallelCalculation();
+      testBatchQueries();
+      try {
+         testCache();
+      }
+      catch (IOException e) {
+         throw new TestException ("I/O error in cache test: " + e);
+      }
+
       PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
       PolygonalMesh torusT = torus.copy();
 
@@ -107,6 +107,24 @@ public class MarchingTetrahedra {
       }
    }
 
+   /**
+    * Supplies the value at each vertex of a grid, for grids whose values are
+    * not stored in a single dense array.
+    */
+   public interface GridValues {
+
+      /**
+       * Returns the value at the grid vertex with indices
+       * <code>(i, j, k)</code>.
+       *
+       * @param i x vertex index
+       * @param j y vertex index
+       * @param k z vertex index
+       * @return value at the vertex
+       */
+      public double getValue (int i, int j, int k);
+   }
+
    public class GridPointGenerator {
 
       Vector3d myMinCoord;
@@ -115,15 +133,36 @@ public class MarchingTetrahedra {
       int myNumVY;
       int myNumVZ;
 
+      // values are supplied either by myVals or myValues
+      double[] myVals;
+      GridValues myValues;
+
+      // point data is stored either densely in myData, or, when values are
+      // supplied by myValues, only for points adjacent to the surface
       GridPointData[] myData;
+      HashMap<Integer,GridPointData> myDataMap;
 
-      GridPointGenerator (Vector3d minCoord, Vector3d widths, Vector3i res) {
+      GridPointGenerator (
+         Vector3d minCoord, Vector3d widths, Vector3i res, double[] vals) {
+         this (minCoord, widths, res);
+         myVals = vals;
+         myData = new GridPointData[maxGridPoints()];
+      }
+
+      GridPointGenerator (
+         Vector3d minCoord, Vector3d widths, Vector3i res, GridValues values) {
+         this (minCoord, widths, res);
+         myValues = values;
+         myDataMap = new HashMap<Integer,GridPointData>();
+      }
+
+      private GridPointGenerator (
+         Vector3d minCoord, Vector3d widths, Vector3i res) {
          myNumVX = res.x+1;
          myNumVY = res.y+1;
          myNumVZ = res.z+1;
          myMinCoord = minCoord;
          myWidths = widths;
-         myData = new GridPointData[maxGridPoints()];
       }
 
       int maxGridPoints() {
@@ -134,23 +173,43 @@ public class MarchingTetrahedra {
          return i + j*myNumVX + k*myNumVX*myNumVY;
       }
 
+      double getValue (int idx, int i, int j, int k) {
+         if (myVals != null) {
+            return myVals[idx];
+         }
+         else {
+            return myValues.getValue (i, j, k);
+         }
+      }
+
       GridPointData getGridPointData (
-         int idx, double[] vals, int i, int j, int k) {
+         int idx, double val, int i, int j, int k) {
 
-         GridPointData data = myData[idx];
+         GridPointData data;
+         if (myData != null) {
+            data = myData[idx];
+         }
+         else {
+            data = myDataMap.get (idx);
+         }
          if (data == null) {
             Point3d pos = new Point3d();
             pos.x = i * myWidths.x + myMinCoord.x;
             pos.y = j * myWidths.y + myMinCoord.y;
             pos.z = k * myWidths.z + myMinCoord.z;
-            data = new GridPointData (pos, idx, vals[idx]);
-            myData[idx] = data;
+            data = new GridPointData (pos, idx, val);
+            if (myData != null) {
+               myData[idx] = data;
+            }
+            else {
+               myDataMap.put (idx, data);
+            }
          }
          return data;
       }
 
       boolean updateCellData (
-         GridPointData[] gdata, double[] vals, int i, int j, int k, double iso) {
+         GridPointData[] gdata, int i, int j, int k, double iso) {
 
          int i0 = getGridPointIndex (i, j, k);
          int i1 = getGridPointIndex (i+1, j, k);
@@ -161,26 +220,35 @@ public class MarchingTetrahedra {
          int i6 = getGridPointIndex (i+1, j+1, k+1);
          int i7 = getGridPointIndex (i, j+1, k+1);
 
+         double v0 = getValue (i0, i, j, k);
+         double v1 = getValue (i1, i+1, j, k);
+         double v2 = getValue (i2, i+1, j, k+1);
+         double v3 = getValue (i3, i, j, k+1);
+         double v4 = getValue (i4, i, j+1, k);
+         double v5 = getValue (i5, i+1, j+1, k);
+         double v6 = getValue (i6, i+1, j+1, k+1);
+         double v7 = getValue (i7, i, j+1, k+1);
+
          int nneg = 0;
-         if (vals[i0] < iso) nneg++;
-         if (vals[i1] < iso) nneg++;
-         if (vals[i2] < iso) nneg++;
-         if (vals[i3] < iso) nneg++;
-         if (vals[i4] < iso) nneg++;
-         if (vals[i5] < iso) nneg++;
-         if (vals[i6] < iso) nneg++;
-         if (vals[i7] < iso) nneg++;
+         if (v0 < iso) nneg++;
+         if (v1 < iso) nneg++;
+         if (v2 < iso) nneg++;
+         if (v3 < iso) nneg++;
+         if (v4 < iso) nneg++;
+         if (v5 < iso) nneg++;
+         if (v6 < iso) nneg++;
+         if (v7 < iso) nneg++;
          if (nneg == 0 || nneg == 8) {
             return false;
          }
-         gdata[0] = getGridPointData (i0, vals, i, j, k);
-         gdata[1] = getGridPointData (i1, vals, i+1, j, k);
-         gdata[2] = getGridPointData (i2, vals, i+1, j, k+1);
-         gdata[3] = getGridPointData (i3, vals, i, j, k+1);
-         gdata[4] = getGridPointData (i4, vals, i, j+1, k);
-         gdata[5] = getGridPointData (i5, vals, i+1, j+1, k);
-         gdata[6] = getGridPointData (i6, vals, i+1, j+1, k+1);
-         gdata[7] = getGridPointData (i7, vals, i, j+1, k+1);
+         gdata[0] = getGridPointData (i0, v0, i, j, k);
+         gdata[1] = getGridPointData (i1, v1, i+1, j, k);
+         gdata[2] = getGridPointData (i2, v2, i+1, j, k+1);
+         gdata[3] = getGridPointData (i3, v3, i, j, k+1);
+         gdata[4] = getGridPointData (i4, v4, i, j+1, k);
+         gdata[5] = getGridPointData (i5, v5, i+1, j+1, k);
+         gdata[6] = getGridPointData (i6, v6, i+1, j+1, k+1);
+         gdata[7] = getGridPointData (i7, v7, i, j+1, k+1);
          return true;
       }
    };
@@ -214,13 +282,44 @@ public class MarchingTetrahedra {
       Vector3i res, double iso) {
       
       GridPointGenerator vgen =
-      new GridPointGenerator (minCoord, cellWidths, res);
+      new GridPointGenerator (minCoord, cellWidths, res, vals);
 
       if (vals.length < vgen.maxGridPoints()) {
          throw new IllegalArgumentException (
             "vals insufficiently long; should have length of "+
             vgen.maxGridPoints());
       }
+      return createMesh (vgen, res, iso);
+   }
+
+   /**
+    * Creates an isosurface mesh from a 3D grid of values, as for {@link
+    * #createMesh(double[],Vector3d,Vector3d,Vector3i,double)}, except that
+    * the vertex values are supplied by <code>values</code>. Data is stored
+    * only for the vertices of cells that intersect the isosurface, so that
+    * memory usage is proportional to the size of the surface instead of the
+    * size of the grid.
+    *
+    * @param values supplies the value at each grid vertex
+    * @param minCoord value of minimum vertex at (0, 0, 0)
+    * @param cellWidths widths of each grid cell along the x, y, and z
+    * axes
+    * @param res number of cells along each of the x, y, and z axes
+    * @param iso value to be used to create the isosurface
+    * @return mesh corresponding to the iso surface
+    */
+   public PolygonalMesh createMesh (
+      GridValues values, Vector3d minCoord, Vector3d cellWidths,
+      Vector3i res, double iso) {
+
+      GridPointGenerator vgen =
+      new GridPointGenerator (minCoord, cellWidths, res, values);
+      return createMesh (vgen, res, iso);
+   }
+
+   private PolygonalMesh createMesh (
+      GridPointGenerator vgen, Vector3i res, double iso) {
+
       LinkedHashMap<VertexId,Vertex3d> vertexMap =
          new LinkedHashMap<VertexId,Vertex3d>();
       ArrayList<int[]> triangles = new ArrayList<int[]>();
@@ -232,7 +331,7 @@ public class MarchingTetrahedra {
          for (int j=0; j<res.y; j++) {
             for (int k=0; k<res.z; k++) {
                //debug = (i==1 && j==0 && k==1);
-               if (vgen.updateCellData (gdata, vals, i, j, k, iso)) {
+               if (vgen.updateCellData (gdata, i, j, k, iso)) {
                   if (debug) {
                      for (int l=0; l<gdata.length; l++) {
                         GridPointData gd = gdata[l];
@@ -261,12 +360,16 @@ public class MarchingTetrahedra {
       // }
       // System.out.println ("bad tris=" + bad + "/" + triangles.size());
       PolygonalMesh mesh = new PolygonalMesh();
-      for (Vertex3d v : vertexMap.values()) {
-         mesh.addVertex (v);
-      }
+      int[] triIndices = new int[3*triangles.size()];
+      int k = 0;
       for (int[] tri : triangles) {
-         mesh.addFace (tri);
+         triIndices[k++] = tri[0];
+         triIndices[k++] = tri[1];
+         triIndices[k++] = tri[2];
       }
+      new PolygonalMeshBuilder().set (
+         mesh, vertexMap.values().toArray (new Vertex3d[0]), triIndices,
+         /*faceOffsets=*/null, /*computeNormals=*/false);
       System.out.println ("closed=" + mesh.isClosed());
       return mesh;      
    }
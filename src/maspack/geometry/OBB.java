@@ -573,12 +573,14 @@ public class OBB extends BVNode {
       myHalfWidths.scale (0.5);
       myHalfWidths.add(margin, margin, margin); // add tolerance
 
-      Vector3d cor = new Vector3d();
-      cor.add (max, min);
-      cor.scale (0.5);
-      cor.transform (myX.R);
-
-      myX.p.add (cor);
+      // shift the center by R times the local center of the bounds
+      RotationMatrix3d R = myX.R;
+      double cx = 0.5*(max.x + min.x);
+      double cy = 0.5*(max.y + min.y);
+      double cz = 0.5*(max.z + min.z);
+      myX.p.x += R.m00*cx + R.m01*cy + R.m02*cz;
+      myX.p.y += R.m10*cx + R.m11*cy + R.m12*cz;
+      myX.p.z += R.m20*cx + R.m21*cy + R.m22*cz;
    }
 
    protected quickhull3d.Point3d[] computeConvexHullAndCovariance (
@@ -903,6 +905,62 @@ public class OBB extends BVNode {
       return modified;
    }
 
+   /**
+    * Updates bounds, with respect to the frame of this box, to accommodate a
+    * point <code>p</code>.
+    */
+   private void updateLocalBounds (Vector3d min, Vector3d max, Point3d p) {
+      RotationMatrix3d R = myX.R;
+      double x = p.x - myX.p.x;
+      double y = p.y - myX.p.y;
+      double z = p.z - myX.p.z;
+      double bx = R.m00*x + R.m10*y + R.m20*z;
+      double by = R.m01*x + R.m11*y + R.m21*z;
+      double bz = R.m02*x + R.m12*y + R.m22*z;
+      if (bx > max.x) max.x = bx;
+      if (bx < min.x) min.x = bx;
+      if (by > max.y) max.y = by;
+      if (by < min.y) min.y = by;
+      if (bz > max.z) max.z = bz;
+      if (bz < min.z) min.z = bz;
+   }
+
+   private void updateLocalBoundsForSubtree (
+      Vector3d min, Vector3d max, BVNode node) {
+      if (node.isLeaf()) {
+         Boundable[] elems = node.myElements;
+         for (int i=0; i<elems.length; i++) {
+            Boundable elem = elems[i];
+            for (int j=0; j<elem.numPoints(); j++) {
+               updateLocalBounds (min, max, elem.getPoint (j));
+            }
+         }
+      }
+      else {
+         BVNode child;
+         for (child=node.myFirstChild; child!=null; child=child.myNext) {
+            updateLocalBoundsForSubtree (min, max, child);
+         }
+      }
+   }
+
+   void refit (double margin, Vector3d min, Vector3d max) {
+      // Bound all the points beneath this node. Bounding the children's
+      // boxes would be cheaper, but since the children have different
+      // orientations, the resulting boxes would grow rapidly toward the
+      // root (by about a factor of three in surface area cost, even when
+      // nothing has moved).
+      min.set (INF, INF, INF);
+      max.set (-INF, -INF, -INF);
+      updateLocalBoundsForSubtree (min, max, this);
+      setWidthsAndCenter (min, max, margin);
+   }
+
+   public double getSurfaceArea() {
+      Vector3d hw = myHalfWidths;
+      return 8*(hw.x*hw.y + hw.y*hw.z + hw.z*hw.x);
+   }
+
    public boolean isContained (Boundable[] boundables, double tol) {
       Vector3d hw = new Vector3d();
       double eps = myHalfWidths.norm()*EPS;
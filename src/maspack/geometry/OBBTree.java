@@ -130,6 +130,7 @@ public class OBBTree extends BVTree {
          elemData[i] = edata;
       }
       root = computeOBBNode (elemData, num, null);
+      initializeRefit();
    }
 
    private OBB computeOBBNode (
@@ -249,22 +250,4 @@ public class OBBTree extends BVTree {
       return num + 1;
    }
 
-
-   protected void updateRecursively (OBB node) {
-      if (node.isLeaf()) {
-         node.update (myMargin);
-      }
-      else {
-         OBB child = (OBB)node.myFirstChild;
-         while (child != null) {
-            updateRecursively (child);
-            child = (OBB)child.getNext();
-         }
-      }
-   }
-
-   public void update() {
-      updateRecursively (getRoot());
-   }
-
 }
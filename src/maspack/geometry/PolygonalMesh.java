@@ -72,6 +72,7 @@ public class PolygonalMesh extends MeshBase {
    //private boolean bvHierarchyValid = false;
    private BVTree myBVTree = null;
    private boolean myBVTreeUpdated = false;
+   private int myNumBVTreeRefitThreads = BVTree.DEFAULT_NUM_REFIT_THREADS;
 
    private boolean cachedClosed = false;
    private boolean cachedClosedValid = false;
@@ -582,10 +583,6 @@ public class PolygonalMesh extends MeshBase {
    }
 
 
-   // used for computing face normals
-   static Vector3d del01 = new Vector3d();
-   static Vector3d del02 = new Vector3d();
-
    /**
     * Creates an empty polygonal mesh.
     */
@@ -1708,19 +1705,49 @@ public class PolygonalMesh extends MeshBase {
     * if a vertex index is out of bounds
     */
    protected void set (Point3d[] pnts, int[][] faceIndices, boolean byReference) {
-      clear();
+      Vertex3d[] vtxs = new Vertex3d[pnts.length];
       for (int i = 0; i < pnts.length; i++) {
-         addVertex (pnts[i], byReference);
+         vtxs[i] = new Vertex3d (byReference ? pnts[i] : new Point3d (pnts[i]));
       }
+      setFromFaceArrays (vtxs, faceIndices);
+   }
+
+   private void setFromFaceArrays (Vertex3d[] vtxs, int[][] faceIndices) {
+      int[] offsets = new int[faceIndices.length+1];
       for (int k = 0; k < faceIndices.length; k++) {
-         try {
-            addFace (faceIndices[k]);
-         }
-         catch (IllegalArgumentException e) {
-            clear();
-            throw e;
-         }
+         offsets[k+1] = offsets[k] + faceIndices[k].length;
+      }
+      int[] indices = new int[offsets[faceIndices.length]];
+      for (int k = 0; k < faceIndices.length; k++) {
+         System.arraycopy (
+            faceIndices[k], 0, indices, offsets[k], faceIndices[k].length);
       }
+      new PolygonalMeshBuilder().set (
+         this, vtxs, indices, offsets, /*computeNormals=*/false);
+   }
+
+   /**
+    * Sets the vertex points and faces associated with this mesh, using
+    * packed arrays. The half-edge structure is built in bulk by {@link
+    * PolygonalMeshBuilder}, which is much faster than adding the faces
+    * individually for large meshes.
+    * 
+    * @param coords
+    * vertex coordinates, stored as consecutive (x,y,z) triples
+    * @param faceIndices
+    * vertex indices for all the faces. The indices of face <code>i</code>
+    * are located between <code>faceOffsets[i]</code> (inclusive) and
+    * <code>faceOffsets[i+1]</code> (exclusive).
+    * @param faceOffsets
+    * offsets of each face into <code>faceIndices</code>, with one extra entry
+    * giving the end of the last face, or <code>null</code> if all the faces
+    * are triangles
+    * @throws IllegalArgumentException
+    * if a vertex index is out of bounds
+    */
+   public void set (double[] coords, int[] faceIndices, int[] faceOffsets) {
+      new PolygonalMeshBuilder().set (
+         this, coords, faceIndices, faceOffsets, /*computeNormals=*/false);
    }
    
    /**
@@ -1735,19 +1762,12 @@ public class PolygonalMesh extends MeshBase {
     * if a vertex index is out of bounds
     */
    public void set(double[][] pnts, int[][] faceIndices) {
-      clear();
+      Vertex3d[] vtxs = new Vertex3d[pnts.length];
       for (int i = 0; i < pnts.length; i++) {
-         addVertex (pnts[i][0], pnts[i][1], pnts[i][2]);
-      }
-      for (int k = 0; k < faceIndices.length; k++) {
-         try {
-            addFace (faceIndices[k]);
-         }
-         catch (IllegalArgumentException e) {
-            clear();
-            throw e;
-         }
+         vtxs[i] = new Vertex3d (
+            new Point3d (pnts[i][0], pnts[i][1], pnts[i][2]));
       }
+      setFromFaceArrays (vtxs, faceIndices);
    }
 
    protected boolean ctrlPntsEqual (Vector4d[] pnts, int base, int inc, int num) {
@@ -3505,6 +3525,7 @@ public class PolygonalMesh extends MeshBase {
             myBVTree = new AABBTree (this);
          }
          myBVTree.setBvhToWorld (XMeshToWorld);
+         myBVTree.setNumRefitThreads (myNumBVTreeRefitThreads);
          myBVTreeUpdated = true;
       }
       else if (!myBVTreeUpdated) {
@@ -3518,6 +3539,35 @@ public class PolygonalMesh extends MeshBase {
       myBVTree = null;
    }
 
+   /**
+    * Sets the number of threads used to refit this mesh's bounding volume
+    * tree when the mesh is deformed. Refitting is only done in parallel for
+    * large trees. The default value is given by {@link
+    * BVTree#DEFAULT_NUM_REFIT_THREADS}.
+    *
+    * @param num number of refit threads
+    * @see BVTree#setNumRefitThreads
+    */
+   public void setNumBVTreeRefitThreads (int num) {
+      num = Math.max (1, num);
+      if (num != myNumBVTreeRefitThreads) {
+         myNumBVTreeRefitThreads = num;
+         if (myBVTree != null) {
+            myBVTree.setNumRefitThreads (num);
+         }
+      }
+   }
+
+   /**
+    * Returns the number of threads used to refit this mesh's bounding volume
+    * tree.
+    *
+    * @return number of refit threads
+    */
+   public int getNumBVTreeRefitThreads() {
+      return myNumBVTreeRefitThreads;
+   }
+
    // Debug methods used by Andrew Larkin's collison code
    static void writeDoubleValue(PrintStream ps, double x1) {
       double x = x1;
@@ -0,0 +1,536 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+
+/**
+ * Builds the faces and half-edge structure of a {@link PolygonalMesh} in
+ * bulk, from packed arrays of vertex coordinates and face indices. This is
+ * much faster for large meshes than adding faces one at a time using {@link
+ * PolygonalMesh#addFace(int[])}, which searches for opposite half-edges
+ * separately for each new half-edge.
+ *
+ * <p>Faces and half-edges are created in parallel. Opposite half-edges are
+ * then connected in a single pass, in which the half-edges are sorted by the
+ * lower-numbered vertex of their edge, and then by the other vertex.
+ * Connections are made in the same order as they would be by
+ * <code>addFace</code>, so that the resulting mesh (including its behavior
+ * for non-manifold edges) is identical to the mesh that would be created by
+ * adding the faces individually.
+ *
+ * <p>Optionally, the vertex normals that would be generated automatically
+ * for the mesh can also be computed in parallel.
+ *
+ * <p>The vertex indices of face <code>i</code> are stored in
+ * <code>faceIndices</code> between <code>faceOffsets[i]</code> (inclusive)
+ * and <code>faceOffsets[i+1]</code> (exclusive). If <code>faceOffsets</code>
+ * is <code>null</code>, all faces are assumed to be triangles.
+ *
+ * <p>Each builder has its own thread count. A builder may be shared between
+ * threads, since every call uses its own loop for the parallel work.
+ */
+public class PolygonalMeshBuilder {
+
+   // minimum number of vertices or faces processed by each thread
+   private static final int MIN_CHUNK_SIZE = 5000;
+
+   /**
+    * Default number of threads used for building meshes, which is the
+    * number of available processors.
+    */
+   public static final int DEFAULT_NUM_THREADS =
+      ParallelLoop.getDefaultNumThreads();
+
+   private int myNumThreads = DEFAULT_NUM_THREADS;
+
+   /**
+    * Creates a builder that uses the default number of threads.
+    */
+   public PolygonalMeshBuilder() {
+   }
+
+   /**
+    * Creates a builder that uses a specified number of threads.
+    *
+    * @param numThreads number of threads
+    */
+   public PolygonalMeshBuilder (int numThreads) {
+      setNumThreads (numThreads);
+   }
+
+   /**
+    * Returns the number of threads used by this builder.
+    *
+    * @return number of threads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the number of threads used by this builder. The default value is
+    * given by {@link #DEFAULT_NUM_THREADS}. Values less than 1 are clipped
+    * to 1.
+    *
+    * @param num number of threads
+    */
+   public void setNumThreads (int num) {
+      myNumThreads = Math.max (1, num);
+   }
+
+   private ParallelLoop createLoop() {
+      ParallelLoop loop = new ParallelLoop ("meshBuilder", myNumThreads);
+      loop.setMinChunkSize (MIN_CHUNK_SIZE);
+      return loop;
+   }
+
+   /**
+    * Sets a mesh to contain a specified set of vertices and faces. Any
+    * existing vertices and faces are removed first.
+    *
+    * @param mesh mesh to set
+    * @param coords vertex coordinates, stored as consecutive (x, y, z)
+    * triples
+    * @param faceIndices vertex indices for all faces
+    * @param faceOffsets offsets of each face into <code>faceIndices</code>,
+    * with one extra entry giving the end of the last face, or
+    * <code>null</code> if all faces are triangles
+    * @param computeNormals if <code>true</code>, computes the mesh's
+    * automatic vertex normals
+    * @throws IllegalArgumentException if a face vertex index is out of
+    * bounds, or a face has no vertices
+    */
+   public void set (
+      PolygonalMesh mesh, final double[] coords, int[] faceIndices,
+      int[] faceOffsets, boolean computeNormals) {
+
+      int numv = coords.length/3;
+      final Vertex3d[] vtxs = new Vertex3d[numv];
+      ParallelLoop loop = createLoop();
+      try {
+         loop.forRange (0, numv, new ParallelLoop.Body() {
+               public void run (int thread, int start, int end) {
+                  for (int i=start; i<end; i++) {
+                     vtxs[i] = new Vertex3d (
+                        new Point3d (
+                           coords[3*i], coords[3*i+1], coords[3*i+2]), i);
+                  }
+               }
+            });
+         set (loop, mesh, vtxs, faceIndices, faceOffsets, computeNormals);
+      }
+      finally {
+         loop.dispose();
+      }
+   }
+
+   /**
+    * Sets a mesh to contain a specified set of vertices and faces. Any
+    * existing vertices and faces are removed first. The vertices are added
+    * to the mesh directly, and must not belong to another mesh.
+    *
+    * @param mesh mesh to set
+    * @param vtxs vertices for the mesh
+    * @param faceIndices vertex indices for all faces
+    * @param faceOffsets offsets of each face into <code>faceIndices</code>,
+    * with one extra entry giving the end of the last face, or
+    * <code>null</code> if all faces are triangles
+    * @param computeNormals if <code>true</code>, computes the mesh's
+    * automatic vertex normals
+    * @throws IllegalArgumentException if a face vertex index is out of
+    * bounds, or a face has no vertices
+    */
+   public void set (
+      PolygonalMesh mesh, Vertex3d[] vtxs, int[] faceIndices,
+      int[] faceOffsets, boolean computeNormals) {
+
+      ParallelLoop loop = createLoop();
+      try {
+         set (loop, mesh, vtxs, faceIndices, faceOffsets, computeNormals);
+      }
+      finally {
+         loop.dispose();
+      }
+   }
+
+   private static void set (
+      ParallelLoop loop, PolygonalMesh mesh, Vertex3d[] vtxs,
+      int[] faceIndices, int[] faceOffsets, boolean computeNormals) {
+
+      mesh.clear();
+      mesh.myVertices.ensureCapacity (vtxs.length);
+      for (int i=0; i<vtxs.length; i++) {
+         Vertex3d vtx = vtxs[i];
+         vtx.setIndex (i);
+         vtx.setMesh (mesh);
+         mesh.myVertices.add (vtx);
+      }
+      mesh.notifyStructureChanged();
+      try {
+         setFaces (loop, mesh, faceIndices, faceOffsets, computeNormals);
+      }
+      catch (IllegalArgumentException e) {
+         mesh.clear();
+         throw e;
+      }
+   }
+
+   /**
+    * Sets the faces of a mesh whose vertices have already been added. The
+    * mesh must not contain any faces, and its vertices must not be
+    * connected to any half-edges.
+    *
+    * @param mesh mesh to add the faces to
+    * @param faceIndices vertex indices for all faces
+    * @param faceOffsets offsets of each face into <code>faceIndices</code>,
+    * with one extra entry giving the end of the last face, or
+    * <code>null</code> if all faces are triangles
+    * @param computeNormals if <code>true</code>, computes the mesh's
+    * automatic vertex normals
+    * @throws IllegalArgumentException if the mesh already has faces, a face
+    * vertex index is out of bounds, or a face has no vertices
+    */
+   public void setFaces (
+      PolygonalMesh mesh, int[] faceIndices,
+      int[] faceOffsets, boolean computeNormals) {
+
+      ParallelLoop loop = createLoop();
+      try {
+         setFaces (loop, mesh, faceIndices, faceOffsets, computeNormals);
+      }
+      finally {
+         loop.dispose();
+      }
+   }
+
+   private static void setFaces (
+      ParallelLoop loop, PolygonalMesh mesh, int[] faceIndices,
+      int[] faceOffsets, boolean computeNormals) {
+
+      if (mesh.numFaces() > 0) {
+         throw new IllegalArgumentException ("Mesh already has faces");
+      }
+      if (faceOffsets == null) {
+         faceOffsets = new int[faceIndices.length/3+1];
+         for (int i=0; i<faceOffsets.length; i++) {
+            faceOffsets[i] = 3*i;
+         }
+      }
+      int numf = faceOffsets.length-1;
+      for (int i=0; i<numf; i++) {
+         if (faceOffsets[i+1] <= faceOffsets[i]) {
+            throw new IllegalArgumentException (
+               "Face "+i+" has no vertices");
+         }
+      }
+      if (numf > 0 && faceOffsets[numf] > faceIndices.length) {
+         throw new IllegalArgumentException (
+            "Face offsets exceed number of face indices");
+      }
+      HalfEdge[] hedges = createFaces (loop, mesh, faceIndices, faceOffsets);
+      for (int i=0; i<numf; i++) {
+         int size = faceOffsets[i+1]-faceOffsets[i];
+         if (size == 3) {
+            mesh.myNumTriangles++;
+         }
+         else if (size == 4) {
+            mesh.myNumQuads++;
+         }
+      }
+      connectOpposites (loop, mesh, hedges, faceIndices, faceOffsets);
+      addIncidentHalfEdges (loop, mesh, hedges, faceOffsets);
+
+      mesh.adjustAttributesForNewFeature();
+      mesh.notifyStructureChanged();
+      if (computeNormals && mesh.hasAutoNormalCreation()) {
+         computeNormals (loop, mesh, hedges.length, faceOffsets);
+      }
+   }
+
+   /**
+    * Creates the faces and their half-edges, and returns all the half-edges
+    * in an array, with the half-edges for face <code>i</code> located
+    * (relative to <code>faceOffsets[0]</code>) at the same positions as its
+    * vertex indices.
+    */
+   private static HalfEdge[] createFaces (
+      ParallelLoop loop, PolygonalMesh mesh, final int[] faceIndices, final int[] faceOffsets) {
+
+      final int numf = faceOffsets.length-1;
+      final int off0 = faceOffsets[0];
+      final HalfEdge[] hedges = new HalfEdge[faceOffsets[numf]-off0];
+      final Face[] faces = new Face[numf];
+      final ArrayList<Vertex3d> vtxs = mesh.myVertices;
+      loop.forRange (0, numf, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               for (int i=start; i<end; i++) {
+                  Face face = new Face (i);
+                  int kend = faceOffsets[i+1];
+                  Vertex3d tail = getVertex (vtxs, faceIndices[kend-1], i);
+                  HalfEdge prev = null;
+                  for (int k=faceOffsets[i]; k<kend; k++) {
+                     Vertex3d head = getVertex (vtxs, faceIndices[k], i);
+                     HalfEdge he = new HalfEdge (head, tail, face);
+                     if (prev != null) {
+                        prev.setNext (he);
+                     }
+                     else {
+                        face.he0 = he;
+                     }
+                     hedges[k-off0] = he;
+                     prev = he;
+                     tail = head;
+                  }
+                  prev.setNext (face.he0);
+                  faces[i] = face;
+               }
+            }
+         });
+      mesh.myFaces.addAll (Arrays.asList (faces));
+      return hedges;
+   }
+
+   private static Vertex3d getVertex (
+      ArrayList<Vertex3d> vtxs, int idx, int faceIdx) {
+      if (idx < 0 || idx >= vtxs.size()) {
+         throw new IllegalArgumentException (
+            "Face vertex index "+idx+" out of bounds, face number "+faceIdx);
+      }
+      return vtxs.get (idx);
+   }
+
+   /**
+    * Sorts the half-edge numbers into buckets, using a stable counting sort
+    * so that the numbers within each bucket remain in increasing order.
+    * Returns the offsets of each bucket, while the sorted numbers are
+    * returned in <code>sorted</code>.
+    */
+   private static int[] bucketSort (int[] buckets, int numb, int[] sorted) {
+      int[] offsets = new int[numb+1];
+      for (int k=0; k<buckets.length; k++) {
+         offsets[buckets[k]+1]++;
+      }
+      for (int b=0; b<numb; b++) {
+         offsets[b+1] += offsets[b];
+      }
+      int[] next = Arrays.copyOf (offsets, numb);
+      for (int k=0; k<buckets.length; k++) {
+         sorted[next[buckets[k]]++] = k;
+      }
+      return offsets;
+   }
+
+   /**
+    * Connects opposite half-edges. The half-edges are sorted into buckets by
+    * the lower-numbered vertex of their edge, and then within each bucket by
+    * the higher-numbered vertex, with ties broken by half-edge number. Each
+    * resulting group of half-edges then lies along a single edge, and the
+    * half-edges within it are processed in the order they would be created
+    * by <code>addFace</code>. As in <code>addFace</code>, each half-edge is
+    * connected to the most recent half-edge running in the opposite
+    * direction, unless that half-edge is already connected.
+    */
+   private static void connectOpposites (
+      ParallelLoop loop, PolygonalMesh mesh, final HalfEdge[] hedges,
+      int[] faceIndices, int[] faceOffsets) {
+
+      int numh = hedges.length;
+      int numv = mesh.numVertices();
+      final int[] lowIdxs = new int[numh];
+      for (int k=0; k<numh; k++) {
+         HalfEdge he = hedges[k];
+         lowIdxs[k] = Math.min (he.head.idx, he.tail.idx);
+      }
+      final int[] sorted = new int[numh];
+      final int[] bucketOffs = bucketSort (lowIdxs, numv, sorted);
+      final long[][] workspaces = new long[loop.getNumThreads()][];
+      loop.forRange (0, numv, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               long[] keys = workspaces[thread];
+               for (int v=start; v<end; v++) {
+                  int off = bucketOffs[v];
+                  int size = bucketOffs[v+1]-off;
+                  if (size < 2) {
+                     continue;
+                  }
+                  if (keys == null || keys.length < size) {
+                     keys = new long[Math.max (2*size, 16)];
+                     workspaces[thread] = keys;
+                  }
+                  // sort by the high vertex index, and then by half-edge
+                  // number
+                  for (int j=0; j<size; j++) {
+                     int k = sorted[off+j];
+                     HalfEdge he = hedges[k];
+                     int high = Math.max (he.head.idx, he.tail.idx);
+                     keys[j] = ((long)high << 32) | k;
+                  }
+                  Arrays.sort (keys, 0, size);
+                  int j = 0;
+                  while (j < size) {
+                     int high = (int)(keys[j] >>> 32);
+                     // most recent half-edges in the low-to-high and
+                     // high-to-low directions
+                     HalfEdge lastUp = null;
+                     HalfEdge lastDown = null;
+                     for ( ; j<size && (int)(keys[j]>>>32) == high; j++) {
+                        HalfEdge he = hedges[(int)keys[j]];
+                        boolean up = (he.tail.idx <= he.head.idx);
+                        boolean down = (he.tail.idx >= he.head.idx);
+                        HalfEdge opp = (up ? lastDown : lastUp);
+                        if (opp != null && opp.opposite == null) {
+                           he.opposite = opp;
+                           opp.opposite = he;
+                           he.uOppositeP = true;
+                        }
+                        if (up) {
+                           lastUp = he;
+                        }
+                        if (down) {
+                           lastDown = he;
+                        }
+                     }
+                  }
+               }
+            }
+         });
+   }
+
+   /**
+    * Adds each half-edge to the incident half-edge list of its head vertex,
+    * in the same order as <code>addFace</code>.
+    */
+   private static void addIncidentHalfEdges (
+      ParallelLoop loop, PolygonalMesh mesh, final HalfEdge[] hedges, int[] faceOffsets) {
+
+      int numh = hedges.length;
+      int numv = mesh.numVertices();
+      int[] headIdxs = new int[numh];
+      for (int k=0; k<numh; k++) {
+         headIdxs[k] = hedges[k].head.idx;
+      }
+      final int[] sorted = new int[numh];
+      final int[] bucketOffs = bucketSort (headIdxs, numv, sorted);
+      loop.forRange (0, numv, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               for (int v=start; v<end; v++) {
+                  for (int j=bucketOffs[v]; j<bucketOffs[v+1]; j++) {
+                     HalfEdge he = hedges[sorted[j]];
+                     he.head.addIncidentHalfEdge (he);
+                  }
+               }
+            }
+         });
+   }
+
+   /**
+    * Returns the index of a half-edge relative to
+    * <code>faceOffsets[0]</code>.
+    */
+   private static int halfEdgeIndex (HalfEdge he, int[] faceOffsets) {
+      int k = faceOffsets[he.face.idx]-faceOffsets[0];
+      for (HalfEdge h=he.face.he0; h!=he; h=h.next) {
+         k++;
+      }
+      return k;
+   }
+
+   /**
+    * Computes the automatic vertex normals for the mesh. This produces the
+    * same result as {@link PolygonalMesh#computeVertexNormals}, with the
+    * normals for each vertex computed in parallel.
+    */
+   private static void computeNormals (
+      ParallelLoop loop, final PolygonalMesh mesh, int numh, final int[] faceOffsets) {
+
+      final ArrayList<Vertex3d> vtxs = mesh.myVertices;
+      final boolean multiNormals = mesh.myMultiAutoNormalsP;
+      int numv = vtxs.size();
+
+      // count the normals for each vertex
+      final int[] normalOffs = new int[numv+1];
+      loop.forRange (0, numv, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               for (int i=start; i<end; i++) {
+                  Vertex3d vtx = vtxs.get(i);
+                  HalfEdgeNode node = vtx.getIncidentHedges();
+                  int cnt = 0;
+                  while (node != null) {
+                     do {
+                        node = node.next;
+                     }
+                     while (node != null &&
+                            (!multiNormals ||
+                             !vtx.isNormalBoundary(node.he)));
+                     cnt++;
+                  }
+                  normalOffs[i+1] = cnt;
+               }
+            }
+         });
+      for (int i=0; i<numv; i++) {
+         normalOffs[i+1] += normalOffs[i];
+      }
+
+      final Vector3d[] normals = new Vector3d[normalOffs[numv]];
+      final int[] indices = new int[numh];
+      final boolean[] degenerate = new boolean[numv];
+      loop.forRange (0, numv, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               for (int i=start; i<end; i++) {
+                  Vertex3d vtx = vtxs.get(i);
+                  HalfEdgeNode node = vtx.getIncidentHedges();
+                  int idx = normalOffs[i];
+                  while (node != null) {
+                     Vector3d nrm = new Vector3d();
+                     do {
+                        HalfEdge he = node.he;
+                        nrm.angleWeightedCrossAdd (
+                           he.tail.pnt, he.head.pnt, he.next.head.pnt);
+                        indices[halfEdgeIndex (he, faceOffsets)] = idx;
+                        node = node.next;
+                     }
+                     while (node != null &&
+                            (!multiNormals ||
+                             !vtx.isNormalBoundary(node.he)));
+                     if (nrm.normSquared() == 0) {
+                        // handled below, since this requires face normals
+                        degenerate[i] = true;
+                     }
+                     else {
+                        nrm.normalize();
+                     }
+                     normals[idx++] = nrm;
+                  }
+               }
+            }
+         });
+      for (int i=0; i<numv; i++) {
+         if (degenerate[i]) {
+            for (int idx=normalOffs[i]; idx<normalOffs[i+1]; idx++) {
+               Vector3d nrm = normals[idx];
+               if (nrm.normSquared() == 0) {
+                  // backup, just in case angle weighted normals fails
+                  vtxs.get(i).computeAreaWeightedNormal (nrm);
+                  nrm.normalize();
+               }
+            }
+         }
+      }
+      mesh.myNormals = new ArrayList<Vector3d>(Arrays.asList (normals));
+      mesh.myNormalIndices = indices;
+      mesh.myAutoNormalsValidP = true;
+      mesh.myRenderNormalsValidP = false;
+      mesh.notifyModified();
+   }
+}
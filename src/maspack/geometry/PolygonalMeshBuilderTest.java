@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.util.FunctionTimer;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Test program for PolygonalMeshBuilder, which checks that meshes built in
+ * bulk have exactly the same half-edge structure and automatic normals as
+ * meshes built by adding faces individually.
+ */
+public class PolygonalMeshBuilderTest extends UnitTest {
+
+   // use several threads, even on single processor machines
+   PolygonalMeshBuilder myBuilder = new PolygonalMeshBuilder (4);
+
+   private double[] getCoords (PolygonalMesh mesh) {
+      double[] coords = new double[3*mesh.numVertices()];
+      for (int i=0; i<mesh.numVertices(); i++) {
+         Point3d pnt = mesh.getVertex(i).pnt;
+         coords[3*i  ] = pnt.x;
+         coords[3*i+1] = pnt.y;
+         coords[3*i+2] = pnt.z;
+      }
+      return coords;
+   }
+
+   private int[] getFaceOffsets (int[][] faces) {
+      int[] offsets = new int[faces.length+1];
+      for (int i=0; i<faces.length; i++) {
+         offsets[i+1] = offsets[i] + faces[i].length;
+      }
+      return offsets;
+   }
+
+   private int[] getFaceIndices (int[][] faces) {
+      int[] offsets = getFaceOffsets (faces);
+      int[] indices = new int[offsets[faces.length]];
+      for (int i=0; i<faces.length; i++) {
+         System.arraycopy (faces[i], 0, indices, offsets[i], faces[i].length);
+      }
+      return indices;
+   }
+
+   private PolygonalMesh createByFace (double[] coords, int[][] faces) {
+      PolygonalMesh mesh = new PolygonalMesh();
+      for (int i=0; i<coords.length/3; i++) {
+         mesh.addVertex (coords[3*i], coords[3*i+1], coords[3*i+2]);
+      }
+      for (int i=0; i<faces.length; i++) {
+         mesh.addFace (faces[i]);
+      }
+      return mesh;
+   }
+
+   private PolygonalMesh createInBulk (
+      double[] coords, int[][] faces, boolean computeNormals) {
+      PolygonalMesh mesh = new PolygonalMesh();
+      myBuilder.set (
+         mesh, coords, getFaceIndices(faces), getFaceOffsets(faces),
+         computeNormals);
+      return mesh;
+   }
+
+   /**
+    * Returns a string identifying a half-edge by its face and position.
+    */
+   private String hedgeId (HalfEdge he) {
+      if (he == null) {
+         return "null";
+      }
+      int k = 0;
+      for (HalfEdge h=he.face.he0; h!=he; h=h.next) {
+         k++;
+      }
+      return he.face.idx + ":" + k;
+   }
+
+   private void checkStructure (PolygonalMesh check, PolygonalMesh mesh) {
+      if (check.numVertices() != mesh.numVertices()) {
+         throw new TestException (
+            "mesh has "+check.numVertices()+" vertices, expected "+
+            mesh.numVertices());
+      }
+      if (check.numFaces() != mesh.numFaces()) {
+         throw new TestException (
+            "mesh has "+check.numFaces()+" faces, expected "+mesh.numFaces());
+      }
+      if (check.isTriangular() != mesh.isTriangular() ||
+          check.isQuad() != mesh.isQuad()) {
+         throw new TestException ("triangle or quad counts differ");
+      }
+      for (int i=0; i<mesh.numFaces(); i++) {
+         Face face = mesh.getFace(i);
+         Face cface = check.getFace(i);
+         if (!Arrays.equals (face.getVertexIndices(),
+                             cface.getVertexIndices())) {
+            throw new TestException ("indices differ for face "+i);
+         }
+         HalfEdge he = face.he0;
+         HalfEdge che = cface.he0;
+         do {
+            if (he.head.idx != che.head.idx || he.tail.idx != che.tail.idx) {
+               throw new TestException (
+                  "vertices differ for half-edge "+hedgeId(he));
+            }
+            if (!hedgeId(he.opposite).equals (hedgeId(che.opposite))) {
+               throw new TestException (
+                  "half-edge "+hedgeId(he)+": opposite is "+
+                  hedgeId(che.opposite)+", expected "+hedgeId(he.opposite));
+            }
+            if (he.uOppositeP != che.uOppositeP) {
+               throw new TestException (
+                  "half-edge "+hedgeId(he)+": uOppositeP differs");
+            }
+            he = he.next;
+            che = che.next;
+         }
+         while (he != face.he0);
+         if (che != cface.he0) {
+            throw new TestException ("half-edge loop differs for face "+i);
+         }
+      }
+      // check incident half-edge lists
+      for (int i=0; i<mesh.numVertices(); i++) {
+         HalfEdgeNode node = mesh.getVertex(i).incidentHedges;
+         HalfEdgeNode cnode = check.getVertex(i).incidentHedges;
+         while (node != null && cnode != null) {
+            if (!hedgeId(node.he).equals (hedgeId(cnode.he))) {
+               throw new TestException (
+                  "incident half-edges differ for vertex "+i);
+            }
+            node = node.next;
+            cnode = cnode.next;
+         }
+         if (node != null || cnode != null) {
+            throw new TestException (
+               "incident half-edge counts differ for vertex "+i);
+         }
+      }
+   }
+
+   // like Vector3d.equals(), except that NaN values (which can arise for
+   // degenerate vertices) are treated as equal
+   private boolean normalsEqual (Vector3d nrm0, Vector3d nrm1) {
+      return (Double.compare (nrm0.x, nrm1.x) == 0 &&
+              Double.compare (nrm0.y, nrm1.y) == 0 &&
+              Double.compare (nrm0.z, nrm1.z) == 0);
+   }
+
+   private void checkNormals (PolygonalMesh check, PolygonalMesh mesh) {
+      ArrayList<Vector3d> nrmls = mesh.getNormals();
+      ArrayList<Vector3d> cnrmls = check.getNormals();
+      if (nrmls.size() != cnrmls.size()) {
+         throw new TestException (
+            "mesh has "+cnrmls.size()+" normals, expected "+nrmls.size());
+      }
+      for (int i=0; i<nrmls.size(); i++) {
+         if (!normalsEqual (nrmls.get(i), cnrmls.get(i))) {
+            throw new TestException (
+               "normal "+i+" is "+cnrmls.get(i)+", expected "+nrmls.get(i));
+         }
+      }
+      if (!Arrays.equals (mesh.getNormalIndices(), check.getNormalIndices())) {
+         throw new TestException ("normal indices differ");
+      }
+   }
+
+   void test (double[] coords, int[][] faces) {
+      PolygonalMesh mesh = createByFace (coords, faces);
+      PolygonalMesh check = createInBulk (coords, faces, false);
+      checkStructure (check, mesh);
+      checkNormals (check, mesh);
+
+      // computing normals sorts the incident half-edges, so generate
+      // normals for the reference mesh before comparing
+      mesh = createByFace (coords, faces);
+      mesh.getNormals();
+      check = createInBulk (coords, faces, true);
+      checkStructure (check, mesh);
+      checkNormals (check, mesh);
+   }
+
+   void test (PolygonalMesh mesh) {
+      int[][] faces = new int[mesh.numFaces()][];
+      for (int i=0; i<mesh.numFaces(); i++) {
+         faces[i] = mesh.getFace(i).getVertexIndices();
+      }
+      test (getCoords (mesh), faces);
+   }
+
+   void testErrors() {
+      double[] coords = new double[] { 0, 0, 0,  1, 0, 0,  0, 1, 0 };
+      PolygonalMesh mesh = new PolygonalMesh();
+      try {
+         mesh.set (coords, new int[] { 0, 1, 3 }, null);
+         throw new TestException ("out of bounds index not detected");
+      }
+      catch (IllegalArgumentException e) {
+         // expected
+      }
+      if (mesh.numVertices() != 0 || mesh.numFaces() != 0) {
+         throw new TestException ("mesh not cleared after error");
+      }
+   }
+
+   public void test() {
+      test (MeshFactory.createQuadBox (1, 2, 3, Point3d.ZERO, 2, 2, 2));
+      test (MeshFactory.createPlane (1.0, 2.0, 5, 4));
+      test (MeshFactory.createSphere (1.0, 200));
+
+      // non-manifold meshes: three triangles sharing one edge, and two
+      // copies of the same triangle
+      double[] coords = new double[] {
+         0, 0, 0,  1, 0, 0,  0, 1, 0,  0, -1, 0,  0, 0, 1 };
+      test (coords, new int[][] {
+            { 0, 1, 2 }, { 1, 0, 3 }, { 0, 1, 4 }, { 1, 0, 2 } });
+      test (coords, new int[][] {
+            { 0, 1, 2 }, { 0, 1, 2 }, { 2, 1, 0 } });
+      // polygonal faces
+      test (coords, new int[][] {
+            { 0, 3, 1, 4, 2 }, { 2, 4, 1 } });
+      testErrors();
+   }
+
+   void timing() {
+      PolygonalMesh sphere = MeshFactory.createSphere (1.0, 1000);
+      double[] coords = getCoords (sphere);
+      int[][] faces = new int[sphere.numFaces()][];
+      for (int i=0; i<sphere.numFaces(); i++) {
+         faces[i] = sphere.getFace(i).getVertexIndices();
+      }
+      int[] indices = getFaceIndices (faces);
+      int[] offsets = getFaceOffsets (faces);
+      FunctionTimer timer = new FunctionTimer();
+      for (int k=0; k<3; k++) {
+         timer.start();
+         PolygonalMesh mesh = createByFace (coords, faces);
+         mesh.getNormals();
+         timer.stop();
+         System.out.println (
+            "addFace, "+faces.length+" faces: " + timer.result(1));
+         timer.start();
+         mesh = new PolygonalMesh();
+         myBuilder.set (mesh, coords, indices, offsets, true);
+         timer.stop();
+         System.out.println (
+            "builder, "+faces.length+" faces: " + timer.result(1));
+      }
+   }
+
+   public static void main (String[] args) {
+      PolygonalMeshBuilderTest tester = new PolygonalMeshBuilderTest();
+      boolean doTiming = false;
+      for (int i=0; i<args.length; i++) {
+         if (args[i].equals ("-timing")) {
+            doTiming = true;
+         }
+         else {
+            System.out.println (
+               "Usage: java "+tester.getClass().getName()+" [-timing]");
+            System.exit(1);
+         }
+      }
+      if (doTiming) {
+         tester.timing();
+      }
+      else {
+         tester.runtest();
+      }
+   }
+}
@@ -0,0 +1,1009 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.Vector3i;
+import maspack.util.NumberFormat;
+import maspack.util.ReaderTokenizer;
+
+/**
+ * A distance grid that stores distances only within a narrow band about its
+ * features, so that memory grows roughly with the square of the resolution
+ * instead of its cube. This allows much finer grids to be used for large
+ * meshes. The grid vertices are grouped into cubic blocks of {@link
+ * #BLOCK_SIZE}<sup>3</sup> vertices, and storage is allocated only for the
+ * blocks that lie within the band width of at least one feature. Each
+ * remaining block is stored as a single flag indicating whether it is
+ * inside or outside the features.
+ *
+ * <p>Within the band, vertex distances are the exact distances to the
+ * nearest features (as opposed to the dense grid, in which distances away
+ * from the features are propagated by sweeping). Distance magnitudes are
+ * clamped to the band distance, given by the band width times the smallest
+ * cell width, so that vertices outside the band have a distance equal to the
+ * band distance (negated for vertices inside a signed grid). Queries such as
+ * {@link #getLocalDistanceAndNormal}, {@link #getLocalDistanceAndGradient}
+ * and {@link #getNearestLocalFeature} are therefore only accurate for points
+ * within the band, which is sufficient for contact handling, and the grid can
+ * be used wherever a {@link DistanceGrid} is expected, such as by {@link
+ * maspack.collision.SignedDistanceCollider}.
+ *
+ * <p>Methods that set or modify distances explicitly, such as {@link
+ * #setDistances}, {@link #smooth} or {@link #computeUnion}, clamp the
+ * resulting distances to the band distance, and allocate storage only for
+ * blocks that contain distances within the band. Normals and quadratic
+ * interpolation coefficients are computed as needed instead of being stored,
+ * and {@link #getDistances} returns a dense copy of the distances, which
+ * other methods, such as {@link #createDistanceSurface(double)} and {@link
+ * #write}, avoid.
+ */
+public class SparseDistanceGrid extends DistanceGrid {
+
+   /**
+    * Number of vertices along each side of a storage block.
+    */
+   public static final int BLOCK_SIZE = 8;
+
+   /**
+    * Default band width, in cells.
+    */
+   public static final int DEFAULT_BAND_WIDTH = 3;
+
+   private static final int BLOCK_BITS = 3;
+   private static final int BLOCK_MASK = BLOCK_SIZE-1;
+   private static final int BLOCK_VOLUME = BLOCK_SIZE*BLOCK_SIZE*BLOCK_SIZE;
+
+   // block table entries for blocks without storage
+   private static final int OUTSIDE_BLOCK = -1;
+   private static final int INSIDE_BLOCK = -2;
+
+   protected int myBandWidth = DEFAULT_BAND_WIDTH;
+   protected double myBandDist;
+
+   protected int myBx;  // number of blocks along x
+   protected int myBy;  // number of blocks along y
+   protected int myBz;  // number of blocks along z
+   // for each block, the index of its storage, or OUTSIDE_BLOCK/INSIDE_BLOCK
+   protected int[] myBlockIdxs;
+   // distances and nearest feature indices for all allocated blocks
+   protected double[] myBlockPhi;
+   protected int[] myBlockFeatureIdxs;
+   protected int myNumAllocatedBlocks;
+   // color indices of vertices that do not use the default color
+   protected HashMap<Integer,Integer> myVertexColorIdxs;
+
+   SparseDistanceGrid () {
+      super();
+   }
+
+   /**
+    * Creates a new sparse distance grid for a specified list of features,
+    * axis-aligned and centered on the features, with a the cell resolution
+    * along each axis given by <code>resolution</code>, and a band width
+    * given by {@link #DEFAULT_BAND_WIDTH}.
+    *
+    * @param features features used to compute the distance field
+    * @param marginFrac specifies the fractional amount that the
+    * grid should be grown in each direction to better contain the features
+    * @param resolution specfies the resolution along each of the
+    * x, y, and z axes.
+    * @param signed if <code>true</code>, indicates that the field should be
+    * signed. Signed fields can only be computed if all features
+    * are faces (i.e., {@link Face}).
+    */
+   public SparseDistanceGrid (
+      List<? extends Feature> features, double marginFrac, Vector3i resolution,
+      boolean signed) {
+      this (features, marginFrac, resolution, DEFAULT_BAND_WIDTH, signed);
+   }
+
+   /**
+    * Creates a new sparse distance grid for a specified list of features,
+    * axis-aligned and centered on the features, with a the cell resolution
+    * along each axis given by <code>resolution</code>.
+    *
+    * @param features features used to compute the distance field
+    * @param marginFrac specifies the fractional amount that the
+    * grid should be grown in each direction to better contain the features
+    * @param resolution specfies the resolution along each of the
+    * x, y, and z axes.
+    * @param bandWidth width of the band about the features within which
+    * distances are stored, in cells
+    * @param signed if <code>true</code>, indicates that the field should be
+    * signed. Signed fields can only be computed if all features
+    * are faces (i.e., {@link Face}).
+    */
+   public SparseDistanceGrid (
+      List<? extends Feature> features, double marginFrac, Vector3i resolution,
+      int bandWidth, boolean signed) {
+
+      this();
+      setBandWidth (bandWidth);
+      setResolution (resolution);
+      computeFromFeatures (
+         features, marginFrac, /*TCL=*/null, /*maxRes=*/0, signed);
+      clearColors();
+   }
+
+   /**
+    * Creates a new sparse distance grid, axis-aligned and centered on the
+    * origin, with the specified resolution and x, y, z widths set to 1.
+    * Distances should be computed from features using {@link
+    * #computeFromFeatures} or {@link #computeFromFeaturesOBB}.
+    *
+    * @param resolution cell resolution along the x, y, and z axes
+    */
+   public SparseDistanceGrid (Vector3i resolution) {
+      this();
+      setResolution (resolution);
+      setWidths (new Vector3d (1, 1, 1));
+      setCenterAndOrientation (null);
+      clearColors();
+   }
+
+   /**
+    * Sets the width of the band about the features within which distances
+    * are stored, in cells. The new width takes effect the next time the
+    * distances are computed.
+    *
+    * @param width band width (values {@code < 1} are set to 1)
+    */
+   public void setBandWidth (int width) {
+      myBandWidth = Math.max (1, width);
+   }
+
+   /**
+    * Returns the width of the band about the features within which distances
+    * are stored, in cells.
+    *
+    * @return band width
+    */
+   public int getBandWidth() {
+      return myBandWidth;
+   }
+
+   /**
+    * Returns the maximum distance magnitude stored by this grid, which is
+    * the band width times the smallest cell width.
+    *
+    * @return band distance
+    */
+   public double getBandDistance() {
+      return myBandDist;
+   }
+
+   /**
+    * Returns the number of blocks for which distance storage is allocated.
+    *
+    * @return number of allocated blocks
+    */
+   public int numAllocatedBlocks() {
+      return myNumAllocatedBlocks;
+   }
+
+   /**
+    * Returns the total number of blocks in this grid.
+    *
+    * @return total number of blocks
+    */
+   public int numBlocks() {
+      return myBx*myBy*myBz;
+   }
+
+   private double computeBandDistance() {
+      Vector3d cwidths = getCellWidths();
+      return myBandWidth*Math.min (cwidths.x, Math.min (cwidths.y, cwidths.z));
+   }
+
+   /**
+    * Allocates the block table for the current resolution, with all blocks
+    * initially outside the features and without storage.
+    */
+   private void initializeBlocks() {
+      myBx = (myNx+BLOCK_MASK) >> BLOCK_BITS;
+      myBy = (myNy+BLOCK_MASK) >> BLOCK_BITS;
+      myBz = (myNz+BLOCK_MASK) >> BLOCK_BITS;
+      myBlockIdxs = new int[myBx*myBy*myBz];
+      Arrays.fill (myBlockIdxs, OUTSIDE_BLOCK);
+      myBlockPhi = new double[0];
+      myBlockFeatureIdxs = new int[0];
+      myNumAllocatedBlocks = 0;
+   }
+
+   @Override
+   protected void allocateVertexData() {
+      myPhi = null;
+      myNormals = null;
+      myColorIndices = null;
+      myQuadCoefs = null;
+      myClosestFeatureIdxs = null;
+      myVertexColorIdxs = null;
+      initializeBlocks();
+      myBandDist = 0;
+      if (myFeatures != null) {
+         computeSparseDistances (myFeatures, mySignedP);
+      }
+   }
+
+   @Override
+   void calculatePhi (List<? extends Feature> features, boolean signed) {
+      Feature[] featArray = features.toArray(new Feature[0]);
+      computeSparseDistances (featArray, signed);
+      myQuadCoefs = null;
+      myFeatures = featArray;
+      mySignedP = signed;
+   }
+
+   private final int blockIndex (int xi, int yj, int zk) {
+      return ((zk>>BLOCK_BITS)*myBy + (yj>>BLOCK_BITS))*myBx + (xi>>BLOCK_BITS);
+   }
+
+   private final int localIndex (int xi, int yj, int zk) {
+      return ((((zk&BLOCK_MASK) << BLOCK_BITS) + (yj&BLOCK_MASK)) << BLOCK_BITS)
+         + (xi&BLOCK_MASK);
+   }
+
+   /**
+    * Returns the storage offset of a vertex, or -1 if the vertex is not
+    * contained in an allocated block.
+    */
+   private int storageOffset (int xi, int yj, int zk) {
+      int bidx = myBlockIdxs[blockIndex (xi, yj, zk)];
+      if (bidx < 0) {
+         return -1;
+      }
+      return bidx*BLOCK_VOLUME + localIndex (xi, yj, zk);
+   }
+
+   /**
+    * Computes the distances. Blocks within the band width of each feature
+    * are first allocated, after which the distance of every vertex in an
+    * allocated block is computed by brute force with respect to all nearby
+    * features. If the grid is signed, signs are then computed by ray casting
+    * along z, with intersections stored for each (x, y) column.
+    */
+   private void computeSparseDistances (Feature[] features, boolean signed) {
+
+      initializeBlocks();
+      myBandDist = computeBandDistance();
+      int bw = myBandWidth;
+
+      // find grid bounds of each feature, grown by the band width, and
+      // allocate the blocks they overlap
+      int nfeats = features.length;
+      int[] bounds = new int[6*nfeats];
+      Vector3i gridMin = new Vector3i();
+      Vector3i gridMax = new Vector3i();
+      double[] zrange = new double[2];
+      int numBlocks = 0;
+      for (int t=0; t<nfeats; t++) {
+         computeFeatureGridBounds (gridMin, gridMax, zrange, features[t]);
+         bounds[6*t  ] = clip (gridMin.x-bw, 0, myNx-1);
+         bounds[6*t+1] = clip (gridMin.y-bw, 0, myNy-1);
+         bounds[6*t+2] = clip (gridMin.z-bw, 0, myNz-1);
+         bounds[6*t+3] = clip (gridMax.x+bw, 0, myNx-1);
+         bounds[6*t+4] = clip (gridMax.y+bw, 0, myNy-1);
+         bounds[6*t+5] = clip (gridMax.z+bw, 0, myNz-1);
+         for (int bk=bounds[6*t+2]>>BLOCK_BITS;
+              bk<=bounds[6*t+5]>>BLOCK_BITS; bk++) {
+            for (int bj=bounds[6*t+1]>>BLOCK_BITS;
+                 bj<=bounds[6*t+4]>>BLOCK_BITS; bj++) {
+               for (int bi=bounds[6*t]>>BLOCK_BITS;
+                    bi<=bounds[6*t+3]>>BLOCK_BITS; bi++) {
+                  int bidx = (bk*myBy + bj)*myBx + bi;
+                  if (myBlockIdxs[bidx] < 0) {
+                     myBlockIdxs[bidx] = numBlocks++;
+                  }
+               }
+            }
+         }
+      }
+      myNumAllocatedBlocks = numBlocks;
+      myBlockPhi = new double[numBlocks*BLOCK_VOLUME];
+      myBlockFeatureIdxs = new int[numBlocks*BLOCK_VOLUME];
+      Arrays.fill (myBlockPhi, myBandDist);
+      Arrays.fill (myBlockFeatureIdxs, -1);
+
+      // compute distances by brute force within the grown bounds
+      Point3d featPntLoc = new Point3d();
+      Point3d nearPntLoc = new Point3d();
+      for (int t=0; t<nfeats; t++) {
+         Feature feature = features[t];
+         for (int zk=bounds[6*t+2]; zk<=bounds[6*t+5]; zk++) {
+            for (int yj=bounds[6*t+1]; yj<=bounds[6*t+4]; yj++) {
+               for (int xi=bounds[6*t]; xi<=bounds[6*t+3]; xi++) {
+                  featPntLoc.set (xi, yj, zk);
+                  myGridToLocal.transformPnt (featPntLoc, featPntLoc);
+                  feature.nearestPoint (nearPntLoc, featPntLoc);
+                  double distance = featPntLoc.distance (nearPntLoc);
+                  int off = storageOffset (xi, yj, zk);
+                  if (distance < myBlockPhi[off]) {
+                     myBlockPhi[off] = distance;
+                     myBlockFeatureIdxs[off] = t;
+                  }
+                  else if (myBlockFeatureIdxs[off] == -1) {
+                     // beyond band distance; record feature for reference
+                     myBlockFeatureIdxs[off] = t;
+                  }
+               }
+            }
+         }
+      }
+
+      if (signed) {
+         computeSigns (features);
+      }
+   }
+
+   /**
+    * Computes the signs of the distances, using vertical ray casts as in
+    * the dense grid, but with the intersections of each (x, y) column stored
+    * as a sorted list of z indices.
+    */
+   private void computeSigns (Feature[] features) {
+
+      double maxDist = 2*getRadius();
+      int[][] crossings = new int[myNx*myNy][];
+      int[] numCrossings = new int[myNx*myNy];
+      Vector3i gridMin = new Vector3i();
+      Vector3i gridMax = new Vector3i();
+      double[] zrange = new double[2];
+      for (int t=0; t<features.length; t++) {
+         Face face = checkSignedFeature (features[t]);
+         computeFeatureGridBounds (gridMin, gridMax, zrange, face);
+         for (int yj=gridMin.y; yj<=gridMax.y; yj++) {
+            for (int xi=gridMin.x; xi<=gridMax.x; xi++) {
+               int zk = intersectVerticalRay (
+                  face, xi, yj, zrange[0], zrange[1], maxDist);
+               if (zk != -1) {
+                  int col = xi + yj*myNx;
+                  int[] list = crossings[col];
+                  int num = numCrossings[col];
+                  if (list == null) {
+                     list = new int[4];
+                  }
+                  else if (num == list.length) {
+                     list = Arrays.copyOf (list, 2*num);
+                  }
+                  list[num] = zk;
+                  crossings[col] = list;
+                  numCrossings[col] = num+1;
+               }
+            }
+         }
+      }
+      for (int col=0; col<crossings.length; col++) {
+         if (crossings[col] != null) {
+            Arrays.sort (crossings[col], 0, numCrossings[col]);
+         }
+      }
+      // negate distances of all vertices that are inside
+      for (int bk=0; bk<myBz; bk++) {
+         for (int bj=0; bj<myBy; bj++) {
+            for (int bi=0; bi<myBx; bi++) {
+               int bidx = (bk*myBy + bj)*myBx + bi;
+               int x0 = bi << BLOCK_BITS;
+               int y0 = bj << BLOCK_BITS;
+               int z0 = bk << BLOCK_BITS;
+               if (myBlockIdxs[bidx] < 0) {
+                  // all vertices in the block have the same sign
+                  int col = x0 + y0*myNx;
+                  if (isInside (crossings[col], numCrossings[col], z0)) {
+                     myBlockIdxs[bidx] = INSIDE_BLOCK;
+                  }
+               }
+               else {
+                  int off = myBlockIdxs[bidx]*BLOCK_VOLUME;
+                  int x1 = Math.min (x0+BLOCK_SIZE, myNx);
+                  int y1 = Math.min (y0+BLOCK_SIZE, myNy);
+                  int z1 = Math.min (z0+BLOCK_SIZE, myNz);
+                  for (int yj=y0; yj<y1; yj++) {
+                     for (int xi=x0; xi<x1; xi++) {
+                        int col = xi + yj*myNx;
+                        int[] list = crossings[col];
+                        int num = numCrossings[col];
+                        for (int zk=z0; zk<z1; zk++) {
+                           if (isInside (list, num, zk)) {
+                              myBlockPhi[off+localIndex(xi,yj,zk)] *= -1;
+                           }
+                        }
+                     }
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns true if an odd number of crossings in a column lie at or below
+    * a given z index.
+    */
+   private boolean isInside (int[] list, int num, int zk) {
+      int cnt = 0;
+      for (int i=0; i<num && list[i]<=zk; i++) {
+         cnt++;
+      }
+      return (cnt%2) == 1;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   protected double getVertexDistance (int xi, int yj, int zk) {
+      return getVertexDistance (
+         myBlockIdxs, myBlockPhi, myBandDist, xi, yj, zk);
+   }
+
+   /**
+    * Returns the distance at a vertex for a given block table, block storage
+    * and band distance.
+    */
+   private double getVertexDistance (
+      int[] blockIdxs, double[] blockPhi, double band,
+      int xi, int yj, int zk) {
+      int bidx = blockIdxs[blockIndex (xi, yj, zk)];
+      if (bidx >= 0) {
+         return blockPhi[bidx*BLOCK_VOLUME + localIndex (xi, yj, zk)];
+      }
+      else if (bidx == INSIDE_BLOCK) {
+         return -band;
+      }
+      else {
+         return band;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   protected double getVertexDistance (int vi) {
+      int xi = vi%myNx;
+      int yj = (vi/myNx)%myNy;
+      int zk = vi/myNxNy;
+      return getVertexDistance (xi, yj, zk);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public double getVertexDistance (Vector3i vxyz) {
+      return getVertexDistance (vxyz.x, vxyz.y, vxyz.z);
+   }
+
+   /**
+    * Returns a dense copy of the distances at all vertices. Since this
+    * requires storage for every vertex, it should be used sparingly for large
+    * grids.
+    *
+    * @return dense array of vertex distances
+    */
+   @Override
+   public double[] getDistances() {
+      if (myBlockIdxs == null) {
+         return null;
+      }
+      double[] phi = new double[numVertices()];
+      int vi = 0;
+      for (int zk=0; zk<myNz; zk++) {
+         for (int yj=0; yj<myNy; yj++) {
+            for (int xi=0; xi<myNx; xi++) {
+               phi[vi++] = getVertexDistance (xi, yj, zk);
+            }
+         }
+      }
+      return phi;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public Feature getClosestFeature (int idx) {
+      if (myFeatures == null) {
+         return null;
+      }
+      int off = storageOffset (idx%myNx, (idx/myNx)%myNy, idx/myNxNy);
+      if (off == -1 || myBlockFeatureIdxs[off] == -1) {
+         return null;
+      }
+      return myFeatures[myBlockFeatureIdxs[off]];
+   }
+
+   @Override
+   protected boolean storesQuadCoefs() {
+      return false;
+   }
+
+   /**
+    * Builds new block storage from vertex values supplied one layer of blocks
+    * at a time. The existing storage remains unchanged, and can therefore
+    * still be queried, until {@link #install} is called.
+    */
+   private class BlockBuilder {
+
+      int[] myIdxs;
+      double[] myPhi;
+      int[] myFeatureIdxs;
+      int myNum;
+      double myBand;
+
+      BlockBuilder (double band) {
+         myIdxs = new int[myBx*myBy*myBz];
+         myPhi = new double[0];
+         myFeatureIdxs = new int[0];
+         myNum = 0;
+         myBand = band;
+      }
+
+      private int allocateBlock() {
+         if ((myNum+1)*BLOCK_VOLUME > myPhi.length) {
+            int cap = Math.max (2*myNum, 16)*BLOCK_VOLUME;
+            myPhi = Arrays.copyOf (myPhi, cap);
+            myFeatureIdxs = Arrays.copyOf (myFeatureIdxs, cap);
+         }
+         int off = myNum*BLOCK_VOLUME;
+         Arrays.fill (myPhi, off, off+BLOCK_VOLUME, myBand);
+         Arrays.fill (myFeatureIdxs, off, off+BLOCK_VOLUME, -1);
+         return myNum++;
+      }
+
+      /**
+       * Adds the blocks in the bk-th layer of blocks. The distance at vertex
+       * (xi, yj, zk) is given by
+       * <pre>
+       * vals[voff + xi + yj*myNx + (zk-z0)*myNxNy]
+       * </pre>
+       * where z0 is the first z index of the layer. Nearest feature
+       * indices, if not <code>null</code>, are arranged the same way.
+       * Blocks are allocated only if they contain a distance within the
+       * band, and distances are clamped to the band distance.
+       */
+      void addLayer (int bk, double[] vals, int[] featIdxs, int voff) {
+         int z0 = bk << BLOCK_BITS;
+         int z1 = Math.min (z0+BLOCK_SIZE, myNz);
+         for (int bj=0; bj<myBy; bj++) {
+            int y0 = bj << BLOCK_BITS;
+            int y1 = Math.min (y0+BLOCK_SIZE, myNy);
+            for (int bi=0; bi<myBx; bi++) {
+               int x0 = bi << BLOCK_BITS;
+               int x1 = Math.min (x0+BLOCK_SIZE, myNx);
+               boolean outside = true;
+               boolean inside = true;
+               for (int zk=z0; zk<z1 && (outside || inside); zk++) {
+                  for (int yj=y0; yj<y1; yj++) {
+                     int k = voff + (zk-z0)*myNxNy + yj*myNx;
+                     for (int xi=x0; xi<x1; xi++) {
+                        double v = vals[k+xi];
+                        if (v < myBand) {
+                           outside = false;
+                        }
+                        if (v > -myBand) {
+                           inside = false;
+                        }
+                     }
+                  }
+               }
+               int bidx = (bk*myBy + bj)*myBx + bi;
+               if (outside) {
+                  myIdxs[bidx] = OUTSIDE_BLOCK;
+               }
+               else if (inside) {
+                  myIdxs[bidx] = INSIDE_BLOCK;
+               }
+               else {
+                  int blk = allocateBlock();
+                  myIdxs[bidx] = blk;
+                  int off = blk*BLOCK_VOLUME;
+                  for (int zk=z0; zk<z1; zk++) {
+                     for (int yj=y0; yj<y1; yj++) {
+                        int k = voff + (zk-z0)*myNxNy + yj*myNx;
+                        for (int xi=x0; xi<x1; xi++) {
+                           double v = vals[k+xi];
+                           int loc = off + localIndex (xi, yj, zk);
+                           myPhi[loc] =
+                              Math.max (-myBand, Math.min (myBand, v));
+                           if (featIdxs != null) {
+                              myFeatureIdxs[loc] = featIdxs[k+xi];
+                           }
+                        }
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+      /**
+       * Replaces the grid's block storage with the blocks built so far.
+       */
+      void install() {
+         myBlockIdxs = myIdxs;
+         myBlockPhi = Arrays.copyOf (myPhi, myNum*BLOCK_VOLUME);
+         myBlockFeatureIdxs = Arrays.copyOf (myFeatureIdxs, myNum*BLOCK_VOLUME);
+         myNumAllocatedBlocks = myNum;
+         myBandDist = myBand;
+      }
+   }
+
+   /**
+    * Supplies vertex distances when rebuilding the block storage.
+    */
+   private abstract class VertexValues {
+      abstract double getValue (int xi, int yj, int zk);
+   }
+
+   /**
+    * Rebuilds the block storage from dense arrays of distances and,
+    * optionally, nearest feature indices.
+    */
+   private void setBlocks (double[] distances, int[] featIdxs) {
+      BlockBuilder builder = new BlockBuilder (computeBandDistance());
+      for (int bk=0; bk<myBz; bk++) {
+         builder.addLayer (
+            bk, distances, featIdxs, (bk << BLOCK_BITS)*myNxNy);
+      }
+      builder.install();
+   }
+
+   /**
+    * Rebuilds the block storage from distances supplied for each vertex.
+    * Only one layer of blocks is stored densely at a time, and the values
+    * may be computed from the current storage.
+    */
+   private void setBlocks (VertexValues values, double band) {
+      BlockBuilder builder = new BlockBuilder (band);
+      double[] layer = new double[BLOCK_SIZE*myNxNy];
+      for (int bk=0; bk<myBz; bk++) {
+         int z0 = bk << BLOCK_BITS;
+         int z1 = Math.min (z0+BLOCK_SIZE, myNz);
+         int k = 0;
+         for (int zk=z0; zk<z1; zk++) {
+            for (int yj=0; yj<myNy; yj++) {
+               for (int xi=0; xi<myNx; xi++) {
+                  layer[k++] = values.getValue (xi, yj, zk);
+               }
+            }
+         }
+         builder.addLayer (bk, layer, null, 0);
+      }
+      builder.install();
+   }
+
+   /**
+    * {@inheritDoc} Distance magnitudes are clamped to the band distance.
+    */
+   @Override
+   public void setDistances (double[] distances, boolean signed) {
+      int numv = numVertices();
+      if (distances.length < numv) {
+         throw new IllegalArgumentException (
+            "distances.length=" + distances.length +
+            "; must be >= num vertices ("+numv+")");
+      }
+      setBlocks (distances, null);
+      myQuadCoefs = null;
+      clearNormals();
+      clearFeatures();
+      mySignedP = signed;
+      myRobValid = false;
+   }
+
+   /**
+    * {@inheritDoc} Since every vertex is then within the band, storage is
+    * allocated for all blocks.
+    */
+   @Override
+   public void zeroDistances () {
+      setBlocks (new VertexValues() {
+            double getValue (int xi, int yj, int zk) {
+               return 0;
+            }
+         }, computeBandDistance());
+      myQuadCoefs = null;
+      clearNormals();
+      clearFeatures();
+      mySignedP = false;
+      myRobValid = false;
+   }
+
+   /**
+    * {@inheritDoc} Distance magnitudes are clamped to the band distance, and
+    * nearest features are retained only for vertices in blocks that contain
+    * distances within the band.
+    */
+   @Override
+   public void setDistancesAndFeatures (
+      double[] distances,
+      List<? extends Feature> features, int[] closestFeatures, boolean signed) {
+
+      int numv = numVertices();
+      if (distances.length < numv) {
+         throw new IllegalArgumentException (
+            "distances.length=" + distances.length +
+            "; must be >= num vertices ("+numv+")");
+      }
+      if (closestFeatures.length < numv) {
+         throw new IllegalArgumentException (
+            "closestFeatures.length=" + closestFeatures.length +
+            "; must be >= num vertices ("+numv+")");
+      }
+      Feature[] featArray = features.toArray(new Feature[0]);
+      for (int i=0; i<numv; i++) {
+         int idx = closestFeatures[i];
+         if (idx < 0 || idx >= featArray.length) {
+            throw new IllegalArgumentException (
+               "closest feature index "+idx+" at vertex "+i+" is out of range: "+
+               "must be within [0, "+(featArray.length-1)+"]");
+         }
+      }
+      setBlocks (distances, closestFeatures);
+      myFeatures = featArray;
+      myClosestFeatureIdxs = null;
+      myQuadCoefs = null;
+      clearNormals();
+      mySignedP = signed;
+      myRobValid = false;
+   }
+
+   private static final int UNION = 0;
+   private static final int INTERSECTION = 1;
+   private static final int DIFFERENCE01 = 2;
+   private static final int DIFFERENCE10 = 3;
+
+   /**
+    * Combines the current distances with the signed distances to a set of
+    * features, using a boolean operation.
+    */
+   private void combineWithFeatures (
+      List<? extends Feature> features, final int op) {
+
+      final int[] oldIdxs = myBlockIdxs;
+      final double[] oldPhi = myBlockPhi;
+      final double oldBand = myBandDist;
+      computeSparseDistances (
+         features.toArray(new Feature[0]), /*signed=*/true);
+      setBlocks (new VertexValues() {
+            double getValue (int xi, int yj, int zk) {
+               double d0 = getVertexDistance (
+                  oldIdxs, oldPhi, oldBand, xi, yj, zk);
+               double d1 = getVertexDistance (xi, yj, zk);
+               switch (op) {
+                  case UNION:
+                     return Math.min (d0, d1);
+                  case INTERSECTION:
+                     return Math.max (d0, d1);
+                  case DIFFERENCE01:
+                     return Math.max (d0, -d1);
+                  default:
+                     return Math.max (-d0, d1);
+               }
+            }
+         }, myBandDist);
+      myQuadCoefs = null;
+      clearNormals();
+      myFeatures = null;
+      mySignedP = true;
+      myRobValid = false;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void computeUnion (List<? extends Feature> features) {
+      combineWithFeatures (features, UNION);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void computeIntersection (List<? extends Feature> features) {
+      combineWithFeatures (features, INTERSECTION);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void computeDifference01 (List<? extends Feature> features) {
+      combineWithFeatures (features, DIFFERENCE01);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void computeDifference10 (List<? extends Feature> features) {
+      combineWithFeatures (features, DIFFERENCE10);
+   }
+
+   /**
+    * Applies one iteration of inverse-distance-weighted smoothing, as
+    * implemented for the dense grid.
+    */
+   private void smoothIter (final double alpha) {
+      final Vector3d cellWidths = getCellWidths();
+      setBlocks (new VertexValues() {
+            double getValue (int i, int j, int k) {
+               double wtotal = 0;
+               double p = 0;
+               for (int ii=Math.max(i-1, 0); ii<Math.min(i+2, myNx); ++ii) {
+                  for (int jj=Math.max(j-1, 0); jj<Math.min(j+2, myNy); ++jj) {
+                     for (int kk=Math.max(k-1, 0); kk<Math.min(k+2, myNz); ++kk) {
+                        if (ii != i || jj != j || kk != k) {
+                           double dx = (ii-i)*cellWidths.x;
+                           double dy = (jj-j)*cellWidths.y;
+                           double dz = (kk-k)*cellWidths.z;
+                           double w = 1.0/Math.sqrt(dx*dx + dy*dy + dz*dz);
+                           p += w*getVertexDistance (ii, jj, kk);
+                           wtotal += w;
+                        }
+                     }
+                  }
+               }
+               return getVertexDistance (i, j, k) + alpha*p/wtotal;
+            }
+         }, myBandDist);
+      myQuadCoefs = null;
+      clearNormals();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void smooth (double lambda, double mu) {
+      smoothIter (lambda);
+      smoothIter (mu);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void smooth (double lambda, double mu, int iters) {
+      for (int i=0; i<iters; ++i) {
+         smoothIter (lambda);
+         smoothIter (mu);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void smooth() {
+      setBlocks (new VertexValues() {
+            double getValue (int i, int j, int k) {
+               int N = 0;
+               double p = 0;
+               for (int ii=Math.max(i-1, 0); ii<Math.min(i+2, myNx); ++ii) {
+                  for (int jj=Math.max(j-1, 0); jj<Math.min(j+2, myNy); ++jj) {
+                     for (int kk=Math.max(k-1, 0); kk<Math.min(k+2, myNz); ++kk) {
+                        p += getVertexDistance (ii, jj, kk);
+                        ++N;
+                     }
+                  }
+               }
+               return p/N;
+            }
+         }, myBandDist);
+      myQuadCoefs = null;
+      clearNormals();
+   }
+
+   @Override
+   protected void clearVertexColorIndices() {
+      myVertexColorIdxs = null;
+   }
+
+   @Override
+   protected int getVertexColorIndex (int idx) {
+      if (myVertexColorIdxs != null) {
+         Integer cidx = myVertexColorIdxs.get (idx);
+         if (cidx != null) {
+            return cidx;
+         }
+      }
+      return 0;
+   }
+
+   @Override
+   protected void setVertexColorIndex (int idx, int cidx) {
+      if (cidx == 0) {
+         if (myVertexColorIdxs != null) {
+            myVertexColorIdxs.remove (idx);
+         }
+      }
+      else {
+         if (myVertexColorIdxs == null) {
+            myVertexColorIdxs = new HashMap<Integer,Integer>();
+         }
+         myVertexColorIdxs.put (idx, cidx);
+      }
+   }
+
+   /**
+    * {@inheritDoc} The surface is computed directly from the block storage,
+    * without creating a dense copy of the distances.
+    */
+   @Override
+   public PolygonalMesh createDistanceSurface (double val) {
+      MarchingTetrahedra marcher = new MarchingTetrahedra();
+      MarchingTetrahedra.GridValues values =
+         new MarchingTetrahedra.GridValues() {
+            public double getValue (int xi, int yj, int zk) {
+               return getVertexDistance (xi, yj, zk);
+            }
+         };
+      PolygonalMesh mesh = marcher.createMesh (
+         values, Vector3d.ZERO, new Vector3d(1,1,1), getResolution(), val);
+      mesh.transform (myGridToLocal);
+      return mesh;
+   }
+
+   /**
+    * {@inheritDoc} The distances are clamped to the band distance, and are
+    * stored one layer of blocks at a time, so that a dense copy of the
+    * distances is never required.
+    */
+   @Override
+   protected void scanDistances (ReaderTokenizer rtok) throws IOException {
+      BlockBuilder builder = new BlockBuilder (computeBandDistance());
+      double[] layer = new double[BLOCK_SIZE*myNxNy];
+      int numv = numVertices();
+      int k = 0;
+      while (rtok.nextToken() != ']') {
+         rtok.pushBack();
+         if (k == numv) {
+            throw new IOException (
+               "More than "+numv+" distances specified, line "+rtok.lineno());
+         }
+         layer[k%layer.length] = rtok.scanNumber();
+         k++;
+         if (k%layer.length == 0 || k == numv) {
+            builder.addLayer ((k-1)/layer.length, layer, null, 0);
+         }
+      }
+      if (k < numv) {
+         throw new IOException (
+            "Only "+k+" of "+numv+" distances specified, line "+rtok.lineno());
+      }
+      builder.install();
+      clearFeatures();
+   }
+
+   @Override
+   protected boolean scanItem (ReaderTokenizer rtok, Object ref)
+      throws IOException {
+      if (rtok.sval.equals ("bandWidth")) {
+         rtok.scanToken ('=');
+         setBandWidth (rtok.scanInteger());
+         return true;
+      }
+      return false;
+   }
+
+   @Override
+   protected void writeItems (PrintWriter pw, NumberFormat fmt, Object ref)
+      throws IOException {
+      pw.println ("bandWidth=" + myBandWidth);
+   }
+}
@@ -0,0 +1,368 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.awt.Color;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Test program for SparseDistanceGrid.
+ */
+public class SparseDistanceGridTest extends UnitTest {
+
+   /**
+    * Checks that distances within the band equal the true nearest distances
+    * to the mesh, and that all others are clamped to the band distance.
+    */
+   private void checkVertexDistances (
+      SparseDistanceGrid grid, PolygonalMesh mesh) {
+
+      BVFeatureQuery query = new BVFeatureQuery();
+      double band = grid.getBandDistance();
+      double tol = 1e-12*grid.getRadius();
+      Vector3i vxyz = new Vector3i();
+      Point3d pnt = new Point3d();
+      Point3d near = new Point3d();
+      int numInBand = 0;
+      for (int vi=0; vi<grid.numVertices(); vi++) {
+         grid.vertexToXyzIndices (vxyz, vi);
+         grid.getLocalVertexCoords (pnt, vxyz);
+         query.nearestFaceToPoint (near, null, mesh, pnt);
+         double dist = near.distance (pnt);
+         double d = grid.getVertexDistance (vxyz);
+         if (dist < band) {
+            numInBand++;
+            if (Math.abs (d-dist) > tol) {
+               throw new TestException (
+                  "distance at vertex "+vxyz+" is "+d+", expected "+dist);
+            }
+         }
+         else if (d != band) {
+            throw new TestException (
+               "distance at vertex "+vxyz+" is "+d+", expected band distance "+
+               band);
+         }
+      }
+      if (numInBand == 0) {
+         throw new TestException ("no vertices within band");
+      }
+   }
+
+   /**
+    * Checks that queries on the sparse grid match those on a dense grid
+    * with the same geometry and vertex distances.
+    */
+   private void checkQueries (SparseDistanceGrid grid) {
+      Vector3d widths = grid.getWidths();
+      RigidTransform3d TCL = new RigidTransform3d();
+      grid.getCenter (TCL.p);
+      grid.getOrientation (TCL.R);
+      DistanceGrid dense =
+         new DistanceGrid (widths, grid.getResolution(), TCL);
+      dense.setDistances (grid.getDistances(), /*signed=*/false);
+
+      // grid geometry may differ from the dense grid by round-off
+      double tol = 1e-10*grid.getRadius();
+      Vector3d nrm = new Vector3d();
+      Vector3d chk = new Vector3d();
+      for (int i=0; i<1000; i++) {
+         Point3d q = new Point3d (
+            RandomGenerator.nextDouble (-0.5, 0.5)*widths.x,
+            RandomGenerator.nextDouble (-0.5, 0.5)*widths.y,
+            RandomGenerator.nextDouble (-0.5, 0.5)*widths.z);
+         q.transform (TCL);
+         double d = grid.getLocalDistanceAndNormal (nrm, q);
+         double dchk = dense.getLocalDistanceAndNormal (chk, q);
+         checkEquals ("getLocalDistanceAndNormal, distance", d, dchk, tol);
+         checkEquals ("getLocalDistanceAndNormal, normal", nrm, chk, 1e-10);
+         d = grid.getLocalDistanceAndGradient (nrm, q);
+         dchk = dense.getLocalDistanceAndGradient (chk, q);
+         checkEquals ("getLocalDistanceAndGradient, distance", d, dchk, tol);
+         checkEquals ("getLocalDistanceAndGradient, gradient", nrm, chk, 1e-8);
+         d = grid.getQuadDistance (q);
+         dchk = dense.getQuadDistance (q);
+         checkEquals ("getQuadDistance", d, dchk, tol);
+      }
+   }
+
+   /**
+    * Checks that nearest features are found for points near the mesh.
+    */
+   private void checkNearestFeatures (
+      SparseDistanceGrid grid, PolygonalMesh mesh) {
+
+      BVFeatureQuery query = new BVFeatureQuery();
+      Vector3d cwidths = grid.getCellWidths();
+      Point3d near = new Point3d();
+      Point3d chk = new Point3d();
+      for (int i=0; i<100; i++) {
+         // random point on the mesh surface, perturbed by half a cell
+         Vertex3d vtx = mesh.getVertex (
+            RandomGenerator.nextInt (0, mesh.numVertices()-1));
+         Point3d q = new Point3d();
+         q.setRandom();
+         q.scale (cwidths.minElement());
+         q.add (vtx.pnt);
+         Feature feat = grid.getNearestLocalFeature (near, q);
+         if (feat == null) {
+            throw new TestException ("no nearest feature found for "+q);
+         }
+         query.nearestFaceToPoint (chk, null, mesh, q);
+         if (near.distance(q) > chk.distance(q) + cwidths.norm()) {
+            throw new TestException (
+               "nearest feature too far from "+q+": distance="+
+               near.distance(q)+", expected "+chk.distance(q));
+         }
+      }
+   }
+
+   public void testTorus() {
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      RigidTransform3d TML = new RigidTransform3d();
+      TML.setRandom();
+      torus.transform (TML);
+
+      SparseDistanceGrid grid = new SparseDistanceGrid (
+         torus.getFaces(), 0.1, new Vector3i (40, 40, 20), /*signed=*/false);
+      checkVertexDistances (grid, torus);
+      checkQueries (grid);
+      checkNearestFeatures (grid, torus);
+
+      // finer OBB grid with a wider band
+      grid = new SparseDistanceGrid (new Vector3i (1, 1, 1));
+      grid.setBandWidth (4);
+      grid.computeFromFeaturesOBB (
+         torus.getFaces(), 0.1, /*maxRes=*/96, /*signed=*/false);
+      checkVertexDistances (grid, torus);
+      if (grid.numAllocatedBlocks() >= grid.numBlocks()) {
+         throw new TestException ("all blocks allocated for sparse grid");
+      }
+   }
+
+   /**
+    * Checks that every vertex distance of a sparse grid equals the
+    * corresponding distance of a dense grid, clamped to the band distance.
+    */
+   private void checkClampedDistances (
+      SparseDistanceGrid grid, DistanceGrid dense, double tol) {
+      double band = grid.getBandDistance();
+      Vector3i vxyz = new Vector3i();
+      for (int vi=0; vi<grid.numVertices(); vi++) {
+         grid.vertexToXyzIndices (vxyz, vi);
+         double d = grid.getVertexDistance (vxyz);
+         double dchk = Math.max (
+            -band, Math.min (band, dense.getVertexDistance (vxyz)));
+         if (Math.abs (d-dchk) > tol) {
+            throw new TestException (
+               "distance at vertex "+vxyz+" is "+d+", expected "+dchk);
+         }
+      }
+   }
+
+   private DistanceGrid createDenseGrid (SparseDistanceGrid grid) {
+      RigidTransform3d TCL = new RigidTransform3d();
+      grid.getCenter (TCL.p);
+      grid.getOrientation (TCL.R);
+      DistanceGrid dense =
+         new DistanceGrid (grid.getWidths(), grid.getResolution(), TCL);
+      dense.setDistances (grid.getDistances(), /*signed=*/false);
+      return dense;
+   }
+
+   public void testSetAndSmooth() {
+      PolygonalMesh box = MeshFactory.createBox (1.0, 1.0, 1.0);
+      SparseDistanceGrid grid = new SparseDistanceGrid (
+         box.getFaces(), 0.5, new Vector3i (32, 32, 32), /*signed=*/false);
+      double tol = 1e-12*grid.getRadius();
+      int numAllocated = grid.numAllocatedBlocks();
+      DistanceGrid dense = createDenseGrid (grid);
+
+      // setting the same distances should reproduce the grid, without
+      // allocating more blocks
+      grid.setDistances (dense.getDistances(), /*signed=*/false);
+      checkClampedDistances (grid, dense, 0);
+      if (grid.numAllocatedBlocks() > numAllocated) {
+         throw new TestException (
+            "setDistances allocated "+grid.numAllocatedBlocks()+
+            " blocks, expected at most "+numAllocated);
+      }
+      if (grid.numAllocatedBlocks() >= grid.numBlocks()) {
+         throw new TestException ("all blocks allocated by setDistances");
+      }
+
+      // smoothing should match the dense grid, clamped to the band
+      grid.smooth();
+      dense.smooth();
+      checkClampedDistances (grid, dense, tol);
+      dense.setDistances (grid.getDistances(), /*signed=*/false);
+
+      // nearest features are retained for vertices within allocated blocks
+      int numv = grid.numVertices();
+      int[] featIdxs = new int[numv];
+      for (int vi=0; vi<numv; vi++) {
+         featIdxs[vi] = vi%box.numFaces();
+      }
+      grid.setDistancesAndFeatures (
+         dense.getDistances(), box.getFaces(), featIdxs, /*signed=*/false);
+      checkClampedDistances (grid, dense, 0);
+      Vector3i vxyz = new Vector3i();
+      int numFound = 0;
+      for (int vi=0; vi<numv; vi++) {
+         Feature feat = grid.getClosestFeature (vi);
+         if (feat != null) {
+            if (feat != box.getFace (featIdxs[vi])) {
+               grid.vertexToXyzIndices (vxyz, vi);
+               throw new TestException (
+                  "wrong closest feature at vertex "+vxyz);
+            }
+            numFound++;
+         }
+      }
+      if (numFound == 0) {
+         throw new TestException ("no closest features found");
+      }
+
+      grid.zeroDistances();
+      if (grid.numAllocatedBlocks() != grid.numBlocks()) {
+         throw new TestException ("zeroDistances did not allocate all blocks");
+      }
+      for (int vi=0; vi<numv; vi++) {
+         if (grid.getVertexDistance (vi) != 0) {
+            throw new TestException ("non-zero distance at vertex "+vi);
+         }
+      }
+   }
+
+   public void testVertexColors() {
+      PolygonalMesh box = MeshFactory.createBox (1.0, 1.0, 1.0);
+      SparseDistanceGrid grid = new SparseDistanceGrid (
+         box.getFaces(), 0.1, new Vector3i (8, 8, 8), /*signed=*/false);
+      if (grid.getVertexColor (3) != null) {
+         throw new TestException ("vertex color set without a color map");
+      }
+      grid.setVertexColor (3, Color.RED);
+      grid.setVertexColor (5, Color.BLUE);
+      grid.setVertexColor (5, Color.GREEN);
+      checkEquals ("vertex color 3", grid.getVertexColor (3), Color.RED);
+      checkEquals ("vertex color 5", grid.getVertexColor (5), Color.GREEN);
+      checkEquals (
+         "vertex color 4", grid.getVertexColor (4),
+         grid.getDefaultVertexColor());
+      grid.clearColors();
+      if (grid.getVertexColor (3) != null) {
+         throw new TestException ("vertex color set after clearColors");
+      }
+   }
+
+   public void testBooleanOps() {
+      PolygonalMesh box0 = MeshFactory.createBox (1.0, 1.0, 1.0);
+      PolygonalMesh box1 = MeshFactory.createBox (1.0, 1.0, 1.0);
+      box1.transform (new RigidTransform3d (0.4, 0.3, 0.2, 0.1, 0.2, 0.3));
+      Vector3i res = new Vector3i (24, 24, 24);
+      SparseDistanceGrid grid1 =
+         new SparseDistanceGrid (box0.getFaces(), 0.6, res, /*signed=*/true);
+      grid1.computeDistances (box1.getFaces(), /*signed=*/true);
+      for (int op=0; op<4; op++) {
+         SparseDistanceGrid grid = 
+            new SparseDistanceGrid (box0.getFaces(), 0.6, res, /*signed=*/true);
+         SparseDistanceGrid grid0 = 
+            new SparseDistanceGrid (box0.getFaces(), 0.6, res, /*signed=*/true);
+         switch (op) {
+            case 0: grid.computeUnion (box1.getFaces()); break;
+            case 1: grid.computeIntersection (box1.getFaces()); break;
+            case 2: grid.computeDifference01 (box1.getFaces()); break;
+            default: grid.computeDifference10 (box1.getFaces()); break;
+         }
+         for (int vi=0; vi<grid.numVertices(); vi++) {
+            double d0 = grid0.getVertexDistance (vi);
+            double d1 = grid1.getVertexDistance (vi);
+            double dchk;
+            switch (op) {
+               case 0: dchk = Math.min (d0, d1); break;
+               case 1: dchk = Math.max (d0, d1); break;
+               case 2: dchk = Math.max (d0, -d1); break;
+               default: dchk = Math.max (-d0, d1); break;
+            }
+            if (grid.getVertexDistance (vi) != dchk) {
+               throw new TestException (
+                  "boolean op "+op+": distance at vertex "+vi+" is "+
+                  grid.getVertexDistance (vi)+", expected "+dchk);
+            }
+         }
+         if (!grid.isSigned() || grid.getFeatures() != null) {
+            throw new TestException (
+               "boolean op "+op+": grid should be signed without features");
+         }
+      }
+   }
+
+   public void testScanWrite() {
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      SparseDistanceGrid grid = new SparseDistanceGrid (
+         torus.getFaces(), 0.1, new Vector3i (30, 30, 14), 4,
+         /*signed=*/false);
+      StringWriter sw = new StringWriter();
+      IndentingPrintWriter pw = new IndentingPrintWriter (sw);
+      SparseDistanceGrid newGrid = new SparseDistanceGrid (new Vector3i (2,2,2));
+      try {
+         grid.write (pw, new NumberFormat ("%.17g"), null);
+         pw.flush();
+         newGrid.scan (
+            new ReaderTokenizer (new StringReader (sw.toString())), null);
+      }
+      catch (Exception e) {
+         e.printStackTrace(); 
+         throw new TestException ("exception during write/scan test");
+      }
+      if (!grid.epsilonEquals (newGrid, 0)) {
+         throw new TestException ("write/scan test failed");
+      }
+      checkEquals ("band width", newGrid.getBandWidth(), 4);
+      checkEquals (
+         "band distance", newGrid.getBandDistance(), grid.getBandDistance());
+      checkEquals (
+         "allocated blocks",
+         newGrid.numAllocatedBlocks(), grid.numAllocatedBlocks());
+   }
+
+   public void testDistanceSurface() {
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      SparseDistanceGrid grid = new SparseDistanceGrid (
+         torus.getFaces(), 0.1, new Vector3i (30, 30, 14), /*signed=*/false);
+      DistanceGrid dense = createDenseGrid (grid);
+      double iso = 0.5*grid.getBandDistance();
+      PolygonalMesh mesh = grid.createDistanceSurface (iso);
+      PolygonalMesh chk = dense.createDistanceSurface (iso);
+      checkEquals ("number of vertices", mesh.numVertices(), chk.numVertices());
+      checkEquals ("number of faces", mesh.numFaces(), chk.numFaces());
+      double tol = 1e-12*grid.getRadius();
+      for (int i=0; i<mesh.numVertices(); i++) {
+         checkEquals (
+            "surface vertex "+i, mesh.getVertex(i).pnt, chk.getVertex(i).pnt,
+            tol);
+      }
+   }
+
+   public void test() {
+      testTorus();
+      testSetAndSmooth();
+      testVertexColors();
+      testBooleanOps();
+      testScanWrite();
+      testDistanceSurface();
+   }
+
+   public static void main (String[] args) {
+      SparseDistanceGridTest tester = new SparseDistanceGridTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
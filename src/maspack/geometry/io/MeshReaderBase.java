@@ -4,7 +4,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.MeshBase;
 import maspack.geometry.PolygonalMesh;
 
@@ -13,6 +17,18 @@ public abstract class MeshReaderBase implements MeshReader {
    protected InputStream myIstream;
    protected File myFile;
 
+   // minimum number of vertices or faces parsed by each thread
+   private static final int MIN_READ_CHUNK_SIZE = 10000;
+
+   /**
+    * Default number of threads used by readers that parse large binary
+    * files in parallel, which is the number of available processors.
+    */
+   public static final int DEFAULT_NUM_READ_THREADS =
+      ParallelLoop.getDefaultNumThreads();
+
+   protected int myNumReadThreads = DEFAULT_NUM_READ_THREADS;
+
    protected MeshReaderBase (InputStream is) {
       myIstream = is;
    }
@@ -22,6 +38,63 @@ public abstract class MeshReaderBase implements MeshReader {
       myFile = file;
    }
 
+   /**
+    * Returns the number of threads used by this reader to parse large
+    * binary files in parallel.
+    *
+    * @return number of read threads
+    */
+   public int getNumReadThreads() {
+      return myNumReadThreads;
+   }
+
+   /**
+    * Sets the number of threads used by this reader to parse large binary
+    * files in parallel. The default value is given by {@link
+    * #DEFAULT_NUM_READ_THREADS}. Values less than 1 are clipped to 1.
+    *
+    * @param num number of read threads
+    */
+   public void setNumReadThreads (int num) {
+      myNumReadThreads = Math.max (1, num);
+   }
+
+   /**
+    * Creates a loop for parsing vertices and faces in parallel. Each read
+    * uses its own loop, which should be disposed of when the read is done.
+    *
+    * @param numThreads number of threads used by the loop
+    * @return loop for parsing vertices and faces
+    */
+   protected static ParallelLoop createReadLoop (int numThreads) {
+      ParallelLoop loop = new ParallelLoop ("meshReader", numThreads);
+      loop.setMinChunkSize (MIN_READ_CHUNK_SIZE);
+      return loop;
+   }
+
+   /**
+    * Maps the file being read into memory, if this reader was created from a
+    * file. The returned buffer is read-only and has big-endian byte order.
+    *
+    * @return buffer containing the file, or <code>null</code> if this
+    * reader was not created from a file or the file is too large to map
+    * into a single buffer
+    */
+   protected ByteBuffer mapFile() throws IOException {
+      if (myFile == null || myFile.length() > Integer.MAX_VALUE) {
+         return null;
+      }
+      RandomAccessFile raf = new RandomAccessFile (myFile, "r");
+      try {
+         FileChannel channel = raf.getChannel();
+         return channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      finally {
+         // mapping remains valid after the channel is closed
+         raf.close();
+      }
+   }
+
    private void closeQuietly(InputStream in) {
       if (in != null) {
          try {
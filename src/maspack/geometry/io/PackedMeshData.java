@@ -0,0 +1,170 @@
+package maspack.geometry.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import maspack.geometry.MeshBase;
+import maspack.geometry.PointMesh;
+import maspack.geometry.PolygonalMesh;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+
+/**
+ * Vertex, normal and face data for a mesh, stored in packed primitive
+ * arrays. Readers that parse large files fill in one of these (possibly in
+ * parallel) and then use it to set the contents of a mesh, which avoids
+ * creating intermediate point and index objects.
+ *
+ * <p>Vertex coordinates and normals are stored as consecutive (x, y, z)
+ * triples. The vertex indices of face <code>i</code> are stored in
+ * <code>faceIndices</code> between <code>faceOffsets[i]</code> (inclusive)
+ * and <code>faceOffsets[i+1]</code> (exclusive).
+ */
+class PackedMeshData {
+
+   double[] myCoords;
+   double[] myNormals;
+   int[] myFaceOffsets;
+   int[] myFaceIndices;
+
+   /**
+    * Creates a new PackedMeshData.
+    *
+    * @param coords vertex coordinates
+    * @param normals normal components, or <code>null</code> if there are no
+    * normals
+    * @param faceOffsets offsets of each face into <code>faceIndices</code>,
+    * with one extra entry giving the total number of indices
+    * @param faceIndices vertex indices for all faces
+    */
+   PackedMeshData (
+      double[] coords, double[] normals, int[] faceOffsets, int[] faceIndices) {
+      myCoords = coords;
+      myNormals = normals;
+      myFaceOffsets = faceOffsets;
+      myFaceIndices = faceIndices;
+   }
+
+   /**
+    * Creates a PackedMeshData from lists of points, normals and face
+    * indices.
+    */
+   static PackedMeshData create (
+      List<Point3d> pnts, List<Vector3d> nrmls, List<int[]> faces) {
+
+      double[] coords = new double[3*pnts.size()];
+      for (int i=0; i<pnts.size(); i++) {
+         Point3d pnt = pnts.get(i);
+         coords[3*i  ] = pnt.x;
+         coords[3*i+1] = pnt.y;
+         coords[3*i+2] = pnt.z;
+      }
+      double[] normals = null;
+      if (nrmls != null && nrmls.size() > 0) {
+         normals = new double[3*nrmls.size()];
+         for (int i=0; i<nrmls.size(); i++) {
+            Vector3d nrm = nrmls.get(i);
+            normals[3*i  ] = nrm.x;
+            normals[3*i+1] = nrm.y;
+            normals[3*i+2] = nrm.z;
+         }
+      }
+      int[] offsets = new int[faces.size()+1];
+      for (int i=0; i<faces.size(); i++) {
+         offsets[i+1] = offsets[i] + faces.get(i).length;
+      }
+      int[] indices = new int[offsets[faces.size()]];
+      for (int i=0; i<faces.size(); i++) {
+         int[] idxs = faces.get(i);
+         System.arraycopy (idxs, 0, indices, offsets[i], idxs.length);
+      }
+      return new PackedMeshData (coords, normals, offsets, indices);
+   }
+
+   int numVertices() {
+      return myCoords.length/3;
+   }
+
+   int numNormals() {
+      return myNormals != null ? myNormals.length/3 : 0;
+   }
+
+   int numFaces() {
+      return myFaceOffsets.length-1;
+   }
+
+   private Point3d[] getPoints() {
+      Point3d[] pnts = new Point3d[numVertices()];
+      for (int i=0; i<pnts.length; i++) {
+         pnts[i] = new Point3d (myCoords[3*i], myCoords[3*i+1], myCoords[3*i+2]);
+      }
+      return pnts;
+   }
+
+   private ArrayList<Vector3d> getNormals() {
+      ArrayList<Vector3d> nrmls = new ArrayList<Vector3d>(numNormals());
+      for (int i=0; i<numNormals(); i++) {
+         nrmls.add (
+            new Vector3d (myNormals[3*i], myNormals[3*i+1], myNormals[3*i+2]));
+      }
+      return nrmls;
+   }
+
+   /**
+    * Sets a polygonal mesh to contain the vertices and faces described by
+    * this data, building its half-edge structure in bulk. If normals are
+    * present, it is assumed that there is one normal per vertex, and so the
+    * normal indices are set to the face vertex indices.
+    *
+    * @param mesh mesh to set, or <code>null</code> if a new mesh should be
+    * created
+    * @return mesh that was set
+    * @throws IllegalArgumentException if a face vertex index is out of bounds
+    */
+   PolygonalMesh setMesh (PolygonalMesh mesh) {
+      if (mesh == null) {
+         mesh = new PolygonalMesh();
+      }
+      mesh.set (myCoords, myFaceIndices, myFaceOffsets);
+      if (myNormals != null) {
+         int[] normalIndices = new int[myFaceOffsets[numFaces()]];
+         System.arraycopy (
+            myFaceIndices, 0, normalIndices, 0, normalIndices.length);
+         mesh.setNormals (getNormals(), normalIndices);
+         mesh.setHardEdgesFromNormals();
+      }
+      return mesh;
+   }
+
+   /**
+    * Sets a point mesh to contain the vertices and normals described by this
+    * data. Faces are ignored.
+    *
+    * @param mesh mesh to set
+    * @return mesh that was set
+    */
+   PointMesh setMesh (PointMesh mesh) {
+      mesh.set (getPoints(), getNormals().toArray (new Vector3d[0]));
+      return mesh;
+   }
+
+   /**
+    * Sets a polygonal or point mesh to contain this data.
+    *
+    * @param mesh mesh to set
+    * @return mesh that was set
+    * @throws UnsupportedOperationException if the mesh type is not supported
+    */
+   MeshBase setMesh (MeshBase mesh) {
+      if (mesh instanceof PolygonalMesh) {
+         return setMesh ((PolygonalMesh)mesh);
+      }
+      else if (mesh instanceof PointMesh) {
+         return setMesh ((PointMesh)mesh);
+      }
+      else {
+         throw new UnsupportedOperationException (
+            "Mesh type "+mesh.getClass()+" not supported by this reader");
+      }
+   }
+}
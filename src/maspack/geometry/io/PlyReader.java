@@ -8,8 +8,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.MeshBase;
 import maspack.geometry.PointMesh;
 import maspack.geometry.PolygonalMesh;
@@ -24,7 +27,9 @@ import maspack.util.InternalErrorException;
 import maspack.util.ReaderTokenizer;
 
 /**
- * Reads a PolygonalMesh from an ascii or binary PLY format
+ * Reads a PolygonalMesh from an ascii or binary PLY format. Binary files
+ * are memory mapped when the reader is created from a file, with vertices and
+ * faces parsed in parallel into packed arrays.
  * @author John Lloyd, Jan 2014
  *
  */
@@ -282,6 +287,7 @@ public class PlyReader extends MeshReaderBase {
    private String myLine = null;
    private boolean myLinePushed = false;
    private int myLineNum = 0;
+   private long myHeaderSize = 0; // number of bytes read for the header
 
    private void readLine (DataInputStream is) throws IOException {
       if (myLinePushed) {
@@ -294,6 +300,7 @@ public class PlyReader extends MeshReaderBase {
             StringBuffer sb = new StringBuffer();
             int c = -1;
             while ((c = is.read()) >= 0) {
+               myHeaderSize++;
                if ((char)c == '\r') {
                   // discard
                   continue;
@@ -511,6 +518,7 @@ public class PlyReader extends MeshReaderBase {
    private void parseHeader (DataInputStream is) throws IOException {
       
       myFloatType = null;
+      myHeaderSize = 0;
       readLine (is);
       if (!myLine.equals ("ply")) {
          throw new IOException (
@@ -705,6 +713,199 @@ public class PlyReader extends MeshReaderBase {
       }
    }
 
+   private static int sizeOf (DataType type) {
+      switch (type) {
+         case CHAR:
+         case UCHAR:
+            return 1;
+         case SHORT:
+         case USHORT:
+            return 2;
+         case DOUBLE:
+            return 8;
+         default:
+            return 4;
+      }
+   }
+
+   private static int numValues (PropertyType ptype) {
+      switch (ptype) {
+         case VERTEX:
+         case NORMAL:
+         case COLOR:
+            return 3;
+         case UV:
+            return 2;
+         default:
+            return 1;
+      }
+   }
+
+   private static double getNumber (ByteBuffer bb, int pos, DataType type) {
+      switch (type) {
+         case CHAR:
+            return bb.get (pos);
+         case UCHAR:
+            return bb.get (pos) & 0xFF;
+         case SHORT:
+            return bb.getShort (pos);
+         case USHORT:
+            return bb.getShort (pos) & 0xFFFF;
+         case INT:
+            return bb.getInt (pos);
+         case UINT:
+            return bb.getInt (pos) & 0xFFFFFFFFL;
+         case FLOAT:
+            return bb.getFloat (pos);
+         case DOUBLE:
+            return bb.getDouble (pos);
+         default: {
+            throw new IllegalArgumentException (
+               "Unimplemented data type '"+type+"'");
+         }
+      }
+   }
+
+   private static int getInt (ByteBuffer bb, int pos, DataType type) {
+      if (type == DataType.UINT) {
+         return bb.getInt (pos);
+      }
+      else {
+         return (int)getNumber (bb, pos, type);
+      }
+   }
+
+   /**
+    * Reads the vertex and face data of a binary file directly from a buffer
+    * containing the whole file. Vertices are parsed in parallel. The faces
+    * are first scanned sequentially to find their sizes, after which their
+    * indices are parsed in parallel.
+    *
+    * @param buf buffer containing the file
+    * @return packed mesh data, or <code>null</code> if the file has an
+    * unusual layout which should be read using the stream reader
+    */
+   private PackedMeshData readBinaryData (ByteBuffer buf) throws IOException {
+
+      final ByteOrder order =
+         (myDataFormat == DataFormat.BINARY_LITTLE_ENDIAN ?
+          ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+      final ByteBuffer bb = buf.duplicate();
+      bb.order (order);
+
+      // find the size of each vertex record and the location of the
+      // vertex and normal values within it
+      int vtxOff = -1;
+      int nrmOff = -1;
+      DataType vtxType = null;
+      DataType nrmType = null;
+      int recSize = 0;
+      for (Property prop : myVertProps) {
+         if (prop.myPropType == PropertyType.VERTEX && vtxOff == -1) {
+            vtxOff = recSize;
+            vtxType = prop.myDataType;
+         }
+         else if (prop.myPropType == PropertyType.NORMAL && nrmOff == -1) {
+            nrmOff = recSize;
+            nrmType = prop.myDataType;
+         }
+         recSize += numValues(prop.myPropType)*sizeOf(prop.myDataType);
+      }
+      if (vtxOff == -1) {
+         return null;
+      }
+      final long vtxStart = myHeaderSize;
+      final long faceStart = vtxStart + (long)myNumVerts*recSize;
+      if (faceStart > bb.capacity()) {
+         throw new EOFException (
+            "PLY file too short for "+myNumVerts+" vertices");
+      }
+
+      final double[] coords = new double[3*myNumVerts];
+      final double[] normals = (nrmOff != -1 ? new double[3*myNumVerts] : null);
+      final int vsize = recSize;
+      final int voff = vtxOff;
+      final int noff = nrmOff;
+      final DataType vtype = vtxType;
+      final DataType ntype = nrmType;
+      ParallelLoop loop = createReadLoop (myNumReadThreads);
+      try {
+         loop.forRange (0, myNumVerts, new ParallelLoop.Body() {
+               public void run (int thread, int start, int end) {
+                  ByteBuffer tbb = bb.duplicate();
+                  tbb.order (order);
+                  int vs = sizeOf (vtype);
+                  int ns = (ntype != null ? sizeOf (ntype) : 0);
+                  for (int i=start; i<end; i++) {
+                     int pos = (int)vtxStart + i*vsize;
+                     for (int j=0; j<3; j++) {
+                        coords[3*i+j] = getNumber (tbb, pos+voff+j*vs, vtype);
+                     }
+                     if (normals != null) {
+                        for (int j=0; j<3; j++) {
+                           normals[3*i+j] = getNumber (tbb, pos+noff+j*ns, ntype);
+                        }
+                     }
+                  }
+               }
+            });
+
+         int numFaces = (myFaceVertexIndices != null ? myNumFaces : 0);
+         final int[] faceOffsets = new int[numFaces+1];
+         int[] faceIndices;
+         if (numFaces > 0) {
+            final DataType stype = myFaceVertexIndices.getSizeType();
+            final DataType itype = myFaceVertexIndices.getValueType();
+            if (stype == DataType.FLOAT || stype == DataType.DOUBLE) {
+               return null;
+            }
+            final int ssize = sizeOf (stype);
+            final int isize = sizeOf (itype);
+            long pos = faceStart;
+            for (int i=0; i<numFaces; i++) {
+               if (pos + ssize > bb.capacity()) {
+                  throw new EOFException (
+                     "PLY file too short for "+numFaces+" faces");
+               }
+               int n = getInt (bb, (int)pos, stype);
+               if (n < 0) {
+                  throw new IOException (
+                     "Negative vertex count "+n+" for face "+i);
+               }
+               pos += ssize + (long)n*isize;
+               if (pos > bb.capacity()) {
+                  throw new EOFException (
+                     "PLY file too short for "+numFaces+" faces");
+               }
+               faceOffsets[i+1] = faceOffsets[i] + n;
+            }
+            final int[] indices = new int[faceOffsets[numFaces]];
+            loop.forRange (0, numFaces, new ParallelLoop.Body() {
+                  public void run (int thread, int start, int end) {
+                     ByteBuffer tbb = bb.duplicate();
+                     tbb.order (order);
+                     for (int i=start; i<end; i++) {
+                        int k = faceOffsets[i];
+                        int p = (int)faceStart + (i+1)*ssize + k*isize;
+                        for ( ; k<faceOffsets[i+1]; k++) {
+                           indices[k] = getInt (tbb, p, itype);
+                           p += isize;
+                        }
+                     }
+                  }
+               });
+            faceIndices = indices;
+         }
+         else {
+            faceIndices = new int[0];
+         }
+         return new PackedMeshData (coords, normals, faceOffsets, faceIndices);
+      }
+      finally {
+         loop.dispose();
+      }
+   }
+
    // public PolygonalMesh readMesh (PolygonalMesh mesh) throws IOException {
 
    //    DataInputStream is = new DataInputStream (myIstream);
@@ -804,6 +1005,29 @@ public class PlyReader extends MeshReaderBase {
       DataInputStream is = new DataInputStream (myIstream);
 
       parseHeader (is);
+      PackedMeshData data = null;
+      if (myDataFormat != DataFormat.ASCII) {
+         // read binary files directly from a memory mapped buffer
+         ByteBuffer buf = mapFile();
+         if (buf != null) {
+            data = readBinaryData (buf);
+         }
+      }
+      if (data == null) {
+         data = readStreamData();
+      }
+      if (mesh == null) {
+         if (myNumFaces == 0) {
+            mesh = new PointMesh();
+         }
+         else {
+            mesh = new PolygonalMesh();
+         }
+      }
+      return data.setMesh (mesh);
+   }
+
+   private PackedMeshData readStreamData() throws IOException {
       ArrayList<Point3d> verts = new ArrayList<Point3d>();
       ArrayList<Vector3d> nrmls = new ArrayList<Vector3d>();
       ArrayList<int[]> faces = new ArrayList<int[]>();
@@ -824,50 +1048,7 @@ public class PlyReader extends MeshReaderBase {
          readFaceInfo (bis, faces);
       }
 
-      if (mesh == null) {
-         if (myNumFaces == 0) {
-            mesh = new PointMesh();
-         }
-         else {
-            mesh = new PolygonalMesh();
-         }
-      }
-      
-      if (mesh instanceof PolygonalMesh) {
-         PolygonalMesh pmesh = (PolygonalMesh)mesh;
-         int icnt = 0;
-         for (Point3d pnt : verts) {
-            pmesh.addVertex (pnt);
-         }
-         for (int[] idxs : faces) {
-            pmesh.addFace (idxs);
-            icnt += idxs.length;
-         }
-         if (nrmls.size() > 0) {
-            // we have to assume here the there is one normal per vertex,
-            // and assign the normal indices accordingly]
-            int k = 0;
-            int[] normalIndices = new int[icnt];
-            for (int i=0; i<faces.size(); i++) {
-               int[] idxs = pmesh.getFaces().get(i).getVertexIndices();
-               for (int j=0; j<idxs.length; j++) {
-                  normalIndices[k++] = idxs[j];
-               }
-            }
-            pmesh.setNormals (nrmls, normalIndices);
-            pmesh.setHardEdgesFromNormals();
-         }
-      }
-      else if (mesh instanceof PointMesh) {
-         PointMesh pmesh = (PointMesh)mesh;
-         pmesh.set (
-            verts.toArray(new Point3d[0]), nrmls.toArray(new Vector3d[0]));
-      }
-      else {
-         throw new UnsupportedOperationException (
-            "Mesh type "+mesh.getClass()+" not supported by this reader");
-      }
-      return mesh;   
+      return PackedMeshData.create (verts, nrmls, faces);
    }
    
    public static MeshBase read (File file) throws IOException {
@@ -14,6 +14,9 @@ public class PlyReaderWriterTest extends UnitTest {
    
    private static double EPS = 1e-8;
 
+   // number of threads used by the readers created in the tests
+   int myNumReadThreads = PlyReader.DEFAULT_NUM_READ_THREADS;
+
    PolygonalMesh myBox =
       MeshFactory.createQuadBox (1, 2, 3, Point3d.ZERO, 1, 1, 1);
 
@@ -42,6 +45,7 @@ public class PlyReaderWriterTest extends UnitTest {
       //System.out.println (new String(os.toByteArray()));
       ByteArrayInputStream is = new ByteArrayInputStream (bytes);
       PlyReader reader = new PlyReader(is);
+      reader.setNumReadThreads (myNumReadThreads);
       MeshBase check = null;
       if (mesh instanceof PolygonalMesh) {
          check = reader.readMesh (new PolygonalMesh());
@@ -59,6 +63,28 @@ public class PlyReaderWriterTest extends UnitTest {
       if (!check.epsilonEquals (mesh, eps)) {
          throw new TestException ("Read mesh does not equal written mesh");
       }
+      if (dataFmt != DataFormat.ASCII) {
+         // binary files read from a file are memory mapped, and should give
+         // the same result as reading from a stream
+         File file = File.createTempFile ("plyReaderWriterTest", ".ply");
+         try {
+            FileOutputStream fos = new FileOutputStream (file);
+            fos.write (bytes);
+            fos.close();
+            reader = new PlyReader (file);
+            reader.setNumReadThreads (myNumReadThreads);
+            MeshBase mapped = reader.readMesh (
+               mesh instanceof PointMesh ? new PointMesh() : null);
+            reader.close();
+            if (!mapped.epsilonEquals (check, 0)) {
+               throw new TestException (
+                  "Mesh read from file does not equal mesh read from stream");
+            }
+         }
+         finally {
+            file.delete();
+         }
+      }
    }
 
    void test (MeshBase mesh, boolean writeNrms) throws IOException {
@@ -82,6 +108,17 @@ public class PlyReaderWriterTest extends UnitTest {
          // test (sphere, true);
          test (sphere, false);
 
+         // large enough for the binary reader to use several threads
+         myNumReadThreads = 4;
+         try {
+            PolygonalMesh large = MeshFactory.createSphere (1.0, 250);
+            test (large, DataFormat.BINARY_LITTLE_ENDIAN, DataType.FLOAT, false);
+            test (large, DataFormat.BINARY_BIG_ENDIAN, DataType.DOUBLE, false);
+         }
+         finally {
+            myNumReadThreads = PlyReader.DEFAULT_NUM_READ_THREADS;
+         }
+
          PointMesh pmesh = MeshFactory.createRandomPointMesh (10, 12.0);
          test (pmesh, false);
 
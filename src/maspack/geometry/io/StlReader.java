@@ -7,6 +7,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
@@ -17,6 +19,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import maspack.concurrency.ParallelLoop;
 //import maspack.geometry.KDTree3d;
 import maspack.geometry.PolygonalMesh;
 import maspack.geometry.MeshBase;
@@ -25,7 +28,10 @@ import maspack.matrix.Point3d;
 import maspack.util.ReaderTokenizer;
 
 /**
- * Reads from ascii STL format
+ * Reads from ascii or binary STL format. When the merge tolerance is no
+ * larger than the default, binary files are read into packed arrays, with
+ * facets parsed in parallel, and are memory mapped when the reader is
+ * created from a file.
  * @author Antonio
  *
  */
@@ -33,6 +39,15 @@ public class StlReader extends MeshReaderBase {
 
    public static double DEFAULT_TOLERANCE = 1e-15;
    double myTol = DEFAULT_TOLERANCE;
+
+   // For tolerances up to this value, binary files are read using packed
+   // arrays and vertices are merged only if their coordinates are equal.
+   // Since binary coordinates are floats, this differs from merging within
+   // the tolerance only for coordinates extremely close to zero.
+   private static final double EXACT_MERGE_TOLERANCE = 1e-15;
+
+   private static final int BINARY_HEADER_SIZE = 84;
+   private static final int FACET_SIZE = 50;
    
    public StlReader (InputStream is) throws IOException {
       super (is);
@@ -106,6 +121,23 @@ public class StlReader extends MeshReaderBase {
       if (_printDebug) {
          System.out.println("Num facets: "+ numFacets);
       }
+
+      if (tol <= EXACT_MERGE_TOLERANCE &&
+          FACET_SIZE*numFacets <= Integer.MAX_VALUE) {
+         byte[] bytes = new byte[FACET_SIZE*(int)numFacets];
+         try {
+            new DataInputStream(is).readFully (bytes);
+         }
+         catch (EOFException e) {
+            throw new IOException (
+               "Invalid STL file detected! (non-matching size)");
+         }
+         PackedMeshData data =
+            readBinaryFacets (
+               ByteBuffer.wrap (bytes), 0, (int)numFacets,
+               DEFAULT_NUM_READ_THREADS);
+         return data.setMesh (mesh);
+      }
       
       ArrayList<Point3d> nodeList = new ArrayList<Point3d>();
       ArrayList<ArrayList<Integer>> faceList = new ArrayList<ArrayList<Integer>>();
@@ -230,6 +262,138 @@ public class StlReader extends MeshReaderBase {
       
    }
    
+   /**
+    * Returns true if a buffer containing an entire STL file has the size
+    * expected for a binary STL file. This is more reliable than checking for
+    * an initial "solid", since some binary files also start with that.
+    */
+   private static boolean isBinary (ByteBuffer buf) {
+      if (buf.capacity() < BINARY_HEADER_SIZE) {
+         return false;
+      }
+      ByteBuffer bb = buf.duplicate();
+      bb.order (ByteOrder.LITTLE_ENDIAN);
+      long numFacets = bb.getInt (80) & 0xFFFFFFFFL;
+      return buf.capacity() == BINARY_HEADER_SIZE + FACET_SIZE*numFacets;
+   }
+
+   private static int hashCorner (float[] corners, int k) {
+      int h = Float.floatToIntBits (corners[k]);
+      h = 31*h + Float.floatToIntBits (corners[k+1]);
+      h = 31*h + Float.floatToIntBits (corners[k+2]);
+      // spread the bits, since the table index uses only the low bits
+      h ^= (h >>> 16);
+      h *= 0x85ebca6b;
+      h ^= (h >>> 13);
+      return h;
+   }
+
+   private static boolean cornersEqual (float[] corners, int k0, int k1) {
+      return (corners[k0  ] == corners[k1  ] &&
+              corners[k0+1] == corners[k1+1] &&
+              corners[k0+2] == corners[k1+2]);
+   }
+
+   /**
+    * Reads the facets of a binary STL file into packed mesh data. The facet
+    * corners are parsed in parallel, and then merged into vertices using an
+    * open addressing hash table keyed on their coordinates, so that
+    * vertices are merged only if their coordinates are equal. Vertices are
+    * numbered in order of first occurrence.
+    *
+    * @param buf buffer containing the facets
+    * @param off offset of the first facet in the buffer
+    * @param numFacets number of facets
+    * @param numThreads number of threads used to parse the facets
+    * @return packed mesh data
+    */
+   static PackedMeshData readBinaryFacets (
+      ByteBuffer buf, int off, int numFacets, int numThreads) {
+      ParallelLoop loop = createReadLoop (numThreads);
+      try {
+         return readBinaryFacets (buf, off, numFacets, loop);
+      }
+      finally {
+         loop.dispose();
+      }
+   }
+
+   private static PackedMeshData readBinaryFacets (
+      final ByteBuffer buf, final int off, int numFacets, ParallelLoop loop) {
+
+      final int ncorners = 3*numFacets;
+      final float[] corners = new float[3*ncorners];
+      final int[] hashes = new int[ncorners];
+      loop.forRange (0, numFacets, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               ByteBuffer bb = buf.duplicate();
+               bb.order (ByteOrder.LITTLE_ENDIAN);
+               for (int i=start; i<end; i++) {
+                  // skip normal, which is the first three floats
+                  int pos = off + FACET_SIZE*i + 12;
+                  for (int j=0; j<9; j++) {
+                     // adding 0 changes -0 to 0 so both hash the same
+                     corners[9*i+j] = bb.getFloat (pos+4*j) + 0.0f;
+                  }
+                  for (int j=0; j<3; j++) {
+                     hashes[3*i+j] = hashCorner (corners, 9*i+3*j);
+                  }
+               }
+            }
+         });
+
+      // merge the corners into vertices. This is done sequentially so that
+      // vertex numbering does not depend on the number of threads.
+      final int[] vtxCorners = new int[ncorners];
+      int[] faceIndices = new int[ncorners];
+      // table entries are vertex index + 1, with 0 denoting an empty slot
+      int[] table = new int[Integer.highestOneBit (Math.max (16, ncorners/2))];
+      int mask = table.length-1;
+      int numv = 0;
+      for (int c=0; c<ncorners; c++) {
+         int h = hashes[c] & mask;
+         int vidx;
+         while ((vidx = table[h]-1) >= 0 &&
+                !cornersEqual (corners, 3*vtxCorners[vidx], 3*c)) {
+            h = (h+1) & mask;
+         }
+         if (vidx < 0) {
+            vidx = numv++;
+            vtxCorners[vidx] = c;
+            table[h] = vidx+1;
+            if (2*numv > table.length) {
+               // grow the table to keep the load factor below 1/2
+               table = new int[2*table.length];
+               mask = table.length-1;
+               for (int i=0; i<numv; i++) {
+                  h = hashes[vtxCorners[i]] & mask;
+                  while (table[h] != 0) {
+                     h = (h+1) & mask;
+                  }
+                  table[h] = i+1;
+               }
+            }
+         }
+         faceIndices[c] = vidx;
+      }
+      final double[] coords = new double[3*numv];
+      loop.forRange (0, numv, new ParallelLoop.Body() {
+            public void run (int thread, int start, int end) {
+               for (int i=start; i<end; i++) {
+                  int k = 3*vtxCorners[i];
+                  coords[3*i  ] = corners[k  ];
+                  coords[3*i+1] = corners[k+1];
+                  coords[3*i+2] = corners[k+2];
+               }
+            }
+         });
+      int[] faceOffsets = new int[numFacets+1];
+      for (int i=0; i<=numFacets; i++) {
+         faceOffsets[i] = 3*i;
+      }
+      return new PackedMeshData (coords, null, faceOffsets, faceIndices);
+   }
+
    public static PolygonalMesh readASCII(PolygonalMesh mesh, Reader reader, double tol) throws IOException {
       ReaderTokenizer rtok = new ReaderTokenizer(reader);
       ArrayList<Point3d> nodeList = new ArrayList<Point3d>();
@@ -408,6 +572,17 @@ public class StlReader extends MeshReaderBase {
          mesh = new PolygonalMesh();
       }
       if (mesh instanceof PolygonalMesh) {
+         if (myTol <= EXACT_MERGE_TOLERANCE) {
+            // read binary files directly from a memory mapped buffer
+            ByteBuffer buf = mapFile();
+            if (buf != null && isBinary (buf)) {
+               int numFacets = (buf.capacity()-BINARY_HEADER_SIZE)/FACET_SIZE;
+               PackedMeshData data =
+                  readBinaryFacets (
+                     buf, BINARY_HEADER_SIZE, numFacets, myNumReadThreads);
+               return data.setMesh ((PolygonalMesh)mesh);
+            }
+         }
          return read((PolygonalMesh)mesh, new BufferedInputStream(myIstream), myTol);
       }
       else {
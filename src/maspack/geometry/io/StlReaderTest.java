@@ -0,0 +1,102 @@
+package maspack.geometry.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import maspack.util.*;
+import maspack.geometry.*;
+import maspack.matrix.*;
+
+/**
+ * Test for reading binary STL files, which checks that the packed array
+ * reader, used for both streams and memory mapped files, gives the same
+ * result as the spatial hash reader used for larger merge tolerances.
+ */
+public class StlReaderTest extends UnitTest {
+
+   public StlReaderTest() {
+   }
+
+   byte[] writeBinary (PolygonalMesh mesh, String header) {
+      ByteBuffer bb = ByteBuffer.allocate (84 + 50*mesh.numFaces());
+      bb.order (ByteOrder.LITTLE_ENDIAN);
+      byte[] hbytes = header.getBytes();
+      bb.put (hbytes, 0, Math.min (hbytes.length, 80));
+      bb.position (80);
+      bb.putInt (mesh.numFaces());
+      for (Face face : mesh.getFaces()) {
+         Vector3d nrm = face.getNormal();
+         bb.putFloat ((float)nrm.x);
+         bb.putFloat ((float)nrm.y);
+         bb.putFloat ((float)nrm.z);
+         for (int i=0; i<3; i++) {
+            Point3d pos = face.getVertex(i).getPosition();
+            bb.putFloat ((float)pos.x);
+            bb.putFloat ((float)pos.y);
+            bb.putFloat ((float)pos.z);
+         }
+         bb.putShort ((short)0);
+      }
+      return bb.array();
+   }
+
+   void checkEqual (PolygonalMesh mesh, PolygonalMesh check, String source) {
+      if (!mesh.epsilonEquals (check, 0)) {
+         throw new TestException (
+            "Mesh read from "+source+" does not equal reference mesh");
+      }
+   }
+
+   void test (PolygonalMesh mesh, String header, int numThreads)
+      throws IOException {
+
+      byte[] bytes = writeBinary (mesh, header);
+
+      // reference mesh, read using a tolerance large enough to use the
+      // spatial hash reader
+      PolygonalMesh check = StlReader.readBinary (
+         null, new ByteArrayInputStream (bytes), 1e-10);
+      if (check.numVertices() != mesh.numVertices() ||
+          check.numFaces() != mesh.numFaces()) {
+         throw new TestException (
+            "Reference mesh has "+check.numVertices()+" vertices and "+
+            check.numFaces()+" faces, expected "+mesh.numVertices()+
+            " and "+mesh.numFaces());
+      }
+      PolygonalMesh fromStream = StlReader.readBinary (
+         null, new ByteArrayInputStream (bytes), StlReader.DEFAULT_TOLERANCE);
+      checkEqual (fromStream, check, "stream");
+
+      File file = File.createTempFile ("stlReaderTest", ".stl");
+      try {
+         FileOutputStream fos = new FileOutputStream (file);
+         fos.write (bytes);
+         fos.close();
+         StlReader reader = new StlReader (file);
+         reader.setNumReadThreads (numThreads);
+         PolygonalMesh fromFile = reader.readMesh();
+         reader.close();
+         checkEqual (fromFile, check, "file");
+      }
+      finally {
+         file.delete();
+      }
+   }
+
+   public void test() throws IOException {
+      PolygonalMesh box =
+         MeshFactory.createBox (1, 2, 3, Point3d.ZERO, 1, 1, 1);
+      test (box, "box", 1);
+      // binary files starting with 'solid' should be detected by their size
+      test (box, "solid box", 1);
+
+      // large enough for the reader to use several threads
+      test (MeshFactory.createSphere (1.0, 250), "sphere", 4);
+   }
+
+   public static void main (String[] args) {
+      StlReaderTest tester = new StlReaderTest();
+      tester.runtest();
+   }
+}
@@ -36,6 +36,8 @@ public class DicomImage {
    int timeOffsets[];
    int size;
    
+   DicomPixelVolume volume;  // packed slice pixels, if available
+   
    /**
     * Creates a new DICOM image, extracting common header information from the 
     * provided first slice.  The slice is also added to the image.
@@ -89,6 +91,7 @@ public class DicomImage {
       if (compatible(slice)) {
          maybeGrowCapacity(size+1);
          doAddSlice(slice);
+         volume = null; // slice order no longer matches the volume
          return true;
       } else {
          return false;
@@ -224,10 +227,86 @@ public class DicomImage {
    }
    
    /**
-    * Finalize DICOM image construction
+    * Finalize DICOM image construction, trimming the slice array and
+    * packing the slice pixels into a single volume if possible
     */
    public void complete() {
       trim();
+      packPixels();
+   }
+   
+   /**
+    * Packs the pixels of all slices into a single {@link DicomPixelVolume},
+    * stored contiguously off-heap in slice order.  If the slices already
+    * share one volume, as they do when read by {@link DicomReader}, it is
+    * reordered in place.  Otherwise, the pixels are copied into a new
+    * volume.  Packing is only possible for grayscale images.
+    * 
+    * @return true if the pixels were packed
+    */
+   public boolean packPixels() {
+      if (volume != null) {
+         return true;
+      }
+      if (size == 0 || !DicomPixelVolume.canStore(pixelType, rows*cols, size)) {
+         return false;
+      }
+      DicomPixelVolume vol = null;
+      boolean shared = true;
+      for (int i=0; i<size; i++) {
+         DicomPixelBuffer buff = slices[i].pixelBuff;
+         if (!DicomPixelVolume.canStore(buff) ||
+             buff.getPixelType() != pixelType ||
+             buff.getNumPixels() != rows*cols) {
+            return false;
+         }
+         if (buff instanceof VolumePixelBuffer) {
+            DicomPixelVolume v = ((VolumePixelBuffer)buff).getVolume();
+            if (vol == null) {
+               vol = v;
+            }
+            else if (v != vol) {
+               shared = false;
+            }
+         }
+         else {
+            shared = false;
+         }
+      }
+      if (shared && vol.numSlices() == size) {
+         int[] order = new int[size];
+         VolumePixelBuffer[] pixels = new VolumePixelBuffer[size];
+         for (int i=0; i<size; i++) {
+            VolumePixelBuffer buff = (VolumePixelBuffer)slices[i].pixelBuff;
+            order[i] = buff.slot;
+            pixels[buff.slot] = buff;
+         }
+         vol.reorder(order, pixels);
+         vol.trim();
+      }
+      else {
+         vol = new DicomPixelVolume(pixelType, rows*cols, size);
+         for (int i=0; i<size; i++) {
+            slices[i].pixelBuff =
+               vol.addSlice((DicomPixelBufferBase)slices[i].pixelBuff);
+         }
+      }
+      volume = vol;
+      return true;
+   }
+   
+   /**
+    * Returns the volume containing the pixels of all slices, with slice
+    * <code>i</code> of the volume corresponding to {@link #getSlice(int)
+    * getSlice(i)}.  The volume is available after the image is read by
+    * {@link DicomReader}, or after {@link #packPixels()} succeeds, and
+    * until another slice is added.
+    * 
+    * @return pixel volume, or <code>null</code> if the pixels are not
+    * packed
+    */
+   public DicomPixelVolume getPixelVolume() {
+      return volume;
    }
    
    /**
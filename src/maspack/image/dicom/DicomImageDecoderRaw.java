@@ -123,8 +123,8 @@ public class DicomImageDecoderRaw implements DicomImageDecoder {
          }
 
          // separate sequences into appropriate frames
-         int frameLength = nSamples*rows*cols;
-         out = new RGBPixelBuffer(3*frameLength);
+         int frameLength = rows*cols;
+         out = new RGBPixelBuffer(nSamples*frameLength);
          byte[] buff = (byte[])out.getBuffer();
          int idx = 0;
          byte[] rgb = new byte[3];
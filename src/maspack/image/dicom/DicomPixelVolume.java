@@ -0,0 +1,324 @@
+/**
+ * Copyright (c) 2015, by the Authors: Antonio Sanchez (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+
+package maspack.image.dicom;
+
+import java.nio.ByteBuffer;
+
+import maspack.image.dicom.DicomPixelBuffer.PixelType;
+import maspack.util.BufferUtilities;
+
+/**
+ * Stores the pixels of a set of grayscale DICOM slices one after another in
+ * a single contiguous direct (off-heap) buffer.  Each stored slice is
+ * accessed through a {@link VolumePixelBuffer}, which replaces the
+ * slice's original on-heap pixel buffer.
+ */
+public class DicomPixelVolume {
+
+   private PixelType pixelType;
+   private int sliceSize;       // pixels per slice
+   private int bytesPerPixel;
+   private int numSlices;
+   ByteBuffer buffer;           // replaced if the volume grows
+
+   /**
+    * Creates a new volume for slices of a given pixel type and size
+    * @param type pixel type (BYTE, UBYTE, SHORT or USHORT)
+    * @param sliceSize number of pixels in each slice
+    * @param capacity initial number of slices that can be stored
+    */
+   DicomPixelVolume(PixelType type, int sliceSize, int capacity) {
+      this.pixelType = type;
+      this.sliceSize = sliceSize;
+      this.bytesPerPixel = getBytesPerPixel(type);
+      if (bytesPerPixel == 0) {
+         throw new IllegalArgumentException (
+            "Pixel type "+type+" cannot be stored in a volume");
+      }
+      capacity = Math.min(capacity, getMaxSlices());
+      buffer = BufferUtilities.newNativeByteBuffer(
+         Math.max(capacity,1)*sliceSize*bytesPerPixel);
+      numSlices = 0;
+   }
+
+   private static int getBytesPerPixel(PixelType type) {
+      switch (type) {
+         case BYTE:
+         case UBYTE:
+            return 1;
+         case SHORT:
+         case USHORT:
+            return 2;
+         default:
+            return 0;
+      }
+   }
+
+   private int getMaxSlices() {
+      return Integer.MAX_VALUE/(sliceSize*bytesPerPixel);
+   }
+
+   /**
+    * Checks whether a pixel buffer can be stored in a volume, which is the
+    * case for the grayscale array-based buffers created by the DICOM image
+    * decoders.
+    * @param pixels buffer to check
+    * @return true if the buffer can be stored
+    */
+   static boolean canStore(DicomPixelBuffer pixels) {
+      return (pixels instanceof BytePixelBuffer ||
+              pixels instanceof UBytePixelBuffer ||
+              pixels instanceof ShortPixelBuffer ||
+              pixels instanceof UShortPixelBuffer ||
+              pixels instanceof VolumePixelBuffer);
+   }
+
+   /**
+    * Checks whether a volume can store a given number of slices, which is
+    * limited by the type of pixel and the maximum size of a direct buffer
+    * @param type pixel type
+    * @param sliceSize number of pixels in each slice
+    * @param numSlices number of slices
+    * @return true if the slices can be stored
+    */
+   static boolean canStore(PixelType type, int sliceSize, int numSlices) {
+      long nbytes = (long)numSlices*sliceSize*getBytesPerPixel(type);
+      return nbytes > 0 && nbytes <= Integer.MAX_VALUE;
+   }
+
+   /**
+    * Checks whether a pixel buffer can be stored in this volume
+    * @param pixels buffer to check
+    * @return true if the buffer has the right type and size, and
+    * there is room for it
+    */
+   boolean isCompatible(DicomPixelBuffer pixels) {
+      return (canStore(pixels) &&
+              pixels.getPixelType() == pixelType &&
+              pixels.getNumPixels() == sliceSize &&
+              numSlices < getMaxSlices());
+   }
+
+   private void ensureCapacity(int cap) {
+      int oldCap = buffer.capacity()/(sliceSize*bytesPerPixel);
+      if (oldCap < cap) {
+         int newCap = (int)Math.min((long)2*oldCap, getMaxSlices());
+         newCap = Math.max(cap, newCap);
+         ByteBuffer newBuffer = BufferUtilities.newNativeByteBuffer(
+            newCap*sliceSize*bytesPerPixel);
+         ByteBuffer old = buffer.duplicate();
+         old.position(0);
+         old.limit(numSlices*sliceSize*bytesPerPixel);
+         newBuffer.put(old);
+         newBuffer.clear();
+         buffer = newBuffer;
+      }
+   }
+
+   /**
+    * Copies a slice's pixels into the end of this volume, returning a
+    * buffer that accesses them.  The rescale slope and intercept of the
+    * original buffer are preserved, and its intensity range is computed
+    * while copying.
+    * @param pixels pixels to copy, which must be compatible with this volume
+    * @return buffer accessing the copied pixels
+    */
+   VolumePixelBuffer addSlice(DicomPixelBufferBase pixels) {
+      ensureCapacity(numSlices+1);
+      int slot = numSlices++;
+      ByteBuffer buff = buffer.duplicate();
+      buff.order(buffer.order());
+      buff.position(slot*sliceSize*bytesPerPixel);
+
+      int minVal = Integer.MAX_VALUE;
+      int maxVal = Integer.MIN_VALUE;
+      Object array = pixels.getBuffer();
+      if (array instanceof byte[]) {
+         byte[] vals = (byte[])array;
+         buff.put(vals, 0, sliceSize);
+      }
+      else if (array instanceof short[]) {
+         short[] vals = (short[])array;
+         buff.asShortBuffer().put(vals, 0, sliceSize);
+      }
+      else {
+         for (int i=0; i<sliceSize; i++) {
+            setValue(buff, i, pixels.getValue(i));
+         }
+      }
+      for (int i=0; i<sliceSize; i++) {
+         int val = pixels.getValue(i);
+         if (val < minVal) {
+            minVal = val;
+         }
+         if (val > maxVal) {
+            maxVal = val;
+         }
+      }
+      VolumePixelBuffer out = new VolumePixelBuffer(this, slot);
+      out.setRescale(pixels.getRescaleSlope(), pixels.getRescaleIntercept());
+      out.setValueRange(minVal, maxVal);
+      return out;
+   }
+
+   private void setValue(ByteBuffer buff, int idx, int val) {
+      if (bytesPerPixel == 1) {
+         buff.put(buff.position()+idx, (byte)val);
+      } else {
+         buff.putShort(buff.position()+2*idx, (short)val);
+      }
+   }
+
+   /**
+    * Returns the internal value of a pixel in a slice
+    * @param slice slice index
+    * @param idx pixel index within the slice
+    * @return pixel value
+    */
+   public int getValue(int slice, int idx) {
+      int pos = slice*sliceSize + idx;
+      switch (pixelType) {
+         case BYTE:
+            return buffer.get(pos);
+         case UBYTE:
+            return buffer.get(pos) & DicomPixelBufferBase.UBYTE_MAX;
+         case SHORT:
+            return buffer.getShort(2*pos);
+         case USHORT:
+            return buffer.getShort(2*pos) & DicomPixelBufferBase.USHORT_MAX;
+         default:
+            return 0;
+      }
+   }
+
+   /**
+    * Sets the internal value of a pixel in a slice
+    * @param slice slice index
+    * @param idx pixel index within the slice
+    * @param val value to set
+    */
+   void setValue(int slice, int idx, int val) {
+      int pos = slice*sliceSize + idx;
+      if (bytesPerPixel == 1) {
+         buffer.put(pos, (byte)val);
+      } else {
+         buffer.putShort(2*pos, (short)val);
+      }
+   }
+
+   /**
+    * Reorders the slices in place, so that slice <code>i</code> becomes the
+    * slice previously stored at <code>order[i]</code>.  The slot of each
+    * supplied pixel buffer is updated accordingly.
+    * @param order new slice order, which must be a permutation of the
+    * stored slices
+    * @param pixels buffers accessing each stored slice, indexed by
+    * their current slot
+    */
+   void reorder(int[] order, VolumePixelBuffer[] pixels) {
+      int nbytes = sliceSize*bytesPerPixel;
+      byte[] tmp = new byte[nbytes];
+      boolean[] done = new boolean[numSlices];
+      ByteBuffer buff = buffer.duplicate();
+      for (int i=0; i<numSlices; i++) {
+         if (done[i] || order[i] == i) {
+            done[i] = true;
+            continue;
+         }
+         // follow the cycle starting at i
+         buff.position(i*nbytes);
+         buff.get(tmp);
+         int j = i;
+         while (order[j] != i) {
+            copySlice(buff, order[j], j, nbytes);
+            done[j] = true;
+            j = order[j];
+         }
+         buff.position(j*nbytes);
+         buff.put(tmp);
+         done[j] = true;
+      }
+      for (int i=0; i<numSlices; i++) {
+         pixels[order[i]].slot = i;
+      }
+   }
+
+   private void copySlice(ByteBuffer buff, int src, int dst, int nbytes) {
+      ByteBuffer from = buff.duplicate();
+      from.position(src*nbytes);
+      from.limit(src*nbytes+nbytes);
+      buff.position(dst*nbytes);
+      buff.put(from);
+   }
+
+   /**
+    * Releases any unused capacity at the end of the volume
+    */
+   void trim() {
+      int nbytes = numSlices*sliceSize*bytesPerPixel;
+      if (buffer.capacity() > nbytes && nbytes > 0) {
+         ByteBuffer newBuffer = BufferUtilities.newNativeByteBuffer(nbytes);
+         ByteBuffer old = buffer.duplicate();
+         old.position(0);
+         old.limit(nbytes);
+         newBuffer.put(old);
+         newBuffer.clear();
+         buffer = newBuffer;
+      }
+   }
+
+   /**
+    * @return the type of pixels stored in the volume
+    */
+   public PixelType getPixelType() {
+      return pixelType;
+   }
+
+   /**
+    * @return the number of pixels in each slice
+    */
+   public int getSliceSize() {
+      return sliceSize;
+   }
+
+   /**
+    * @return the number of slices stored in the volume
+    */
+   public int numSlices() {
+      return numSlices;
+   }
+
+   /**
+    * Returns the pixels stored in the volume, as a read-only, native-order
+    * view of the underlying direct buffer.  Slice <code>i</code> begins at
+    * byte <code>i*getSliceSize()*b</code>, where <code>b</code> is the
+    * number of bytes per pixel (1 for byte types, 2 for short types).
+    * Values are stored before rescaling.
+    * @return buffer containing the volume pixels
+    */
+   public ByteBuffer getBuffer() {
+      ByteBuffer buff = buffer.asReadOnlyBuffer();
+      buff.order(buffer.order());
+      buff.limit(numSlices*sliceSize*bytesPerPixel);
+      return buff;
+   }
+
+   /**
+    * Returns a view of the pixels of one slice
+    * @param slice slice index
+    * @return native-order buffer containing the slice pixels
+    */
+   ByteBuffer getSliceBuffer(int slice) {
+      int nbytes = sliceSize*bytesPerPixel;
+      ByteBuffer buff = buffer.duplicate();
+      buff.position(slice*nbytes);
+      buff.limit(slice*nbytes+nbytes);
+      return buff.slice().order(buffer.order());
+   }
+
+}
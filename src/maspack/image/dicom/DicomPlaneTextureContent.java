@@ -217,6 +217,7 @@ public class DicomPlaneTextureContent extends ReferenceCountedBase implements Te
       // point for computing location
       Point3d pnt = new Point3d();
       Point3d vpnt = new Point3d();
+      int[] voxel = new int[3];  // voxel value(s)
 
       double dx = widths.x/rect.width();
       double dy = widths.y/rect.height();
@@ -240,7 +241,6 @@ public class DicomPlaneTextureContent extends ReferenceCountedBase implements Te
                int vz = (int)Math.floor(vpnt.z);
 
                // interpolate around voxel
-               int[] voxel = new int[3];
                switch(internalStorage) {
                   case UBYTE:
                   case BYTE: {
@@ -13,16 +13,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import maspack.concurrency.NamedThreadFactory;
@@ -87,7 +87,57 @@ public class DicomReader {
       imageDecoders.add(decoder);
    }
 
-   private class SliceReaderCallable implements Callable<DicomSlice[]> {
+   /**
+    * Maximum number of files read ahead of decoding, per reader thread.  This
+    * bounds the amount of undecoded pixel data held on the heap.
+    */
+   private static final int READ_AHEAD_PER_THREAD = 2;
+
+   /**
+    * Buffer size for reading files, large enough for pixel data to be read
+    * in a few blocks
+    */
+   private static final int FILE_BUFFER_SIZE = 1 << 16;
+
+   /**
+    * Undecoded pixel data for a single frame read from a DICOM file, along
+    * with the slice it is decoded into
+    */
+   private static class SliceFrame {
+      String title;
+      DicomHeader header;
+      DicomPixelData data;
+      int numFileFrames;  // number of frames in the file
+      DicomSlice slice;
+
+      SliceFrame(String title, DicomHeader header, DicomPixelData data,
+         int numFileFrames) {
+         this.title = title;
+         this.header = header;
+         this.data = data;
+         this.numFileFrames = numFileFrames;
+      }
+   }
+
+   private static Throwable getRootCause(Throwable e) {
+      while (e.getCause() != null && e.getCause() != e) {
+         e = e.getCause();
+      }
+      return e;
+   }
+
+   private static IOException createReadException(Exception e) {
+      Throwable cause = getRootCause(e);
+      return new IOException(
+         "Unable to read DICOM file:\n" + cause.getMessage(), cause);
+   }
+
+   /**
+    * Reads the frames of a file.  A single frame is decoded immediately;
+    * multiple frames are left for separate decoder tasks, so that they
+    * can be decoded in parallel.
+    */
+   private class SliceReaderCallable implements Callable<SliceFrame[]> {
 
       private File file;
       private String sliceName;
@@ -98,21 +148,40 @@ public class DicomReader {
          this.file = file;
 
       }
-      
-      public Throwable getRootCause(Throwable e) {
-         while (e.getCause() != null && e.getCause() != e) {
-            e = e.getCause();
+
+      @Override
+      public SliceFrame[] call() throws IOException {
+         try {
+            SliceFrame[] frames = readFrames(sliceName, file);
+            if (frames != null && frames.length == 1) {
+               decodeFrame(frames[0]);
+            }
+            return frames;
+         } catch (Exception e) {
+            throw createReadException(e);
          }
-         return e;
+      }
+
+   }
+
+   /**
+    * Decodes a single frame of a multi-frame file
+    */
+   private class FrameDecoderCallable implements Callable<SliceFrame[]> {
+
+      private SliceFrame frame;
+
+      public FrameDecoderCallable(SliceFrame frame) {
+         this.frame = frame;
       }
 
       @Override
-      public DicomSlice[] call() throws IOException {
+      public SliceFrame[] call() throws IOException {
          try {
-            return readSlice(sliceName, file);
+            decodeFrame(frame);
+            return new SliceFrame[] { frame };
          } catch (Exception e) {
-            Throwable cause = getRootCause(e);
-            throw new IOException("Unable to read DICOM file:\n" + cause.getMessage(), cause);
+            throw createReadException(e);
          }
       }
 
@@ -199,7 +268,10 @@ public class DicomReader {
    }
    
    /**
-    * Populates a DicomImage based on a given list of DICOM files.
+    * Populates a DicomImage based on a given list of DICOM files.  Files are
+    * read and decoded in parallel, and the pixels of grayscale slices are
+    * stored in a single off-heap {@link DicomPixelVolume}, which is
+    * reordered into slice order once all files have been read.
     * 
     * @param im image to populate (null to generate new image)
     * @param files list of DICOM files
@@ -221,18 +293,8 @@ public class DicomReader {
       ExecutorService executor =
          Executors
             .newFixedThreadPool(cpus, new NamedThreadFactory("dicom_reader"));
-      LinkedList<Future<DicomSlice[]>> sliceReaders =
-         new LinkedList<Future<DicomSlice[]>>();
-      ExecutorCompletionService<DicomSlice[]> ecs =
-         new ExecutorCompletionService<DicomSlice[]>(executor);
-
-      int nReaders = 0;
-      for (int i = 0; i < files.size(); i++) {
-         SliceReaderCallable reader = new SliceReaderCallable(files.get(i));
-         sliceReaders.add(ecs.submit(reader));
-         nReaders++;
-      }
-      executor.shutdown();
+      ExecutorCompletionService<SliceFrame[]> ecs =
+         new ExecutorCompletionService<SliceFrame[]>(executor);
 
       FunctionTimer timer = new FunctionTimer();
       timer.start();
@@ -242,50 +304,32 @@ public class DicomReader {
          nTimes = im.getNumTimes();
       }
 
-      // process futures as they come in
-      int nProcessed = 0;
-      while (nProcessed < nReaders) {
+      // limit the number of files read ahead, so that decoder tasks for
+      // multi-frame files are queued ahead of further reads
+      int maxReadAhead = READ_AHEAD_PER_THREAD*cpus;
+      int nextFile = 0;
+      int nPending = 0;
+      while (nextFile < files.size() && nPending < maxReadAhead) {
+         ecs.submit(new SliceReaderCallable(files.get(nextFile++)));
+         nPending++;
+      }
 
-         Future<DicomSlice[]> fut = null;
-         try {
-            fut = ecs.take();
-         }
-         catch (InterruptedException e1) {
-            e1.printStackTrace();
-            return null;
-         }
-         if (fut.isDone()) {
-            nProcessed++;
+      // decoded pixels are moved into a shared volume as they come in, so
+      // that the per-slice heap buffers can be released
+      DicomPixelVolume volume = null;
+
+      try {
+         // process futures as they come in
+         while (nPending > 0) {
 
-            // process
+            SliceFrame[] frames = null;
             try {
-               DicomSlice[] slices = fut.get();
-               if (slices != null) {
-                  // split up into frames
-                  for (int i = 0; i < slices.length; i++) {
-                     int stime = temporalPosition;
-                     if (stime < 0) {
-                        // attempt to read time from slice
-                        int[] vals =
-                           slices[i].getHeader().getMultiIntValue(
-                              DicomTag.TEMPORAL_POSITON_IDENTIFIER);
-                        if (vals != null) {
-                           stime = vals[0];
-                        }
-                        else {
-                           // set unknown time?
-                           stime = nTimes;
-                        }
-                     }
-                     slices[i].info.temporalPosition = stime;
-                     if (im == null) {
-                        im = new DicomImage(imageName, slices[i]);
-                     }
-                     else {
-                        im.addSlice(slices[i]);
-                     }
-                  }
-               }
+               frames = ecs.take().get();
+            }
+            catch (InterruptedException e) {
+               // restore the interrupt status for the caller
+               Thread.currentThread().interrupt();
+               throw new IOException("Read of " + imageName + " interrupted", e);
             }
             catch (ExecutionException e) {
                if (e.getCause() instanceof IOException) {
@@ -293,21 +337,71 @@ public class DicomReader {
                } else {
                   e.printStackTrace();
                }
-            } // end try-catching errors
-            catch (InterruptedException e) {
-               e.printStackTrace();
             }
-         } // end checking if future complete
-      } // end main loop
+            nPending--;
+
+            if (frames != null) {
+               for (SliceFrame frame : frames) {
+                  if (frame.slice == null) {
+                     ecs.submit(new FrameDecoderCallable(frame));
+                     nPending++;
+                     continue;
+                  }
+                  DicomSlice slice = frame.slice;
+                  DicomPixelBuffer pixels = slice.pixelBuff;
+                  if (DicomPixelVolume.canStore(pixels)) {
+                     if (volume == null) {
+                        volume = new DicomPixelVolume(
+                           pixels.getPixelType(), pixels.getNumPixels(),
+                           files.size()*frame.numFileFrames);
+                     }
+                     if (volume.isCompatible(pixels)) {
+                        slice.pixelBuff =
+                           volume.addSlice((DicomPixelBufferBase)pixels);
+                     }
+                  }
+                  int stime = temporalPosition;
+                  if (stime < 0) {
+                     // attempt to read time from slice
+                     int[] vals =
+                        slice.getHeader().getMultiIntValue(
+                           DicomTag.TEMPORAL_POSITON_IDENTIFIER);
+                     if (vals != null) {
+                        stime = vals[0];
+                     }
+                     else {
+                        // set unknown time?
+                        stime = nTimes;
+                     }
+                  }
+                  slice.info.temporalPosition = stime;
+                  if (im == null) {
+                     im = new DicomImage(imageName, slice);
+                  }
+                  else {
+                     im.addSlice(slice);
+                  }
+               }
+            }
+            if (nextFile < files.size()) {
+               ecs.submit(new SliceReaderCallable(files.get(nextFile++)));
+               nPending++;
+            }
+         } // end main loop
+      }
+      finally {
+         executor.shutdownNow();
+      }
       
+      if (im == null) {
+         return null;
+      }
+      im.complete();
+
       timer.stop();
       double usec = timer.getTimeUsec();
       System.out.println("Read took " + usec * 1e-6 + " seconds");
 
-      if (im == null) {
-         return null;
-      }
-      
       if (im.title == null) {
          im.title = imageName;
       }
@@ -358,11 +452,44 @@ public class DicomReader {
    public DicomSlice[] readSlice(String sliceTitle, File file)
       throws IOException {
 
+      SliceFrame[] frames = readFrames(sliceTitle, file);
+      if (frames == null) {
+         return null;
+      }
+      DicomSlice[] out = new DicomSlice[frames.length];
+      for (int i = 0; i < frames.length; i++) {
+         decodeFrame(frames[i]);
+         out[i] = frames[i].slice;
+      }
+      return out;
+   }
+
+   /**
+    * Decodes the pixel data of a frame into its slice, releasing the
+    * undecoded data.
+    */
+   private void decodeFrame(SliceFrame frame) throws IOException {
+      DicomPixelBuffer pixels = decodeFrame(frame.header, frame.data);
+      frame.slice = new DicomSlice(frame.title, frame.header, pixels);
+      frame.data = null;
+   }
+
+   /**
+    * Reads the header and undecoded pixel data from a single file.
+    * @param sliceTitle title to assign slice
+    * @param file input file
+    * @return the frames contained in the file
+    * @throws IOException if there is a read failure
+    */
+   private SliceFrame[] readFrames(String sliceTitle, File file)
+      throws IOException {
+
       BinaryInputStream in = null;
       try {
          in =
             new BinaryInputStream(
-               new BufferedInputStream(new FileInputStream(file)));
+               new BufferedInputStream(
+                  new FileInputStream(file), FILE_BUFFER_SIZE));
       }
       catch (FileNotFoundException e) {
          System.err.println("File '" + file.getPath() + "' not found");
@@ -467,8 +594,8 @@ public class DicomReader {
       // parse pixel data
       if (tagId == DicomTag.PIXEL_DATA) {
 
-         DicomPixelBuffer[] pixels = parsePixels(header, in);
-         DicomSlice[] out = new DicomSlice[pixels.length];
+         DicomPixelData[] pixels = parsePixels(header, in);
+         SliceFrame[] out = new SliceFrame[pixels.length];
 
          // split up into frames
          for (int i = 0; i < pixels.length; i++) {
@@ -480,7 +607,7 @@ public class DicomReader {
             // XXX adjust frame header
             // DicomHeader sliceHeader = header.clone();
 
-            out[i] = new DicomSlice(title, header, pixels[i]);
+            out[i] = new SliceFrame(title, header, pixels[i], pixels.length);
          }
 
          in.close();
@@ -1016,7 +1143,21 @@ public class DicomReader {
 
    }
 
-   private DicomPixelBuffer[] parsePixels(
+   /**
+    * Reads a block of multi-byte values in bulk, returning a buffer with the
+    * stream's byte order for decoding them.
+    */
+   private ByteBuffer readValues(BinaryInputStream in, int nbytes)
+      throws IOException {
+      byte[] b = new byte[nbytes];
+      in.readFully(b);
+      ByteBuffer buf = ByteBuffer.wrap(b);
+      buf.order(
+         in.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+      return buf;
+   }
+
+   private DicomPixelData[] parsePixels(
       DicomHeader header, BinaryInputStream in) throws IOException {
 
       // check type
@@ -1025,7 +1166,7 @@ public class DicomReader {
       in.skip(2); // reserved
 
       int nFrames = header.getIntValue(DicomTag.NUMBER_OF_FRAMES, 1);
-      DicomPixelBuffer[] frames = new DicomPixelBuffer[nFrames];
+      DicomPixelData[] frames = new DicomPixelData[nFrames];
 
       VR vr = VR.get(c0, c1);
 
@@ -1083,7 +1224,7 @@ public class DicomReader {
                      offset = ob.length;
                      ob = Arrays.copyOf(ob, offset + length);
                   }
-                  in.read(ob, offset, length);
+                  in.readFully(ob, offset, length);
 
                }
                else if (tagId == DicomTag.SEQUENCE_DELIMINATION) {
@@ -1102,8 +1243,7 @@ public class DicomReader {
                }
             }
 
-            DicomPixelData data = new DicomPixelData(VR.OB, ob);
-            frames[i] = decodeFrame(header, data);
+            frames[i] = new DicomPixelData(VR.OB, ob);
          }
 
       }
@@ -1113,8 +1253,8 @@ public class DicomReader {
                int frameLength = length / nFrames;
                for (int i = 0; i < nFrames; i++) {
                   DicomPixelData data = new DicomPixelData(vr, frameLength);
-                  in.read(data.b);
-                  frames[i] = decodeFrame(header, data);
+                  in.readFully(data.b);
+                  frames[i] = data;
                }
                break;
             }
@@ -1122,10 +1262,8 @@ public class DicomReader {
                int frameLength = length / nFrames / 2;
                for (int i = 0; i < nFrames; i++) {
                   DicomPixelData data = new DicomPixelData(vr, frameLength);
-                  for (int j = 0; j < frameLength; j++) {
-                     data.s[j] = in.readShort();
-                  }
-                  frames[i] = decodeFrame(header, data);
+                  readValues(in, 2*frameLength).asShortBuffer().get(data.s);
+                  frames[i] = data;
                }
                break;
             }
@@ -1133,10 +1271,8 @@ public class DicomReader {
                int frameLength = length / nFrames / 4;
                for (int i = 0; i < nFrames; i++) {
                   DicomPixelData data = new DicomPixelData(vr, frameLength);
-                  for (int j = 0; j < frameLength; j++) {
-                     data.f[j] = in.readFloat();
-                  }
-                  frames[i] = decodeFrame(header, data);
+                  readValues(in, 4*frameLength).asFloatBuffer().get(data.f);
+                  frames[i] = data;
                }
                break;
             }
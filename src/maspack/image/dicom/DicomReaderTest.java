@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) 2015, by the Authors: Antonio Sanchez (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+
+package maspack.image.dicom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests DicomReader on small synthetic DICOM series, checking that
+ * grayscale slices are packed into a single {@link DicomPixelVolume} in
+ * slice order, and that other pixel types are left on the heap.
+ */
+public class DicomReaderTest extends UnitTest {
+
+   private static final int ROWS = 5;
+   private static final int COLS = 7;
+
+   private ArrayList<File> myTempFiles = new ArrayList<File>();
+
+   // ----- writing synthetic files, using explicit VR little endian -----
+
+   private static void putElement (
+      ByteBuffer buff, int group, int elem, String vr, byte[] val) {
+      buff.putShort ((short)group);
+      buff.putShort ((short)elem);
+      buff.put ((byte)vr.charAt(0));
+      buff.put ((byte)vr.charAt(1));
+      if (vr.equals ("OW") || vr.equals ("OB")) {
+         buff.putShort ((short)0);
+         buff.putInt (val.length);
+      }
+      else {
+         buff.putShort ((short)val.length);
+      }
+      buff.put (val);
+   }
+
+   private static byte[] stringValue (String str, char pad) {
+      if (str.length()%2 == 1) {
+         str = str + pad;
+      }
+      return str.getBytes();
+   }
+
+   private static byte[] ushortValue (int val) {
+      return new byte[] { (byte)(val & 0xff), (byte)((val >> 8) & 0xff) };
+   }
+
+   /**
+    * Value of a pixel within a frame, which identifies the frame
+    */
+   static int pixelValue (int frameId, int idx) {
+      return (short)(frameId*37 + idx*3 - 500);
+   }
+
+   private File createTempDir() throws IOException {
+      File dir = File.createTempFile ("dicomTest", "");
+      if (!dir.delete() || !dir.mkdir()) {
+         throw new IOException ("Cannot create directory " + dir);
+      }
+      myTempFiles.add (dir);
+      return dir;
+   }
+
+   /**
+    * Writes a signed 16-bit grayscale file, with one frame per frame id,
+    * all located at the given z position.
+    */
+   private void writeGrayFile (File file, double z, int... frameIds)
+      throws IOException {
+      int npix = ROWS*COLS;
+      ByteBuffer pixels =
+         ByteBuffer.allocate(2*npix*frameIds.length);
+      pixels.order (ByteOrder.LITTLE_ENDIAN);
+      for (int fid : frameIds) {
+         for (int i=0; i<npix; i++) {
+            pixels.putShort ((short)pixelValue (fid, i));
+         }
+      }
+      writeFile (
+         file, z, 1, "MONOCHROME2", 16, frameIds.length, "OW", pixels.array());
+   }
+
+   /**
+    * Writes an 8-bit RGB file located at the given z position.
+    */
+   private void writeRGBFile (File file, double z) throws IOException {
+      byte[] pixels = new byte[3*ROWS*COLS];
+      for (int i=0; i<pixels.length; i++) {
+         pixels[i] = (byte)(i + (int)z);
+      }
+      writeFile (file, z, 3, "RGB", 8, 1, "OB", pixels);
+   }
+
+   private void writeFile (
+      File file, double z, int nsamples, String photoInterp, int nbits,
+      int nframes, String pixelVR, byte[] pixels) throws IOException {
+
+      ByteBuffer buff = ByteBuffer.allocate (1024 + pixels.length);
+      buff.order (ByteOrder.LITTLE_ENDIAN);
+      buff.position (128);
+      buff.put ("DICM".getBytes());
+      putElement (
+         buff, 0x0002, 0x0010, "UI", stringValue ("1.2.840.10008.1.2.1", '\0'));
+      putElement (buff, 0x0020, 0x0032, "DS", stringValue ("0\\0\\"+z, ' '));
+      putElement (
+         buff, 0x0020, 0x0037, "DS", stringValue ("1\\0\\0\\0\\1\\0", ' '));
+      putElement (buff, 0x0028, 0x0002, "US", ushortValue (nsamples));
+      putElement (buff, 0x0028, 0x0004, "CS", stringValue (photoInterp, ' '));
+      if (nframes > 1) {
+         putElement (buff, 0x0028, 0x0008, "IS", stringValue (""+nframes, ' '));
+      }
+      putElement (buff, 0x0028, 0x0010, "US", ushortValue (ROWS));
+      putElement (buff, 0x0028, 0x0011, "US", ushortValue (COLS));
+      putElement (buff, 0x0028, 0x0100, "US", ushortValue (nbits));
+      putElement (buff, 0x0028, 0x0101, "US", ushortValue (nbits));
+      putElement (buff, 0x0028, 0x0102, "US", ushortValue (nbits-1));
+      putElement (buff, 0x0028, 0x0103, "US", ushortValue (nsamples == 1 ? 1 : 0));
+      putElement (buff, 0x7FE0, 0x0010, pixelVR, pixels);
+
+      FileOutputStream fos = new FileOutputStream (file);
+      try {
+         fos.write (buff.array(), 0, buff.position());
+      }
+      finally {
+         fos.close();
+      }
+   }
+
+   /**
+    * Writes single-frame grayscale files for z positions z0, z0+1, ...,
+    * in shuffled order, with the frame id of each equal to its z position.
+    */
+   private File writeGraySeries (int z0, int nslices) throws IOException {
+      File dir = createTempDir();
+      ArrayList<Integer> zvals = new ArrayList<Integer>();
+      for (int i=0; i<nslices; i++) {
+         zvals.add (z0+i);
+      }
+      Collections.shuffle (zvals, new Random (0x1234));
+      for (int i=0; i<nslices; i++) {
+         int z = zvals.get(i);
+         writeGrayFile (new File (dir, "slice"+i), z, z);
+      }
+      return dir;
+   }
+
+   // ----- checks -----
+
+   private DicomImage read (DicomImage im, File dir) throws IOException {
+      // fixed temporal position, so that separate reads are merged
+      return new DicomReader().read (im, dir.getPath(), null, false, 0);
+   }
+
+   /**
+    * Checks that the image pixels are packed into a single volume in slice
+    * order, and that slice i contains the frame with id frameIds[i].
+    */
+   private void checkPackedSlices (DicomImage im, int[] frameIds) {
+      checkEquals ("number of slices", im.size(), frameIds.length);
+      DicomPixelVolume vol = im.getPixelVolume();
+      if (vol == null) {
+         throw new TestException ("grayscale pixels not packed into a volume");
+      }
+      checkEquals ("volume slices", vol.numSlices(), frameIds.length);
+      checkEquals ("volume pixel type", vol.getPixelType(), im.getPixelType());
+      int npix = ROWS*COLS;
+      ByteBuffer buff = vol.getBuffer();
+      checkEquals ("volume buffer size", buff.remaining(), 2*npix*im.size());
+      double max = Double.NEGATIVE_INFINITY;
+      double min = Double.POSITIVE_INFINITY;
+      for (int s=0; s<im.size(); s++) {
+         DicomPixelBuffer pixels = im.getSlice(s).getPixelBuffer();
+         if (!(pixels instanceof VolumePixelBuffer)) {
+            throw new TestException (
+               "slice "+s+" pixels not stored in a volume");
+         }
+         VolumePixelBuffer vpix = (VolumePixelBuffer)pixels;
+         if (vpix.getVolume() != vol) {
+            throw new TestException ("slice "+s+" stored in another volume");
+         }
+         checkEquals ("slice index of slice "+s, vpix.getSliceIndex(), s);
+         ByteBuffer sbuff = vpix.getBuffer();
+         for (int i=0; i<npix; i++) {
+            int val = pixelValue (frameIds[s], i);
+            checkEquals ("volume value "+s+","+i, vol.getValue (s, i), val);
+            checkEquals (
+               "buffer value "+s+","+i, (int)buff.getShort (2*(s*npix+i)), val);
+            checkEquals (
+               "slice buffer value "+s+","+i, (int)sbuff.getShort (2*i), val);
+            max = Math.max (max, val);
+            min = Math.min (min, val);
+         }
+      }
+      checkEquals ("max intensity", im.getMaxIntensity(), max);
+      checkEquals ("min intensity", im.getMinIntensity(), min);
+   }
+
+   public void testSingleRead() throws IOException {
+      File dir = writeGraySeries (0, 6);
+      DicomImage im = read (null, dir);
+      // complete() reorders the volume into z order in place
+      checkPackedSlices (im, new int[] {0, 1, 2, 3, 4, 5});
+   }
+
+   public void testMultiRead() throws IOException {
+      File dir0 = writeGraySeries (0, 4);
+      File dir1 = writeGraySeries (4, 3);
+      DicomImage im = read (null, dir0);
+      DicomPixelVolume vol0 = im.getPixelVolume();
+      checkPackedSlices (im, new int[] {0, 1, 2, 3});
+      // slices from the second read are stored in a separate volume, so
+      // the pixels of both reads are copied into a new one
+      read (im, dir1);
+      if (im.getPixelVolume() == vol0) {
+         throw new TestException ("first volume reused after second read");
+      }
+      checkPackedSlices (im, new int[] {0, 1, 2, 3, 4, 5, 6});
+   }
+
+   public void testMultiFrame() throws IOException {
+      File dir = createTempDir();
+      writeGrayFile (new File (dir, "slice0"), 2, 2);
+      writeGrayFile (new File (dir, "slice1"), 0, 0);
+      writeGrayFile (new File (dir, "multi"), 1, 10, 11, 12);
+      DicomImage im = read (null, dir);
+      // frames of the multi-frame file share the same z position, so
+      // their order among themselves is not defined
+      checkEquals ("number of slices", im.size(), 5);
+      int[] frameIds = new int[5];
+      for (int s=0; s<im.size(); s++) {
+         DicomPixelBufferBase pixels =
+            (DicomPixelBufferBase)im.getSlice(s).getPixelBuffer();
+         frameIds[s] = (pixels.getValue(0) + 500)/37;
+      }
+      checkEquals ("first slice", frameIds[0], 0);
+      checkEquals ("last slice", frameIds[4], 2);
+      checkPackedSlices (im, frameIds);
+   }
+
+   public void testRGB() throws IOException {
+      File dir = createTempDir();
+      for (int i=0; i<3; i++) {
+         writeRGBFile (new File (dir, "slice"+i), 2-i);
+      }
+      DicomImage im = read (null, dir);
+      checkEquals ("number of slices", im.size(), 3);
+      checkEquals (
+         "pixel type", im.getPixelType(), DicomPixelBuffer.PixelType.UBYTE_RGB);
+      if (im.getPixelVolume() != null) {
+         throw new TestException ("RGB pixels packed into a volume");
+      }
+      for (int s=0; s<im.size(); s++) {
+         DicomPixelBuffer pixels = im.getSlice(s).getPixelBuffer();
+         if (!(pixels instanceof RGBPixelBuffer)) {
+            throw new TestException (
+               "slice "+s+" pixels stored in "+pixels.getClass());
+         }
+         byte[] vals = ((RGBPixelBuffer)pixels).getBuffer();
+         checkEquals ("first pixel of slice "+s, (int)vals[0], s);
+      }
+      if (im.packPixels()) {
+         throw new TestException ("packPixels succeeded for RGB pixels");
+      }
+   }
+
+   public void testInterrupt() throws IOException {
+      File dir = writeGraySeries (0, 2);
+      Thread.currentThread().interrupt();
+      try {
+         read (null, dir);
+         throw new TestException ("interrupted read did not fail");
+      }
+      catch (IOException e) {
+         // expected
+      }
+      finally {
+         // clears the interrupt status
+         if (!Thread.interrupted()) {
+            throw new TestException ("interrupt status not restored");
+         }
+      }
+   }
+
+   private void deleteTempFiles() {
+      for (File dir : myTempFiles) {
+         File[] files = dir.listFiles();
+         if (files != null) {
+            for (File file : files) {
+               file.delete();
+            }
+         }
+         dir.delete();
+      }
+      myTempFiles.clear();
+   }
+
+   public void test() throws IOException {
+      try {
+         testSingleRead();
+         testMultiRead();
+         testMultiFrame();
+         testRGB();
+         testInterrupt();
+      }
+      finally {
+         deleteTempFiles();
+      }
+   }
+
+   public static void main (String[] args) {
+      DicomReaderTest tester = new DicomReaderTest();
+      tester.runtest();
+   }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2015, by the Authors: Antonio Sanchez (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+
+package maspack.image.dicom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores a set of grayscale pixels as one slice of a {@link DicomPixelVolume}.
+ * The intensity range is computed when the pixels are stored, so that it
+ * does not have to be recomputed from every pixel each time it is queried.
+ */
+public class VolumePixelBuffer extends DicomPixelBufferBase {
+
+   DicomPixelVolume volume;
+   int slot;                    // slice index within the volume
+
+   private int minValue;
+   private int maxValue;
+   private boolean rangeValid;
+
+   VolumePixelBuffer(DicomPixelVolume volume, int slot) {
+      super(volume.getPixelType());
+      this.volume = volume;
+      this.slot = slot;
+      rangeValid = false;
+   }
+
+   void setValueRange(int min, int max) {
+      minValue = min;
+      maxValue = max;
+      rangeValid = true;
+   }
+
+   /**
+    * @return the volume containing these pixels
+    */
+   public DicomPixelVolume getVolume() {
+      return volume;
+   }
+
+   /**
+    * @return the index of these pixels' slice within the volume
+    */
+   public int getSliceIndex() {
+      return slot;
+   }
+
+   @Override
+   public int getNumPixels() {
+      return volume.getSliceSize();
+   }
+
+   @Override
+   protected int getNumValues() {
+      return volume.getSliceSize();
+   }
+
+   @Override
+   protected int getValue(int idx) {
+      return volume.getValue(slot, idx);
+   }
+
+   @Override
+   protected void setValue(int idx, int val) {
+      volume.setValue(slot, idx, val);
+      rangeValid = false;
+   }
+
+   private double rescale(int val) {
+      return val*getRescaleSlope() + getRescaleIntercept();
+   }
+
+   @Override
+   public double getMaxIntensity() {
+      if (!rangeValid) {
+         return super.getMaxIntensity();
+      }
+      return Math.max(rescale(minValue), rescale(maxValue));
+   }
+
+   @Override
+   public double getMinIntensity() {
+      if (!rangeValid) {
+         return super.getMinIntensity();
+      }
+      return Math.min(rescale(minValue), rescale(maxValue));
+   }
+
+   /**
+    * @return a native-order view of this slice's pixels within the volume
+    */
+   @Override
+   public ByteBuffer getBuffer() {
+      return volume.getSliceBuffer(slot);
+   }
+
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.matrix;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.Matrix.Partition;
+
+/**
+ * Persistent compressed row storage (CRS) view of a principal sub-matrix of a
+ * {@link SparseBlockMatrix}. The view stores the CRS row offsets and column
+ * indices for the current block structure of the matrix, so that when only
+ * the matrix values change (as is typically the case from one time step to
+ * the next), the values can be refreshed in place without allocating any
+ * new storage and without recomputing the indices. The indices are
+ * recomputed automatically whenever the block structure of the matrix
+ * changes.
+ *
+ * <p>Values are refreshed by iterating over block rows, and this can be done
+ * in parallel (see {@link #setNumThreads setNumThreads}), since each block
+ * row writes to a disjoint portion of the value array.
+ *
+ * <p>As with {@link SparseBlockMatrix#getCRSIndices(int[],int[],Partition)
+ * SparseBlockMatrix.getCRSIndices()}, the row offsets and column indices
+ * returned by the view are 1-based, so that they can be passed directly to
+ * solvers such as {@link maspack.solvers.PardisoSolver PardisoSolver}.
+ */
+public class CRSView {
+
+   // minimum number of block rows per thread when updating values
+   private static final int MIN_BLOCK_ROWS_PER_THREAD = 256;
+
+   /**
+    * Default number of threads used by a view to update its values.
+    */
+   public static final int DEFAULT_NUM_THREADS = 1;
+
+   private SparseBlockMatrix myMatrix;
+   private Partition myPartition;
+   private int myNumRows;
+   private int myNumCols;
+   private int myNumBlkRows;
+   private int myNumBlkCols;
+   private int myMaxBlkRowSize;
+   private int myStructureVersion = -1;
+
+   private int myNumVals;
+   private int[] myRowOffs = new int[0];
+   private int[] myColIdxs = new int[0];
+   private double[] myVals = new double[0];
+   // zero-based row offsets, used to locate the values for each row
+   private int[] myRowStarts = new int[0];
+
+   private int myNumThreads = DEFAULT_NUM_THREADS;
+   private ParallelLoop myLoop;
+   // per-thread temporary offsets for each row of a block row
+   private int[][] myLocalOffs;
+
+   /**
+    * Creates a CRS view for the entire matrix <code>M</code>.
+    *
+    * @param M matrix to be viewed
+    * @param part specifies what portion of the matrix to store; must be either
+    * {@link Partition#Full Full} or {@link Partition#UpperTriangular
+    * UpperTriangular}
+    */
+   public CRSView (SparseBlockMatrix M, Partition part) {
+      this (M, part, M.rowSize(), M.colSize());
+   }
+
+   /**
+    * Creates a CRS view for the principal sub-matrix of <code>M</code>
+    * delimited by the first <code>numRows</code> rows and the first
+    * <code>numCols</code> columns. The sub-matrix must be block-aligned.
+    *
+    * @param M matrix to be viewed
+    * @param part specifies what portion of the sub-matrix to store; must be
+    * either {@link Partition#Full Full} or {@link Partition#UpperTriangular
+    * UpperTriangular}
+    * @param numRows number of rows delimiting the sub-matrix
+    * @param numCols number of columns delimiting the sub-matrix
+    */
+   public CRSView (
+      SparseBlockMatrix M, Partition part, int numRows, int numCols) {
+      if (part != Partition.Full && part != Partition.UpperTriangular) {
+         throw new IllegalArgumentException (
+            "Matrix partition " + part + " not supported");
+      }
+      myMatrix = M;
+      myPartition = part;
+      myNumRows = numRows;
+      myNumCols = numCols;
+   }
+
+   /**
+    * Sets the number of threads used by this view to update its values.
+    * Values are only updated in parallel for matrices with many block rows.
+    * The default value is given by {@link #DEFAULT_NUM_THREADS}.
+    *
+    * @param num number of threads
+    */
+   public void setNumThreads (int num) {
+      num = Math.max (1, num);
+      if (num != myNumThreads) {
+         myNumThreads = num;
+         if (myLoop != null) {
+            myLoop.dispose();
+            myLoop = null;
+         }
+         myLocalOffs = null;
+      }
+   }
+
+   /**
+    * Returns the number of threads used by this view to update its values.
+    *
+    * @return number of threads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Returns the matrix associated with this view.
+    *
+    * @return matrix associated with this view
+    */
+   public SparseBlockMatrix getMatrix() {
+      return myMatrix;
+   }
+
+   /**
+    * Returns the partition stored by this view.
+    *
+    * @return partition stored by this view
+    */
+   public Partition getPartition() {
+      return myPartition;
+   }
+
+   /**
+    * Returns the number of rows in this view.
+    *
+    * @return number of rows
+    */
+   public int rowSize() {
+      return myNumRows;
+   }
+
+   /**
+    * Returns the number of columns in this view.
+    *
+    * @return number of columns
+    */
+   public int colSize() {
+      return myNumCols;
+   }
+
+   /**
+    * Returns true if the stored indices are consistent with the current
+    * block structure of the matrix.
+    *
+    * @return true if the stored indices are up to date
+    */
+   public boolean isStructureValid() {
+      return myStructureVersion == myMatrix.getStructureVersion();
+   }
+
+   /**
+    * Recomputes the row offsets and column indices from the current block
+    * structure of the matrix. Storage is reallocated only if it is too
+    * small. This method is called automatically by the other methods of
+    * this view when the structure of the matrix changes.
+    */
+   public void updateStructure() {
+      SparseBlockMatrix M = myMatrix;
+      myNumBlkRows = M.getAlignedBlockRow (myNumRows);
+      myNumBlkCols = M.getAlignedBlockCol (myNumCols);
+      if (myNumBlkRows == -1 || myNumBlkCols == -1) {
+         throw new IllegalArgumentException (
+            "view size "+myNumRows+"x"+myNumCols+" is not block aligned");
+      }
+      myNumVals = M.numNonZeroVals (myPartition, myNumRows, myNumCols);
+      if (myRowOffs.length < myNumRows+1) {
+         myRowOffs = new int[myNumRows+1];
+         myRowStarts = new int[myNumRows+1];
+      }
+      if (myColIdxs.length < myNumVals) {
+         myColIdxs = new int[myNumVals];
+      }
+      M.getCRSIndices (
+         myColIdxs, myRowOffs, myPartition, myNumRows, myNumCols);
+      for (int i=0; i<=myNumRows; i++) {
+         myRowStarts[i] = myRowOffs[i]-1;
+      }
+      myMaxBlkRowSize = 0;
+      for (int bi=0; bi<myNumBlkRows; bi++) {
+         myMaxBlkRowSize = Math.max (myMaxBlkRowSize, M.getBlockRowSize (bi));
+      }
+      myStructureVersion = M.getStructureVersion();
+   }
+
+   private void updateStructureIfNecessary() {
+      if (!isStructureValid()) {
+         updateStructure();
+      }
+   }
+
+   /**
+    * Returns the number of non-zero values in this view.
+    *
+    * @return number of non-zero values
+    */
+   public int numNonZeroVals() {
+      updateStructureIfNecessary();
+      return myNumVals;
+   }
+
+   /**
+    * Returns the 1-based row offsets for this view. The returned array is
+    * used internally and should not be modified. Its length may exceed
+    * <code>rowSize()+1</code>.
+    *
+    * @return 1-based CRS row offsets
+    */
+   public int[] getRowOffsets() {
+      updateStructureIfNecessary();
+      return myRowOffs;
+   }
+
+   /**
+    * Returns the 1-based column indices for this view. The returned array is
+    * used internally and should not be modified. Its length may exceed
+    * <code>numNonZeroVals()</code>.
+    *
+    * @return 1-based CRS column indices
+    */
+   public int[] getColumnIndices() {
+      updateStructureIfNecessary();
+      return myColIdxs;
+   }
+
+   /**
+    * Returns the values for this view, as computed by the most recent call
+    * to {@link #updateValues()}. The returned array is used internally and
+    * should not be modified. Its length may exceed
+    * <code>numNonZeroVals()</code>.
+    *
+    * @return CRS values
+    */
+   public double[] getValues() {
+      return myVals;
+   }
+
+   /**
+    * Refreshes the values of this view from the current values of the
+    * matrix, recomputing the indices first if the matrix structure has
+    * changed.
+    *
+    * @return values of this view
+    */
+   public double[] updateValues() {
+      updateStructureIfNecessary();
+      if (myVals.length < myNumVals) {
+         myVals = new double[myNumVals];
+      }
+      doUpdateValues (myVals, myRowStarts);
+      return myVals;
+   }
+
+   /**
+    * Copies the current values of the matrix into an external array, using
+    * the same layout as the column indices returned by {@link
+    * #getColumnIndices}. The result is the same as that returned by {@link
+    * SparseBlockMatrix#getCRSValues(double[],Partition,int,int)
+    * SparseBlockMatrix.getCRSValues()}.
+    *
+    * @param vals array in which to store the values. Must have a length
+    * at least equal to <code>numNonZeroVals()</code>.
+    */
+   public void updateValues (double[] vals) {
+      updateStructureIfNecessary();
+      doUpdateValues (vals, myRowStarts);
+   }
+
+   /**
+    * Copies the current values of the matrix into an external array. The
+    * values for row <code>i</code> are stored in <code>vals</code> starting
+    * at the 0-based location <code>rowStarts[i]</code>, in the same order
+    * as the column indices returned by {@link #getColumnIndices}. This allows
+    * the view to be used to fill part of a larger CRS structure, such as that
+    * of a KKT system.
+    *
+    * @param vals array in which to store the values
+    * @param rowStarts 0-based starting location in <code>vals</code>
+    * for the values of each row
+    */
+   public void updateValues (double[] vals, int[] rowStarts) {
+      updateStructureIfNecessary();
+      doUpdateValues (vals, rowStarts);
+   }
+
+   private int[] getLocalOffsets (int thread) {
+      if (myLocalOffs == null) {
+         myLocalOffs = new int[myNumThreads][];
+      }
+      if (myLocalOffs[thread] == null ||
+          myLocalOffs[thread].length < myMaxBlkRowSize) {
+         myLocalOffs[thread] = new int[myMaxBlkRowSize];
+      }
+      return myLocalOffs[thread];
+   }
+
+   private void doUpdateValues (final double[] vals, final int[] rowStarts) {
+      if (myNumThreads > 1 &&
+          myNumBlkRows >= 2*MIN_BLOCK_ROWS_PER_THREAD) {
+         if (myLoop == null) {
+            myLoop = new ParallelLoop ("CRSView", myNumThreads);
+            myLoop.setMinChunkSize (MIN_BLOCK_ROWS_PER_THREAD);
+         }
+         // allocate local offsets before entering threads
+         for (int k=0; k<myNumThreads; k++) {
+            getLocalOffsets (k);
+         }
+         myLoop.forRange (0, myNumBlkRows, new ParallelLoop.Body() {
+               public void run (int thread, int start, int end) {
+                  updateBlockRowValues (
+                     vals, rowStarts, start, end, myLocalOffs[thread]);
+               }
+            });
+      }
+      else {
+         updateBlockRowValues (
+            vals, rowStarts, 0, myNumBlkRows, getLocalOffsets (0));
+      }
+   }
+
+   private void updateBlockRowValues (
+      double[] vals, int[] rowStarts, int bi0, int bi1, int[] localOffs) {
+      SparseBlockMatrix M = myMatrix;
+      boolean upper = (myPartition == Partition.UpperTriangular);
+      for (int bi=bi0; bi<bi1; bi++) {
+         int rowOff = M.getBlockRowOffset (bi);
+         int nrows = M.getBlockRowSize (bi);
+         for (int i=0; i<nrows; i++) {
+            localOffs[i] = rowStarts[rowOff+i];
+         }
+         for (MatrixBlock blk = M.myRows[bi].myHead;
+              blk != null && blk.getBlockCol() < myNumBlkCols;
+              blk = blk.next()) {
+            int bj = blk.getBlockCol();
+            if (!upper) {
+               blk.getBlockCRSValues (vals, localOffs, Partition.Full);
+            }
+            else if (bj == bi) {
+               blk.getBlockCRSValues (
+                  vals, localOffs, Partition.UpperTriangular);
+            }
+            else if (bj > bi) {
+               blk.getBlockCRSValues (vals, localOffs, Partition.Full);
+            }
+         }
+      }
+   }
+
+   /**
+    * Releases any threads used by this view.
+    */
+   public void dispose() {
+      if (myLoop != null) {
+         myLoop.dispose();
+         myLoop = null;
+      }
+   }
+}
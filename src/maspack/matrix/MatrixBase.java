@@ -11,10 +11,10 @@ import java.io.PrintWriter;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
 
+import maspack.util.DynamicDoubleArray;
 import maspack.util.ReaderTokenizer;
 
 import java.util.LinkedList;
-import java.util.Iterator;
 import java.util.Random;
 
 import maspack.util.NumberFormat;
@@ -775,10 +775,12 @@ public abstract class MatrixBase implements LinearTransformNd, Matrix {
          int nvals = rowSize()*colSize();
          int[] indices = new int[2*nvals];
          double[] values = new double[nvals];
+         if (rtok.scanNumbers (values, 0, nvals) != nvals) {
+            throw new IOException ("expected a number, got " + rtok);
+         }
          int k = 0;
          for (int i = 0; i < rowSize(); i++) {
             for (int j = 0; j < colSize(); j++) {
-               values[k] = rtok.scanNumber();
                indices[k*2  ] = i;
                indices[k*2+1] = j;
                k++;
@@ -795,7 +797,7 @@ public abstract class MatrixBase implements LinearTransformNd, Matrix {
    }
 
    private void scanDenseInput (ReaderTokenizer rtok) throws IOException {
-      LinkedList<Double> valueList = new LinkedList<Double>();
+      DynamicDoubleArray valueList = new DynamicDoubleArray (64);
       int numRows = 0;
       int currentLine = -1;
       int numCols = -1;
@@ -822,8 +824,10 @@ public abstract class MatrixBase implements LinearTransformNd, Matrix {
             break;
          }
          else if (rtok.ttype != ';') {
-            rtok.pushBack();
-            valueList.add (new Double (rtok.scanNumber()));
+            if (rtok.ttype != ReaderTokenizer.TT_NUMBER) {
+               throw new IOException ("expected a number, got " + rtok);
+            }
+            valueList.add (rtok.nval);
             if (currentLine == -1) {
                currentLine = rtok.lineno();
             }
@@ -839,14 +843,13 @@ public abstract class MatrixBase implements LinearTransformNd, Matrix {
             setSize (numRows, numCols);
          }
       }
-      Iterator it = valueList.iterator();
       int nvals = rowSize()*colSize();
       int[] indices = new int[2*nvals];
       double[] values = new double[nvals];
       int k = 0;
       for (int i = 0; i < rowSize(); i++) {
          for (int j = 0; j < colSize(); j++) {
-            values[k] = ((Double)it.next()).doubleValue();
+            values[k] = valueList.get(k);
             indices[k*2  ] = i;
             indices[k*2+1] = j;
             k++;
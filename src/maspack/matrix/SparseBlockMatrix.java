@@ -53,6 +53,9 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
 
    protected boolean myVerticallyLinkedP = false;
 
+   // incremented whenever the block structure changes
+   protected int myStructureVersion = 0;
+
    public enum PrintFormat {
       MatrixMarket, CRS, CCS,
    }
@@ -82,6 +85,19 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
    private void invalidateRowColIndices() {
       myRowIndicesPartition = Partition.None;
       myColIndicesPartition = Partition.None;
+      myStructureVersion++;
+   }
+
+   /**
+    * Returns a version number for the block structure of this matrix. The
+    * number is incremented whenever blocks, block rows, or block columns are
+    * added or removed, and so can be used to determine when information
+    * derived from the structure, such as CRS indices, needs to be updated.
+    *
+    * @return structure version number
+    */
+   public int getStructureVersion() {
+      return myStructureVersion;
    }
 
    public void setRowCapacity (int newCap) {
@@ -105,6 +121,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       myNumRows += size;
 
       myNumBlockRows++;
+      myStructureVersion++;
    }
 
    public void addRows (int[] sizes, int num) {
@@ -120,6 +137,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumRows += nrows;
       myNumBlockRows += num;
+      myStructureVersion++;
    }
 
    public void setColCapacity (int newCap) {
@@ -144,6 +162,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumCols += size;
       myNumBlockCols++;
+      myStructureVersion++;
    }
 
    public void addCols (int[] sizes, int num) {
@@ -161,6 +180,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumCols += ncols;
       myNumBlockCols += num;
+      myStructureVersion++;
    }
 
    public SparseBlockMatrix() {
@@ -201,6 +221,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             myCols[i] = new MatrixBlockColList();
          }
       }
+      myStructureVersion++;
    }
 
    public SparseBlockMatrix (int[] rowSizes, int[] colSizes) {
@@ -551,6 +572,60 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       return num;
    }
 
+   /**
+    * Returns a signature for the sparsity structure of this matrix. The
+    * signature is a hash of the block row and column sizes, together with
+    * the location and type of every block, and so two matrices with
+    * identical block layouts will have the same signature. It can be used
+    * by solvers to detect when a previously analyzed sparsity structure
+    * has recurred. Since the signature is a hash, matrices with different
+    * structures may (very rarely) share the same signature.
+    *
+    * @return signature for the sparsity structure of this matrix
+    */
+   public long getStructureSignature() {
+      return getStructureSignature (rowSize(), colSize());
+   }
+
+   /**
+    * Returns a signature for the sparsity structure of the leading
+    * submatrix of this matrix with a specified size. The submatrix must be
+    * block aligned. See {@link #getStructureSignature()} for more details.
+    *
+    * @param numRows number of rows in the submatrix
+    * @param numCols number of columns in the submatrix
+    * @return signature for the sparsity structure of the submatrix
+    */
+   public long getStructureSignature (int numRows, int numCols) {
+      BlockSize bsize = getBlockSize (numRows, numCols);
+      long sig = mixSignature (0xcbf29ce484222325L, bsize.numBlkRows);
+      sig = mixSignature (sig, bsize.numBlkCols);
+      for (int bi = 0; bi < bsize.numBlkRows; bi++) {
+         sig = mixSignature (sig, getBlockRowSize (bi));
+      }
+      for (int bj = 0; bj < bsize.numBlkCols; bj++) {
+         sig = mixSignature (sig, getBlockColSize (bj));
+      }
+      for (int bi = 0; bi < bsize.numBlkRows; bi++) {
+         for (MatrixBlock blk = myRows[bi].myHead;
+              blk != null && blk.getBlockCol() < bsize.numBlkCols;
+              blk = blk.next()) {
+            // block type is included since it determines which block
+            // entries are non-zero
+            sig = mixSignature (sig, blk.getBlockCol());
+            sig = mixSignature (sig, blk.getClass().getName().hashCode());
+         }
+         // mark end of row
+         sig = mixSignature (sig, -1);
+      }
+      return sig;
+   }
+
+   private static long mixSignature (long sig, int val) {
+      sig = (sig ^ val) * 0x9e3779b97f4a7c15L;
+      return sig ^ (sig >>> 29);
+   }
+
    public void setZero() {
       for (int bi = 0; bi < myNumBlockRows; bi++) {
          for (MatrixBlock blk = myRows[bi].myHead; blk != null; blk =
@@ -1003,7 +1078,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       int[] localOffsets = null;
       for (int bi = 0; bi < numBlkRows; bi++) {
          int nrows = getBlockRowSize(bi);
-         if (localOffsets == null || localOffsets.length != nrows) {
+         if (localOffsets == null || localOffsets.length < nrows) {
             localOffsets = new int[nrows];
          }
          for (int i = 0; i < nrows; i++) {
@@ -1065,7 +1140,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       int[] localOffsets = null;
       for (int bi = 0; bi < numBlkRows; bi++) {
          int nrows = getBlockRowSize(bi);
-         if (localOffsets == null || localOffsets.length != nrows) {
+         if (localOffsets == null || localOffsets.length < nrows) {
             localOffsets = new int[nrows];
          }
          for (int i = 0; i < nrows; i++) {
@@ -1863,6 +1938,8 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       myColIndicesNumBlkRows = -1;
       myColIndicesNumBlkCols = -1;
       myColIndices = null;
+      // the block structure has been replaced, even if M has no blocks
+      invalidateRowColIndices();
 
       for (int bi=0; bi<myNumBlockRows; bi++) {
          MatrixBlock blk = M.myRows[bi].firstBlock();
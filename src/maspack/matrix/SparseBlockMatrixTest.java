@@ -291,6 +291,123 @@ public class SparseBlockMatrixTest extends MatrixTest {
       }
    }
 
+   private void checkCRSView (
+      CRSView view, SparseBlockMatrix S, Partition part, int size) {
+      int nvals = S.numNonZeroVals (part, size, size);
+      int[] colIdxs = new int[nvals];
+      int[] rowOffs = new int[size+1];
+      double[] vals = new double[nvals];
+      S.getCRSIndices (colIdxs, rowOffs, part, size, size);
+      S.getCRSValues (vals, part, size, size);
+      double[] viewVals = view.updateValues();
+      if (view.numNonZeroVals() != nvals) {
+         throw new TestException (
+            "CRSView has "+view.numNonZeroVals()+" values, expected "+nvals);
+      }
+      int[] viewOffs = view.getRowOffsets();
+      int[] viewIdxs = view.getColumnIndices();
+      for (int i=0; i<=size; i++) {
+         if (viewOffs[i] != rowOffs[i]) {
+            throw new TestException ("CRSView row offsets differ at row "+i);
+         }
+      }
+      for (int k=0; k<nvals; k++) {
+         if (viewIdxs[k] != colIdxs[k] || viewVals[k] != vals[k]) {
+            throw new TestException ("CRSView entries differ at index "+k);
+         }
+      }
+      // check external storage with padded row starts
+      int[] rowStarts = new int[size];
+      for (int i=0; i<size; i++) {
+         rowStarts[i] = rowOffs[i]-1 + i;
+      }
+      double[] extVals = new double[nvals+size];
+      view.updateValues (extVals, rowStarts);
+      for (int i=0; i<size; i++) {
+         for (int k=rowOffs[i]-1; k<rowOffs[i+1]-1; k++) {
+            if (extVals[k+i] != vals[k]) {
+               throw new TestException (
+                  "CRSView external values differ at index "+k);
+            }
+         }
+      }
+   }
+
+   private void testCRSView (SparseBlockMatrix S) {
+      S = S.clone();
+      int maxBlocks = Math.min (S.numBlockRows(), S.numBlockCols());
+      Partition[] parts =
+         new Partition[] { Partition.Full, Partition.UpperTriangular };
+      for (Partition part : parts) {
+         for (int bi = 0; bi < maxBlocks; bi++) {
+            int size = S.rowSize (bi + 1);
+            CRSView view = new CRSView (S, part, size, size);
+            checkCRSView (view, S, part, size);
+            // values should be refreshed in place
+            S.scale (2.0);
+            checkCRSView (view, S, part, size);
+         }
+      }
+      // check that structure changes are detected
+      int size = S.rowSize (maxBlocks);
+      CRSView view = new CRSView (S, Partition.Full, size, size);
+      checkCRSView (view, S, Partition.Full, size);
+      MatrixBlock blk = S.firstBlockInRow (0);
+      if (blk != null) {
+         S.removeBlock (blk);
+         if (view.isStructureValid()) {
+            throw new TestException (
+               "CRSView structure not invalidated by block removal");
+         }
+         checkCRSView (view, S, Partition.Full, size);
+      }
+   }
+
+   private void testCRSViewSet() {
+      // check that set() invalidates a view even when the copied matrix
+      // has no blocks and only the block sizes change
+      SparseBlockMatrix S = new SparseBlockMatrix (new int[] { 3, 3, 6 });
+      for (int bi=0; bi<S.numBlockRows(); bi++) {
+         int size = S.getBlockRowSize (bi);
+         MatrixBlock blk = MatrixBlockBase.alloc (size, size);
+         MatrixNd MX = new MatrixNd (size, size);
+         MX.setRandom();
+         blk.set (MX);
+         S.addBlock (bi, bi, blk);
+      }
+      CRSView view = new CRSView (S, Partition.Full);
+      checkCRSView (view, S, Partition.Full, S.rowSize());
+      S.set (new SparseBlockMatrix (new int[] { 6, 3, 3 }));
+      if (view.isStructureValid()) {
+         throw new TestException (
+            "CRSView structure not invalidated by set()");
+      }
+      checkCRSView (view, S, Partition.Full, S.rowSize());
+   }
+
+   private void testCRSViewThreads() {
+      // large enough to use multiple threads
+      int nblks = 2000;
+      int[] sizes = new int[nblks];
+      for (int i=0; i<nblks; i++) {
+         sizes[i] = (i%2 == 0 ? 3 : 6);
+      }
+      SparseBlockMatrix S = new SparseBlockMatrix (sizes);
+      for (int bi=0; bi<nblks; bi++) {
+         for (int bj=Math.max(0,bi-2); bj<Math.min(nblks,bi+3); bj++) {
+            MatrixBlock blk = MatrixBlockBase.alloc (sizes[bi], sizes[bj]);
+            MatrixNd MX = new MatrixNd (sizes[bi], sizes[bj]);
+            MX.setRandom();
+            blk.set (MX);
+            S.addBlock (bi, bj, blk);
+         }
+      }
+      CRSView view = new CRSView (S, Partition.UpperTriangular);
+      view.setNumThreads (4);
+      checkCRSView (view, S, Partition.UpperTriangular, S.rowSize());
+      view.dispose();
+   }
+
    private void testGetCCS (SparseBlockMatrix S) {
       int maxBlocks = Math.min (S.numBlockRows(), S.numBlockCols());
       // test the Matrix.getCCS routines while we're at it ...
@@ -849,6 +966,12 @@ public class SparseBlockMatrixTest extends MatrixTest {
       testScanBlocks (Mat);
       testScanBlocks (MatAll);
 
+      testCRSView (MatSym);
+      testCRSView (Mat);
+      testCRSView (MatAll);
+      testCRSViewSet();
+      testCRSViewThreads();
+
       testStructureEquals ();
       testAdd ();
    }
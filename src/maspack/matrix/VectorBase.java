@@ -9,10 +9,10 @@ package maspack.matrix;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import maspack.util.DynamicDoubleArray;
 import maspack.util.ReaderTokenizer;
+import maspack.util.Scan;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Random;
 
 import maspack.util.NumberFormat;
@@ -501,17 +501,16 @@ public abstract class VectorBase implements Vector {
             rtok.scanToken (']');
          }
          else {
-            ArrayList valueList = new ArrayList (64);
-            while (rtok.nextToken() != ']') {
-               rtok.pushBack();
-               valueList.add (new Double (rtok.scanNumber()));
+            DynamicDoubleArray values = new DynamicDoubleArray (64);
+            Scan.scanNumbers (values, rtok);
+            if (rtok.ttype != ']') {
+               throw new IOException ("expected a number, got " + rtok);
             }
-            if (valueList.size() != size()) {
-               setSize (valueList.size());
+            if (values.size() != size()) {
+               setSize (values.size());
             }
-            Iterator it = valueList.iterator();
             for (int i = 0; i < size(); i++) {
-               set (i, ((Double)it.next()).doubleValue());
+               set (i, values.get(i));
             }
          }
       }
@@ -0,0 +1,553 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import maspack.util.InternalErrorException;
+
+/**
+ * Computes a fill-reducing ordering for a sparse symmetric matrix using an
+ * approximate minimum degree (AMD) algorithm. The algorithm operates on a
+ * quotient graph, with element absorption and approximate external degrees
+ * computed in the manner of Amestoy, Davis and Duff. Before the ordering
+ * begins, indistinguishable variables (those having identical closed
+ * adjacency sets, such as the three degrees of freedom of a node) are
+ * compressed into supervariables, and very dense rows are removed and ordered
+ * last.
+ *
+ * <p>Variables can optionally be marked as <i>delayed</i>. A delayed variable
+ * is not eliminated until all of its non-delayed neighbors have been
+ * eliminated. This is used for variables with a zero diagonal, such as the
+ * Lagrange multipliers of a KKT system, to ensure that their pivots will be
+ * non-zero when the matrix is factored without dynamic pivoting.
+ */
+public class AMDOrdering {
+
+   // status values for variables
+   private static final int VARIABLE = 0;
+   private static final int ELEMENT = 1;
+   private static final int ABSORBED = 2;
+
+   private int myDenseThreshold = -1;
+
+   /**
+    * Creates a new AMDOrdering object.
+    */
+   public AMDOrdering() {
+   }
+
+   /**
+    * Sets the degree above which a row is considered dense. Dense rows are
+    * removed from the graph and placed at the end of the ordering. A value
+    * less than zero causes the threshold to be determined automatically
+    * as <code>max(16, 10 sqrt(n))</code>.
+    *
+    * @param thresh dense row threshold
+    */
+   public void setDenseThreshold (int thresh) {
+      myDenseThreshold = thresh;
+   }
+
+   /**
+    * Returns the degree above which a row is considered dense.
+    *
+    * @return dense row threshold
+    * @see #setDenseThreshold
+    */
+   public int getDenseThreshold() {
+      return myDenseThreshold;
+   }
+
+   /**
+    * Computes a fill-reducing ordering for a symmetric graph described by an
+    * adjacency structure. The neighbors of node <code>i</code> are given by
+    * <code>adj[k]</code> for <code>xadj[i] &lt;= k &lt; xadj[i+1]</code>.
+    * The adjacency must be symmetric, zero-based, and must not contain
+    * self-loops or duplicates.
+    *
+    * @param n number of nodes in the graph
+    * @param xadj adjacency offsets (length <code>n+1</code>)
+    * @param adj adjacency indices
+    * @param delayed if non-<code>null</code>, identifies nodes
+    * whose elimination should be delayed until all of their
+    * non-delayed neighbors have been eliminated.
+    * @return permutation <code>perm</code> such that <code>perm[k]</code>
+    * gives the node that should be eliminated <code>k</code>-th.
+    */
+   public int[] computeOrdering (
+      int n, int[] xadj, int[] adj, boolean[] delayed) {
+
+      int[] perm = new int[n];
+      if (n == 0) {
+         return perm;
+      }
+      int[] mark = new int[n];
+      int tag = 0;
+
+      // ---- compress indistinguishable nodes into supervariables ----
+
+      int[] rep = new int[n];   // representative of each node
+      long[] hash = new long[n];
+      Integer[] byHash = new Integer[n];
+      for (int i=0; i<n; i++) {
+         long h = i;
+         for (int k=xadj[i]; k<xadj[i+1]; k++) {
+            h += adj[k];
+         }
+         hash[i] = h;
+         rep[i] = i;
+         byHash[i] = i;
+      }
+      final long[] fhash = hash;
+      Arrays.sort (byHash, new Comparator<Integer>() {
+            public int compare (Integer i0, Integer i1) {
+               if (fhash[i0] < fhash[i1]) {
+                  return -1;
+               }
+               else if (fhash[i0] > fhash[i1]) {
+                  return 1;
+               }
+               else {
+                  return i0 - i1;
+               }
+            }
+         });
+      for (int a=0; a<n; ) {
+         int b = a+1;
+         while (b < n && hash[byHash[b]] == hash[byHash[a]]) {
+            b++;
+         }
+         for (int ka=a; ka<b; ka++) {
+            int i = byHash[ka];
+            if (rep[i] != i) {
+               continue;
+            }
+            int degi = xadj[i+1]-xadj[i];
+            boolean marked = false;
+            for (int kb=ka+1; kb<b; kb++) {
+               int j = byHash[kb];
+               if (rep[j] != j || xadj[j+1]-xadj[j] != degi ||
+                   (delayed != null && delayed[i] != delayed[j])) {
+                  continue;
+               }
+               if (!marked) {
+                  tag++;
+                  mark[i] = tag;
+                  for (int k=xadj[i]; k<xadj[i+1]; k++) {
+                     mark[adj[k]] = tag;
+                  }
+                  marked = true;
+               }
+               boolean same = (mark[j] == tag);
+               for (int k=xadj[j]; same && k<xadj[j+1]; k++) {
+                  if (mark[adj[k]] != tag) {
+                     same = false;
+                  }
+               }
+               if (same) {
+                  rep[j] = i;
+               }
+            }
+         }
+         a = b;
+      }
+
+      // ---- build the compressed graph ----
+
+      int[] nodeOf = new int[n]; // compressed index of each representative
+      int nc = 0;
+      for (int i=0; i<n; i++) {
+         if (rep[i] == i) {
+            nodeOf[i] = nc++;
+         }
+      }
+      int[] nv = new int[nc];
+      int[] firstMember = new int[nc];
+      int[] nextMember = new int[n];
+      int[] lastMember = new int[nc];
+      Arrays.fill (firstMember, -1);
+      for (int i=0; i<n; i++) {
+         int c = nodeOf[rep[i]];
+         nv[c]++;
+         nextMember[i] = -1;
+         if (firstMember[c] == -1) {
+            firstMember[c] = i;
+         }
+         else {
+            nextMember[lastMember[c]] = i;
+         }
+         lastMember[c] = i;
+      }
+      int[][] vars = new int[nc][];
+      int[] nvars = new int[nc];
+      int[] cmark = new int[nc];
+      int ctag = 0;
+      for (int c=0; c<nc; c++) {
+         int i = firstMember[c];
+         ctag++;
+         cmark[c] = ctag;
+         int cnt = 0;
+         int[] list = new int[xadj[i+1]-xadj[i]];
+         for (int k=xadj[i]; k<xadj[i+1]; k++) {
+            int d = nodeOf[rep[adj[k]]];
+            if (cmark[d] != ctag) {
+               cmark[d] = ctag;
+               list[cnt++] = d;
+            }
+         }
+         vars[c] = list;
+         nvars[c] = cnt;
+      }
+
+      // ---- find dense nodes ----
+
+      int dense = myDenseThreshold;
+      if (dense < 0) {
+         dense = Math.max (16, (int)(10*Math.sqrt(n)));
+      }
+      int[] degree = new int[nc];
+      boolean[] isDense = new boolean[nc];
+      int numDense = 0;
+      for (int c=0; c<nc; c++) {
+         int deg = 0;
+         for (int k=0; k<nvars[c]; k++) {
+            deg += nv[vars[c][k]];
+         }
+         degree[c] = deg;
+         if (deg > dense) {
+            isDense[c] = true;
+            numDense++;
+         }
+      }
+      boolean[] cdelayed = null;
+      if (delayed != null) {
+         cdelayed = new boolean[nc];
+         for (int c=0; c<nc; c++) {
+            cdelayed[c] = delayed[firstMember[c]];
+         }
+         // delayed nodes attached to dense nodes are also treated as dense,
+         // so that they are ordered after them
+         for (int c=0; c<nc; c++) {
+            if (cdelayed[c] && !isDense[c]) {
+               for (int k=0; k<nvars[c]; k++) {
+                  int d = vars[c][k];
+                  if (isDense[d] && !cdelayed[d]) {
+                     isDense[c] = true;
+                     numDense++;
+                     break;
+                  }
+               }
+            }
+         }
+      }
+      if (numDense > 0) {
+         // remove dense nodes from the adjacency of the others
+         for (int c=0; c<nc; c++) {
+            if (!isDense[c]) {
+               int cnt = 0;
+               int deg = 0;
+               for (int k=0; k<nvars[c]; k++) {
+                  int d = vars[c][k];
+                  if (!isDense[d]) {
+                     vars[c][cnt++] = d;
+                     deg += nv[d];
+                  }
+               }
+               nvars[c] = cnt;
+               degree[c] = deg;
+            }
+         }
+      }
+
+      // number of non-delayed neighbors which must be eliminated before a
+      // delayed node becomes eligible
+      int[] pending = null;
+      int[][] origVars = null;
+      if (cdelayed != null) {
+         pending = new int[nc];
+         origVars = new int[nc][];
+         for (int c=0; c<nc; c++) {
+            if (!isDense[c]) {
+               origVars[c] = Arrays.copyOf (vars[c], nvars[c]);
+               if (cdelayed[c]) {
+                  for (int k=0; k<nvars[c]; k++) {
+                     if (!cdelayed[vars[c][k]]) {
+                        pending[c]++;
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+      // ---- minimum degree elimination on the quotient graph ----
+
+      int[][] elems = new int[nc][];
+      int[] nelems = new int[nc];
+      int[][] lelem = new int[nc][];
+      int[] lsize = new int[nc];
+      int[] status = new int[nc];
+      int[] w = new int[nc];
+      int[] wflag = new int[nc];
+      int wtag = 0;
+      boolean[] massElim = new boolean[nc];
+
+      // degree lists
+      int[] head = new int[n+1];
+      int[] next = new int[nc];
+      int[] prev = new int[nc];
+      boolean[] inList = new boolean[nc];
+      Arrays.fill (head, -1);
+      int mindeg = n;
+
+      int nleft = 0;
+      for (int c=0; c<nc; c++) {
+         elems[c] = new int[4];
+         if (!isDense[c]) {
+            nleft += nv[c];
+         }
+      }
+      for (int c=nc-1; c>=0; c--) {
+         if (!isDense[c] && (pending == null || pending[c] == 0)) {
+            mindeg = insert (c, degree[c], head, next, prev, inList, mindeg);
+         }
+      }
+
+      int[] order = new int[nc];
+      int norder = 0;
+      int[] lp = new int[nc];
+
+      while (nleft > 0) {
+         // select pivot of minimum degree
+         while (mindeg <= n && head[mindeg] == -1) {
+            mindeg++;
+         }
+         if (mindeg > n) {
+            throw new InternalErrorException (
+               "AMDOrdering: no eligible pivot");
+         }
+         int p = head[mindeg];
+         remove (p, degree[p], head, next, prev, inList);
+         order[norder++] = p;
+         nleft -= nv[p];
+
+         // form the new element Lp
+         ctag++;
+         cmark[p] = ctag;
+         int nlp = 0;
+         int lpsize = 0;
+         for (int k=0; k<nvars[p]; k++) {
+            int j = vars[p][k];
+            if (status[j] == VARIABLE && cmark[j] != ctag) {
+               cmark[j] = ctag;
+               lp[nlp++] = j;
+               lpsize += nv[j];
+            }
+         }
+         for (int k=0; k<nelems[p]; k++) {
+            int e = elems[p][k];
+            if (status[e] == ELEMENT) {
+               int[] le = lelem[e];
+               for (int m=0; m<le.length; m++) {
+                  int j = le[m];
+                  if (status[j] == VARIABLE && cmark[j] != ctag) {
+                     cmark[j] = ctag;
+                     lp[nlp++] = j;
+                     lpsize += nv[j];
+                  }
+               }
+               status[e] = ABSORBED;
+               lelem[e] = null;
+            }
+         }
+         status[p] = ELEMENT;
+         vars[p] = null;
+         elems[p] = null;
+         nvars[p] = 0;
+         nelems[p] = 0;
+
+         // compute w(e) = |Le \ Lp| for elements adjacent to Lp
+         wtag++;
+         for (int k=0; k<nlp; k++) {
+            int i = lp[k];
+            for (int m=0; m<nelems[i]; m++) {
+               int e = elems[i][m];
+               if (status[e] == ELEMENT) {
+                  if (wflag[e] != wtag) {
+                     wflag[e] = wtag;
+                     w[e] = lsize[e] - nv[i];
+                  }
+                  else {
+                     w[e] -= nv[i];
+                  }
+               }
+            }
+         }
+         // aggressive absorption of elements contained in Lp
+         for (int k=0; k<nlp; k++) {
+            int i = lp[k];
+            for (int m=0; m<nelems[i]; m++) {
+               int e = elems[i][m];
+               if (status[e] == ELEMENT && w[e] == 0) {
+                  status[e] = ABSORBED;
+                  lelem[e] = null;
+               }
+            }
+         }
+
+         // update adjacency and approximate degrees of the variables in Lp
+         for (int k=0; k<nlp; k++) {
+            int i = lp[k];
+            if (inList[i]) {
+               remove (i, degree[i], head, next, prev, inList);
+            }
+            int[] ei = elems[i];
+            int cnt = 0;
+            int dext = 0;
+            for (int m=0; m<nelems[i]; m++) {
+               int e = ei[m];
+               if (status[e] == ELEMENT) {
+                  ei[cnt++] = e;
+                  dext += w[e];
+               }
+            }
+            if (cnt == ei.length) {
+               ei = Arrays.copyOf (ei, 2*cnt+1);
+               elems[i] = ei;
+            }
+            ei[cnt++] = p;
+            nelems[i] = cnt;
+
+            int[] vi = vars[i];
+            cnt = 0;
+            int dvar = 0;
+            for (int m=0; m<nvars[i]; m++) {
+               int j = vi[m];
+               if (status[j] == VARIABLE && cmark[j] != ctag) {
+                  vi[cnt++] = j;
+                  dvar += nv[j];
+               }
+            }
+            nvars[i] = cnt;
+
+            int extp = lpsize - nv[i];
+            int deg = dvar + dext + extp;
+            deg = Math.min (deg, degree[i] + extp);
+            deg = Math.min (deg, nleft - nv[i]);
+            degree[i] = Math.max (deg, 0);
+
+            // mass elimination: i is adjacent only to Lp
+            massElim[i] = (nvars[i] == 0 && nelems[i] == 1 &&
+                           (cdelayed == null || !cdelayed[i]));
+         }
+
+         // eliminate mass-eliminated variables along with p
+         int cnt = 0;
+         for (int k=0; k<nlp; k++) {
+            int i = lp[k];
+            if (massElim[i]) {
+               massElim[i] = false;
+               order[norder++] = i;
+               nleft -= nv[i];
+               lpsize -= nv[i];
+               status[i] = ABSORBED;
+               vars[i] = null;
+               elems[i] = null;
+               nelems[i] = 0;
+               if (pending != null) {
+                  releaseDelayed (i, origVars, cdelayed, status, pending);
+               }
+            }
+            else {
+               lp[cnt++] = i;
+            }
+         }
+         nlp = cnt;
+         if (pending != null) {
+            releaseDelayed (p, origVars, cdelayed, status, pending);
+         }
+         lelem[p] = Arrays.copyOf (lp, nlp);
+         lsize[p] = lpsize;
+
+         for (int k=0; k<nlp; k++) {
+            int i = lp[k];
+            if (pending == null || !cdelayed[i] || pending[i] == 0) {
+               if (degree[i] > nleft - nv[i]) {
+                  degree[i] = Math.max (nleft - nv[i], 0);
+               }
+               mindeg = insert (i, degree[i], head, next, prev, inList, mindeg);
+            }
+         }
+      }
+
+      // dense nodes go last: non-delayed ones first
+      for (int c=0; c<nc; c++) {
+         if (isDense[c] && (cdelayed == null || !cdelayed[c])) {
+            order[norder++] = c;
+         }
+      }
+      if (cdelayed != null) {
+         for (int c=0; c<nc; c++) {
+            if (isDense[c] && cdelayed[c]) {
+               order[norder++] = c;
+            }
+         }
+      }
+
+      // expand supervariables
+      int k = 0;
+      for (int m=0; m<nc; m++) {
+         for (int i=firstMember[order[m]]; i!=-1; i=nextMember[i]) {
+            perm[k++] = i;
+         }
+      }
+      return perm;
+   }
+
+   private void releaseDelayed (
+      int c, int[][] origVars, boolean[] cdelayed, int[] status,
+      int[] pending) {
+      if (!cdelayed[c]) {
+         int[] list = origVars[c];
+         for (int k=0; k<list.length; k++) {
+            int d = list[k];
+            if (cdelayed[d] && status[d] == VARIABLE) {
+               pending[d]--;
+            }
+         }
+      }
+   }
+
+   private int insert (
+      int c, int deg, int[] head, int[] next, int[] prev,
+      boolean[] inList, int mindeg) {
+      next[c] = head[deg];
+      prev[c] = -1;
+      if (head[deg] != -1) {
+         prev[head[deg]] = c;
+      }
+      head[deg] = c;
+      inList[c] = true;
+      return Math.min (mindeg, deg);
+   }
+
+   private void remove (
+      int c, int deg, int[] head, int[] next, int[] prev, boolean[] inList) {
+      if (prev[c] != -1) {
+         next[prev[c]] = next[c];
+      }
+      else {
+         head[deg] = next[c];
+      }
+      if (next[c] != -1) {
+         prev[next[c]] = prev[c];
+      }
+      inList[c] = false;
+   }
+}
@@ -82,6 +82,9 @@ public class DantzigLCPSolver {
    protected double myTol;
    protected int myIterationLimit = 10;
    protected int myIterationCnt;
+   protected int myNumWarmStartBasic;
+   // relative tolerance for rejecting warm start basis variables
+   protected static final double WARM_START_TOL = 1e-10;
    protected boolean myComputeResidual = false;
    protected double myResidual = 0;
 
@@ -383,6 +386,44 @@ public class DantzigLCPSolver {
     * @return Status of the solution.
     */
    public Status solve (VectorNd z, MatrixNd M, VectorNd q, boolean[] zBasic) {
+      return solve (z, M, q, zBasic, /*warmStart=*/false);
+   }
+
+   /**
+    * Solves the LCP
+    * 
+    * <pre>
+    * w = M z + q
+    * </pre>
+    * 
+    * where M is SPSD, optionally using a "warm start" in which the solver
+    * begins with an initial guess for the basic z variables. This guess
+    * will typically be the basis found for a similar problem, such as the
+    * one solved at the previous step of a simulation, and if it is close to
+    * the final basis, then few if any pivots will be needed. Variables in
+    * the guess that would make the basis matrix singular, or whose initial
+    * values would be negative, are removed from the initial basis. The
+    * number of initial basic variables that were used can be queried
+    * afterward using {@link #getNumWarmStartBasic}.
+    * 
+    * @param z
+    * returns the solution for z
+    * @param M
+    * system matrix
+    * @param q
+    * system vector
+    * @param zBasic
+    * On output, identifies which z variables are basic in the solution. On
+    * input, if <code>warmStart</code> is <code>true</code>, identifies the
+    * z variables which should be initially basic. Must be
+    * non-<code>null</code> if <code>warmStart</code> is <code>true</code>.
+    * @param warmStart
+    * if <code>true</code>, use <code>zBasic</code> to determine the initial
+    * basis.
+    * @return Status of the solution.
+    */
+   public Status solve (
+      VectorNd z, MatrixNd M, VectorNd q, boolean[] zBasic, boolean warmStart) {
       if (M.rowSize() != M.colSize()) {
          throw new IllegalArgumentException ("Matrix is not square");
       }
@@ -398,6 +439,10 @@ public class DantzigLCPSolver {
       if (zBasic != null && zBasic.length < size) {
          throw new IllegalArgumentException ("zBasic has size less than z");
       }
+      if (warmStart && zBasic == null) {
+         throw new IllegalArgumentException (
+            "zBasic must be specified for a warm start");
+      }
       // allocate storage space
       myZBuf = z.getBuffer();
       setProblemSize (size);
@@ -416,7 +461,7 @@ public class DantzigLCPSolver {
          myPivotedToInitialIdxs[i] = i;
       }
       myNumZBasic = 0;
-      Status status = dosolve (size);
+      Status status = dosolve (size, warmStart ? zBasic : null);
       // z.set (myZBuf);
       if (zBasic != null) {
          for (int i = 0; i < size; i++) {
@@ -611,9 +656,74 @@ public class DantzigLCPSolver {
       return s;
    }
 
-   protected Status dosolve (int n) {
+   /**
+    * Returns the number of basic variables used to start the most recent
+    * solve. This will be 0 unless a warm start was requested.
+    *
+    * @return number of initial basic variables for the last solve
+    */
+   public int getNumWarmStartBasic() {
+      return myNumWarmStartBasic;
+   }
+
+   /**
+    * Sets the initial basis for a warm start. The variables identified by
+    * <code>zBasic</code> are added to the basis, skipping any whose
+    * addition would make the basis matrix singular. Then the basic values of
+    * z are computed, and variables with negative values are removed one at
+    * a time until all are non-negative. Finally, w is computed for the
+    * non-basic variables.
+    */
+   protected void setInitialBasis (boolean[] zBasic, int n) {
+      double[] qbuf = myQ.getBuffer();
+      double[] xbuf = myX.getBuffer();
+      double[] Mbuf = myM.getBuffer();
+      int mw = myM.getBufferWidth();
+      for (int i = 0; i < n; i++) {
+         // reject variables that would make the basis nearly singular
+         if (zBasic[i] && updateZBasis (i, WARM_START_TOL*Mbuf[i*mw+i])) {
+            myState[i] = Z_VAR;
+         }
+      }
+      while (myNumZBasic > 0) {
+         for (int ip = 0; ip < myNumZBasic; ip++) {
+            xbuf[ip] = -qbuf[myPivotedToInitialIdxs[ip]];
+         }
+         myCholesky.solve (myX, myX);
+         int s = -1;
+         double minz = 0;
+         for (int ip = 0; ip < myNumZBasic; ip++) {
+            if (xbuf[ip] < minz) {
+               s = myPivotedToInitialIdxs[ip];
+               minz = xbuf[ip];
+            }
+         }
+         if (s == -1) {
+            break;
+         }
+         updateZBasis (s);
+         myState[s] = W_VAR_LOWER;
+      }
+      for (int ip = 0; ip < myNumZBasic; ip++) {
+         int i = myPivotedToInitialIdxs[ip];
+         myZBuf[i] = xbuf[ip];
+         myWBuf[i] = 0;
+      }
+      for (int ip = myNumZBasic; ip < n; ip++) {
+         int i = myPivotedToInitialIdxs[ip];
+         double sum = qbuf[i];
+         for (int jp = 0; jp < myNumZBasic; jp++) {
+            sum += Mbuf[i * mw + myPivotedToInitialIdxs[jp]] * xbuf[jp];
+         }
+         myWBuf[i] = sum;
+      }
+      myNumWarmStartBasic = myNumZBasic;
+   }
+
+   protected Status dosolve (int n, boolean[] zBasicInit) {
       int maxIterations = myIterationLimit * n;
       myIterationCnt = 0;
+      myNumWarmStartBasic = 0;
 
       if (myPivotOK.length < mySize) {
          myPivotOK = new boolean[mySize];
@@ -631,6 +741,9 @@ public class DantzigLCPSolver {
          myWBuf[i] = qbuf[i];
          myZBuf[i] = 0;
       }
+      if (zBasicInit != null && myIncrementalSolve) {
+         setInitialBasis (zBasicInit, n);
+      }
       while (myIterationCnt < maxIterations) {
          int r = -1;
 
@@ -1245,6 +1358,17 @@ public class DantzigLCPSolver {
    }
 
    protected boolean updateZBasis (int s) {
+      return updateZBasis (s, 0);
+   }
+
+   /**
+    * Adds or removes variable s from the set of basic z variables, updating
+    * the Cholesky factorization of the basis matrix. When adding, the
+    * variable is rejected, and <code>false</code> is returned, if the
+    * square of the new diagonal entry of the factor would be less than
+    * <code>tol</code>.
+    */
+   protected boolean updateZBasis (int s, double tol) {
       double[] xbuf = myX.getBuffer();
       double[] qbuf = myQ.getBuffer();
       double[] Mbuf = myM.getBuffer();
@@ -1259,7 +1383,7 @@ public class DantzigLCPSolver {
          }
          xbuf[myNumZBasic] = Mbuf[mw * s + s];
          myX.setSize (myNumZBasic + 1);
-         if (!myCholesky.addRowAndColumn (myX, 0)) {
+         if (!myCholesky.addRowAndColumn (myX, tol)) {
             myX.setSize (myNumZBasic);
             return false;
          }
@@ -25,6 +25,9 @@ public class DantzigLCPSolverTest {
 
    private FunctionTimer timer = new FunctionTimer();
    private int pivotCnt;
+   // pivots accumulated by testWarmStart for cold and warm starts
+   private int myColdPivotCnt;
+   private int myWarmPivotCnt;
 
    private static double inf = Double.POSITIVE_INFINITY;
 
@@ -201,46 +204,104 @@ public class DantzigLCPSolverTest {
          throw new TestException ("solver returned " + status + ", expected "
          + expectedStatus);
       }
-      if (status == DantzigLCPSolver.Status.SOLVED) { // check the solution
-         TestException failException = null;
-         int n = z.size();
-         VectorNd w = new VectorNd (n);
-         w.mul (M, z);
-         w.add (q);
-         double mag = 0;
+      if (status == DantzigLCPSolver.Status.SOLVED) {
+         checkSolution (z, M, q, zBasic);
+      }
+   }
+
+   private void checkSolution (
+      VectorNd z, MatrixNd M, VectorNd q, boolean[] zBasic) {
+      TestException failException = null;
+      int n = z.size();
+      VectorNd w = new VectorNd (n);
+      w.mul (M, z);
+      w.add (q);
+      double mag = 0;
+      for (int i = 0; i < n; i++) {
+         mag = Math.max (mag, Math.abs (z.get(i)));
+         mag = Math.max (mag, Math.abs (w.get(i)));
+      }
+      double tol = DOUBLE_PREC * mag * 100000;
+
+      for (int i = 0; i < n; i++) {
+         if (z.get(i) < -tol || w.get(i) < -tol) {
+            failException =
+               new TestException ("negative values for z and/or w");
+         }
+         if (Math.abs (z.get(i) * w.get(i)) > tol) {
+            failException =
+               new TestException ("w and z are not complementary");
+         }
+         if (z.get(i) > tol && !zBasic[i]) {
+            failException =
+               new TestException ("non-zero value for non-basic z");
+         }
+      }
+      if (failException != null) {
+         System.out.println ("M=\n" + M.toString ("%12.8f"));
+         System.out.println ("q=\n" + q.toString ("%12.8f"));
+         System.out.println ("z=\n" + z.toString ("%12.8f"));
+         System.out.println ("w=\n" + w.toString ("%12.8f"));
+         System.out.print ("zBasic=");
          for (int i = 0; i < n; i++) {
-            mag = Math.max (mag, Math.abs (z.get(i)));
-            mag = Math.max (mag, Math.abs (w.get(i)));
+            System.out.print (zBasic[i] + " ");
          }
-         double tol = DOUBLE_PREC * mag * 100000;
+         System.out.println ("");
+         throw failException;
+      }
+   }
 
-         for (int i = 0; i < n; i++) {
-            if (z.get(i) < -tol || w.get(i) < -tol) {
-               failException =
-                  new TestException ("negative values for z and/or w");
-            }
-            if (Math.abs (z.get(i) * w.get(i)) > tol) {
-               failException =
-                  new TestException ("w and z are not complementary");
-            }
-            if (z.get(i) > tol && !zBasic[i]) {
-               failException =
-                  new TestException ("non-zero value for non-basic z");
-            }
+   /**
+    * Tests warm starting on a sequence of slowly varying problems, as would
+    * occur for resting contact in a simulation. The solution basis from
+    * each problem is used to start the next. The numbers of pivots
+    * required for cold and warm starts are added to myColdPivotCnt and
+    * myWarmPivotCnt. Successive values of q differ by dq.
+    */
+   public void testWarmStart (
+      MatrixNd M, VectorNd q0, VectorNd dq, int nsteps) {
+      int size = q0.size();
+      VectorNd q = new VectorNd (size);
+      VectorNd z = new VectorNd (size);
+      VectorNd zchk = new VectorNd (size);
+      boolean[] zBasic = new boolean[size];
+      boolean[] zBasicChk = new boolean[size];
+      q.set (q0);
+      for (int k=0; k<nsteps; k++) {
+         DantzigLCPSolver.Status status =
+            mySolver.solve (zchk, M, q, zBasicChk);
+         myColdPivotCnt += mySolver.getIterationCount();
+         if (status != DantzigLCPSolver.Status.SOLVED) {
+            throw new TestException ("cold start returned " + status);
          }
-         if (failException != null) {
-            System.out.println ("M=\n" + M.toString ("%12.8f"));
-            System.out.println ("q=\n" + q.toString ("%12.8f"));
-            System.out.println ("z=\n" + z.toString ("%12.8f"));
-            System.out.println ("w=\n" + w.toString ("%12.8f"));
-            System.out.print ("zBasic=");
-            for (int i = 0; i < n; i++) {
-               System.out.print (zBasic[i] + " ");
-            }
-            System.out.println ("");
-            throw failException;
+         // first step uses an empty initial basis
+         status = mySolver.solve (z, M, q, zBasic, /*warmStart=*/true);
+         myWarmPivotCnt += mySolver.getIterationCount();
+         if (status != DantzigLCPSolver.Status.SOLVED) {
+            throw new TestException ("warm start returned " + status);
          }
+         checkSolution (z, M, q, zBasic);
+         q.add (dq);
+      }
+      // warm start using the final basis should require no pivots
+      mySolver.solve (z, M, q, zBasicChk);
+      mySolver.solve (z, M, q, zBasicChk, /*warmStart=*/true);
+      if (mySolver.getIterationCount() != 0) {
+         throw new TestException (
+            "warm start from solution basis required " +
+            mySolver.getIterationCount() + " pivots");
+      }
+      checkSolution (z, M, q, zBasicChk);
+
+      // warm start from a random initial basis should still be correct
+      for (int i=0; i<size; i++) {
+         zBasic[i] = myRandom.nextBoolean();
+      }
+      if (mySolver.solve (z, M, q, zBasic, /*warmStart=*/true) !=
+          DantzigLCPSolver.Status.SOLVED) {
+         throw new TestException ("warm start from random basis failed");
       }
+      checkSolution (z, M, q, zBasic);
    }
 
    double[] Mvals0 =
@@ -1014,6 +1075,37 @@ public class DantzigLCPSolverTest {
          // "SPSD "+i+", pivots=" + mySolver.getIterationCount());
       }
 
+      // use a fixed set of warm start problems, independent of the tests
+      // above, and compare the total pivot counts over the whole set, since
+      // warm starts may occasionally need more pivots for a single problem
+      myRandom.setSeed (0x5678);
+      myColdPivotCnt = 0;
+      myWarmPivotCnt = 0;
+      VectorNd dq = new VectorNd (size);
+      for (int i = 0; i < 100; i++) {
+         M.setRandom();
+         x.setSize (size);
+         x.setRandom();
+         q.mul (M, x);
+         M.mulTransposeRight (M, M);
+         dq.setRandom (-0.01, 0.01);
+         testWarmStart (M, q, dq, 10);
+         // for the SPSD case, q and dq must be in the range of M
+         N.setRandom();
+         x.setSize (size - size / 2);
+         x.setRandom();
+         q.mul (N, x);
+         M.mulTransposeRight (N, N);
+         x.setRandom (-0.01, 0.01);
+         dq.mul (N, x);
+         testWarmStart (M, q, dq, 10);
+      }
+      if (myWarmPivotCnt > myColdPivotCnt) {
+         throw new TestException (
+            "warm starts required " + myWarmPivotCnt +
+            " pivots, cold starts " + myColdPivotCnt);
+      }
+
       M.setSize (15, 15);
       q.setSize (15);
       VectorNd lo0, hi0, lo1, hi1;
@@ -6,6 +6,7 @@
  */
 package maspack.solvers;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.*;
 import maspack.matrix.Matrix.Partition;
 import maspack.solvers.*;
@@ -15,6 +16,8 @@ import maspack.util.*;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class KKTSolver {
    private static boolean myUseUmfpack = false;
@@ -33,6 +36,7 @@ public class KKTSolver {
    SparseBlockMatrix myGT;
    UmfpackSolver myUmfpack;
    PardisoSolver myPardiso;
+   SparseLDLTSolver mySparseLDLT;
    DirectSolver myMatrixSolver;
    boolean myIndices1Based = false;
    boolean myLastSolveWasIterative = false;
@@ -49,6 +53,9 @@ public class KKTSolver {
    double[] myUmfpackVals = new double[0];
 
    int[] myLocalOffs = new int[0];
+   // persistent CRS views used to extract the values of M and GT
+   CRSView myMView;
+   CRSView myGTView;
    double[] myVals = new double[0];
 
    VectorNd myMGx = new VectorNd();
@@ -65,6 +72,66 @@ public class KKTSolver {
    VectorNd myHi = new VectorNd();
    VectorNd myW = new VectorNd();
 
+   /**
+    * Default number of sparsity structures whose symbolic analyses are
+    * cached by each KKTSolver.
+    */
+   public static final int DEFAULT_ANALYSIS_CACHE_SIZE = 4;
+
+   int myAnalysisCacheSize = DEFAULT_ANALYSIS_CACHE_SIZE;
+   // number of threads used by the CRS views to extract values
+   int myNumCRSThreads = ParallelLoop.getDefaultNumThreads();
+   LinkedHashMap<Long,AnalysisCacheEntry> myAnalysisCache;
+   // cache entry whose structure is currently analyzed by Pardiso
+   AnalysisCacheEntry myPardisoEntry;
+   int myNumAnalysisCacheHits = 0;
+
+   // if true, unilateral solves are warm started using the incoming impulses
+   boolean myWarmStartLCP = false;
+
+   /**
+    * Stores the CRS structure of a previously analyzed KKT system, along
+    * with its symbolic analysis when this is available.
+    */
+   private static class AnalysisCacheEntry {
+      int mySizeM;
+      int myNumG;
+      int myNumVals;
+      int myTypeM;
+      boolean myMDiagonal;
+      int[] myRowOffs;
+      int[] myColIdxs;
+      int[] myZeroDiagonals;
+      SparseLDLTSolver.Analysis myAnalysis;
+
+      boolean matches (
+         int sizeM, int numG, int numVals, int typeM, boolean mdiagonal) {
+         return (sizeM == mySizeM && numG == myNumG && numVals == myNumVals &&
+                 typeM == myTypeM && mdiagonal == myMDiagonal);
+      }
+
+      /**
+       * Checks whether the stored CRS structure equals the leading part of
+       * the supplied row offsets and column indices.
+       */
+      boolean structureEquals (int[] rowOffs, int[] colIdxs) {
+         return (prefixEquals (myRowOffs, rowOffs) &&
+                 prefixEquals (myColIdxs, colIdxs));
+      }
+
+      private static boolean prefixEquals (int[] stored, int[] current) {
+         if (current.length < stored.length) {
+            return false;
+         }
+         for (int i=0; i<stored.length; i++) {
+            if (stored[i] != current[i]) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
    private enum State {
       NULL, ANALYZED, FACTORED
    };
@@ -94,17 +161,251 @@ public class KKTSolver {
       NUMERIC_ERROR
    };
 
+   /**
+    * Identifies the direct solver used to factor the KKT system.
+    */
+   public enum SolverType {
+      /**
+       * The native Pardiso solver.
+       */
+      PARDISO,
+      /**
+       * The pure Java supernodal solver {@link SparseLDLTSolver}.
+       */
+      SPARSE_LDLT
+   };
+
+   /**
+    * Creates a new KKTSolver that uses Pardiso if it is available, and
+    * otherwise uses {@link SparseLDLTSolver}.
+    */
    public KKTSolver() {
+      this (PardisoSolver.isAvailable() ?
+            SolverType.PARDISO : SolverType.SPARSE_LDLT);
+   }
+
+   /**
+    * Creates a new KKTSolver that uses a specified type of direct solver.
+    *
+    * @param type direct solver to use
+    */
+   public KKTSolver (SolverType type) {
       if (myUseUmfpack) {
          myUmfpack = new UmfpackSolver();
          myMatrixSolver = myUmfpack;
       }
+      else if (type == SolverType.SPARSE_LDLT) {
+         mySparseLDLT = new SparseLDLTSolver();
+         myMatrixSolver = mySparseLDLT;
+      }
       else {
          myPardiso = new PardisoSolver();
          myMatrixSolver = myPardiso;
       }
    }
 
+   /**
+    * Returns the type of direct solver used by this KKTSolver.
+    *
+    * @return direct solver type
+    */
+   public SolverType getSolverType() {
+      return mySparseLDLT != null ? SolverType.SPARSE_LDLT : SolverType.PARDISO;
+   }
+
+   /**
+    * Sets the maximum number of sparsity structures whose symbolic analyses
+    * are cached by this solver. When {@link #analyze analyze} is called for
+    * a KKT system whose structure matches a cached one, the cached analysis
+    * is reused instead of being recomputed. Cached structures are looked up
+    * using {@link SparseBlockMatrix#getStructureSignature(int,int)}, and a
+    * match is then confirmed by comparing the CRS row offsets and column
+    * indices, so that signature collisions cannot cause the wrong analysis
+    * to be used.
+    * This is useful when the set of constraints alternates between a few
+    * configurations, as when contacts repeatedly break and reform. The
+    * least recently used structures are discarded first. Setting the size
+    * to 0 disables caching. The default value is {@link
+    * #DEFAULT_ANALYSIS_CACHE_SIZE}.
+    *
+    * <p>Since Pardiso retains only one symbolic analysis at a time, a
+    * Pardiso-based solver reuses only the analysis of the most recent
+    * structure.
+    *
+    * @param size maximum number of cached structures
+    */
+   public void setAnalysisCacheSize (int size) {
+      if (size < 0) {
+         throw new IllegalArgumentException ("size must be non-negative");
+      }
+      myAnalysisCacheSize = size;
+      if (myAnalysisCache != null) {
+         if (size == 0) {
+            myAnalysisCache = null;
+         }
+         else {
+            while (myAnalysisCache.size() > size) {
+               Long eldest = myAnalysisCache.keySet().iterator().next();
+               myAnalysisCache.remove (eldest);
+            }
+         }
+      }
+   }
+
+   /**
+    * Sets the number of threads used to extract the values of large
+    * sparse KKT matrices into compressed row storage before they are
+    * factored. Values are only extracted in parallel for matrices with many
+    * block rows. The default value is the number of available processors.
+    *
+    * @param num number of threads
+    * @see CRSView#setNumThreads
+    */
+   public void setNumCRSThreads (int num) {
+      num = Math.max (1, num);
+      if (num != myNumCRSThreads) {
+         myNumCRSThreads = num;
+         if (myMView != null) {
+            myMView.setNumThreads (num);
+         }
+         if (myGTView != null) {
+            myGTView.setNumThreads (num);
+         }
+      }
+   }
+
+   /**
+    * Returns the number of threads used to extract the values of large
+    * sparse KKT matrices into compressed row storage.
+    *
+    * @return number of threads
+    * @see #setNumCRSThreads
+    */
+   public int getNumCRSThreads() {
+      return myNumCRSThreads;
+   }
+
+   /**
+    * Returns the maximum number of sparsity structures whose symbolic
+    * analyses are cached by this solver.
+    *
+    * @return maximum number of cached structures
+    * @see #setAnalysisCacheSize
+    */
+   public int getAnalysisCacheSize() {
+      return myAnalysisCacheSize;
+   }
+
+   /**
+    * Returns the number of times that {@link #analyze analyze} has been
+    * able to reuse a cached analysis.
+    *
+    * @return number of analysis cache hits
+    */
+   public int getNumAnalysisCacheHits() {
+      return myNumAnalysisCacheHits;
+   }
+
+   /**
+    * Enables warm starting for solves involving unilateral constraints.
+    * When enabled, the unilateral impulses <code>the</code> supplied to
+    * {@link #solve(VectorNd,VectorNd,VectorNd,VectorNd,VectorNd,VectorNd)
+    * solve} are used to form an initial guess of which constraints are
+    * active: those whose impulses are positive. Supplying the impulses from
+    * the previous step of a simulation, which will be close to the
+    * solution when contacts persist, can greatly reduce the number of
+    * pivots required by the LCP solver.
+    *
+    * @param enable if <code>true</code>, enables warm starting
+    */
+   public void setWarmStartLCP (boolean enable) {
+      myWarmStartLCP = enable;
+   }
+
+   /**
+    * Returns whether warm starting is enabled for solves involving
+    * unilateral constraints.
+    *
+    * @return <code>true</code> if warm starting is enabled
+    * @see #setWarmStartLCP
+    */
+   public boolean getWarmStartLCP() {
+      return myWarmStartLCP;
+   }
+
+   /**
+    * Returns the number of pivots required by the LCP solver for the most
+    * recent solve involving unilateral constraints.
+    *
+    * @return number of LCP pivots for the last solve
+    */
+   public int getLCPIterationCount() {
+      return myDantzig.getIterationCount();
+   }
+
+   /**
+    * Returns the number of unilateral constraints that were used as the
+    * initial active set for the most recent solve involving unilateral
+    * constraints. This will be 0 unless warm starting is enabled.
+    *
+    * @return number of initially active constraints for the last solve
+    * @see #setWarmStartLCP
+    */
+   public int getLCPWarmStartSize() {
+      return myDantzig.getNumWarmStartBasic();
+   }
+
+   private LinkedHashMap<Long,AnalysisCacheEntry> getAnalysisCache() {
+      if (myAnalysisCache == null) {
+         // access-ordered map, so that the eldest entry is the least
+         // recently used
+         myAnalysisCache =
+            new LinkedHashMap<Long,AnalysisCacheEntry> (16, 0.75f, true) {
+               private static final long serialVersionUID = 1L;
+
+               protected boolean removeEldestEntry (
+                  Map.Entry<Long,AnalysisCacheEntry> eldest) {
+                  return size() > myAnalysisCacheSize;
+               }
+            };
+      }
+      return myAnalysisCache;
+   }
+
+   long computeStructureSignature (
+      Object M, int sizeM, SparseBlockMatrix GT) {
+      long sig = sizeM;
+      if (M instanceof SparseBlockMatrix) {
+         sig = ((SparseBlockMatrix)M).getStructureSignature (sizeM, sizeM);
+      }
+      if (GT != null) {
+         sig = 31*sig + GT.getStructureSignature (sizeM, GT.colSize());
+      }
+      return sig;
+   }
+
+   /**
+    * Finds the rows of the current CRS structure whose diagonal values are
+    * zero. These affect the symbolic analysis, since variables with zero
+    * diagonals are ordered after their neighbors.
+    */
+   private int[] findZeroDiagonals (int size) {
+      int[] rows = new int[size];
+      int num = 0;
+      int off = (myIndices1Based ? 1 : 0);
+      for (int i=0; i<size; i++) {
+         for (int k=myRowOffs[i]-off; k<myRowOffs[i+1]-off; k++) {
+            if (myColIdxs[k]-off == i) {
+               if (myVals[k] == 0) {
+                  rows[num++] = i;
+               }
+               break;
+            }
+         }
+      }
+      return Arrays.copyOf (rows, num);
+   }
+
    /**
     * Performs symbolic analysis on the equality portion of the KKT system
     * defined by M and G. This step must be called before any calls are made to
@@ -160,6 +461,99 @@ public class KKTSolver {
       myNumG = numG;
       myNumVals = numVals;
 
+      // see if the structure matches one that was previously analyzed
+      AnalysisCacheEntry entry = null;
+      long sig = 0;
+      boolean useCache = (myAnalysisCacheSize > 0 && !myUseUmfpack);
+      if (useCache) {
+         sig = computeStructureSignature (M, sizeM, GT);
+         entry = getAnalysisCache().get (sig);
+         if (entry != null &&
+             entry.matches (sizeM, numG, numVals, typeM, M instanceof VectorNd)) {
+            // signatures can collide, so check the actual CRS structure
+            // before reusing the analysis
+            computeCRSIndices (M, sizeM, numVals, GT);
+            if (!entry.structureEquals (myRowOffs, myColIdxs)) {
+               entry = null;
+            }
+            else {
+               getCRSValues (M, sizeM, numVals, GT, Rg);
+               if (!Arrays.equals (
+                      findZeroDiagonals (sizeMG), entry.myZeroDiagonals)) {
+                  // zero diagonals affect the analysis, so we can't reuse it
+                  entry = null;
+               }
+            }
+         }
+         else {
+            entry = null;
+         }
+      }
+      if (entry != null) {
+         myNumAnalysisCacheHits++;
+         if (mySparseLDLT != null) {
+            mySparseLDLT.setAnalysis (entry.myAnalysis);
+         }
+         else if (entry != myPardisoEntry) {
+            analyzePardiso (sizeMG);
+            myPardisoEntry = entry;
+         }
+      }
+      else {
+         analyzeCRSStructure (M, sizeM, numVals, GT, Rg);
+         if (useCache) {
+            entry = new AnalysisCacheEntry();
+            entry.mySizeM = sizeM;
+            entry.myNumG = numG;
+            entry.myNumVals = numVals;
+            entry.myTypeM = typeM;
+            entry.myMDiagonal = (M instanceof VectorNd);
+            entry.myRowOffs = Arrays.copyOf (myRowOffs, sizeMG+1);
+            entry.myColIdxs = Arrays.copyOf (myColIdxs, numVals);
+            entry.myZeroDiagonals = findZeroDiagonals (sizeMG);
+            if (mySparseLDLT != null) {
+               entry.myAnalysis = mySparseLDLT.getAnalysis();
+            }
+            getAnalysisCache().put (sig, entry);
+         }
+         myPardisoEntry = entry;
+      }
+      myMDiagonalP = (M instanceof VectorNd);
+      myDirectCnt = 0;
+      myDirectTimeMsec = 0;
+      myIterativeCnt = 0;
+      myIterativeTimeMsec = 0;
+      myState = State.ANALYZED;
+   }
+
+   /**
+    * Computes the 1-based CRS row offsets and column indices for the KKT
+    * system, as used by Pardiso and SparseLDLTSolver.
+    */
+   private void computeCRSIndices (
+      Object M, int sizeM, int numVals, SparseBlockMatrix GT) {
+
+      int sizeMG = sizeM + myNumG;
+      myIndices1Based = false;
+      getCRSRowOffsets (M, sizeM, GT);
+      getCRSIndices (M, sizeM, numVals, GT);
+      for (int i = 0; i < numVals; i++) {
+         myColIdxs[i]++;
+      }
+      for (int i = 0; i < sizeMG+1; i++) {
+         myRowOffs[i]++;
+      }
+      myIndices1Based = true;
+   }
+
+   /**
+    * Computes the CRS structure for the KKT system and performs a symbolic
+    * analysis on it.
+    */
+   private void analyzeCRSStructure (
+      Object M, int sizeM, int numVals, SparseBlockMatrix GT, VectorNd Rg) {
+
+      int sizeMG = sizeM + myNumG;
       // At this point, all indices are 0-based, and so we set myIndices1Based
       // false so that getCRSIndices and getCRSValues will work properly. If we
       // are using Pardiso, then the indices will incremented later and
@@ -189,27 +583,34 @@ public class KKTSolver {
             myRowOffs[i]++;
          }
          myIndices1Based = true;
-         if ((myTypeM & Matrix.SYMMETRIC) != 0) {
-            // even if myTypeM is SPD, the KKT system won't be, so
-            // we need a symmetric solve regardless
-            myPardiso.analyze (
-               myVals, myColIdxs, myRowOffs, sizeMG, Matrix.SYMMETRIC);
+         if (mySparseLDLT != null) {
+            // SparseLDLTSolver uses the same conventions as Pardiso
+            mySparseLDLT.analyze (
+               myVals, myColIdxs, myRowOffs, sizeMG,
+               (myTypeM & Matrix.SYMMETRIC) != 0 ?
+               Matrix.SYMMETRIC : Matrix.INDEFINITE);
          }
          else {
-            myPardiso.analyze (
-               myVals, myColIdxs, myRowOffs, sizeMG, Matrix.INDEFINITE);
-         }
-         if (myPardiso.getState() == PardisoSolver.UNSET) {
-            throw new NumericalException (
-               "Pardiso: unable to analyze matrix: "+myPardiso.getErrorMessage());
+            analyzePardiso (sizeMG);
          }
       }
-      myMDiagonalP = (M instanceof VectorNd);
-      myDirectCnt = 0;
-      myDirectTimeMsec = 0;
-      myIterativeCnt = 0;
-      myIterativeTimeMsec = 0;
-      myState = State.ANALYZED;
+   }
+
+   private void analyzePardiso (int sizeMG) {
+      if ((myTypeM & Matrix.SYMMETRIC) != 0) {
+         // even if myTypeM is SPD, the KKT system won't be, so
+         // we need a symmetric solve regardless
+         myPardiso.analyze (
+            myVals, myColIdxs, myRowOffs, sizeMG, Matrix.SYMMETRIC);
+      }
+      else {
+         myPardiso.analyze (
+            myVals, myColIdxs, myRowOffs, sizeMG, Matrix.INDEFINITE);
+      }
+      if (myPardiso.getState() == PardisoSolver.UNSET) {
+         throw new NumericalException (
+            "Pardiso: unable to analyze matrix: "+myPardiso.getErrorMessage());
+      }
    }
 
    private void getCRSRowOffsets (Object M, int sizeM, SparseBlockMatrix GT) {
@@ -297,6 +698,25 @@ public class KKTSolver {
       }
    }
 
+   private CRSView getMView (SparseBlockMatrix M, int sizeM) {
+      if (myMView == null || myMView.getMatrix() != M ||
+          myMView.rowSize() != sizeM ||
+          myMView.getPartition() != myPartitionM) {
+         myMView = new CRSView (M, myPartitionM, sizeM, sizeM);
+         myMView.setNumThreads (myNumCRSThreads);
+      }
+      return myMView;
+   }
+
+   private CRSView getGTView (SparseBlockMatrix GT, int sizeM) {
+      if (myGTView == null || myGTView.getMatrix() != GT ||
+          myGTView.rowSize() != sizeM || myGTView.colSize() != GT.colSize()) {
+         myGTView = new CRSView (GT, Partition.Full, sizeM, GT.colSize());
+         myGTView.setNumThreads (myNumCRSThreads);
+      }
+      return myGTView;
+   }
+
    private void getCRSValues (
       Object M, int sizeM, int numVals, SparseBlockMatrix GT, VectorNd Rg) {
       for (int i = 0; i < sizeM; i++) {
@@ -307,8 +727,13 @@ public class KKTSolver {
          }
       }
       if (M instanceof SparseBlockMatrix) {
-         ((SparseBlockMatrix)M).getBlockCRSValues (
-            myVals, myLocalOffs, myPartitionM, sizeM, sizeM);
+         CRSView view = getMView ((SparseBlockMatrix)M, sizeM);
+         view.updateValues (myVals, myLocalOffs);
+         // advance offsets past the values for M
+         int[] rowOffs = view.getRowOffsets();
+         for (int i = 0; i < sizeM; i++) {
+            myLocalOffs[i] += (rowOffs[i+1] - rowOffs[i]);
+         }
       }
       else {
          double[] diag = ((VectorNd)M).getBuffer();
@@ -333,7 +758,7 @@ public class KKTSolver {
       // }
       if (GT != null) {
          int numG = GT.colSize();
-         GT.getBlockCRSValues (myVals, myLocalOffs, Partition.Full, sizeM, numG);
+         getGTView (GT, sizeM).updateValues (myVals, myLocalOffs);
          // now do the lower block(s). Reset localOffs to the cober rows sizeM
          // to sizeM+numG
          for (int i=0; i<numG; i++) {
@@ -696,7 +1121,14 @@ public class KKTSolver {
             xbuf[i + mySizeM] = bbuf[i];
          }
 
-         iterStatus = myPardiso.iterativeSolve (myVals, ybuf, xbuf, tolExp);
+         if (mySparseLDLT != null) {
+            iterStatus =
+               mySparseLDLT.iterativeSolve (myVals, ybuf, xbuf, tolExp);
+         }
+         else {
+            iterStatus =
+               myPardiso.iterativeSolve (myVals, ybuf, xbuf, tolExp);
+         }
 
          if (iterStatus > 0) {
             bbuf = vel.getBuffer();
@@ -820,16 +1252,18 @@ public class KKTSolver {
       for (int i = 0; i < myNumN; i++) {
          qbuf[i] -= bn.get(i);
       }
-      // don't currently need this:
+      // if warm starting, use the incoming impulses to determine the
+      // initial basis
+      double[] thebuf = the.getBuffer();
       for (int i = 0; i < myQ.size(); i++) {
-         myZBasic[i] = false;
+         myZBasic[i] = (myWarmStartLCP && thebuf[i] > 0);
       }
       // System.out.println ("LCP M=[\n" + myLcpM + "]");
       // System.out.println ("Q=" + myQ);
 
       myDantzig.setComputeResidual (true);
       DantzigLCPSolver.Status status =
-         myDantzig.solve (myZ, myLcpM, myQ, myZBasic);
+         myDantzig.solve (myZ, myLcpM, myQ, myZBasic, myWarmStartLCP);
       myDantzig.setComputeResidual (false);
       // System.out.println ("status=" + status + " res=" + myDantzig.getResidual());
       // System.out.println ("M=\n" + myLcpM);
@@ -1284,11 +1718,16 @@ public class KKTSolver {
     */
    public void solveMG (VectorNd x, VectorNd b) {
       myMatrixSolver.solve (x, b);
-      if (computeResidualMG) {
-         double res = 
-            myPardiso.residual (
+      if (computeResidualMG && (mySparseLDLT != null || myPardiso != null)) {
+         double res;
+         if (mySparseLDLT != null) {
+            res = mySparseLDLT.residual (x.getBuffer(), b.getBuffer());
+         }
+         else {
+            res = myPardiso.residual (
                myRowOffs, myColIdxs, myVals, mySizeM+myNumG, 
                x.getBuffer(), b.getBuffer(),(myTypeM & Matrix.SYMMETRIC) != 0);
+         }
          System.out.println ("solveRes=" + res + " size="+(mySizeM+myNumG));
       }
       // negate lam:
@@ -1356,6 +1795,15 @@ public class KKTSolver {
                "Umfpack: Matrix is near singular, solve could fail");
          }
       }
+      else if (mySparseLDLT != null) {
+         mySparseLDLT.factor (myVals);
+         if (mySparseLDLT.getState() != SparseLDLTSolver.FACTORED) {
+            throw new NumericalException (
+               "SparseLDLT: unable to factor matrix: size="+(mySizeM+myNumG)+
+               ", nnz=" + myNumVals +
+               ", error=" + mySparseLDLT.getErrorMessage());
+         }
+      }
       else {
          myPardiso.factor (myVals);
          if (myPardiso.getState() != PardisoSolver.FACTORED) {
@@ -1370,9 +1818,33 @@ public class KKTSolver {
    }
 
    public int getNumNonZerosInFactors() {
+      if (mySparseLDLT != null) {
+         return mySparseLDLT.getNumNonZerosInFactors();
+      }
       return myPardiso.getNumNonZerosInFactors();
    }
 
+   /**
+    * Returns the memory (in kbytes) required for the most recent
+    * factorization and subsequent solves. For Pardiso, this is the value
+    * returned by {@link PardisoSolver#getFactorSolveMemoryUsage}. For the
+    * sparse LDL^T solver, it is estimated from the number of non-zeros in
+    * the factor, each of which requires a value and a row index.
+    *
+    * @return factor and solve memory usage, or -1 if unknown
+    */
+   public int getFactorSolveMemoryUsage() {
+      if (mySparseLDLT != null) {
+         return (int)(12L*mySparseLDLT.getNumNonZerosInFactors()/1024);
+      }
+      else if (myPardiso != null) {
+         return myPardiso.getFactorSolveMemoryUsage();
+      }
+      else {
+         return -1;
+      }
+   }
+
    public boolean lastSolveWasIterative() {
       return myLastSolveWasIterative;
    }
@@ -1382,8 +1854,19 @@ public class KKTSolver {
          myMatrixSolver.dispose();
          myMatrixSolver = null;
          myPardiso = null;
+         mySparseLDLT = null;
          myUmfpack = null;
       }
+      myAnalysisCache = null;
+      myPardisoEntry = null;
+      if (myMView != null) {
+         myMView.dispose();
+         myMView = null;
+      }
+      if (myGTView != null) {
+         myGTView.dispose();
+         myGTView = null;
+      }
    }
 
    public void finalize() {
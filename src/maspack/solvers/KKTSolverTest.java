@@ -109,6 +109,143 @@ public class KKTSolverTest {
          M, 6, GT, NT, Rg, Rn, bm, bg, bn, vel, lam, the, Matrix.INDEFINITE);
    }
 
+   private SparseBlockMatrix createConstraintMatrix (
+      int numBlks, int[] blkRows) {
+      SparseBlockMatrix GT = new SparseBlockMatrix();
+      for (int i=0; i<numBlks; i++) {
+         GT.addRow (3);
+      }
+      for (int bj=0; bj<blkRows.length; bj++) {
+         MatrixNdBlock blk = new MatrixNdBlock (3, 1);
+         blk.setRandom();
+         GT.addBlock (blkRows[bj], bj, blk);
+      }
+      return GT;
+   }
+
+   /**
+    * Checks that the analysis cache is used when constraint structures
+    * recur, and that the resulting solutions are still correct.
+    */
+   public void testAnalysisCache() {
+      int numBlks = 6;
+      int sizeM = 3*numBlks;
+      SparseBlockMatrix M = createAnalysisCacheMatrix (numBlks);
+      SparseBlockMatrix[] GTs = new SparseBlockMatrix[] {
+         createConstraintMatrix (numBlks, new int[] { 0, 2, 5 }),
+         createConstraintMatrix (numBlks, new int[] { 1, 3 }),
+         createConstraintMatrix (numBlks, new int[] { 0, 2, 5 }),
+         createConstraintMatrix (numBlks, new int[] { 1, 3 }),
+         createConstraintMatrix (numBlks, new int[] { 1, 4 }),
+      };
+      if (GTs[0].getStructureSignature() != GTs[2].getStructureSignature()) {
+         throw new TestException (
+            "Matrices with identical structure have different signatures");
+      }
+      if (GTs[1].getStructureSignature() == GTs[4].getStructureSignature()) {
+         throw new TestException (
+            "Matrices with different structures have the same signature");
+      }
+      KKTSolver solver = new KKTSolver();
+      for (int k=0; k<GTs.length; k++) {
+         solveAndCheck (solver, M, sizeM, GTs[k]);
+      }
+      if (solver.getNumAnalysisCacheHits() != 2) {
+         throw new TestException (
+            "Expected 2 analysis cache hits, got " +
+            solver.getNumAnalysisCacheHits());
+      }
+   }
+
+   private SparseBlockMatrix createAnalysisCacheMatrix (int numBlks) {
+      SparseBlockMatrix M = new SparseBlockMatrix();
+      for (int bi=0; bi<numBlks; bi++) {
+         for (int bj=Math.max(0,bi-1); bj<=Math.min(numBlks-1,bi+1); bj++) {
+            Matrix3x3Block blk = new Matrix3x3Block();
+            blk.setRandom();
+            if (bi == bj) {
+               blk.mulTranspose (blk);
+               blk.m00 += 10;
+               blk.m11 += 10;
+               blk.m22 += 10;
+            }
+            M.addBlock (bi, bj, blk);
+         }
+      }
+      M.setSymmetric();
+      return M;
+   }
+
+   /**
+    * Analyzes, factors and solves a KKT system with a given solver, so that
+    * the solver's analysis cache is exercised, and checks the result.
+    */
+   private void solveAndCheck (
+      KKTSolver solver, SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT) {
+      int numG = GT.colSize();
+      VectorNd Rg = new VectorNd (numG);
+      VectorNd bm = new VectorNd (sizeM);
+      VectorNd bg = new VectorNd (numG);
+      VectorNd vel = new VectorNd (sizeM);
+      VectorNd lam = new VectorNd (numG);
+      bm.setRandom();
+      bg.setRandom();
+      solver.analyze (M, sizeM, GT, Rg, Matrix.SYMMETRIC);
+      solver.factor (M, sizeM, GT, Rg);
+      Status status = solver.solve (vel, lam, bm, bg);
+      if (status != Status.SOLVED) {
+         throw new TestException (
+            "Could not solve system, status " + status);
+      }
+      VectorNd bmCheck = new VectorNd (sizeM);
+      if (checkSolve (
+             M, sizeM, GT, null, vel, lam, null, bm, bmCheck) > 1e-8) {
+         throw new TestException ("bm=" + bm.toString ("%8.3f")
+         + ", expected\n   " + bmCheck.toString ("%8.3f"));
+      }
+      checkComplementarity (
+         GT, null, null, Rg, null, bg, null, null, null,
+         vel, lam, null, null);
+   }
+
+   /**
+    * Checks that a cached analysis is not reused when two different
+    * structures of the same size have the same signature.
+    */
+   public void testAnalysisCacheCollision() {
+      int numBlks = 6;
+      int sizeM = 3*numBlks;
+      SparseBlockMatrix M = createAnalysisCacheMatrix (numBlks);
+      // solver for which every structure has the same signature
+      KKTSolver solver = new KKTSolver() {
+            long computeStructureSignature (
+               Object M, int sizeM, SparseBlockMatrix GT) {
+               return 0;
+            }
+         };
+      SparseBlockMatrix[] GTs = new SparseBlockMatrix[] {
+         createConstraintMatrix (numBlks, new int[] { 1, 3 }),
+         createConstraintMatrix (numBlks, new int[] { 1, 4 }),
+         createConstraintMatrix (numBlks, new int[] { 0, 5 }),
+      };
+      for (int k=0; k<GTs.length; k++) {
+         solveAndCheck (solver, M, sizeM, GTs[k]);
+      }
+      if (solver.getNumAnalysisCacheHits() != 0) {
+         throw new TestException (
+            "Expected no analysis cache hits, got " +
+            solver.getNumAnalysisCacheHits());
+      }
+      // a genuine repeat of the last structure should still be a hit
+      solveAndCheck (
+         solver, M, sizeM, createConstraintMatrix (numBlks, new int[] { 0, 5 }));
+      if (solver.getNumAnalysisCacheHits() != 1) {
+         throw new TestException (
+            "Expected 1 analysis cache hit, got " +
+            solver.getNumAnalysisCacheHits());
+      }
+   }
+
    private void solveAndCheck (
       Object M, int sizeM, SparseBlockMatrix GT, SparseBlockMatrix NT,
       VectorNd Rg, VectorNd Rn, VectorNd bm, VectorNd bg, VectorNd bn,
@@ -578,6 +715,8 @@ public class KKTSolverTest {
          //tester.test();
          //tester.testFromFile ("blockCollide3.txt");
          tester.testFromFile ("MLCPtest.txt");
+         tester.testAnalysisCache();
+         tester.testAnalysisCacheCollision();
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -369,6 +369,8 @@ public class PardisoSolver implements DirectSolver {
    private int myType;
 
    private Matrix myMatrix;
+   // persistent CRS view used to obtain values from SparseBlockMatrices
+   private CRSView myCRSView;
 
    // timing information for decided when to use iterative vs. direct solves
    private double myLastIterativeTimeMsec;
@@ -594,6 +596,12 @@ public class PardisoSolver implements DirectSolver {
 
       myType = type;
       myMatrix = M;
+      if (M instanceof SparseBlockMatrix) {
+         myCRSView = new CRSView ((SparseBlockMatrix)M, part, size, size);
+      }
+      else {
+         myCRSView = null;
+      }
       if ((type & Matrix.SYMMETRIC) != 0) {
          if ((type & Matrix.POSITIVE_DEFINITE) != 0) {
             setSPDMatrix (myVals, myRowOffs, myColIdxs, size, numVals);
@@ -611,6 +619,19 @@ public class PardisoSolver implements DirectSolver {
       }
    }
 
+   /**
+    * Loads myVals with the current values of the matrix supplied to
+    * analyze().
+    */
+   private void getMatrixValues() {
+      if (myCRSView != null) {
+         myCRSView.updateValues (myVals);
+      }
+      else {
+         myMatrix.getCRSValues (myVals, getPartition (myType), mySize, mySize);
+      }
+   }
+
    /**
     * Performs a numeric factorization of the matrix associated with this
     * solver, using the current numeric values contained within
@@ -631,8 +652,7 @@ public class PardisoSolver implements DirectSolver {
          throw new ImproperStateException (
             "analyze(Matrix) or analyzeAndFactor(Matrix) not previously called");
       }
-      Partition part = getPartition (myType);
-      myMatrix.getCRSValues (myVals, part, mySize, mySize);
+      getMatrixValues();
       factor (myVals);
    }
 
@@ -1361,6 +1381,7 @@ public class PardisoSolver implements DirectSolver {
  
       myType = type;
       myMatrix = null;
+      myCRSView = null;
       if ((type & Matrix.SYMMETRIC) != 0) {
          if ((type & Matrix.POSITIVE_DEFINITE) != 0) {
             setSPDMatrix (vals, rowOffs, colIdxs, size, numVals);
@@ -1623,8 +1644,7 @@ public class PardisoSolver implements DirectSolver {
          throw new ImproperStateException (
             "analyze(Matrix) or analyzeAndFactor(Matrix) not previously called");
       }  
-      Partition part = getPartition (myType);
-      myMatrix.getCRSValues (myVals, part, mySize, mySize);
+      getMatrixValues();
       return iterativeSolve (myVals, x, b, tolExp);
    }
 
@@ -0,0 +1,1632 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import maspack.matrix.CRSView;
+import maspack.matrix.ImproperStateException;
+import maspack.matrix.Matrix;
+import maspack.matrix.Matrix.Partition;
+import maspack.matrix.NumericalException;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+
+/**
+ * Pure Java sparse direct solver, which can be used as an alternative to
+ * {@link PardisoSolver} when the native Pardiso libraries are not available.
+ *
+ * <p>Symmetric matrices (either indefinite or positive definite) are factored
+ * as <code>P A P^T = L D L^T</code>, where <code>L</code> is unit lower
+ * triangular and <code>D</code> is diagonal. Non-symmetric matrices are
+ * factored as <code>P A P^T = L D U</code>, using the symmetrized sparsity
+ * structure of <code>A</code>. The factorization is supernodal and
+ * left-looking: columns with identical structure are grouped into dense
+ * supernode panels, and each supernode is updated by the descendant
+ * supernodes that it depends on.
+ *
+ * <p>The solver works in two phases, in the same way as {@link
+ * PardisoSolver}. A symbolic analysis phase, performed by one of the
+ * <code>analyze</code> methods, computes an approximate minimum degree
+ * ordering (see {@link AMDOrdering}), the elimination tree, and the supernode
+ * structure. This information is then reused by every subsequent numeric
+ * factorization performed by one of the <code>factor</code> methods, so that
+ * matrices whose structure does not change from step to step only need to be
+ * analyzed once.
+ *
+ * <p>Numeric factorization is parallelized over independent subtrees of the
+ * supernodal elimination tree using a fork-join pool. Because the
+ * computations performed for each supernode are always done in the same
+ * order, the results are identical regardless of the number of threads.
+ *
+ * <p>No dynamic pivoting is performed. Instead, variables with zero diagonal
+ * entries (such as the Lagrange multipliers of a KKT system) are ordered
+ * after their neighbors, and any remaining small pivots are statically
+ * perturbed (see {@link #setPivotPerturbation setPivotPerturbation}). Iterative
+ * refinement can be used to recover accuracy in the presence of perturbed
+ * pivots.
+ */
+public class SparseLDLTSolver implements DirectSolver {
+
+   /**
+    * Indicates that no matrix is currently set for this solver.
+    */
+   public static final int UNSET = 0;
+
+   /**
+    * Indicates that a matrix has been set and analyzed for this solver.
+    */
+   public static final int ANALYZED = 1;
+
+   /**
+    * Indicates that a matrix has been set, analyzed, and numerically factored
+    * for this solver.
+    */
+   public static final int FACTORED = 2;
+
+   // supernodes whose subtrees require less work than this are
+   // factored sequentially within a single task
+   private static final double PARALLEL_WORK_CUTOFF = 2e5;
+
+   // number of columns factored together within a supernode panel
+   private static final int PANEL_BLOCK_SIZE = 16;
+
+   /**
+    * Default number of threads used by a solver for numeric factorization,
+    * which is the number of available processors.
+    */
+   public static final int DEFAULT_NUM_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
+   private int myState = UNSET;
+   private String myErrMsg = null;
+   private int myNumThreads = DEFAULT_NUM_THREADS;
+   private ForkJoinPool myPool;
+
+   private int myPivotPerturbation = 8;
+   private int myMaxRefinementSteps = 0;
+   private int myNumRefinementSteps = 0;
+   private int myNumPerturbedPivots = 0;
+
+   // input matrix, stored using zero-based CRS indices
+   private int mySize;
+   private int myNumVals;
+   private int myType;
+   private boolean mySymmetric;
+   private int[] myRowOffs = new int[0];
+   private int[] myColIdxs = new int[0];
+   private double[] myVals = new double[0];
+   private double[] myFactoredVals = new double[0];
+   private Matrix myMatrix;
+   // persistent CRS view used to obtain values from SparseBlockMatrices
+   private CRSView myCRSView;
+
+   // ordering: myPerm[k] is the original index of the k-th pivot
+   private int[] myPerm;
+   private int[] myIperm;
+
+   // supernode structure
+   private int myNumSuper;
+   private int[] mySuperCols;     // first column of each supernode
+   private int[] mySuperRowOffs;  // offsets into mySuperRows
+   private int[] mySuperRows;     // (permuted) row indices of each supernode
+   private int[] mySuperValOffs;  // offsets into myLx and myUx
+   private int[] myFirstDesc;     // first descendant of each supernode
+   private int[] myChildOffs;     // supernode children
+   private int[] myChildren;
+   private int[] myRoots;
+   private double[] mySubtreeWork;
+   private int myMaxSuperRows;
+
+   // update lists: the supernodes which update each supernode, together
+   // with the range of their rows that lies within it
+   private int[] myUpdOffs;
+   private int[] myUpdSuper;
+   private int[] myUpdStart;
+   private int[] myUpdEnd;
+
+   // destination of each input value within myLx or myUx
+   private int[] myValDest;
+
+   // numeric factor
+   private double[] myLx;
+   private double[] myUx;
+   private double[] myD;
+   private int[] myPerturbCnts;
+   private double myPivotTol;
+
+   private double[] mySolveBuf = new double[0];
+   private double[] myResBuf = new double[0];
+   private double[] myCorBuf = new double[0];
+
+   private ThreadLocal<Workspace> myWorkspaces;
+
+   /**
+    * Temporary storage used by each thread during numeric factorization.
+    */
+   private class Workspace {
+      int[] map;
+      double[] tmp;
+
+      Workspace() {
+         map = new int[mySize];
+         tmp = new double[4*myMaxSuperRows];
+      }
+   }
+
+   /**
+    * Fork-join task which factors all the supernodes in a subtree of the
+    * elimination tree.
+    */
+   private class SubtreeTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      int mySuper;
+
+      SubtreeTask (int s) {
+         mySuper = s;
+      }
+
+      protected void compute() {
+         int s = mySuper;
+         if (mySubtreeWork[s] < PARALLEL_WORK_CUTOFF) {
+            Workspace ws = getWorkspace();
+            for (int d=myFirstDesc[s]; d<=s; d++) {
+               factorSupernode (d, ws);
+            }
+         }
+         else {
+            int nchild = myChildOffs[s+1]-myChildOffs[s];
+            if (nchild == 1) {
+               new SubtreeTask (myChildren[myChildOffs[s]]).compute();
+            }
+            else if (nchild > 1) {
+               ArrayList<SubtreeTask> tasks = new ArrayList<SubtreeTask>();
+               for (int k=myChildOffs[s]; k<myChildOffs[s+1]; k++) {
+                  tasks.add (new SubtreeTask (myChildren[k]));
+               }
+               invokeAll (tasks);
+            }
+            factorSupernode (s, getWorkspace());
+         }
+      }
+   }
+
+   /**
+    * Fork-join task which factors all the subtrees of the elimination
+    * forest.
+    */
+   private class ForestTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      protected void compute() {
+         ArrayList<SubtreeTask> tasks = new ArrayList<SubtreeTask>();
+         for (int k=0; k<myRoots.length; k++) {
+            tasks.add (new SubtreeTask (myRoots[k]));
+         }
+         invokeAll (tasks);
+      }
+   }
+
+   /**
+    * Results of a symbolic analysis, as returned by {@link #getAnalysis
+    * getAnalysis}. The contents are not modified by numeric factorization,
+    * and so may be shared by several solvers.
+    */
+   public static class Analysis {
+      private int mySize;
+      private int myNumVals;
+      private int myType;
+      private boolean mySymmetric;
+      private int[] myRowOffs;
+      private int[] myColIdxs;
+      private int[] myPerm;
+      private int[] myIperm;
+      private int myNumSuper;
+      private int[] mySuperCols;
+      private int[] mySuperRowOffs;
+      private int[] mySuperRows;
+      private int[] mySuperValOffs;
+      private int[] myFirstDesc;
+      private int[] myChildOffs;
+      private int[] myChildren;
+      private int[] myRoots;
+      private double[] mySubtreeWork;
+      private int myMaxSuperRows;
+      private int[] myUpdOffs;
+      private int[] myUpdSuper;
+      private int[] myUpdStart;
+      private int[] myUpdEnd;
+      private int[] myValDest;
+
+      Analysis (SparseLDLTSolver solver) {
+         // the symbolic arrays are reallocated by each analysis, and so can
+         // be referenced directly; the CRS buffers are reused and must be
+         // copied
+         mySize = solver.mySize;
+         myNumVals = solver.myNumVals;
+         myType = solver.myType;
+         mySymmetric = solver.mySymmetric;
+         myRowOffs = Arrays.copyOf (solver.myRowOffs, mySize+1);
+         myColIdxs = Arrays.copyOf (solver.myColIdxs, myNumVals);
+         myPerm = solver.myPerm;
+         myIperm = solver.myIperm;
+         myNumSuper = solver.myNumSuper;
+         mySuperCols = solver.mySuperCols;
+         mySuperRowOffs = solver.mySuperRowOffs;
+         mySuperRows = solver.mySuperRows;
+         mySuperValOffs = solver.mySuperValOffs;
+         myFirstDesc = solver.myFirstDesc;
+         myChildOffs = solver.myChildOffs;
+         myChildren = solver.myChildren;
+         myRoots = solver.myRoots;
+         mySubtreeWork = solver.mySubtreeWork;
+         myMaxSuperRows = solver.myMaxSuperRows;
+         myUpdOffs = solver.myUpdOffs;
+         myUpdSuper = solver.myUpdSuper;
+         myUpdStart = solver.myUpdStart;
+         myUpdEnd = solver.myUpdEnd;
+         myValDest = solver.myValDest;
+      }
+
+      /**
+       * Returns the size of the matrix that was analyzed.
+       *
+       * @return size of the analyzed matrix
+       */
+      public int getSize() {
+         return mySize;
+      }
+
+      /**
+       * Returns the number of non-zero values in the analyzed matrix.
+       *
+       * @return number of non-zero values
+       */
+      public int numNonZeroVals() {
+         return myNumVals;
+      }
+   }
+
+   /**
+    * Creates a new SparseLDLTSolver.
+    */
+   public SparseLDLTSolver() {
+      myWorkspaces = new ThreadLocal<Workspace>();
+   }
+
+   /**
+    * Returns the current state for this solver. Possible states are
+    * {@link #UNSET UNSET}, {@link #ANALYZED ANALYZED}, and
+    * {@link #FACTORED FACTORED}.
+    *
+    * @return state for this solver.
+    */
+   public int getState() {
+      return myState;
+   }
+
+   /**
+    * Sets the number of threads used for numeric factorization. Values less
+    * than 1 are clipped to 1. The default value is given by {@link
+    * #DEFAULT_NUM_THREADS}.
+    *
+    * @param num number of threads
+    */
+   public synchronized void setNumThreads (int num) {
+      num = Math.max (1, num);
+      if (num != myNumThreads) {
+         disposePool();
+         myNumThreads = num;
+      }
+   }
+
+   /**
+    * Returns the number of threads used for numeric factorization.
+    *
+    * @return number of threads
+    */
+   public synchronized int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the pivot perturbation used during numeric factorization. Pivots
+    * whose magnitude is less than <code>10^-n</code> times the magnitude of
+    * the largest matrix entry are replaced with that value (with the same
+    * sign). The default value of <code>n</code> is 8.
+    *
+    * @param n exponent for the pivot perturbation
+    */
+   public synchronized void setPivotPerturbation (int n) {
+      myPivotPerturbation = n;
+   }
+
+   /**
+    * Returns the pivot perturbation exponent.
+    *
+    * @return pivot perturbation exponent
+    * @see #setPivotPerturbation
+    */
+   public synchronized int getPivotPerturbation() {
+      return myPivotPerturbation;
+   }
+
+   /**
+    * Sets the maximum number of iterative refinement steps performed by
+    * {@link #solve(double[],double[]) solve()}. The default value is 0.
+    *
+    * @param nsteps maximum number of refinement steps
+    */
+   public synchronized void setMaxRefinementSteps (int nsteps) {
+      myMaxRefinementSteps = Math.max (0, nsteps);
+   }
+
+   /**
+    * Returns the maximum number of iterative refinement steps performed by
+    * {@link #solve(double[],double[]) solve()}.
+    *
+    * @return maximum number of refinement steps
+    */
+   public synchronized int getMaxRefinementSteps() {
+      return myMaxRefinementSteps;
+   }
+
+   /**
+    * Returns the number of iterative refinement steps that were performed by
+    * the most recent solve.
+    *
+    * @return number of refinement steps
+    */
+   public synchronized int getNumRefinementSteps() {
+      return myNumRefinementSteps;
+   }
+
+   /**
+    * Returns the number of pivots that were perturbed during the most recent
+    * numeric factorization.
+    *
+    * @return number of perturbed pivots
+    */
+   public synchronized int getNumPerturbedPivots() {
+      return myNumPerturbedPivots;
+   }
+
+   /**
+    * Returns the number of non-zero entries in the factors computed by the
+    * most recent analysis.
+    *
+    * @return number of non-zeros in the factors
+    */
+   public synchronized int getNumNonZerosInFactors() {
+      if (myState == UNSET) {
+         return 0;
+      }
+      long nnz = 0;
+      for (int s=0; s<myNumSuper; s++) {
+         long ncols = mySuperCols[s+1]-mySuperCols[s];
+         long nrows = mySuperRowOffs[s+1]-mySuperRowOffs[s];
+         nnz += nrows*ncols - ncols*(ncols-1)/2;
+      }
+      if (!mySymmetric) {
+         nnz = 2*nnz - mySize;
+      }
+      return (int)Math.min (nnz, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Returns the number of supernodes found by the most recent analysis.
+    *
+    * @return number of supernodes
+    */
+   public synchronized int numSupernodes() {
+      return myState == UNSET ? 0 : myNumSuper;
+   }
+
+   /**
+    * Returns the fill-reducing permutation computed by the most recent
+    * analysis, such that <code>perm[k]</code> gives the original index of
+    * the <code>k</code>-th pivot.
+    *
+    * @return fill-reducing permutation, or <code>null</code> if the solver
+    * has not been analyzed.
+    */
+   public synchronized int[] getPermutation() {
+      return myState == UNSET ? null : Arrays.copyOf (myPerm, mySize);
+   }
+
+   private Partition getPartition (int type) {
+      if ((type & Matrix.SYMMETRIC) != 0) {
+         return Partition.UpperTriangular;
+      }
+      else {
+         return Partition.Full;
+      }
+   }
+
+   private void allocateBufferSpace (int size, int numVals) {
+      if (myVals.length < numVals) {
+         myVals = new double[numVals];
+         myColIdxs = new int[numVals];
+      }
+      if (myRowOffs.length < size+1) {
+         myRowOffs = new int[size+1];
+      }
+   }
+
+   /**
+    * Sets the matrix associated with this solver and performs symbolic
+    * analysis on it. The matrix type is given by <code>type</code>, which
+    * should be one of {@link maspack.matrix.Matrix#INDEFINITE INDEFINITE},
+    * {@link maspack.matrix.Matrix#SYMMETRIC SYMMETRIC}, or
+    * {@link maspack.matrix.Matrix#SPD SPD}. For symmetric matrices, only the
+    * upper triangular portion is used. After calling this method, the
+    * solver's state is set to {@link #ANALYZED ANALYZED}.
+    *
+    * @param M matrix to be analyzed
+    * @param size size of the matrix to be analyzed (must be less than or
+    * equal to the actual matrix size)
+    * @param type type of the matrix to be analyzed
+    * @throws IllegalArgumentException if the matrix is not square or if
+    * <code>size</code> is out of bounds
+    */
+   public synchronized void analyze (Matrix M, int size, int type) {
+      if (M.rowSize() != M.colSize()) {
+         throw new IllegalArgumentException ("Matrix is not square");
+      }
+      if (size < 0 || size > M.rowSize()) {
+         throw new IllegalArgumentException (
+            "Requested size " + size + " is out of bounds");
+      }
+      Partition part = getPartition (type);
+      int numVals = M.numNonZeroVals (part, size, size);
+      allocateBufferSpace (size, numVals);
+      M.getCRSIndices (myColIdxs, myRowOffs, part, size, size);
+      M.getCRSValues (myVals, part, size, size);
+      // convert indices to zero-based
+      for (int k=0; k<numVals; k++) {
+         myColIdxs[k]--;
+      }
+      for (int i=0; i<=size; i++) {
+         myRowOffs[i]--;
+      }
+      doAnalyze (myVals, size, numVals, type);
+      myMatrix = M;
+      if (M instanceof SparseBlockMatrix) {
+         myCRSView = new CRSView ((SparseBlockMatrix)M, part, size, size);
+      }
+      else {
+         myCRSView = null;
+      }
+   }
+
+   /**
+    * Sets the matrix associated with this solver and performs symbolic
+    * analysis on it, using the same compressed row storage (CRS) conventions
+    * as {@link PardisoSolver#analyze(double[],int[],int[],int,int)
+    * PardisoSolver.analyze()}. Indices are 1-based, and for symmetric
+    * matrices only the upper triangular portion should be supplied. It is
+    * not possible to call {@link #factor() factor()} after calling this
+    * version of <code>analyze</code>, since there is no matrix from which
+    * values can be obtained.
+    *
+    * @param vals values of the non-zero matrix elements. Zero diagonal
+    * values are used to identify variables that should be ordered after
+    * their neighbors. May be <code>null</code>.
+    * @param colIdxs 1-based column indices of the non-zero matrix elements.
+    * @param rowOffs 1-based row start offsets into <code>vals</code> and
+    * <code>colIdxs</code>, corresponding to CRS format.
+    * @param size size of the matrix to be analyzed
+    * @param type type of the matrix to be analyzed
+    * @throws IllegalArgumentException if the CRS data structures
+    * are inconsistent.
+    */
+   public synchronized void analyze (
+      double[] vals, int[] colIdxs, int[] rowOffs, int size, int type) {
+
+      if (size < 0 || rowOffs.length < size+1) {
+         throw new IllegalArgumentException (
+            "rowOffs has insufficient length for size " + size);
+      }
+      int numVals = rowOffs[size]-1;
+      if (numVals < 0 || colIdxs.length < numVals ||
+          (vals != null && vals.length < numVals)) {
+         throw new IllegalArgumentException (
+            "colIdxs and/or vals have insufficient length");
+      }
+      allocateBufferSpace (size, numVals);
+      for (int k=0; k<numVals; k++) {
+         int j = colIdxs[k]-1;
+         if (j < 0 || j >= size) {
+            throw new IllegalArgumentException (
+               "Column index " + colIdxs[k] + " out of range");
+         }
+         myColIdxs[k] = j;
+         myVals[k] = (vals != null ? vals[k] : 1.0);
+      }
+      for (int i=0; i<=size; i++) {
+         myRowOffs[i] = rowOffs[i]-1;
+         if (i > 0 && myRowOffs[i] < myRowOffs[i-1]) {
+            throw new IllegalArgumentException (
+               "Row offsets are not monotonic");
+         }
+      }
+      doAnalyze (vals != null ? myVals : null, size, numVals, type);
+      myMatrix = null;
+      myCRSView = null;
+   }
+
+   private void doAnalyze (double[] vals, int size, int numVals, int type) {
+      myState = UNSET;
+      mySize = size;
+      myNumVals = numVals;
+      myType = type;
+      mySymmetric = ((type & Matrix.SYMMETRIC) != 0);
+
+      // build the symmetrized adjacency structure, without the diagonal
+      int[] xadj = new int[size+1];
+      boolean[] hasDiag = new boolean[size];
+      boolean[] zeroDiag = new boolean[size];
+      for (int i=0; i<size; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (j == i) {
+               hasDiag[i] = true;
+               if (vals != null && vals[k] == 0) {
+                  zeroDiag[i] = true;
+               }
+            }
+            else if (j > i || !mySymmetric) {
+               xadj[i+1]++;
+               xadj[j+1]++;
+            }
+         }
+      }
+      for (int i=0; i<size; i++) {
+         xadj[i+1] += xadj[i];
+      }
+      int[] adj = new int[xadj[size]];
+      int[] fill = Arrays.copyOf (xadj, size);
+      for (int i=0; i<size; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (j != i && (j > i || !mySymmetric)) {
+               adj[fill[i]++] = j;
+               adj[fill[j]++] = i;
+            }
+         }
+      }
+      if (!mySymmetric) {
+         // remove duplicates arising from entries that appear in both
+         // the upper and lower triangles
+         int[] mark = new int[size];
+         Arrays.fill (mark, -1);
+         int cnt = 0;
+         int start = 0;
+         for (int i=0; i<size; i++) {
+            int end = xadj[i+1];
+            xadj[i] = cnt;
+            for (int k=start; k<end; k++) {
+               int j = adj[k];
+               if (mark[j] != i) {
+                  mark[j] = i;
+                  adj[cnt++] = j;
+               }
+            }
+            start = end;
+         }
+         xadj[size] = cnt;
+      }
+      boolean anyDelayed = false;
+      for (int i=0; i<size; i++) {
+         if (!hasDiag[i]) {
+            zeroDiag[i] = true;
+         }
+         if (zeroDiag[i]) {
+            anyDelayed = true;
+         }
+      }
+
+      // fill-reducing ordering
+      AMDOrdering amd = new AMDOrdering();
+      int[] perm = amd.computeOrdering (
+         size, xadj, adj, anyDelayed ? zeroDiag : null);
+      int[] iperm = new int[size];
+      for (int k=0; k<size; k++) {
+         iperm[perm[k]] = k;
+      }
+
+      // postorder the elimination tree, so that subtrees are contiguous
+      int[] parent = computeEtree (size, xadj, adj, perm, iperm);
+      int[] post = postorder (size, parent);
+      int[] newPerm = new int[size];
+      for (int k=0; k<size; k++) {
+         newPerm[k] = perm[post[k]];
+      }
+      perm = newPerm;
+      for (int k=0; k<size; k++) {
+         iperm[perm[k]] = k;
+      }
+      parent = computeEtree (size, xadj, adj, perm, iperm);
+      myPerm = perm;
+      myIperm = iperm;
+
+      // column counts (off-diagonal) and number of children
+      int[] colCnt = new int[size];
+      int[] mark = new int[size];
+      Arrays.fill (mark, -1);
+      for (int k=0; k<size; k++) {
+         mark[k] = k;
+         int ik = perm[k];
+         for (int m=xadj[ik]; m<xadj[ik+1]; m++) {
+            int j = iperm[adj[m]];
+            while (j < k && mark[j] != k) {
+               colCnt[j]++;
+               mark[j] = k;
+               j = parent[j];
+            }
+         }
+      }
+      int[] numChildren = new int[size];
+      for (int j=0; j<size; j++) {
+         if (parent[j] != -1) {
+            numChildren[parent[j]]++;
+         }
+      }
+
+      // fundamental supernodes
+      int[] colToSuper = new int[size];
+      int ns = 0;
+      int[] superCols = new int[size+1];
+      for (int j=0; j<size; j++) {
+         if (j == 0 || !(parent[j-1] == j && colCnt[j-1] == colCnt[j]+1 &&
+                         numChildren[j] == 1)) {
+            superCols[ns++] = j;
+         }
+         colToSuper[j] = ns-1;
+      }
+      superCols[ns] = size;
+      mySuperCols = Arrays.copyOf (superCols, ns+1);
+      myNumSuper = ns;
+
+      // supernode row structures
+      mySuperRowOffs = new int[ns+1];
+      mySuperValOffs = new int[ns+1];
+      myMaxSuperRows = 0;
+      long numFactorVals = 0;
+      for (int s=0; s<ns; s++) {
+         int f = mySuperCols[s];
+         int ncols = mySuperCols[s+1]-f;
+         int nrows = colCnt[f]+1;
+         mySuperRowOffs[s+1] = mySuperRowOffs[s] + nrows;
+         numFactorVals += (long)nrows*ncols;
+         if (numFactorVals > Integer.MAX_VALUE) {
+            throw new NumericalException (
+               "SparseLDLTSolver: factor too large");
+         }
+         mySuperValOffs[s+1] = (int)numFactorVals;
+         myMaxSuperRows = Math.max (myMaxSuperRows, nrows);
+      }
+      mySuperRows = new int[mySuperRowOffs[ns]];
+      int[] rowFill = new int[ns];
+      for (int s=0; s<ns; s++) {
+         int off = mySuperRowOffs[s];
+         for (int j=mySuperCols[s]; j<mySuperCols[s+1]; j++) {
+            mySuperRows[off++] = j;
+         }
+         rowFill[s] = off;
+      }
+      int[] smark = new int[ns];
+      Arrays.fill (smark, -1);
+      Arrays.fill (mark, -1);
+      for (int k=0; k<size; k++) {
+         mark[k] = k;
+         int ik = perm[k];
+         for (int m=xadj[ik]; m<xadj[ik+1]; m++) {
+            int j = iperm[adj[m]];
+            while (j < k && mark[j] != k) {
+               int s = colToSuper[j];
+               if (k >= mySuperCols[s+1] && smark[s] != k) {
+                  smark[s] = k;
+                  mySuperRows[rowFill[s]++] = k;
+               }
+               mark[j] = k;
+               j = parent[j];
+            }
+         }
+      }
+
+      // supernodal elimination tree
+      int[] sparent = new int[ns];
+      int[] numSChildren = new int[ns];
+      int nroots = 0;
+      for (int s=0; s<ns; s++) {
+         int p = parent[mySuperCols[s+1]-1];
+         sparent[s] = (p == -1 ? -1 : colToSuper[p]);
+         if (sparent[s] == -1) {
+            nroots++;
+         }
+         else {
+            numSChildren[sparent[s]]++;
+         }
+      }
+      myChildOffs = new int[ns+1];
+      for (int s=0; s<ns; s++) {
+         myChildOffs[s+1] = myChildOffs[s] + numSChildren[s];
+      }
+      myChildren = new int[myChildOffs[ns]];
+      myRoots = new int[nroots];
+      int[] childFill = Arrays.copyOf (myChildOffs, ns);
+      nroots = 0;
+      myFirstDesc = new int[ns];
+      for (int s=0; s<ns; s++) {
+         myFirstDesc[s] = s;
+      }
+      for (int s=0; s<ns; s++) {
+         // children have lower indices, so first descendants are final
+         if (sparent[s] == -1) {
+            myRoots[nroots++] = s;
+         }
+         else {
+            int p = sparent[s];
+            myChildren[childFill[p]++] = s;
+            myFirstDesc[p] = Math.min (myFirstDesc[p], myFirstDesc[s]);
+         }
+      }
+
+      // update lists
+      int[] updCnt = new int[ns+1];
+      for (int d=0; d<ns; d++) {
+         int roff = mySuperRowOffs[d];
+         int nrows = mySuperRowOffs[d+1]-roff;
+         int ncols = mySuperCols[d+1]-mySuperCols[d];
+         int last = -1;
+         for (int p=ncols; p<nrows; p++) {
+            int a = colToSuper[mySuperRows[roff+p]];
+            if (a != last) {
+               updCnt[a+1]++;
+               last = a;
+            }
+         }
+      }
+      myUpdOffs = new int[ns+1];
+      for (int s=0; s<ns; s++) {
+         myUpdOffs[s+1] = myUpdOffs[s] + updCnt[s+1];
+      }
+      int nupd = myUpdOffs[ns];
+      myUpdSuper = new int[nupd];
+      myUpdStart = new int[nupd];
+      myUpdEnd = new int[nupd];
+      int[] updFill = Arrays.copyOf (myUpdOffs, ns);
+      mySubtreeWork = new double[ns];
+      for (int d=0; d<ns; d++) {
+         int roff = mySuperRowOffs[d];
+         int nrows = mySuperRowOffs[d+1]-roff;
+         int ncols = mySuperCols[d+1]-mySuperCols[d];
+         mySubtreeWork[d] += (double)nrows*ncols*ncols;
+         int p = ncols;
+         while (p < nrows) {
+            int a = colToSuper[mySuperRows[roff+p]];
+            int q = p+1;
+            while (q < nrows && mySuperRows[roff+q] < mySuperCols[a+1]) {
+               q++;
+            }
+            int u = updFill[a]++;
+            myUpdSuper[u] = d;
+            myUpdStart[u] = p;
+            myUpdEnd[u] = q;
+            mySubtreeWork[a] += (double)(nrows-p)*(q-p)*ncols;
+            p = q;
+         }
+      }
+      for (int s=0; s<ns; s++) {
+         if (sparent[s] != -1) {
+            mySubtreeWork[sparent[s]] += mySubtreeWork[s];
+         }
+      }
+
+      // destinations of the input values
+      myValDest = new int[numVals];
+      for (int i=0; i<size; i++) {
+         int pi = iperm[i];
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (mySymmetric && j < i) {
+               myValDest[k] = -1; // ignore lower triangular entries
+               continue;
+            }
+            int pj = iperm[j];
+            int row = Math.max (pi, pj);
+            int col = Math.min (pi, pj);
+            int s = colToSuper[col];
+            int roff = mySuperRowOffs[s];
+            int nrows = mySuperRowOffs[s+1]-roff;
+            int r = Arrays.binarySearch (mySuperRows, roff, roff+nrows, row);
+            int idx = mySuperValOffs[s] + (col-mySuperCols[s])*nrows + r-roff;
+            if (mySymmetric || pi >= pj) {
+               myValDest[k] = idx;
+            }
+            else {
+               myValDest[k] = -2-idx; // destination in myUx
+            }
+         }
+      }
+
+      allocateFactorSpace();
+      myState = ANALYZED;
+   }
+
+   /**
+    * Allocates the storage needed for the numeric factorization, based
+    * on the current symbolic analysis.
+    */
+   private void allocateFactorSpace() {
+      int nfactor = mySuperValOffs[myNumSuper];
+      myLx = new double[nfactor];
+      myUx = (mySymmetric ? myLx : new double[nfactor]);
+      myD = new double[mySize];
+      myPerturbCnts = new int[myNumSuper];
+      if (mySolveBuf.length < mySize) {
+         mySolveBuf = new double[mySize];
+         myResBuf = new double[mySize];
+         myCorBuf = new double[mySize];
+      }
+      // workspaces depend on the matrix size, so recreate them
+      myWorkspaces = new ThreadLocal<Workspace>();
+   }
+
+   /**
+    * Returns the results of the most recent symbolic analysis, so that
+    * they can later be restored using {@link #setAnalysis setAnalysis}.
+    * This allows an application that cycles between several sparsity
+    * structures to avoid repeating the analysis for each one.
+    *
+    * @return results of the most recent analysis, or <code>null</code> if
+    * the solver has not been analyzed.
+    */
+   public synchronized Analysis getAnalysis() {
+      if (myState == UNSET) {
+         return null;
+      }
+      return new Analysis (this);
+   }
+
+   /**
+    * Restores the results of a symbolic analysis previously obtained using
+    * {@link #getAnalysis getAnalysis}. The effect is the same as calling
+    * {@link #analyze(double[],int[],int[],int,int) analyze} with the CRS
+    * structure and matrix type that produced <code>analysis</code>, and so
+    * the solver can subsequently be factored using {@link #factor(double[])
+    * factor(vals)}. After calling this method, the solver's state is set to
+    * {@link #ANALYZED ANALYZED}.
+    *
+    * @param analysis symbolic analysis to restore
+    */
+   public synchronized void setAnalysis (Analysis analysis) {
+      mySize = analysis.mySize;
+      myNumVals = analysis.myNumVals;
+      myType = analysis.myType;
+      mySymmetric = analysis.mySymmetric;
+      allocateBufferSpace (mySize, myNumVals);
+      System.arraycopy (analysis.myRowOffs, 0, myRowOffs, 0, mySize+1);
+      System.arraycopy (analysis.myColIdxs, 0, myColIdxs, 0, myNumVals);
+      myPerm = analysis.myPerm;
+      myIperm = analysis.myIperm;
+      myNumSuper = analysis.myNumSuper;
+      mySuperCols = analysis.mySuperCols;
+      mySuperRowOffs = analysis.mySuperRowOffs;
+      mySuperRows = analysis.mySuperRows;
+      mySuperValOffs = analysis.mySuperValOffs;
+      myFirstDesc = analysis.myFirstDesc;
+      myChildOffs = analysis.myChildOffs;
+      myChildren = analysis.myChildren;
+      myRoots = analysis.myRoots;
+      mySubtreeWork = analysis.mySubtreeWork;
+      myMaxSuperRows = analysis.myMaxSuperRows;
+      myUpdOffs = analysis.myUpdOffs;
+      myUpdSuper = analysis.myUpdSuper;
+      myUpdStart = analysis.myUpdStart;
+      myUpdEnd = analysis.myUpdEnd;
+      myValDest = analysis.myValDest;
+      allocateFactorSpace();
+      myMatrix = null;
+      myCRSView = null;
+      myState = ANALYZED;
+   }
+
+   /**
+    * Computes the elimination tree of the permuted matrix, using Liu's
+    * algorithm with path compression.
+    */
+   private int[] computeEtree (
+      int n, int[] xadj, int[] adj, int[] perm, int[] iperm) {
+      int[] parent = new int[n];
+      int[] ancestor = new int[n];
+      for (int k=0; k<n; k++) {
+         parent[k] = -1;
+         ancestor[k] = -1;
+         int ik = perm[k];
+         for (int m=xadj[ik]; m<xadj[ik+1]; m++) {
+            int j = iperm[adj[m]];
+            while (j != -1 && j < k) {
+               int jnext = ancestor[j];
+               ancestor[j] = k;
+               if (jnext == -1) {
+                  parent[j] = k;
+               }
+               j = jnext;
+            }
+         }
+      }
+      return parent;
+   }
+
+   /**
+    * Computes a postordering of a forest described by parent pointers.
+    */
+   private int[] postorder (int n, int[] parent) {
+      int[] head = new int[n];
+      int[] next = new int[n];
+      int[] stack = new int[n];
+      Arrays.fill (head, -1);
+      // traverse in reverse so that children are visited in increasing order
+      for (int j=n-1; j>=0; j--) {
+         if (parent[j] != -1) {
+            next[j] = head[parent[j]];
+            head[parent[j]] = j;
+         }
+      }
+      int[] post = new int[n];
+      int k = 0;
+      for (int j=0; j<n; j++) {
+         if (parent[j] != -1) {
+            continue;
+         }
+         int top = 0;
+         stack[0] = j;
+         while (top >= 0) {
+            int p = stack[top];
+            int c = head[p];
+            if (c == -1) {
+               top--;
+               post[k++] = p;
+            }
+            else {
+               head[p] = next[c];
+               stack[++top] = c;
+            }
+         }
+      }
+      return post;
+   }
+
+   /**
+    * Performs a numeric factorization of the matrix associated with this
+    * solver, using the current numeric values contained within the matrix
+    * that was supplied by a previous call to {@link
+    * #analyze(maspack.matrix.Matrix,int,int) analyze(Matrix,int,int)} or
+    * {@link #analyzeAndFactor(maspack.matrix.Matrix)
+    * analyzeAndFactor(Matrix)}.  After calling this method, the solver's
+    * state is set to {@link #FACTORED FACTORED}.
+    *
+    * @throws ImproperStateException if not preceded by a call to
+    * {@link #analyze(maspack.matrix.Matrix,int,int) analyze(Matrix,int,int)} or
+    * {@link #analyzeAndFactor(maspack.matrix.Matrix) analyzeAndFactor(Matrix)}
+    */
+   public synchronized void factor() {
+      if (myMatrix == null) {
+         throw new ImproperStateException (
+            "analyze(Matrix) or analyzeAndFactor(Matrix) not previously called");
+      }
+      if (myCRSView != null) {
+         myCRSView.updateValues (myVals);
+      }
+      else {
+         myMatrix.getCRSValues (myVals, getPartition(myType), mySize, mySize);
+      }
+      factor (myVals);
+   }
+
+   /**
+    * Performs a numeric factorization of the most recently analyzed matrix
+    * using the supplied numeric values, which should be arranged in the
+    * same CRS order as the structure supplied to <code>analyze</code>.
+    * After calling this method, the solver's state is set to {@link
+    * #FACTORED FACTORED}. If the values contain non-finite numbers, or
+    * the factorization produces non-finite pivots, the factorization fails
+    * and the state is instead left at {@link #ANALYZED ANALYZED}, with a
+    * description available from {@link #getErrorMessage}.
+    *
+    * @param vals non-zero matrix element values
+    * @throws IllegalStateException if this solver's state is
+    * {@link #UNSET UNSET}
+    * @throws IllegalArgumentException if the number of supplied values is
+    * less that the number of non-zero elements in the analyzed matrix.
+    */
+   public synchronized void factor (double[] vals) {
+      if (myState == UNSET) {
+         throw new IllegalStateException ("No matrix currently set");
+      }
+      else if (vals.length < myNumVals) {
+         throw new IllegalArgumentException (
+            "Not enough values: vals.length=" + vals.length +
+            ", expected number is " + myNumVals);
+      }
+      myState = ANALYZED;
+      myErrMsg = null;
+      Arrays.fill (myLx, 0);
+      if (!mySymmetric) {
+         Arrays.fill (myUx, 0);
+      }
+      double maxAbs = 0;
+      for (int k=0; k<myNumVals; k++) {
+         int dest = myValDest[k];
+         double v = vals[k];
+         if (dest >= 0) {
+            myLx[dest] += v;
+         }
+         else if (dest <= -2) {
+            myUx[-2-dest] += v;
+         }
+         else {
+            continue;
+         }
+         double a = Math.abs (v);
+         if (a > maxAbs) {
+            maxAbs = a;
+         }
+         else if (a != a) {
+            myErrMsg = "Non-finite matrix value at index " + k;
+            return;
+         }
+      }
+      if (Double.isInfinite (maxAbs)) {
+         myErrMsg = "Non-finite matrix value";
+         return;
+      }
+      if (myFactoredVals.length < myNumVals) {
+         myFactoredVals = new double[myNumVals];
+      }
+      System.arraycopy (vals, 0, myFactoredVals, 0, myNumVals);
+      if (maxAbs == 0) {
+         maxAbs = 1;
+      }
+      myPivotTol = maxAbs*Math.pow (10, -myPivotPerturbation);
+
+      if (myNumThreads > 1 && myNumSuper > 1 && myRoots.length > 0 &&
+          maxRootWork() >= PARALLEL_WORK_CUTOFF) {
+         getPool().invoke (new ForestTask());
+      }
+      else {
+         Workspace ws = getWorkspace();
+         for (int s=0; s<myNumSuper; s++) {
+            factorSupernode (s, ws);
+         }
+      }
+      int nump = 0;
+      for (int s=0; s<myNumSuper; s++) {
+         nump += myPerturbCnts[s];
+      }
+      myNumPerturbedPivots = nump;
+      for (int k=0; k<mySize; k++) {
+         double d = myD[k];
+         if (Double.isNaN (d) || Double.isInfinite (d)) {
+            myErrMsg = "Non-finite pivot at column " + k;
+            return;
+         }
+      }
+      myState = FACTORED;
+   }
+
+   /**
+    * Returns a message describing why the most recent call to
+    * <code>factor</code> failed, or <code>null</code> if it succeeded.
+    *
+    * @return error message for the most recent factorization
+    */
+   public synchronized String getErrorMessage() {
+      return myErrMsg;
+   }
+
+   private double maxRootWork() {
+      double max = 0;
+      for (int k=0; k<myRoots.length; k++) {
+         max = Math.max (max, mySubtreeWork[myRoots[k]]);
+      }
+      return max;
+   }
+
+   private ForkJoinPool getPool() {
+      if (myPool == null) {
+         myPool = new ForkJoinPool (myNumThreads);
+      }
+      return myPool;
+   }
+
+   private void disposePool() {
+      if (myPool != null) {
+         myPool.shutdown();
+         myPool = null;
+      }
+   }
+
+   private Workspace getWorkspace() {
+      Workspace ws = myWorkspaces.get();
+      if (ws == null) {
+         ws = new Workspace();
+         myWorkspaces.set (ws);
+      }
+      return ws;
+   }
+
+   /**
+    * Computes the numeric factor for supernode s. All the descendants of s
+    * must already have been factored.
+    */
+   private void factorSupernode (int s, Workspace ws) {
+      int f = mySuperCols[s];
+      int ncols = mySuperCols[s+1]-f;
+      int roff = mySuperRowOffs[s];
+      int nrows = mySuperRowOffs[s+1]-roff;
+      int base = mySuperValOffs[s];
+      int[] map = ws.map;
+      double[] Lx = myLx;
+      double[] Ux = myUx;
+
+      for (int i=0; i<nrows; i++) {
+         map[mySuperRows[roff+i]] = i;
+      }
+      // apply updates from descendant supernodes
+      for (int u=myUpdOffs[s]; u<myUpdOffs[s+1]; u++) {
+         int d = myUpdSuper[u];
+         int p = myUpdStart[u];
+         int droff = mySuperRowOffs[d];
+         int nrd = mySuperRowOffs[d+1]-droff;
+         int nd = mySuperCols[d+1]-mySuperCols[d];
+         int dbase = mySuperValOffs[d];
+         updateColumns (
+            Lx, Ux, Lx, 0, dbase+p, nrd, mySuperCols[d], nd,
+            nrd-p, myUpdEnd[u]-p, base, nrows, droff+p, f, map, ws.tmp);
+         if (Ux != Lx) {
+            updateColumns (
+               Ux, Lx, Ux, 1, dbase+p, nrd, mySuperCols[d], nd,
+               nrd-p, myUpdEnd[u]-p, base, nrows, droff+p, f, map, ws.tmp);
+         }
+      }
+      // factor the dense supernode panel, in blocks of columns
+      int nump = 0;
+      for (int j0=0; j0<ncols; j0+=PANEL_BLOCK_SIZE) {
+         int j1 = Math.min (ncols, j0+PANEL_BLOCK_SIZE);
+         nump += factorPanelColumns (base, nrows, f, j0, j1);
+         if (j1 < ncols) {
+            // update the remaining columns of the panel
+            int sb = base + j0*nrows + j1;
+            updateColumns (
+               Lx, Ux, Lx, 0, sb, nrows, f+j0, j1-j0,
+               nrows-j1, ncols-j1, base, nrows, j1, -1, null, ws.tmp);
+            if (Ux != Lx) {
+               updateColumns (
+                  Ux, Lx, Ux, 1, sb, nrows, f+j0, j1-j0,
+                  nrows-j1, ncols-j1, base, nrows, j1, -1, null, ws.tmp);
+            }
+         }
+      }
+      myPerturbCnts[s] = nump;
+   }
+
+   /**
+    * Factors columns j0 to j1-1 of a supernode panel, assuming that the
+    * contributions from all preceding columns of the panel have already been
+    * applied, and returns the number of perturbed pivots.
+    */
+   private int factorPanelColumns (int base, int nrows, int f, int j0, int j1) {
+      double[] Lx = myLx;
+      double[] Ux = myUx;
+      double[] D = myD;
+      int nump = 0;
+      for (int j=j0; j<j1; j++) {
+         int colj = base + j*nrows;
+         for (int t=j0; t<j; t++) {
+            int colt = base + t*nrows;
+            double wt = D[f+t]*Ux[colt+j];
+            if (wt != 0) {
+               for (int i=j; i<nrows; i++) {
+                  Lx[colj+i] -= Lx[colt+i]*wt;
+               }
+            }
+            if (Ux != Lx) {
+               wt = D[f+t]*Lx[colt+j];
+               if (wt != 0) {
+                  for (int i=j+1; i<nrows; i++) {
+                     Ux[colj+i] -= Ux[colt+i]*wt;
+                  }
+               }
+            }
+         }
+         double dj = Lx[colj+j];
+         if (Math.abs(dj) < myPivotTol || Double.isNaN(dj)) {
+            dj = (dj < 0 ? -myPivotTol : myPivotTol);
+            nump++;
+         }
+         D[f+j] = dj;
+         Lx[colj+j] = 1;
+         double inv = 1/dj;
+         for (int i=j+1; i<nrows; i++) {
+            Lx[colj+i] *= inv;
+         }
+         if (Ux != Lx) {
+            Ux[colj+j] = 1;
+            for (int i=j+1; i<nrows; i++) {
+               Ux[colj+i] *= inv;
+            }
+         }
+      }
+      return nump;
+   }
+
+   /**
+    * Subtracts the product <code>A D B^T</code> from a set of destination
+    * columns, where <code>A</code> and <code>B</code> are taken from a set of
+    * <code>nt</code> previously factored source columns with leading
+    * dimension <code>ld</code>, starting at <code>sb</code>. <code>A</code>
+    * contains source rows <code>[0,mr)</code> and <code>B</code> contains
+    * source rows <code>[0,mc)</code>, with source row <code>c</code>
+    * corresponding to destination column <code>c</code>. Only the lower
+    * triangular part of the product is computed, with <code>diagOff</code>
+    * set to 1 to also skip the diagonal.
+    *
+    * <p>If <code>map</code> is <code>null</code>, source rows (and
+    * columns) map directly to destination rows starting at
+    * <code>shift</code>. Otherwise, the destination rows and columns are
+    * located using the row indices stored starting at <code>mySuperRows[shift]</code>,
+    * with <code>map</code> giving their positions within the destination
+    * supernode and <code>f</code> giving its first column.
+    *
+    * <p>The computation is blocked into groups of four destination columns,
+    * so that each source entry is loaded once per group.
+    */
+   private void updateColumns (
+      double[] A, double[] B, double[] dst, int diagOff,
+      int sb, int ld, int dOff, int nt, int mr, int mc,
+      int dstBase, int dstLd, int shift, int f, int[] map, double[] tmp) {
+
+      double[] D = myD;
+      int[] rows = mySuperRows;
+      for (int c=0; c<mc; c+=4) {
+         int nb = Math.min (4, mc-c);
+         int rs = c+diagOff;
+         for (int r=rs; r<mr; r++) {
+            tmp[4*r] = 0;
+            tmp[4*r+1] = 0;
+            tmp[4*r+2] = 0;
+            tmp[4*r+3] = 0;
+         }
+         for (int t=0; t<nt; t++) {
+            int off = sb + t*ld;
+            double dt = D[dOff+t];
+            double w0 = dt*B[off+c];
+            double w1 = (nb > 1 ? dt*B[off+c+1] : 0);
+            double w2 = (nb > 2 ? dt*B[off+c+2] : 0);
+            double w3 = (nb > 3 ? dt*B[off+c+3] : 0);
+            if (w0 == 0 && w1 == 0 && w2 == 0 && w3 == 0) {
+               continue;
+            }
+            for (int r=rs; r<mr; r++) {
+               double a = A[off+r];
+               int k = 4*r;
+               tmp[k] += a*w0;
+               tmp[k+1] += a*w1;
+               tmp[k+2] += a*w2;
+               tmp[k+3] += a*w3;
+            }
+         }
+         for (int b=0; b<nb; b++) {
+            int cc = c+b;
+            int dcol;
+            if (map == null) {
+               dcol = dstBase + (shift+cc)*dstLd;
+               for (int r=cc+diagOff; r<mr; r++) {
+                  dst[dcol+shift+r] -= tmp[4*r+b];
+               }
+            }
+            else {
+               dcol = dstBase + (rows[shift+cc]-f)*dstLd;
+               for (int r=cc+diagOff; r<mr; r++) {
+                  dst[dcol+map[rows[shift+r]]] -= tmp[4*r+b];
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Convenience method that sets the matrix associated with this solver,
+    * performs symbolic analysis on it, and factors it. The matrix is assumed
+    * to have a type of <code>Matrix.INDEFINITE</code>.
+    */
+   public void analyzeAndFactor (Matrix M) {
+      analyze (M, M.rowSize(), 0);
+      factor();
+   }
+
+   private void checkFactored() {
+      if (myState != FACTORED) {
+         throw new IllegalStateException ("Matrix is not factored");
+      }
+   }
+
+   private void checkSolveArgs (int xlen, int blen) {
+      if (xlen < mySize) {
+         throw new IllegalArgumentException (
+            "x is too small: size="+xlen+", expected size is " + mySize);
+      }
+      else if (blen < mySize) {
+         throw new IllegalArgumentException (
+            "b is too small: size="+blen+", expected size is " + mySize);
+      }
+   }
+
+   /**
+    * Solves the matrix associated with this solver for x, given a
+    * specific right-hand-side b. It is assumed that the matrix
+    * has been factored and that this solver's state is
+    * {@link #FACTORED FACTORED}.
+    *
+    * @param x returns the solution value
+    * @param b supplies the right-hand-side
+    * @throws IllegalStateException if this solver's state is not
+    * {@link #FACTORED FACTORED}
+    * @throws IllegalArgumentException if the dimensions of <code>x</code> or
+    * <code>b</code> are incompatible with the matrix size.
+    */
+   public synchronized void solve (VectorNd x, VectorNd b) {
+      checkFactored();
+      checkSolveArgs (x.size(), b.size());
+      solve (x.getBuffer(), b.getBuffer());
+   }
+
+   /**
+    * Solves the matrix associated with this solver for x, given a specific
+    * right-hand-side b. If the maximum number of refinement steps is
+    * non-zero, iterative refinement is applied to the solution. It is
+    * assumed that the matrix has been factored and that this solver's state
+    * is {@link #FACTORED FACTORED}.
+    *
+    * @param x returns the solution value
+    * @param b supplies the right-hand-side
+    * @throws IllegalStateException if this solver's state is not
+    * {@link #FACTORED FACTORED}
+    * @throws IllegalArgumentException if the dimensions of <code>x</code> or
+    * <code>b</code> are incompatible with the matrix size.
+    */
+   public synchronized void solve (double[] x, double[] b) {
+      checkFactored();
+      checkSolveArgs (x.length, b.length);
+      solveFactored (x, b);
+      myNumRefinementSteps = 0;
+      if (myMaxRefinementSteps > 0) {
+         double bnorm = norm (b, mySize);
+         double tol = 1e-15*bnorm;
+         double rnorm = residual (myFactoredVals, x, b, myResBuf);
+         while (myNumRefinementSteps < myMaxRefinementSteps && rnorm > tol) {
+            solveFactored (myCorBuf, myResBuf);
+            for (int i=0; i<mySize; i++) {
+               x[i] += myCorBuf[i];
+            }
+            myNumRefinementSteps++;
+            double rprev = rnorm;
+            rnorm = residual (myFactoredVals, x, b, myResBuf);
+            if (rnorm > 0.5*rprev) {
+               break; // refinement is no longer making progress
+            }
+         }
+      }
+   }
+
+   private void solveFactored (double[] x, double[] b) {
+      double[] y = mySolveBuf;
+      int n = mySize;
+      for (int k=0; k<n; k++) {
+         y[k] = b[myPerm[k]];
+      }
+      // forward substitution with L
+      for (int s=0; s<myNumSuper; s++) {
+         int f = mySuperCols[s];
+         int ncols = mySuperCols[s+1]-f;
+         int roff = mySuperRowOffs[s];
+         int nrows = mySuperRowOffs[s+1]-roff;
+         int base = mySuperValOffs[s];
+         for (int j=0; j<ncols; j++) {
+            double yj = y[f+j];
+            if (yj != 0) {
+               int colj = base + j*nrows;
+               for (int i=j+1; i<nrows; i++) {
+                  y[mySuperRows[roff+i]] -= myLx[colj+i]*yj;
+               }
+            }
+         }
+      }
+      for (int k=0; k<n; k++) {
+         y[k] /= myD[k];
+      }
+      // backward substitution with U (= L^T when symmetric)
+      for (int s=myNumSuper-1; s>=0; s--) {
+         int f = mySuperCols[s];
+         int ncols = mySuperCols[s+1]-f;
+         int roff = mySuperRowOffs[s];
+         int nrows = mySuperRowOffs[s+1]-roff;
+         int base = mySuperValOffs[s];
+         for (int j=ncols-1; j>=0; j--) {
+            int colj = base + j*nrows;
+            double sum = y[f+j];
+            for (int i=j+1; i<nrows; i++) {
+               sum -= myUx[colj+i]*y[mySuperRows[roff+i]];
+            }
+            y[f+j] = sum;
+         }
+      }
+      for (int k=0; k<n; k++) {
+         x[myPerm[k]] = y[k];
+      }
+   }
+
+   private double norm (double[] v, int size) {
+      double sum = 0;
+      for (int i=0; i<size; i++) {
+         sum += v[i]*v[i];
+      }
+      return Math.sqrt (sum);
+   }
+
+   /**
+    * Computes the norm of the residual
+    * <pre>
+    *   b - M x
+    * </pre>
+    * where M is the most recently factored matrix.
+    *
+    * @param x supplies the solution value
+    * @param b supplies the right-hand-side
+    * @return norm of the residual
+    * @throws IllegalStateException if this solver's state is not
+    * {@link #FACTORED FACTORED}
+    * @throws IllegalArgumentException if the dimensions of <code>x</code> or
+    * <code>b</code> are incompatible with the matrix size.
+    */
+   public synchronized double residual (double[] x, double[] b) {
+      checkFactored();
+      checkSolveArgs (x.length, b.length);
+      return residual (myFactoredVals, x, b, new double[mySize]);
+   }
+
+   /**
+    * Computes r = b - A x using the analyzed structure and the supplied
+    * values, and returns the norm of r.
+    */
+   private double residual (double[] vals, double[] x, double[] b, double[] r) {
+      for (int i=0; i<mySize; i++) {
+         r[i] = b[i];
+      }
+      for (int i=0; i<mySize; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (mySymmetric) {
+               if (j < i) {
+                  continue;
+               }
+               r[i] -= vals[k]*x[j];
+               if (j != i) {
+                  r[j] -= vals[k]*x[i];
+               }
+            }
+            else {
+               r[i] -= vals[k]*x[j];
+            }
+         }
+      }
+      return norm (r, mySize);
+   }
+
+   /**
+    * Uses the current factorization as a preconditioner to solve
+    * <code>M x = b</code>, where the current values of <code>M</code> are
+    * supplied by <code>vals</code> and may differ from those that were
+    * factored. The solution is computed by iterative refinement, with a
+    * relative stopping criterion given by <code>10^-tolExp</code>. This
+    * provides the same functionality as {@link
+    * PardisoSolver#iterativeSolve(double[],double[],double[],int)
+    * PardisoSolver.iterativeSolve()}.
+    *
+    * @param vals supplies the current matrix values
+    * @param x returns the solution value
+    * @param b supplies the right-hand side
+    * @param tolExp exponent for the stopping criterion
+    * @return number of iterations performed, negated if unsuccessful
+    * @throws IllegalStateException if the matrix has not previously been
+    * factored.
+    * @throws IllegalArgumentException if there are insufficient values
+    * specified by <code>vals</code>, the dimensions of <code>x</code> or
+    * <code>b</code> are incompatible with the matrix size, or if
+    * <code>tolExp</code> is negative.
+    */
+   public synchronized int iterativeSolve (
+      double[] vals, double[] x, double[] b, int tolExp) {
+      checkFactored();
+      checkSolveArgs (x.length, b.length);
+      if (vals.length < myNumVals) {
+         throw new IllegalArgumentException (
+            "vals is too small: length="+vals.length+
+            ", expected size is "+myNumVals);
+      }
+      else if (tolExp < 0) {
+         throw new IllegalArgumentException ("tolExp should not be negative");
+      }
+      double bnorm = norm (b, mySize);
+      if (bnorm == 0) {
+         for (int i=0; i<mySize; i++) {
+            x[i] = 0;
+         }
+         return 0;
+      }
+      int maxIters = 20;
+      double tol = Math.pow (10, -tolExp)*bnorm;
+      solveFactored (x, b);
+      double rnorm = residual (vals, x, b, myResBuf);
+      int iter = 1;
+      while (rnorm > tol) {
+         if (iter == maxIters || Double.isNaN (rnorm)) {
+            return -iter;
+         }
+         solveFactored (myCorBuf, myResBuf);
+         for (int i=0; i<mySize; i++) {
+            x[i] += myCorBuf[i];
+         }
+         double rprev = rnorm;
+         rnorm = residual (vals, x, b, myResBuf);
+         iter++;
+         if (rnorm >= rprev) {
+            return -iter; // diverging
+         }
+      }
+      return iter;
+   }
+
+   /**
+    * Computes the numeric factorization and solves the system. Since this
+    * solver does not support automatic iterative solving,
+    * <code>tolExp</code> is ignored.
+    *
+    * @param x returns the solution value
+    * @param b supplies the right-hand side
+    * @param tolExp ignored
+    */
+   public void autoFactorAndSolve (VectorNd x, VectorNd b, int tolExp) {
+      factor();
+      solve (x, b);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean hasAutoIterativeSolving() {
+      return false;
+   }
+
+   /**
+    * Releases the threads and storage used by this solver.
+    */
+   public synchronized void dispose() {
+      disposePool();
+      myState = UNSET;
+      myMatrix = null;
+      myCRSView = null;
+      myLx = null;
+      myUx = null;
+   }
+}
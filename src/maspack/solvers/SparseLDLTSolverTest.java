@@ -0,0 +1,328 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.Random;
+
+import maspack.matrix.Matrix;
+import maspack.matrix.Matrix.Partition;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.SparseMatrixNd;
+import maspack.matrix.VectorNd;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Test program for SparseLDLTSolver.
+ */
+public class SparseLDLTSolverTest extends UnitTest {
+
+   private static double EPS = 1e-10;
+
+   /**
+    * Creates a stiffness-like matrix for a grid of nodes with three degrees
+    * of freedom each, coupled to their immediate neighbors. If
+    * <code>symmetric</code> is false, the off-diagonal blocks are perturbed
+    * so that the matrix is non-symmetric.
+    */
+   SparseMatrixNd createGridMatrix (
+      int nx, int ny, int nz, boolean symmetric, Random rand) {
+      int nnodes = nx*ny*nz;
+      int size = 3*nnodes;
+      SparseMatrixNd A = new SparseMatrixNd (size, size);
+      for (int i=0; i<nx; i++) {
+         for (int j=0; j<ny; j++) {
+            for (int k=0; k<nz; k++) {
+               int n0 = (i*ny + j)*nz + k;
+               int[] nbrs = new int[] {
+                  i+1 < nx ? ((i+1)*ny + j)*nz + k : -1,
+                  j+1 < ny ? (i*ny + j+1)*nz + k : -1,
+                  k+1 < nz ? (i*ny + j)*nz + k+1 : -1 };
+               for (int n1 : nbrs) {
+                  if (n1 == -1) {
+                     continue;
+                  }
+                  for (int a=0; a<3; a++) {
+                     for (int b=0; b<3; b++) {
+                        double v = -rand.nextDouble();
+                        double vt = v;
+                        if (!symmetric) {
+                           vt += 0.1*(rand.nextDouble()-0.5);
+                        }
+                        addEntry (A, 3*n0+a, 3*n1+b, v);
+                        addEntry (A, 3*n1+b, 3*n0+a, vt);
+                        // keep the matrix diagonally dominant
+                        addEntry (A, 3*n0+a, 3*n0+a, Math.abs(v)+0.1);
+                        addEntry (A, 3*n1+b, 3*n1+b, Math.abs(vt)+0.1);
+                     }
+                  }
+               }
+            }
+         }
+      }
+      for (int i=0; i<size; i++) {
+         addEntry (A, i, i, 1.0);
+      }
+      return A;
+   }
+
+   private void addEntry (SparseMatrixNd A, int i, int j, double v) {
+      A.set (i, j, A.get (i, j) + v);
+   }
+
+   /**
+    * Creates the KKT matrix [ M G^T ; G -R ], where G describes random
+    * constraints between pairs of degrees of freedom. If <code>reg</code>
+    * is 0, the lower right block has a zero diagonal.
+    */
+   SparseMatrixNd createKKTMatrix (
+      SparseMatrixNd M, int numCon, double reg, Random rand) {
+      int sizeM = M.rowSize();
+      int size = sizeM + numCon;
+      SparseMatrixNd A = new SparseMatrixNd (size, size);
+      for (int i=0; i<sizeM; i++) {
+         for (int j=0; j<sizeM; j++) {
+            double v = M.get (i, j);
+            if (v != 0) {
+               A.set (i, j, v);
+            }
+         }
+      }
+      for (int c=0; c<numCon; c++) {
+         int i0 = rand.nextInt (sizeM);
+         int i1 = (i0 + 1 + rand.nextInt (sizeM-1)) % sizeM;
+         double g0 = rand.nextDouble()+0.5;
+         double g1 = -(rand.nextDouble()+0.5);
+         A.set (sizeM+c, i0, g0);
+         A.set (i0, sizeM+c, g0);
+         A.set (sizeM+c, i1, g1);
+         A.set (i1, sizeM+c, g1);
+         A.set (sizeM+c, sizeM+c, -reg);
+      }
+      return A;
+   }
+
+   private double residual (Matrix A, VectorNd x, VectorNd b) {
+      VectorNd r = new VectorNd (b.size());
+      new MatrixNd(A).mul (r, x);
+      r.sub (b);
+      return r.norm()/b.norm();
+   }
+
+   private VectorNd randomVector (int size, Random rand) {
+      VectorNd b = new VectorNd (size);
+      for (int i=0; i<size; i++) {
+         b.set (i, rand.nextDouble()-0.5);
+      }
+      return b;
+   }
+
+   void checkSolve (Matrix A, int type, Random rand) {
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      int size = A.rowSize();
+      solver.analyze (A, size, type);
+      for (int trial=0; trial<2; trial++) {
+         // the second trial checks that the analysis can be reused
+         solver.factor();
+         VectorNd b = randomVector (size, rand);
+         VectorNd x = new VectorNd (size);
+         solver.solve (x, b);
+         double res = residual (A, x, b);
+         if (res > EPS) {
+            throw new TestException (
+               "residual " + res + " for matrix type " + type +
+               ", size " + size);
+         }
+      }
+      solver.dispose();
+   }
+
+   /**
+    * Checks the CRS interface against a solve of the same matrix via
+    * the Matrix interface.
+    */
+   void checkCRSInterface (SparseMatrixNd A, int type, Random rand) {
+      int size = A.rowSize();
+      Partition part = ((type & Matrix.SYMMETRIC) != 0 ?
+                        Partition.UpperTriangular : Partition.Full);
+      int nvals = A.numNonZeroVals (part, size, size);
+      int[] colIdxs = new int[nvals];
+      int[] rowOffs = new int[size+1];
+      double[] vals = new double[nvals];
+      A.getCRSIndices (colIdxs, rowOffs, part);
+      A.getCRSValues (vals, part);
+
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      solver.analyze (vals, colIdxs, rowOffs, size, type);
+      solver.factor (vals);
+      VectorNd b = randomVector (size, rand);
+      double[] x = new double[size];
+      solver.solve (x, b.getBuffer());
+      double res = residual (A, new VectorNd (x), b);
+      if (res > EPS) {
+         throw new TestException ("CRS residual " + res);
+      }
+      // iterative solve with slightly perturbed values
+      double[] newVals = new double[nvals];
+      for (int k=0; k<nvals; k++) {
+         newVals[k] = vals[k]*(1 + 1e-4*(rand.nextDouble()-0.5));
+      }
+      int iters = solver.iterativeSolve (newVals, x, b.getBuffer(), 12);
+      if (iters <= 0) {
+         throw new TestException (
+            "iterative solve failed, return code=" + iters);
+      }
+      SparseMatrixNd Anew = new SparseMatrixNd (size, size);
+      for (int i=0; i<size; i++) {
+         for (int k=rowOffs[i]-1; k<rowOffs[i+1]-1; k++) {
+            int j = colIdxs[k]-1;
+            Anew.set (i, j, newVals[k]);
+            if (part == Partition.UpperTriangular) {
+               Anew.set (j, i, newVals[k]);
+            }
+         }
+      }
+      res = residual (Anew, new VectorNd (x), b);
+      if (res > 1e-11) {
+         throw new TestException ("iterative solve residual " + res);
+      }
+      solver.dispose();
+   }
+
+   /**
+    * Checks that multithreaded factorization gives results identical to
+    * single-threaded factorization.
+    */
+   void checkThreadDeterminism (Matrix A, int type, Random rand) {
+      int size = A.rowSize();
+      VectorNd b = randomVector (size, rand);
+      VectorNd x1 = new VectorNd (size);
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      solver.setNumThreads (1);
+      solver.analyze (A, size, type);
+      solver.factor();
+      solver.solve (x1, b);
+      double res = residual (A, x1, b);
+      if (res > EPS) {
+         throw new TestException ("residual " + res);
+      }
+      for (int nthreads=2; nthreads<=4; nthreads++) {
+         VectorNd x = new VectorNd (size);
+         solver.setNumThreads (nthreads);
+         solver.factor();
+         solver.solve (x, b);
+         if (!x.equals (x1)) {
+            throw new TestException (
+               "solution with " + nthreads +
+               " threads differs from single threaded solution");
+         }
+      }
+      solver.dispose();
+   }
+
+   void checkOrdering (Random rand) {
+      // the ordering must be a valid permutation, with delayed variables
+      // ordered after their neighbors
+      SparseMatrixNd M = createGridMatrix (3, 3, 3, true, rand);
+      SparseMatrixNd A = createKKTMatrix (M, 20, 0, rand);
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      int size = A.rowSize();
+      solver.analyze (A, size, Matrix.SYMMETRIC);
+      int[] perm = solver.getPermutation();
+      int[] iperm = new int[size];
+      boolean[] used = new boolean[size];
+      for (int k=0; k<size; k++) {
+         if (used[perm[k]]) {
+            throw new TestException ("permutation contains duplicates");
+         }
+         used[perm[k]] = true;
+         iperm[perm[k]] = k;
+      }
+      int sizeM = M.rowSize();
+      for (int i=sizeM; i<size; i++) {
+         for (int j=0; j<sizeM; j++) {
+            if (A.get (i, j) != 0 && iperm[j] > iperm[i]) {
+               throw new TestException (
+                  "constraint " + i + " ordered before neighbor " + j);
+            }
+         }
+      }
+      solver.factor();
+      if (solver.getNumPerturbedPivots() != 0) {
+         throw new TestException (
+            "unexpected perturbed pivots: " + solver.getNumPerturbedPivots());
+      }
+   }
+
+   void checkFactorFailure (Random rand) {
+      // non-finite values should leave the solver unfactored, and a
+      // subsequent factorization with finite values should recover
+      SparseMatrixNd M = createGridMatrix (3, 3, 3, true, rand);
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      int size = M.rowSize();
+      solver.analyze (M, size, Matrix.SYMMETRIC);
+      M.set (4, 4, Double.NaN);
+      solver.factor();
+      if (solver.getState() != SparseLDLTSolver.ANALYZED ||
+          solver.getErrorMessage() == null) {
+         throw new TestException ("factor succeeded with NaN value");
+      }
+      M.set (4, 4, Double.POSITIVE_INFINITY);
+      solver.factor();
+      if (solver.getState() != SparseLDLTSolver.ANALYZED) {
+         throw new TestException ("factor succeeded with infinite value");
+      }
+      M.set (4, 4, 10.0);
+      solver.factor();
+      if (solver.getState() != SparseLDLTSolver.FACTORED ||
+          solver.getErrorMessage() != null) {
+         throw new TestException ("factor failed with finite values");
+      }
+      VectorNd b = randomVector (size, rand);
+      VectorNd x = new VectorNd (size);
+      solver.solve (x, b);
+      double res = solver.residual (x.getBuffer(), b.getBuffer());
+      if (res/b.norm() > EPS) {
+         throw new TestException ("residual " + res);
+      }
+      solver.dispose();
+   }
+
+   public void test() {
+      Random rand = RandomGenerator.get();
+
+      SparseMatrixNd M = createGridMatrix (4, 3, 5, true, rand);
+      checkSolve (M, Matrix.SPD, rand);
+      checkSolve (M, Matrix.SYMMETRIC, rand);
+      checkSolve (createKKTMatrix (M, 25, 0, rand), Matrix.SYMMETRIC, rand);
+      checkSolve (createKKTMatrix (M, 25, 1e-2, rand), Matrix.SYMMETRIC, rand);
+
+      SparseMatrixNd N = createGridMatrix (4, 3, 5, false, rand);
+      checkSolve (N, Matrix.INDEFINITE, rand);
+      // matrix with a non-symmetric sparsity structure
+      N.set (0, N.colSize()-1, 0.01);
+      checkSolve (N, Matrix.INDEFINITE, rand);
+
+      checkCRSInterface (M, Matrix.SYMMETRIC, rand);
+      checkCRSInterface (N, Matrix.INDEFINITE, rand);
+
+      checkOrdering (rand);
+      checkFactorFailure (rand);
+
+      SparseMatrixNd B = createGridMatrix (8, 8, 8, true, rand);
+      checkThreadDeterminism (B, Matrix.SPD, rand);
+      checkThreadDeterminism (
+         createKKTMatrix (B, 100, 0, rand), Matrix.SYMMETRIC, rand);
+   }
+
+   public static void main (String[] args) {
+      SparseLDLTSolverTest tester = new SparseLDLTSolverTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
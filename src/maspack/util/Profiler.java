@@ -0,0 +1,537 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Lightweight hierarchical profiler for recording where time is spent
+ * within each step of a computation. Timed sections are delimited by calls
+ * to {@link #begin begin} and {@link #end end}, which may be nested, and
+ * each outermost section defines a <i>step</i>. Numeric counters (such as
+ * the number of constraints or non-zero matrix entries) can also be
+ * recorded for the current step using {@link #setCounter setCounter} and
+ * {@link #addCounter addCounter}. The recorded steps can then be exported as
+ * CSV, with one row per step, or as a trace-event JSON file that can be
+ * viewed with the Chrome tracing tool (<code>chrome://tracing</code>).
+ *
+ * <p>Profiling is disabled by default, in which case all the recording
+ * methods return immediately after checking a static flag, so that
+ * instrumentation can be left in place at negligible cost.
+ *
+ * <p>Only sections and counters from a single thread are recorded: the
+ * thread which begins a step owns it until the step ends, and calls made
+ * from other threads in the meantime are ignored. Work that is performed
+ * in parallel should therefore be timed from the thread which launches
+ * it.
+ */
+public class Profiler {
+
+   /**
+    * Default maximum number of steps which are retained.
+    */
+   public static final int DEFAULT_MAX_STEPS = 100000;
+
+   private static volatile boolean myEnabled = false;
+   private static int myMaxSteps = DEFAULT_MAX_STEPS;
+
+   private static long myBaseTime = System.nanoTime();
+   private static Thread myThread = null;
+   private static ArrayList<Section> myStack = new ArrayList<Section>();
+   private static ArrayList<Step> mySteps = new ArrayList<Step>();
+   private static Step myCurrentStep = null;
+   private static int myStepCount = 0;
+
+   /**
+    * Timing information for a single section.
+    */
+   private static class Section {
+      String myPath;
+      long myStart;
+      long myDuration;
+
+      Section (String path, long start) {
+         myPath = path;
+         myStart = start;
+      }
+
+      String getName() {
+         int idx = myPath.lastIndexOf ('/');
+         return idx == -1 ? myPath : myPath.substring (idx+1);
+      }
+   }
+
+   /**
+    * Sections and counters recorded for a single step.
+    */
+   private static class Step {
+      int myIndex;
+      ArrayList<Section> mySections = new ArrayList<Section>();
+      LinkedHashMap<String,Double> myCounters =
+         new LinkedHashMap<String,Double>();
+
+      Step (int idx) {
+         myIndex = idx;
+      }
+
+      long getStart() {
+         return mySections.get(0).myStart;
+      }
+
+      double getTotalTimeUsec (String path) {
+         long time = 0;
+         for (Section s : mySections) {
+            if (s.myPath.equals (path)) {
+               time += s.myDuration;
+            }
+         }
+         return time/1000.0;
+      }
+   }
+
+   private Profiler() {
+   }
+
+   /**
+    * Enables or disables profiling. Disabling profiling does not clear any
+    * steps that have already been recorded.
+    *
+    * @param enable if <code>true</code>, enables profiling
+    */
+   public static synchronized void setEnabled (boolean enable) {
+      if (enable != myEnabled) {
+         if (!enable) {
+            myStack.clear();
+            myCurrentStep = null;
+            myThread = null;
+         }
+         myEnabled = enable;
+      }
+   }
+
+   /**
+    * Queries whether profiling is enabled.
+    *
+    * @return <code>true</code> if profiling is enabled
+    */
+   public static boolean isEnabled() {
+      return myEnabled;
+   }
+
+   /**
+    * Sets the maximum number of steps which are retained. When this number
+    * is exceeded, the oldest steps are discarded.
+    *
+    * @param max maximum number of retained steps
+    */
+   public static synchronized void setMaxSteps (int max) {
+      myMaxSteps = Math.max (1, max);
+      trimSteps();
+   }
+
+   /**
+    * Returns the maximum number of steps which are retained.
+    *
+    * @return maximum number of retained steps
+    */
+   public static int getMaxSteps() {
+      return myMaxSteps;
+   }
+
+   /**
+    * Clears all recorded steps and resets the time base and step count.
+    */
+   public static synchronized void clear() {
+      mySteps.clear();
+      myStack.clear();
+      myCurrentStep = null;
+      myThread = null;
+      myStepCount = 0;
+      myBaseTime = System.nanoTime();
+   }
+
+   private static void trimSteps() {
+      int excess = mySteps.size() - myMaxSteps;
+      if (excess > 0) {
+         mySteps.subList (0, excess).clear();
+      }
+   }
+
+   private static boolean isRecordingThread() {
+      return myThread == Thread.currentThread();
+   }
+
+   /**
+    * Begins a timed section with the given name. If no section is currently
+    * open, this also begins a new step. Sections are identified by their
+    * path, formed by joining the names of all enclosing sections with
+    * '<code>/</code>'.
+    *
+    * @param name name of the section
+    */
+   public static void begin (String name) {
+      if (!myEnabled) {
+         return;
+      }
+      synchronized (Profiler.class) {
+         if (myStack.size() == 0) {
+            if (!myEnabled) {
+               return;
+            }
+            myThread = Thread.currentThread();
+            myCurrentStep = new Step (myStepCount++);
+         }
+         else if (!isRecordingThread()) {
+            return;
+         }
+         String path;
+         int depth = myStack.size();
+         if (depth == 0) {
+            path = name;
+         }
+         else {
+            path = myStack.get(depth-1).myPath + "/" + name;
+         }
+         Section section = new Section (path, System.nanoTime());
+         myCurrentStep.mySections.add (section);
+         myStack.add (section);
+      }
+   }
+
+   /**
+    * Ends the most recently begun section. If this closes the outermost
+    * section, then the current step is completed and stored. Unmatched
+    * calls are ignored.
+    */
+   public static void end() {
+      if (!myEnabled) {
+         return;
+      }
+      long time = System.nanoTime();
+      synchronized (Profiler.class) {
+         if (myStack.size() == 0 || !isRecordingThread()) {
+            return;
+         }
+         Section section = myStack.remove (myStack.size()-1);
+         section.myDuration = time - section.myStart;
+         if (myStack.size() == 0) {
+            mySteps.add (myCurrentStep);
+            trimSteps();
+            myCurrentStep = null;
+            myThread = null;
+         }
+      }
+   }
+
+   /**
+    * Ends the most recent open section with the given name, together with
+    * any sections nested inside it which have not yet been ended. This can
+    * be used (e.g., within a <code>finally</code> block) to ensure that
+    * sections are closed even if an exception is thrown inside them. Calls
+    * for which no such section is open are ignored.
+    *
+    * @param name name of the section
+    */
+   public static void end (String name) {
+      if (!myEnabled) {
+         return;
+      }
+      synchronized (Profiler.class) {
+         if (!isRecordingThread()) {
+            return;
+         }
+         for (int i=myStack.size()-1; i>=0; i--) {
+            if (myStack.get(i).getName().equals (name)) {
+               while (myStack.size() > i) {
+                  end();
+               }
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Sets the value of a named counter for the current step. Ignored if no
+    * step is currently open.
+    *
+    * @param name name of the counter
+    * @param value value of the counter
+    */
+   public static void setCounter (String name, double value) {
+      if (!myEnabled) {
+         return;
+      }
+      synchronized (Profiler.class) {
+         if (myCurrentStep != null && isRecordingThread()) {
+            myCurrentStep.myCounters.put (name, value);
+         }
+      }
+   }
+
+   /**
+    * Adds to the value of a named counter for the current step, with
+    * the counter starting at zero for each step. Ignored if no step is
+    * currently open.
+    *
+    * @param name name of the counter
+    * @param value amount to add to the counter
+    */
+   public static void addCounter (String name, double value) {
+      if (!myEnabled) {
+         return;
+      }
+      synchronized (Profiler.class) {
+         if (myCurrentStep != null && isRecordingThread()) {
+            Double prev = myCurrentStep.myCounters.get (name);
+            myCurrentStep.myCounters.put (
+               name, prev == null ? value : prev+value);
+         }
+      }
+   }
+
+   /**
+    * Returns the number of recorded steps that are currently retained.
+    *
+    * @return number of retained steps
+    */
+   public static synchronized int numSteps() {
+      return mySteps.size();
+   }
+
+   /**
+    * Returns the total time spent in a section over all retained steps.
+    *
+    * @param path path of the section
+    * @return total time, in microseconds
+    */
+   public static synchronized double getTotalTimeUsec (String path) {
+      double time = 0;
+      for (Step step : mySteps) {
+         time += step.getTotalTimeUsec (path);
+      }
+      return time;
+   }
+
+   /**
+    * Returns the time spent in a section for a specific retained step. If
+    * the section was entered more than once during the step, the times are
+    * summed.
+    *
+    * @param k index of the step, relative to the oldest retained step
+    * @param path path of the section
+    * @return section time, in microseconds
+    */
+   public static synchronized double getTimeUsec (int k, String path) {
+      return mySteps.get(k).getTotalTimeUsec (path);
+   }
+
+   /**
+    * Returns the value of a counter for a specific retained step.
+    *
+    * @param k index of the step, relative to the oldest retained step
+    * @param name name of the counter
+    * @return counter value, or <code>NaN</code> if the counter was not
+    * set during the step
+    */
+   public static synchronized double getCounter (int k, String name) {
+      Double value = mySteps.get(k).myCounters.get (name);
+      return value == null ? Double.NaN : value;
+   }
+
+   /**
+    * Returns the paths of all sections found in the retained steps, in the
+    * order in which they were first encountered.
+    */
+   private static ArrayList<String> getSectionPaths() {
+      LinkedHashSet<String> paths = new LinkedHashSet<String>();
+      for (Step step : mySteps) {
+         for (Section s : step.mySections) {
+            paths.add (s.myPath);
+         }
+      }
+      return new ArrayList<String>(paths);
+   }
+
+   /**
+    * Returns the names of all counters found in the retained steps, in the
+    * order in which they were first encountered.
+    */
+   private static ArrayList<String> getCounterNames() {
+      LinkedHashSet<String> names = new LinkedHashSet<String>();
+      for (Step step : mySteps) {
+         names.addAll (step.myCounters.keySet());
+      }
+      return new ArrayList<String>(names);
+   }
+
+   private static String csvField (String str) {
+      if (str.indexOf (',') != -1 || str.indexOf ('"') != -1) {
+         return "\"" + str.replace ("\"", "\"\"") + "\"";
+      }
+      else {
+         return str;
+      }
+   }
+
+   /**
+    * Writes the retained steps in CSV format. The first row is a header,
+    * and each subsequent row describes one step, giving the step number,
+    * its start time (in milliseconds, relative to when the profiler was
+    * last cleared), the time spent in each section (in milliseconds), and
+    * the value of each counter. Sections and counters that did not occur in
+    * a step are left empty.
+    *
+    * @param pw writer to which the data should be written
+    */
+   public static synchronized void writeCsv (PrintWriter pw) {
+      ArrayList<String> paths = getSectionPaths();
+      ArrayList<String> counters = getCounterNames();
+      pw.print ("step,start");
+      for (String path : paths) {
+         pw.print ("," + csvField (path));
+      }
+      for (String name : counters) {
+         pw.print ("," + csvField (name));
+      }
+      pw.println ("");
+      for (Step step : mySteps) {
+         pw.print (step.myIndex);
+         pw.print ("," + (step.getStart()-myBaseTime)/1e6);
+         for (String path : paths) {
+            boolean found = false;
+            long time = 0;
+            for (Section s : step.mySections) {
+               if (s.myPath.equals (path)) {
+                  time += s.myDuration;
+                  found = true;
+               }
+            }
+            pw.print (found ? ","+(time/1e6) : ",");
+         }
+         for (String name : counters) {
+            Double value = step.myCounters.get (name);
+            pw.print (value != null ? ","+value : ",");
+         }
+         pw.println ("");
+      }
+      pw.flush();
+   }
+
+   /**
+    * Writes the retained steps in CSV format to a file.
+    *
+    * @param fileName name of the file
+    * @throws IOException if an I/O error occurred
+    * @see #writeCsv(PrintWriter)
+    */
+   public static void writeCsv (String fileName) throws IOException {
+      PrintWriter pw = new PrintWriter (
+         new BufferedWriter (new FileWriter (fileName)));
+      try {
+         writeCsv (pw);
+      }
+      finally {
+         pw.close();
+      }
+   }
+
+   private static String jsonString (String str) {
+      StringBuilder sb = new StringBuilder();
+      sb.append ('"');
+      for (int i=0; i<str.length(); i++) {
+         char c = str.charAt (i);
+         if (c == '"' || c == '\\') {
+            sb.append ('\\');
+            sb.append (c);
+         }
+         else if (c < 0x20) {
+            sb.append (String.format ("\\u%04x", (int)c));
+         }
+         else {
+            sb.append (c);
+         }
+      }
+      sb.append ('"');
+      return sb.toString();
+   }
+
+   /**
+    * Writes the retained steps in the Chrome trace-event JSON format. Each
+    * section is written as a complete ("X") event, and the counters for
+    * each step are written as a counter ("C") event at the start of the
+    * step. Times are given in microseconds, relative to when the profiler
+    * was last cleared.
+    *
+    * @param pw writer to which the data should be written
+    */
+   public static synchronized void writeChromeTrace (PrintWriter pw) {
+      pw.println ("{\"traceEvents\":[");
+      boolean first = true;
+      for (Step step : mySteps) {
+         for (Section s : step.mySections) {
+            if (!first) {
+               pw.println (",");
+            }
+            pw.print (
+               "{\"name\":" + jsonString (s.getName()) +
+               ",\"cat\":\"profile\",\"ph\":\"X\"" +
+               ",\"ts\":" + (s.myStart-myBaseTime)/1000.0 +
+               ",\"dur\":" + s.myDuration/1000.0 +
+               ",\"pid\":1,\"tid\":1" +
+               ",\"args\":{\"step\":" + step.myIndex + "}}");
+            first = false;
+         }
+         if (step.myCounters.size() > 0) {
+            if (!first) {
+               pw.println (",");
+            }
+            StringBuilder args = new StringBuilder();
+            for (Map.Entry<String,Double> e : step.myCounters.entrySet()) {
+               if (args.length() > 0) {
+                  args.append (',');
+               }
+               args.append (jsonString (e.getKey()) + ":" + e.getValue());
+            }
+            pw.print (
+               "{\"name\":\"counters\",\"ph\":\"C\"" +
+               ",\"ts\":" + (step.getStart()-myBaseTime)/1000.0 +
+               ",\"pid\":1,\"args\":{" + args + "}}");
+            first = false;
+         }
+      }
+      pw.println ("");
+      pw.println ("],\"displayTimeUnit\":\"ms\"}");
+      pw.flush();
+   }
+
+   /**
+    * Writes the retained steps in the Chrome trace-event JSON format to a
+    * file.
+    *
+    * @param fileName name of the file
+    * @throws IOException if an I/O error occurred
+    * @see #writeChromeTrace(PrintWriter)
+    */
+   public static void writeChromeTrace (String fileName) throws IOException {
+      PrintWriter pw = new PrintWriter (
+         new BufferedWriter (new FileWriter (fileName)));
+      try {
+         writeChromeTrace (pw);
+      }
+      finally {
+         pw.close();
+      }
+   }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Test program for Profiler.
+ */
+public class ProfilerTest extends UnitTest {
+
+   private void busyWait (long nsec) {
+      long t0 = System.nanoTime();
+      while (System.nanoTime()-t0 < nsec) {
+      }
+   }
+
+   private void runStep (int numContacts) {
+      Profiler.begin ("advance");
+      busyWait (100000);
+      Profiler.begin ("solve");
+      Profiler.begin ("factor");
+      busyWait (200000);
+      Profiler.end();
+      Profiler.begin ("factor");
+      busyWait (200000);
+      Profiler.end();
+      Profiler.setCounter ("numContacts", numContacts);
+      Profiler.addCounter ("numChecks", 2);
+      Profiler.addCounter ("numChecks", 3);
+      Profiler.end();
+      Profiler.end();
+   }
+
+   private void checkValue (String msg, double value, double check) {
+      if (value != check) {
+         throw new TestException (msg+" is "+value+", expected "+check);
+      }
+   }
+
+   public void testDisabled() {
+      Profiler.clear();
+      Profiler.setEnabled (false);
+      runStep (1);
+      checkValue ("numSteps with profiling disabled", Profiler.numSteps(), 0);
+   }
+
+   public void testSections() {
+      Profiler.clear();
+      Profiler.setEnabled (true);
+      runStep (4);
+      runStep (7);
+      Profiler.setEnabled (false);
+
+      checkValue ("numSteps", Profiler.numSteps(), 2);
+      for (int k=0; k<2; k++) {
+         double advance = Profiler.getTimeUsec (k, "advance");
+         double solve = Profiler.getTimeUsec (k, "advance/solve");
+         double factor = Profiler.getTimeUsec (k, "advance/solve/factor");
+         if (factor < 400 || solve < factor || advance < solve+100) {
+            throw new TestException (
+               "inconsistent section times: advance=" + advance +
+               " solve=" + solve + " factor=" + factor);
+         }
+         checkValue (
+            "unknown section time", Profiler.getTimeUsec (k, "factor"), 0);
+         checkValue ("numChecks", Profiler.getCounter (k, "numChecks"), 5);
+      }
+      checkValue ("numContacts", Profiler.getCounter (0, "numContacts"), 4);
+      checkValue ("numContacts", Profiler.getCounter (1, "numContacts"), 7);
+      if (!Double.isNaN (Profiler.getCounter (0, "unknown"))) {
+         throw new TestException ("unknown counter is not NaN");
+      }
+      double total = Profiler.getTotalTimeUsec ("advance/solve/factor");
+      double check = (Profiler.getTimeUsec (0, "advance/solve/factor") +
+                      Profiler.getTimeUsec (1, "advance/solve/factor"));
+      checkValue ("total factor time", total, check);
+   }
+
+   public void testEndByName() {
+      Profiler.clear();
+      Profiler.setEnabled (true);
+      Profiler.begin ("advance");
+      Profiler.begin ("solve");
+      Profiler.begin ("factor");
+      // simulate an exception that bypasses the inner end() calls
+      Profiler.end ("unknown");
+      checkValue ("numSteps after unknown end", Profiler.numSteps(), 0);
+      Profiler.end ("advance");
+      checkValue ("numSteps after end(advance)", Profiler.numSteps(), 1);
+      runStep (1);
+      checkValue ("numSteps", Profiler.numSteps(), 2);
+      if (Profiler.getTimeUsec (1, "advance/solve/factor") == 0) {
+         throw new TestException ("section not recorded after end(name)");
+      }
+      Profiler.setEnabled (false);
+   }
+
+   public void testOtherThreads() {
+      Profiler.clear();
+      Profiler.setEnabled (true);
+      Profiler.begin ("advance");
+      Thread thread = new Thread() {
+            public void run() {
+               Profiler.begin ("worker");
+               Profiler.setCounter ("workerCount", 1);
+               Profiler.end();
+               Profiler.end();
+            }
+         };
+      thread.start();
+      try {
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         throw new TestException ("interrupted");
+      }
+      Profiler.end();
+      Profiler.setEnabled (false);
+      checkValue ("numSteps", Profiler.numSteps(), 1);
+      checkValue (
+         "worker time", Profiler.getTimeUsec (0, "advance/worker"), 0);
+      if (!Double.isNaN (Profiler.getCounter (0, "workerCount"))) {
+         throw new TestException ("counter recorded from other thread");
+      }
+   }
+
+   public void testMaxSteps() {
+      Profiler.clear();
+      Profiler.setEnabled (true);
+      Profiler.setMaxSteps (3);
+      for (int i=0; i<5; i++) {
+         runStep (i);
+      }
+      Profiler.setEnabled (false);
+      checkValue ("numSteps", Profiler.numSteps(), 3);
+      checkValue (
+         "oldest numContacts", Profiler.getCounter (0, "numContacts"), 2);
+      Profiler.setMaxSteps (Profiler.DEFAULT_MAX_STEPS);
+   }
+
+   public void testOutput() {
+      Profiler.clear();
+      Profiler.setEnabled (true);
+      runStep (4);
+      Profiler.begin ("other,step");
+      Profiler.end();
+      Profiler.setEnabled (false);
+
+      StringWriter sw = new StringWriter();
+      Profiler.writeCsv (new PrintWriter (sw));
+      String[] lines = sw.toString().split ("\n");
+      checkValue ("number of CSV lines", lines.length, 3);
+      String header =
+         "step,start,advance,advance/solve,advance/solve/factor,"+
+         "\"other,step\",numContacts,numChecks";
+      if (!lines[0].equals (header)) {
+         throw new TestException (
+            "CSV header is\n" + lines[0] + "\nexpected\n" + header);
+      }
+      String[] fields = lines[1].split (",", -1);
+      checkValue ("number of fields in row 1", fields.length, 8);
+      checkValue ("numContacts in row 1", Double.valueOf (fields[6]), 4);
+      if (!fields[5].equals ("")) {
+         throw new TestException ("missing section time is not empty");
+      }
+
+      sw = new StringWriter();
+      Profiler.writeChromeTrace (new PrintWriter (sw));
+      String trace = sw.toString();
+      if (!trace.startsWith ("{\"traceEvents\":[") ||
+          !trace.trim().endsWith ("}")) {
+         throw new TestException ("malformed trace:\n" + trace);
+      }
+      int numComplete = trace.split ("\"ph\":\"X\"", -1).length-1;
+      int numCounter = trace.split ("\"ph\":\"C\"", -1).length-1;
+      checkValue ("number of complete events", numComplete, 5);
+      checkValue ("number of counter events", numCounter, 1);
+   }
+
+   public void test() {
+      testDisabled();
+      testSections();
+      testEndByName();
+      testOtherThreads();
+      testMaxSteps();
+      testOutput();
+      Profiler.clear();
+   }
+
+   public static void main (String[] args) {
+      ProfilerTest tester = new ProfilerTest();
+      tester.runtest();
+   }
+}
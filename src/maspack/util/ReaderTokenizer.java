@@ -355,8 +355,11 @@ public class ReaderTokenizer {
       if (ungetIdx > 0) {
          c = ungetBuf[--ungetIdx];
       }
+      else if (myInIdx < myInLen) {
+         c = myInBuf[myInIdx++];
+      }
       else {
-         c = myReader.read();
+         c = fillInputAndRead();
       }
       if (c == '\n') {
          myLineNum++;
@@ -364,6 +367,89 @@ public class ReaderTokenizer {
       return c;
    }
 
+   // Input is read from the reader in blocks into myInBuf, rather than one
+   // character at a time, since Reader.read() is synchronized and usually
+   // costs a method call chain per character.
+
+   private static final int INPUT_BUFFER_SIZE = 8192;
+
+   private char[] myInBuf = new char[INPUT_BUFFER_SIZE];
+   private int myInIdx = 0;
+   private int myInLen = 0;
+
+   /**
+    * Refills the input buffer and returns the next character, or -1 if the
+    * end of input has been reached.
+    */
+   private int fillInputAndRead() throws IOException {
+      int n;
+      do {
+         n = myReader.read (myInBuf, 0, myInBuf.length);
+      }
+      while (n == 0);
+      if (n < 0) {
+         myInIdx = 0;
+         myInLen = 0;
+         return -1;
+      }
+      myInIdx = 1;
+      myInLen = n;
+      return myInBuf[0];
+   }
+
+   /**
+    * Reader returned by {@link #getReader}, which supplies any characters
+    * still in the input buffer before reading from the underlying reader.
+    */
+   private class BufferedInputReader extends Reader {
+
+      public int read() throws IOException {
+         if (myInIdx < myInLen) {
+            return myInBuf[myInIdx++];
+         }
+         else {
+            return myReader.read();
+         }
+      }
+
+      public int read (char[] buf, int off, int len) throws IOException {
+         if (len == 0) {
+            return 0;
+         }
+         else if (myInIdx < myInLen) {
+            int n = Math.min (len, myInLen-myInIdx);
+            System.arraycopy (myInBuf, myInIdx, buf, off, n);
+            myInIdx += n;
+            return n;
+         }
+         else {
+            return myReader.read (buf, off, len);
+         }
+      }
+
+      public boolean ready() throws IOException {
+         return myInIdx < myInLen || myReader.ready();
+      }
+
+      public void close() throws IOException {
+         myReader.close();
+      }
+   }
+
+   private BufferedInputReader myInputReader = new BufferedInputReader();
+
+   // powers of 10 which are exactly representable as doubles
+   private static final double[] myExactPowersOf10 = new double[] {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+   // largest mantissa which can be exactly represented as a double
+   private static final long MAX_EXACT_MANTISSA = (1L << 53);
+
+   // exponents with more digits than this are always handled by
+   // Double.parseDouble(), so that they can't overflow an int
+   private static final int MAX_FAST_EXP_DIGITS = 4;
+
    /**
     * A constant indicating the end of the input.
     */
@@ -1276,8 +1362,11 @@ public class ReaderTokenizer {
       if (ungetIdx > 0) {
          c = ungetBuf[--ungetIdx];
       }
+      else if (myInIdx < myInLen) {
+         c = myInBuf[myInIdx++];
+      }
       else {
-         c = myReader.read();
+         c = fillInputAndRead();
       }
       if (c == '\n') {
          myLineNum++;
@@ -1693,6 +1782,7 @@ public class ReaderTokenizer {
          else {
             int totalExp = -fracDigitCnt;
             boolean hasExponent = false;
+            int expDigitCnt = 0;
             if (c == 'e' || c == 'E') {
                int expSignChar = 0;
                int echar = c;
@@ -1705,7 +1795,12 @@ public class ReaderTokenizer {
                if (c >= '0' && c <= '9') {
                   hasExponent = true;
                   while (c >= '0' && c <= '9') {
-                     exp = exp * 10 + c - '0';
+                     // stop accumulating long exponents before they can
+                     // overflow; these are handled by parseDouble()
+                     if (expDigitCnt < MAX_FAST_EXP_DIGITS) {
+                        exp = exp * 10 + c - '0';
+                     }
+                     expDigitCnt++;
                      c = storeCharacterAndGetc (c);
                   }
                }
@@ -1737,7 +1832,22 @@ public class ReaderTokenizer {
                }
                return true;
             }
-            nval = Double.parseDouble (getStoredCharacters());
+            if (leadDigitCnt+fracDigitCnt <= 18 && l <= MAX_EXACT_MANTISSA &&
+                expDigitCnt <= MAX_FAST_EXP_DIGITS &&
+                totalExp >= -22 && totalExp <= 22) {
+               // Mantissa and power of 10 are both exact, so a single
+               // multiply or divide gives the correctly rounded result and
+               // we can avoid creating a string for Double.parseDouble().
+               if (totalExp < 0) {
+                  nval = l/myExactPowersOf10[-totalExp];
+               }
+               else {
+                  nval = l*myExactPowersOf10[totalExp];
+               }
+            }
+            else {
+               nval = Double.parseDouble (getStoredCharacters());
+            }
             if (negate) {
                nval = -nval;
             }
@@ -1888,17 +1998,25 @@ public class ReaderTokenizer {
     */
    public void setReader (Reader reader) {
       myReader = reader;
+      myInIdx = 0;
+      myInLen = 0;
       ungetIdx = 0;
       myLineNum = 1;
    }
 
    /**
-    * Returns the Reader which supplies the input for this tokenizer.
+    * Returns a Reader which supplies the input for this tokenizer. Since the
+    * tokenizer reads its input in blocks, this is not the Reader supplied to
+    * the constructor or {@link #setReader setReader}, but one which first
+    * returns any characters that have been read into the tokenizer's buffer
+    * but not yet consumed. Reading from it advances the input of this
+    * tokenizer. As with the original reader, the character immediately
+    * following the most recent token has already been consumed.
     * 
-    * @return this tokenizer's reader
+    * @return reader for this tokenizer's input
     */
    public Reader getReader() {
-      return myReader;
+      return myInputReader;
    }
    
    /**
@@ -2257,6 +2375,32 @@ public class ReaderTokenizer {
       return sval;
    }
 
+   /**
+    * Reads the next token, in the same way as {@link #nextToken}, but with a
+    * fast path for the case where the token is a number preceded only by
+    * whitespace. Used for reading numeric arrays.
+    */
+   private int nextNumericToken() throws IOException {
+      if (myTokenPushedBack || !myParseNumbersP || myEolIsSignificantP ||
+          mySlashSlashCommentsP || mySlashStarCommentsP) {
+         return nextToken();
+      }
+      int c = getc();
+      while (c >= 0 && c < ctype.length && (ctype[c] & C_WHITESPACE) != 0) {
+         c = getc();
+      }
+      if (c >= 0 && c < ctype.length && (ctype[c] & C_NUMBER_START) != 0) {
+         myTokenIsInteger = false;
+         myTokenIsHex = false;
+         if (parseNumber (c)) {
+            return ttype = TT_NUMBER;
+         }
+      }
+      // not a simple number, so let nextToken() handle it
+      ungetc (c);
+      return nextToken();
+   }
+
    /**
     * Reads a series of numeric tokens and returns their values. Reading halts
     * when either a non-numeric token is encountered, or <code>max</code>
@@ -2270,10 +2414,30 @@ public class ReaderTokenizer {
     * @return number of numeric tokens actually read
     */
    public int scanNumbers (double[] vals, int max) throws IOException {
+      return scanNumbers (vals, 0, max);
+   }
+
+   /**
+    * Reads a series of numeric tokens and stores their values in
+    * <code>vals</code>, starting at <code>off</code>. Reading halts when
+    * either a non-numeric token is encountered, or <code>max</code> numbers
+    * have been read. Numbers are parsed directly from the input buffer
+    * without creating intermediate objects, so this is the preferred way to
+    * read large numeric arrays.
+    * 
+    * @param vals
+    * used to return numeric values
+    * @param off
+    * offset within <code>vals</code> at which to store the first value
+    * @param max
+    * maximum number of numeric tokens to read
+    * @return number of numeric tokens actually read
+    */
+   public int scanNumbers (double[] vals, int off, int max)
+      throws IOException {
       for (int i = 0; i < max; i++) {
-         nextToken();
-         if (ttype == TT_NUMBER) {
-            vals[i] = nval;
+         if (nextNumericToken() == TT_NUMBER) {
+            vals[off+i] = nval;
          }
          else {
             return i;
@@ -2295,10 +2459,29 @@ public class ReaderTokenizer {
     * @return number of integer tokens actually read
     */
    public int scanIntegers (int[] vals, int max) throws IOException {
+      return scanIntegers (vals, 0, max);
+   }
+
+   /**
+    * Reads a series of integer tokens and stores their values in
+    * <code>vals</code>, starting at <code>off</code>. Reading halts when
+    * either a non-integer token is encountered, or <code>max</code> numbers
+    * have been read. Integers are parsed directly from the input buffer
+    * without creating intermediate objects.
+    * 
+    * @param vals
+    * used to return integer values
+    * @param off
+    * offset within <code>vals</code> at which to store the first value
+    * @param max
+    * maximum number of integer tokens to read
+    * @return number of integer tokens actually read
+    */
+   public int scanIntegers (int[] vals, int off, int max) throws IOException {
       for (int i = 0; i < max; i++) {
-         nextToken();
-         if (myTokenIsInteger) {
-            vals[i] = (int)nval;
+         nextNumericToken();
+         if (ttype == TT_NUMBER && myTokenIsInteger) {
+            vals[off+i] = (int)lval;
          } else {
             return i;
          }
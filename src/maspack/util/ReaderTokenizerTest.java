@@ -191,7 +191,99 @@ public class ReaderTokenizerTest {
       }
    }
 
+   private String numberString (double x, int i) {
+      switch (i%5) {
+         case 0: return Double.toString (x);
+         case 1: return String.format ("%g", x);
+         case 2: return String.format ("%.17g", x);
+         case 3: return String.format ("%e", x);
+         default: return String.format ("%.3f", x);
+      }
+   }
+
+   /**
+    * Checks that numbers read by nextToken() and scanNumbers() are identical
+    * to those produced by Double.parseDouble(), and that getReader() returns
+    * characters which have been buffered but not consumed.
+    */
+   public void testNumbers() throws IOException {
+      java.util.Random rand = new java.util.Random (0x1234);
+      // numbers with exponents that are long, or near the limits of
+      // the fast parsing path
+      String[] special = new String[] {
+         "1.5e4294967296", "2.0e4294967297", "1.5e-4294967296",
+         "-3.25e2147483648", "4.2E+0000000000000000000001", "3e00005",
+         "1e22", "1e23", "7e-22", "7e-23", "1.0e9999", "1.0e-9999"
+      };
+      int cnt = 2000 + special.length;
+      double[] chk = new double[cnt];
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < cnt; i++) {
+         String str;
+         if (i < special.length) {
+            str = special[i];
+         }
+         else {
+            double x =
+               (rand.nextDouble()-0.5)*Math.pow (10, rand.nextInt(40)-20);
+            if (i%7 == 0) {
+               x = rand.nextInt (1000000)/1000.0;
+            }
+            str = numberString (x, i);
+         }
+         chk[i] = Double.parseDouble (str);
+         sb.append (str);
+         sb.append (i%10 == 9 ? "\n" : " ");
+      }
+      sb.append ("] tail\nnext line\n");
+      String input = sb.toString();
+
+      ReaderTokenizer rtok = new ReaderTokenizer (new StringReader (input));
+      for (int i = 0; i < cnt; i++) {
+         if (rtok.nextToken() != ReaderTokenizer.TT_NUMBER ||
+             Double.doubleToLongBits (rtok.nval) !=
+             Double.doubleToLongBits (chk[i])) {
+            throw new TestException (
+               "nextToken: expected " + chk[i] + ", got " + rtok);
+         }
+      }
+      double[] vals = new double[cnt+10];
+      rtok = new ReaderTokenizer (new StringReader (input));
+      int n = rtok.scanNumbers (vals, 5, cnt+5);
+      if (n != cnt || rtok.ttype != ']') {
+         throw new TestException (
+            "scanNumbers: read " + n + " numbers, expected " + cnt +
+            ", terminating token " + rtok);
+      }
+      for (int i = 0; i < cnt; i++) {
+         if (Double.doubleToLongBits (vals[i+5]) !=
+             Double.doubleToLongBits (chk[i])) {
+            throw new TestException (
+               "scanNumbers: expected " + chk[i] + ", got " + vals[i+5]);
+         }
+      }
+      rtok.scanWord ("tail");
+      // the newline following "tail" has already been consumed by the
+      // tokenizer, so the reader should start at the next line
+      BufferedReader reader = new BufferedReader (rtok.getReader());
+      if (!"next line".equals (reader.readLine())) {
+         throw new TestException ("getReader did not return buffered input");
+      }
+
+      int[] ivals = new int[4];
+      rtok = new ReaderTokenizer (new StringReader ("1 -2 0x1f 4.5"));
+      n = rtok.scanIntegers (ivals, 1, 3);
+      if (n != 3 || ivals[1] != 1 || ivals[2] != -2 || ivals[3] != 31) {
+         throw new TestException ("scanIntegers failed");
+      }
+      if (rtok.scanIntegers (ivals, 0, 1) != 0 ||
+          rtok.ttype != ReaderTokenizer.TT_NUMBER || rtok.nval != 4.5) {
+         throw new TestException ("scanIntegers did not stop at 4.5");
+      }
+   }
+
    public void test() throws IOException {
+      testNumbers();
       ReaderTokenizer rtok =
          new ReaderTokenizer (new StringReader (testString1));
       rtok.slashSlashComments (true);
@@ -242,7 +334,38 @@ public class ReaderTokenizerTest {
 
    }
 
-   public void timing() {
+   public void numericTiming() throws IOException {
+      int cnt = 1000000;
+      StringBuilder sb = new StringBuilder (cnt*20);
+      java.util.Random rand = new java.util.Random (0x1234);
+      for (int i = 0; i < cnt; i++) {
+         sb.append (String.format ("%.10g", rand.nextDouble()-0.5));
+         sb.append (i%10 == 9 ? "\n" : " ");
+      }
+      String input = sb.toString();
+      double[] vals = new double[cnt];
+      long t0, t1;
+      for (int i = 0; i < 3; i++) {
+         ReaderTokenizer rtok = new ReaderTokenizer (new StringReader (input));
+         t0 = System.currentTimeMillis();
+         rtok.scanNumbers (vals, 0, cnt);
+         t1 = System.currentTimeMillis();
+         System.out.println (
+            "ReaderTokenizer.scanNumbers, " + (t1 - t0) + " msec");
+
+         String[] strs = input.split ("\\s+");
+         t0 = System.currentTimeMillis();
+         for (int k = 0; k < cnt; k++) {
+            vals[k] = Double.parseDouble (strs[k]);
+         }
+         t1 = System.currentTimeMillis();
+         System.out.println (
+            "Double.parseDouble (presplit), " + (t1 - t0) + " msec");
+      }
+   }
+
+   public void timing() throws IOException {
+      numericTiming();
       int cnt = 100000;
       StringBuffer sbuf = new StringBuffer (cnt * 80);
       for (int i = 0; i < cnt; i++) {
@@ -90,14 +90,12 @@ public class Scan {
    public static int scanDoubles (double[] vals, ReaderTokenizer rtok)
       throws IOException {
       rtok.scanToken ('[');
-      int nvals = 0;
-      while (rtok.nextToken() == ReaderTokenizer.TT_NUMBER) {
-         if (nvals >= vals.length) {
-            throw new IOException (
-               "number of values exceeds expected maximum of " + vals.length
-               + ", line " + rtok.lineno());
-         }
-         vals[nvals++] = rtok.nval;
+      int nvals = rtok.scanNumbers (vals, 0, vals.length);
+      if (nvals == vals.length &&
+          rtok.nextToken() == ReaderTokenizer.TT_NUMBER) {
+         throw new IOException (
+            "number of values exceeds expected maximum of " + vals.length
+            + ", line " + rtok.lineno());
       }
       if (rtok.ttype != ']') {
          throw new IOException ("expected token ']', got: " + rtok);
@@ -118,19 +116,78 @@ public class Scan {
     * an I/O error occured
     */
    public static double[] scanDoubles (ReaderTokenizer rtok) throws IOException {
-      ArrayList<Double> vals = new ArrayList<Double>();
+      DynamicDoubleArray vals = new DynamicDoubleArray();
       rtok.scanToken ('[');
-      while (rtok.nextToken() == ReaderTokenizer.TT_NUMBER) {
-         vals.add (rtok.nval);
-      }
+      scanNumbers (vals, rtok);
       if (rtok.ttype != ']') {
          throw new IOException ("expected token ']', got: " + rtok);
       }
-      double[] array = new double[vals.size()];
-      for (int i = 0; i < array.length; i++) {
-         array[i] = vals.get(i);
+      return vals.getArray();
+   }
+
+   /**
+    * Reads a sequence of numeric tokens and appends their values to a
+    * dynamic array. Reading halts when a non-numeric token is encountered;
+    * that token is left as the tokenizer's current token. Values are read
+    * using {@link ReaderTokenizer#scanNumbers(double[],int,int)}, without
+    * creating any intermediate objects, making this suitable for large
+    * amounts of numeric data.
+    *
+    * @param vals
+    * array to which values are appended
+    * @param rtok
+    * Tokenizer from which values are read
+    * @return number of values read
+    * @throws IOException
+    * if an I/O error occured
+    */
+   public static int scanNumbers (DynamicDoubleArray vals, ReaderTokenizer rtok)
+      throws IOException {
+      double[] buf = new double[256];
+      int nvals = 0;
+      int n;
+      do {
+         n = rtok.scanNumbers (buf, 0, buf.length);
+         vals.ensureCapacity (vals.size()+n);
+         for (int i = 0; i < n; i++) {
+            vals.add (buf[i]);
+         }
+         nvals += n;
       }
-      return array;
+      while (n == buf.length);
+      return nvals;
+   }
+
+   /**
+    * Reads a sequence of integer tokens and appends their values to a
+    * dynamic array. Reading halts when a non-integer token is encountered;
+    * that token is left as the tokenizer's current token. Values are read
+    * using {@link ReaderTokenizer#scanIntegers(int[],int,int)}, without
+    * creating any intermediate objects.
+    *
+    * @param vals
+    * array to which values are appended
+    * @param rtok
+    * Tokenizer from which values are read
+    * @return number of values read
+    * @throws IOException
+    * if an I/O error occured
+    */
+   public static int scanIntegers (DynamicIntArray vals, ReaderTokenizer rtok)
+      throws IOException {
+      int[] buf = new int[256];
+      int nvals = 0;
+      int n;
+      do {
+         n = rtok.scanIntegers (buf, 0, buf.length);
+         vals.ensureCapacity (vals.size()+n);
+         for (int i = 0; i < n; i++) {
+            vals.add (buf[i]);
+         }
+         nvals += n;
+      }
+      while (n == buf.length);
+      return nvals;
    }
 
    /**
@@ -213,17 +270,17 @@ public class Scan {
    public static int scanInts (int[] vals, ReaderTokenizer rtok)
       throws IOException {
       rtok.scanToken ('[');
-      int nvals = 0;
-      while (rtok.nextToken() == ReaderTokenizer.TT_NUMBER) {
-         if (nvals >= vals.length) {
+      int nvals = rtok.scanIntegers (vals, 0, vals.length);
+      if (nvals == vals.length) {
+         rtok.nextToken();
+      }
+      if (rtok.ttype == ReaderTokenizer.TT_NUMBER) {
+         if (nvals == vals.length) {
             throw new IOException (
                "number of values exceeds expected maximum of " + vals.length
                + ", line " + rtok.lineno());
          }
-         if (!rtok.tokenIsInteger()) {
-            throw new IOException ("integer value expected, got " + rtok);
-         }
-         vals[nvals++] = (int)rtok.lval;
+         throw new IOException ("integer value expected, got " + rtok);
       }
       if (rtok.ttype != ']') {
          throw new IOException ("expected token ']', got: " + rtok);
@@ -245,22 +302,16 @@ public class Scan {
     * an I/O error occured
     */
    public static int[] scanInts (ReaderTokenizer rtok) throws IOException {
-      ArrayList<Integer> vals = new ArrayList<Integer>();
+      DynamicIntArray vals = new DynamicIntArray();
       rtok.scanToken ('[');
-      while (rtok.nextToken() == ReaderTokenizer.TT_NUMBER) {
-         if (!rtok.tokenIsInteger()) {
-            throw new IOException ("integer value expected, got " + rtok);
-         }
-         vals.add ((int)rtok.lval);
+      scanIntegers (vals, rtok);
+      if (rtok.ttype == ReaderTokenizer.TT_NUMBER) {
+         throw new IOException ("integer value expected, got " + rtok);
       }
       if (rtok.ttype != ']') {
          throw new IOException ("expected token ']', got: " + rtok);
       }
-      int[] array = new int[vals.size()];
-      for (int i = 0; i < array.length; i++) {
-         array[i] = vals.get(i);
-      }
-      return array;
+      return vals.getArray();
    }
 
    /**